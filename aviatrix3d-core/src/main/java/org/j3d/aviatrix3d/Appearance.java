@@ -341,6 +341,7 @@ public class Appearance extends NodeComponent
         {
             material.postRender(gl);
             gl.glPopAttrib();
+            GLStateCache.invalidateCurrentLighting();
         }
 
         if(pointAttr != null)
@@ -369,6 +370,7 @@ public class Appearance extends NodeComponent
             textureUnits[0].postRender(gl, SINGLE_TEXTURE);
             textureUnits[0].deactivateTexture(gl, SINGLE_TEXTURE);
             gl.glPopAttrib();
+            GLStateCache.invalidateCurrentTextures();
         }
         else if(numTextures > 1)
         {
@@ -379,6 +381,7 @@ public class Appearance extends NodeComponent
             }
 
             gl.glPopAttrib();
+            GLStateCache.invalidateCurrentTextures();
         }
     }
 
@@ -82,6 +82,9 @@ public abstract class AudioComponent extends NodeComponent
     /** Does the sample loop */
     protected boolean loop;
 
+    /** Scratch value for reading the playback position from OpenAL */
+    private float[] offsetValue;
+
     /**
      * Constructs an Audio component with default values.
      */
@@ -90,6 +93,7 @@ public abstract class AudioComponent extends NodeComponent
         bufferId = -1;
         listeners = new AudioUpdateListener[LISTENER_SIZE];
         pitch = 1.0f;
+        offsetValue = new float[1];
     }
 
     //---------------------------------------------------------------
@@ -186,6 +190,77 @@ public abstract class AudioComponent extends NodeComponent
     // Local Methods
     //---------------------------------------------------------------
 
+    /**
+     * Get the length of the sample data in seconds, based on the current
+     * format and frequency.
+     *
+     * @return The length in seconds or zero if there is no data
+     */
+    public float getDuration()
+    {
+        int frame_size = getFrameSize();
+
+        if(data == null || frequency <= 0 || frame_size == 0)
+            return 0;
+
+        return (float)data.limit() / (frame_size * frequency);
+    }
+
+    /**
+     * Check to see if this component streams its data through a queue of
+     * buffers, rather than a single buffer shared by all sources.
+     *
+     * @return false always unless overridden
+     */
+    public boolean isStreamed()
+    {
+        return false;
+    }
+
+    /**
+     * Attach the sample data to the given source, ready to play from the
+     * given position. {@link #getBufferId(AL, int)} must have been called
+     * successfully first.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     * @param offset The position to start from in seconds
+     */
+    public void attachSource(AL al, int source, float offset)
+    {
+        al.alSourcei(source, AL.AL_BUFFER, bufferId);
+        al.alSourcef(source, AL.AL_SEC_OFFSET, offset);
+    }
+
+    /**
+     * Per-frame update of a playing source. Streamed components use this to
+     * keep the source fed with data.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     * @return true if there is more data to come for the source
+     */
+    public boolean updateSource(AL al, int source)
+    {
+        return false;
+    }
+
+    /**
+     * Stop the given source and remove the sample data from it.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     * @return The playback position the source had reached, in seconds
+     */
+    public float detachSource(AL al, int source)
+    {
+        al.alGetSourcef(source, AL.AL_SEC_OFFSET, offsetValue, 0);
+        al.alSourceStop(source);
+        al.alSourcei(source, AL.AL_BUFFER, 0);
+
+        return offsetValue[0];
+    }
+
     /**
      * Add a listener for audio change updates.
      *
@@ -285,6 +360,36 @@ public abstract class AudioComponent extends NodeComponent
      */
     public abstract void clearLocalData();
 
+    /**
+     * Get the number of bytes in one sample frame of the current format.
+     * Accepts either the FORMAT_ constants from {@link AudioSource} or the
+     * OpenAL format constants.
+     *
+     * @return The frame size in bytes or zero if the format is not known
+     */
+    protected int getFrameSize()
+    {
+        switch(format)
+        {
+            case FORMAT_MONO8:
+            case AL.AL_FORMAT_MONO8:
+                return 1;
+
+            case FORMAT_MONO16:
+            case FORMAT_SETERO8:
+            case AL.AL_FORMAT_MONO16:
+            case AL.AL_FORMAT_STEREO8:
+                return 2;
+
+            case FORMAT_STEREO16:
+            case AL.AL_FORMAT_STEREO16:
+                return 4;
+
+            default:
+                return 0;
+        }
+    }
+
     /**
      * Send off a audio update event.
      *
@@ -48,9 +48,6 @@ public class BackgroundSound extends Sound
     private static final String BUFFER_PARAMS_PROP =
         "org.j3d.aviatrix3d.BackgroundSound.sourceParamsFailedMsg";
 
-    /** The OpenAL source */
-    private int source;
-
     /**
      * Creates a new background sound.
      */
@@ -98,13 +95,7 @@ public class BackgroundSound extends Sound
             dataChanged = false;
             playChanged = true;
 
-            // Bind buffer with a source.
-            values.rewind();
-
-            al.alGenSources(1, values);
-            source = values.get(0);
-
-            int error = al.alGetError();
+            int error = generateSource(al);
             if (error != AL.AL_NO_ERROR)
             {
                 I18nManager intl_mgr = I18nManager.getManager();
@@ -120,12 +111,12 @@ public class BackgroundSound extends Sound
             }
             else
             {
-                al.alSourcei(source, AL.AL_BUFFER, buffer);
-                al.alSourcef(source, AL.AL_GAIN, 1.0f);
+                soundSource.attachSource(al, source, playbackOffset);
+                al.alSourcef(source, AL.AL_GAIN, intensity);
 
                 al.alSource3f(source, AL.AL_POSITION, 0, 0, 0);
                 al.alSourcei(source, AL.AL_SOURCE_RELATIVE, AL.AL_TRUE);
-                al.alSourcei(source, AL.AL_LOOPING, loop ? 1 : 0);
+                al.alSourcei(source, AL.AL_LOOPING, isSourceLooped() ? 1 : 0);
                 al.alSourcef(source, AL.AL_PITCH, pitch);
 
                 error = al.alGetError();
@@ -148,38 +139,13 @@ public class BackgroundSound extends Sound
         if (paramsChanged)
         {
             al.alSourcef(source, AL.AL_PITCH, pitch);
-            al.alSourcei(source, AL.AL_LOOPING, loop ? 1 : 0);
+            al.alSourcef(source, AL.AL_GAIN, intensity);
+            al.alSourcei(source, AL.AL_LOOPING, isSourceLooped() ? 1 : 0);
 
             paramsChanged = false;
         }
 
-        if (playChanged)
-        {
-            if (playing && paused)
-            {
-                al.alSourcePlay(source);
-            }
-
-            if (playing)
-            {
-                if (paused)
-                    al.alSourcePause(source);
-                else
-                    al.alSourcePlay(source);
-            }
-            else
-                al.alSourceStop(source);
-
-            playChanged = false;
-        }
-        else if (playing)
-        {
-
-            values.rewind();
-            al.alGetSourcei(source, AL.AL_SOURCE_STATE, values);
-            if (values.get(0) == AL.AL_STOPPED)
-                playing = false;
-        }
+        updatePlayState(al);
     }
 
     /**
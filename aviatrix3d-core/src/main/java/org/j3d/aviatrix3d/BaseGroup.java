@@ -160,7 +160,7 @@ public abstract class BaseGroup extends BaseNode
         dirtyBoundsCount = 0;
 
         if(parent != null)
-            parent.updateBounds();
+            parent.childBoundsUpdated(this);
     }
 
     /**
@@ -23,6 +23,7 @@ import org.j3d.util.I18nManager;
 // Local imports
 import org.j3d.aviatrix3d.rendering.AppearanceAttributeRenderable;
 import org.j3d.aviatrix3d.rendering.DeletableRenderable;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 
 /**
  * Describes attributes used for blending any drawing primitives.
@@ -306,6 +307,36 @@ public class BlendAttributes extends NodeComponent
             }
         }
 
+        // When the output device is tracking state, issue the calls directly
+        // so that any that are already set can be skipped.
+        if(GLStateCache.getCurrentCache() != null)
+        {
+            GLStateCache.glEnable(gl, GL.GL_BLEND);
+            GLStateCache.glBlendEquation(gl, blendEquation);
+
+            if(needBlendColor && hasImaging)
+                GLStateCache.glBlendColor(gl,
+                                          blendColor[0],
+                                          blendColor[1],
+                                          blendColor[2],
+                                          blendColor[3]);
+
+            if(useSeparatedBlend)
+            {
+                GLStateCache.glBlendFuncSeparate(gl,
+                                                 rgbSourceMode,
+                                                 rgbDestMode,
+                                                 alphaSourceMode,
+                                                 alphaDestMode);
+            }
+            else
+            {
+                GLStateCache.glBlendFunc(gl, rgbSourceMode, rgbDestMode);
+            }
+
+            return;
+        }
+
         Integer listName = (Integer)displayListMap.get(gl);
 
         if(listName == null)
@@ -351,7 +382,7 @@ public class BlendAttributes extends NodeComponent
     @Override
     public void postRender(GL2 gl)
     {
-        gl.glDisable(GL.GL_BLEND);
+        GLStateCache.glDisable(gl, GL.GL_BLEND);
     }
 
     //---------------------------------------------------------------
@@ -47,11 +47,12 @@ public class BoundingBox extends BoundingVolume
     /** The size of the box based on the center values */
     private float[] size;
     
-    /** The vertices of the box */
-    private float[][] vert;
-    
-    /** The transformed vertices of the box, used in checkIntersectionFrustum */
-    private float[][] xvert;
+    /**
+     * The index of the frustum plane that last rejected this box. Tested
+     * first on the next frustum check as objects that were out last frame
+     * are usually out for the same reason this frame.
+     */
+    private int lastOutPlane;
     
     /**
      * The default constructor with the sphere radius as one and
@@ -65,14 +66,6 @@ public class BoundingBox extends BoundingVolume
         center = new float[3];
         size = new float[3];
         
-        vert = new float[8][];
-        xvert = new float[8][];
-        for ( int i = 0; i < 8; i++ ) 
-        {
-            vert[i] = new float[3];
-            xvert[i] = new float[3];
-        }
-        
         max.w = 0;
     }
     
@@ -632,71 +625,50 @@ public class BoundingBox extends BoundingVolume
     @Override
     public int checkIntersectionFrustum(Vector4d[] planes, Matrix4d mat)
     {
-        // transform the vertices of the bounding box
-        // for comparison with the view frustum
-        double x;
-        double y;
-        double z;
-        
-        for (int i = 0; i < 8; i++) 
-        {
-            x = vert[i][0];
-            y = vert[i][1];
-            z = vert[i][2];
-            
-            xvert[i][0] = (float)(mat.m00 * x + mat.m01 * y + mat.m02 * z + mat.m03);
-            xvert[i][1] = (float)(mat.m10 * x + mat.m11 * y + mat.m12 * z + mat.m13);
-            xvert[i][2] = (float)(mat.m20 * x + mat.m21 * y + mat.m22 * z + mat.m23);
-        }
-        
-        int cnt;
-        int cnt2 = 0;
-        
-        for(int p = 0; p < 6; p++)
+        // Transform the center into world space. The extents are handled per
+        // plane by projecting them onto the plane normal, which gives the
+        // distance to the nearest (n-vertex) and furthest (p-vertex) corners
+        // without needing to transform all 8 corners.
+        double c_x = center[0];
+        double c_y = center[1];
+        double c_z = center[2];
+
+        double w_x = mat.m00 * c_x + mat.m01 * c_y + mat.m02 * c_z + mat.m03;
+        double w_y = mat.m10 * c_x + mat.m11 * c_y + mat.m12 * c_z + mat.m13;
+        double w_z = mat.m20 * c_x + mat.m21 * c_y + mat.m22 * c_z + mat.m23;
+
+        double h_x = size[0];
+        double h_y = size[1];
+        double h_z = size[2];
+
+        boolean all_in = true;
+        int p = lastOutPlane;
+
+        for(int i = 0; i < 6; i++)
         {
-            cnt = 0;
-            if(planes[p].x * xvert[0][0] + planes[p].y * xvert[0][1] +
-                planes[p].z * xvert[0][2] + planes[p].w > 0 )
-                cnt++;
-            
-            if(planes[p].x * xvert[1][0] + planes[p].y * xvert[1][1] +
-                planes[p].z * xvert[1][2] + planes[p].w > 0 )
-                cnt++;
-            
-            if(planes[p].x * xvert[2][0] + planes[p].y * xvert[2][1] +
-                planes[p].z * xvert[2][2] + planes[p].w > 0 )
-                cnt++;
-             
-            if(planes[p].x * xvert[3][0] + planes[p].y * xvert[3][1] +
-                planes[p].z * xvert[3][2] + planes[p].w > 0 )
-                cnt++;
-            
-            if(planes[p].x * xvert[4][0] + planes[p].y * xvert[4][1] +
-                planes[p].z * xvert[4][2] + planes[p].w > 0 )
-                cnt++;
-            
-            if(planes[p].x * xvert[5][0] + planes[p].y * xvert[5][1] +
-                planes[p].z * xvert[5][2] + planes[p].w > 0 )
-                cnt++;
-             
-            if(planes[p].x * xvert[6][0] + planes[p].y * xvert[6][1] +
-                planes[p].z * xvert[6][2] + planes[p].w > 0 )
-                cnt++;
-             
-            if(planes[p].x * xvert[7][0] + planes[p].y * xvert[7][1] +
-                planes[p].z * xvert[7][2] + planes[p].w > 0 )
-                cnt++;
-             
-            if(cnt == 0)
+            Vector4d plane = planes[p];
+
+            double dist = plane.x * w_x + plane.y * w_y + plane.z * w_z +
+                          plane.w;
+
+            double radius =
+                h_x * Math.abs(plane.x * mat.m00 + plane.y * mat.m10 + plane.z * mat.m20) +
+                h_y * Math.abs(plane.x * mat.m01 + plane.y * mat.m11 + plane.z * mat.m21) +
+                h_z * Math.abs(plane.x * mat.m02 + plane.y * mat.m12 + plane.z * mat.m22);
+
+            if(dist + radius <= 0)
             {
+                lastOutPlane = p;
                 return FRUSTUM_ALLOUT;
             }
-            
-            if(cnt == 8)
-                cnt2++;
+
+            if(dist - radius <= 0)
+                all_in = false;
+
+            p = (p == 5) ? 0 : p + 1;
         }
-        
-        return (cnt2 == 6) ? FRUSTUM_ALLIN : FRUSTUM_PARTIAL;
+
+        return all_in ? FRUSTUM_ALLIN : FRUSTUM_PARTIAL;
     }
 
     /**
@@ -778,6 +750,63 @@ public class BoundingBox extends BoundingVolume
     // Local methods
     //---------------------------------------------------------------
 
+    /**
+     * Check whether this volume intersects with the view frustum, where the
+     * planes are provided in a single flat array. Each plane takes 4 values
+     * in the order x, y, z, w so the array must be at least 24 long. This
+     * avoids the pointer chasing of the Vector4d form and is the same layout
+     * used by {@link BoundingBoxBatch}.
+     *
+     * @param planes The 6 planes of the frustum in flat form
+     * @param mat The vworld to local transformation matrix
+     * @return int FRUSTUM_ALLOUT, FRUSTUM_ALLIN, FRUSTUM_PARTIAL.
+     */
+    public int checkIntersectionFrustum(double[] planes, Matrix4d mat)
+    {
+        double c_x = center[0];
+        double c_y = center[1];
+        double c_z = center[2];
+
+        double w_x = mat.m00 * c_x + mat.m01 * c_y + mat.m02 * c_z + mat.m03;
+        double w_y = mat.m10 * c_x + mat.m11 * c_y + mat.m12 * c_z + mat.m13;
+        double w_z = mat.m20 * c_x + mat.m21 * c_y + mat.m22 * c_z + mat.m23;
+
+        double h_x = size[0];
+        double h_y = size[1];
+        double h_z = size[2];
+
+        boolean all_in = true;
+        int p = lastOutPlane;
+
+        for(int i = 0; i < 6; i++)
+        {
+            int idx = p * 4;
+            double p_x = planes[idx];
+            double p_y = planes[idx + 1];
+            double p_z = planes[idx + 2];
+
+            double dist = p_x * w_x + p_y * w_y + p_z * w_z + planes[idx + 3];
+
+            double radius =
+                h_x * Math.abs(p_x * mat.m00 + p_y * mat.m10 + p_z * mat.m20) +
+                h_y * Math.abs(p_x * mat.m01 + p_y * mat.m11 + p_z * mat.m21) +
+                h_z * Math.abs(p_x * mat.m02 + p_y * mat.m12 + p_z * mat.m22);
+
+            if(dist + radius <= 0)
+            {
+                lastOutPlane = p;
+                return FRUSTUM_ALLOUT;
+            }
+
+            if(dist - radius <= 0)
+                all_in = false;
+
+            p = (p == 5) ? 0 : p + 1;
+        }
+
+        return all_in ? FRUSTUM_ALLIN : FRUSTUM_PARTIAL;
+    }
+
     /**
      * Get the size of the bounding volume.
      *
@@ -918,7 +947,7 @@ public class BoundingBox extends BoundingVolume
     }
     
     /**
-     * Update the extents, center and vertices of the box based on the
+     * Update the extents and center of the box based on the
      * current min and max positions.
      */
     private void recalcExtents()
@@ -938,15 +967,6 @@ public class BoundingBox extends BoundingVolume
         
         if(size[2] < 0)
             size[2] = -size[2];
-        
-        vert[0][0] = (float)max.x; vert[0][1] = (float)max.y; vert[0][2] = (float)max.z;
-        vert[1][0] = (float)max.x; vert[1][1] = (float)max.y; vert[1][2] = (float)min.z;
-        vert[2][0] = (float)max.x; vert[2][1] = (float)min.y; vert[2][2] = (float)max.z;
-        vert[3][0] = (float)max.x; vert[3][1] = (float)min.y; vert[3][2] = (float)min.z;
-        vert[4][0] = (float)min.x; vert[4][1] = (float)max.y; vert[4][2] = (float)max.z;
-        vert[5][0] = (float)min.x; vert[5][1] = (float)max.y; vert[5][2] = (float)min.z;
-        vert[6][0] = (float)min.x; vert[6][1] = (float)min.y; vert[6][2] = (float)max.z;
-        vert[7][0] = (float)min.x; vert[7][1] = (float)min.y; vert[7][2] = (float)min.z;
     }
 
     /**
@@ -0,0 +1,298 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+// External imports
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
+
+// Local imports
+import org.j3d.aviatrix3d.rendering.BoundingVolume;
+
+/**
+ * A collection of world-space axis aligned boxes stored as a structure of
+ * arrays, for testing large numbers of boxes against a view frustum in one
+ * call.
+ * <p>
+ *
+ * Each box is stored as a center and half-size, with one primitive array per
+ * component. The frustum test loops over the planes on the outside and the
+ * boxes on the inside, with no branches or object dereferences in the inner
+ * loop, so that the JIT is able to unroll and vectorise it. The planes are
+ * provided in the flat form, with 4 values per plane in the order x, y, z, w.
+ * <p>
+ *
+ * Boxes added with a transform are converted to the world-space box that
+ * encloses the transformed box, so the results are conservative compared to
+ * {@link BoundingBox#checkIntersectionFrustum(double[], Matrix4d)} for
+ * rotated boxes. They are never reported as out when any part is in.
+ * <p>
+ *
+ * This class is not thread safe.
+ */
+public class BoundingBoxBatch
+{
+    /** The number of values each plane takes in the flat plane array */
+    public static final int PLANE_STRIDE = 4;
+
+    /** The default number of boxes to allocate space for */
+    private static final int DEFAULT_SIZE = 64;
+
+    /** Center X coordinate of each box */
+    private double[] centerX;
+
+    /** Center Y coordinate of each box */
+    private double[] centerY;
+
+    /** Center Z coordinate of each box */
+    private double[] centerZ;
+
+    /** Half size along the X axis of each box */
+    private double[] sizeX;
+
+    /** Half size along the Y axis of each box */
+    private double[] sizeY;
+
+    /** Half size along the Z axis of each box */
+    private double[] sizeZ;
+
+    /** The number of valid boxes in the arrays */
+    private int numBoxes;
+
+    /** Working var for fetching the box details */
+    private float[] wkVec1;
+
+    /** Working var for fetching the box details */
+    private float[] wkVec2;
+
+    /**
+     * Create a new batch with space for the default number of boxes.
+     */
+    public BoundingBoxBatch()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Create a new batch with space for the given number of boxes. The batch
+     * will grow as needed if more are added.
+     *
+     * @param size The initial number of boxes to allocate space for
+     */
+    public BoundingBoxBatch(int size)
+    {
+        if(size < 1)
+            size = 1;
+
+        centerX = new double[size];
+        centerY = new double[size];
+        centerZ = new double[size];
+        sizeX = new double[size];
+        sizeY = new double[size];
+        sizeZ = new double[size];
+
+        wkVec1 = new float[3];
+        wkVec2 = new float[3];
+    }
+
+    //---------------------------------------------------------------
+    // Local methods
+    //---------------------------------------------------------------
+
+    /**
+     * Convert the vector form of the frustum planes used by the cull stages
+     * to the flat array form.
+     *
+     * @param planes The 6 planes to convert
+     * @param output Array to copy the values to, at least 24 long
+     */
+    public static void flattenPlanes(Vector4d[] planes, double[] output)
+    {
+        for(int i = 0; i < 6; i++)
+        {
+            int idx = i * PLANE_STRIDE;
+            output[idx] = planes[i].x;
+            output[idx + 1] = planes[i].y;
+            output[idx + 2] = planes[i].z;
+            output[idx + 3] = planes[i].w;
+        }
+    }
+
+    /**
+     * Remove all the boxes from the batch, ready for refilling. Does not
+     * release the allocated memory.
+     */
+    public void clear()
+    {
+        numBoxes = 0;
+    }
+
+    /**
+     * Get the number of boxes currently held in the batch.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int size()
+    {
+        return numBoxes;
+    }
+
+    /**
+     * Add a box described by its world-space center and half size.
+     *
+     * @param center The center of the box
+     * @param halfSize The distance from the center to the edge on each axis
+     * @return The index of the box in the batch
+     */
+    public int add(float[] center, float[] halfSize)
+    {
+        ensureCapacity(numBoxes + 1);
+
+        int idx = numBoxes++;
+
+        centerX[idx] = center[0];
+        centerY[idx] = center[1];
+        centerZ[idx] = center[2];
+        sizeX[idx] = Math.abs(halfSize[0]);
+        sizeY[idx] = Math.abs(halfSize[1]);
+        sizeZ[idx] = Math.abs(halfSize[2]);
+
+        return idx;
+    }
+
+    /**
+     * Add a box that is transformed into world space by the given matrix.
+     * The stored box is the world-space axis aligned box that encloses the
+     * transformed box.
+     *
+     * @param box The box to add
+     * @param mat The local to vworld transformation of the box
+     * @return The index of the box in the batch
+     */
+    public int add(BoundingBox box, Matrix4d mat)
+    {
+        box.getCenter(wkVec1);
+        box.getSize(wkVec2);
+
+        ensureCapacity(numBoxes + 1);
+
+        int idx = numBoxes++;
+
+        double c_x = wkVec1[0];
+        double c_y = wkVec1[1];
+        double c_z = wkVec1[2];
+
+        double h_x = wkVec2[0];
+        double h_y = wkVec2[1];
+        double h_z = wkVec2[2];
+
+        centerX[idx] = mat.m00 * c_x + mat.m01 * c_y + mat.m02 * c_z + mat.m03;
+        centerY[idx] = mat.m10 * c_x + mat.m11 * c_y + mat.m12 * c_z + mat.m13;
+        centerZ[idx] = mat.m20 * c_x + mat.m21 * c_y + mat.m22 * c_z + mat.m23;
+
+        sizeX[idx] = Math.abs(mat.m00) * h_x + Math.abs(mat.m01) * h_y +
+                     Math.abs(mat.m02) * h_z;
+        sizeY[idx] = Math.abs(mat.m10) * h_x + Math.abs(mat.m11) * h_y +
+                     Math.abs(mat.m12) * h_z;
+        sizeZ[idx] = Math.abs(mat.m20) * h_x + Math.abs(mat.m21) * h_y +
+                     Math.abs(mat.m22) * h_z;
+
+        return idx;
+    }
+
+    /**
+     * Test all of the boxes in the batch against the view frustum. The
+     * result for each box is one of the FRUSTUM_ALLOUT, FRUSTUM_PARTIAL or
+     * FRUSTUM_ALLIN constants from {@link BoundingVolume}, written to the
+     * matching index in the results array.
+     *
+     * @param planes The 6 planes of the frustum in flat form
+     * @param results Array to write the result for each box to. Must be at
+     *    least {@link #size()} long
+     */
+    public void checkIntersectionFrustum(double[] planes, int[] results)
+    {
+        int num_boxes = numBoxes;
+
+        for(int i = 0; i < num_boxes; i++)
+            results[i] = BoundingVolume.FRUSTUM_ALLIN;
+
+        for(int p = 0; p < 6; p++)
+        {
+            int idx = p * PLANE_STRIDE;
+            double p_x = planes[idx];
+            double p_y = planes[idx + 1];
+            double p_z = planes[idx + 2];
+            double p_w = planes[idx + 3];
+
+            double abs_x = Math.abs(p_x);
+            double abs_y = Math.abs(p_y);
+            double abs_z = Math.abs(p_z);
+
+            // The result constants are ordered ALLOUT < PARTIAL < ALLIN so
+            // the result is the minimum found over all the planes.
+            for(int i = 0; i < num_boxes; i++)
+            {
+                double dist = p_x * centerX[i] + p_y * centerY[i] +
+                              p_z * centerZ[i] + p_w;
+                double radius = abs_x * sizeX[i] + abs_y * sizeY[i] +
+                                abs_z * sizeZ[i];
+
+                int res = (dist + radius <= 0) ?
+                          BoundingVolume.FRUSTUM_ALLOUT :
+                          (dist - radius <= 0) ?
+                          BoundingVolume.FRUSTUM_PARTIAL :
+                          BoundingVolume.FRUSTUM_ALLIN;
+
+                results[i] = Math.min(results[i], res);
+            }
+        }
+    }
+
+    /**
+     * Make sure the arrays can hold at least the given number of boxes.
+     *
+     * @param reqdSize The number of boxes needed
+     */
+    private void ensureCapacity(int reqdSize)
+    {
+        if(centerX.length >= reqdSize)
+            return;
+
+        int new_size = Math.max(reqdSize, centerX.length * 2);
+
+        centerX = resize(centerX, new_size);
+        centerY = resize(centerY, new_size);
+        centerZ = resize(centerZ, new_size);
+        sizeX = resize(sizeX, new_size);
+        sizeY = resize(sizeY, new_size);
+        sizeZ = resize(sizeZ, new_size);
+    }
+
+    /**
+     * Create a larger copy of the given array.
+     *
+     * @param src The array to copy
+     * @param newSize The size of the new array
+     * @return The new array with the valid values copied
+     */
+    private double[] resize(double[] src, int newSize)
+    {
+        double[] ret_val = new double[newSize];
+        System.arraycopy(src, 0, ret_val, 0, numBoxes);
+
+        return ret_val;
+    }
+}
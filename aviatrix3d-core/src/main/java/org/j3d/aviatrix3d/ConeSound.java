@@ -54,15 +54,15 @@ public class ConeSound extends PointSound
     private static final String BUFFER_PARAMS_PROP =
         "org.j3d.aviatrix3d.ConeSound.sourceParamsFailedMsg";
 
-    /** The OpenAL source */
-    private int source;
-
     /** ConeSound Position */
     private Point3d position;
 
     /** Scratch point */
     private Point3d tmpPoint;
 
+    /** Scratch point for the world position when calculating the gain */
+    private Point3d gainPoint;
+
     /** The sound direction */
     private float[] direction;
 
@@ -79,6 +79,7 @@ public class ConeSound extends PointSound
     {
         position = new Point3d();
         tmpPoint = new Point3d();
+        gainPoint = new Point3d();
 
         refDistance = 0;
         maxDistance = Float.MAX_VALUE;
@@ -116,14 +117,7 @@ public class ConeSound extends PointSound
             dataChanged = false;
             playChanged = true;
 
-            // Bind buffer with a source.
-            values.rewind();
-
-            // Bind buffer with a source.
-            al.alGenSources(1, values);
-            source = values.get(0);
-
-            int error = al.alGetError();
+            int error = generateSource(al);
             if (error != AL.AL_NO_ERROR)
             {
                 I18nManager intl_mgr = I18nManager.getManager();
@@ -139,15 +133,15 @@ public class ConeSound extends PointSound
             }
             else
             {
-                al.alSourcei(source, AL.AL_BUFFER, buffer);
+                soundSource.attachSource(al, source, playbackOffset);
                 al.alSourcef(source, AL.AL_REFERENCE_DISTANCE, refDistance);
                 al.alSourcef(source, AL.AL_ROLLOFF_FACTOR, rolloffFactor);
                 al.alSourcef(source, AL.AL_MAX_DISTANCE, maxDistance);
                 al.alSourcef(source, AL.AL_CONE_INNER_ANGLE, innerAngle);
                 al.alSourcef(source, AL.AL_CONE_OUTER_ANGLE, outerAngle);
                 al.alSourcefv(source, AL.AL_DIRECTION, direction, 0);
-                al.alSourcef(source, AL.AL_GAIN, 1.0f);
-                al.alSourcei(source, AL.AL_LOOPING, loop ? 1 : 0);
+                al.alSourcef(source, AL.AL_GAIN, intensity);
+                al.alSourcei(source, AL.AL_LOOPING, isSourceLooped() ? 1 : 0);
                 al.alSourcef(source, AL.AL_PITCH, pitch);
 
                 al.alSource3f(source, AL.AL_POSITION, (float)tmpPoint.x, (float)tmpPoint.y, (float)tmpPoint.z);
@@ -172,43 +166,15 @@ public class ConeSound extends PointSound
         if(paramsChanged)
         {
             al.alSourcef(source, AL.AL_PITCH, pitch);
-            al.alSourcei(source, AL.AL_LOOPING, loop ? 1 : 0);
+            al.alSourcef(source, AL.AL_GAIN, intensity);
+            al.alSourcei(source, AL.AL_LOOPING, isSourceLooped() ? 1 : 0);
 
             paramsChanged = false;
         }
 
         al.alSource3f(source, AL.AL_POSITION, (float)tmpPoint.x, (float)tmpPoint.y,(float)tmpPoint.z);
 
-        if(playChanged)
-        {
-            if(playing && paused)
-            {
-                al.alSourcePlay(source);
-            }
-
-            if(playing)
-            {
-                if(paused)
-                    al.alSourcePause(source);
-                else
-                    al.alSourcePlay(source);
-            }
-            else
-                al.alSourceStop(source);
-
-            playChanged = false;
-        }
-        else if(playing)
-        {
-            // Bind buffer with a source.
-            values.rewind();
-
-            al.alGetSourcei(source, AL.AL_SOURCE_STATE, values);
-            if(values.get(0) == AL.AL_STOPPED)
-            {
-                playing = false;
-            }
-        }
+        updatePlayState(al);
     }
 
     /*
@@ -222,6 +188,60 @@ public class ConeSound extends PointSound
     {
     }
 
+    //----------------------------------------------------------
+    // Methods defined by VirtualAudioRenderable
+    //----------------------------------------------------------
+
+    /**
+     * Calculate the gain that this sound would be heard at from the given
+     * listener position. Adds the cone attenuation to the distance
+     * attenuation, with the OpenAL default of no sound outside the outer
+     * cone.
+     *
+     * @param transform The transformation from the sound to the world
+     * @param listener The position of the listener in world coordinates
+     * @return A gain value, zero or greater
+     */
+    @Override
+    public float getAudibleGain(Matrix4d transform, Point3d listener)
+    {
+        if(!isAudible())
+            return 0;
+
+        transform.transform(position, gainPoint);
+
+        double x = listener.x - gainPoint.x;
+        double y = listener.y - gainPoint.y;
+        double z = listener.z - gainPoint.z;
+        double dist = Math.sqrt(x * x + y * y + z * z);
+
+        float gain = intensity * distanceAttenuation((float)dist);
+
+        // Direction in world space. No direction means no cone.
+        double dx = transform.m00 * direction[0] + transform.m01 * direction[1] + transform.m02 * direction[2];
+        double dy = transform.m10 * direction[0] + transform.m11 * direction[1] + transform.m12 * direction[2];
+        double dz = transform.m20 * direction[0] + transform.m21 * direction[1] + transform.m22 * direction[2];
+        double dir_len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        if(dir_len == 0 || dist == 0 || innerAngle >= 360)
+            return gain;
+
+        double cos_angle = (x * dx + y * dy + z * dz) / (dist * dir_len);
+        cos_angle = Math.max(-1, Math.min(1, cos_angle));
+
+        float angle = (float)Math.toDegrees(Math.acos(cos_angle));
+        float inner = innerAngle * 0.5f;
+        float outer = Math.max(outerAngle, innerAngle) * 0.5f;
+
+        if(angle <= inner)
+            return gain;
+
+        if(angle >= outer)
+            return 0;
+
+        return gain * (1 - (angle - inner) / (outer - inner));
+    }
+
     //---------------------------------------------------------------
     // Methods defined by Comparable
     //---------------------------------------------------------------
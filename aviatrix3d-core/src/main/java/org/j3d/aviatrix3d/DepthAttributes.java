@@ -20,6 +20,7 @@ import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.aviatrix3d.rendering.AppearanceAttributeRenderable;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 
 /**
  * Describes attributes used when interacting with the depth buffer on a
@@ -140,12 +141,12 @@ public class DepthAttributes extends NodeComponent
     public void render(GL2 gl)
     {
         if(depthTest)
-            gl.glEnable(GL.GL_DEPTH_TEST);
+            GLStateCache.glEnable(gl, GL.GL_DEPTH_TEST);
         else
-            gl.glDisable(GL.GL_DEPTH_TEST);
+            GLStateCache.glDisable(gl, GL.GL_DEPTH_TEST);
 
-        gl.glDepthMask(depthWrite);
-        gl.glDepthFunc(function);
+        GLStateCache.glDepthMask(gl, depthWrite);
+        GLStateCache.glDepthFunc(gl, function);
         gl.glDepthRange(minRange, maxRange);
     }
 
@@ -159,10 +160,10 @@ public class DepthAttributes extends NodeComponent
     public void postRender(GL2 gl)
     {
         if(!depthTest)
-            gl.glEnable(GL.GL_DEPTH_TEST);
+            GLStateCache.glEnable(gl, GL.GL_DEPTH_TEST);
 
-        gl.glDepthMask(true);
-        gl.glDepthFunc(GL.GL_LESS);
+        GLStateCache.glDepthMask(gl, true);
+        GLStateCache.glDepthFunc(gl, GL.GL_LESS);
         gl.glDepthRange(0, 1);
     }
 
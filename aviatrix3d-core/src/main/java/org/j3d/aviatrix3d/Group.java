@@ -241,7 +241,7 @@ public class Group extends Node
         dirtyBoundsCount = 0;
 
         if(parent != null)
-            parent.updateBounds();
+            parent.childBoundsUpdated(this);
     }
 
     /**
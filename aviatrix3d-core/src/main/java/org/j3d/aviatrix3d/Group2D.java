@@ -239,7 +239,7 @@ public class Group2D extends Node2D
         dirtyBoundsCount = 0;
 
         if(parent != null)
-            parent.updateBounds();
+            parent.childBoundsUpdated(this);
     }
 
     /**
@@ -86,7 +86,7 @@ public class IndexedLineArray extends IndexedVertexGeometry
 
             gl.glDrawElements(GL.GL_LINES,
                               numIndices,
-                              GL.GL_UNSIGNED_INT,
+                              indexType,
                               0);
 
             gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
@@ -95,8 +95,8 @@ public class IndexedLineArray extends IndexedVertexGeometry
         {
             gl.glDrawElements(GL.GL_LINES,
                               numIndices,
-                              GL.GL_UNSIGNED_INT,
-                              indexBuffer);
+                              indexType,
+                              renderIndexBuffer);
         }
 
         clearVertexState(gl);
@@ -135,8 +135,8 @@ public class IndexedLineStripArray extends IndexedVertexGeometry
 
                 gl.glDrawElements(GL.GL_LINE_STRIP,
                                   stripCounts[i],
-                                  GL.GL_UNSIGNED_INT,
-                                  strip_offset * 4);
+                                  indexType,
+                                  strip_offset * indexSize);
 
                 strip_offset += stripCounts[i];
             }
@@ -149,11 +149,11 @@ public class IndexedLineStripArray extends IndexedVertexGeometry
             for(int i = 0; i < numStrips; i++)
             {
 
-                indexBuffer.position(strip_offset);
+                renderIndexBuffer.position(strip_offset);
                 gl.glDrawElements(GL.GL_LINE_STRIP,
                                   stripCounts[i],
-                                  GL.GL_UNSIGNED_INT,
-                                  indexBuffer);
+                                  indexType,
+                                  renderIndexBuffer);
 
                 strip_offset += stripCounts[i];
             }
@@ -121,7 +121,7 @@ public class IndexedQuadArray extends IndexedVertexGeometry
 
             gl.glDrawElements(GL2.GL_QUADS,
                               numIndices,
-                              GL.GL_UNSIGNED_INT,
+                              indexType,
                               0);
 
             gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
@@ -133,8 +133,8 @@ public class IndexedQuadArray extends IndexedVertexGeometry
 
             gl.glDrawElements(GL2.GL_QUADS,
                               numIndices,
-                              GL.GL_UNSIGNED_INT,
-                              indexBuffer);
+                              indexType,
+                              renderIndexBuffer);
         }
 
         if((vertexFormat & EDGES) != 0)
@@ -253,68 +253,68 @@ public class IndexedQuadArray extends IndexedVertexGeometry
             {
                 case 2:
                     idx = indices[coord_offset] * 2;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
                     wkPolygon[2] = 0;
 
                     idx = indices[coord_offset + 1] * 2;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
                     wkPolygon[5] = 0;
 
                     idx = indices[coord_offset + 2] * 2;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
                     wkPolygon[8] = 0;
 
                     idx = indices[coord_offset + 3] * 2;
-                    wkPolygon[9] = coordinates[idx];
-                    wkPolygon[10] = coordinates[idx + 1];
+                    wkPolygon[9] = vertexBuffer.get(idx);
+                    wkPolygon[10] = vertexBuffer.get(idx + 1);
                     wkPolygon[11] = 0;
                     break;
 
                 case 3:
                     idx = indices[coord_offset] * 3;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 3;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 3;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 3] * 3;
-                    wkPolygon[9] = coordinates[idx];
-                    wkPolygon[10] = coordinates[idx + 1];
-                    wkPolygon[11] = coordinates[idx + 2];
+                    wkPolygon[9] = vertexBuffer.get(idx);
+                    wkPolygon[10] = vertexBuffer.get(idx + 1);
+                    wkPolygon[11] = vertexBuffer.get(idx + 2);
                     break;
 
                 case 4:
                     idx = indices[coord_offset] * 4;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 4;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 4;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 3] * 4;
-                    wkPolygon[9] = coordinates[idx];
-                    wkPolygon[10] = coordinates[idx + 1];
-                    wkPolygon[11] = coordinates[idx + 2];
+                    wkPolygon[9] = vertexBuffer.get(idx);
+                    wkPolygon[10] = vertexBuffer.get(idx + 1);
+                    wkPolygon[11] = vertexBuffer.get(idx + 2);
                     break;
             }
 
@@ -404,68 +404,68 @@ public class IndexedQuadArray extends IndexedVertexGeometry
             {
                 case 2:
                     idx = indices[coord_offset] * 2;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
                     wkPolygon[2] = 0;
 
                     idx = indices[coord_offset + 1] * 2;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
                     wkPolygon[5] = 0;
 
                     idx = indices[coord_offset + 2] * 2;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
                     wkPolygon[8] = 0;
 
                     idx = indices[coord_offset + 3] * 2;
-                    wkPolygon[9] = coordinates[idx];
-                    wkPolygon[10] = coordinates[idx + 1];
+                    wkPolygon[9] = vertexBuffer.get(idx);
+                    wkPolygon[10] = vertexBuffer.get(idx + 1);
                     wkPolygon[11] = 0;
                     break;
 
                 case 3:
                     idx = indices[coord_offset] * 3;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 3;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 3;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 3] * 3;
-                    wkPolygon[9] = coordinates[idx];
-                    wkPolygon[10] = coordinates[idx + 1];
-                    wkPolygon[11] = coordinates[idx + 2];
+                    wkPolygon[9] = vertexBuffer.get(idx);
+                    wkPolygon[10] = vertexBuffer.get(idx + 1);
+                    wkPolygon[11] = vertexBuffer.get(idx + 2);
                     break;
 
                 case 4:
                     idx = indices[coord_offset] * 4;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 4;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 4;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 3] * 4;
-                    wkPolygon[9] = coordinates[idx];
-                    wkPolygon[10] = coordinates[idx + 1];
-                    wkPolygon[11] = coordinates[idx + 2];
+                    wkPolygon[9] = vertexBuffer.get(idx);
+                    wkPolygon[10] = vertexBuffer.get(idx + 1);
+                    wkPolygon[11] = vertexBuffer.get(idx + 2);
                     break;
             }
 
@@ -27,12 +27,15 @@ import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.aviatrix3d.picking.NotPickableException;
+import org.j3d.aviatrix3d.rendering.InstancedGeometryRenderable;
 
 /**
  * An OpenGL Indexed IndexedTriangleArray.
  * <p>
  *
- * To do the drawing, this class uses the glDrawElements() function.
+ * To do the drawing, this class uses the glDrawElements() function. When
+ * several copies are drawn with the same state, glDrawElementsInstanced() is
+ * used to draw them all in one call.
  *
  * <h3>Setting geometry</h3>
  *
@@ -54,6 +57,7 @@ import org.j3d.aviatrix3d.picking.NotPickableException;
  * @version $Revision: 1.31 $
  */
 public class IndexedTriangleArray extends IndexedVertexGeometry
+    implements InstancedGeometryRenderable
 {
     /** Length of the edge array is too short for the coordinate data */
     private static final String EDGE_ARRAY_LENGTH_PROP =
@@ -123,7 +127,7 @@ public class IndexedTriangleArray extends IndexedVertexGeometry
 
             gl.glDrawElements(GL.GL_TRIANGLES,
                               numIndices,
-                              GL.GL_UNSIGNED_INT,
+                              indexType,
                               0);
 
             gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
@@ -135,8 +139,8 @@ public class IndexedTriangleArray extends IndexedVertexGeometry
 
             gl.glDrawElements(GL.GL_TRIANGLES,
                               numIndices,
-                              GL.GL_UNSIGNED_INT,
-                              indexBuffer);
+                              indexType,
+                              renderIndexBuffer);
         }
 
 
@@ -149,6 +153,70 @@ public class IndexedTriangleArray extends IndexedVertexGeometry
         clearVertexState(gl);
     }
 
+    //----------------------------------------------------------
+    // Methods defined by InstancedGeometryRenderable
+    //----------------------------------------------------------
+
+    @Override
+    public boolean isInstanceable()
+    {
+        // Edge flags are left to the normal draw path
+        return ((vertexFormat & COORDINATE_MASK) != 0) &&
+               ((vertexFormat & EDGES) == 0) &&
+               (numCoords != 0) && (numIndices != 0);
+    }
+
+    @Override
+    public void renderInstanced(GL2 gl, int numInstances)
+    {
+        if(!isInstanceable() || numInstances <= 0)
+            return;
+
+        setVertexState(gl);
+
+        if (vboAvailable && useVbo)
+        {
+            Integer vbo_id = (Integer)vboElementIdMap.get(gl);
+
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, vbo_id.intValue());
+            gl.glDrawElementsInstanced(GL.GL_TRIANGLES,
+                                       numIndices,
+                                       indexType,
+                                       0,
+                                       numInstances);
+
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+        else
+        {
+            gl.glDrawElementsInstanced(GL.GL_TRIANGLES,
+                                       numIndices,
+                                       indexType,
+                                       renderIndexBuffer,
+                                       numInstances);
+        }
+
+        clearVertexState(gl);
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by VertexGeometry
+    //----------------------------------------------------------
+
+    @Override
+    TriangleBVH buildPickTree()
+    {
+        int num_tris = numIndices / 3;
+
+        if(num_tris == 0)
+            return null;
+
+        return new TriangleBVH(vertexBuffer,
+                               vertexFormat & COORDINATE_MASK,
+                               indices,
+                               num_tris);
+    }
+
     //----------------------------------------------------------
     // Methods defined by Geometry
     //----------------------------------------------------------
@@ -250,64 +318,81 @@ public class IndexedTriangleArray extends IndexedVertexGeometry
         int num_tris = numIndices / 3;
         int coord_offset = 0;
 
-        for(int i = 0; i < num_tris; i++)
+        // Only test the triangles the tree says may be crossed, if we have
+        // a tree to use.
+        TriangleBVH tree = getPickTree();
+        int[] tri_list = null;
+        int num_tests = num_tris;
+
+        if(tree != null)
         {
+            num_tests = tree.findCandidates(start, end, 1);
+            tri_list = tree.getCandidates();
+        }
+
+        for(int t = 0; t < num_tests; t++)
+        {
+            int i = (tri_list == null) ? t : tri_list[t];
+
+            if(i >= num_tris)
+                continue;
+
+            coord_offset = i * 3;
+
             switch(coord_comps)
             {
                 case 2:
                     idx = indices[coord_offset] * 2;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
                     wkPolygon[2] = 0;
 
                     idx = indices[coord_offset + 1] * 2;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
                     wkPolygon[5] = 0;
 
                     idx = indices[coord_offset + 2] * 2;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
                     wkPolygon[8] = 0;
                     break;
 
                 case 3:
                     idx = indices[coord_offset] * 3;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 3;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 3;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
                     break;
 
                 case 4:
                     idx = indices[coord_offset] * 4;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 4;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 4;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
                     break;
             }
 
-            coord_offset += 3;
-
             if(ray3DTriangleChecked(start, end, vec_len, dataOut))
             {
                 found = true;
@@ -386,64 +471,81 @@ public class IndexedTriangleArray extends IndexedVertexGeometry
         int num_tris = numIndicesUsed / 3;
         int coord_offset = 0;
 
-        for(int i = 0; i < num_tris; i++)
+        // Only test the triangles the tree says may be crossed, if we have
+        // a tree to use.
+        TriangleBVH tree = getPickTree();
+        int[] tri_list = null;
+        int num_tests = num_tris;
+
+        if(tree != null)
         {
+            num_tests = tree.findCandidates(origin, direction, Double.POSITIVE_INFINITY);
+            tri_list = tree.getCandidates();
+        }
+
+        for(int t = 0; t < num_tests; t++)
+        {
+            int i = (tri_list == null) ? t : tri_list[t];
+
+            if(i >= num_tris)
+                continue;
+
+            coord_offset = i * 3;
+
             switch(coord_comps)
             {
                 case 2:
                     idx = indices[coord_offset] * 2;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
                     wkPolygon[2] = 0;
 
                     idx = indices[coord_offset + 1] * 2;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
                     wkPolygon[5] = 0;
 
                     idx = indices[coord_offset + 2] * 2;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
                     wkPolygon[8] = 0;
                     break;
 
                 case 3:
                     idx = indices[coord_offset] * 3;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 3;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 3;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
                     break;
 
                 case 4:
                     idx = indices[coord_offset] * 4;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 1] * 4;
-                    wkPolygon[3] = coordinates[idx];
-                    wkPolygon[4] = coordinates[idx + 1];
-                    wkPolygon[5] = coordinates[idx + 2];
+                    wkPolygon[3] = vertexBuffer.get(idx);
+                    wkPolygon[4] = vertexBuffer.get(idx + 1);
+                    wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                     idx = indices[coord_offset + 2] * 4;
-                    wkPolygon[6] = coordinates[idx];
-                    wkPolygon[7] = coordinates[idx + 1];
-                    wkPolygon[8] = coordinates[idx + 2];
+                    wkPolygon[6] = vertexBuffer.get(idx);
+                    wkPolygon[7] = vertexBuffer.get(idx + 1);
+                    wkPolygon[8] = vertexBuffer.get(idx + 2);
                     break;
             }
 
-            coord_offset += 3;
-
             if(ray3DTriangleChecked(origin, direction, 0, dataOut))
             {
                 found = true;
@@ -115,8 +115,8 @@ public class IndexedTriangleFanArray extends IndexedVertexGeometry
             {
                 gl.glDrawElements(GL.GL_TRIANGLE_FAN,
                                   fanCounts[i],
-                                  GL.GL_UNSIGNED_INT,
-                                  fan_offset * 4);
+                                  indexType,
+                                  fan_offset * indexSize);
 
                 fan_offset += fanCounts[i];
             }
@@ -128,11 +128,11 @@ public class IndexedTriangleFanArray extends IndexedVertexGeometry
             int fan_offset = 0;
             for(int i = 0; i < numFans; i++)
             {
-                indexBuffer.position(fan_offset);
+                renderIndexBuffer.position(fan_offset);
                 gl.glDrawElements(GL.GL_TRIANGLE_FAN,
                                   fanCounts[i],
-                                  GL.GL_UNSIGNED_INT,
-                                  indexBuffer);
+                                  indexType,
+                                  renderIndexBuffer);
 
                 fan_offset += fanCounts[i];
             }
@@ -231,25 +231,25 @@ public class IndexedTriangleFanArray extends IndexedVertexGeometry
             {
                 case 2:
                     idx = indices[coord_offset] * 2;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
                     wkPolygon[2] = 0;
                     coord_offset += 2;
                     break;
 
                 case 3:
                     idx = indices[coord_offset] * 3;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
                     coord_offset += 3;
                     break;
 
                 case 4:
                     idx = indices[coord_offset] * 4;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
                     coord_offset += 4;
                     break;
             }
@@ -260,40 +260,40 @@ public class IndexedTriangleFanArray extends IndexedVertexGeometry
                 {
                     case 2:
                         idx = indices[coord_offset] * 2;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
                         wkPolygon[5] = 0;
 
                         idx = indices[coord_offset + 1] * 2;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
                         wkPolygon[8] = 0;
                         coord_offset += 2;
                         break;
 
                     case 3:
                         idx = indices[coord_offset] * 3;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 3;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         coord_offset += 3;
                         break;
 
                     case 4:
                         idx = indices[coord_offset] * 4;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 4;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         coord_offset += 4;
                         break;
                 }
@@ -389,25 +389,25 @@ public class IndexedTriangleFanArray extends IndexedVertexGeometry
             {
                 case 2:
                     idx = indices[coord_offset] * 2;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
                     wkPolygon[2] = 0;
                     coord_offset += 2;
                     break;
 
                 case 3:
                     idx = indices[coord_offset] * 3;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
                     coord_offset += 3;
                     break;
 
                 case 4:
                     idx = indices[coord_offset] * 4;
-                    wkPolygon[0] = coordinates[idx];
-                    wkPolygon[1] = coordinates[idx + 1];
-                    wkPolygon[2] = coordinates[idx + 2];
+                    wkPolygon[0] = vertexBuffer.get(idx);
+                    wkPolygon[1] = vertexBuffer.get(idx + 1);
+                    wkPolygon[2] = vertexBuffer.get(idx + 2);
                     coord_offset += 4;
                     break;
             }
@@ -418,40 +418,40 @@ public class IndexedTriangleFanArray extends IndexedVertexGeometry
                 {
                     case 2:
                         idx = indices[coord_offset] * 2;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
                         wkPolygon[5] = 0;
 
                         idx = indices[coord_offset + 1] * 2;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
                         wkPolygon[8] = 0;
                         coord_offset += 2;
                         break;
 
                     case 3:
                         idx = indices[coord_offset] * 3;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 3;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         coord_offset += 3;
                         break;
 
                     case 4:
                         idx = indices[coord_offset] * 4;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 4;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         coord_offset += 4;
                         break;
                 }
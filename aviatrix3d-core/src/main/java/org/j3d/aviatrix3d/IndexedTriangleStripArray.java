@@ -125,8 +125,8 @@ Instead we use the form below this one to actually work.
             {
                 gl.glDrawElements(GL.GL_TRIANGLE_STRIP,
                                   stripCounts[i],
-                                  GL.GL_UNSIGNED_INT,
-                                  strip_offset * 4);
+                                  indexType,
+                                  strip_offset * indexSize);
 
                 strip_offset += stripCounts[i];
             }
@@ -138,11 +138,11 @@ Instead we use the form below this one to actually work.
             int strip_offset = 0;
             for(int i = 0; i < numStrips; i++)
             {
-                indexBuffer.position(strip_offset);
+                renderIndexBuffer.position(strip_offset);
                 gl.glDrawElements(GL.GL_TRIANGLE_STRIP,
                                   stripCounts[i],
-                                  GL.GL_UNSIGNED_INT,
-                                  indexBuffer);
+                                  indexType,
+                                  renderIndexBuffer);
 
                 strip_offset += stripCounts[i];
             }
@@ -233,53 +233,53 @@ Instead we use the form below this one to actually work.
                 {
                     case 2:
                         idx = indices[coord_offset] * 2;
-                        wkPolygon[0] = coordinates[idx];
-                        wkPolygon[1] = coordinates[idx + 1];
+                        wkPolygon[0] = vertexBuffer.get(idx);
+                        wkPolygon[1] = vertexBuffer.get(idx + 1);
                         wkPolygon[2] = 0;
 
                         idx = indices[coord_offset + 1] * 2;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
                         wkPolygon[5] = 0;
 
                         idx = indices[coord_offset + 2] * 2;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
                         wkPolygon[8] = 0;
                         break;
 
                     case 3:
                         idx = indices[coord_offset] * 3;
-                        wkPolygon[0] = coordinates[idx];
-                        wkPolygon[1] = coordinates[idx + 1];
-                        wkPolygon[2] = coordinates[idx + 2];
+                        wkPolygon[0] = vertexBuffer.get(idx);
+                        wkPolygon[1] = vertexBuffer.get(idx + 1);
+                        wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 3;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 2] * 3;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         break;
 
                     case 4:
                         idx = indices[coord_offset] * 4;
-                        wkPolygon[0] = coordinates[idx];
-                        wkPolygon[1] = coordinates[idx + 1];
-                        wkPolygon[2] = coordinates[idx + 2];
+                        wkPolygon[0] = vertexBuffer.get(idx);
+                        wkPolygon[1] = vertexBuffer.get(idx + 1);
+                        wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 4;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 2] * 4;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         break;
                  }
 
@@ -374,53 +374,53 @@ Instead we use the form below this one to actually work.
                 {
                     case 2:
                         idx = indices[coord_offset] * 2;
-                        wkPolygon[0] = coordinates[idx];
-                        wkPolygon[1] = coordinates[idx + 1];
+                        wkPolygon[0] = vertexBuffer.get(idx);
+                        wkPolygon[1] = vertexBuffer.get(idx + 1);
                         wkPolygon[2] = 0;
 
                         idx = indices[coord_offset + 1] * 2;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
                         wkPolygon[5] = 0;
 
                         idx = indices[coord_offset + 2] * 2;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
                         wkPolygon[8] = 0;
                         break;
 
                     case 3:
                         idx = indices[coord_offset] * 3;
-                        wkPolygon[0] = coordinates[idx];
-                        wkPolygon[1] = coordinates[idx + 1];
-                        wkPolygon[2] = coordinates[idx + 2];
+                        wkPolygon[0] = vertexBuffer.get(idx);
+                        wkPolygon[1] = vertexBuffer.get(idx + 1);
+                        wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 3;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 2] * 3;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         break;
 
                     case 4:
                         idx = indices[coord_offset] * 4;
-                        wkPolygon[0] = coordinates[idx];
-                        wkPolygon[1] = coordinates[idx + 1];
-                        wkPolygon[2] = coordinates[idx + 2];
+                        wkPolygon[0] = vertexBuffer.get(idx);
+                        wkPolygon[1] = vertexBuffer.get(idx + 1);
+                        wkPolygon[2] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 1] * 4;
-                        wkPolygon[3] = coordinates[idx];
-                        wkPolygon[4] = coordinates[idx + 1];
-                        wkPolygon[5] = coordinates[idx + 2];
+                        wkPolygon[3] = vertexBuffer.get(idx);
+                        wkPolygon[4] = vertexBuffer.get(idx + 1);
+                        wkPolygon[5] = vertexBuffer.get(idx + 2);
 
                         idx = indices[coord_offset + 2] * 4;
-                        wkPolygon[6] = coordinates[idx];
-                        wkPolygon[7] = coordinates[idx + 1];
-                        wkPolygon[8] = coordinates[idx + 2];
+                        wkPolygon[6] = vertexBuffer.get(idx);
+                        wkPolygon[7] = vertexBuffer.get(idx + 1);
+                        wkPolygon[8] = vertexBuffer.get(idx + 2);
                         break;
                 }
 
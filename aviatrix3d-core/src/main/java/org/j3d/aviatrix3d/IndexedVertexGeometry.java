@@ -42,6 +42,14 @@ import org.j3d.util.I18nManager;
  * you should always make sure that you first set the vertex list, then the
  * sizing information for the strip or fan counts, and then set normals as
  * needed. </p>
+ *
+ * <h3>Index size</h3>
+ *
+ * <p>When all the indices fit in 16 bits, they are sent to OpenGL as
+ * <code>GL_UNSIGNED_SHORT</code> values rather than 32 bit ints. This halves
+ * the memory and bandwidth used by the index data. The choice is made each
+ * time the indices are set, and may be turned off with
+ * {@link #setShortIndicesEnabled(boolean)}. </p>
  * <p>
  *
  * <b>Internationalisation Resource Names</b>
@@ -72,9 +80,33 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
     /** The number of values in the indices array that are used for a geometry */
     protected int numIndicesUsed;
 
-    /** Buffer holding the current index list */
+    /** Largest vertex index that can be held in an unsigned short */
+    private static final int MAX_SHORT_INDEX = 0xFFFF;
+
+    /**
+     * Buffer holding the current index list when 32 bit indices are used.
+     * Null when the indices are held in shortIndexBuffer instead.
+     */
     protected IntBuffer indexBuffer;
 
+    /**
+     * Buffer holding the current index list when 16 bit indices are used.
+     * Null when the indices are held in indexBuffer instead.
+     */
+    protected ShortBuffer shortIndexBuffer;
+
+    /** The index buffer to render from. One of the two buffers above */
+    protected Buffer renderIndexBuffer;
+
+    /** The GL data type of renderIndexBuffer */
+    protected int indexType;
+
+    /** Number of bytes in a single value of renderIndexBuffer */
+    protected int indexSize;
+
+    /** Should 16 bit indices be used when the vertex count allows it */
+    private boolean shortIndicesEnabled;
+
     /** Map of VBO IDs */
     protected HashMap<GL, Integer> vboElementIdMap;
 
@@ -98,6 +130,10 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
 
         if (useVbo)
             vboElementIdMap = new HashMap<GL, Integer>();
+
+        shortIndicesEnabled = true;
+        indexType = GL.GL_UNSIGNED_INT;
+        indexSize = 4;
     }
 
     //----------------------------------------------------------
@@ -129,13 +165,13 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
             return;
 
         int idx = indices[0];
-        float min_x = coordinates[idx];
-        float min_y = coordinates[idx+1];
+        float min_x = vertexBuffer.get(idx);
+        float min_y = vertexBuffer.get(idx+1);
         float min_z = 0;
         float min_w = 0;
 
-        float max_x = coordinates[idx];
-        float max_y = coordinates[idx+1];
+        float max_x = vertexBuffer.get(idx);
+        float max_y = vertexBuffer.get(idx+1);
         float max_z = 0;
         float max_w = 0;
 
@@ -147,69 +183,69 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
                 for(int i = 1; i < numIndicesUsed; i++)
                 {
                     idx = indices[i] * 2;
-                    if (coordinates[idx] < min_x)
-                        min_x = coordinates[idx];
-                    if (coordinates[idx] > max_x)
-                        max_x = coordinates[idx];
-
-                    if (coordinates[idx + 1] < min_y)
-                        min_y = coordinates[idx + 1];
-                    if (coordinates[idx + 1] > max_y)
-                        max_y = coordinates[idx + 1];
+                    if (vertexBuffer.get(idx) < min_x)
+                        min_x = vertexBuffer.get(idx);
+                    if (vertexBuffer.get(idx) > max_x)
+                        max_x = vertexBuffer.get(idx);
+
+                    if (vertexBuffer.get(idx + 1) < min_y)
+                        min_y = vertexBuffer.get(idx + 1);
+                    if (vertexBuffer.get(idx + 1) > max_y)
+                        max_y = vertexBuffer.get(idx + 1);
                 }
 
                 break;
 
             case 3:
-                min_z = coordinates[idx + 2];
-                max_z = coordinates[idx + 2];
+                min_z = vertexBuffer.get(idx + 2);
+                max_z = vertexBuffer.get(idx + 2);
 
                 for(int i = 1; i < numIndicesUsed; i++)
                 {
                     idx = indices[i] * 3;
-                    if (coordinates[idx] < min_x)
-                        min_x = coordinates[idx];
-                    if (coordinates[idx] > max_x)
-                        max_x = coordinates[idx];
+                    if (vertexBuffer.get(idx) < min_x)
+                        min_x = vertexBuffer.get(idx);
+                    if (vertexBuffer.get(idx) > max_x)
+                        max_x = vertexBuffer.get(idx);
 
-                    if (coordinates[idx + 1] < min_y)
-                        min_y = coordinates[idx + 1];
-                    if (coordinates[idx + 1] > max_y)
-                        max_y = coordinates[idx + 1];
+                    if (vertexBuffer.get(idx + 1) < min_y)
+                        min_y = vertexBuffer.get(idx + 1);
+                    if (vertexBuffer.get(idx + 1) > max_y)
+                        max_y = vertexBuffer.get(idx + 1);
 
 
-                    if (coordinates[idx + 2] < min_z)
-                        min_z = coordinates[idx + 2];
-                    if (coordinates[idx + 2] > max_z)
-                        max_z = coordinates[idx + 2];
+                    if (vertexBuffer.get(idx + 2) < min_z)
+                        min_z = vertexBuffer.get(idx + 2);
+                    if (vertexBuffer.get(idx + 2) > max_z)
+                        max_z = vertexBuffer.get(idx + 2);
                 }
 
                 break;
 
             case 4:
-                min_z = coordinates[idx + 2];
-                max_z = coordinates[idx + 2];
-                min_w = coordinates[idx + 3];
-                max_w = coordinates[idx + 3];
+                min_z = vertexBuffer.get(idx + 2);
+                max_z = vertexBuffer.get(idx + 2);
+                min_w = vertexBuffer.get(idx + 3);
+                max_w = vertexBuffer.get(idx + 3);
 
                 for(int i = 1; i < numIndicesUsed; i++)
                 {
                     idx = indices[i] * 4;
-                    if (coordinates[idx] < min_x)
-                        min_x = coordinates[idx];
-                    if (coordinates[idx] > max_x)
-                        max_x = coordinates[idx];
+                    if (vertexBuffer.get(idx) < min_x)
+                        min_x = vertexBuffer.get(idx);
+                    if (vertexBuffer.get(idx) > max_x)
+                        max_x = vertexBuffer.get(idx);
 
-                    if (coordinates[idx + 1] < min_y)
-                        min_y = coordinates[idx + 1];
-                    if (coordinates[idx + 1] > max_y)
-                        max_y = coordinates[idx + 1];
+                    if (vertexBuffer.get(idx + 1) < min_y)
+                        min_y = vertexBuffer.get(idx + 1);
+                    if (vertexBuffer.get(idx + 1) > max_y)
+                        max_y = vertexBuffer.get(idx + 1);
 
 
-                    if (coordinates[idx + 2] < min_z)
-                        min_z = coordinates[idx + 2];
-                    if (coordinates[idx + 2] > max_z)
-                        max_z = coordinates[idx + 2];
+                    if (vertexBuffer.get(idx + 2) < min_z)
+                        min_z = vertexBuffer.get(idx + 2);
+                    if (vertexBuffer.get(idx + 2) > max_z)
+                        max_z = vertexBuffer.get(idx + 2);
 
                 // Don't do anything with the 4th coord for now.
                 }
@@ -264,13 +300,57 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
         Integer vbo_id = vboElementIdMap.get(gl);
 
         gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, vbo_id.intValue());
-        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, numIndices * 4, (Buffer)null, vboHint);
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
+                        numIndices * indexSize,
+                        (Buffer)null,
+                        vboHint);
 
-        gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, 0, numIndices * 4, indexBuffer);
+        gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER,
+                           0,
+                           numIndices * indexSize,
+                           renderIndexBuffer);
 
         return numIndices;
     }
 
+    /**
+     * Get the number of bytes of vertex data held in the user arrays that
+     * this geometry still references. Includes the internal copy of the
+     * indices, which is always kept for picking.
+     *
+     * @return A number of bytes >= 0
+     */
+    @Override
+    public long getHeapDataSize()
+    {
+        long ret_val = super.getHeapDataSize();
+
+        if(indices != null)
+            ret_val += indices.length * 4L;
+
+        return ret_val;
+    }
+
+    /**
+     * Get the number of bytes held by the internal buffers for the vertex
+     * and index data.
+     *
+     * @return A number of bytes >= 0
+     */
+    @Override
+    public long getBufferDataSize()
+    {
+        long ret_val = super.getBufferDataSize();
+
+        if(indexBuffer != null)
+            ret_val += indexBuffer.capacity() * 4L;
+
+        if(shortIndexBuffer != null)
+            ret_val += shortIndexBuffer.capacity() * 2L;
+
+        return ret_val;
+    }
+
     //---------------------------------------------------------------
     // Methods defined by DeletableRenderable
     //---------------------------------------------------------------
@@ -322,12 +402,17 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
            !updateHandler.isBoundsWritePermitted(this))
             throw new InvalidWriteTimingException(getBoundsWriteTimingMessage());
 
+        invalidatePickTree();
+
         if(num == 0)
         {
             numRequiredCoords = 0;
             numIndices = 0;
             indices = null;
-            indexBuffer.clear();
+
+            if(renderIndexBuffer != null)
+                renderIndexBuffer.clear();
+
             return;
         }
 
@@ -355,15 +440,7 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
         if(numIndices > 0)
             System.arraycopy(indexList, 0, indices, 0, numIndices);
 
-        if(indexBuffer == null || numIndices > indexBuffer.capacity())
-            indexBuffer = createBuffer(numIndices);
-        else
-            indexBuffer.clear();
-
-        indexBuffer.put(indexList, 0, numIndices);
-        indexBuffer.rewind();
-
-        // TODO: Need to handle realloc of VBO
+        fillIndexBuffer();
     }
 
     /**
@@ -387,6 +464,51 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
         System.arraycopy(indices, 0, values, 0, numIndices);
     }
 
+    /**
+     * Set whether the indices should be sent as 16 bit values when all of
+     * them are small enough. Enabled by default. When disabled, 32 bit
+     * indices are always used.
+     *
+     * @param enabled true to allow 16 bit indices
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void setShortIndicesEnabled(boolean enabled)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        if(shortIndicesEnabled == enabled)
+            return;
+
+        shortIndicesEnabled = enabled;
+
+        if(numIndices != 0)
+            fillIndexBuffer();
+    }
+
+    /**
+     * Check to see if 16 bit indices are used when the indices allow it.
+     *
+     * @return true if 16 bit indices are allowed
+     */
+    public boolean isShortIndicesEnabled()
+    {
+        return shortIndicesEnabled;
+    }
+
+    /**
+     * Get the GL data type that the indices are currently sent to OpenGL as.
+     *
+     * @return GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     */
+    public int getIndexType()
+    {
+        return indexType;
+    }
+
     /**
      * Set whether Vertex Buffer Objects are used.  This will only apply on
      * graphics hardware that supports VBO's.
@@ -408,6 +530,63 @@ public abstract class IndexedVertexGeometry extends VertexGeometry
         }
     }
 
+    /**
+     * Copy the current indices into the buffer used for rendering, picking
+     * the smallest index type that holds them. The unused buffer is released.
+     */
+    private void fillIndexBuffer()
+    {
+        if(shortIndicesEnabled && numRequiredCoords <= MAX_SHORT_INDEX + 1)
+        {
+            if(shortIndexBuffer == null ||
+               numIndices > shortIndexBuffer.capacity())
+                shortIndexBuffer = createShortBuffer(numIndices);
+            else
+                shortIndexBuffer.clear();
+
+            for(int i = 0; i < numIndices; i++)
+                shortIndexBuffer.put((short)indices[i]);
+
+            shortIndexBuffer.rewind();
+
+            indexBuffer = null;
+            renderIndexBuffer = shortIndexBuffer;
+            indexType = GL.GL_UNSIGNED_SHORT;
+            indexSize = 2;
+        }
+        else
+        {
+            if(indexBuffer == null || numIndices > indexBuffer.capacity())
+                indexBuffer = createBuffer(numIndices);
+            else
+                indexBuffer.clear();
+
+            indexBuffer.put(indices, 0, numIndices);
+            indexBuffer.rewind();
+
+            shortIndexBuffer = null;
+            renderIndexBuffer = indexBuffer;
+            indexType = GL.GL_UNSIGNED_INT;
+            indexSize = 4;
+        }
+
+        // Make sure the element VBO picks up the new values and size
+        dataChanged.setAll(true);
+    }
+
+    /**
+     * Convenience method to allocate a NIO buffer for 16 bit indices.
+     *
+     * @param size The number of shorts to have in the array
+     */
+    private ShortBuffer createShortBuffer(int size)
+    {
+        ByteBuffer buf = ByteBuffer.allocateDirect(size * 2);
+        buf.order(ByteOrder.nativeOrder());
+
+        return buf.asShortBuffer();
+    }
+
     /**
      * Convenience method to allocate a NIO buffer for the vertex handling that
      * handles floats.
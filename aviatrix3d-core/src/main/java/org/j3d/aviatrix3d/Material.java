@@ -22,6 +22,7 @@ import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.aviatrix3d.rendering.DeletableRenderable;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 import org.j3d.aviatrix3d.rendering.TransparentObjectRenderable;
 
 /**
@@ -380,14 +381,8 @@ public class Material extends NodeComponent
 			
             gl.glNewList(listName.intValue(), GL2.GL_COMPILE);
 
-            if(useLighting)
-                gl.glEnable(GL2.GL_LIGHTING);
-            else
-                gl.glDisable(GL2.GL_LIGHTING);
-
             if(useColorMaterial)
             {
-                gl.glEnable(GL2.GL_COLOR_MATERIAL);
                 if(separatedBackFace)
                 {
                     gl.glColorMaterial(GL.GL_FRONT, colorTarget);
@@ -397,25 +392,6 @@ public class Material extends NodeComponent
                 {
                     gl.glColorMaterial(GL.GL_FRONT_AND_BACK, colorTarget);
                 }
-
-                if(blendDiffuseAlpha)
-                {
-                    if(hasImaging)
-                    {
-                        gl.glBlendColor(0, 0, 0, diffuseColor[3]);
-                        gl.glBlendFunc(GL.GL_SRC_ALPHA,
-                                       GL2.GL_ONE_MINUS_CONSTANT_ALPHA);
-                    }
-                    else
-                    {
-                        gl.glBlendFunc(GL.GL_SRC_ALPHA,
-                                       GL.GL_ONE_MINUS_SRC_ALPHA);
-                    }
-                }
-            }
-            else
-            {
-                gl.glDisable(GL2.GL_COLOR_MATERIAL);
             }
 
             if(separatedBackFace)
@@ -459,7 +435,47 @@ public class Material extends NodeComponent
             displayListMap.put(gl, listName);
         }
 
-        gl.glCallList(listName.intValue());
+        // The enable flags and blending are kept out of the display list so
+        // that they can go through the state cache. Colour material lets the
+        // geometry change the material values, so those are never cached.
+        if(useColorMaterial)
+            GLStateCache.invalidateCurrentLighting();
+
+        if(useLighting)
+            GLStateCache.glEnable(gl, GL2.GL_LIGHTING);
+        else
+            GLStateCache.glDisable(gl, GL2.GL_LIGHTING);
+
+        if(useColorMaterial)
+        {
+            GLStateCache.glEnable(gl, GL2.GL_COLOR_MATERIAL);
+
+            if(blendDiffuseAlpha)
+            {
+                if(hasImaging)
+                {
+                    GLStateCache.glBlendColor(gl, 0, 0, 0, diffuseColor[3]);
+                    GLStateCache.glBlendFunc(gl,
+                                             GL.GL_SRC_ALPHA,
+                                             GL2.GL_ONE_MINUS_CONSTANT_ALPHA);
+                }
+                else
+                {
+                    GLStateCache.glBlendFunc(gl,
+                                             GL.GL_SRC_ALPHA,
+                                             GL.GL_ONE_MINUS_SRC_ALPHA);
+                }
+            }
+
+            gl.glCallList(listName.intValue());
+        }
+        else
+        {
+            GLStateCache.glDisable(gl, GL2.GL_COLOR_MATERIAL);
+
+            if(GLStateCache.isMaterialChange(this))
+                gl.glCallList(listName.intValue());
+        }
     }
 
     /**
@@ -471,10 +487,10 @@ public class Material extends NodeComponent
     public void postRender(GL2 gl)
     {
         if(useLighting)
-            gl.glDisable(GL2.GL_LIGHTING);
+            GLStateCache.glDisable(gl, GL2.GL_LIGHTING);
 
         if(useColorMaterial)
-            gl.glDisable(GL2.GL_COLOR_MATERIAL);
+            GLStateCache.glDisable(gl, GL2.GL_COLOR_MATERIAL);
     }
 
     //---------------------------------------------------------------
@@ -232,6 +232,20 @@ public abstract class Node extends SceneGraphObject
     {
     }
 
+    /**
+     * Notification from one of this node's children that it has updated its
+     * bounds. Used in place of {@link #updateBounds()} when the child is
+     * propagating a change upwards, so that grouping nodes which keep a
+     * spatial index of their children know which entry is out of date. The
+     * default implementation ignores the child and calls updateBounds().
+     *
+     * @param child The child node whose bounds have just been updated
+     */
+    protected void childBoundsUpdated(Node child)
+    {
+        updateBounds();
+    }
+
     /**
      * Update this node's parent bounds now. Used to propogate bounds changes
      * from the current level to the parent when needed. Typically used by
@@ -242,7 +256,7 @@ public abstract class Node extends SceneGraphObject
     protected void updateParentBounds()
     {
         if(parent != null)
-            parent.updateBounds();
+            parent.childBoundsUpdated(this);
     }
 
     /**
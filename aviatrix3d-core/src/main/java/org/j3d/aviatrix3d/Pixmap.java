@@ -223,7 +223,7 @@ public class Pixmap extends Leaf2D
         recomputeBounds();
 
         if(parent != null)
-            parent.updateBounds();
+            parent.childBoundsUpdated(this);
     }
 
     /**
@@ -52,15 +52,15 @@ public class PointSound extends Sound
     private static final String BUFFER_PARAMS_PROP =
         "org.j3d.aviatrix3d.PointSound.sourceParamsFailedMsg";
 
-    /** The OpenAL source */
-    private int source;
-
     /** PointSound Position */
     private Point3d position;
 
     /** Scratch point */
     private Point3d tmpPoint;
 
+    /** Scratch point for the world position when calculating the gain */
+    private Point3d gainPoint;
+
     /** Scratch matrix val */
     private Matrix4d tmpMatrix;
 
@@ -83,6 +83,7 @@ public class PointSound extends Sound
     {
         position = new Point3d();
         tmpPoint = new Point3d();
+        gainPoint = new Point3d();
         tmpMatrix = new Matrix4d();
         matrixUtils = new MatrixUtils();
 
@@ -120,14 +121,7 @@ public class PointSound extends Sound
             dataChanged = false;
             playChanged = true;
 
-            // Bind buffer with a source.
-            values.rewind();
-
-            // Bind buffer with a source.
-            al.alGenSources(1, values);
-            source = values.get(0);
-
-            int error = al.alGetError();
+            int error = generateSource(al);
             if (error != AL.AL_NO_ERROR)
             {
                 I18nManager intl_mgr = I18nManager.getManager();
@@ -143,15 +137,15 @@ public class PointSound extends Sound
             }
             else
             {
-                al.alSourcei(source, AL.AL_BUFFER, buffer);
+                soundSource.attachSource(al, source, playbackOffset);
                 al.alSourcef(source, AL.AL_REFERENCE_DISTANCE, refDistance);
                 al.alSourcef(source, AL.AL_ROLLOFF_FACTOR, rolloffFactor);
                 al.alSourcef(source, AL.AL_MAX_DISTANCE, maxDistance);
                 al.alSourcef(source, AL.AL_PITCH, 1.0f);
-                al.alSourcef(source, AL.AL_GAIN, 1.0f);
+                al.alSourcef(source, AL.AL_GAIN, intensity);
 
                 al.alSource3f(source, AL.AL_POSITION, (float)tmpPoint.x, (float)tmpPoint.y, (float)tmpPoint.z);
-                al.alSourcei(source, AL.AL_LOOPING, loop ? 1 : 0);
+                al.alSourcei(source, AL.AL_LOOPING, isSourceLooped() ? 1 : 0);
                 al.alSourcef(source, AL.AL_PITCH, pitch);
 
                 error = al.alGetError();
@@ -174,42 +168,15 @@ public class PointSound extends Sound
         if (paramsChanged)
         {
             al.alSourcef(source, AL.AL_PITCH, pitch);
-            al.alSourcei(source, AL.AL_LOOPING, loop ? 1 : 0);
+            al.alSourcef(source, AL.AL_GAIN, intensity);
+            al.alSourcei(source, AL.AL_LOOPING, isSourceLooped() ? 1 : 0);
 
             paramsChanged = false;
         }
 
         al.alSource3f(source, AL.AL_POSITION, (float)tmpPoint.x, (float)tmpPoint.y, (float)tmpPoint.z);
 
-        if (playChanged)
-        {
-            if (playing && paused)
-            {
-                al.alSourcePlay(source);
-            }
-
-            if (playing)
-            {
-                if (paused)
-                    al.alSourcePause(source);
-                else {
-                    al.alSourcePlay(source);
-                }
-            } else
-                al.alSourceStop(source);
-
-            playChanged = false;
-        } else if (playing)
-        {
-            // Bind buffer with a source.
-            values.rewind();
-
-            al.alGetSourcei(source, AL.AL_SOURCE_STATE, values);
-            if (values.get(0) == AL.AL_STOPPED)
-            {
-                playing = false;
-            }
-        }
+        updatePlayState(al);
     }
 
     /*
@@ -223,6 +190,34 @@ public class PointSound extends Sound
     {
     }
 
+    //----------------------------------------------------------
+    // Methods defined by VirtualAudioRenderable
+    //----------------------------------------------------------
+
+    /**
+     * Calculate the gain that this sound would be heard at from the given
+     * listener position. Uses the same inverse clamped distance model as
+     * the OpenAL device.
+     *
+     * @param transform The transformation from the sound to the world
+     * @param listener The position of the listener in world coordinates
+     * @return A gain value, zero or greater
+     */
+    @Override
+    public float getAudibleGain(Matrix4d transform, Point3d listener)
+    {
+        if(!isAudible())
+            return 0;
+
+        transform.transform(position, gainPoint);
+
+        double x = listener.x - gainPoint.x;
+        double y = listener.y - gainPoint.y;
+        double z = listener.z - gainPoint.z;
+
+        return intensity * distanceAttenuation((float)Math.sqrt(x * x + y * y + z * z));
+    }
+
     //---------------------------------------------------------------
     // Methods defined by Comparable
     //---------------------------------------------------------------
@@ -316,6 +311,27 @@ public class PointSound extends Sound
         rolloffFactor = factor;
     }
 
+    /**
+     * Calculate the attenuation at the given distance from the sound, using
+     * the inverse clamped distance model. A reference distance of zero or
+     * less turns off the attenuation, as it does in OpenAL.
+     *
+     * @param distance The distance from the sound to the listener
+     * @return The attenuation factor between 0 and 1
+     */
+    protected float distanceAttenuation(float distance)
+    {
+        if(refDistance <= 0)
+            return 1;
+
+        float d = Math.max(distance, refDistance);
+        d = Math.min(d, maxDistance);
+
+        float denom = refDistance + rolloffFactor * (d - refDistance);
+
+        return denom <= 0 ? 1 : refDistance / denom;
+    }
+
     /**
      * Compares this object with the specified object for order. Returns a
      * negative integer, zero, or a positive integer as this object is less
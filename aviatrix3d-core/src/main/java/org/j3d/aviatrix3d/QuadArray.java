@@ -215,57 +215,57 @@ public class QuadArray extends VertexGeometry
             switch(coord_comps)
             {
                 case 2:
-                    wkPolygon[0] = coordinates[i * 3 * 2];
-                    wkPolygon[1] = coordinates[i * 3 * 2 + 1];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 2);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 2 + 1);
                     wkPolygon[2] = 0;
 
-                    wkPolygon[3] = coordinates[i * 3 * 2 + 2];
-                    wkPolygon[4] = coordinates[i * 3 * 2 + 3];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 2 + 2);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 2 + 3);
                     wkPolygon[5] = 0;
 
-                    wkPolygon[6] = coordinates[i * 3 * 2 + 4];
-                    wkPolygon[7] = coordinates[i * 3 * 2 + 5];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 2 + 4);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 2 + 5);
                     wkPolygon[8] = 0;
 
-                    wkPolygon[9] = coordinates[i * 3 * 2 + 6];
-                    wkPolygon[10] = coordinates[i * 3 * 2 + 7];
+                    wkPolygon[9] = vertexBuffer.get(i * 3 * 2 + 6);
+                    wkPolygon[10] = vertexBuffer.get(i * 3 * 2 + 7);
                     wkPolygon[11] = 0;
                     break;
 
                 case 3:
-                    wkPolygon[0] = coordinates[i * 3 * 3];
-                    wkPolygon[1] = coordinates[i * 3 * 3 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 3 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 3);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 3 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 3 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 3 + 3];
-                    wkPolygon[4] = coordinates[i * 3 * 3 + 4];
-                    wkPolygon[5] = coordinates[i * 3 * 3 + 5];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 3 + 3);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 3 + 4);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 3 + 5);
 
-                    wkPolygon[6] = coordinates[i * 3 * 3 + 6];
-                    wkPolygon[7] = coordinates[i * 3 * 3 + 7];
-                    wkPolygon[8] = coordinates[i * 3 * 3 + 8];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 3 + 6);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 3 + 7);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 3 + 8);
 
-                    wkPolygon[9] = coordinates[i * 3 * 3 + 10];
-                    wkPolygon[10] = coordinates[i * 3 * 3 + 11];
-                    wkPolygon[11] = coordinates[i * 3 * 3 + 12];
+                    wkPolygon[9] = vertexBuffer.get(i * 3 * 3 + 10);
+                    wkPolygon[10] = vertexBuffer.get(i * 3 * 3 + 11);
+                    wkPolygon[11] = vertexBuffer.get(i * 3 * 3 + 12);
                     break;
 
                 case 4:
-                    wkPolygon[0] = coordinates[i * 3 * 4];
-                    wkPolygon[1] = coordinates[i * 3 * 4 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 4 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 4);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 4 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 4 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 4 + 4];
-                    wkPolygon[4] = coordinates[i * 3 * 4 + 5];
-                    wkPolygon[5] = coordinates[i * 3 * 4 + 6];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 4 + 4);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 4 + 5);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 4 + 6);
 
-                    wkPolygon[6] = coordinates[i * 3 * 4 + 8];
-                    wkPolygon[7] = coordinates[i * 3 * 4 + 9];
-                    wkPolygon[8] = coordinates[i * 3 * 4 + 10];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 4 + 8);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 4 + 9);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 4 + 10);
 
-                    wkPolygon[9] = coordinates[i * 3 * 4 + 12];
-                    wkPolygon[10] = coordinates[i * 3 * 4 + 13];
-                    wkPolygon[11] = coordinates[i * 3 * 4 + 14];
+                    wkPolygon[9] = vertexBuffer.get(i * 3 * 4 + 12);
+                    wkPolygon[10] = vertexBuffer.get(i * 3 * 4 + 13);
+                    wkPolygon[11] = vertexBuffer.get(i * 3 * 4 + 14);
                     break;
             }
 
@@ -331,57 +331,57 @@ public class QuadArray extends VertexGeometry
             switch(coord_comps)
             {
                 case 2:
-                    wkPolygon[0] = coordinates[i * 3 * 2];
-                    wkPolygon[1] = coordinates[i * 3 * 2 + 1];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 2);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 2 + 1);
                     wkPolygon[2] = 0;
 
-                    wkPolygon[3] = coordinates[i * 3 * 2 + 2];
-                    wkPolygon[4] = coordinates[i * 3 * 2 + 3];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 2 + 2);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 2 + 3);
                     wkPolygon[5] = 0;
 
-                    wkPolygon[6] = coordinates[i * 3 * 2 + 4];
-                    wkPolygon[7] = coordinates[i * 3 * 2 + 5];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 2 + 4);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 2 + 5);
                     wkPolygon[8] = 0;
 
-                    wkPolygon[9] = coordinates[i * 3 * 2 + 6];
-                    wkPolygon[10] = coordinates[i * 3 * 2 + 7];
+                    wkPolygon[9] = vertexBuffer.get(i * 3 * 2 + 6);
+                    wkPolygon[10] = vertexBuffer.get(i * 3 * 2 + 7);
                     wkPolygon[11] = 0;
                     break;
 
                 case 3:
-                    wkPolygon[0] = coordinates[i * 3 * 3];
-                    wkPolygon[1] = coordinates[i * 3 * 3 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 3 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 3);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 3 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 3 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 3 + 3];
-                    wkPolygon[4] = coordinates[i * 3 * 3 + 4];
-                    wkPolygon[5] = coordinates[i * 3 * 3 + 5];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 3 + 3);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 3 + 4);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 3 + 5);
 
-                    wkPolygon[6] = coordinates[i * 3 * 3 + 6];
-                    wkPolygon[7] = coordinates[i * 3 * 3 + 7];
-                    wkPolygon[8] = coordinates[i * 3 * 3 + 8];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 3 + 6);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 3 + 7);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 3 + 8);
 
-                    wkPolygon[9] = coordinates[i * 3 * 3 + 10];
-                    wkPolygon[10] = coordinates[i * 3 * 3 + 11];
-                    wkPolygon[11] = coordinates[i * 3 * 3 + 12];
+                    wkPolygon[9] = vertexBuffer.get(i * 3 * 3 + 10);
+                    wkPolygon[10] = vertexBuffer.get(i * 3 * 3 + 11);
+                    wkPolygon[11] = vertexBuffer.get(i * 3 * 3 + 12);
                     break;
 
                 case 4:
-                    wkPolygon[0] = coordinates[i * 3 * 4];
-                    wkPolygon[1] = coordinates[i * 3 * 4 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 4 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 4);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 4 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 4 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 4 + 4];
-                    wkPolygon[4] = coordinates[i * 3 * 4 + 5];
-                    wkPolygon[5] = coordinates[i * 3 * 4 + 6];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 4 + 4);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 4 + 5);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 4 + 6);
 
-                    wkPolygon[6] = coordinates[i * 3 * 4 + 8];
-                    wkPolygon[7] = coordinates[i * 3 * 4 + 9];
-                    wkPolygon[8] = coordinates[i * 3 * 4 + 10];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 4 + 8);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 4 + 9);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 4 + 10);
 
-                    wkPolygon[9] = coordinates[i * 3 * 4 + 12];
-                    wkPolygon[10] = coordinates[i * 3 * 4 + 13];
-                    wkPolygon[11] = coordinates[i * 3 * 4 + 14];
+                    wkPolygon[9] = vertexBuffer.get(i * 3 * 4 + 12);
+                    wkPolygon[10] = vertexBuffer.get(i * 3 * 4 + 13);
+                    wkPolygon[11] = vertexBuffer.get(i * 3 * 4 + 14);
                     break;
             }
 
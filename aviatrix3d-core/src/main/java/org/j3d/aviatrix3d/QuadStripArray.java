@@ -194,57 +194,57 @@ public class QuadStripArray extends VertexGeometry
                 switch(coord_comps)
                 {
                     case 2:
-                        wkPolygon[0] = coordinates[coord_offset];
-                        wkPolygon[1] = coordinates[coord_offset + 1];
+                        wkPolygon[0] = vertexBuffer.get(coord_offset);
+                        wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
                         wkPolygon[2] = 0;
 
-                        wkPolygon[3] = coordinates[coord_offset + 2];
-                        wkPolygon[4] = coordinates[coord_offset + 3];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset + 2);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 3);
                         wkPolygon[5] = 0;
 
-                        wkPolygon[6] = coordinates[coord_offset + 4];
-                        wkPolygon[7] = coordinates[coord_offset + 5];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 5);
                         wkPolygon[8] = 0;
 
-                        wkPolygon[9] = coordinates[coord_offset + 6];
-                        wkPolygon[10] = coordinates[coord_offset + 7];
+                        wkPolygon[9] = vertexBuffer.get(coord_offset + 6);
+                        wkPolygon[10] = vertexBuffer.get(coord_offset + 7);
                         wkPolygon[11] = 0;
                         break;
 
                     case 3:
-                        wkPolygon[0] = coordinates[coord_offset];
-                        wkPolygon[1] = coordinates[coord_offset + 1];
-                        wkPolygon[2] = coordinates[coord_offset + 2];
+                        wkPolygon[0] = vertexBuffer.get(coord_offset);
+                        wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[3] = coordinates[coord_offset + 3];
-                        wkPolygon[4] = coordinates[coord_offset + 4];
-                        wkPolygon[5] = coordinates[coord_offset + 5];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset + 3);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 5);
 
-                        wkPolygon[6] = coordinates[coord_offset + 6];
-                        wkPolygon[7] = coordinates[coord_offset + 7];
-                        wkPolygon[8] = coordinates[coord_offset + 8];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 6);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 7);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 8);
 
-                        wkPolygon[9] = coordinates[coord_offset + 9];
-                        wkPolygon[10] = coordinates[coord_offset + 10];
-                        wkPolygon[11] = coordinates[coord_offset + 11];
+                        wkPolygon[9] = vertexBuffer.get(coord_offset + 9);
+                        wkPolygon[10] = vertexBuffer.get(coord_offset + 10);
+                        wkPolygon[11] = vertexBuffer.get(coord_offset + 11);
                         break;
 
                     case 4:
-                        wkPolygon[0] = coordinates[coord_offset];
-                        wkPolygon[1] = coordinates[coord_offset + 1];
-                        wkPolygon[2] = coordinates[coord_offset + 2];
+                        wkPolygon[0] = vertexBuffer.get(coord_offset);
+                        wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[3] = coordinates[coord_offset + 4];
-                        wkPolygon[4] = coordinates[coord_offset + 5];
-                        wkPolygon[5] = coordinates[coord_offset + 6];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 5);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 6);
 
-                        wkPolygon[6] = coordinates[coord_offset + 8];
-                        wkPolygon[7] = coordinates[coord_offset + 9];
-                        wkPolygon[8] = coordinates[coord_offset + 10];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 8);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 9);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 10);
 
-                        wkPolygon[9] = coordinates[coord_offset + 12];
-                        wkPolygon[10] = coordinates[coord_offset + 13];
-                        wkPolygon[11] = coordinates[coord_offset + 14];
+                        wkPolygon[9] = vertexBuffer.get(coord_offset + 12);
+                        wkPolygon[10] = vertexBuffer.get(coord_offset + 13);
+                        wkPolygon[11] = vertexBuffer.get(coord_offset + 14);
                         break;
                 }
 
@@ -337,57 +337,57 @@ public class QuadStripArray extends VertexGeometry
                 switch(coord_comps)
                 {
                     case 2:
-                        wkPolygon[0] = coordinates[coord_offset];
-                        wkPolygon[1] = coordinates[coord_offset + 1];
+                        wkPolygon[0] = vertexBuffer.get(coord_offset);
+                        wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
                         wkPolygon[2] = 0;
 
-                        wkPolygon[3] = coordinates[coord_offset + 2];
-                        wkPolygon[4] = coordinates[coord_offset + 3];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset + 2);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 3);
                         wkPolygon[5] = 0;
 
-                        wkPolygon[6] = coordinates[coord_offset + 4];
-                        wkPolygon[7] = coordinates[coord_offset + 5];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 5);
                         wkPolygon[8] = 0;
 
-                        wkPolygon[9] = coordinates[coord_offset + 6];
-                        wkPolygon[10] = coordinates[coord_offset + 7];
+                        wkPolygon[9] = vertexBuffer.get(coord_offset + 6);
+                        wkPolygon[10] = vertexBuffer.get(coord_offset + 7);
                         wkPolygon[11] = 0;
                         break;
 
                     case 3:
-                        wkPolygon[0] = coordinates[coord_offset];
-                        wkPolygon[1] = coordinates[coord_offset + 1];
-                        wkPolygon[2] = coordinates[coord_offset + 2];
+                        wkPolygon[0] = vertexBuffer.get(coord_offset);
+                        wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[3] = coordinates[coord_offset + 3];
-                        wkPolygon[4] = coordinates[coord_offset + 4];
-                        wkPolygon[5] = coordinates[coord_offset + 5];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset + 3);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 5);
 
-                        wkPolygon[6] = coordinates[coord_offset + 6];
-                        wkPolygon[7] = coordinates[coord_offset + 7];
-                        wkPolygon[8] = coordinates[coord_offset + 8];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 6);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 7);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 8);
 
-                        wkPolygon[9] = coordinates[coord_offset + 9];
-                        wkPolygon[10] = coordinates[coord_offset + 10];
-                        wkPolygon[11] = coordinates[coord_offset + 11];
+                        wkPolygon[9] = vertexBuffer.get(coord_offset + 9);
+                        wkPolygon[10] = vertexBuffer.get(coord_offset + 10);
+                        wkPolygon[11] = vertexBuffer.get(coord_offset + 11);
                         break;
 
                     case 4:
-                        wkPolygon[0] = coordinates[coord_offset];
-                        wkPolygon[1] = coordinates[coord_offset + 1];
-                        wkPolygon[2] = coordinates[coord_offset + 2];
+                        wkPolygon[0] = vertexBuffer.get(coord_offset);
+                        wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[3] = coordinates[coord_offset + 4];
-                        wkPolygon[4] = coordinates[coord_offset + 5];
-                        wkPolygon[5] = coordinates[coord_offset + 6];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 5);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 6);
 
-                        wkPolygon[6] = coordinates[coord_offset + 8];
-                        wkPolygon[7] = coordinates[coord_offset + 9];
-                        wkPolygon[8] = coordinates[coord_offset + 10];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 8);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 9);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 10);
 
-                        wkPolygon[9] = coordinates[coord_offset + 12];
-                        wkPolygon[10] = coordinates[coord_offset + 13];
-                        wkPolygon[11] = coordinates[coord_offset + 14];
+                        wkPolygon[9] = vertexBuffer.get(coord_offset + 12);
+                        wkPolygon[10] = vertexBuffer.get(coord_offset + 13);
+                        wkPolygon[11] = vertexBuffer.get(coord_offset + 14);
                         break;
                 }
 
@@ -58,17 +58,19 @@ class ShaderArgumentValue
     /** Flag for whether the matrix values should be transposed */
     boolean transposeMatrix;
 
-    /** Index of the uniform location value once fetched from GL */
-    int uniformLocation;
+    /**
+     * Incremented every time the value is set, so that renderers can tell
+     * whether it needs to be sent to GL again.
+     */
+    int changeCount;
 
 
     /**
-     * Create a new instance of the value. Set the uniform location to -1
-     * to indicate it has not been fetched yet.
+     * Create a new instance of the value.
      */
     ShaderArgumentValue()
     {
-        uniformLocation = -1;
+        changeCount = 0;
     }
 
     //---------------------------------------------------------------
@@ -111,8 +113,7 @@ class ShaderArgumentValue
         if((dataType != sav.dataType) ||
            (size != sav.size) ||
            (count != sav.count) ||
-           (transposeMatrix != sav.transposeMatrix) ||
-           (uniformLocation != sav.uniformLocation))
+           (transposeMatrix != sav.transposeMatrix))
             return false;
 
         int num = count * size;
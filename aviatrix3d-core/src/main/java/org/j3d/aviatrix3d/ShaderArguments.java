@@ -18,11 +18,14 @@ import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.util.Locale;
 import java.util.HashMap;
+import java.util.WeakHashMap;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 
 import com.jogamp.opengl.glu.GLU;
+import org.j3d.util.DefaultErrorReporter;
+import org.j3d.util.ErrorReporter;
 import org.j3d.util.HashSet;
 import org.j3d.util.I18nManager;
 
@@ -43,6 +46,13 @@ import org.j3d.aviatrix3d.rendering.ComponentRenderable;
  * made on whether the old type and new type match.
  * <p>
  *
+ * Uniform locations are looked up once for each program the arguments are
+ * used with. A uniform is only sent to GL when its value has been set since
+ * it was last sent to that program, or when another set of arguments has
+ * written to the same program in between. Uniforms that cannot be found in
+ * a program are reported once as a warning and then ignored for it.
+ * <p>
+ *
  * The external data passed to the ComponentRenderable calls shall be an
  * <code>Integer</code> instance that represents the GL program identifier
  * generated for the shader program this instance is working with.
@@ -128,28 +138,169 @@ public class ShaderArguments extends NodeComponent
     /** The uniform data type is an int array */
     public static final int SAMPLER_UNIFORM_TYPE = ShaderArgumentValue.SAMPLER;
 
+    /** Location value for a uniform that has not been looked up yet */
+    private static final int LOCATION_UNKNOWN = -2;
+
+    /** Location value for a uniform that does not exist in the program */
+    private static final int LOCATION_INVALID = -1;
+
+    /**
+     * The last argument set to write to each program, per GL context. Used
+     * to work out if the uniforms held by a program are still ours.
+     */
+    private static final WeakHashMap<GL, HashMap<Integer, ProgramOwner>> programOwners =
+        new WeakHashMap<>();
+
+    /** Source of unique IDs for each argument set */
+    private static int nextArgumentsId = 1;
+
+    /** Reporter instance for handing out errors */
+    private static ErrorReporter errorReporter =
+        DefaultErrorReporter.getDefaultReporter();
 
     /** Mapping of uniform var names to their current values */
     private HashMap<String, ShaderArgumentValue> values;
 
-    /** Ignored var names for those that we have tried to fetch and failed */
-    private HashSet<String> ignoredNames;
+    /** Names that could not be found in a program and have been reported */
+    private HashSet<String> reportedNames;
 
     /** List of the values existing */
     private String[] varNames;
 
+    /** The values matching the names, in the same order */
+    private ShaderArgumentValue[] varValues;
+
     /** Number of currently valid names */
     private int numVarNames;
 
+    /** Upload state for each program these arguments have been used with */
+    private ProgramState[] programStates;
+
+    /** Number of valid items in the program state list */
+    private int numProgramStates;
+
+    /** Index of the program state last used, for quick lookup */
+    private int lastProgramState;
+
+    /** The unique ID of this argument set for program ownership checks */
+    private final int argumentsId;
+
+    /**
+     * Details of who last wrote uniforms to a program and how many times it
+     * has been linked.
+     */
+    private static class ProgramOwner
+    {
+        /** ID of the argument set that last wrote to the program */
+        int argumentsId;
+
+        /** Incremented each time the program is relinked or deleted */
+        int linkCount;
+    }
+
+    /**
+     * The locations and last uploaded versions of each uniform for a single
+     * program in a single context.
+     */
+    private static class ProgramState
+    {
+        /** The context the program lives in */
+        GL gl;
+
+        /** The ID of the program */
+        int programId;
+
+        /** The link count of the program when the locations were fetched */
+        int linkCount;
+
+        /** Uniform location of each value, in the same order as varValues */
+        int[] locations;
+
+        /** The change count of each value when it was last uploaded */
+        int[] uploadedChanges;
+
+        /**
+         * Create a new state for the given program.
+         *
+         * @param gl The context the program lives in
+         * @param id The ID of the program
+         */
+        ProgramState(GL gl, int id)
+        {
+            this.gl = gl;
+            programId = id;
+            linkCount = -1;
+            locations = new int[0];
+            uploadedChanges = new int[0];
+        }
+
+        /**
+         * Make sure the arrays can hold at least the given number of values.
+         * New entries are marked as unknown and not uploaded.
+         *
+         * @param size The number of uniforms that need to be held
+         */
+        void ensureCapacity(int size)
+        {
+            int old_size = locations.length;
+
+            if(old_size >= size)
+                return;
+
+            int[] tmp = new int[size];
+            System.arraycopy(locations, 0, tmp, 0, old_size);
+            locations = tmp;
+
+            tmp = new int[size];
+            System.arraycopy(uploadedChanges, 0, tmp, 0, old_size);
+            uploadedChanges = tmp;
+
+            for(int i = old_size; i < size; i++)
+            {
+                locations[i] = LOCATION_UNKNOWN;
+                uploadedChanges[i] = -1;
+            }
+        }
+
+        /**
+         * Mark all the uniforms as needing to be uploaded again.
+         */
+        void clearUploads()
+        {
+            for(int i = 0; i < uploadedChanges.length; i++)
+                uploadedChanges[i] = -1;
+        }
+
+        /**
+         * Mark all the uniform locations as needing to be fetched again.
+         */
+        void clearLocations()
+        {
+            for(int i = 0; i < locations.length; i++)
+                locations[i] = LOCATION_UNKNOWN;
+
+            clearUploads();
+        }
+    }
+
     /**
      * Constructs a Shader with default values.
      */
     public ShaderArguments()
     {
         values = new HashMap<>();
-        ignoredNames = new HashSet<>();
+        reportedNames = new HashSet<>();
         varNames = new String[32];
+        varValues = new ShaderArgumentValue[32];
         numVarNames = 0;
+        programStates = new ProgramState[2];
+        numProgramStates = 0;
+        lastProgramState = 0;
+
+        synchronized(programOwners)
+        {
+            argumentsId = nextArgumentsId++;
+        }
     }
 
     //---------------------------------------------------------------
@@ -165,21 +316,27 @@ public class ShaderArguments extends NodeComponent
     @Override
     public void render(GL2 gl, Object programId)
     {
+        int program_id = ((Integer)programId).intValue();
+        ProgramState state = getProgramState(gl, program_id);
+
         for(int i = 0; i < numVarNames; i++)
         {
-            if(ignoredNames.contains(varNames[i]))
+            ShaderArgumentValue val = varValues[i];
+
+            // Nothing set yet, or not changed since it was last sent
+            if(val.dataType == 0 || state.uploadedChanges[i] == val.changeCount)
                 continue;
 
-            ShaderArgumentValue val = values.get(varNames[i]);
+            state.uploadedChanges[i] = val.changeCount;
 
-            if((val.uniformLocation == -1) && !ignoredNames.contains(varNames[i]))
+            int location = state.locations[i];
+
+            if(location == LOCATION_UNKNOWN)
             {
-                val.uniformLocation =
-                    gl.glGetUniformLocation((Integer)programId, varNames[i]);
+                location = gl.glGetUniformLocation(program_id, varNames[i]);
+                state.locations[i] = location;
 
-                // Still not valid? Ignore it then.
-                // TODO: Maybe we want to issue an error message here
-                if(val.uniformLocation == -1)
+                if(location == LOCATION_INVALID && !reportedNames.contains(varNames[i]))
                 {
                     I18nManager intl_mgr = I18nManager.getManager();
                     Locale lcl = intl_mgr.getFoundLocale();
@@ -190,42 +347,43 @@ public class ShaderArguments extends NodeComponent
                         new MessageFormat(msg_pattern, lcl);
                     String msg = msg_fmt.format(msg_args);
 
-                    //errorReporter.errorReport(msg, e);
-                    System.out.println(msg);
+                    errorReporter.warningReport(msg, null);
 
-                    ignoredNames.add(varNames[i]);
-                    continue;
+                    reportedNames.add(varNames[i]);
                 }
             }
 
+            if(location == LOCATION_INVALID)
+                continue;
+
             switch(val.dataType)
             {
                 case ShaderArgumentValue.INT_ARRAY:
                     switch(val.size)
                     {
                         case 1:
-                            gl.glUniform1iv(val.uniformLocation,
+                            gl.glUniform1iv(location,
                                                val.count,
                                                val.intData,
                                                0);
                             break;
 
                         case 2:
-                            gl.glUniform2iv(val.uniformLocation,
+                            gl.glUniform2iv(location,
                                                val.count,
                                                val.intData,
                                                0);
                             break;
 
                         case 3:
-                            gl.glUniform3iv(val.uniformLocation,
+                            gl.glUniform3iv(location,
                                                val.count,
                                                val.intData,
                                                0);
                             break;
 
                         case 4:
-                            gl.glUniform4iv(val.uniformLocation,
+                            gl.glUniform4iv(location,
                                                val.count,
                                                val.intData,
                                                0);
@@ -237,28 +395,28 @@ public class ShaderArguments extends NodeComponent
                     switch(val.size)
                     {
                         case 1:
-                            gl.glUniform1fv(val.uniformLocation,
+                            gl.glUniform1fv(location,
                                                val.count,
                                                val.floatData,
                                                0);
                             break;
 
                         case 2:
-                            gl.glUniform2fv(val.uniformLocation,
+                            gl.glUniform2fv(location,
                                                val.count,
                                                val.floatData,
                                                0);
                             break;
 
                         case 3:
-                            gl.glUniform3fv(val.uniformLocation,
+                            gl.glUniform3fv(location,
                                                val.count,
                                                val.floatData,
                                                0);
                             break;
 
                         case 4:
-                            gl.glUniform4fv(val.uniformLocation,
+                            gl.glUniform4fv(location,
                                                val.count,
                                                val.floatData,
                                                0);
@@ -270,7 +428,7 @@ public class ShaderArguments extends NodeComponent
                     switch(val.size)
                     {
                         case 2:
-                            gl.glUniformMatrix2fv(val.uniformLocation,
+                            gl.glUniformMatrix2fv(location,
                                                      val.count,
                                                      val.transposeMatrix,
                                                      val.floatData,
@@ -278,7 +436,7 @@ public class ShaderArguments extends NodeComponent
                             break;
 
                         case 3:
-                            gl.glUniformMatrix3fv(val.uniformLocation,
+                            gl.glUniformMatrix3fv(location,
                                                      val.count,
                                                      val.transposeMatrix,
                                                      val.floatData,
@@ -286,7 +444,7 @@ public class ShaderArguments extends NodeComponent
                             break;
 
                         case 4:
-                            gl.glUniformMatrix4fv(val.uniformLocation,
+                            gl.glUniformMatrix4fv(location,
                                                      val.count,
                                                      val.transposeMatrix,
                                                      val.floatData,
@@ -296,7 +454,7 @@ public class ShaderArguments extends NodeComponent
                     break;
 
                 case ShaderArgumentValue.SAMPLER:
-                    gl.glUniform1i(val.uniformLocation, val.intData[0]);
+                    gl.glUniform1i(location, val.intData[0]);
                     break;
             }
         }
@@ -363,6 +521,23 @@ public class ShaderArguments extends NodeComponent
     // Local Methods
     //---------------------------------------------------------------
 
+    /**
+     * Register an error reporter with the class so that any warnings about
+     * uniforms that cannot be found in a shader are reported in a nice,
+     * pretty fashion. Setting a value of null will clear the currently set
+     * reporter. If one is already set, the new value replaces the old.
+     *
+     * @param reporter The instance to use or null
+     */
+    public static void setErrorReporter(ErrorReporter reporter)
+    {
+        errorReporter = reporter;
+
+        // Reset the default only if we are not shutting down the system.
+        if(reporter == null)
+            errorReporter = DefaultErrorReporter.getDefaultReporter();
+    }
+
     /**
      * Set the value of an float array uniform variable. This value will be set
      * the next time the shader is used. The array of provided data should be
@@ -431,6 +606,7 @@ public class ShaderArguments extends NodeComponent
             val.floatData = new float[s2];
 
         System.arraycopy(data, 0, val.floatData, 0, s2);
+        val.changeCount++;
     }
 
     /**
@@ -501,6 +677,7 @@ public class ShaderArguments extends NodeComponent
             val.intData = new int[s2];
 
         System.arraycopy(data, 0, val.intData, 0, s2);
+        val.changeCount++;
     }
 
     /**
@@ -578,6 +755,7 @@ public class ShaderArguments extends NodeComponent
 
         System.arraycopy(data, 0, val.floatData, 0, s2);
         val.transposeMatrix = !columnMajor;
+        val.changeCount++;
     }
 
     /**
@@ -611,6 +789,7 @@ public class ShaderArguments extends NodeComponent
             val.intData = new int[4];
 
         val.intData[0] = textureUnitId;
+        val.changeCount++;
     }
 
     /**
@@ -766,7 +945,8 @@ public class ShaderArguments extends NodeComponent
            !updateHandler.isDataWritePermitted(this))
             throw new InvalidWriteTimingException(getDataWriteTimingMessage());
 
-        values.remove(name);
+        if(values.remove(name) == null)
+            return;
 
         // Run along the array looking for the matching name
         for(int i = 0; i < numVarNames; i++)
@@ -778,9 +958,139 @@ public class ShaderArguments extends NodeComponent
                                  varNames,
                                  i,
                                  numVarNames - i - 1);
+                System.arraycopy(varValues,
+                                 i + 1,
+                                 varValues,
+                                 i,
+                                 numVarNames - i - 1);
+
+                numVarNames--;
+                varNames[numVarNames] = null;
+                varValues[numVarNames] = null;
                 break;
             }
         }
+
+        // The per-program state is indexed the same as the values, so
+        // just drop it and start again.
+        for(int i = 0; i < numProgramStates; i++)
+            programStates[i] = null;
+
+        numProgramStates = 0;
+        lastProgramState = 0;
+        reportedNames.remove(name);
+    }
+
+    /**
+     * Notify all argument sets that the given program has been linked or
+     * deleted, so any cached uniform locations for it are no longer valid.
+     *
+     * @param gl The context the program belongs to
+     * @param programId The ID of the program that changed
+     */
+    static void programChanged(GL gl, int programId)
+    {
+        synchronized(programOwners)
+        {
+            HashMap<Integer, ProgramOwner> owners = programOwners.get(gl);
+
+            if(owners == null)
+                return;
+
+            ProgramOwner owner = owners.get(programId);
+
+            if(owner != null)
+            {
+                owner.argumentsId = 0;
+                owner.linkCount++;
+            }
+        }
+    }
+
+    /**
+     * Find the upload state for the program, creating it if needed. Also
+     * claims the program as being written to by this argument set and
+     * resets the state if something else wrote to it or it was relinked
+     * since these arguments were last used with it.
+     *
+     * @param gl The context the program belongs to
+     * @param programId The ID of the program about to be written to
+     * @return The state matching the program
+     */
+    private ProgramState getProgramState(GL gl, int programId)
+    {
+        ProgramState state = null;
+
+        if(numProgramStates != 0)
+        {
+            state = programStates[lastProgramState];
+
+            if(state.gl != gl || state.programId != programId)
+            {
+                state = null;
+
+                for(int i = 0; i < numProgramStates; i++)
+                {
+                    ProgramState s = programStates[i];
+
+                    if(s.gl == gl && s.programId == programId)
+                    {
+                        state = s;
+                        lastProgramState = i;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if(state == null)
+        {
+            if(numProgramStates == programStates.length)
+            {
+                ProgramState[] tmp = new ProgramState[numProgramStates + 2];
+                System.arraycopy(programStates, 0, tmp, 0, numProgramStates);
+                programStates = tmp;
+            }
+
+            state = new ProgramState(gl, programId);
+            lastProgramState = numProgramStates;
+            programStates[numProgramStates++] = state;
+        }
+
+        state.ensureCapacity(varValues.length);
+
+        synchronized(programOwners)
+        {
+            HashMap<Integer, ProgramOwner> owners = programOwners.get(gl);
+
+            if(owners == null)
+            {
+                owners = new HashMap<>();
+                programOwners.put(gl, owners);
+            }
+
+            ProgramOwner owner = owners.get(programId);
+
+            if(owner == null)
+            {
+                owner = new ProgramOwner();
+                owners.put(programId, owner);
+            }
+
+            if(owner.linkCount != state.linkCount)
+            {
+                state.clearLocations();
+                state.linkCount = owner.linkCount;
+            }
+            else if(owner.argumentsId != argumentsId)
+            {
+                state.clearUploads();
+            }
+
+            owner.argumentsId = argumentsId;
+        }
+
+        return state;
     }
 
     /**
@@ -802,13 +1112,18 @@ public class ShaderArguments extends NodeComponent
                 String[] tmp = new String[new_size];
                 System.arraycopy(varNames, 0, tmp, 0, varNames.length);
                 varNames = tmp;
-            }
 
-            varNames[numVarNames] = name;
-            numVarNames++;
+                ShaderArgumentValue[] tmp_v = new ShaderArgumentValue[new_size];
+                System.arraycopy(varValues, 0, tmp_v, 0, varValues.length);
+                varValues = tmp_v;
+            }
 
             val = new ShaderArgumentValue();
             values.put(name, val);
+
+            varNames[numVarNames] = name;
+            varValues[numVarNames] = val;
+            numVarNames++;
         }
 
         return val;
@@ -21,9 +21,11 @@ import java.util.Set;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES3;
 
 // Local imports
 import org.j3d.aviatrix3d.rendering.DeletableRenderable;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 import org.j3d.aviatrix3d.rendering.ShaderComponentRenderable;
 import org.j3d.aviatrix3d.rendering.ShaderSourceRenderable;
 
@@ -45,6 +47,13 @@ import org.j3d.aviatrix3d.rendering.ShaderSourceRenderable;
  * {@link ShaderArguments} class. This allows a single instance of this program
  * to be created, yet used in different parts of the scene graph with different
  * settings (eg a marble shader that has different colour combos).
+ * <p>
+ *
+ * Values that are shared by many programs, such as camera and lighting
+ * details, can be placed in a {@link ShaderUniformBlock} and added to each
+ * program that uses them. After linking, each block is connected to the
+ * program's uniform block of the same name, and is bound each time the
+ * program is used.
  *
  * @author Justin Couch
  * @version $Revision: 2.23 $
@@ -81,6 +90,12 @@ public class ShaderProgram extends NodeComponent
     /** The last fetched info string, if any */
     private String infoString;
 
+    /** Uniform blocks shared with other programs */
+    private ArrayList<ShaderUniformBlock> uniformBlocks;
+
+    /** Contexts where the block bindings have been set since the last link */
+    private HashMap<GL, Boolean> blocksBound;
+
     /**
      * Constructs a Shader program with nothing set.
      */
@@ -91,6 +106,8 @@ public class ShaderProgram extends NodeComponent
         currentObjects = new ArrayList<>();
         attributeNames = new HashMap<>();
         programIdMap = new HashMap<>();
+        uniformBlocks = new ArrayList<>();
+        blocksBound = new HashMap<>();
 
         linked = new HashMap<>();
     }
@@ -153,13 +170,37 @@ public class ShaderProgram extends NodeComponent
         if(p_id == null)
             return;
 
-        gl.glUseProgramObjectARB(p_id.intValue());
+        GLStateCache.glUseProgramObjectARB(gl, p_id.intValue());
+
+        int num_blocks = uniformBlocks.size();
+
+        if(num_blocks != 0)
+        {
+            if(blocksBound.get(gl) == null)
+            {
+                int program_id = p_id.intValue();
+
+                for(int i = 0; i < num_blocks; i++)
+                {
+                    ShaderUniformBlock block = uniformBlocks.get(i);
+                    int index = gl.glGetUniformBlockIndex(program_id, block.getBlockName());
+
+                    if(index != GL2ES3.GL_INVALID_INDEX)
+                        gl.glUniformBlockBinding(program_id, index, block.getBindingPoint());
+                }
+
+                blocksBound.put(gl, Boolean.TRUE);
+            }
+
+            for(int i = 0; i < num_blocks; i++)
+                uniformBlocks.get(i).bind(gl);
+        }
     }
 
     @Override
     public void postRender(GL2 gl)
     {
-        gl.glUseProgramObjectARB(0);
+        GLStateCache.glUseProgramObjectARB(gl, 0);
     }
 
     //---------------------------------------------------------------
@@ -240,6 +281,10 @@ public class ShaderProgram extends NodeComponent
         // Finally link everything together.
         gl.glLinkProgramARB(program_id);
 
+        // Linking resets all the uniform values and may move them around
+        ShaderArguments.programChanged(gl, program_id);
+        blocksBound.remove(gl);
+
         if(confirmLink)
         {
             int[] bool = new int[1];
@@ -298,8 +343,10 @@ public class ShaderProgram extends NodeComponent
         int program_id = p_id.intValue();
 
         gl.glDeleteObjectARB(program_id);
+        ShaderArguments.programChanged(gl, program_id);
 
         linked.remove(gl);
+        blocksBound.remove(gl);
     }
 
     //---------------------------------------------------------------
@@ -319,6 +366,11 @@ public class ShaderProgram extends NodeComponent
             currentObject.setUpdateHandler(updateHandler);
         }
 
+        for (ShaderUniformBlock block : uniformBlocks)
+        {
+            block.setUpdateHandler(updateHandler);
+        }
+
         if((linked.size() == 0) && (updateHandler != null))
             updateHandler.shaderRequiresInit(this, true);
 
@@ -341,6 +393,11 @@ public class ShaderProgram extends NodeComponent
                 obj.setLive(state);
             }
 
+            for (ShaderUniformBlock block : uniformBlocks)
+            {
+                block.setLive(state);
+            }
+
             super.setLive(state);
 
             if(!state && updateHandler != null)
@@ -446,6 +503,83 @@ public class ShaderProgram extends NodeComponent
         currentObjects.toArray(objects);
     }
 
+    /**
+     * Add a uniform block to this program. The block will be connected to
+     * the uniform block of the same name in the program the next time the
+     * program is used. If the program does not declare a block with that name,
+     * it is ignored. If the block is already registered, the request is
+     * ignored.
+     *
+     * @param block The block instance to add
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void addUniformBlock(ShaderUniformBlock block)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        if(uniformBlocks.contains(block))
+            return;
+
+        uniformBlocks.add(block);
+        blocksBound.clear();
+
+        block.setUpdateHandler(updateHandler);
+
+        if(isLive())
+            block.setLive(true);
+    }
+
+    /**
+     * Remove a uniform block from this program. If the block is not
+     * registered the request is ignored. The program's binding for the block
+     * is left as is, so the block name should be reused by a new block with
+     * the same binding point, or the program relinked.
+     *
+     * @param block The block instance to remove
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void removeUniformBlock(ShaderUniformBlock block)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        if(!uniformBlocks.remove(block))
+            return;
+
+        blocksBound.clear();
+
+        if(isLive())
+            block.setLive(false);
+    }
+
+    /**
+     * Get the number of currently registered uniform blocks.
+     *
+     * @return A value >= 0
+     */
+    public int getNumUniformBlocks()
+    {
+        return uniformBlocks.size();
+    }
+
+    /**
+     * Get the current uniform blocks. The array must be at least
+     * {@link #getNumUniformBlocks()} in length.
+     *
+     * @param blocks An array to copy values into
+     */
+    public void getUniformBlocks(ShaderUniformBlock[] blocks)
+    {
+        uniformBlocks.toArray(blocks);
+    }
+
     /**
      * Request that the shader link at the next available oppourtunity. If any
      * of the used ShaderObjects have not yet been compiled, they will be
@@ -0,0 +1,722 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+// External imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES3;
+
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.rendering.DeletableRenderable;
+
+/**
+ * A block of uniform values held in a single GL buffer object that can be
+ * shared between any number of shader programs.
+ * <p>
+ *
+ * Values that are the same for every shader in the scene, such as the camera,
+ * lighting and fog settings, would otherwise have to be set through the
+ * {@link ShaderArguments} of each program and uploaded separately for each.
+ * A uniform block is uploaded once, when it has changed, and then just bound
+ * to its binding point for each program. Add the block to each
+ * {@link ShaderProgram} that declares a uniform block with the same name and
+ * the program will connect the two after linking.
+ * <p>
+ *
+ * The uniforms must be declared with {@link #addUniform(String, int, int, int)}
+ * in the same order as the shader declares them, and the shader must declare
+ * the block with the <code>std140</code> layout. The values are packed using
+ * the std140 rules:
+ * <ul>
+ * <li>Scalars are 4 byte aligned, 2 component vectors 8 byte aligned, and 3
+ *     and 4 component vectors 16 byte aligned.</li>
+ * <li>Each element of an array is padded out to 16 bytes.</li>
+ * <li>Matrices are stored as an array of column vectors.</li>
+ * <li>The block size is rounded up to a multiple of 16 bytes.</li>
+ * </ul>
+ * Matrices are always stored column major, so the shader should not use the
+ * <code>row_major</code> layout qualifier.
+ * <p>
+ *
+ * Only the range of the buffer that has changed since the last upload is
+ * sent to GL.
+ * <p>
+ *
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>invalidDataSizeMsg: Error message when the user tries to declare a
+ *     uniform with a size outside the range allowed for its type.</li>
+ * <li>invalidCountMsg: Error message when the user tries to declare a
+ *     uniform with a count less than 1 or set more items than declared.</li>
+ * <li>invalidTypeMsg: Error message when the data type is not one of the
+ *     known uniform types, or doesn't match the declared type.</li>
+ * <li>unknownUniformMsg: Error message when setting a uniform that has not
+ *     been declared.</li>
+ * <li>duplicateUniformMsg: Error message when declaring the same uniform
+ *     name twice.</li>
+ * </ul>
+ */
+public class ShaderUniformBlock extends NodeComponent
+    implements DeletableRenderable
+{
+    /** Message for when the uniform data size is out of range */
+    private static final String INVALID_DATA_SIZE_PROP =
+        "org.j3d.aviatrix3d.ShaderUniformBlock.invalidDataSizeMsg";
+
+    /** Message for when the uniform count is out of range */
+    private static final String INVALID_COUNT_PROP =
+        "org.j3d.aviatrix3d.ShaderUniformBlock.invalidCountMsg";
+
+    /** Message for when the uniform type is unknown or does not match */
+    private static final String INVALID_TYPE_PROP =
+        "org.j3d.aviatrix3d.ShaderUniformBlock.invalidTypeMsg";
+
+    /** Message for when the uniform has not been declared */
+    private static final String UNKNOWN_UNIFORM_PROP =
+        "org.j3d.aviatrix3d.ShaderUniformBlock.unknownUniformMsg";
+
+    /** Message for when the uniform has already been declared */
+    private static final String DUPLICATE_UNIFORM_PROP =
+        "org.j3d.aviatrix3d.ShaderUniformBlock.duplicateUniformMsg";
+
+    /** The size of a vec4, which arrays and matrix columns are padded to */
+    private static final int VEC4_BYTES = 16;
+
+    /** Initial size of the data buffer in bytes */
+    private static final int DEFAULT_BUFFER_SIZE = 256;
+
+    /** The name of the block in the shader source */
+    private final String blockName;
+
+    /** The uniform buffer binding point this block is bound to */
+    private final int bindingPoint;
+
+    /** The declared uniforms, in declaration order */
+    private ArrayList<BlockUniform> uniformList;
+
+    /** Uniform name to its declaration */
+    private HashMap<String, BlockUniform> uniformMap;
+
+    /** The std140 packed values of the block */
+    private ByteBuffer data;
+
+    /** The size of the block with all the declared uniforms */
+    private int blockSize;
+
+    /** Mapping of GL context to the buffer state for that context */
+    private HashMap<GL, ContextBuffer> bufferMap;
+
+    /**
+     * Details of a single uniform in the block.
+     */
+    private static class BlockUniform
+    {
+        /** One of the ShaderArguments _UNIFORM_TYPE values */
+        int dataType;
+
+        /** Number of components, or rows and columns for a matrix */
+        int size;
+
+        /** Number of array elements */
+        int count;
+
+        /** Byte offset of the start of the uniform in the block */
+        int offset;
+
+        /** Byte distance between array elements */
+        int stride;
+    }
+
+    /**
+     * The GL buffer and what needs to be sent to it for a single context.
+     */
+    private static class ContextBuffer
+    {
+        /** The GL buffer object ID */
+        int bufferId;
+
+        /** The size the buffer was last allocated with, 0 if never */
+        int allocatedSize;
+
+        /** First byte that has changed since the last upload */
+        int dirtyStart;
+
+        /** One past the last byte that has changed since the last upload */
+        int dirtyEnd;
+    }
+
+    /**
+     * Create a new, empty uniform block.
+     *
+     * @param name The name of the block as declared in the shader source
+     * @param binding The uniform buffer binding point to use for the block
+     */
+    public ShaderUniformBlock(String name, int binding)
+    {
+        blockName = name;
+        bindingPoint = binding;
+
+        uniformList = new ArrayList<>();
+        uniformMap = new HashMap<>();
+        bufferMap = new HashMap<>();
+
+        data = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+        data.order(ByteOrder.nativeOrder());
+
+        blockSize = 0;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by DeletableRenderable
+    //---------------------------------------------------------------
+
+    /**
+     * Cleanup the object now for the given GL context.
+     *
+     * @param gl The gl context to draw with
+     */
+    @Override
+    public void cleanup(GL2 gl)
+    {
+        ContextBuffer buffer = bufferMap.remove(gl);
+
+        if(buffer != null)
+        {
+            int[] buffer_id_tmp = { buffer.bufferId };
+            gl.glDeleteBuffers(1, buffer_id_tmp, 0);
+        }
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by SceneGraphObject
+    //---------------------------------------------------------------
+
+    @Override
+    protected void setLive(boolean state)
+    {
+        if(state)
+            liveCount++;
+        else if(liveCount > 0)
+            liveCount--;
+
+        if((liveCount == 0) || !alive)
+        {
+            super.setLive(state);
+
+            if(!state && updateHandler != null)
+                updateHandler.requestDeletion(this);
+        }
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by Comparable
+    //---------------------------------------------------------------
+
+    /**
+     * Compares this object with the specified object for order. Returns a
+     * negative integer, zero, or a positive integer as this object is less
+     * than, equal to, or greater than the specified object.
+     *
+     * @param o The objec to be compared
+     * @return -1, 0 or 1 depending on order
+     * @throws ClassCastException The specified object's type prevents it from
+     *    being compared to this Object
+     */
+    @Override
+    public int compareTo(Object o)
+        throws ClassCastException
+    {
+        ShaderUniformBlock blk = (ShaderUniformBlock)o;
+        return compareTo(blk);
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Compares this object with the specified object for order. Blocks are
+     * ordered by binding point and then name.
+     *
+     * @param blk The block instance to be compared
+     * @return -1, 0 or 1 depending on order
+     */
+    public int compareTo(ShaderUniformBlock blk)
+    {
+        if(blk == null)
+            return 1;
+
+        if(blk == this)
+            return 0;
+
+        if(bindingPoint != blk.bindingPoint)
+            return bindingPoint < blk.bindingPoint ? -1 : 1;
+
+        int res = blockName.compareTo(blk.blockName);
+
+        return res < 0 ? -1 : (res > 0 ? 1 : 0);
+    }
+
+    /**
+     * Get the name of the block, as used in the shader source.
+     *
+     * @return The block name
+     */
+    public String getBlockName()
+    {
+        return blockName;
+    }
+
+    /**
+     * Get the uniform buffer binding point used by this block.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getBindingPoint()
+    {
+        return bindingPoint;
+    }
+
+    /**
+     * Get the current size of the block in bytes, including the padding
+     * needed at the end by std140.
+     *
+     * @return A value greater than or equal to zero and a multiple of 16
+     */
+    public int getBlockSize()
+    {
+        return roundUp(blockSize, VEC4_BYTES);
+    }
+
+    /**
+     * Declare the next uniform in the block. Uniforms must be declared in the
+     * same order as the shader source. A count of 1 declares a single value.
+     * Anything larger declares an array, which has each element padded to 16
+     * bytes.
+     *
+     * @param name The name of the uniform in the block
+     * @param type One of the ShaderArguments _UNIFORM_TYPE values, except
+     *   the sampler type
+     * @param size 1, 2, 3 or 4 for ints and floats, or 2, 3 or 4 for matrices
+     * @param count The number of array elements, or 1 for a single value
+     * @return The byte offset of the uniform in the block
+     * @throws IllegalArgumentException The name is already declared or the
+     *   type, size or count are not valid
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public int addUniform(String name, int type, int size, int count)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        if(uniformMap.containsKey(name))
+            throw new IllegalArgumentException(formatMessage(DUPLICATE_UNIFORM_PROP, name));
+
+        int min_size = 1;
+
+        switch(type)
+        {
+            case ShaderArguments.MATRIX_UNIFORM_TYPE:
+                min_size = 2;
+                break;
+
+            case ShaderArguments.FLOAT_UNIFORM_TYPE:
+            case ShaderArguments.INT_UNIFORM_TYPE:
+                break;
+
+            default:
+                throw new IllegalArgumentException(formatMessage(INVALID_TYPE_PROP, name));
+        }
+
+        if(size < min_size || size > 4)
+            throw new IllegalArgumentException(formatNumberMessage(INVALID_DATA_SIZE_PROP, size, 4));
+
+        if(count < 1)
+            throw new IllegalArgumentException(formatNumberMessage(INVALID_COUNT_PROP, count, 1));
+
+        BlockUniform uniform = new BlockUniform();
+        uniform.dataType = type;
+        uniform.size = size;
+        uniform.count = count;
+
+        int align;
+        int bytes;
+
+        if(type == ShaderArguments.MATRIX_UNIFORM_TYPE)
+        {
+            // Array of count * size column vectors
+            align = VEC4_BYTES;
+            uniform.stride = VEC4_BYTES * size;
+            bytes = uniform.stride * count;
+        }
+        else if(count > 1)
+        {
+            align = VEC4_BYTES;
+            uniform.stride = VEC4_BYTES;
+            bytes = VEC4_BYTES * count;
+        }
+        else
+        {
+            align = (size == 1) ? 4 : (size == 2) ? 8 : VEC4_BYTES;
+            uniform.stride = 4 * size;
+            bytes = 4 * size;
+        }
+
+        uniform.offset = roundUp(blockSize, align);
+        blockSize = uniform.offset + bytes;
+
+        uniformList.add(uniform);
+        uniformMap.put(name, uniform);
+
+        int required = getBlockSize();
+
+        if(data.capacity() < required)
+        {
+            ByteBuffer tmp = ByteBuffer.allocateDirect(Math.max(required, data.capacity() * 2));
+            tmp.order(ByteOrder.nativeOrder());
+
+            data.clear();
+            tmp.put(data);
+            tmp.clear();
+
+            data = tmp;
+        }
+
+        // Buffers will get resized on the next bind, which sends everything.
+        return uniform.offset;
+    }
+
+    /**
+     * Get the byte offset of the named uniform in the block.
+     *
+     * @param name The name of the uniform
+     * @return The offset in bytes, or -1 if the name is not declared
+     */
+    public int getUniformOffset(String name)
+    {
+        BlockUniform uniform = uniformMap.get(name);
+        return uniform == null ? -1 : uniform.offset;
+    }
+
+    /**
+     * Get the number of declared uniforms.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getNumUniforms()
+    {
+        return uniformList.size();
+    }
+
+    /**
+     * Set the value of a float uniform. The array must contain size * count
+     * values, packed with no padding.
+     *
+     * @param name The name of the uniform to be set
+     * @param values The value(s) to be set
+     * @param count The number of array elements to set, starting at the first
+     * @throws IllegalArgumentException The name is not declared, is not a
+     *   float type or the count is larger than declared
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void setUniform(String name, float[] values, int count)
+        throws InvalidWriteTimingException
+    {
+        BlockUniform uniform = checkUniform(name, ShaderArguments.FLOAT_UNIFORM_TYPE, count);
+
+        int size = uniform.size;
+        int src = 0;
+
+        for(int i = 0; i < count; i++)
+        {
+            int pos = uniform.offset + i * uniform.stride;
+
+            for(int j = 0; j < size; j++)
+                data.putFloat(pos + j * 4, values[src++]);
+        }
+
+        markDirty(uniform.offset, uniform.offset + count * uniform.stride);
+    }
+
+    /**
+     * Set the value of an int uniform. The array must contain size * count
+     * values, packed with no padding.
+     *
+     * @param name The name of the uniform to be set
+     * @param values The value(s) to be set
+     * @param count The number of array elements to set, starting at the first
+     * @throws IllegalArgumentException The name is not declared, is not an
+     *   int type or the count is larger than declared
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void setUniform(String name, int[] values, int count)
+        throws InvalidWriteTimingException
+    {
+        BlockUniform uniform = checkUniform(name, ShaderArguments.INT_UNIFORM_TYPE, count);
+
+        int size = uniform.size;
+        int src = 0;
+
+        for(int i = 0; i < count; i++)
+        {
+            int pos = uniform.offset + i * uniform.stride;
+
+            for(int j = 0; j < size; j++)
+                data.putInt(pos + j * 4, values[src++]);
+        }
+
+        markDirty(uniform.offset, uniform.offset + count * uniform.stride);
+    }
+
+    /**
+     * Set the value of a matrix uniform. The array must contain
+     * size * size * count values. The matrix values may be presented in either
+     * column or row-major order and are converted to column-major as needed.
+     *
+     * @param name The name of the uniform to be set
+     * @param values The value(s) to be set
+     * @param count The number of matrices to set, starting at the first
+     * @param columnMajor true if the values are in column-major order
+     * @throws IllegalArgumentException The name is not declared, is not a
+     *   matrix type or the count is larger than declared
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void setUniformMatrix(String name,
+                                 float[] values,
+                                 int count,
+                                 boolean columnMajor)
+        throws InvalidWriteTimingException
+    {
+        BlockUniform uniform = checkUniform(name, ShaderArguments.MATRIX_UNIFORM_TYPE, count);
+
+        int size = uniform.size;
+        int mat_size = size * size;
+
+        for(int i = 0; i < count; i++)
+        {
+            int mat_pos = uniform.offset + i * uniform.stride;
+            int src = i * mat_size;
+
+            for(int col = 0; col < size; col++)
+            {
+                int pos = mat_pos + col * VEC4_BYTES;
+
+                for(int row = 0; row < size; row++)
+                {
+                    float v = columnMajor ?
+                              values[src + col * size + row] :
+                              values[src + row * size + col];
+
+                    data.putFloat(pos + row * 4, v);
+                }
+            }
+        }
+
+        markDirty(uniform.offset, uniform.offset + count * uniform.stride);
+    }
+
+    /**
+     * Make sure the GL buffer for this context is up to date and bind it to
+     * the block's binding point. Only the range that has changed since the
+     * last call is sent. Called by the shader program when it is rendered.
+     *
+     * @param gl The GL context to work with
+     */
+    void bind(GL2 gl)
+    {
+        ContextBuffer buffer = bufferMap.get(gl);
+
+        if(buffer == null)
+        {
+            int[] buffer_id_tmp = new int[1];
+            gl.glGenBuffers(1, buffer_id_tmp, 0);
+
+            buffer = new ContextBuffer();
+            buffer.bufferId = buffer_id_tmp[0];
+
+            bufferMap.put(gl, buffer);
+        }
+
+        gl.glBindBufferBase(GL2ES3.GL_UNIFORM_BUFFER, bindingPoint, buffer.bufferId);
+
+        int size = getBlockSize();
+
+        if(buffer.allocatedSize != size)
+        {
+            data.position(0);
+            data.limit(size);
+            gl.glBufferData(GL2ES3.GL_UNIFORM_BUFFER, size, data, GL.GL_DYNAMIC_DRAW);
+            data.clear();
+
+            buffer.allocatedSize = size;
+            buffer.dirtyStart = 0;
+            buffer.dirtyEnd = 0;
+        }
+        else if(buffer.dirtyEnd > buffer.dirtyStart)
+        {
+            data.position(buffer.dirtyStart);
+            data.limit(buffer.dirtyEnd);
+            gl.glBufferSubData(GL2ES3.GL_UNIFORM_BUFFER,
+                               buffer.dirtyStart,
+                               buffer.dirtyEnd - buffer.dirtyStart,
+                               data);
+            data.clear();
+
+            buffer.dirtyStart = 0;
+            buffer.dirtyEnd = 0;
+        }
+    }
+
+    /**
+     * Get a copy of the packed block data, for checking the layout.
+     *
+     * @param bytes An array at least {@link #getBlockSize()} long to copy to
+     */
+    void getBlockData(byte[] bytes)
+    {
+        int size = getBlockSize();
+
+        data.position(0);
+        data.get(bytes, 0, size);
+        data.clear();
+    }
+
+    /**
+     * Check that the uniform can be written with the given type and count.
+     *
+     * @param name The name of the uniform
+     * @param type The type of data being written
+     * @param count The number of elements being written
+     * @return The matching uniform declaration
+     * @throws IllegalArgumentException Something didn't match
+     */
+    private BlockUniform checkUniform(String name, int type, int count)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        BlockUniform uniform = uniformMap.get(name);
+
+        if(uniform == null)
+            throw new IllegalArgumentException(formatMessage(UNKNOWN_UNIFORM_PROP, name));
+
+        if(uniform.dataType != type)
+            throw new IllegalArgumentException(formatMessage(INVALID_TYPE_PROP, name));
+
+        if(count < 1 || count > uniform.count)
+            throw new IllegalArgumentException(formatNumberMessage(INVALID_COUNT_PROP,
+                                                                   count,
+                                                                   uniform.count));
+
+        return uniform;
+    }
+
+    /**
+     * Extend the range to be uploaded for every context.
+     *
+     * @param start The first byte that changed
+     * @param end One past the last byte that changed
+     */
+    private void markDirty(int start, int end)
+    {
+        for(ContextBuffer buffer : bufferMap.values())
+        {
+            if(buffer.dirtyEnd <= buffer.dirtyStart)
+            {
+                buffer.dirtyStart = start;
+                buffer.dirtyEnd = end;
+            }
+            else
+            {
+                buffer.dirtyStart = Math.min(buffer.dirtyStart, start);
+                buffer.dirtyEnd = Math.max(buffer.dirtyEnd, end);
+            }
+        }
+    }
+
+    /**
+     * Round the value up to the next multiple of the alignment.
+     *
+     * @param value The value to round
+     * @param align The alignment, which must be a power of two
+     * @return The rounded value
+     */
+    private static int roundUp(int value, int align)
+    {
+        return (value + align - 1) & ~(align - 1);
+    }
+
+    /**
+     * Build an error message that takes the uniform name.
+     *
+     * @param prop The message property name
+     * @param name The uniform name to put in the message
+     * @return The formatted message
+     */
+    private String formatMessage(String prop, String name)
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        String msg_pattern = intl_mgr.getString(prop);
+        Locale lcl = intl_mgr.getFoundLocale();
+
+        Object[] msg_args = { name };
+        MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+
+        return msg_fmt.format(msg_args);
+    }
+
+    /**
+     * Build an error message that takes the given value and its limit.
+     *
+     * @param prop The message property name
+     * @param value The value provided by the user
+     * @param limit The limit that applies to the value
+     * @return The formatted message
+     */
+    private String formatNumberMessage(String prop, int value, int limit)
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        String msg_pattern = intl_mgr.getString(prop);
+        Locale lcl = intl_mgr.getFoundLocale();
+        NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+        Object[] msg_args = { value, limit };
+        Format[] fmts = { n_fmt, n_fmt };
+        MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+        msg_fmt.setFormats(fmts);
+
+        return msg_fmt.format(msg_args);
+    }
+}
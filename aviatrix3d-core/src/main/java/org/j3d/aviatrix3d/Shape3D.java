@@ -228,7 +228,7 @@ public class Shape3D extends Leaf
         recomputeBounds();
 
         if(parent != null)
-            parent.updateBounds();
+            parent.childBoundsUpdated(this);
     }
 
     /**
@@ -190,7 +190,7 @@ public class SharedGroup extends Group
         dirtyBoundsCount = 0;
 
         for(int i = 0; i < lastParentList; i++)
-            parentList[i].updateBounds();
+            parentList[i].childBoundsUpdated(this);
     }
 
     //---------------------------------------------------------------
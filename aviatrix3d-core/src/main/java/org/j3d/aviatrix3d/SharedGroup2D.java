@@ -199,7 +199,7 @@ public class SharedGroup2D extends Group2D
         dirtyBoundsCount = 0;
 
         for(int i = 0; i < lastParentList; i++)
-            parentList[i].updateBounds();
+            parentList[i].childBoundsUpdated(this);
     }
 
     //---------------------------------------------------------------
@@ -283,7 +283,7 @@ public class SharedNode extends Node
         recomputeBounds();
 
         for(int i = 0; i < lastParentList; i++)
-            parentList[i].updateBounds();
+            parentList[i].childBoundsUpdated(this);
     }
 
     //---------------------------------------------------------------
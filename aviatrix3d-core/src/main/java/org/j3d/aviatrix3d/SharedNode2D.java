@@ -292,7 +292,7 @@ public class SharedNode2D extends Node2D
         recomputeBounds();
 
         for(int i = 0; i < lastParentList; i++)
-            parentList[i].updateBounds();
+            parentList[i].childBoundsUpdated(this);
     }
 
     //---------------------------------------------------------------
@@ -17,22 +17,31 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 
+import com.jogamp.openal.AL;
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Point3d;
+
 // Local imports
 import org.j3d.aviatrix3d.iutil.AudioUpdateListener;
-import org.j3d.aviatrix3d.rendering.AudioRenderable;
 import org.j3d.aviatrix3d.rendering.BoundingVolume;
 import org.j3d.aviatrix3d.rendering.LeafCullable;
 import org.j3d.aviatrix3d.rendering.Renderable;
+import org.j3d.aviatrix3d.rendering.VirtualAudioRenderable;
 
 /**
  * A Sound class represents all sound emiting nodes in the system.
  * <p>
  *
+ * By default a sound generates its own OpenAL source the first time it is
+ * rendered. When the output device manages a fixed pool of sources, the
+ * device binds one of those instead, and the sound keeps track of its
+ * playback position while it has none.
+ *
  * @author Alan Hudson
  * @version $Revision: 1.18 $
  */
 public abstract class Sound extends Leaf
-   implements LeafCullable, AudioRenderable, AudioUpdateListener
+   implements LeafCullable, VirtualAudioRenderable, AudioUpdateListener
 {
     /** The source feeding this sound */
     protected AudioComponent soundSource;
@@ -73,6 +82,18 @@ public abstract class Sound extends Leaf
     /** Is the sound currently enabled */
     protected boolean enabled;
 
+    /** The gain of the sound before any attenuation */
+    protected float intensity;
+
+    /** The OpenAL source this sound plays through */
+    protected int source;
+
+    /** True if the source belongs to the output device rather than us */
+    protected boolean sourceBound;
+
+    /** Playback position in seconds, used while there is no source bound */
+    protected float playbackOffset;
+
     /**
      * A temporary value used to fetch values from OpenAL. This is allocated
      * to be the size of a single int in the constructor.
@@ -90,6 +111,7 @@ public abstract class Sound extends Leaf
         playing = false;
         paused = false;
         enabled = false;
+        intensity = 1;
 
         // Need to allocate a byte buffer of 4 bytes, to equate to an int
         // size is treated as bytes, not number of ints.
@@ -234,10 +256,162 @@ public abstract class Sound extends Leaf
     }
 
 
+    //----------------------------------------------------------
+    // Methods defined by VirtualAudioRenderable
+    //----------------------------------------------------------
+
+    /**
+     * Calculate the gain that this sound would be heard at from the given
+     * listener position. The default implementation has no attenuation, so
+     * returns the intensity while the sound is playing. Spatialised sounds
+     * should override this.
+     *
+     * @param transform The transformation from the sound to the world
+     * @param listener The position of the listener in world coordinates
+     * @return A gain value, zero or greater
+     */
+    @Override
+    public float getAudibleGain(Matrix4d transform, Point3d listener)
+    {
+        return isAudible() ? intensity : 0;
+    }
+
+    /**
+     * Bind the given device owned source to this sound. The source is set
+     * up during the next render.
+     *
+     * @param src The OpenAL source ID to use
+     */
+    @Override
+    public void bindSource(int src)
+    {
+        source = src;
+        sourceBound = true;
+
+        // Forces the render to set up the new source from scratch
+        dataChanged = true;
+    }
+
+    /**
+     * Release the currently bound source, recording the playback position
+     * so that it can be resumed later.
+     *
+     * @param al The al context to use
+     */
+    @Override
+    public void releaseSource(AL al)
+    {
+        if(!sourceBound)
+            return;
+
+        values.rewind();
+        al.alGetSourcei(source, AL.AL_SOURCE_STATE, values);
+
+        // A stream may just be waiting for data, so don't treat it as done
+        boolean finished = values.get(0) == AL.AL_STOPPED && !playChanged &&
+                           (soundSource == null || !soundSource.isStreamed());
+
+        float offset = 0;
+
+        if(soundSource != null)
+            offset = soundSource.detachSource(al, source);
+        else
+            al.alSourceStop(source);
+
+        if(finished)
+        {
+            playing = false;
+            playbackOffset = 0;
+        }
+        else
+        {
+            playbackOffset = offset;
+        }
+
+        source = 0;
+        sourceBound = false;
+        dataChanged = true;
+    }
+
+    /**
+     * Advance the playback position while there is no source bound. A sound
+     * that is not looped stops when it reaches the end of the sample.
+     *
+     * @param deltaTime The time in seconds since the last update
+     */
+    @Override
+    public void updateVirtual(float deltaTime)
+    {
+        if(!playing)
+        {
+            playbackOffset = 0;
+            return;
+        }
+
+        if(paused || soundSource == null)
+            return;
+
+        playbackOffset += deltaTime * pitch;
+
+        float length = soundSource.getDuration();
+
+        if(length <= 0 || playbackOffset < length)
+            return;
+
+        if(loop)
+        {
+            playbackOffset %= length;
+        }
+        else
+        {
+            playing = false;
+            playbackOffset = 0;
+        }
+    }
+
     //----------------------------------------------------------
     // Local Methods
     //----------------------------------------------------------
 
+    /**
+     * Set the gain of the sound before any distance or cone attenuation.
+     *
+     * @param gain The gain value, zero or greater. 1 is full volume
+     * @throws InvalidWriteTimingException This was not called during the
+     *   data changed callback time
+     */
+    public void setIntensity(float gain)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        intensity = gain;
+        paramsChanged = true;
+    }
+
+    /**
+     * Get the gain of the sound before any attenuation.
+     *
+     * @return The current intensity value
+     */
+    public float getIntensity()
+    {
+        return intensity;
+    }
+
+    /**
+     * Get the current playback position of the sound, as tracked while it
+     * does not have a source bound.
+     *
+     * @return The position in seconds from the start of the sample
+     */
+    public float getPlaybackOffset()
+    {
+        return playbackOffset;
+    }
+
     /**
      * Set the enabled state of the light. Can use this to turn it on and off
      * in a general fashion.
@@ -365,6 +539,122 @@ public abstract class Sound extends Leaf
         dataChanged = true;
     }
 
+    /**
+     * Check to see if the sound is currently making any noise.
+     *
+     * @return true if enabled, playing and not paused
+     */
+    protected boolean isAudible()
+    {
+        return enabled && playing && !paused;
+    }
+
+    /**
+     * Check to see if the source itself should be set to loop. Streamed
+     * sources handle the looping as they read the data, so the source
+     * must not loop over the queued buffers.
+     *
+     * @return true if the source should loop
+     */
+    protected boolean isSourceLooped()
+    {
+        return loop && (soundSource == null || !soundSource.isStreamed());
+    }
+
+    /**
+     * Apply any change to the play state to the source, or if there is no
+     * change, keep the source fed and check whether it has finished.
+     * Streamed sources are rewound when they stop, and restarted if they
+     * stopped only because they ran out of queued data.
+     *
+     * @param al The al context to use
+     */
+    protected void updatePlayState(AL al)
+    {
+        boolean streamed = soundSource != null && soundSource.isStreamed();
+
+        if(playChanged)
+        {
+            if(playing && paused)
+            {
+                al.alSourcePlay(source);
+            }
+
+            if(playing)
+            {
+                if(paused)
+                    al.alSourcePause(source);
+                else
+                    al.alSourcePlay(source);
+            }
+            else
+            {
+                al.alSourceStop(source);
+
+                if(streamed)
+                    rewindStream(al);
+            }
+
+            playChanged = false;
+        }
+        else if(playing)
+        {
+            boolean more_data = soundSource != null &&
+                                soundSource.updateSource(al, source);
+
+            values.rewind();
+            al.alGetSourcei(source, AL.AL_SOURCE_STATE, values);
+
+            if(values.get(0) == AL.AL_STOPPED)
+            {
+                if(more_data)
+                {
+                    al.alSourcePlay(source);
+                }
+                else
+                {
+                    playing = false;
+                    playbackOffset = 0;
+
+                    if(streamed)
+                        rewindStream(al);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generate a new source for this sound, unless one has been bound by the
+     * output device.
+     *
+     * @param al The al context to use
+     * @return The OpenAL error code from generating the source
+     */
+    protected int generateSource(AL al)
+    {
+        if(sourceBound)
+            return AL.AL_NO_ERROR;
+
+        // Bind buffer with a source.
+        values.rewind();
+
+        al.alGenSources(1, values);
+        source = values.get(0);
+
+        return al.alGetError();
+    }
+
+    /**
+     * Requeue a streamed source from the start, ready for the next play.
+     *
+     * @param al The al context to use
+     */
+    private void rewindStream(AL al)
+    {
+        soundSource.detachSource(al, source);
+        soundSource.attachSource(al, source, 0);
+    }
+
     /**
      * Compares this object with the specified object for order. Returns a
      * negative integer, zero, or a positive integer as this object is less
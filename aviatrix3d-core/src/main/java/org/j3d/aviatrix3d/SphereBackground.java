@@ -24,6 +24,7 @@ import com.jogamp.opengl.GL2;
 
 // External imports
 import org.j3d.aviatrix3d.rendering.DeletableRenderable;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 
 /**
  * Background node that renders a single user-provided texture on a sphere.
@@ -188,13 +189,13 @@ public class SphereBackground extends Background
         }
 
         gl.glEnable(GL.GL_TEXTURE_2D);
-        gl.glActiveTexture(GL.GL_TEXTURE0);
+        GLStateCache.glActiveTexture(gl, GL.GL_TEXTURE0);
         gl.glTexEnvi(GL2.GL_TEXTURE_ENV, GL2.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
 
         Integer t_id = textureIdMap.get(gl);
         if(t_id != null)
         {
-            gl.glBindTexture(GL.GL_TEXTURE_2D, t_id.intValue());
+            GLStateCache.glBindTexture(gl, GL.GL_TEXTURE_2D, t_id.intValue());
         }
         else
         {
@@ -207,6 +208,7 @@ public class SphereBackground extends Background
             gl.glGenTextures(1, tex_id_tmp, 0);
             textureIdMap.put(gl, new Integer(tex_id_tmp[0]));
 
+            GLStateCache.invalidateCurrentTextures();
             gl.glBindTexture(GL.GL_TEXTURE_2D, tex_id_tmp[0]);
 
             gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
@@ -0,0 +1,854 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+// External imports
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jogamp.openal.AL;
+
+import org.j3d.util.DefaultErrorReporter;
+import org.j3d.util.ErrorReporter;
+import org.j3d.util.I18nManager;
+
+// Local imports
+// None
+
+/**
+ * An audio component that streams raw sample data from a file through a
+ * small ring of OpenAL buffers, rather than loading it all into memory.
+ * <p>
+ *
+ * The sample data is read from the channel in fixed size chunks. A shared
+ * background thread keeps a set of chunks filled ahead of playback, and each
+ * frame the chunks are copied into any AL buffers that the source has
+ * finished with and queued back on the source. The memory used is fixed by
+ * the chunk size and number of buffers, no matter how long the sample is.
+ * Looping is handled by wrapping the read position back to the start, so the
+ * source itself is never set to loop.
+ * <p>
+ *
+ * A streaming component can only feed one source at a time. The channel is
+ * not closed by this class, as it is owned by the caller. Errors creating
+ * the buffers or reading the channel, including those on the refill thread,
+ * are sent to the error reporter set with
+ * {@link #setErrorReporter(ErrorReporter)}.
+ * <p>
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>bufferCreateFailedMsg: Error message when the OpenAL buffers for the
+ *     stream could not be created</li>
+ * <li>invalidBufferCountMsg: Error message when fewer than two buffers are
+ *     asked for</li>
+ * <li>invalidChunkSizeMsg: Error message when the chunk size is less than
+ *     one sample frame</li>
+ * <li>readFailedMsg: Error message when reading from the channel failed</li>
+ * </ul>
+ */
+public class StreamingAudioComponent extends AudioComponent
+{
+    /** Message when OpenAL buffer creation failed */
+    private static final String BUFFER_CREATE_PROP =
+        "org.j3d.aviatrix3d.StreamingAudioComponent.bufferCreateFailedMsg";
+
+    /** Message when the number of buffers is too small */
+    private static final String INVALID_BUFFER_COUNT_PROP =
+        "org.j3d.aviatrix3d.StreamingAudioComponent.invalidBufferCountMsg";
+
+    /** Message when the chunk size is too small */
+    private static final String INVALID_CHUNK_SIZE_PROP =
+        "org.j3d.aviatrix3d.StreamingAudioComponent.invalidChunkSizeMsg";
+
+    /** Message when reading from the channel failed */
+    private static final String READ_FAILED_PROP =
+        "org.j3d.aviatrix3d.StreamingAudioComponent.readFailedMsg";
+
+    /** The default size of each chunk of data in bytes */
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    /** The default number of buffers queued on the source */
+    public static final int DEFAULT_NUM_BUFFERS = 4;
+
+    /** The thread that refills the chunks of all streams */
+    private static RefillThread refillThread;
+
+    /**
+     * A block of sample data read from the channel, ready to be copied
+     * into an AL buffer.
+     */
+    private static class Chunk
+    {
+        /** The sample data, flipped ready for reading */
+        final ByteBuffer data;
+
+        /** Position of the first byte in the sample data */
+        long position;
+
+        /** The seek generation that the chunk was read for */
+        int generation;
+
+        /** True if this is the final chunk of a stream that doesn't loop */
+        boolean last;
+
+        /**
+         * Create a chunk that holds the given number of bytes.
+         *
+         * @param size The size of the chunk in bytes
+         */
+        Chunk(int size)
+        {
+            data = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /**
+     * Thread that refills the empty chunks of any stream that asks for it.
+     */
+    private static class RefillThread extends Thread
+    {
+        /** The streams waiting to be refilled */
+        private LinkedBlockingQueue<StreamingAudioComponent> pending;
+
+        /**
+         * Create a new refill thread. It is a daemon so that it won't prevent
+         * the application from exiting.
+         */
+        RefillThread()
+        {
+            super("Aviatrix3D audio stream refill");
+
+            setDaemon(true);
+            pending = new LinkedBlockingQueue<>();
+        }
+
+        @Override
+        public void run()
+        {
+            while(true)
+            {
+                try
+                {
+                    pending.take().refill();
+                }
+                catch(InterruptedException ie)
+                {
+                    // Just go around again
+                }
+            }
+        }
+
+        /**
+         * Ask for the given stream to be refilled.
+         *
+         * @param stream The stream that has empty chunks
+         */
+        void schedule(StreamingAudioComponent stream)
+        {
+            pending.add(stream);
+        }
+    }
+
+    /** The channel to read the sample data from */
+    private final FileChannel channel;
+
+    /** Position of the first byte of sample data in the channel */
+    private final long dataOffset;
+
+    /** The number of bytes of sample data */
+    private final long dataLength;
+
+    /** The size of each chunk in bytes, a whole number of frames */
+    private final int chunkSize;
+
+    /** The number of AL buffers, and chunks, used for the stream */
+    private final int numBuffers;
+
+    /** Chunks that are waiting to be read into */
+    private final ArrayBlockingQueue<Chunk> emptyChunks;
+
+    /** Chunks that have been read and are waiting to be queued */
+    private final ArrayBlockingQueue<Chunk> filledChunks;
+
+    /** Lock that keeps the chunks in order and guards the read position */
+    private final Object readLock;
+
+    /** Next position to read from. Guarded by readLock */
+    private long readPosition;
+
+    /** True when a stream that doesn't loop has no more to read */
+    private boolean readFinished;
+
+    /** Incremented on every seek so that old chunks can be thrown away */
+    private volatile int generation;
+
+    /** True when this stream is waiting on the refill thread */
+    private final AtomicBoolean refillScheduled;
+
+    /** The AL buffer IDs, or null if they have not been created yet */
+    private int[] bufferIds;
+
+    /** The AL buffers that are not queued on the source */
+    private int[] freeBuffers;
+
+    /** The number of valid entries in freeBuffers */
+    private int numFreeBuffers;
+
+    /** The data position of each queued buffer, in queue order */
+    private long[] queuedPositions;
+
+    /** The data length of each queued buffer, in queue order */
+    private int[] queuedLengths;
+
+    /** Index of the oldest queued buffer in the position and length lists */
+    private int queueHead;
+
+    /** The number of buffers queued on the source */
+    private int numQueued;
+
+    /** True when the final chunk of the stream has been queued */
+    private boolean lastQueued;
+
+    /** The position that the source was last attached at */
+    private long attachPosition;
+
+    /** Time taken to get the first data queued on the last attach, in ms */
+    private volatile float startLatency;
+
+    /** Scratch value for passing buffer IDs to OpenAL */
+    private int[] bufferIdValue;
+
+    /** Scratch value for reading integer source state */
+    private int[] intValue;
+
+    /** Scratch value for reading the playback position from OpenAL */
+    private float[] floatValue;
+
+    /** Error reporter used to send out messages, used by the refill thread */
+    private volatile ErrorReporter errorReporter;
+
+    /**
+     * Constructs a streaming component with the default chunk size and
+     * number of buffers.
+     *
+     * @param format The audio format.  FORMAT_MONO8,FORMAT_MONO16,FORMAT_STEREO8,FORMAT_STEREO16
+     * @param frequency The frequency of the samples
+     * @param loop True if this sample should be looped
+     * @param channel The channel to read the raw sample data from
+     * @param offset The position of the sample data in the channel
+     * @param length The number of bytes of sample data
+     */
+    public StreamingAudioComponent(int format,
+                                   int frequency,
+                                   boolean loop,
+                                   FileChannel channel,
+                                   long offset,
+                                   long length)
+    {
+        this(format,
+             frequency,
+             loop,
+             channel,
+             offset,
+             length,
+             DEFAULT_CHUNK_SIZE,
+             DEFAULT_NUM_BUFFERS);
+    }
+
+    /**
+     * Constructs a streaming component. The chunk size is rounded down to a
+     * whole number of sample frames.
+     *
+     * @param format The audio format.  FORMAT_MONO8,FORMAT_MONO16,FORMAT_STEREO8,FORMAT_STEREO16
+     * @param frequency The frequency of the samples
+     * @param loop True if this sample should be looped
+     * @param channel The channel to read the raw sample data from
+     * @param offset The position of the sample data in the channel
+     * @param length The number of bytes of sample data
+     * @param chunkSize The number of bytes to read into each buffer
+     * @param numBuffers The number of buffers to queue, at least 2
+     * @throws IllegalArgumentException The chunk size is less than one frame
+     *   or there are fewer than two buffers
+     */
+    public StreamingAudioComponent(int format,
+                                   int frequency,
+                                   boolean loop,
+                                   FileChannel channel,
+                                   long offset,
+                                   long length,
+                                   int chunkSize,
+                                   int numBuffers)
+    {
+        this.format = format;
+        this.frequency = frequency;
+        this.loop = loop;
+        this.channel = channel;
+
+        if(numBuffers < 2)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(INVALID_BUFFER_COUNT_PROP);
+
+            Object[] msg_args = { numBuffers };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        int frame_size = Math.max(getFrameSize(), 1);
+        int size = (chunkSize / frame_size) * frame_size;
+
+        if(size <= 0)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(INVALID_CHUNK_SIZE_PROP);
+
+            Object[] msg_args = { chunkSize };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.chunkSize = size;
+        this.numBuffers = numBuffers;
+
+        dataOffset = offset;
+        dataLength = length;
+
+        readLock = new Object();
+        refillScheduled = new AtomicBoolean();
+
+        emptyChunks = new ArrayBlockingQueue<>(numBuffers);
+        filledChunks = new ArrayBlockingQueue<>(numBuffers);
+
+        for(int i = 0; i < numBuffers; i++)
+            emptyChunks.add(new Chunk(size));
+
+        freeBuffers = new int[numBuffers];
+        queuedPositions = new long[numBuffers];
+        queuedLengths = new int[numBuffers];
+
+        bufferIdValue = new int[1];
+        intValue = new int[1];
+        floatValue = new float[1];
+
+        errorReporter = DefaultErrorReporter.getDefaultReporter();
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by AudioSource
+    //---------------------------------------------------------------
+
+    /**
+     * Get a bufferId for a given seq and context. The whole ring of stream
+     * buffers is created on the first call, and the first of them returned.
+     *
+     * @param seq The sequence number
+     * @return The bufferId.
+     */
+    @Override
+    public int getBufferId(AL al, int seq)
+    {
+        if(bufferIds != null)
+            return bufferIds[0];
+
+        int[] buffers = new int[numBuffers];
+
+        al.alGenBuffers(numBuffers, buffers, 0);
+        int error = al.alGetError();
+
+        if(error != AL.AL_NO_ERROR)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(BUFFER_CREATE_PROP);
+
+            Object[] msg_args = { error };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+            errorReporter.errorReport(msg, null);
+
+            return -1;
+        }
+
+        bufferIds = buffers;
+        resetQueue();
+
+        return bufferIds[0];
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by AudioComponent
+    //---------------------------------------------------------------
+
+    /**
+     * Get the length of the sample data in seconds, based on the current
+     * format and frequency.
+     *
+     * @return The length in seconds or zero if there is no data
+     */
+    @Override
+    public float getDuration()
+    {
+        int frame_size = getFrameSize();
+
+        if(frequency <= 0 || frame_size == 0)
+            return 0;
+
+        return (float)dataLength / (frame_size * frequency);
+    }
+
+    /**
+     * Check to see if this component streams its data through a queue of
+     * buffers, rather than a single buffer shared by all sources.
+     *
+     * @return true always
+     */
+    @Override
+    public boolean isStreamed()
+    {
+        return true;
+    }
+
+    /**
+     * Attach the stream to the given source, ready to play from the given
+     * position. The first chunk is read straight away so that there is
+     * something to play, and the rest are left to the refill thread.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     * @param offset The position to start from in seconds
+     */
+    @Override
+    public void attachSource(AL al, int source, float offset)
+    {
+        long start_time = System.nanoTime();
+
+        long position = secondsToBytes(offset);
+
+        if(loop && dataLength > 0)
+            position %= dataLength;
+
+        attachPosition = Math.min(position, dataLength);
+
+        synchronized(readLock)
+        {
+            generation++;
+            readPosition = attachPosition;
+            readFinished = false;
+        }
+
+        Chunk chunk;
+        while((chunk = filledChunks.poll()) != null)
+            emptyChunks.add(chunk);
+
+        al.alSourcei(source, AL.AL_BUFFER, 0);
+        resetQueue();
+
+        chunk = emptyChunks.poll();
+
+        if(chunk != null && !readChunk(chunk))
+            emptyChunks.add(chunk);
+
+        queueChunks(al, source);
+
+        startLatency = (System.nanoTime() - start_time) / 1000000f;
+
+        scheduleRefill();
+    }
+
+    /**
+     * Move the buffers that the source has finished playing back to the
+     * free list, and queue any chunks that are ready.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     * @return true if there is more data to come for the source
+     */
+    @Override
+    public boolean updateSource(AL al, int source)
+    {
+        if(bufferIds == null)
+            return false;
+
+        intValue[0] = 0;
+        al.alGetSourcei(source, AL.AL_BUFFERS_PROCESSED, intValue, 0);
+
+        int processed = Math.min(intValue[0], numQueued);
+
+        if(processed > 0)
+        {
+            int[] done = new int[processed];
+            al.alSourceUnqueueBuffers(source, processed, done, 0);
+
+            for(int i = 0; i < processed; i++)
+            {
+                freeBuffers[numFreeBuffers++] = done[i];
+                queueHead = (queueHead + 1) % numBuffers;
+            }
+
+            numQueued -= processed;
+        }
+
+        queueChunks(al, source);
+
+        return !lastQueued;
+    }
+
+    /**
+     * Stop the given source and remove the stream buffers from it.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     * @return The playback position the source had reached, in seconds
+     */
+    @Override
+    public float detachSource(AL al, int source)
+    {
+        floatValue[0] = 0;
+        al.alGetSourcef(source, AL.AL_SEC_OFFSET, floatValue, 0);
+
+        // The offset is from the start of the oldest buffer still queued
+        long remaining = secondsToBytes(floatValue[0]);
+        long position = attachPosition;
+
+        for(int i = 0; i < numQueued; i++)
+        {
+            int idx = (queueHead + i) % numBuffers;
+
+            position = queuedPositions[idx] + remaining;
+
+            if(remaining < queuedLengths[idx])
+                break;
+
+            remaining -= queuedLengths[idx];
+        }
+
+        if(dataLength > 0)
+        {
+            if(loop)
+                position %= dataLength;
+            else
+                position = Math.min(position, dataLength);
+        }
+
+        al.alSourceStop(source);
+        al.alSourcei(source, AL.AL_BUFFER, 0);
+        resetQueue();
+
+        int frame_size = getFrameSize();
+
+        if(frequency <= 0 || frame_size == 0)
+            return 0;
+
+        return (float)position / (frame_size * frequency);
+    }
+
+    /**
+     * Clear local data stored in this node. The stream has no local copy of
+     * the data, so there is nothing to clear.
+     */
+    @Override
+    public void clearLocalData()
+    {
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Register an error reporter with the stream so that any errors generated
+     * by the buffer creation or reading of the channel can be reported in a
+     * nice, pretty fashion. Setting a value of null will clear the currently
+     * set reporter. If one is already set, the new value replaces the old.
+     *
+     * @param reporter The instance to use or null
+     */
+    public void setErrorReporter(ErrorReporter reporter)
+    {
+        if(reporter == null)
+            errorReporter = DefaultErrorReporter.getDefaultReporter();
+        else
+            errorReporter = reporter;
+    }
+
+    /**
+     * Get the size of each chunk of data that is read and queued.
+     *
+     * @return The chunk size in bytes
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Get the number of AL buffers that are cycled through the source.
+     *
+     * @return A value of 2 or more
+     */
+    public int getNumBuffers()
+    {
+        return numBuffers;
+    }
+
+    /**
+     * Get the time that the last attach to a source took to get the first
+     * chunk of data queued, which is the delay before the sound can start.
+     *
+     * @return The time in milliseconds, or zero if never attached
+     */
+    public float getStartLatency()
+    {
+        return startLatency;
+    }
+
+    /**
+     * Get the amount of memory used for the sample data while the stream is
+     * playing. This is the staging chunks plus the AL buffers, and stays the
+     * same however long the sample is.
+     *
+     * @return The number of bytes used
+     */
+    public long getStreamMemory()
+    {
+        return 2L * numBuffers * chunkSize;
+    }
+
+    /**
+     * Read all the empty chunks that can be filled. Called from the refill
+     * thread.
+     */
+    void refill()
+    {
+        refillScheduled.set(false);
+
+        Chunk chunk;
+        while((chunk = emptyChunks.poll()) != null)
+        {
+            if(!readChunk(chunk))
+            {
+                emptyChunks.add(chunk);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read the next block of sample data into the chunk and add it to the
+     * filled list, inside the lock so the list stays in order. A chunk never
+     * crosses the end of the data, so looping streams start the next chunk
+     * from the beginning again.
+     *
+     * @param chunk The chunk to read into
+     * @return false if the stream has finished and nothing was read
+     */
+    private boolean readChunk(Chunk chunk)
+    {
+        synchronized(readLock)
+        {
+            if(readFinished)
+                return false;
+
+            ByteBuffer buf = chunk.data;
+            long len = Math.min(chunkSize, dataLength - readPosition);
+
+            buf.clear();
+            buf.limit((int)Math.max(len, 0));
+
+            chunk.position = readPosition;
+            chunk.generation = generation;
+            chunk.last = false;
+
+            boolean at_end = false;
+
+            try
+            {
+                while(buf.hasRemaining())
+                {
+                    long pos = dataOffset + readPosition + buf.position();
+
+                    if(channel.read(buf, pos) < 0)
+                    {
+                        at_end = true;
+                        break;
+                    }
+                }
+            }
+            catch(IOException ioe)
+            {
+                I18nManager intl_mgr = I18nManager.getManager();
+                Locale lcl = intl_mgr.getFoundLocale();
+                String msg_pattern = intl_mgr.getString(READ_FAILED_PROP);
+
+                Object[] msg_args = { readPosition, ioe.getMessage() };
+                MessageFormat msg_fmt =
+                    new MessageFormat(msg_pattern, lcl);
+                String msg = msg_fmt.format(msg_args);
+                errorReporter.errorReport(msg, ioe);
+
+                // Nothing sensible can be read after an error
+                buf.limit(buf.position());
+                buf.flip();
+
+                chunk.last = true;
+                readFinished = true;
+                filledChunks.add(chunk);
+
+                return true;
+            }
+
+            buf.flip();
+            readPosition += buf.limit();
+
+            if(at_end || readPosition >= dataLength)
+            {
+                // Only wrap if something was read, otherwise an empty
+                // source would spin forever
+                if(loop && readPosition > 0)
+                {
+                    readPosition = 0;
+                }
+                else
+                {
+                    chunk.last = true;
+                    readFinished = true;
+                }
+            }
+
+            filledChunks.add(chunk);
+
+            return true;
+        }
+    }
+
+    /**
+     * Copy the filled chunks into free AL buffers and queue them on the
+     * source. Chunks left over from before the last seek are thrown away.
+     *
+     * @param al The al context to use
+     * @param source The OpenAL source ID
+     */
+    private void queueChunks(AL al, int source)
+    {
+        boolean consumed = false;
+
+        while(numFreeBuffers > 0 && !lastQueued)
+        {
+            Chunk chunk = filledChunks.poll();
+
+            if(chunk == null)
+                break;
+
+            consumed = true;
+
+            if(chunk.generation != generation)
+            {
+                emptyChunks.add(chunk);
+                continue;
+            }
+
+            int buffer = freeBuffers[--numFreeBuffers];
+            int len = chunk.data.limit();
+
+            al.alBufferData(buffer, format, chunk.data, len, frequency);
+
+            bufferIdValue[0] = buffer;
+            al.alSourceQueueBuffers(source, 1, bufferIdValue, 0);
+
+            int idx = (queueHead + numQueued) % numBuffers;
+            queuedPositions[idx] = chunk.position;
+            queuedLengths[idx] = len;
+            numQueued++;
+
+            lastQueued = chunk.last;
+
+            emptyChunks.add(chunk);
+        }
+
+        if(consumed)
+            scheduleRefill();
+    }
+
+    /**
+     * Mark all the AL buffers as free, after the source queue is cleared.
+     */
+    private void resetQueue()
+    {
+        if(bufferIds != null)
+        {
+            System.arraycopy(bufferIds, 0, freeBuffers, 0, numBuffers);
+            numFreeBuffers = numBuffers;
+        }
+
+        queueHead = 0;
+        numQueued = 0;
+        lastQueued = false;
+    }
+
+    /**
+     * Convert a time to a number of bytes of data, on a frame boundary.
+     *
+     * @param seconds The time to convert
+     * @return The number of bytes
+     */
+    private long secondsToBytes(float seconds)
+    {
+        if(seconds <= 0)
+            return 0;
+
+        return (long)(seconds * frequency) * getFrameSize();
+    }
+
+    /**
+     * Ask the refill thread to fill the empty chunks, unless it has already
+     * been asked.
+     */
+    private void scheduleRefill()
+    {
+        if(refillScheduled.compareAndSet(false, true))
+            getRefillThread().schedule(this);
+    }
+
+    /**
+     * Get the shared refill thread, starting it if needed.
+     *
+     * @return The refill thread
+     */
+    private static synchronized RefillThread getRefillThread()
+    {
+        if(refillThread == null)
+        {
+            refillThread = new RefillThread();
+            refillThread.start();
+        }
+
+        return refillThread;
+    }
+}
@@ -20,6 +20,7 @@ import com.jogamp.opengl.GL2;
 
 // Local imports
 import org.j3d.aviatrix3d.iutil.TextureUpdateData;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 
 /**
  * Describes the 2D texture that can be applied to an object.
@@ -126,6 +127,7 @@ public class Texture2D extends Texture
 
             textureIdMap.put(gl, new Integer(tex_id_tmp[0]));
 
+            GLStateCache.invalidateCurrentTextures();
             gl.glBindTexture(textureType, tex_id_tmp[0]);
 
             // Set the flag so that we update later in the method
@@ -135,7 +137,7 @@ public class Texture2D extends Texture
         }
         else
         {
-            gl.glBindTexture(textureType, t_id.intValue());
+            GLStateCache.glBindTexture(gl, textureType, t_id.intValue());
         }
 
         if(stateChanged.getState(gl))
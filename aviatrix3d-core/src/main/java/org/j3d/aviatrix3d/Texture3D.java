@@ -25,6 +25,7 @@ import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.aviatrix3d.iutil.TextureUpdateData;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 
 /**
  * Describes the 3D (volume) texture properties of an object.
@@ -233,6 +234,7 @@ public class Texture3D extends Texture
             gl.glGenTextures(1, tex_id_tmp, 0);
             textureIdMap.put(gl, new Integer(tex_id_tmp[0]));
 
+            GLStateCache.invalidateCurrentTextures();
             gl.glBindTexture(textureType, tex_id_tmp[0]);
 
             // Set the flag so that we update later in the method
@@ -242,7 +244,7 @@ public class Texture3D extends Texture
         }
         else
         {
-            gl.glBindTexture(textureType, t_id.intValue());
+            GLStateCache.glBindTexture(gl, textureType, t_id.intValue());
         }
 
         if(stateChanged.getState(gl))
@@ -20,6 +20,7 @@ import com.jogamp.opengl.GL2;
 
 // Local imports
 import org.j3d.aviatrix3d.iutil.TextureUpdateData;
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 
 /**
  * A specialist object that renders a cubic environment map from pre-built
@@ -134,6 +135,7 @@ public class TextureCubicEnvironmentMap extends Texture
             gl.glGenTextures(1, tex_id_tmp, 0);
             textureIdMap.put(gl, new Integer(tex_id_tmp[0]));
 
+            GLStateCache.invalidateCurrentTextures();
             gl.glBindTexture(textureType, tex_id_tmp[0]);
 
             // Set the flag so that we update later in the method
@@ -143,7 +145,7 @@ public class TextureCubicEnvironmentMap extends Texture
         }
         else
         {
-            gl.glBindTexture(textureType, t_id.intValue());
+            GLStateCache.glBindTexture(gl, textureType, t_id.intValue());
         }
 
         if(stateChanged.getState(gl))
@@ -21,6 +21,7 @@ import org.j3d.maths.vector.Matrix4d;
 import org.j3d.util.I18nManager;
 
 // Local imports
+import org.j3d.aviatrix3d.rendering.GLStateCache;
 import org.j3d.aviatrix3d.rendering.OffscreenCullable;
 import org.j3d.aviatrix3d.rendering.OffscreenBufferDescriptor;
 import org.j3d.aviatrix3d.rendering.OffscreenRenderTargetRenderable;
@@ -325,9 +326,9 @@ public class TextureUnit extends NodeComponent
         if(hasMultiTextureAPI)
         {
             if(((Integer)stageId).intValue() >= 0)
-                gl.glActiveTexture(((Integer)stageId).intValue());
+                GLStateCache.glActiveTexture(gl, ((Integer)stageId).intValue());
             else
-                gl.glActiveTexture(GL.GL_TEXTURE0);
+                GLStateCache.glActiveTexture(gl, GL.GL_TEXTURE0);
         }
         else if(((Integer)stageId).intValue() > 0)
             return;
@@ -443,9 +444,9 @@ public class TextureUnit extends NodeComponent
         if(hasMultiTextureAPI)
         {
             if(((Integer)stageId).intValue() >= 0)
-                gl.glActiveTexture(((Integer)stageId).intValue());
+                GLStateCache.glActiveTexture(gl, ((Integer)stageId).intValue());
             else
-                gl.glActiveTexture(GL.GL_TEXTURE0);
+                GLStateCache.glActiveTexture(gl, GL.GL_TEXTURE0);
         }
         else if(((Integer)stageId).intValue() > 0)
             return;
@@ -28,6 +28,7 @@ import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.aviatrix3d.picking.NotPickableException;
+import org.j3d.aviatrix3d.rendering.InstancedGeometryRenderable;
 
 /**
  * An OpenGL TriangleArray representation.
@@ -52,6 +53,7 @@ import org.j3d.aviatrix3d.picking.NotPickableException;
  * @version $Revision: 1.44 $
  */
 public class TriangleArray extends VertexGeometry
+    implements InstancedGeometryRenderable
 {
     /** Length of the edge array is too short for the coordinate data */
     private static final String EDGE_ARRAY_LENGTH_PROP =
@@ -121,6 +123,30 @@ public class TriangleArray extends VertexGeometry
         clearVertexState(gl);
     }
 
+    //----------------------------------------------------------
+    // Methods defined by InstancedGeometryRenderable
+    //----------------------------------------------------------
+
+    @Override
+    public boolean isInstanceable()
+    {
+        // Edge flags are left to the normal draw path
+        return ((vertexFormat & COORDINATE_MASK) != 0) &&
+               ((vertexFormat & EDGES) == 0) &&
+               (numCoords != 0);
+    }
+
+    @Override
+    public void renderInstanced(GL2 gl, int numInstances)
+    {
+        if(!isInstanceable() || numInstances <= 0)
+            return;
+
+        setVertexState(gl);
+        gl.glDrawArraysInstanced(GL.GL_TRIANGLES, 0, numCoords, numInstances);
+        clearVertexState(gl);
+    }
+
     //----------------------------------------------------------
     // Methods defined by VertexGeometry
     //----------------------------------------------------------
@@ -141,6 +167,20 @@ public class TriangleArray extends VertexGeometry
         numRequiredCoords = numValid;
     }
 
+    @Override
+    TriangleBVH buildPickTree()
+    {
+        int num_tris = numCoords / 3;
+
+        if(num_tris == 0)
+            return null;
+
+        return new TriangleBVH(vertexBuffer,
+                               vertexFormat & COORDINATE_MASK,
+                               null,
+                               num_tris);
+    }
+
     @Override
     protected int computeBufferSize()
     {
@@ -208,50 +248,64 @@ public class TriangleArray extends VertexGeometry
         int num_tris = numCoords / 3;
         int found_tri = -1;
 
-        for(int i = 0; i < num_tris; i++)
+        // Only test the triangles the tree says may be crossed, if we have
+        // a tree to use.
+        TriangleBVH tree = getPickTree();
+        int[] tri_list = null;
+        int num_tests = num_tris;
+
+        if(tree != null)
+        {
+            num_tests = tree.findCandidates(start, end, 1);
+            tri_list = tree.getCandidates();
+        }
+
+        for(int t = 0; t < num_tests; t++)
         {
+            int i = (tri_list == null) ? t : tri_list[t];
+
             switch(coord_comps)
             {
                 case 2:
-                    wkPolygon[0] = coordinates[i * 3 * 2];
-                    wkPolygon[1] = coordinates[i * 3 * 2 + 1];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 2);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 2 + 1);
                     wkPolygon[2] = 0;
 
-                    wkPolygon[3] = coordinates[i * 3 * 2 + 2];
-                    wkPolygon[4] = coordinates[i * 3 * 2 + 3];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 2 + 2);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 2 + 3);
                     wkPolygon[5] = 0;
 
-                    wkPolygon[6] = coordinates[i * 3 * 2 + 4];
-                    wkPolygon[7] = coordinates[i * 3 * 2 + 5];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 2 + 4);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 2 + 5);
                     wkPolygon[8] = 0;
                     break;
 
                 case 3:
-                    wkPolygon[0] = coordinates[i * 3 * 3];
-                    wkPolygon[1] = coordinates[i * 3 * 3 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 3 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 3);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 3 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 3 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 3 + 3];
-                    wkPolygon[4] = coordinates[i * 3 * 3 + 4];
-                    wkPolygon[5] = coordinates[i * 3 * 3 + 5];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 3 + 3);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 3 + 4);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 3 + 5);
 
-                    wkPolygon[6] = coordinates[i * 3 * 3 + 6];
-                    wkPolygon[7] = coordinates[i * 3 * 3 + 7];
-                    wkPolygon[8] = coordinates[i * 3 * 3 + 8];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 3 + 6);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 3 + 7);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 3 + 8);
                     break;
 
                 case 4:
-                    wkPolygon[0] = coordinates[i * 3 * 4];
-                    wkPolygon[1] = coordinates[i * 3 * 4 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 4 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 4);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 4 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 4 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 4 + 4];
-                    wkPolygon[4] = coordinates[i * 3 * 4 + 5];
-                    wkPolygon[5] = coordinates[i * 3 * 4 + 6];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 4 + 4);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 4 + 5);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 4 + 6);
 
-                    wkPolygon[6] = coordinates[i * 3 * 4 + 8];
-                    wkPolygon[7] = coordinates[i * 3 * 4 + 9];
-                    wkPolygon[8] = coordinates[i * 3 * 4 + 10];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 4 + 8);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 4 + 9);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 4 + 10);
                     break;
             }
 
@@ -294,9 +348,9 @@ public class TriangleArray extends VertexGeometry
 
             if((dataOutFlags & INTERSECT_NORMAL) != 0)
             {
-                dataOut[idx] = normals[found_tri * 9];
-                dataOut[idx + 1] = normals[found_tri * 9 + 1];
-                dataOut[idx + 2] = normals[found_tri * 9 + 2];
+                dataOut[idx] = normalBuffer.get(found_tri * 9);
+                dataOut[idx + 1] = normalBuffer.get(found_tri * 9 + 1);
+                dataOut[idx + 2] = normalBuffer.get(found_tri * 9 + 2);
 
                 idx += 3;
             }
@@ -347,50 +401,64 @@ public class TriangleArray extends VertexGeometry
         int coord_comps = (vertexFormat & COORDINATE_MASK);
         int num_tris = numCoords / 3;
 
-        for(int i = 0; i < num_tris; i++)
+        // Only test the triangles the tree says may be crossed, if we have
+        // a tree to use.
+        TriangleBVH tree = getPickTree();
+        int[] tri_list = null;
+        int num_tests = num_tris;
+
+        if(tree != null)
         {
+            num_tests = tree.findCandidates(origin, direction, Double.POSITIVE_INFINITY);
+            tri_list = tree.getCandidates();
+        }
+
+        for(int t = 0; t < num_tests; t++)
+        {
+            int i = (tri_list == null) ? t : tri_list[t];
+
             switch(coord_comps)
             {
                 case 2:
-                    wkPolygon[0] = coordinates[i * 3 * 2];
-                    wkPolygon[1] = coordinates[i * 3 * 2 + 1];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 2);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 2 + 1);
                     wkPolygon[2] = 0;
 
-                    wkPolygon[3] = coordinates[i * 3 * 2 + 2];
-                    wkPolygon[4] = coordinates[i * 3 * 2 + 3];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 2 + 2);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 2 + 3);
                     wkPolygon[5] = 0;
 
-                    wkPolygon[6] = coordinates[i * 3 * 2 + 4];
-                    wkPolygon[7] = coordinates[i * 3 * 2 + 5];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 2 + 4);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 2 + 5);
                     wkPolygon[8] = 0;
                     break;
 
                 case 3:
-                    wkPolygon[0] = coordinates[i * 3 * 3];
-                    wkPolygon[1] = coordinates[i * 3 * 3 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 3 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 3);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 3 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 3 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 3 + 3];
-                    wkPolygon[4] = coordinates[i * 3 * 3 + 4];
-                    wkPolygon[5] = coordinates[i * 3 * 3 + 5];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 3 + 3);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 3 + 4);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 3 + 5);
 
-                    wkPolygon[6] = coordinates[i * 3 * 3 + 6];
-                    wkPolygon[7] = coordinates[i * 3 * 3 + 7];
-                    wkPolygon[8] = coordinates[i * 3 * 3 + 8];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 3 + 6);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 3 + 7);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 3 + 8);
                     break;
 
                 case 4:
-                    wkPolygon[0] = coordinates[i * 3 * 4];
-                    wkPolygon[1] = coordinates[i * 3 * 4 + 1];
-                    wkPolygon[2] = coordinates[i * 3 * 4 + 2];
+                    wkPolygon[0] = vertexBuffer.get(i * 3 * 4);
+                    wkPolygon[1] = vertexBuffer.get(i * 3 * 4 + 1);
+                    wkPolygon[2] = vertexBuffer.get(i * 3 * 4 + 2);
 
-                    wkPolygon[3] = coordinates[i * 3 * 4 + 4];
-                    wkPolygon[4] = coordinates[i * 3 * 4 + 5];
-                    wkPolygon[5] = coordinates[i * 3 * 4 + 6];
+                    wkPolygon[3] = vertexBuffer.get(i * 3 * 4 + 4);
+                    wkPolygon[4] = vertexBuffer.get(i * 3 * 4 + 5);
+                    wkPolygon[5] = vertexBuffer.get(i * 3 * 4 + 6);
 
-                    wkPolygon[6] = coordinates[i * 3 * 4 + 8];
-                    wkPolygon[7] = coordinates[i * 3 * 4 + 9];
-                    wkPolygon[8] = coordinates[i * 3 * 4 + 10];
+                    wkPolygon[6] = vertexBuffer.get(i * 3 * 4 + 8);
+                    wkPolygon[7] = vertexBuffer.get(i * 3 * 4 + 9);
+                    wkPolygon[8] = vertexBuffer.get(i * 3 * 4 + 10);
                     break;
             }
 
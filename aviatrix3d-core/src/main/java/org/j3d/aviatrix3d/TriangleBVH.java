@@ -0,0 +1,541 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+// External imports
+import java.nio.FloatBuffer;
+
+// Local imports
+// None
+
+/**
+ * Bounding volume hierarchy over the triangles of a single piece of geometry,
+ * used to find the triangles that a pick ray or segment could intersect
+ * without testing every triangle.
+ * <p>
+ *
+ * The tree is built once from a snapshot of the coordinates and never
+ * updated. The owning geometry throws it away and builds a new one when the
+ * coordinates or indices change. The tree does not keep references to the
+ * coordinate data. It only returns the indices of triangles whose boxes are
+ * crossed, and the geometry tests those with its normal exact intersection
+ * code, so the results are the same as testing every triangle.
+ * <p>
+ *
+ * Boxes are padded slightly so that float rounding in the exact test cannot
+ * find an intersection on a triangle whose box was missed.
+ * <p>
+ *
+ * This class is not thread safe. Candidate lists are held internally and
+ * overwritten on each query.
+ */
+final class TriangleBVH
+{
+    /** Maximum number of triangles held in a single leaf */
+    private static final int MAX_LEAF_SIZE = 4;
+
+    /** Relative amount to pad each box by to absorb rounding errors */
+    private static final float BOX_PADDING = 1e-5f;
+
+    /** Amount to allow past the end of a segment for rounding errors */
+    private static final double SEGMENT_PADDING = 1e-4;
+
+    /** The triangle indices, ordered so that each leaf is a contiguous range */
+    private final int[] triangleOrder;
+
+    /** Min and max extents of each node, 6 values per node */
+    private float[] nodeBounds;
+
+    /**
+     * For internal nodes, the index of the right child. The left child is
+     * always the next node. For leaves, the start of the range in
+     * triangleOrder.
+     */
+    private int[] nodeData;
+
+    /** Number of triangles in each leaf, or zero for internal nodes */
+    private int[] nodeCount;
+
+    /** Number of valid nodes */
+    private int numNodes;
+
+    /** The deepest level of the tree, used to size the traversal stack */
+    private int maxDepth;
+
+    /** Working stack for the traversal */
+    private int[] traversalStack;
+
+    /** The triangles found by the last query */
+    private int[] candidates;
+
+    /**
+     * Build a tree over the given triangles.
+     *
+     * @param coords The vertex coordinates
+     * @param coordComps The number of components per coordinate, 2, 3 or 4
+     * @param triIndices Three vertex indices per triangle, or null if
+     *    triangle i uses the vertices 3i, 3i + 1 and 3i + 2
+     * @param numTriangles The number of triangles to index
+     */
+    TriangleBVH(float[] coords,
+                int coordComps,
+                int[] triIndices,
+                int numTriangles)
+    {
+        this(FloatBuffer.wrap(coords), coordComps, triIndices, numTriangles);
+    }
+
+    /**
+     * Build a tree over the given triangles, reading the coordinates with
+     * absolute gets so that the buffer position is left alone.
+     *
+     * @param coords The vertex coordinates
+     * @param coordComps The number of components per coordinate, 2, 3 or 4
+     * @param triIndices Three vertex indices per triangle, or null if
+     *    triangle i uses the vertices 3i, 3i + 1 and 3i + 2
+     * @param numTriangles The number of triangles to index
+     */
+    TriangleBVH(FloatBuffer coords,
+                int coordComps,
+                int[] triIndices,
+                int numTriangles)
+    {
+        triangleOrder = new int[numTriangles];
+
+        for(int i = 0; i < numTriangles; i++)
+            triangleOrder[i] = i;
+
+        int est_nodes = Math.max(1, 2 * numTriangles / MAX_LEAF_SIZE + 1);
+
+        nodeBounds = new float[est_nodes * 6];
+        nodeData = new int[est_nodes];
+        nodeCount = new int[est_nodes];
+        candidates = new int[16];
+
+        if(numTriangles != 0)
+        {
+            float[] centroids = new float[numTriangles * 3];
+
+            for(int i = 0; i < numTriangles; i++)
+            {
+                for(int j = 0; j < 3; j++)
+                {
+                    int vtx = vertexIndex(triIndices, i, j) * coordComps;
+
+                    centroids[i * 3] += coords.get(vtx);
+                    centroids[i * 3 + 1] += coords.get(vtx + 1);
+
+                    if(coordComps > 2)
+                        centroids[i * 3 + 2] += coords.get(vtx + 2);
+                }
+            }
+
+            buildNode(coords, coordComps, triIndices, centroids, 0, numTriangles, 0);
+        }
+
+        traversalStack = new int[maxDepth + 2];
+    }
+
+    /**
+     * Find all the triangles whose boxes are crossed by a ray or segment.
+     * The direction does not need to be normalised. A segment is described by
+     * the origin and the vector to its end point with a max fraction of 1.
+     *
+     * @param origin The start point of the ray
+     * @param direction The direction vector of the ray
+     * @param maxFraction How far along the direction vector to go, or
+     *    positive infinity for an unbounded ray
+     * @return The number of candidate triangles found
+     */
+    int findCandidates(float[] origin, float[] direction, double maxFraction)
+    {
+        if(numNodes == 0)
+            return 0;
+
+        double o_x = origin[0];
+        double o_y = origin[1];
+        double o_z = origin[2];
+
+        double d_x = direction[0];
+        double d_y = direction[1];
+        double d_z = direction[2];
+
+        double inv_x = 1 / d_x;
+        double inv_y = 1 / d_y;
+        double inv_z = 1 / d_z;
+
+        double max_t = maxFraction + SEGMENT_PADDING;
+
+        int num_found = 0;
+        int stack_top = 0;
+        traversalStack[0] = 0;
+
+        while(stack_top >= 0)
+        {
+            int node = traversalStack[stack_top--];
+            int idx = node * 6;
+
+            double t_min = 0;
+            double t_max = max_t;
+            boolean hit = true;
+
+            for(int axis = 0; axis < 3 && hit; axis++)
+            {
+                double o;
+                double d;
+                double inv;
+
+                switch(axis)
+                {
+                    case 0:
+                        o = o_x;
+                        d = d_x;
+                        inv = inv_x;
+                        break;
+
+                    case 1:
+                        o = o_y;
+                        d = d_y;
+                        inv = inv_y;
+                        break;
+
+                    default:
+                        o = o_z;
+                        d = d_z;
+                        inv = inv_z;
+                }
+
+                double min = nodeBounds[idx + axis];
+                double max = nodeBounds[idx + axis + 3];
+
+                if(d == 0)
+                {
+                    hit = (o >= min) && (o <= max);
+                    continue;
+                }
+
+                double t1 = (min - o) * inv;
+                double t2 = (max - o) * inv;
+
+                if(t1 > t2)
+                {
+                    double tmp = t1;
+                    t1 = t2;
+                    t2 = tmp;
+                }
+
+                if(t1 > t_min)
+                    t_min = t1;
+
+                if(t2 < t_max)
+                    t_max = t2;
+
+                hit = t_min <= t_max;
+            }
+
+            if(!hit)
+                continue;
+
+            int count = nodeCount[node];
+
+            if(count != 0)
+            {
+                if(num_found + count > candidates.length)
+                {
+                    int[] tmp = new int[(num_found + count) * 2];
+                    System.arraycopy(candidates, 0, tmp, 0, num_found);
+                    candidates = tmp;
+                }
+
+                int start = nodeData[node];
+
+                for(int i = 0; i < count; i++)
+                    candidates[num_found++] = triangleOrder[start + i];
+            }
+            else
+            {
+                traversalStack[++stack_top] = nodeData[node];
+                traversalStack[++stack_top] = node + 1;
+            }
+        }
+
+        return num_found;
+    }
+
+    /**
+     * Get the list of triangle indices found by the last call to
+     * findCandidates().
+     *
+     * @return The internal array of candidate triangles
+     */
+    int[] getCandidates()
+    {
+        return candidates;
+    }
+
+    /**
+     * Get the number of nodes in the tree.
+     *
+     * @return A value greater than or equal to zero
+     */
+    int getNodeCount()
+    {
+        return numNodes;
+    }
+
+    /**
+     * Get the depth of the deepest leaf in the tree.
+     *
+     * @return A value greater than or equal to zero
+     */
+    int getDepth()
+    {
+        return maxDepth;
+    }
+
+    /**
+     * Recursively build the node for a range of triangles. The range is
+     * split at the median centroid along the longest axis, which keeps the
+     * tree depth logarithmic regardless of the triangle distribution.
+     *
+     * @param coords The vertex coordinates
+     * @param coordComps The number of components per coordinate
+     * @param triIndices The triangle vertex indices or null
+     * @param centroids Three times the centroid of each triangle
+     * @param start The first index in triangleOrder of the range
+     * @param end One past the last index in triangleOrder of the range
+     * @param depth The depth of this node in the tree
+     */
+    private void buildNode(FloatBuffer coords,
+                           int coordComps,
+                           int[] triIndices,
+                           float[] centroids,
+                           int start,
+                           int end,
+                           int depth)
+    {
+        int node = allocateNode();
+        int idx = node * 6;
+
+        if(depth > maxDepth)
+            maxDepth = depth;
+
+        float min_x = Float.POSITIVE_INFINITY;
+        float min_y = Float.POSITIVE_INFINITY;
+        float min_z = Float.POSITIVE_INFINITY;
+        float max_x = Float.NEGATIVE_INFINITY;
+        float max_y = Float.NEGATIVE_INFINITY;
+        float max_z = Float.NEGATIVE_INFINITY;
+
+        float c_min_x = Float.POSITIVE_INFINITY;
+        float c_min_y = Float.POSITIVE_INFINITY;
+        float c_min_z = Float.POSITIVE_INFINITY;
+        float c_max_x = Float.NEGATIVE_INFINITY;
+        float c_max_y = Float.NEGATIVE_INFINITY;
+        float c_max_z = Float.NEGATIVE_INFINITY;
+
+        for(int i = start; i < end; i++)
+        {
+            int tri = triangleOrder[i];
+
+            for(int j = 0; j < 3; j++)
+            {
+                int vtx = vertexIndex(triIndices, tri, j) * coordComps;
+
+                float x = coords.get(vtx);
+                float y = coords.get(vtx + 1);
+                float z = (coordComps > 2) ? coords.get(vtx + 2) : 0;
+
+                if(x < min_x)
+                    min_x = x;
+
+                if(x > max_x)
+                    max_x = x;
+
+                if(y < min_y)
+                    min_y = y;
+
+                if(y > max_y)
+                    max_y = y;
+
+                if(z < min_z)
+                    min_z = z;
+
+                if(z > max_z)
+                    max_z = z;
+            }
+
+            float c_x = centroids[tri * 3];
+            float c_y = centroids[tri * 3 + 1];
+            float c_z = centroids[tri * 3 + 2];
+
+            if(c_x < c_min_x)
+                c_min_x = c_x;
+
+            if(c_x > c_max_x)
+                c_max_x = c_x;
+
+            if(c_y < c_min_y)
+                c_min_y = c_y;
+
+            if(c_y > c_max_y)
+                c_max_y = c_y;
+
+            if(c_z < c_min_z)
+                c_min_z = c_z;
+
+            if(c_z > c_max_z)
+                c_max_z = c_z;
+        }
+
+        float pad = BOX_PADDING *
+            Math.max(Math.max(Math.max(Math.abs(min_x), Math.abs(max_x)),
+                              Math.max(Math.abs(min_y), Math.abs(max_y))),
+                     Math.max(Math.max(Math.abs(min_z), Math.abs(max_z)),
+                              Float.MIN_NORMAL));
+
+        nodeBounds[idx] = min_x - pad;
+        nodeBounds[idx + 1] = min_y - pad;
+        nodeBounds[idx + 2] = min_z - pad;
+        nodeBounds[idx + 3] = max_x + pad;
+        nodeBounds[idx + 4] = max_y + pad;
+        nodeBounds[idx + 5] = max_z + pad;
+
+        int num_tris = end - start;
+
+        if(num_tris <= MAX_LEAF_SIZE)
+        {
+            nodeData[node] = start;
+            nodeCount[node] = num_tris;
+            return;
+        }
+
+        float size_x = c_max_x - c_min_x;
+        float size_y = c_max_y - c_min_y;
+        float size_z = c_max_z - c_min_z;
+
+        int axis = 0;
+
+        if(size_y > size_x && size_y >= size_z)
+            axis = 1;
+        else if(size_z > size_x && size_z > size_y)
+            axis = 2;
+
+        int mid = start + num_tris / 2;
+        selectMedian(centroids, axis, start, end - 1, mid);
+
+        nodeCount[node] = 0;
+
+        buildNode(coords, coordComps, triIndices, centroids, start, mid, depth + 1);
+
+        // Fetch after the left branch, which may have been built into a
+        // reallocated array.
+        nodeData[node] = numNodes;
+
+        buildNode(coords, coordComps, triIndices, centroids, mid, end, depth + 1);
+    }
+
+    /**
+     * Partially sort the given range of triangleOrder so that the item at
+     * index k is the one that would be there if fully sorted by centroid
+     * along the axis, with smaller items before it and larger after.
+     *
+     * @param centroids The triangle centroids
+     * @param axis The axis to sort along
+     * @param left The first index of the range
+     * @param right The last index of the range, inclusive
+     * @param k The index to place the median at
+     */
+    private void selectMedian(float[] centroids,
+                              int axis,
+                              int left,
+                              int right,
+                              int k)
+    {
+        while(right > left)
+        {
+            int pivot_idx = (left + right) >>> 1;
+            float pivot = centroids[triangleOrder[pivot_idx] * 3 + axis];
+
+            int i = left;
+            int j = right;
+
+            while(i <= j)
+            {
+                while(centroids[triangleOrder[i] * 3 + axis] < pivot)
+                    i++;
+
+                while(centroids[triangleOrder[j] * 3 + axis] > pivot)
+                    j--;
+
+                if(i <= j)
+                {
+                    int tmp = triangleOrder[i];
+                    triangleOrder[i] = triangleOrder[j];
+                    triangleOrder[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if(k <= j)
+                right = j;
+            else if(k >= i)
+                left = i;
+            else
+                break;
+        }
+    }
+
+    /**
+     * Find the index of a vertex of a triangle.
+     *
+     * @param triIndices The triangle vertex indices or null
+     * @param tri The triangle index
+     * @param corner Which vertex of the triangle, 0 to 2
+     * @return The vertex index
+     */
+    private static int vertexIndex(int[] triIndices, int tri, int corner)
+    {
+        return (triIndices == null) ? tri * 3 + corner : triIndices[tri * 3 + corner];
+    }
+
+    /**
+     * Fetch the next unused node, growing the arrays if needed.
+     *
+     * @return The index of the node
+     */
+    private int allocateNode()
+    {
+        if(numNodes == nodeData.length)
+        {
+            int new_size = numNodes * 2;
+
+            float[] tmp_f = new float[new_size * 6];
+            System.arraycopy(nodeBounds, 0, tmp_f, 0, numNodes * 6);
+            nodeBounds = tmp_f;
+
+            int[] tmp_i = new int[new_size];
+            System.arraycopy(nodeData, 0, tmp_i, 0, numNodes);
+            nodeData = tmp_i;
+
+            tmp_i = new int[new_size];
+            System.arraycopy(nodeCount, 0, tmp_i, 0, numNodes);
+            nodeCount = tmp_i;
+        }
+
+        return numNodes++;
+    }
+}
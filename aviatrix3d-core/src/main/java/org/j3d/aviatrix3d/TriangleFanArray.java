@@ -197,23 +197,23 @@ public class TriangleFanArray extends VertexGeometry
             switch(coord_comps)
             {
                 case 2:
-                    wkPolygon[0] = coordinates[coord_offset];
-                    wkPolygon[1] = coordinates[coord_offset + 1];
+                    wkPolygon[0] = vertexBuffer.get(coord_offset);
+                    wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
                     wkPolygon[2] = 0;
                     coord_offset += 2;
                     break;
 
                 case 3:
-                    wkPolygon[0] = coordinates[coord_offset];
-                    wkPolygon[1] = coordinates[coord_offset + 1];
-                    wkPolygon[2] = coordinates[coord_offset + 2];
+                    wkPolygon[0] = vertexBuffer.get(coord_offset);
+                    wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                    wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
                     coord_offset += 3;
                     break;
 
                 case 4:
-                    wkPolygon[0] = coordinates[coord_offset];
-                    wkPolygon[1] = coordinates[coord_offset + 1];
-                    wkPolygon[2] = coordinates[coord_offset + 2];
+                    wkPolygon[0] = vertexBuffer.get(coord_offset);
+                    wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                    wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
                     coord_offset += 4;
                     break;
             }
@@ -223,35 +223,35 @@ public class TriangleFanArray extends VertexGeometry
                 switch(coord_comps)
                 {
                     case 2:
-                        wkPolygon[3] = coordinates[coord_offset];
-                        wkPolygon[4] = coordinates[coord_offset + 1];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 1);
                         wkPolygon[5] = 0;
 
-                        wkPolygon[6] = coordinates[coord_offset + 2];
-                        wkPolygon[7] = coordinates[coord_offset + 3];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 2);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 3);
                         wkPolygon[8] = 0;
                         coord_offset += 2;
                         break;
 
                     case 3:
-                        wkPolygon[3] = coordinates[coord_offset];
-                        wkPolygon[4] = coordinates[coord_offset + 1];
-                        wkPolygon[5] = coordinates[coord_offset + 2];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[6] = coordinates[coord_offset + 3];
-                        wkPolygon[7] = coordinates[coord_offset + 4];
-                        wkPolygon[8] = coordinates[coord_offset + 5];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 3);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 5);
                         coord_offset += 3;
                         break;
 
                     case 4:
-                        wkPolygon[3] = coordinates[coord_offset];
-                        wkPolygon[4] = coordinates[coord_offset + 1];
-                        wkPolygon[5] = coordinates[coord_offset + 2];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[6] = coordinates[coord_offset + 4];
-                        wkPolygon[7] = coordinates[coord_offset + 5];
-                        wkPolygon[8] = coordinates[coord_offset + 6];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 5);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 6);
                         coord_offset += 4;
                         break;
                 }
@@ -343,23 +343,23 @@ public class TriangleFanArray extends VertexGeometry
             switch(coord_comps)
             {
                 case 2:
-                    wkPolygon[0] = coordinates[coord_offset];
-                    wkPolygon[1] = coordinates[coord_offset + 1];
+                    wkPolygon[0] = vertexBuffer.get(coord_offset);
+                    wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
                     wkPolygon[2] = 0;
                     coord_offset += 2;
                     break;
 
                 case 3:
-                    wkPolygon[0] = coordinates[coord_offset];
-                    wkPolygon[1] = coordinates[coord_offset + 1];
-                    wkPolygon[2] = coordinates[coord_offset + 2];
+                    wkPolygon[0] = vertexBuffer.get(coord_offset);
+                    wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                    wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
                     coord_offset += 3;
                     break;
 
                 case 4:
-                    wkPolygon[0] = coordinates[coord_offset];
-                    wkPolygon[1] = coordinates[coord_offset + 1];
-                    wkPolygon[2] = coordinates[coord_offset + 2];
+                    wkPolygon[0] = vertexBuffer.get(coord_offset);
+                    wkPolygon[1] = vertexBuffer.get(coord_offset + 1);
+                    wkPolygon[2] = vertexBuffer.get(coord_offset + 2);
                     coord_offset += 4;
                     break;
             }
@@ -369,35 +369,35 @@ public class TriangleFanArray extends VertexGeometry
                 switch(coord_comps)
                 {
                     case 2:
-                        wkPolygon[3] = coordinates[coord_offset];
-                        wkPolygon[4] = coordinates[coord_offset + 1];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 1);
                         wkPolygon[5] = 0;
 
-                        wkPolygon[6] = coordinates[coord_offset + 2];
-                        wkPolygon[7] = coordinates[coord_offset + 3];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 2);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 3);
                         wkPolygon[8] = 0;
                         coord_offset += 2;
                         break;
 
                     case 3:
-                        wkPolygon[3] = coordinates[coord_offset];
-                        wkPolygon[4] = coordinates[coord_offset + 1];
-                        wkPolygon[5] = coordinates[coord_offset + 2];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[6] = coordinates[coord_offset + 3];
-                        wkPolygon[7] = coordinates[coord_offset + 4];
-                        wkPolygon[8] = coordinates[coord_offset + 5];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 3);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 5);
                         coord_offset += 3;
                         break;
 
                     case 4:
-                        wkPolygon[3] = coordinates[coord_offset];
-                        wkPolygon[4] = coordinates[coord_offset + 1];
-                        wkPolygon[5] = coordinates[coord_offset + 2];
+                        wkPolygon[3] = vertexBuffer.get(coord_offset);
+                        wkPolygon[4] = vertexBuffer.get(coord_offset + 1);
+                        wkPolygon[5] = vertexBuffer.get(coord_offset + 2);
 
-                        wkPolygon[6] = coordinates[coord_offset + 4];
-                        wkPolygon[7] = coordinates[coord_offset + 5];
-                        wkPolygon[8] = coordinates[coord_offset + 6];
+                        wkPolygon[6] = vertexBuffer.get(coord_offset + 4);
+                        wkPolygon[7] = vertexBuffer.get(coord_offset + 5);
+                        wkPolygon[8] = vertexBuffer.get(coord_offset + 6);
                         coord_offset += 4;
                         break;
                 }
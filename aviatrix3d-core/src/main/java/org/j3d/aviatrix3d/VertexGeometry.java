@@ -33,6 +33,7 @@ import org.j3d.aviatrix3d.rendering.GeometryRenderable;
 import org.j3d.aviatrix3d.rendering.DeletableRenderable;
 import org.j3d.aviatrix3d.iutil.ShaderAttribValue;
 import org.j3d.aviatrix3d.iutil.GLStateMap;
+import org.j3d.aviatrix3d.iutil.InterleavedVertexLayout;
 import org.j3d.util.IntHashMap;
 
 /**
@@ -49,10 +50,12 @@ import org.j3d.util.IntHashMap;
  * appropriate setter method, at which point we'll update our array.
  * <p>
  *
- * Currently the class does not take any sort of optimisation hints. This is
- * a design task in the future. For example, we would like to hint that the
- * class should use interleaved geometry instead of a single array for each
- * data type.
+ * When vertex buffer objects are used, {@link #setInterleavedEnabled(boolean)}
+ * may be used to pack the coordinates, normals and texture coordinates of
+ * each vertex together in the VBO, which gives better vertex cache locality.
+ * Interleaving is only used when there is at most one set of texture
+ * coordinates to render. Any other per-vertex data is placed after the
+ * interleaved block as separate arrays in the same VBO.
  * <p>
  *
  * For the alpha flag setting, the current approach is pretty dumb. If you
@@ -87,6 +90,18 @@ import org.j3d.util.IntHashMap;
  * put in is what you would get out too.
  * <p>
  *
+ * <b>Buffer Only Storage</b>
+ * <p>
+ * For very large data sets, keeping the user arrays alive alongside the
+ * buffer copies doubles the memory used. Calling
+ * {@link #setBufferOnlyStorage(boolean)} with true makes this geometry drop
+ * its references to the user arrays, so that the application can release
+ * them once they have been passed in. Bounds, picking and the getter methods
+ * always read from the internal buffers, so they work the same in either
+ * mode. Use {@link #getHeapDataSize()} and {@link #getBufferDataSize()} to
+ * see how much memory a piece of geometry is holding on to.
+ * <p>
+ *
  * <a name="picking_flags"><b>Picking Flags</b></a>
  * <p>
  *
@@ -415,7 +430,10 @@ public abstract class VertexGeometry extends Geometry
     /** Buffer for holding texture coordinate data */
     protected FloatBuffer[] textureBuffer;
 
-    /** Reference to the user array of coordinates used */
+    /**
+     * Reference to the user array of coordinates used. Null when only the
+     * buffer is kept.
+     */
     protected float[] coordinates;
 
     /** Number of valid entries in the coordinate array */
@@ -428,10 +446,16 @@ public abstract class VertexGeometry extends Geometry
      */
     protected int numRequiredCoords;
 
-    /** Reference to the user array of normals used */
+    /**
+     * Reference to the user array of normals used. Null when only the
+     * buffer is kept.
+     */
     protected float[] normals;
 
-    /** Reference to the user array of textures used, indexed by set */
+    /**
+     * Reference to the user array of textures used, indexed by set. Null when
+     * only the buffers are kept.
+     */
     protected float[][] textures;
 
     /** The number of valid texture arrays in the textures variable */
@@ -453,13 +477,22 @@ public abstract class VertexGeometry extends Geometry
      */
     protected int numRenderedTextureSets;
 
-    /** Reference to the user array of colors used */
+    /**
+     * Reference to the user array of colors used. Null when only the buffer
+     * is kept, unless a single colour is set.
+     */
     protected float[] colors;
 
-    /** Reference to the user array of secondary colors used */
+    /**
+     * Reference to the user array of secondary colors used. Null when only
+     * the buffer is kept.
+     */
     protected float[] color2s;
 
-    /** Reference to the user array of fog coordinates used */
+    /**
+     * Reference to the user array of fog coordinates used. Null when only
+     * the buffer is kept.
+     */
     protected float[] fogCoords;
 
     /** Listing of the valid attribute IDs for rendering */
@@ -493,6 +526,21 @@ public abstract class VertexGeometry extends Geometry
     /** State map indicating sources have changed */
     protected GLStateMap dataChanged;
 
+    /** Should picking build and use a triangle tree */
+    private boolean pickTreeEnabled;
+
+    /** Tree of triangles to accelerate picking. Built on first pick */
+    private TriangleBVH pickTree;
+
+    /** Should the references to the user arrays be dropped */
+    private boolean bufferOnly;
+
+    /** Should the VBO use an interleaved layout where possible */
+    private boolean interleaved;
+
+    /** Layout of the interleaved VBO. Created on demand */
+    private InterleavedVertexLayout interleavedLayout;
+
     /**
      * Constructs an instance with pre-defined values with default values.
      */
@@ -574,13 +622,13 @@ public abstract class VertexGeometry extends Geometry
         if(numRequiredCoords == 0)
             return;
 
-        float min_x = coordinates[0];
-        float min_y = coordinates[1];
+        float min_x = vertexBuffer.get(0);
+        float min_y = vertexBuffer.get(1);
         float min_z = 0;
         float min_w = 0;
 
-        float max_x = coordinates[0];
-        float max_y = coordinates[1];
+        float max_x = vertexBuffer.get(0);
+        float max_y = vertexBuffer.get(1);
         float max_z = 0;
         float max_w = 0;
         int cnt;
@@ -593,15 +641,15 @@ public abstract class VertexGeometry extends Geometry
                 cnt = 2;
                 for(int i = 1; i < numRequiredCoords; i++)
                 {
-                    if (coordinates[cnt] < min_x)
-                        min_x = coordinates[cnt];
-                    if (coordinates[cnt] > max_x)
-                        max_x = coordinates[cnt];
+                    if (vertexBuffer.get(cnt) < min_x)
+                        min_x = vertexBuffer.get(cnt);
+                    if (vertexBuffer.get(cnt) > max_x)
+                        max_x = vertexBuffer.get(cnt);
 
-                    if (coordinates[cnt + 1] < min_y)
-                        min_y = coordinates[cnt + 1];
-                    if (coordinates[cnt + 1] > max_y)
-                        max_y = coordinates[cnt + 1];
+                    if (vertexBuffer.get(cnt + 1) < min_y)
+                        min_y = vertexBuffer.get(cnt + 1);
+                    if (vertexBuffer.get(cnt + 1) > max_y)
+                        max_y = vertexBuffer.get(cnt + 1);
 
                     cnt = cnt + 2;
                 }
@@ -609,27 +657,27 @@ public abstract class VertexGeometry extends Geometry
                 break;
 
             case 3:
-                min_z = coordinates[2];
-                max_z = coordinates[2];
+                min_z = vertexBuffer.get(2);
+                max_z = vertexBuffer.get(2);
                 cnt = 3;
 
                 for(int i = 1; i < numRequiredCoords; i++)
                 {
-                    if (coordinates[cnt] < min_x)
-                        min_x = coordinates[cnt];
-                    if (coordinates[cnt] > max_x)
-                        max_x = coordinates[cnt];
+                    if (vertexBuffer.get(cnt) < min_x)
+                        min_x = vertexBuffer.get(cnt);
+                    if (vertexBuffer.get(cnt) > max_x)
+                        max_x = vertexBuffer.get(cnt);
 
-                    if (coordinates[cnt + 1] < min_y)
-                        min_y = coordinates[cnt + 1];
-                    if (coordinates[cnt + 1] > max_y)
-                        max_y = coordinates[cnt + 1];
+                    if (vertexBuffer.get(cnt + 1) < min_y)
+                        min_y = vertexBuffer.get(cnt + 1);
+                    if (vertexBuffer.get(cnt + 1) > max_y)
+                        max_y = vertexBuffer.get(cnt + 1);
 
 
-                    if (coordinates[cnt + 2] < min_z)
-                        min_z = coordinates[cnt + 2];
-                    if (coordinates[cnt + 2] > max_z)
-                        max_z = coordinates[cnt + 2];
+                    if (vertexBuffer.get(cnt + 2) < min_z)
+                        min_z = vertexBuffer.get(cnt + 2);
+                    if (vertexBuffer.get(cnt + 2) > max_z)
+                        max_z = vertexBuffer.get(cnt + 2);
 
                     cnt = cnt + 3;
                 }
@@ -637,29 +685,29 @@ public abstract class VertexGeometry extends Geometry
                 break;
 
             case 4:
-                min_z = coordinates[2];
-                max_z = coordinates[2];
-                min_w = coordinates[3];
-                max_w = coordinates[3];
+                min_z = vertexBuffer.get(2);
+                max_z = vertexBuffer.get(2);
+                min_w = vertexBuffer.get(3);
+                max_w = vertexBuffer.get(3);
                 cnt = 4;
 
                 for(int i = 1; i < numRequiredCoords; i++)
                 {
-                    if (coordinates[cnt] < min_x)
-                        min_x = coordinates[cnt];
-                    if (coordinates[cnt] > max_x)
-                        max_x = coordinates[cnt];
+                    if (vertexBuffer.get(cnt) < min_x)
+                        min_x = vertexBuffer.get(cnt);
+                    if (vertexBuffer.get(cnt) > max_x)
+                        max_x = vertexBuffer.get(cnt);
 
-                    if (coordinates[cnt + 1] < min_y)
-                        min_y = coordinates[cnt + 1];
-                    if (coordinates[cnt + 1] > max_y)
-                        max_y = coordinates[cnt + 1];
+                    if (vertexBuffer.get(cnt + 1) < min_y)
+                        min_y = vertexBuffer.get(cnt + 1);
+                    if (vertexBuffer.get(cnt + 1) > max_y)
+                        max_y = vertexBuffer.get(cnt + 1);
 
 
-                    if (coordinates[cnt + 2] < min_z)
-                        min_z = coordinates[cnt + 2];
-                    if (coordinates[cnt + 2] > max_z)
-                        max_z = coordinates[cnt + 2];
+                    if (vertexBuffer.get(cnt + 2) < min_z)
+                        min_z = vertexBuffer.get(cnt + 2);
+                    if (vertexBuffer.get(cnt + 2) > max_z)
+                        max_z = vertexBuffer.get(cnt + 2);
 
                     // Don't do anything with the 4th coord for now.
 
@@ -731,6 +779,160 @@ public abstract class VertexGeometry extends Geometry
     // Local Methods
     //----------------------------------------------------------
 
+    /**
+     * Enable or disable the use of a triangle tree to speed up picking
+     * against this geometry. When enabled, the tree is built the first time
+     * that a pick is made and then reused until the coordinates or indices
+     * are changed. Picking results are the same either way. Geometry types
+     * that are not made of triangles ignore this setting.
+     * <p>
+     *
+     * The tree is built from the copy of the coordinates taken by
+     * setVertices(), so changes made directly to the array passed in are not
+     * seen by picking until setVertices() is called again.
+     *
+     * @param enable true to build and use the tree
+     */
+    public void setPickTreeEnabled(boolean enable)
+    {
+        pickTreeEnabled = enable;
+
+        if(!enable)
+            pickTree = null;
+    }
+
+    /**
+     * Check to see if a triangle tree is used to speed up picking.
+     *
+     * @return true if the tree is enabled
+     */
+    public boolean isPickTreeEnabled()
+    {
+        return pickTreeEnabled;
+    }
+
+    /**
+     * Get the triangle tree to use for picking, building it if needed.
+     *
+     * @return The tree, or null if picking should test every triangle
+     */
+    TriangleBVH getPickTree()
+    {
+        if(!pickTreeEnabled)
+            return null;
+
+        if(pickTree == null)
+            pickTree = buildPickTree();
+
+        return pickTree;
+    }
+
+    /**
+     * Throw away the current picking tree so that it is rebuilt on the next
+     * pick. Called when the data it was built from changes.
+     */
+    void invalidatePickTree()
+    {
+        pickTree = null;
+    }
+
+    /**
+     * Build a triangle tree over the current coordinates. The default
+     * implementation returns null, meaning that picking is not accelerated.
+     * Triangle based geometry should override this.
+     *
+     * @return The new tree or null
+     */
+    TriangleBVH buildPickTree()
+    {
+        return null;
+    }
+
+    /**
+     * Set whether this geometry should only keep its data in the internal
+     * buffers. When enabled, the references to any user arrays are dropped
+     * straight away, and arrays passed to the setter methods from then on are
+     * copied and not kept. Turning it off again does not bring back arrays
+     * that were already dropped. A single colour is always kept, as it is
+     * only ever a copy of 3 or 4 values.
+     * <p>
+     *
+     * This may be called at any time, as it does not change what is rendered.
+     *
+     * @param enable true to keep only the buffer copies of the data
+     */
+    public void setBufferOnlyStorage(boolean enable)
+    {
+        bufferOnly = enable;
+
+        if(enable)
+        {
+            coordinates = null;
+            normals = null;
+            textures = null;
+            color2s = null;
+            fogCoords = null;
+
+            if((vertexFormat & COLOR_SINGLE) == 0)
+                colors = null;
+        }
+    }
+
+    /**
+     * Check to see if this geometry is only keeping its data in the internal
+     * buffers.
+     *
+     * @return true if the user arrays are not kept
+     */
+    public boolean isBufferOnlyStorage()
+    {
+        return bufferOnly;
+    }
+
+    /**
+     * Get the number of bytes of vertex data held in the user arrays that
+     * this geometry still references. Arrays shared between several fields
+     * are counted once for each field.
+     *
+     * @return A number of bytes >= 0
+     */
+    public long getHeapDataSize()
+    {
+        long ret_val = arraySize(coordinates) + arraySize(normals) +
+                       arraySize(colors) + arraySize(color2s) +
+                       arraySize(fogCoords);
+
+        if(textures != null)
+        {
+            for(int i = 0; i < numTextureArrays; i++)
+                ret_val += arraySize(textures[i]);
+        }
+
+        return ret_val;
+    }
+
+    /**
+     * Get the number of bytes held by the internal buffers for the vertex
+     * data. This is the allocated size of the buffers, which may be more than
+     * is currently in use if the data has shrunk.
+     *
+     * @return A number of bytes >= 0
+     */
+    public long getBufferDataSize()
+    {
+        long ret_val = vertexBuffer.capacity() + normalBuffer.capacity() +
+                       colorBuffer.capacity() + color2Buffer.capacity() +
+                       fogBuffer.capacity();
+
+        for(int i = 0; i < textureBuffer.length; i++)
+        {
+            if(textureBuffer[i] != null)
+                ret_val += textureBuffer[i].capacity();
+        }
+
+        return ret_val * 4;
+    }
+
     /**
      * Get the current vertex format type - 2D, 3D, or 4D.
      *
@@ -751,6 +953,77 @@ public abstract class VertexGeometry extends Geometry
         return numCoords;
     }
 
+    /**
+     * Check to see if normals are currently set.
+     *
+     * @return true if there are normals for the vertices
+     */
+    public boolean hasNormals()
+    {
+        return (vertexFormat & NORMALS) != 0;
+    }
+
+    /**
+     * Get the number of components in the currently set colours.
+     *
+     * @return 3 for RGB, 4 for RGBA or 0 if no colours are set
+     */
+    public int getColorComponents()
+    {
+        if((vertexFormat & COLOR_MASK) == 0)
+            return 0;
+
+        return validAlpha ? 4 : 3;
+    }
+
+    /**
+     * Check to see if the colour is a single value for all vertices rather
+     * than per-vertex.
+     *
+     * @return true if a single colour is set
+     */
+    public boolean isSingleColor()
+    {
+        return (vertexFormat & COLOR_SINGLE) != 0;
+    }
+
+    /**
+     * Get the number of texture coordinate arrays currently set.
+     *
+     * @return a number >= 0
+     */
+    public int getNumTextureArrays()
+    {
+        return numTextureArrays;
+    }
+
+    /**
+     * Get the type of texture coordinates in the given array.
+     *
+     * @param set The index of the texture coordinate array
+     * @return One of the TEXTURE_COORDINATE_n values
+     * @throws ArrayIndexOutOfBoundsException The set is not valid
+     */
+    public int getTextureCoordinateType(int set)
+    {
+        if(set < 0 || set >= numTextureArrays)
+            throw new ArrayIndexOutOfBoundsException(set);
+
+        return textureTypes[set];
+    }
+
+    /**
+     * Check to see if any of the less common per-vertex data is set. That
+     * covers edge flags, secondary colours, fog coordinates and shader
+     * vertex attributes.
+     *
+     * @return true if any of the extra vertex data is set
+     */
+    public boolean hasExtendedVertexData()
+    {
+        return (vertexFormat & (EDGES | COLOR2 | FOG | ATTRIBS)) != 0;
+    }
+
     /**
      * Set the number of vertices to the new number.
      * <p>
@@ -790,6 +1063,7 @@ public abstract class VertexGeometry extends Geometry
         }
 
         numCoords = count;
+        pickTree = null;
         dataChanged.setAll(true);
     }
 
@@ -829,7 +1103,7 @@ public abstract class VertexGeometry extends Geometry
     public void getVertices(float[] vertices)
     {
         int vtx_size = vertexFormat & 0x07;
-        System.arraycopy(coordinates, 0, vertices, 0, numCoords * vtx_size);
+        copyBuffer(vertexBuffer, vertices, numCoords * vtx_size);
     }
 
     /**
@@ -846,7 +1120,7 @@ public abstract class VertexGeometry extends Geometry
         int vtx_size = vertexFormat & 0x07;
 
         for(int i = 0; i < vtx_size; i++)
-            coord[i] = coordinates[index * vtx_size + i];
+            coord[i] = vertexBuffer.get(index * vtx_size + i);
     }
 
     /**
@@ -894,6 +1168,7 @@ public abstract class VertexGeometry extends Geometry
 
         int vtx_size = type & 0x07;
         numCoords = numValid;
+        pickTree = null;
 
         if(numValid == 0)
         {
@@ -925,7 +1200,7 @@ public abstract class VertexGeometry extends Geometry
             throw new IllegalArgumentException(msg);
         }
 
-        coordinates = vertices;
+        coordinates = bufferOnly ? null : vertices;
 
         if(numValid * vtx_size > vertexBuffer.capacity())
             vertexBuffer = createBuffer(numValid * vtx_size);
@@ -1116,7 +1391,7 @@ public abstract class VertexGeometry extends Geometry
             vertexFormat &= COLOR_CLEAR;
         }
 
-        this.colors = colors;
+        this.colors = bufferOnly ? null : colors;
 
         if(num_valid > colorBuffer.capacity())
             colorBuffer = createBuffer(num_valid);
@@ -1154,7 +1429,7 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getColors(float[] col)
     {
-        if(colors != null)
+        if((vertexFormat & COLOR_MASK) != 0)
         {
             if((vertexFormat & COLOR_SINGLE) != 0)
             {
@@ -1168,7 +1443,7 @@ public abstract class VertexGeometry extends Geometry
             else
             {
                 int num = numRequiredCoords * (validAlpha ? 4 : 3);
-                System.arraycopy(colors, 0, col, 0, num);
+                copyBuffer(colorBuffer, col, num);
             }
         }
     }
@@ -1185,7 +1460,7 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getColor(int index, float[] color)
     {
-        if(colors != null)
+        if((vertexFormat & COLOR_MASK) != 0)
         {
             if((vertexFormat & COLOR_SINGLE) != 0)
             {
@@ -1198,10 +1473,10 @@ public abstract class VertexGeometry extends Geometry
             }
             else
             {
-                int color_size = numRequiredCoords * (validAlpha ? 4 : 3);
+                int color_size = validAlpha ? 4 : 3;
 
                 for(int i = 0; i < color_size; i++)
-                    color[i] = coordinates[index * color_size + i];
+                    color[i] = colorBuffer.get(index * color_size + i);
             }
         }
     }
@@ -1250,7 +1525,7 @@ public abstract class VertexGeometry extends Geometry
             throw new IllegalArgumentException(msg);
         }
 
-        this.normals = normals;
+        this.normals = bufferOnly ? null : normals;
 
         if(numRequiredCoords * 3 > normalBuffer.capacity())
             normalBuffer = createBuffer(numRequiredCoords * 3);
@@ -1278,8 +1553,8 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getNormals(float[] n)
     {
-        if(normals != null)
-            System.arraycopy(normals, 0, n, 0, numRequiredCoords * 3);
+        if((vertexFormat & NORMALS) != 0)
+            copyBuffer(normalBuffer, n, numRequiredCoords * 3);
     }
 
     /**
@@ -1294,11 +1569,11 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getNormal(int index, float[] n)
     {
-        if(normals != null)
+        if((vertexFormat & NORMALS) != 0)
         {
-            n[0] = normals[index * 3];
-            n[1] = normals[index * 3 + 1];
-            n[2] = normals[index * 3 + 2];
+            n[0] = normalBuffer.get(index * 3);
+            n[1] = normalBuffer.get(index * 3 + 1);
+            n[2] = normalBuffer.get(index * 3 + 2);
         }
     }
 
@@ -1700,7 +1975,7 @@ public abstract class VertexGeometry extends Geometry
                                  numTextureSets :
                                  maxTextureUnits;
 
-        textures = texCoords;
+        textures = bufferOnly ? null : texCoords;
         textureTypes = types;
         dataChanged.setAll(true);
     }
@@ -1715,10 +1990,7 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getTextureCoordinates(float[][] coords)
     {
-        if(textures == null)
-            return;
-
-        for(int i = 0; i < numTextureSets; i++)
+        for(int i = 0; i < numTextureArrays; i++)
         {
             int num_tex_coords = 0;
             switch(textureTypes[i])
@@ -1740,11 +2012,9 @@ public abstract class VertexGeometry extends Geometry
                     break;
             }
 
-            System.arraycopy(textures[i],
-                             0,
-                             coords[i],
-                             0,
-                             numRequiredCoords * num_tex_coords);
+            copyBuffer(textureBuffer[i],
+                       coords[i],
+                       numRequiredCoords * num_tex_coords);
         }
     }
 
@@ -1758,31 +2028,33 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getTextureCoordinate(int index, int set, float[] coords)
     {
-        if(textures == null)
+        if(set >= numTextureArrays)
             return;
 
+        FloatBuffer tex = textureBuffer[set];
+
         switch(textureTypes[set])
         {
             case TEXTURE_COORDINATE_1:
-                coords[0] = textures[set][index];
+                coords[0] = tex.get(index);
                 break;
 
             case TEXTURE_COORDINATE_2:
-                coords[0] = textures[set][index * 2];
-                coords[1] = textures[set][index * 2 + 1];
+                coords[0] = tex.get(index * 2);
+                coords[1] = tex.get(index * 2 + 1);
                 break;
 
             case TEXTURE_COORDINATE_3:
-                coords[0] = textures[set][index * 3];
-                coords[1] = textures[set][index * 3 + 1];
-                coords[2] = textures[set][index * 3 + 2];
+                coords[0] = tex.get(index * 3);
+                coords[1] = tex.get(index * 3 + 1);
+                coords[2] = tex.get(index * 3 + 2);
                 break;
 
             case TEXTURE_COORDINATE_4:
-                coords[0] = textures[set][index * 4];
-                coords[1] = textures[set][index * 4 + 1];
-                coords[2] = textures[set][index * 4 + 2];
-                coords[3] = textures[set][index * 4 + 3];
+                coords[0] = tex.get(index * 4);
+                coords[1] = tex.get(index * 4 + 1);
+                coords[2] = tex.get(index * 4 + 2);
+                coords[3] = tex.get(index * 4 + 3);
                 break;
         }
     }
@@ -1836,20 +2108,20 @@ public abstract class VertexGeometry extends Geometry
             throw new IllegalArgumentException(msg);
         }
 
-        fogCoords = coords;
+        fogCoords = bufferOnly ? null : coords;
 
         if(numRequiredCoords > fogBuffer.capacity())
             fogBuffer = createBuffer(numCoords);
         else
             fogBuffer.clear();
 
-        if(fogCoords == null)
+        if(coords == null)
             vertexFormat &= FOG_CLEAR;
         else
         {
             // convert booleans to GL values.
             fogBuffer.rewind();
-            fogBuffer.put(fogCoords, 0, numRequiredCoords);
+            fogBuffer.put(coords, 0, numRequiredCoords);
             fogBuffer.rewind();
 
             vertexFormat |= FOG;
@@ -1867,28 +2139,24 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getFogCoordinates(float[] fogs)
     {
-        if(fogCoords != null)
-            System.arraycopy(fogCoords, 0, fogs, 0, numRequiredCoords);
+        if((vertexFormat & FOG) != 0)
+            copyBuffer(fogBuffer, fogs, numRequiredCoords);
     }
 
     /**
-     * Retrieve the fog coordinates at the given index. The array must be
-     * at least length 3. If none are set
-     * currently or have been cleared, the provided array is untouched.
+     * Retrieve the fog coordinate at the given index. There is only a single
+     * fog coordinate per vertex, which is copied into the first item of the
+     * array. If none are set currently or have been cleared, the provided
+     * array is untouched.
      *
      * @param index The index of the coordinate to get
      * @param fogs The array to copy the fog coordinate value in to
-     * @throws ArrayIndexOutOfBoundsException If the normal array is not big
-     *    enough
+     * @throws ArrayIndexOutOfBoundsException If the fog array is empty
      */
     public void getFogCoordinates(int index, float[] fogs)
     {
-        if(fogCoords != null)
-        {
-            fogs[0] = fogCoords[index * 3];
-            fogs[1] = fogCoords[index * 3 + 1];
-            fogs[2] = fogCoords[index * 3 + 2];
-        }
+        if((vertexFormat & FOG) != 0)
+            fogs[0] = fogBuffer.get(index);
     }
 
     /**
@@ -1938,7 +2206,7 @@ public abstract class VertexGeometry extends Geometry
             throw new IllegalArgumentException(msg);
         }
 
-        this.color2s = colors;
+        this.color2s = bufferOnly ? null : colors;
 
         if(numCoords * 3 > color2Buffer.capacity())
             color2Buffer = createBuffer(numRequiredCoords * 3);
@@ -1966,8 +2234,8 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getSecondaryColors(float[] cols)
     {
-        if(color2s != null)
-            System.arraycopy(color2s, 0, cols, 0, numRequiredCoords * 3);
+        if((vertexFormat & COLOR2) != 0)
+            copyBuffer(color2Buffer, cols, numRequiredCoords * 3);
     }
 
     /**
@@ -1982,11 +2250,11 @@ public abstract class VertexGeometry extends Geometry
      */
     public void getSecondaryColors(int index, float[] cols)
     {
-        if(color2s != null)
+        if((vertexFormat & COLOR2) != 0)
         {
-            cols[0] = color2s[index * 3];
-            cols[1] = color2s[index * 3 + 1];
-            cols[2] = color2s[index * 3 + 2];
+            cols[0] = color2Buffer.get(index * 3);
+            cols[1] = color2Buffer.get(index * 3 + 1);
+            cols[2] = color2Buffer.get(index * 3 + 2);
         }
     }
 
@@ -2552,13 +2820,32 @@ public abstract class VertexGeometry extends Geometry
     {
         int vtx_size = vertexFormat & 0x07;
         int offset = 0;
-        gl.glBufferSubData(GL.GL_ARRAY_BUFFER,
-                           offset,
-                           numRequiredCoords * vtx_size * 4,
-                           vertexBuffer);
-        offset += numRequiredCoords * vtx_size * 4;
+        boolean use_interleaved = isInterleavedLayoutUsed();
 
-        if((vertexFormat & NORMALS) != 0)
+        if(use_interleaved)
+        {
+            updateInterleavedLayout();
+
+            FloatBuffer packed =
+                interleavedLayout.pack(vertexBuffer,
+                                       normalBuffer,
+                                       textureBuffer[0],
+                                       numRequiredCoords);
+            int size = numRequiredCoords * interleavedLayout.getStride();
+
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, offset, size, packed);
+            offset += size;
+        }
+        else
+        {
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER,
+                               offset,
+                               numRequiredCoords * vtx_size * 4,
+                               vertexBuffer);
+            offset += numRequiredCoords * vtx_size * 4;
+        }
+
+        if(!use_interleaved && (vertexFormat & NORMALS) != 0)
         {
             gl.glBufferSubData(GL.GL_ARRAY_BUFFER,
                                offset,
@@ -2567,7 +2854,7 @@ public abstract class VertexGeometry extends Geometry
             offset += numRequiredCoords * 3 * 4;
         }
 
-        if((vertexFormat & TEXTURE_MASK) != 0)
+        if(!use_interleaved && (vertexFormat & TEXTURE_MASK) != 0)
         {
             // single texturing or multi-texturing
             if(hasMultiTextureAPI && numTextureSets > 1)
@@ -2736,18 +3023,51 @@ public abstract class VertexGeometry extends Geometry
         // Set buffer offsets
         int vtx_size = vertexFormat & 0x07;
         long offset = 0;
+        boolean use_interleaved = isInterleavedLayoutUsed();
+
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-        gl.glVertexPointer(vtx_size, GL.GL_FLOAT, 0, offset);
-        offset += numRequiredCoords * vtx_size * 4;
 
-        if((vertexFormat & NORMALS) != 0)
+        if(use_interleaved)
+        {
+            updateInterleavedLayout();
+
+            int stride = interleavedLayout.getStride();
+
+            gl.glVertexPointer(vtx_size, GL.GL_FLOAT, stride, 0);
+
+            if((vertexFormat & NORMALS) != 0)
+            {
+                gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+                gl.glNormalPointer(GL.GL_FLOAT,
+                                   stride,
+                                   interleavedLayout.getNormalOffset());
+            }
+
+            if((vertexFormat & TEXTURE_MASK) != 0)
+            {
+                gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+                gl.glTexCoordPointer(textureTypes[0],
+                                     GL.GL_FLOAT,
+                                     stride,
+                                     interleavedLayout.getTexCoordOffset());
+            }
+
+            offset += numRequiredCoords * stride;
+        }
+        else
+        {
+            gl.glVertexPointer(vtx_size, GL.GL_FLOAT, 0, offset);
+            offset += numRequiredCoords * vtx_size * 4;
+        }
+
+        if(!use_interleaved && (vertexFormat & NORMALS) != 0)
         {
             gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
             gl.glNormalPointer(GL.GL_FLOAT, 0, offset);
             offset += numRequiredCoords * 3 * 4;
         }
 
-        if((vertexFormat & TEXTURE_MASK) != 0)
+        if(!use_interleaved && (vertexFormat & TEXTURE_MASK) != 0)
         {
             // single texturing or multi-texturing
             if(hasMultiTextureAPI && numTextureSets > 1)
@@ -3112,6 +3432,31 @@ public abstract class VertexGeometry extends Geometry
         return ret_val;
     }
 
+    /**
+     * Copy the start of a buffer into an array. Uses absolute reads so that
+     * the buffer position is left alone for the rendering code.
+     *
+     * @param src The buffer to read from
+     * @param dest The array to copy the values into
+     * @param len The number of values to copy
+     */
+    private void copyBuffer(FloatBuffer src, float[] dest, int len)
+    {
+        for(int i = 0; i < len; i++)
+            dest[i] = src.get(i);
+    }
+
+    /**
+     * Get the size of an array in bytes, allowing for null arrays.
+     *
+     * @param array The array to measure
+     * @return The number of bytes used by the values
+     */
+    private long arraySize(float[] array)
+    {
+        return (array == null) ? 0 : array.length * 4L;
+    }
+
     /**
      * Initialize the internal arrays to a given size for the picking.
      *
@@ -3615,6 +3960,76 @@ public abstract class VertexGeometry extends Geometry
         return useVbo;
     }
 
+    /**
+     * Set whether the coordinates, normals and texture coordinates should be
+     * interleaved in the vertex buffer object. This only has an effect when
+     * VBOs are in use, and is ignored while more than one set of texture
+     * coordinates is being rendered.
+     *
+     * @param enabled true to use the interleaved layout
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void setInterleavedEnabled(boolean enabled)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        if(interleaved == enabled)
+            return;
+
+        interleaved = enabled;
+
+        if(!enabled)
+            interleavedLayout = null;
+
+        dataChanged.setAll(true);
+    }
+
+    /**
+     * Check to see if the interleaved VBO layout has been requested.
+     *
+     * @return true if the interleaved layout is used where possible
+     */
+    public boolean isInterleavedEnabled()
+    {
+        return interleaved;
+    }
+
+    /**
+     * Check to see if the current data can be, and should be, laid out
+     * interleaved in the VBO. Multiple texture units keep the separate layout
+     * as each set may be mapped to a different unit.
+     *
+     * @return true if the interleaved layout is to be used
+     */
+    private boolean isInterleavedLayoutUsed()
+    {
+        if(!interleaved)
+            return false;
+
+        return (vertexFormat & TEXTURE_MASK) == 0 ||
+               !(hasMultiTextureAPI && numTextureSets > 1);
+    }
+
+    /**
+     * Make sure the interleaved layout matches the current vertex format.
+     */
+    private void updateInterleavedLayout()
+    {
+        if(interleavedLayout == null)
+            interleavedLayout = new InterleavedVertexLayout();
+
+        int tex_size = ((vertexFormat & TEXTURE_MASK) != 0) ?
+                       textureTypes[0] : 0;
+
+        interleavedLayout.setLayout(vertexFormat & COORDINATE_MASK,
+                                    (vertexFormat & NORMALS) != 0,
+                                    tex_size);
+    }
+
     /**
      * Set how VBO's are optimized on the graphics card.  Valid values
      * are VBO_HINT_*
@@ -0,0 +1,194 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.iutil;
+
+// External imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// Local imports
+// None
+
+/**
+ * Internal helper that packs separate coordinate, normal and texture
+ * coordinate buffers into a single interleaved buffer for upload to a VBO.
+ * <p>
+ *
+ * Each vertex is laid out as the coordinate, followed by the normal if
+ * present, followed by the texture coordinate if present. All values are
+ * floats, so the stride is always a multiple of 4 bytes.
+ * <p>
+ *
+ * The packed data is only needed until it has been uploaded to the VBO, so
+ * rather than each geometry keeping its own copy, every layout used on a
+ * thread packs into a single staging buffer owned by that thread. The buffer
+ * grows to fit the largest geometry packed on the thread and is reused from
+ * then on, so dynamic geometry does not allocate a new direct buffer every
+ * time it changes.
+ */
+public class InterleavedVertexLayout
+{
+    /** Number of floats in a coordinate */
+    private int coordSize;
+
+    /** Number of floats in a normal, 0 or 3 */
+    private int normalSize;
+
+    /** Number of floats in a texture coordinate, 0 to 4 */
+    private int texCoordSize;
+
+    /** The staging buffer that each thread packs its data into */
+    private static final ThreadLocal<FloatBuffer> stagingBuffer =
+        new ThreadLocal<>();
+
+    /**
+     * Create a new layout with no components set.
+     */
+    public InterleavedVertexLayout()
+    {
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Set the components that make up each vertex.
+     *
+     * @param coordSize The number of floats in a coordinate, 2, 3 or 4
+     * @param hasNormals true if a 3 component normal follows the coordinate
+     * @param texCoordSize The number of floats in the texture coordinate, or
+     *    0 if there are none
+     */
+    public void setLayout(int coordSize, boolean hasNormals, int texCoordSize)
+    {
+        this.coordSize = coordSize;
+        this.normalSize = hasNormals ? 3 : 0;
+        this.texCoordSize = texCoordSize;
+    }
+
+    /**
+     * Get the number of floats used by a single vertex.
+     *
+     * @return The number of floats per vertex
+     */
+    public int getVertexSize()
+    {
+        return coordSize + normalSize + texCoordSize;
+    }
+
+    /**
+     * Get the distance between the start of each vertex, in bytes.
+     *
+     * @return The stride in bytes
+     */
+    public int getStride()
+    {
+        return getVertexSize() * 4;
+    }
+
+    /**
+     * Get the byte offset of the normal within a vertex.
+     *
+     * @return The offset in bytes or -1 if there are no normals
+     */
+    public int getNormalOffset()
+    {
+        return (normalSize == 0) ? -1 : coordSize * 4;
+    }
+
+    /**
+     * Get the byte offset of the texture coordinate within a vertex.
+     *
+     * @return The offset in bytes or -1 if there are no texture coordinates
+     */
+    public int getTexCoordOffset()
+    {
+        return (texCoordSize == 0) ? -1 : (coordSize + normalSize) * 4;
+    }
+
+    /**
+     * Pack the given number of vertices into the staging buffer of the
+     * calling thread. The source buffers are read with absolute gets from
+     * index 0, so their positions are not changed. The normal and texture
+     * coordinate buffers are ignored if the layout does not include them.
+     * <p>
+     *
+     * The returned buffer is shared with every other layout used on this
+     * thread, so it must be uploaded before pack() is called again and must
+     * not be kept.
+     *
+     * @param coords The coordinate data
+     * @param normals The normal data, or null
+     * @param texCoords The texture coordinate data, or null
+     * @param numVertices The number of vertices to pack
+     * @return The packed buffer, rewound and ready to read from
+     */
+    public FloatBuffer pack(FloatBuffer coords,
+                            FloatBuffer normals,
+                            FloatBuffer texCoords,
+                            int numVertices)
+    {
+        int vtx_size = getVertexSize();
+        int size = numVertices * vtx_size;
+
+        FloatBuffer packedBuffer = stagingBuffer.get();
+
+        if(packedBuffer == null || packedBuffer.capacity() < size)
+        {
+            ByteBuffer buf = ByteBuffer.allocateDirect(size * 4);
+            buf.order(ByteOrder.nativeOrder());
+            packedBuffer = buf.asFloatBuffer();
+
+            stagingBuffer.set(packedBuffer);
+        }
+        else
+        {
+            packedBuffer.clear();
+        }
+
+        int out = 0;
+
+        for(int i = 0; i < numVertices; i++)
+        {
+            int src = i * coordSize;
+
+            for(int j = 0; j < coordSize; j++)
+                packedBuffer.put(out++, coords.get(src + j));
+
+            if(normalSize != 0)
+            {
+                src = i * 3;
+                packedBuffer.put(out++, normals.get(src));
+                packedBuffer.put(out++, normals.get(src + 1));
+                packedBuffer.put(out++, normals.get(src + 2));
+            }
+
+            if(texCoordSize != 0)
+            {
+                src = i * texCoordSize;
+
+                for(int j = 0; j < texCoordSize; j++)
+                    packedBuffer.put(out++, texCoords.get(src + j));
+            }
+        }
+
+        packedBuffer.position(0);
+        packedBuffer.limit(size);
+
+        return packedBuffer;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.iutil;
+
+// External imports
+import java.util.concurrent.ForkJoinPool;
+
+// Local imports
+// None
+
+/**
+ * Holder of the single fork/join pool that the parallel parts of the scene
+ * graph and its extensions run in, unless they are given a pool of their own.
+ * <p>
+ *
+ * Culling, picking, skinning, particle updates and loading can all be busy in
+ * the same frame. If each of them made its own pool with one thread per
+ * processor, there would be several times as many running threads as there
+ * are cores. Sharing one pool keeps the number of worker threads at the
+ * number of processors, and lets idle workers steal from whichever job has
+ * work left.
+ * <p>
+ *
+ * The pool is created on first use. Its threads are daemons, so it does not
+ * stop the application from exiting. Code using the pool must never shut it
+ * down.
+ */
+public class SharedWorkerPool
+{
+    /** The shared pool, created on first use */
+    private static ForkJoinPool sharedPool;
+
+    /**
+     * Static utility class, so no public constructor.
+     */
+    private SharedWorkerPool()
+    {
+    }
+
+    /**
+     * Get the shared pool, creating it if needed. The pool has one thread per
+     * available processor.
+     *
+     * @return The shared pool
+     */
+    public static synchronized ForkJoinPool getPool()
+    {
+        if(sharedPool == null)
+            sharedPool = new ForkJoinPool();
+
+        return sharedPool;
+    }
+}
@@ -43,6 +43,12 @@ import org.j3d.util.MatrixUtils;
  * descending to the next level. This allows for a lot of optimisation where
  * only a single traversal of the tree is needed for all pick requests.
  * <p>
+ *
+ * Each instance keeps its own path and transform stacks, so separate
+ * instances may process separate sets of requests against the same scene
+ * graph concurrently. Geometry level intersection tests are synchronised on
+ * the geometry being tested.
+ * <p>
  * <b>Internationalisation Resource Names</b>
  * <ul>
  * <li>unknownPickTypeMsg: Error message when an unknown pick type is requested</li>
@@ -473,6 +479,10 @@ class DefaultBatchPickingHandler
             ((TransformPickTarget)target_node).getTransform(tx);
             ((TransformPickTarget)target_node).getInverseTransform(invertedMatrix);
 
+            // The inverse is provided in transposed form, as used by the
+            // single pick handler.
+            invertedMatrix.transpose(invertedMatrix);
+
             float scale = (float)matrixUtils.getUniformScale(invertedMatrix);
 
             // multiply the transform matrix through to the current level.
@@ -747,6 +757,11 @@ class DefaultBatchPickingHandler
         resizePath();
         validTransform[lastPathIndex] = false;
         pickPath[lastPathIndex] = parent;
+
+        // Single parented nodes don't change the pick volume or transform,
+        // so just pass the values from this level down to the child.
+        copyLevel(numRequests);
+
         lastPathIndex++;
 
         PickTarget child = parent.getPickableChild();
@@ -787,6 +802,13 @@ class DefaultBatchPickingHandler
         boolean intersect;
         BoundingVolume bounds = target.getPickableBounds();
 
+        // The leaf has the same transform as the level above it
+        resizePath();
+        if(lastPathIndex == 0)
+            transformPath[lastPathIndex].setIdentity();
+        else
+            transformPath[lastPathIndex].set(transformPath[lastPathIndex - 1]);
+
         for(int i = 0; i < numRequests; i++)
         {
             // Only process this if we have an intersection for the parent,
@@ -819,11 +841,18 @@ class DefaultBatchPickingHandler
                                 req[i].pickSortType == PickRequest.SORT_ORDERED;
 
 
-                            intersect = target.pickLineRay(start[i][lastPathIndex],
-                                                           end[i][lastPathIndex],
-                                                           sort,
-                                                           vertexPickData,
-                                                           0);
+                            // Geometry uses internal working variables for
+                            // the intersection tests, so make sure another
+                            // batch picker is not using it at the same time.
+                            synchronized(target)
+                            {
+                                intersect =
+                                    target.pickLineRay(start[i][lastPathIndex],
+                                                       end[i][lastPathIndex],
+                                                       sort,
+                                                       vertexPickData,
+                                                       0);
+                            }
 
                             // TODO:
                             // Need to have something here that checks distance
@@ -846,11 +875,16 @@ class DefaultBatchPickingHandler
                                 req[i].pickSortType == PickRequest.SORT_ORDERED;
 
 
-                            intersect = target.pickLineSegment(start[i][lastPathIndex],
-                                                               end[i][lastPathIndex],
-                                                               sort,
-                                                               vertexPickData,
-                                                               0);
+                            synchronized(target)
+                            {
+                                intersect =
+                                    target.pickLineSegment(start[i][lastPathIndex],
+                                                           end[i][lastPathIndex],
+                                                           sort,
+                                                           vertexPickData,
+                                                           0);
+                            }
+
                             // TODO:
                             // Need to have something here that checks distance
                             // and updates only when required.
@@ -955,6 +989,37 @@ class DefaultBatchPickingHandler
         }
     }
 
+    /**
+     * Copy the transform and the per-request pick volume values from the
+     * current level to the next level down, without any modification.
+     *
+     * @param numRequests The number of valid pick requests to process
+     */
+    private void copyLevel(int numRequests)
+    {
+        if(lastPathIndex == 0)
+            transformPath[lastPathIndex].setIdentity();
+        else
+            transformPath[lastPathIndex].set(transformPath[lastPathIndex - 1]);
+
+        for(int i = 0; i < numRequests; i++)
+        {
+            if(activePicks[i] < lastPathIndex)
+                continue;
+
+            start[i][lastPathIndex + 1][0] = start[i][lastPathIndex][0];
+            start[i][lastPathIndex + 1][1] = start[i][lastPathIndex][1];
+            start[i][lastPathIndex + 1][2] = start[i][lastPathIndex][2];
+
+            end[i][lastPathIndex + 1][0] = end[i][lastPathIndex][0];
+            end[i][lastPathIndex + 1][1] = end[i][lastPathIndex][1];
+            end[i][lastPathIndex + 1][2] = end[i][lastPathIndex][2];
+
+            extraData[i][lastPathIndex + 1][0] = extraData[i][lastPathIndex][0];
+            extraData[i][lastPathIndex + 1][1] = extraData[i][lastPathIndex][1];
+        }
+    }
+
     /**
      * Resize the list if needed. Marked as final in order to encourage the
      * compiler to inline the code for faster execution
@@ -157,6 +157,13 @@ public abstract class DisplayCollection
      */
     public abstract void halt();
 
+    /**
+     * Block until every pipeline in this collection has finished drawing the
+     * last frame it was given. Called by the render manager before the
+     * update callbacks are run.
+     */
+    public abstract void waitForDraw();
+
     /**
      * Set the set of layers for this manager. Setting a value of
      * <code>null</code> will remove the currently set of layers. If this is
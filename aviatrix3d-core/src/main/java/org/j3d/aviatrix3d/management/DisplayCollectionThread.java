@@ -168,6 +168,15 @@ class DisplayCollectionThread extends Thread
         }
     }
 
+    /**
+     * Block until the pipeline has finished drawing the last frame it was
+     * given. Only called while this thread is waiting for the next request.
+     */
+    void waitForDraw()
+    {
+        display.waitForDraw();
+    }
+
     /**
      * Force a shutdown of the pipeline now. If the display is currently
      * processing, the current processing finishes before the thread
@@ -484,6 +484,7 @@ public class MultiThreadRenderManager
             throw new IllegalStateException(msg);
 		}
 
+        waitForDisplays();
         processChangeList();
         processShaderLists();
 
@@ -798,6 +799,9 @@ public class MultiThreadRenderManager
                 }
                 else
                 {
+                    // Pipelined displays may still be drawing the last frame
+                    waitForDisplays();
+
                     if(!processChangeList() && haltOnError)
                     {
                         enabled = false;
@@ -1156,6 +1160,16 @@ public class MultiThreadRenderManager
     // Misc Internal methods
     //---------------------------------------------------------------
 
+    /**
+     * Wait for every display to finish drawing its last frame, so that the
+     * scene graph is free to be written to.
+     */
+    private void waitForDisplays()
+    {
+        for(int i = 0; i < numDisplayThreads; i++)
+            displayThread[i].waitForDraw();
+    }
+
     /**
      * Process the changeList now. If the user code generated an exception
      * during this time and haltOnError is true, then exit immediately and
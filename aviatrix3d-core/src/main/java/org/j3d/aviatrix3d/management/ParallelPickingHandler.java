@@ -0,0 +1,472 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.management;
+
+// External imports
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.j3d.util.DefaultErrorReporter;
+import org.j3d.util.ErrorReporter;
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.iutil.SharedWorkerPool;
+import org.j3d.aviatrix3d.picking.*;
+
+/**
+ * Picking manager that splits large batch pick requests across a pool of
+ * worker threads.
+ * <p>
+ *
+ * Single picks, and batches too small to be worth splitting, are processed
+ * on the calling thread exactly as the default picking manager would. Larger
+ * batches are broken into fixed size chunks of consecutive requests. Each
+ * worker takes the next unclaimed chunk and processes it with its own batch
+ * picker, which has its own path and transform stacks. Since every request
+ * only ever writes to its own foundPaths and pickCount, and the scene graph
+ * is walked in the same order regardless of which worker processes it, the
+ * results are identical to processing the whole batch on a single thread.
+ * <p>
+ *
+ * Throughput and latency figures for every call are collected in a
+ * {@link PickingStatistics} instance. Requests in a chunk are processed
+ * together, so the latency recorded for each request is the time taken for
+ * its chunk divided by the number of requests in the chunk. Use a chunk size
+ * of 1 for exact per-request latency.
+ * <p>
+ *
+ * The scene graph must not be modified while a pick is in progress, which
+ * is already the case for picks made from the application update observer.
+ * <p>
+ *
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>invalidChunkSizeMsg: Error message when the chunk size is less than
+ *     one</li>
+ * </ul>
+ */
+public class ParallelPickingHandler
+    implements PickingManager
+{
+    /** Message for the chunk size being too small */
+    private static final String INVALID_CHUNK_SIZE_PROP =
+        "org.j3d.aviatrix3d.management.ParallelPickingHandler.invalidChunkSizeMsg";
+
+    /** Default number of requests each worker claims at a time */
+    private static final int DEFAULT_CHUNK_SIZE = 16;
+
+    /** The pool that the workers run in */
+    private final ForkJoinPool workerPool;
+
+    /** True if the pool was created by this handler and may be shut down */
+    private final boolean ownsPool;
+
+    /** Handler for single picks, run on the calling thread */
+    private DefaultPickingHandler singlePicker;
+
+    /** One worker per thread in the pool, created as needed */
+    private PickWorker[] workers;
+
+    /** The task list passed to the pool. Reused between calls */
+    private List<PickWorker> taskList;
+
+    /** The index of the next chunk of requests to be claimed */
+    private final AtomicInteger nextChunk;
+
+    /** The number of requests each worker claims at a time */
+    private int chunkSize;
+
+    /** The root of the current batch being processed */
+    private PickTarget currentRoot;
+
+    /** The requests of the current batch being processed */
+    private PickRequest[] currentRequests;
+
+    /** The number of valid requests in the current batch */
+    private int numCurrentRequests;
+
+    /** Collected performance figures */
+    private PickingStatistics statistics;
+
+    /** Working copy of the latency counts for a single call */
+    private long[] callLatencies;
+
+    /** Error reporter instance to use */
+    private ErrorReporter errorReporter;
+
+    /**
+     * Worker that processes chunks of the current batch until there are none
+     * left.
+     */
+    private class PickWorker implements Callable<Void>
+    {
+        /** The batch picker used by this worker */
+        private final DefaultBatchPickingHandler batchPicker;
+
+        /** The chunk of requests currently being processed */
+        private PickRequest[] chunk;
+
+        /** Latency counts for the requests processed by this worker */
+        private final long[] latencies;
+
+        PickWorker()
+        {
+            batchPicker = new DefaultBatchPickingHandler();
+            batchPicker.setErrorReporter(errorReporter);
+
+            chunk = new PickRequest[chunkSize];
+            latencies = new long[PickingStatistics.NUM_LATENCY_BUCKETS];
+        }
+
+        @Override
+        public Void call()
+        {
+            int chunk_size = chunkSize;
+
+            if(chunk.length < chunk_size)
+                chunk = new PickRequest[chunk_size];
+
+            for(int i = 0; i < latencies.length; i++)
+                latencies[i] = 0;
+
+            int idx;
+            while((idx = nextChunk.getAndIncrement() * chunk_size) <
+                  numCurrentRequests)
+            {
+                int num = Math.min(chunk_size, numCurrentRequests - idx);
+
+                System.arraycopy(currentRequests, idx, chunk, 0, num);
+
+                long start_time = System.nanoTime();
+
+                batchPicker.processPick(currentRoot, chunk, num);
+
+                long end_time = System.nanoTime();
+
+                int bucket =
+                    PickingStatistics.getLatencyBucket((end_time - start_time) / num);
+                latencies[bucket] += num;
+            }
+
+            // Don't hold onto the requests or scene graph between frames
+            for(int i = 0; i < chunk.length; i++)
+                chunk[i] = null;
+
+            return null;
+        }
+    }
+
+    /**
+     * Create a new handler that runs in the worker pool shared with the rest
+     * of the scene graph, which has one thread per available processor.
+     */
+    public ParallelPickingHandler()
+    {
+        this(SharedWorkerPool.getPool(), false);
+    }
+
+    /**
+     * Create a new handler that uses its own pool with a fixed number of
+     * worker threads.
+     *
+     * @param numThreads The number of worker threads to use. Must be > 0
+     * @throws IllegalArgumentException The number of threads is not positive
+     */
+    public ParallelPickingHandler(int numThreads)
+    {
+        this(new ForkJoinPool(numThreads), true);
+    }
+
+    /**
+     * Common constructor for running in the given pool.
+     *
+     * @param pool The pool to run the workers in
+     * @param ownsPool true if the pool should be shut down with this handler
+     */
+    private ParallelPickingHandler(ForkJoinPool pool, boolean ownsPool)
+    {
+        int num_threads = pool.getParallelism();
+
+        this.ownsPool = ownsPool;
+
+        workerPool = pool;
+        workers = new PickWorker[num_threads];
+        taskList = new ArrayList<>(num_threads);
+        nextChunk = new AtomicInteger();
+        chunkSize = DEFAULT_CHUNK_SIZE;
+
+        singlePicker = new DefaultPickingHandler();
+        statistics = new PickingStatistics();
+        callLatencies = new long[PickingStatistics.NUM_LATENCY_BUCKETS];
+        errorReporter = DefaultErrorReporter.getDefaultReporter();
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by PickingManager
+    //---------------------------------------------------------------
+
+    /**
+     * Register an error reporter with the engine so that any errors generated
+     * by the node's internals can be reported in a nice, pretty fashion.
+     * Setting a value of null will clear the currently set reporter. If one
+     * is already set, the new value replaces the old.
+     *
+     * @param reporter The instance to use or null
+     */
+    @Override
+    public synchronized void setErrorReporter(ErrorReporter reporter)
+    {
+        if(reporter == null)
+            errorReporter = DefaultErrorReporter.getDefaultReporter();
+        else
+            errorReporter = reporter;
+
+        singlePicker.setErrorReporter(errorReporter);
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            if(workers[i] != null)
+                workers[i].batchPicker.setErrorReporter(errorReporter);
+        }
+    }
+
+    /**
+     * Check for all intersections against this geometry and it's children to
+     * see if there is an intersection with the given set of requests.
+     *
+     * @param root The root point to start the pick processing from
+     * @param req The list of picks to be made, starting at this object
+     * @param numRequests The number of valid pick requests to process
+     * @throws NotPickableException This object has been marked as non pickable,
+     *   but you decided to try to call the method anyway
+     */
+    @Override
+    public synchronized void pickBatch(PickTarget root,
+                                       PickRequest[] req,
+                                       int numRequests)
+        throws NotPickableException
+    {
+        // Weed out the common cases first.
+        if(numRequests == 0 || root == null || req == null || req.length == 0)
+            return;
+
+        if(numRequests == 1 || req.length == 1)
+        {
+            pickSingle(root, req[0]);
+            return;
+        }
+
+        long start_time = System.nanoTime();
+
+        int num_chunks = (numRequests + chunkSize - 1) / chunkSize;
+        int num_workers = Math.min(num_chunks, workers.length);
+
+        for(int i = 0; i < num_workers; i++)
+        {
+            if(workers[i] == null)
+                workers[i] = new PickWorker();
+        }
+
+        currentRoot = root;
+        currentRequests = req;
+        numCurrentRequests = numRequests;
+        nextChunk.set(0);
+
+        try
+        {
+            if(num_workers == 1)
+            {
+                // No point handing off to another thread
+                workers[0].call();
+            }
+            else
+            {
+                taskList.clear();
+
+                for(int i = 0; i < num_workers; i++)
+                    taskList.add(workers[i]);
+
+                List<Future<Void>> results = workerPool.invokeAll(taskList);
+
+                for(int i = 0; i < results.size(); i++)
+                    waitForWorker(results.get(i));
+            }
+        }
+        finally
+        {
+            currentRoot = null;
+            currentRequests = null;
+            taskList.clear();
+        }
+
+        long end_time = System.nanoTime();
+
+        for(int i = 0; i < callLatencies.length; i++)
+            callLatencies[i] = 0;
+
+        for(int i = 0; i < num_workers; i++)
+        {
+            long[] lat = workers[i].latencies;
+            for(int j = 0; j < callLatencies.length; j++)
+                callLatencies[j] += lat[j];
+        }
+
+        statistics.addCall(numRequests, end_time - start_time, callLatencies);
+    }
+
+    /**
+     * Check for all intersections against this geometry and it's children to
+     * see if there is an intersection with the given set of requests.
+     *
+     * @param root The root point to start the pick processing from
+     * @param req The details of the pick to be made
+     * @throws NotPickableException This object has been marked as non pickable,
+     *   but you decided to try to call the method anyway
+     */
+    @Override
+    public synchronized void pickSingle(PickTarget root, PickRequest req)
+        throws NotPickableException
+    {
+        long start_time = System.nanoTime();
+
+        singlePicker.pickSingle(root, req);
+
+        long time = System.nanoTime() - start_time;
+
+        for(int i = 0; i < callLatencies.length; i++)
+            callLatencies[i] = 0;
+
+        callLatencies[PickingStatistics.getLatencyBucket(time)] = 1;
+
+        statistics.addCall(1, time, callLatencies);
+    }
+
+    //---------------------------------------------------------------
+    // Local methods
+    //---------------------------------------------------------------
+
+    /**
+     * Set the number of consecutive requests that a worker claims at a time.
+     * Smaller chunks balance the load between workers better, while larger
+     * chunks let the batch picker share more of the scene graph traversal
+     * between requests.
+     *
+     * @param size The number of requests. Must be greater than zero
+     * @throws IllegalArgumentException The size was less than one
+     */
+    public synchronized void setChunkSize(int size)
+    {
+        if(size < 1)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(INVALID_CHUNK_SIZE_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+
+            NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+            Object[] msg_args = { new Integer(size) };
+            Format[] fmts = { n_fmt };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            msg_fmt.setFormats(fmts);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        chunkSize = size;
+    }
+
+    /**
+     * Get the number of consecutive requests that a worker claims at a time.
+     *
+     * @return A value greater than zero
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Get the number of worker threads that this handler is using.
+     *
+     * @return A value greater than zero
+     */
+    public int getParallelism()
+    {
+        return workerPool.getParallelism();
+    }
+
+    /**
+     * Get the statistics collected by this handler. The returned object is
+     * live and continues to be updated by later picks.
+     *
+     * @return The statistics instance
+     */
+    public PickingStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Shut down the worker threads used by this handler. The handler cannot
+     * be used for batch picking after this has been called. The shared pool
+     * is left running for the other users of it.
+     */
+    public void shutdown()
+    {
+        if(ownsPool)
+            workerPool.shutdown();
+    }
+
+    /**
+     * Wait for a worker to complete and pass on any exception it generated.
+     *
+     * @param result The future of the worker
+     */
+    private void waitForWorker(Future<Void> result)
+    {
+        try
+        {
+            result.get();
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            else if(cause instanceof Error)
+                throw (Error)cause;
+            else
+                errorReporter.errorReport(cause.getMessage(), cause);
+        }
+    }
+}
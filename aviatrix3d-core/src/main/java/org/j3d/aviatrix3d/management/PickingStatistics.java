@@ -0,0 +1,174 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.management;
+
+// External imports
+// None
+
+// Local imports
+// None
+
+/**
+ * Throughput and latency figures collected by a picking manager.
+ * <p>
+ *
+ * Two sets of numbers are kept. The throughput is the total number of pick
+ * requests processed divided by the total wall clock time spent inside the
+ * pick calls. The latency histogram records how long each request took to
+ * process. Bucket 0 holds requests that took less than one microsecond and
+ * bucket N holds requests that took at least 2<sup>N-1</sup> and less than
+ * 2<sup>N</sup> microseconds. The last bucket also holds everything longer.
+ * <p>
+ *
+ * All methods are thread safe. The values are cumulative until
+ * {@link #reset()} is called.
+ */
+public class PickingStatistics
+{
+    /** The number of buckets in the latency histogram */
+    public static final int NUM_LATENCY_BUCKETS = 24;
+
+    /** Total number of requests processed */
+    private long numRequests;
+
+    /** Total number of calls made to the picking manager */
+    private long numCalls;
+
+    /** Total time spent in those calls, in nanoseconds */
+    private long totalTime;
+
+    /** Count of requests in each latency bucket */
+    private long[] latencyBuckets;
+
+    /**
+     * Create a new, empty set of statistics.
+     */
+    public PickingStatistics()
+    {
+        latencyBuckets = new long[NUM_LATENCY_BUCKETS];
+    }
+
+    //---------------------------------------------------------------
+    // Local methods
+    //---------------------------------------------------------------
+
+    /**
+     * Clear all of the collected values back to zero.
+     */
+    public synchronized void reset()
+    {
+        numRequests = 0;
+        numCalls = 0;
+        totalTime = 0;
+
+        for(int i = 0; i < NUM_LATENCY_BUCKETS; i++)
+            latencyBuckets[i] = 0;
+    }
+
+    /**
+     * Get the total number of pick requests processed.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized long getRequestCount()
+    {
+        return numRequests;
+    }
+
+    /**
+     * Get the number of calls made to the picking manager. A batch pick
+     * counts as a single call.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized long getCallCount()
+    {
+        return numCalls;
+    }
+
+    /**
+     * Get the total wall clock time spent processing picks.
+     *
+     * @return The time in nanoseconds
+     */
+    public synchronized long getTotalTime()
+    {
+        return totalTime;
+    }
+
+    /**
+     * Get the average number of requests processed per second of time spent
+     * in the picking manager.
+     *
+     * @return The rate, or zero if nothing has been picked yet
+     */
+    public synchronized double getRequestsPerSecond()
+    {
+        if(totalTime == 0)
+            return 0;
+
+        return numRequests * 1e9 / totalTime;
+    }
+
+    /**
+     * Copy the latency histogram into the given array.
+     *
+     * @param counts Array to copy the values to, at least
+     *    {@link #NUM_LATENCY_BUCKETS} long
+     */
+    public synchronized void getLatencyHistogram(long[] counts)
+    {
+        System.arraycopy(latencyBuckets, 0, counts, 0, NUM_LATENCY_BUCKETS);
+    }
+
+    /**
+     * Find the bucket that the given latency belongs to.
+     *
+     * @param nanos The latency in nanoseconds
+     * @return The bucket index
+     */
+    public static int getLatencyBucket(long nanos)
+    {
+        long micros = nanos / 1000;
+
+        if(micros <= 0)
+            return 0;
+
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+
+        return bucket < NUM_LATENCY_BUCKETS ? bucket : NUM_LATENCY_BUCKETS - 1;
+    }
+
+    /**
+     * Add the results of a single call to the picking manager.
+     *
+     * @param requests The number of requests processed in the call
+     * @param time The wall clock time of the call, in nanoseconds
+     * @param latencies Per-bucket request counts to add to the histogram, or
+     *    null if nothing to add
+     */
+    synchronized void addCall(int requests, long time, long[] latencies)
+    {
+        numCalls++;
+        numRequests += requests;
+        totalTime += time;
+
+        if(latencies != null)
+        {
+            for(int i = 0; i < NUM_LATENCY_BUCKETS; i++)
+                latencyBuckets[i] += latencies[i];
+        }
+    }
+}
@@ -272,6 +272,13 @@ public class SingleDisplayCollection extends DisplayCollection
             audioPipeline.halt();
     }
 
+    @Override
+    public void waitForDraw()
+    {
+        if(graphicsPipeline != null)
+            graphicsPipeline.waitForDraw();
+    }
+
     @Override
     public void setLayers(Layer[] layers, int numLayers)
         throws IllegalArgumentException, InvalidWriteTimingException
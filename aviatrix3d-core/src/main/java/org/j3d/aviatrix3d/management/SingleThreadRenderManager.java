@@ -415,6 +415,7 @@ public class SingleThreadRenderManager
 		}
 
         processDisplayChanges();
+        waitForDisplays();
         processChangeList();
         processShaderLists();
 
@@ -666,6 +667,9 @@ public class SingleThreadRenderManager
             }
             else
             {
+                // Pipelined displays may still be drawing the last frame
+                waitForDisplays();
+
                 if(!processChangeList() && haltOnError)
                 {
                     enabled = false;
@@ -717,6 +721,10 @@ public class SingleThreadRenderManager
             Thread.yield();
         }
 
+        // Writes are allowed anywhere once disabled, so nothing may still
+        // be drawing from the scene.
+        waitForDisplays();
+
         for(int i = 0; i < displays.size() && !terminate; i++)
         {
             DisplayCollection c = displays.get(i);
@@ -962,6 +970,19 @@ public class SingleThreadRenderManager
         }
     }
 
+    /**
+     * Wait for every display to finish drawing its last frame, so that the
+     * scene graph is free to be written to.
+     */
+    private void waitForDisplays()
+    {
+        for(int i = 0; i < displays.size(); i++)
+        {
+            DisplayCollection c = displays.get(i);
+            c.waitForDraw();
+        }
+    }
+
     /**
      * Process the changeList now. If the user code generated an exception
      * during this time and haltOnError is true, then exit immediately and
@@ -17,6 +17,8 @@ package org.j3d.aviatrix3d.output.audio;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.text.MessageFormat;
+import java.util.Locale;
 
 import com.jogamp.openal.*;
 import org.j3d.maths.vector.Matrix4d;
@@ -35,11 +37,22 @@ import org.j3d.aviatrix3d.pipeline.RenderableRequestData;
 import org.j3d.aviatrix3d.pipeline.RenderOp;
 import org.j3d.aviatrix3d.rendering.AudioRenderable;
 import org.j3d.aviatrix3d.rendering.ProfilingData;
+import org.j3d.aviatrix3d.rendering.VirtualAudioRenderable;
 
 /**
  * Implementation of the most basic audio device, supporting the minimal
  * number of features using OpenAL.
  * <p>
+ *
+ * By default every sound generates its own OpenAL source. As the hardware
+ * only has a limited number of voices, the device can instead be given a
+ * maximum voice count. A pool of that many sources is then created once and
+ * handed out each frame to the first audible {@link VirtualAudioRenderable}
+ * instances in the render list, which should be sorted loudest first, such
+ * as by {@link org.j3d.aviatrix3d.pipeline.audio.PriorityAudioCullStage}.
+ * Sounds that keep their place keep their source. The rest are virtual and
+ * only have their playback position updated.
+ * <p>
  * <b>Internationalisation Resource Names</b>
  * <ul>
  * <li>disposeFailedMsg: Error message when the disposal of an OpenAL context
@@ -48,6 +61,9 @@ import org.j3d.aviatrix3d.rendering.ProfilingData;
  *     rendering failed</li>
  * <li>initFailedMsg: Error message when the OpenAL context initialisation failed</li>
  * <li>nativeLibrariesMissingMsg: OpenAL failed to start due to missing native libraries</li>
+ * <li>invalidVoiceCountMsg: Error message when the maximum voice count is negative</li>
+ * <li>voicePoolFailedMsg: Error message when the pool of OpenAL sources could
+ *     not be created</li>
  * </ul>
  *
  * @author Alan Hudson
@@ -72,6 +88,14 @@ public class OpenALAudioDevice
     private static final String MISSING_NATIVE_LIBS_PROP =
         "org.j3d.aviatrix3d.output.audio.OpenALAudioDevice.nativeLibrariesMissingMsg";
 
+    /** Message when the voice count is negative */
+    private static final String INVALID_VOICES_PROP =
+        "org.j3d.aviatrix3d.output.audio.OpenALAudioDevice.invalidVoiceCountMsg";
+
+    /** Message when the source pool could not be generated */
+    private static final String VOICE_POOL_FAILURE_PROP =
+        "org.j3d.aviatrix3d.output.audio.OpenALAudioDevice.voicePoolFailedMsg";
+
     /** Default orientation that we set the listener to every frame */
     private static final FloatBuffer DEFAULT_ORIENTATION;
 
@@ -126,6 +150,24 @@ public class OpenALAudioDevice
     /** Provider for our OpenAL context and device interfaces to abstract away the factory */
     private OpenALProvider openalProvider;
 
+    /** Maximum number of sources to use. Zero if every sound has its own */
+    private final int maxVoices;
+
+    /** Number of sources in the pool. Zero until initialised */
+    private int numVoices;
+
+    /** The pooled source IDs */
+    private int[] voiceSources;
+
+    /** The renderable currently using each pooled source, or null */
+    private VirtualAudioRenderable[] voiceOwners;
+
+    /** The renderables wanting a source this frame, loudest first */
+    private VirtualAudioRenderable[] wantedVoices;
+
+    /** Time of the last draw in nanoseconds, or zero before the first */
+    private long lastDrawTime;
+
     /**
      * Static constructor for generating the default orientation.
      */
@@ -144,10 +186,42 @@ public class OpenALAudioDevice
     }
 
     /**
-     * Construct a surface that requires the given set of capabilities.
+     * Construct a device where every sound generates its own source.
      */
     public OpenALAudioDevice()
     {
+        this(0);
+    }
+
+    /**
+     * Construct a device that plays at most the given number of sounds at
+     * once through a fixed pool of sources. A value of zero gives every
+     * sound its own source.
+     *
+     * @param maxVoices The maximum number of sources to use, zero or more
+     * @throws IllegalArgumentException The voice count was negative
+     */
+    public OpenALAudioDevice(int maxVoices)
+    {
+        if(maxVoices < 0)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(INVALID_VOICES_PROP);
+
+            Object[] msg_args = { maxVoices };
+            MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.maxVoices = maxVoices;
+
+        voiceSources = new int[maxVoices];
+        voiceOwners = new VirtualAudioRenderable[maxVoices];
+        wantedVoices = new VirtualAudioRenderable[maxVoices];
+
         matrixUtils = new MatrixUtils();
         tmpMatrix = new Matrix4d();
         tmpPoint = new Point3d();
@@ -216,6 +290,10 @@ public class OpenALAudioDevice
                 al.alGetError();
 
                 al.alDistanceModel(AL.AL_INVERSE_DISTANCE_CLAMPED);
+
+                if(maxVoices != 0)
+                    createVoicePool();
+
                 alc.alcMakeContextCurrent(null);
 
                 initComplete = true;
@@ -267,13 +345,26 @@ public class OpenALAudioDevice
                 al.alListener3f(AL.AL_POSITION, (float)tmpPoint.x, (float)tmpPoint.y, (float)tmpPoint.z);
                 al.alListenerfv(AL.AL_ORIENTATION, DEFAULT_ORIENTATION);
 
+                long now = System.nanoTime();
+                float delta_time = lastDrawTime == 0 ? 0 : (now - lastDrawTime) / 1e9f;
+                lastDrawTime = now;
+
+                if(maxVoices != 0)
+                    assignVoices(localCommands, len);
+
                 for(int i = 0; i < len && !terminate; i++)
                 {
                     switch(localCommands.renderOps[i])
                     {
                         case START_RENDER:
                             obj = (AudioRenderable)details[i].renderable;
-                            obj.render(al, details[i].transform);
+
+                            if(maxVoices != 0 &&
+                               obj instanceof VirtualAudioRenderable &&
+                               !hasVoice((VirtualAudioRenderable)obj))
+                                ((VirtualAudioRenderable)obj).updateVirtual(delta_time);
+                            else
+                                obj.render(al, details[i].transform);
                             break;
 
                         case STOP_RENDER:
@@ -321,6 +412,21 @@ public class OpenALAudioDevice
                 ALC alc = openalProvider.getALC();
                 alc.alcMakeContextCurrent(context);
 
+                if(numVoices != 0)
+                {
+                    for(int i = 0; i < numVoices; i++)
+                    {
+                        if(voiceOwners[i] != null)
+                        {
+                            voiceOwners[i].releaseSource(al);
+                            voiceOwners[i] = null;
+                        }
+                    }
+
+                    al.alDeleteSources(numVoices, voiceSources, 0);
+                    numVoices = 0;
+                }
+
                 // TODO: Assume id's are issued sequentially.  Really need
                 // a better way todo this.  OpenGL cleans this up for us, make joal do it?
                 int[] buffer = new int[lastId + 1];
@@ -366,4 +472,144 @@ public class OpenALAudioDevice
     {
         openalProvider = provider != null ? provider : new DefaultOpenALProvider();
     }
+
+    /**
+     * Get the maximum number of sounds that can play at once. Zero means
+     * that every sound has its own source.
+     *
+     * @return The maximum voice count
+     */
+    public int getMaxVoices()
+    {
+        return maxVoices;
+    }
+
+    /**
+     * Get the number of pooled sources that are currently bound to a sound.
+     *
+     * @return A value between zero and the maximum voice count
+     */
+    public int getNumActiveVoices()
+    {
+        int ret_val = 0;
+
+        for(int i = 0; i < numVoices; i++)
+        {
+            if(voiceOwners[i] != null)
+                ret_val++;
+        }
+
+        return ret_val;
+    }
+
+    /**
+     * Generate the pool of sources. Assumes the context is current. If the
+     * sources cannot be created, all sounds are left virtual.
+     */
+    private void createVoicePool()
+    {
+        al.alGenSources(maxVoices, voiceSources, 0);
+
+        int error = al.alGetError();
+
+        if(error != AL.AL_NO_ERROR)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(VOICE_POOL_FAILURE_PROP);
+
+            Object[] msg_args = { maxVoices, error };
+            MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            errorReporter.errorReport(msg, null);
+            numVoices = 0;
+        }
+        else
+        {
+            numVoices = maxVoices;
+        }
+    }
+
+    /**
+     * Work out which renderables get a pooled source this frame. The first
+     * audible virtual renderables in the list win. Those that already have
+     * a source keep it, those that dropped out give theirs up, and the
+     * freed sources are bound to the new arrivals.
+     *
+     * @param instructions The instructions for this frame
+     * @param len The number of valid instructions
+     */
+    private void assignVoices(AudioInstructions instructions, int len)
+    {
+        AudioDetails[] details = instructions.renderList;
+        int num_wanted = 0;
+
+        for(int i = 0; i < len && num_wanted < numVoices; i++)
+        {
+            if(instructions.renderOps[i] != RenderOp.START_RENDER ||
+               !(details[i].renderable instanceof VirtualAudioRenderable) ||
+               details[i].gain <= 0)
+                continue;
+
+            wantedVoices[num_wanted] =
+                (VirtualAudioRenderable)details[i].renderable;
+            num_wanted++;
+        }
+
+        // Release the sources of any renderable that dropped out
+        for(int i = 0; i < numVoices; i++)
+        {
+            VirtualAudioRenderable owner = voiceOwners[i];
+
+            if(owner == null)
+                continue;
+
+            boolean keep = false;
+
+            for(int j = 0; j < num_wanted && !keep; j++)
+                keep = wantedVoices[j] == owner;
+
+            if(!keep)
+            {
+                owner.releaseSource(al);
+                voiceOwners[i] = null;
+            }
+        }
+
+        // Bind the freed sources to the new arrivals
+        int free_voice = 0;
+
+        for(int i = 0; i < num_wanted; i++)
+        {
+            VirtualAudioRenderable ar = wantedVoices[i];
+            wantedVoices[i] = null;
+
+            if(hasVoice(ar))
+                continue;
+
+            while(voiceOwners[free_voice] != null)
+                free_voice++;
+
+            voiceOwners[free_voice] = ar;
+            ar.bindSource(voiceSources[free_voice]);
+        }
+    }
+
+    /**
+     * Check to see if the given renderable currently has a pooled source.
+     *
+     * @param ar The renderable to look for
+     * @return true if it owns one of the sources
+     */
+    private boolean hasVoice(VirtualAudioRenderable ar)
+    {
+        for(int i = 0; i < numVoices; i++)
+        {
+            if(voiceOwners[i] == ar)
+                return true;
+        }
+
+        return false;
+    }
 }
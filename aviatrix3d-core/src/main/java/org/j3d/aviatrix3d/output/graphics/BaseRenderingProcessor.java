@@ -13,6 +13,9 @@
 package org.j3d.aviatrix3d.output.graphics;
 
 // External imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.text.Format;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
@@ -236,6 +239,21 @@ public abstract class BaseRenderingProcessor
      */
     protected ArrayList<OffscreenBufferRenderable> removedBuffers;
 
+    /** Shadow copy of the GL state used to skip redundant state changes */
+    protected GLStateCache stateCache;
+
+    /** True if the state cache should be used while drawing */
+    protected boolean useStateCache;
+
+    /** Checked state of hardware instancing support. Null until checked */
+    private Boolean instancingAvailable;
+
+    /** VBO ID that the per-instance transforms are streamed through */
+    private int[] instanceBufferId;
+
+    /** Staging buffer for the per-instance transforms */
+    private FloatBuffer instanceBuffer;
+
     /**
      * Construct handler for rendering objects to the main screen.
      *
@@ -276,6 +294,9 @@ public abstract class BaseRenderingProcessor
         childBuffers = new HashMap<>();
         removedBuffers = new ArrayList<>();
         errorReporter = DefaultErrorReporter.getDefaultReporter();
+
+        stateCache = new GLStateCache();
+        useStateCache = true;
     }
 
     //---------------------------------------------------------------
@@ -761,6 +782,133 @@ public abstract class BaseRenderingProcessor
     // Local Methods
     //---------------------------------------------------------------
 
+    /**
+     * Enable or disable the use of the GL state cache while drawing. When
+     * enabled, calls that would set a piece of tracked state to the value it
+     * already has are skipped. The number of calls submitted and skipped are
+     * reported in the profiling data each frame. Enabled by default.
+     *
+     * @param enable true to use the state cache
+     */
+    public void setStateCacheEnabled(boolean enable)
+    {
+        useStateCache = enable;
+    }
+
+    /**
+     * Check to see whether the GL state cache is used while drawing.
+     *
+     * @return true if the state cache is enabled
+     */
+    public boolean isStateCacheEnabled()
+    {
+        return useStateCache;
+    }
+
+    /**
+     * Draw all the instances of a {@link RenderOp#RENDER_GEOMETRY_INSTANCED}
+     * instruction. The transforms are streamed into a VBO, through the
+     * attribute that the sort stage recorded with the instruction, and the
+     * geometry issues a single instanced draw. If the context does not
+     * support hardware instancing, each instance is drawn in turn with its
+     * own transform instead.
+     *
+     * @param gl The GL context to draw with
+     * @param details The instruction details holding the instances
+     */
+    protected void renderInstances(GL2 gl, GraphicsDetails details)
+    {
+        InstancedGeometryRenderable geom =
+            (InstancedGeometryRenderable)details.renderable;
+        int num_instances = details.numInstances;
+        double[] transforms = details.instanceTransforms;
+        int base_attrib = details.instanceTransformAttrib;
+
+        if(!isInstancingAvailable(gl))
+        {
+            for(int i = 0; i < num_instances; i++)
+            {
+                gl.glPushMatrix();
+                gl.glMultMatrixd(transforms, i * 16);
+                geom.render(gl);
+                gl.glPopMatrix();
+            }
+
+            return;
+        }
+
+        int size = num_instances * 16;
+
+        if(instanceBuffer == null || instanceBuffer.capacity() < size)
+        {
+            ByteBuffer buf = ByteBuffer.allocateDirect(size * 4);
+            buf.order(ByteOrder.nativeOrder());
+            instanceBuffer = buf.asFloatBuffer();
+        }
+
+        // The attribute is a single precision mat4, so the transforms are
+        // only narrowed to float here, as they are sent to the GL.
+        instanceBuffer.clear();
+
+        for(int i = 0; i < size; i++)
+            instanceBuffer.put((float)transforms[i]);
+
+        instanceBuffer.flip();
+
+        if(instanceBufferId == null)
+        {
+            instanceBufferId = new int[1];
+            gl.glGenBuffers(1, instanceBufferId, 0);
+        }
+
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBufferId[0]);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER,
+                        size * 4,
+                        instanceBuffer,
+                        GL2.GL_STREAM_DRAW);
+
+        for(int i = 0; i < 4; i++)
+        {
+            int attrib = base_attrib + i;
+
+            gl.glEnableVertexAttribArray(attrib);
+            gl.glVertexAttribPointer(attrib, 4, GL.GL_FLOAT, false, 64, i * 16);
+            gl.glVertexAttribDivisor(attrib, 1);
+        }
+
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+        geom.renderInstanced(gl, num_instances);
+
+        for(int i = 0; i < 4; i++)
+        {
+            int attrib = base_attrib + i;
+
+            gl.glVertexAttribDivisor(attrib, 0);
+            gl.glDisableVertexAttribArray(attrib);
+        }
+    }
+
+    /**
+     * Check whether the context supports the calls needed for hardware
+     * instancing. The answer is cached until the context is reinitialised.
+     *
+     * @param gl The GL context to check
+     * @return true if instanced drawing is available
+     */
+    private boolean isInstancingAvailable(GL2 gl)
+    {
+        if(instancingAvailable == null)
+        {
+            instancingAvailable =
+                gl.isFunctionAvailable("glDrawElementsInstanced") &&
+                gl.isFunctionAvailable("glDrawArraysInstanced") &&
+                gl.isFunctionAvailable("glVertexAttribDivisor");
+        }
+
+        return instancingAvailable.booleanValue();
+    }
+
     /**
      * Called for each rendering loop. The derived class should now
      * perform the rendering that they need to do for the given type of
@@ -784,6 +932,10 @@ public abstract class BaseRenderingProcessor
         GL base_gl = localContext.getGL();
         GL2 gl = base_gl.getGL2();
 
+        // New context, so the instancing resources need to be found again
+        instancingAvailable = null;
+        instanceBufferId = null;
+
         gl.glClearColor(clearColor[0],
                         clearColor[1],
                         clearColor[2],
@@ -1037,8 +1189,11 @@ public abstract class BaseRenderingProcessor
      */
     private void processChildBuffers(GLContext localContext)
     {
-        for(OffscreenBufferRenderable rend : removedBuffers)
+        // Indexed loops as this runs every frame and the lists are usually
+        // empty, so avoid creating an iterator each time.
+        for(int i = 0; i < removedBuffers.size(); i++)
         {
+            OffscreenBufferRenderable rend = removedBuffers.get(i);
             BaseBufferDescriptor desc = childBuffers.remove(rend);
             rend.unregisterBuffer(localContext);
             desc.delete(localContext);
@@ -1057,8 +1212,9 @@ public abstract class BaseRenderingProcessor
             registerBuffer(localContext, desc, rend);
         }
 
-        for(OffscreenBufferRenderable rend : updatedBuffers)
+        for(int i = 0; i < updatedBuffers.size(); i++)
         {
+            OffscreenBufferRenderable rend = updatedBuffers.get(i);
             BaseBufferDescriptor desc = childBuffers.get(rend);
 
             desc.resize(localContext);
@@ -1083,6 +1239,14 @@ public abstract class BaseRenderingProcessor
         if(contextNotDestroyed)
         {
             contextNotDestroyed = false;
+
+            if(instanceBufferId != null)
+            {
+                GL2 gl = localContext.getGL().getGL2();
+                gl.glDeleteBuffers(1, instanceBufferId, 0);
+                instanceBufferId = null;
+            }
+
             ownerRenderable.disable(localContext);
             ownerRenderable.delete(localContext);
         }
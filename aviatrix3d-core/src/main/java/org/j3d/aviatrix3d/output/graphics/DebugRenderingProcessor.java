@@ -455,7 +455,7 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
                     }
 
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     obj = (ObjectRenderable) renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -486,10 +486,10 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
                                                         Integer.toHexString(s.hashCode()));
                     }
 
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float) renderableList[i].transform[0],
-                                   (float) renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float) renderableList[i].getTransformValue(0),
+                                   (float) renderableList[i].getTransformValue(5));
                     obj = (ObjectRenderable) renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -520,11 +520,26 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     ((GeometryRenderable) renderableList[i].renderable).render(gl);
                     gl.glPopMatrix();
                     break;
 
+                case RENDER_GEOMETRY_INSTANCED:
+                    if (dumpNow || PRINT_STATES)
+                    {
+                        Renderable s = renderableList[i].renderable;
+                        errorReporter.messageReport("Render instanced geometry " +
+                                                    s.getClass() +
+                                                    " 0x" +
+                                                    Integer.toHexString(s.hashCode()) +
+                                                    " x" +
+                                                    renderableList[i].numInstances);
+                    }
+
+                    renderInstances(gl, renderableList[i]);
+                    break;
+
                 case RENDER_GEOMETRY_2D:
                     if (dumpNow || PRINT_STATES)
                     {
@@ -536,10 +551,10 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
                     }
 
                     // load the matrix to render
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float) renderableList[i].transform[0],
-                                   (float) renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float) renderableList[i].getTransformValue(0),
+                                   (float) renderableList[i].getTransformValue(5));
                     ((GeometryRenderable) renderableList[i].renderable).render(gl);
                     break;
 
@@ -555,7 +570,7 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     CustomGeometryRenderable gr =
                         (CustomGeometryRenderable) renderableList[i].renderable;
                     gr.render(gl, renderableList[i].instructions);
@@ -574,7 +589,7 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     CustomRenderable cr =
                         (CustomRenderable) renderableList[i].renderable;
@@ -634,7 +649,7 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     comp = (ComponentRenderable) renderableList[i].renderable;
                     comp.render(gl, l_id);
                     gl.glPopMatrix();
@@ -683,7 +698,7 @@ public class DebugRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     comp = (ComponentRenderable) renderableList[i].renderable;
                     comp.render(gl, c_id);
@@ -508,7 +508,7 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
                     }
 
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     obj = (ObjectRenderable)renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -539,10 +539,10 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
                                             Integer.toHexString(s.hashCode()));
                     }
 
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float)renderableList[i].transform[0],
-                                   (float)renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float)renderableList[i].getTransformValue(0),
+                                   (float)renderableList[i].getTransformValue(5));
                     obj = (ObjectRenderable)renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -573,11 +573,26 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     ((GeometryRenderable)renderableList[i].renderable).render(gl);
                     gl.glPopMatrix();
                     break;
 
+                case RENDER_GEOMETRY_INSTANCED:
+                    if(dumpNow || PRINT_STATES)
+                    {
+                        Renderable s = renderableList[i].renderable;
+                        errorReporter.messageReport("Render instanced geometry " +
+                                                    s.getClass() +
+                                                    " 0x" +
+                                                    Integer.toHexString(s.hashCode()) +
+                                                    " x" +
+                                                    renderableList[i].numInstances);
+                    }
+
+                    renderInstances(gl, renderableList[i]);
+                    break;
+
                 case RENDER_GEOMETRY_2D:
                     if(dumpNow || PRINT_STATES)
                     {
@@ -589,10 +604,10 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
                     }
 
                     // load the matrix to render
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float)renderableList[i].transform[0],
-                                   (float)renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float)renderableList[i].getTransformValue(0),
+                                   (float)renderableList[i].getTransformValue(5));
                     ((GeometryRenderable)renderableList[i].renderable).render(gl);
                     break;
 
@@ -608,7 +623,7 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     CustomGeometryRenderable gr =
                         (CustomGeometryRenderable)renderableList[i].renderable;
                     gr.render(gl, renderableList[i].instructions);
@@ -627,7 +642,7 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     CustomRenderable cr =
                         (CustomRenderable)renderableList[i].renderable;
@@ -683,7 +698,7 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     comp = (ComponentRenderable)renderableList[i].renderable;
                     comp.render(gl, l_id);
                     gl.glPopMatrix();
@@ -729,7 +744,7 @@ public class DebugSingleEyeStereoProcessor extends SingleEyeStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     comp = (ComponentRenderable)renderableList[i].renderable;
                     comp.render(gl, c_id);
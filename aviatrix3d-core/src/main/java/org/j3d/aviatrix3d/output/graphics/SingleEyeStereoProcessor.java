@@ -297,7 +297,7 @@ public class SingleEyeStereoProcessor extends BaseStereoProcessor
                 case START_RENDER:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     obj = (ObjectRenderable)renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -311,17 +311,21 @@ public class SingleEyeStereoProcessor extends BaseStereoProcessor
                 case RENDER_GEOMETRY:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     ((GeometryRenderable)renderableList[i].renderable).render(gl);
                     gl.glPopMatrix();
                     break;
 
+                case RENDER_GEOMETRY_INSTANCED:
+                    renderInstances(gl, renderableList[i]);
+                    break;
+
                 case RENDER_GEOMETRY_2D:
                     // load the matrix to render
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float)renderableList[i].transform[0],
-                                   (float)renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float)renderableList[i].getTransformValue(0),
+                                   (float)renderableList[i].getTransformValue(5));
                     ((GeometryRenderable)renderableList[i].renderable).render(gl);
                     gl.glPopMatrix();
                     break;
@@ -329,7 +333,7 @@ public class SingleEyeStereoProcessor extends BaseStereoProcessor
                 case RENDER_CUSTOM_GEOMETRY:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     CustomGeometryRenderable gr =
                         (CustomGeometryRenderable)renderableList[i].renderable;
                     gr.render(gl, renderableList[i].instructions);
@@ -339,7 +343,7 @@ public class SingleEyeStereoProcessor extends BaseStereoProcessor
                 case RENDER_CUSTOM:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     CustomRenderable cr =
                         (CustomRenderable)renderableList[i].renderable;
@@ -368,7 +372,7 @@ public class SingleEyeStereoProcessor extends BaseStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     comp = (ComponentRenderable)renderableList[i].renderable;
                     comp.render(gl, l_id);
                     gl.glPopMatrix();
@@ -396,7 +400,7 @@ public class SingleEyeStereoProcessor extends BaseStereoProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     comp = (ComponentRenderable)renderableList[i].renderable;
                     comp.render(gl, c_id);
@@ -102,6 +102,47 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
             return;
         }
 
+        profilingData.numRenderables = numRenderables;
+
+        stateCache.reset();
+
+        if(useStateCache)
+            stateCache.activate();
+
+        try
+        {
+            drawRenderables(localContext, gl, profilingData);
+        }
+        finally
+        {
+            if(useStateCache)
+                stateCache.deactivate();
+
+            profilingData.numStateChangesSubmitted = stateCache.getSubmittedCount();
+            profilingData.numStateChangesElided = stateCache.getElidedCount();
+        }
+
+        if(terminate)
+            return;
+
+        gl.glFlush();
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Walk the render list and issue the GL calls for each renderable.
+     *
+     * @param localContext The context that is being drawn to
+     * @param gl The GL2 instance of that context
+     * @param profilingData The timing information for this frame
+     */
+    private void drawRenderables(GLContext localContext,
+                                 GL2 gl,
+                                 GraphicsProfilingData profilingData)
+    {
         float alpha_test = alphaCutoff;
         boolean two_pass_transparent = useTwoPassTransparent;
         boolean first_pass_alpha = true;
@@ -122,7 +163,6 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
         long startTime;
 
         startTime = System.nanoTime();
-        profilingData.numRenderables = numRenderables;
 
         for(int i = 0; i < numRenderables && !terminate; i++)
         {
@@ -174,16 +214,19 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                     data_index++;
 
                     preMPPassEnvironmentDraw(gl, data);
+                    stateCache.invalidate();
                     break;
 
                 case STOP_MULTIPASS_PASS:
                     data = environmentList[mp_data_index];
                     postMPPassEnvironmentDraw(gl, data);
+                    stateCache.invalidate();
                     break;
 
 
                 case SET_VIEWPORT_STATE:
                     ((ViewportRenderable)renderableList[i].renderable).render(gl);
+                    stateCache.invalidate();
                     break;
 
                 case STOP_VIEWPORT_STATE:
@@ -194,6 +237,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                 case START_BUFFER_STATE:
                     buffer = (BufferStateRenderable)renderableList[i].renderable;
                     buffer.setBufferState(gl);
+                    stateCache.invalidate();
 
                     if(buffer.checkClearBufferState())
                         clear_buffer_bits |= buffer.getBufferBitMask();
@@ -211,6 +255,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                 case CHANGE_BUFFER_STATE:
                     buffer = (BufferStateRenderable)renderableList[i].renderable;
                     buffer.updateBufferState(gl);
+                    stateCache.invalidate();
 
                     if(buffer.checkClearBufferState())
                         clear_buffer_bits |= buffer.getBufferBitMask();
@@ -221,6 +266,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                 case STOP_BUFFER_STATE:
                     buffer = (BufferStateRenderable)renderableList[i].renderable;
                     buffer.clearBufferState(gl);
+                    stateCache.invalidate();
                     clear_buffer_bits &= ~buffer.getBufferBitMask();
                     break;
 
@@ -240,6 +286,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                     current_fog = data.fog;
 
                     preLayerEnvironmentDraw(gl, data);
+                    stateCache.invalidate();
                     break;
 
                 case STOP_LAYER:
@@ -248,6 +295,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                     // TODO: Not sure this is right, but this is when postDraw gets called
                     profilingData.sceneDrawTime = System.nanoTime() - startTime;
                     postLayerEnvironmentDraw(gl, data, profilingData);
+                    stateCache.invalidate();
                     fog_active = false;
                     first_layer = false;
                     break;
@@ -266,7 +314,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                 case START_RENDER:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     obj = (ObjectRenderable)renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -278,10 +326,10 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                     break;
 
                 case START_RENDER_2D:
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float)renderableList[i].transform[0],
-                                   (float)renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float)renderableList[i].getTransformValue(0),
+                                   (float)renderableList[i].getTransformValue(5));
                     obj = (ObjectRenderable)renderableList[i].renderable;
                     obj.render(gl);
                     break;
@@ -294,17 +342,21 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                 case RENDER_GEOMETRY:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     ((GeometryRenderable)renderableList[i].renderable).render(gl);
                     gl.glPopMatrix();
                     break;
 
+                case RENDER_GEOMETRY_INSTANCED:
+                    renderInstances(gl, renderableList[i]);
+                    break;
+
                 case RENDER_GEOMETRY_2D:
                     // load the matrix to render
-                    gl.glRasterPos2d(renderableList[i].transform[3],
-                                     renderableList[i].transform[7]);
-                    gl.glPixelZoom((float)renderableList[i].transform[0],
-                                   (float)renderableList[i].transform[5]);
+                    gl.glRasterPos2d(renderableList[i].getTransformValue(3),
+                                     renderableList[i].getTransformValue(7));
+                    gl.glPixelZoom((float)renderableList[i].getTransformValue(0),
+                                   (float)renderableList[i].getTransformValue(5));
                     ((GeometryRenderable)renderableList[i].renderable).render(gl);
                     gl.glPopMatrix();
                     break;
@@ -312,22 +364,24 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                 case RENDER_CUSTOM_GEOMETRY:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     CustomGeometryRenderable gr =
                         (CustomGeometryRenderable)renderableList[i].renderable;
                     gr.render(gl, renderableList[i].instructions);
                     gl.glPopMatrix();
+                    stateCache.invalidate();
                     break;
 
                 case RENDER_CUSTOM:
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     CustomRenderable cr =
                         (CustomRenderable)renderableList[i].renderable;
                     cr.render(gl, renderableList[i].instructions);
                     gl.glPopMatrix();
+                    stateCache.invalidate();
                     break;
 
                 case START_STATE:
@@ -355,7 +409,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
                     comp = (ComponentRenderable)renderableList[i].renderable;
                     comp.render(gl, l_id);
                     gl.glPopMatrix();
@@ -386,7 +440,7 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
 
                     // load the matrix to render
                     gl.glPushMatrix();
-                    gl.glMultMatrixd(renderableList[i].transform, 0);
+                    gl.glMultMatrixd(renderableList[i].transform, renderableList[i].transformOffset);
 
                     comp = (ComponentRenderable)renderableList[i].renderable;
                     comp.render(gl, c_id);
@@ -414,10 +468,11 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                     }
                     else
                     {
-                        gl.glDepthMask(false);
-                        gl.glEnable(GL.GL_BLEND);
-                        gl.glBlendFunc(GL.GL_SRC_ALPHA,
-                                       GL.GL_ONE_MINUS_SRC_ALPHA);
+                        GLStateCache.glDepthMask(gl, false);
+                        GLStateCache.glEnable(gl, GL.GL_BLEND);
+                        GLStateCache.glBlendFunc(gl,
+                                                 GL.GL_SRC_ALPHA,
+                                                 GL.GL_ONE_MINUS_SRC_ALPHA);
                     }
 
                     break;
@@ -436,8 +491,8 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                     }
                     else
                     {
-                        gl.glDisable(GL.GL_BLEND);
-                        gl.glDepthMask(true);
+                        GLStateCache.glDisable(gl, GL.GL_BLEND);
+                        GLStateCache.glDepthMask(gl, true);
                     }
                     break;
 
@@ -512,6 +567,8 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                         // offscreen search disabled.
                         if(desc != null)
                             desc.bindBuffer(localContext);
+
+                        stateCache.invalidateTextures();
                     }
 
                     texcomp.render(gl, id);
@@ -532,16 +589,13 @@ public class StandardRenderingProcessor extends BaseRenderingProcessor
                         // offscreen search disabled.
                         if(desc != null)
                             desc.unbindBuffer(localContext);
+
+                        stateCache.invalidateTextures();
                     }
                     texcomp.deactivateTexture(gl, id);
 
                     break;
             }
         }
-
-        if(terminate)
-            return;
-
-        gl.glFlush();
     }
 }
@@ -52,6 +52,15 @@ public enum RenderOp
      */
     RENDER_GEOMETRY_2D,
 
+    /**
+     * Render several copies of a geometry item with a single instanced draw.
+     * The renderable is an InstancedGeometryRenderable and the details
+     * provide the per-instance transforms rather than a single transform.
+     * Since this is a terminal for the OpenGL pipeline state, no postRender
+     * call will be made.
+     */
+    RENDER_GEOMETRY_INSTANCED,
+
     /**
      * Render a custom geometry item. This is an alternate terminal for the OpenGL
      * pipeline state for geometry types that may have done their own internal
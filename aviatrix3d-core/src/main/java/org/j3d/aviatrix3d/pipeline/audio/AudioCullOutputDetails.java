@@ -28,11 +28,18 @@ import org.j3d.aviatrix3d.pipeline.CullOutputDetails;
  */
 public class AudioCullOutputDetails extends CullOutputDetails
 {
+    /**
+     * The gain the renderable is heard at by the listener. Cull stages that
+     * do not calculate it leave it at 1.
+     */
+    public float gain;
+
     /**
      * Construct a default instance with just the transform initialised to the
      * zero matrix.
      */
     public AudioCullOutputDetails()
     {
+        gain = 1;
     }
 }
@@ -30,11 +30,15 @@ public class AudioDetails extends RenderDetails
     /** The transform from the root of the scene graph to here */
     public Matrix4d transform;
 
+    /** The gain the renderable is heard at, as calculated by the cull stage */
+    public float gain;
+
     /**
      * Construct a default instance with just the transform initialised
      */
     public AudioDetails()
     {
         transform = new Matrix4d();
+        gain = 1;
     }
 }
@@ -161,6 +161,7 @@ public class NullAudioSortStage implements AudioSortStage
             // state/depth/transparency sorting in this section.
 
             instr.renderList[idx].renderable = nodes[i].renderable;
+            instr.renderList[idx].gain = nodes[i].gain;
 
             if(ar.isSpatialised())
             {
@@ -0,0 +1,134 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.audio;
+
+// External imports
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.j3d.maths.vector.Point3d;
+
+// Local imports
+import org.j3d.aviatrix3d.pipeline.RenderableRequestData;
+import org.j3d.aviatrix3d.rendering.VirtualAudioRenderable;
+
+/**
+ * Cull stage that ranks the sounds by how loud they are heard at the
+ * listener, so that an output device with a limited number of voices can
+ * give them to the loudest sounds.
+ * <p>
+ *
+ * The scene is walked in the same way as {@link NullAudioCullStage}. The
+ * gain of each {@link VirtualAudioRenderable} is then calculated from the
+ * viewpoint position, taking into account the distance model, cone and
+ * intensity, and the output list is sorted from loudest to quietest. Sounds
+ * with no audible gain are still passed on, so that the device can track
+ * their playback position. Any other renderables are given a gain of 1.
+ */
+public class PriorityAudioCullStage extends NullAudioCullStage
+    implements CulledAudioReceiver
+{
+    /** Sorts the cull output from the highest to the lowest gain */
+    private static final Comparator<AudioCullOutputDetails> GAIN_COMPARATOR =
+        new Comparator<AudioCullOutputDetails>()
+        {
+            @Override
+            public int compare(AudioCullOutputDetails a,
+                               AudioCullOutputDetails b)
+            {
+                return Float.compare(b.gain, a.gain);
+            }
+        };
+
+    /** The origin of the viewpoint's coordinate system */
+    private static final Point3d ORIGIN = new Point3d();
+
+    /** Handler for the output */
+    private CulledAudioReceiver receiver;
+
+    /** Position of the listener in world coordinates */
+    private Point3d listenerPoint;
+
+    /**
+     * Create a new instance of the cull stage.
+     */
+    public PriorityAudioCullStage()
+    {
+        listenerPoint = new Point3d();
+
+        super.setCulledAudioReceiver(this);
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by AudioCullStage
+    //---------------------------------------------------------------
+
+    /**
+     * Register a reciever for the output of the sorter. If the value is null,
+     * it will clear the currently set receiver.
+     *
+     * @param sgr The receiver instance to add or null
+     */
+    @Override
+    public void setCulledAudioReceiver(CulledAudioReceiver sgr)
+    {
+        receiver = sgr;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by CulledAudioReceiver
+    //---------------------------------------------------------------
+
+    /**
+     * Rank the culled nodes by their gain at the listener and pass them on
+     * to the receiver.
+     *
+     * @param otherData data to be passed along unprocessed
+     * @param data The environment data to go with the culled nodes
+     * @param nodes The list of nodes that were culled
+     * @param numNodes The number of valid nodes in the list
+     */
+    @Override
+    public void culledOutput(RenderableRequestData otherData,
+                             AudioEnvironmentData data,
+                             AudioCullOutputDetails[] nodes,
+                             int numNodes)
+    {
+        if(receiver == null)
+            return;
+
+        data.viewTransform.transform(ORIGIN, listenerPoint);
+
+        for(int i = 0; i < numNodes; i++)
+        {
+            if(nodes[i].renderable instanceof VirtualAudioRenderable)
+            {
+                VirtualAudioRenderable ar =
+                    (VirtualAudioRenderable)nodes[i].renderable;
+
+                nodes[i].gain = ar.getAudibleGain(nodes[i].transform,
+                                                  listenerPoint);
+            }
+            else
+            {
+                nodes[i].gain = 1;
+            }
+        }
+
+        Arrays.sort(nodes, 0, numNodes, GAIN_COMPARATOR);
+
+        receiver.culledOutput(otherData, data, nodes, numNodes);
+    }
+}
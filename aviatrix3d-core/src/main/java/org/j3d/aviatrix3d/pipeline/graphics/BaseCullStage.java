@@ -153,6 +153,12 @@ public abstract class BaseCullStage implements GraphicsCullStage
     /** Index to the next place to add items in the fogStack */
     protected int lastAppearanceStack;
 
+    /** Recycled proxies for shapes under an appearance override */
+    protected OverrideProxyPool proxyPool;
+
+    /** Number of times cull() has been called, used to age pooled proxies */
+    protected int cullFrame;
+
     /** Collection of offscreen textures we've found this frame */
     protected HashSet processedPBufferTextures;
 
@@ -204,6 +210,9 @@ public abstract class BaseCullStage implements GraphicsCullStage
     /** Local reporter to put errors in */
     protected ErrorReporter errorReporter;
 
+    /** Assigns the global lights to the renderables found */
+    LightCuller lightCuller;
+
     /**
      * Create a basic instance of this class with the list initial internal
      * setup for the given number of renderable surfaces. The size is just an
@@ -270,6 +279,8 @@ public abstract class BaseCullStage implements GraphicsCullStage
         checkOffscreens = true;
 
         matrixUtils = new MatrixUtils();
+        proxyPool = new OverrideProxyPool();
+        lightCuller = new LightCuller();
     }
 
     //---------------------------------------------------------------
@@ -295,6 +306,9 @@ public abstract class BaseCullStage implements GraphicsCullStage
 
         terminate = false;
 
+        cullFrame++;
+        proxyPool.startFrame(cullFrame);
+
         if(workLayers[0].length < numLayers)
         {
             workLayers = new ViewportCollection[1][numLayers];
@@ -477,6 +491,30 @@ public abstract class BaseCullStage implements GraphicsCullStage
         return checkOffscreens;
     }
 
+    /**
+     * Set the maximum number of lights that a single renderable may be lit
+     * by. When more lights reach an object than this, only the brightest
+     * after attenuation over the distance to the object are kept. By
+     * default this is 8, the minimum number of lights OpenGL supports.
+     *
+     * @param max The maximum number of lights, or zero for no limit
+     */
+    public void setMaxLightsPerObject(int max)
+    {
+        lightCuller.setMaxLights(max);
+    }
+
+    /**
+     * Get the maximum number of lights that a single renderable may be lit
+     * by.
+     *
+     * @return The maximum number of lights, or zero for no limit
+     */
+    public int getMaxLightsPerObject()
+    {
+        return lightCuller.getMaxLights();
+    }
+
     /**
      * Set the eyepoint offset from the centre position. This is used to model
      * offset view frustums, such as multiple displays or a powerwall. This
@@ -1549,14 +1587,16 @@ public abstract class BaseCullStage implements GraphicsCullStage
 
     /**
      * Resize the list if needed. Marked as final in order to encourage the
-     * compiler to inline the code for faster execution
+     * compiler to inline the code for faster execution. The list at least
+     * doubles each time so that a large scene settles after a few frames
+     * rather than growing a batch at a time.
      */
     protected final void resizeCullList(int cur_size)
     {
         if((cur_size + 1) == workCullList.length)
         {
             int old_size = workCullList.length;
-            int new_size = old_size + LIST_INCREMENT;
+            int new_size = old_size + Math.max(old_size, LIST_INCREMENT);
 
             GraphicsCullOutputDetails[] tmp_nodes =
                 new GraphicsCullOutputDetails[new_size];
@@ -449,18 +449,7 @@ public abstract class BaseSortStage implements GraphicsSortStage
         // that we don't need at the start of the frame.
         if(instr.renderList.length < instr_count)
         {
-            GraphicsDetails[] tmp = new GraphicsDetails[instr_count];
-
-            System.arraycopy(instr.renderList,
-                             0,
-                             tmp,
-                             0,
-                             instr.renderList.length);
-
-            for(int i = instr.renderList.length; i < instr_count; i++)
-                tmp[i] = new GraphicsDetails();
-
-            instr.renderList = tmp;
+            instr.ensureRenderListCapacity(instr_count);
             instr.renderOps = new RenderOp[instr_count];
         }
 
@@ -500,16 +489,11 @@ public abstract class BaseSortStage implements GraphicsSortStage
         else if(reqdSize - instr.renderList.length < REALLOC_SIZE)
             reqdSize += REALLOC_SIZE;
 
-        GraphicsDetails[] tmp = new GraphicsDetails[reqdSize];
         RenderOp[] roTmp = new RenderOp[reqdSize];
 
-        System.arraycopy(instr.renderList, 0, tmp, 0, instr.renderList.length);
         System.arraycopy(instr.renderOps, 0, roTmp, 0, instr.renderOps.length);
 
-        for(int i = instr.renderList.length; i < reqdSize; i++)
-            tmp[i] = new GraphicsDetails();
-
-        instr.renderList = tmp;
+        instr.ensureRenderListCapacity(reqdSize);
         instr.renderOps = roTmp;
     }
 
@@ -14,14 +14,12 @@ package org.j3d.aviatrix3d.pipeline.graphics;
 
 // External imports
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Locale;
-import java.util.HashMap;
-import java.util.Stack;
 
 import com.jogamp.opengl.GL;
 
 import org.j3d.maths.vector.Matrix4d;
-import org.j3d.util.HashSet;
 import org.j3d.util.I18nManager;
 
 // Local imports
@@ -66,40 +64,40 @@ public abstract class BaseStateSortStage extends BaseSortStage
     /** Comparator instance for the state sorting */
     protected StateSortComparator stateComparator;
 
+    /** Radix sorter used instead of the comparator when enabled */
+    protected RadixStateSorter radixSorter;
+
+    /** True if the radix sorter should be used for state sorting */
+    private boolean useRadixSort;
+
+    /** Collapses repeated geometry into instanced draws when enabled */
+    protected GeometryInstancer geometryInstancer;
+
     // Listing of the current items, while we're setting up the state handling.
 
     /** Temp array for holdin new lights on the object being processed */
     protected VisualDetails[] newLights;
 
-    /** List of current lights that are being processed */
-    protected Stack<VisualDetails> currentLights;
+    /** List of current lights that are being processed, in start order */
+    protected VisualDetails[] currentLights;
 
-    /** List of lights for holding the difference between the current and new light lists */
-    protected Stack<VisualDetails> oldLights;
+    /** The global ID each current light was started with */
+    protected int[] currentLightIds;
 
-    /** List to hold onto lights that are common between last node and this */
-    protected Stack<VisualDetails> keepLights;
-
-    /** Mapping of the VisualDetails instance to the global ID */
-    protected HashMap<VisualDetails, Integer> lightIdMap;
+    /** Number of valid items in currentLights */
+    protected int numCurrentLights;
 
     /** Temp array for holding new clip planes on the object being processed */
     protected VisualDetails[] newClipPlanes;
 
-    /** Temp array for fetching clipPlane objects from the HashSets below. */
-    protected Object[] clipTmp;
-
-    /** Set of current clip planes that are being processed */
-    protected HashSet currentClipPlanes;
+    /** List of current clip planes that are being processed, in start order */
+    protected VisualDetails[] currentClipPlanes;
 
-    /** Set for holding the difference between the current and new sets */
-    protected HashSet oldClipPlanes;
+    /** The global ID each current clip plane was started with */
+    protected int[] currentClipIds;
 
-    /** Set to hold onto clip planes that are common between last node and this */
-    protected HashSet keepClipPlanes;
-
-    /** Mapping of the VisualDetails instance to the global ID */
-    private HashMap<VisualDetails, Integer> clipIdMap;
+    /** Number of valid items in currentClipPlanes */
+    protected int numCurrentClipPlanes;
 
     /** The currently valid appearance */
     protected AppearanceRenderable currentAppearance;
@@ -165,19 +163,13 @@ public abstract class BaseStateSortStage extends BaseSortStage
 
         stateComparator = new StateSortComparator();
 
-        currentLights = new Stack<>();
-        keepLights = new Stack<>();
-        oldLights = new Stack<>();
-
-        lightIdMap = new HashMap<>();
+        currentLights = new VisualDetails[MAX_GL_LIGHTS];
+        currentLightIds = new int[MAX_GL_LIGHTS];
         newLights = new VisualDetails[MAX_GL_LIGHTS];
 
-        currentClipPlanes = new HashSet();
-        keepClipPlanes = new HashSet();
-        oldClipPlanes = new HashSet();
-        clipIdMap = new HashMap<>();
-        clipTmp = new Object[24];
-        newClipPlanes = new VisualDetails[32];
+        currentClipPlanes = new VisualDetails[MAX_GL_CLIPS];
+        currentClipIds = new int[MAX_GL_CLIPS];
+        newClipPlanes = new VisualDetails[MAX_GL_CLIPS];
 
         // 32 is max textures that OpenGL can support.
         currentTextures = new ComponentRenderable[MAX_GL_TEXTURES];
@@ -187,6 +179,117 @@ public abstract class BaseStateSortStage extends BaseSortStage
     // Local Methods
     //---------------------------------------------------------------
 
+    /**
+     * Change the way the opaque objects are state sorted. By default, the
+     * nodes are sorted with the {@link StateSortComparator}. When radix
+     * sorting is enabled, the state of each node is packed into a single key
+     * per frame and the keys are radix sorted in linear time instead. See
+     * {@link RadixStateSorter} for the differences in the resulting order.
+     *
+     * @param enable true to use the radix sort
+     */
+    public void setRadixSortEnabled(boolean enable)
+    {
+        useRadixSort = enable;
+
+        if(enable && radixSorter == null)
+            radixSorter = new RadixStateSorter();
+    }
+
+    /**
+     * Check to see whether the radix sort is being used for state sorting.
+     *
+     * @return true if the radix sort is enabled
+     */
+    public boolean isRadixSortEnabled()
+    {
+        return useRadixSort;
+    }
+
+    /**
+     * Set the generic vertex attribute that the shaders read the
+     * per-instance transform from. Once this is set, repeated draws of the
+     * same geometry with the same state are collapsed into a single
+     * instanced draw that sends its transforms through this attribute. The
+     * transform is a column-major <code>mat4</code>, so it takes up four
+     * attribute slots starting at this index. The shader is expected to
+     * apply it before the modelview matrix. A value of -1, the default,
+     * turns the collapsing off. See {@link GeometryInstancer} for details of
+     * what is collapsed.
+     *
+     * @param index The first attribute index, or -1 to disable
+     */
+    public void setInstanceTransformAttribute(int index)
+    {
+        if(index >= 0 && geometryInstancer == null)
+            geometryInstancer = new GeometryInstancer();
+
+        if(geometryInstancer != null)
+            geometryInstancer.setInstanceTransformAttribute(index);
+    }
+
+    /**
+     * Get the generic vertex attribute that the per-instance transform is
+     * sent through.
+     *
+     * @return The first attribute index, or -1 if instancing is disabled
+     */
+    public int getInstanceTransformAttribute()
+    {
+        if(geometryInstancer == null)
+            return -1;
+
+        return geometryInstancer.getInstanceTransformAttribute();
+    }
+
+    /**
+     * Set the minimum number of draws of the same geometry that are needed
+     * before they are collapsed into an instanced draw. The default is 2.
+     *
+     * @param count The minimum count. Must be at least 2
+     * @throws IllegalArgumentException The count was less than 2
+     */
+    public void setMinInstanceCount(int count)
+    {
+        if(geometryInstancer == null)
+            geometryInstancer = new GeometryInstancer();
+
+        geometryInstancer.setMinInstanceCount(count);
+    }
+
+    /**
+     * Collapse repeated geometry in the given range of instructions into
+     * instanced draws, if an instance transform attribute is set.
+     *
+     * @param instr Instruction instance to process
+     * @param start The index of the first instruction to look at
+     * @param end The index after the last instruction to look at
+     * @return The index after the last valid instruction of the range
+     */
+    protected int instanceGeometry(GraphicsInstructions instr,
+                                   int start,
+                                   int end)
+    {
+        if(geometryInstancer == null)
+            return end;
+
+        return geometryInstancer.collapse(instr, start, end);
+    }
+
+    /**
+     * Sort the nodes by their state using the currently selected sort mode.
+     *
+     * @param nodes The list of nodes to sort
+     * @param numNodes The number of valid nodes in the list
+     */
+    protected void sortByState(GraphicsCullOutputDetails[] nodes, int numNodes)
+    {
+        if(useRadixSort)
+            radixSorter.sort(nodes, numNodes);
+        else
+            Arrays.sort(nodes, 0, numNodes, stateComparator);
+    }
+
     /**
      * Append a single object onto the existing list. Checks versus existing
      * state and starts and stops as required.
@@ -246,25 +349,7 @@ public abstract class BaseStateSortStage extends BaseSortStage
 
             if(!shape.is2D())
             {
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = tx.m10;
-                instr.renderList[idx].transform[2] = tx.m20;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = tx.m01;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = tx.m21;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = tx.m02;
-                instr.renderList[idx].transform[9] = tx.m12;
-                instr.renderList[idx].transform[10] = tx.m22;
-                instr.renderList[idx].transform[11] = tx.m32;
-
-                instr.renderList[idx].transform[12] = tx.m03;
-                instr.renderList[idx].transform[13] = tx.m13;
-                instr.renderList[idx].transform[14] = tx.m23;
-                instr.renderList[idx].transform[15] = tx.m33;
+                instr.renderList[idx].setTransform(tx);
 
                 if(geom instanceof CustomGeometryRenderable)
                 {
@@ -276,25 +361,7 @@ public abstract class BaseStateSortStage extends BaseSortStage
             }
             else
             {
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = 0;
-                instr.renderList[idx].transform[2] = 0;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = 0;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = 0;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = 0;
-                instr.renderList[idx].transform[9] = 0;
-                instr.renderList[idx].transform[10] = 0;
-                instr.renderList[idx].transform[11] = 0;
-
-                instr.renderList[idx].transform[12] = 0;
-                instr.renderList[idx].transform[13] = 0;
-                instr.renderList[idx].transform[14] = 0;
-                instr.renderList[idx].transform[15] = 0;
+                instr.renderList[idx].set2DTransform(tx);
 
                 instr.renderOps[idx] = RenderOp.RENDER_GEOMETRY_2D;
             }
@@ -311,25 +378,7 @@ public abstract class BaseStateSortStage extends BaseSortStage
 
             Matrix4d tx = node.transform;
 
-            instr.renderList[idx].transform[0] = tx.m00;
-            instr.renderList[idx].transform[1] = tx.m10;
-            instr.renderList[idx].transform[2] = tx.m20;
-            instr.renderList[idx].transform[3] = tx.m30;
-
-            instr.renderList[idx].transform[4] = tx.m01;
-            instr.renderList[idx].transform[5] = tx.m11;
-            instr.renderList[idx].transform[6] = tx.m21;
-            instr.renderList[idx].transform[7] = tx.m31;
-
-            instr.renderList[idx].transform[8] = tx.m02;
-            instr.renderList[idx].transform[9] = tx.m12;
-            instr.renderList[idx].transform[10] = tx.m22;
-            instr.renderList[idx].transform[11] = tx.m32;
-
-            instr.renderList[idx].transform[12] = tx.m03;
-            instr.renderList[idx].transform[13] = tx.m13;
-            instr.renderList[idx].transform[14] = tx.m23;
-            instr.renderList[idx].transform[15] = tx.m33;
+            instr.renderList[idx].setTransform(tx);
 
             instr.renderOps[idx] = RenderOp.RENDER_CUSTOM;
             idx++;
@@ -367,7 +416,7 @@ public abstract class BaseStateSortStage extends BaseSortStage
                                GraphicsInstructions instr,
                                int offset)
     {
-        if(node.numLights == 0 && currentLights.size() == 0)
+        if(node.numLights == 0 && numCurrentLights == 0)
             return offset;
 
         // In most cases, the list of lights are identical because sets of
@@ -378,14 +427,14 @@ public abstract class BaseStateSortStage extends BaseSortStage
         // through to the more rigorous checking afterwards. However in 90+%
         // of the cases, this finds identical lists, so good enough to get
         // some major performance boosts.
-        if (node.numLights == currentLights.size())
+        if (node.numLights == numCurrentLights)
         {
             int len = node.numLights;
             boolean all_equal = true;
 
             for(int i = 0; i < len; i++)
             {
-                VisualDetails vd = currentLights.get(i);
+                VisualDetails vd = currentLights[i];
 
                 if(node.lights[i].getRenderable() != vd.getRenderable())
                 {
@@ -400,71 +449,74 @@ public abstract class BaseStateSortStage extends BaseSortStage
 
         int idx = offset;
 
-        // First drop all the lights into the queue and turn the state off on
-        // the no-longer used ones.
-        int new_count = 0;
+        // Stop the current lights that the node no longer uses, compacting
+        // the ones that are kept down to the front of the list. Plain
+        // arrays are used rather than collections so that no garbage is
+        // generated while sorting.
+        int num_kept = 0;
 
-        for(int i = 0; i < node.numLights; i++)
+        for(int i = 0; i < numCurrentLights; i++)
         {
-            VisualDetails ld = node.lights[i];
+            VisualDetails ld = currentLights[i];
 
-            if(currentLights.contains(ld))
-                keepLights.add(ld);
-            else
-                newLights[new_count++] = ld;
-        }
+            if(findLight(node.lights, node.numLights, ld) != -1)
+            {
+                currentLights[num_kept] = ld;
+                currentLightIds[num_kept] = currentLightIds[i];
+                num_kept++;
+                continue;
+            }
 
-        oldLights.addAll(currentLights);
+            instr.renderList[idx].renderable = ld.getRenderable();
+            instr.renderList[idx].id = currentLightIds[i];
 
-        currentLights.retainAll(keepLights);
+            // Don't need the transform for the light stopping. Save
+            // CPU cycles by not copying it.
 
-        oldLights.removeAll(currentLights);
+            instr.renderOps[idx] = RenderOp.STOP_LIGHT;
+            idx++;
+        }
 
-        keepLights.clear();
+        for(int i = num_kept; i < numCurrentLights; i++)
+            currentLights[i] = null;
 
-        // Unmap the old lights.
-        int num_old = oldLights.size();
-        if(num_old != 0)
-        {
-            for(int i = 0; i < num_old; i++)
-            {
-                VisualDetails ld = oldLights.pop();
-                Integer l_id = lightIdMap.remove(ld);
+        numCurrentLights = num_kept;
 
-                instr.renderList[idx].renderable = ld.getRenderable();
-                instr.renderList[idx].id = l_id.intValue();
+        // Find and map the new lights.
+        int new_count = 0;
 
-                // Don't need the transform for the light stopping. Save
-                // CPU cycles by not copying it.
+        if(newLights.length < node.numLights)
+            newLights = new VisualDetails[node.numLights];
 
-                instr.renderOps[idx] = RenderOp.STOP_LIGHT;
-                idx++;
-            }
+        for(int i = 0; i < node.numLights; i++)
+        {
+            VisualDetails ld = node.lights[i];
+
+            if(findLight(currentLights, num_kept, ld) == -1)
+                newLights[new_count++] = ld;
         }
 
-        // Map the new lights.
-        if(new_count != 0)
+        for(int i = 0; i < new_count; i++)
         {
-            for(int i = 0; i < new_count; i++)
-            {
-                VisualDetails ld = newLights[i];
-                currentLights.add(ld);
+            VisualDetails ld = newLights[i];
 
-                instr.renderList[idx].renderable = ld.getRenderable();
+            if(numCurrentLights == currentLights.length)
+                resizeCurrentLights();
 
-                float[] src_tx = ld.getTransform();
+            currentLights[numCurrentLights] = ld;
+            currentLightIds[numCurrentLights] = lastGlobalId;
+            numCurrentLights++;
 
-                for(int k = 0; k < 16; k++)
-                {
-                    instr.renderList[idx].transform[k] = src_tx[k];
-                }
+            instr.renderList[idx].renderable = ld.getRenderable();
 
-                lightIdMap.put(ld, new Integer(lastGlobalId));
-                instr.renderList[idx].id = lastGlobalId++;
-                instr.renderOps[idx] = RenderOp.START_LIGHT;
-                idx++;
-                newLights[i] = null;
-            }
+            float[] src_tx = ld.getTransform();
+
+            instr.renderList[idx].setTransform(src_tx);
+
+            instr.renderList[idx].id = lastGlobalId++;
+            instr.renderOps[idx] = RenderOp.START_LIGHT;
+            idx++;
+            newLights[i] = null;
         }
 
         return idx;
@@ -483,81 +535,158 @@ public abstract class BaseStateSortStage extends BaseSortStage
                                    GraphicsInstructions instr,
                                    int offset)
     {
-        if(node.numClipPlanes == 0 && currentClipPlanes.size() == 0)
+        if(node.numClipPlanes == 0 && numCurrentClipPlanes == 0)
             return offset;
 
         int idx = offset;
 
-        // Drop all the clips into the queue and turn the state off on
-        // the no-longer used ones.
+        // Stop the current clips that the node no longer uses, compacting
+        // the ones that are kept down to the front of the list.
+        int num_kept = 0;
+
+        for(int i = 0; i < numCurrentClipPlanes; i++)
+        {
+            VisualDetails ld = currentClipPlanes[i];
+
+            if(findClipPlane(node.clipPlanes, node.numClipPlanes, ld) != -1)
+            {
+                currentClipPlanes[num_kept] = ld;
+                currentClipIds[num_kept] = currentClipIds[i];
+                num_kept++;
+                continue;
+            }
+
+            instr.renderList[idx].renderable = ld.getRenderable();
+            instr.renderList[idx].id = currentClipIds[i];
+
+            // Don't need the transform for the clip stopping. Save
+            // CPU cycles by not copying it.
+
+            instr.renderOps[idx] = RenderOp.STOP_CLIP_PLANE;
+            idx++;
+        }
+
+        for(int i = num_kept; i < numCurrentClipPlanes; i++)
+            currentClipPlanes[i] = null;
+
+        numCurrentClipPlanes = num_kept;
+
+        // Find and map the new clips.
         int new_count = 0;
 
+        if(newClipPlanes.length < node.numClipPlanes)
+            newClipPlanes = new VisualDetails[node.numClipPlanes];
+
         for(int i = 0; i < node.numClipPlanes; i++)
         {
             VisualDetails ld = node.clipPlanes[i];
 
-            if(currentClipPlanes.contains(ld))
-                keepClipPlanes.add(ld);
-            else
+            if(findClipPlane(currentClipPlanes, num_kept, ld) == -1)
                 newClipPlanes[new_count++] = ld;
         }
 
-        currentClipPlanes.retainAll(keepClipPlanes, oldClipPlanes);
-        keepClipPlanes.clear();
-
-        // Unmap the old clips.
-        int num_old = oldClipPlanes.size();
-        if(num_old != 0)
+        for(int i = 0; i < new_count; i++)
         {
-            if(num_old > clipTmp.length)
-                clipTmp = new Object[num_old];
+            VisualDetails ld = newClipPlanes[i];
 
-            oldClipPlanes.toArray(clipTmp);
-            oldClipPlanes.clear();
+            if(numCurrentClipPlanes == currentClipPlanes.length)
+                resizeCurrentClipPlanes();
 
-            for(int i = 0; i < num_old; i++)
-            {
-                VisualDetails ld = (VisualDetails)clipTmp[i];
-                Integer l_id = clipIdMap.remove(ld);
+            currentClipPlanes[numCurrentClipPlanes] = ld;
+            currentClipIds[numCurrentClipPlanes] = lastGlobalId;
+            numCurrentClipPlanes++;
 
-                instr.renderList[idx].renderable = ld.getRenderable();
-                instr.renderList[idx].id = l_id.intValue();
+            instr.renderList[idx].renderable = ld.getRenderable();
 
-                // Don't need the transform for the clip stopping. Save
-                // CPU cycles by not copying it.
+            float[] src_tx = ld.getTransform();
 
-                instr.renderOps[idx] = RenderOp.STOP_CLIP_PLANE;
-                idx++;
-                clipTmp[i] = null;
-            }
+            instr.renderList[idx].setTransform(src_tx);
+
+            instr.renderList[idx].id = lastGlobalId++;
+            instr.renderOps[idx] = RenderOp.START_CLIP_PLANE;
+            idx++;
+            newClipPlanes[i] = null;
         }
 
-        // Map the new clips.
-        if(new_count != 0)
-        {
-            for(int i = 0; i < new_count; i++)
-            {
-                VisualDetails ld = newClipPlanes[i];
-                currentClipPlanes.add(ld);
+        return idx;
+    }
 
-                instr.renderList[idx].renderable = ld.getRenderable();
+    /**
+     * Look for a light in a list. Lights are the same if they have the
+     * same renderable, as defined by {@link VisualDetails#equals(Object)}.
+     *
+     * @param list The list to look through
+     * @param num The number of valid items in the list
+     * @param ld The light to look for
+     * @return The index of the light in the list or -1 if not found
+     */
+    private int findLight(VisualDetails[] list, int num, VisualDetails ld)
+    {
+        Object r = ld.getRenderable();
+
+        for(int i = 0; i < num; i++)
+        {
+            if(list[i].getRenderable() == r)
+                return i;
+        }
 
-                float[] src_tx = ld.getTransform();
+        return -1;
+    }
 
-                for(int k = 0; k < 16; k++)
-                {
-                    instr.renderList[idx].transform[k] = src_tx[k];
-                }
+    /**
+     * Look for a clip plane in a list. Clip planes are only the same if they
+     * share both the renderable and the transform, so that the same plane
+     * used under two different transforms is restarted.
+     *
+     * @param list The list to look through
+     * @param num The number of valid items in the list
+     * @param ld The clip plane to look for
+     * @return The index of the clip plane in the list or -1 if not found
+     */
+    private int findClipPlane(VisualDetails[] list, int num, VisualDetails ld)
+    {
+        Object r = ld.getRenderable();
+        float[] tx = ld.getTransform();
 
-                clipIdMap.put(ld, new Integer(lastGlobalId));
-                instr.renderList[idx].id = lastGlobalId++;
-                instr.renderOps[idx] = RenderOp.START_CLIP_PLANE;
-                idx++;
-                newClipPlanes[i] = null;
-            }
+        for(int i = 0; i < num; i++)
+        {
+            if(list[i].getRenderable() == r && list[i].getTransform() == tx)
+                return i;
         }
 
-        return idx;
+        return -1;
+    }
+
+    /**
+     * Make the current light list bigger.
+     */
+    private void resizeCurrentLights()
+    {
+        int new_size = currentLights.length * 2;
+
+        VisualDetails[] tmp = new VisualDetails[new_size];
+        System.arraycopy(currentLights, 0, tmp, 0, numCurrentLights);
+        currentLights = tmp;
+
+        int[] tmp_ids = new int[new_size];
+        System.arraycopy(currentLightIds, 0, tmp_ids, 0, numCurrentLights);
+        currentLightIds = tmp_ids;
+    }
+
+    /**
+     * Make the current clip plane list bigger.
+     */
+    private void resizeCurrentClipPlanes()
+    {
+        int new_size = currentClipPlanes.length * 2;
+
+        VisualDetails[] tmp = new VisualDetails[new_size];
+        System.arraycopy(currentClipPlanes, 0, tmp, 0, numCurrentClipPlanes);
+        currentClipPlanes = tmp;
+
+        int[] tmp_ids = new int[new_size];
+        System.arraycopy(currentClipIds, 0, tmp_ids, 0, numCurrentClipPlanes);
+        currentClipIds = tmp_ids;
     }
 
     /**
@@ -1281,53 +1410,44 @@ public abstract class BaseStateSortStage extends BaseSortStage
     {
         int idx = offset;
 
-        int num_lights = currentLights.size();
-        if(num_lights != 0)
+        // Stop in the reverse order they were started
+        for(int i = numCurrentLights - 1; i >= 0; i--)
         {
-            for(int i = 0; i < num_lights; i++)
-            {
-                VisualDetails ld = currentLights.pop();
-                Integer l_id = lightIdMap.remove(ld);
+            VisualDetails ld = currentLights[i];
 
-                instr.renderList[idx].renderable = ld.getRenderable();
-                instr.renderList[idx].id = l_id.intValue();
+            instr.renderList[idx].renderable = ld.getRenderable();
+            instr.renderList[idx].id = currentLightIds[i];
 
-                // Don't need the transform for the light stopping. Save
-                // CPU cycles by not copying it.
+            // Don't need the transform for the light stopping. Save
+            // CPU cycles by not copying it.
 
-                instr.renderOps[idx] = RenderOp.STOP_LIGHT;
-                idx++;
-            }
+            instr.renderOps[idx] = RenderOp.STOP_LIGHT;
+            idx++;
+
+            currentLights[i] = null;
         }
 
+        numCurrentLights = 0;
+
         // Now the clip planes.
-        int num_clips = currentClipPlanes.size();
-        if(num_clips != 0)
+        for(int i = numCurrentClipPlanes - 1; i >= 0; i--)
         {
-            if(num_clips > clipTmp.length)
-                clipTmp = new Object[num_clips];
-
-            currentClipPlanes.toArray(clipTmp);
-            currentClipPlanes.clear();
-
-            for(int i = 0; i < num_clips; i++)
-            {
-                VisualDetails ld = (VisualDetails)clipTmp[i];
-                Integer l_id = (Integer)clipIdMap.remove(ld);
+            VisualDetails ld = currentClipPlanes[i];
 
-                instr.renderList[idx].renderable = ld.getRenderable();
-                instr.renderList[idx].id = l_id.intValue();
+            instr.renderList[idx].renderable = ld.getRenderable();
+            instr.renderList[idx].id = currentClipIds[i];
 
-                // Don't need the transform for the clip stopping. Save
-                // CPU cycles by not copying it.
+            // Don't need the transform for the clip stopping. Save
+            // CPU cycles by not copying it.
 
-                instr.renderOps[idx] = RenderOp.STOP_CLIP_PLANE;
-                idx++;
+            instr.renderOps[idx] = RenderOp.STOP_CLIP_PLANE;
+            idx++;
 
-                clipTmp[i] = null;
-            }
+            currentClipPlanes[i] = null;
         }
 
+        numCurrentClipPlanes = 0;
+
         return cleanupVisuals(instr, idx);
     }
 
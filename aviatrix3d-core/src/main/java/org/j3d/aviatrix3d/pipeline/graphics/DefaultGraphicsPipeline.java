@@ -13,7 +13,10 @@
 package org.j3d.aviatrix3d.pipeline.graphics;
 
 // External imports
-// None
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
 
 // Local imports
 import org.j3d.aviatrix3d.pipeline.RenderableRequestData;
@@ -21,6 +24,7 @@ import org.j3d.aviatrix3d.rendering.LayerCullable;
 
 import org.j3d.util.DefaultErrorReporter;
 import org.j3d.util.ErrorReporter;
+import org.j3d.util.I18nManager;
 
 /**
  * The default implementation of the rendering pipeline usable by most
@@ -31,11 +35,54 @@ import org.j3d.util.ErrorReporter;
  * everything is complete.
  * <p>
  *
+ * <b>Pipelined Rendering</b>
+ * <p>
+ *
+ * Setting a pipeline depth of 2 lets the drawing of one frame run on a
+ * separate thread while the application is updating the scene for the next.
+ * The render command culls and sorts the frame, then returns without drawing
+ * it. The swap at the end of the frame shows the frame that finished drawing
+ * in the previous cycle, then starts the draw of the new one. That draw runs
+ * alongside the application's updateSceneGraph() call and the rest of the
+ * render manager's housekeeping. The cost is one frame of extra latency. The
+ * first frame after pipelining is enabled has nothing finished to show, so
+ * its swap is skipped.
+ * <p>
+ *
+ * The draw reads the appearance and geometry of each renderable from the
+ * live nodes, so it has to be finished before anything may write to them.
+ * The render manager calls {@link #waitForDraw()} before it runs the data
+ * and bounds changed callbacks, and again when it stops rendering. The usual
+ * write timing rules of the scene graph therefore still hold: nothing is
+ * drawn from a node while it may be changed. The cull and sort of the next
+ * frame do not overlap the draw either, as they must see the changes that
+ * the callbacks make.
+ * <p>
+ *
+ * For the same reason the depth is limited to 2. A deeper pipeline would
+ * need the draws of older frames to still be running while the callbacks of
+ * a newer frame change the scene, which those rules do not allow.
+ * <p>
+ *
  * @author Justin Couch
  * @version $Revision: 3.10 $
  */
 public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
 {
+    /** Message when the pipeline depth is out of range */
+    private static final String INVALID_DEPTH_PROP =
+        "org.j3d.aviatrix3d.pipeline.graphics.DefaultGraphicsPipeline.invalidDepthMsg";
+
+    /** Message when the draw thread caught an exception */
+    private static final String DRAW_ERROR_PROP =
+        "org.j3d.aviatrix3d.pipeline.graphics.DefaultGraphicsPipeline.drawErrorMsg";
+
+    /** Pipeline depth where cull, sort and draw are all run in sequence */
+    public static final int SERIAL_PIPELINE_DEPTH = 1;
+
+    /** Maximum supported pipeline depth */
+    public static final int MAX_PIPELINE_DEPTH = 2;
+
     /** The culling stage to be used */
     private GraphicsCullStage culler;
 
@@ -83,6 +130,33 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
     /** Local reporter to put errors in */
     private ErrorReporter errorReporter;
 
+    /** The number of frames that may be in flight at once */
+    private int pipelineDepth;
+
+    /** The thread that draws each frame when pipelining */
+    private DrawThread drawThread;
+
+    /** Profiling data reused by each render() call */
+    private GraphicsProfilingData renderProfilingData;
+
+    /** Profiling data reused by each displayOnly() call */
+    private GraphicsProfilingData displayProfilingData;
+
+    /** Profiling data to record the next pipelined draw with */
+    private GraphicsProfilingData pendingProfilingData;
+
+    /** Flag indicating a frame is set on the device but not yet drawn */
+    private boolean framePending;
+
+    /** Flag indicating the draw thread has a frame that is not waited for */
+    private boolean drawStarted;
+
+    /** Flag indicating the device holds a drawn frame ready to swap */
+    private boolean frameDrawn;
+
+    /** Flag indicating a pipelined draw failed as the surface was disposed */
+    private boolean drawFailed;
+
     /**
      * Create an instance of the pipeline with nothing registered.
      */
@@ -93,6 +167,8 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
         ctsListener = new CullToSingleSortListener();
         stdListener = new SortToSingleDrawListener();
 
+        pipelineDepth = SERIAL_PIPELINE_DEPTH;
+
         screenOrientation = new float[4];
         eyePoint = new float[3];
 
@@ -100,6 +176,9 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
         useEyePoint = false;
         useOrientation = false;
         layers = new LayerCullable[1];
+
+        renderProfilingData = new GraphicsProfilingData();
+        displayProfilingData = new GraphicsProfilingData();
     }
 
     /**
@@ -125,6 +204,26 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
         }
     }
 
+    /**
+     * Construct a pipeline with the sort and cull stages provided, running
+     * with the given pipeline depth.
+     *
+     * @param ss The sort stage instance to use
+     * @param cs The cull stage instance to use
+     * @param depth The pipeline depth to use
+     * @throws IllegalArgumentException The depth is out of range
+     * @see #setPipelineDepth(int)
+     */
+    public DefaultGraphicsPipeline(GraphicsCullStage cs,
+                                   GraphicsSortStage ss,
+                                   int depth)
+        throws IllegalArgumentException
+    {
+        this(cs, ss);
+
+        setPipelineDepth(depth);
+    }
+
     //---------------------------------------------------------------
     // Methods defined by GraphicsRenderPipeline
     //---------------------------------------------------------------
@@ -258,22 +357,37 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
 
         boolean draw_state = true;
 
-        GraphicsProfilingData profilingData = new GraphicsProfilingData();
+        // The cull must not change the device's drawable objects while the
+        // last frame is still being drawn from them.
+        waitForDraw();
+
+        GraphicsProfilingData profilingData = renderProfilingData;
+        profilingData.clear();
 
         if(culler != null)
         {
             culler.cull(otherData, profilingData, layers, numLayers);
             otherData = null;
 
-            // then draw after the cull is complete
-            if(!terminate && drawable != null)
-                draw_state = drawable.draw(profilingData);
-
-            // If if failed, check to see if the underlying surface died.
-            // If so, continue to pass on the failure message.
-            if(!draw_state && !drawable.isDisposed())
-                draw_state = true;
-
+            if(pipelineDepth != SERIAL_PIPELINE_DEPTH)
+            {
+                // Drawn by the draw thread, once swapBuffers() has shown
+                // the last frame.
+                pendingProfilingData = profilingData;
+                framePending = true;
+                draw_state = !drawFailed;
+            }
+            else
+            {
+                // then draw after the cull is complete
+                if(!terminate && drawable != null)
+                    draw_state = drawable.draw(profilingData);
+
+                // If it failed, check to see if the underlying surface died.
+                // If so, continue to pass on the failure message.
+                if(!draw_state && !drawable.isDisposed())
+                    draw_state = true;
+            }
         }
 
         return draw_state && !terminate;
@@ -298,7 +412,25 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
     public boolean displayOnly()
     {
         boolean draw_state = true;
-        GraphicsProfilingData profilingData = new GraphicsProfilingData();
+        GraphicsProfilingData profilingData = displayProfilingData;
+
+        if(pipelineDepth != SERIAL_PIPELINE_DEPTH)
+        {
+            waitForDraw();
+
+            // Redraw what the device has after the swap, unless a culled
+            // frame is already waiting to be drawn.
+            if(!framePending && (numLayers != 0))
+            {
+                profilingData.clear();
+                pendingProfilingData = profilingData;
+                framePending = true;
+            }
+
+            return !drawFailed && !terminate;
+        }
+
+        profilingData.clear();
 
         if(!terminate && (numLayers != 0) && (drawable != null))
             draw_state = drawable.draw(profilingData);
@@ -311,12 +443,66 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
 
     /**
      * Instruct the drawable at the end of this pipeline to swap the buffers
-     * now.
+     * now. When pipelining, this shows the last frame that finished drawing,
+     * if there is one, then starts the draw of the frame set up by the last
+     * render() or displayOnly() call.
      */
     public void swapBuffers()
     {
-        if(!terminate && drawable != null)
+        if(pipelineDepth == SERIAL_PIPELINE_DEPTH)
+        {
+            if(!terminate && drawable != null)
+                drawable.swap();
+
+            return;
+        }
+
+        if(frameDrawn && !terminate && drawable != null)
             drawable.swap();
+
+        frameDrawn = false;
+
+        // The swap has freed the back buffer for the new frame
+        if(framePending && !terminate && drawable != null)
+        {
+            if(drawThread == null)
+            {
+                drawThread = new DrawThread();
+                drawThread.start();
+            }
+
+            drawThread.startDraw(pendingProfilingData);
+            drawStarted = true;
+        }
+
+        framePending = false;
+        pendingProfilingData = null;
+    }
+
+    /**
+     * Block until any frame that this pipeline is still drawing has been
+     * completed. The render manager calls this before it runs the update
+     * callbacks for the next frame. When the pipeline is serial, or nothing
+     * is being drawn, this returns straight away.
+     */
+    public void waitForDraw()
+    {
+        if(!drawStarted)
+            return;
+
+        drawStarted = false;
+        frameDrawn = true;
+
+        // Local copy as halt() may clear the field from another thread
+        DrawThread draw_thread = drawThread;
+
+        if(draw_thread == null)
+            return;
+
+        boolean draw_state = draw_thread.waitForDraw();
+
+        if(!draw_state && drawable != null && drawable.isDisposed())
+            drawFailed = true;
     }
 
     /**
@@ -358,6 +544,12 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
 
         if(sorter != null)
             sorter.halt();
+
+        if(drawThread != null)
+        {
+            drawThread.exit();
+            drawThread = null;
+        }
     }
 
     //---------------------------------------------------------------
@@ -409,4 +601,216 @@ public class DefaultGraphicsPipeline implements GraphicsRenderPipeline
 
         culler = cs;
     }
+
+    /**
+     * Set the number of frames that the pipeline may have in flight at once.
+     * A depth of 1 is the default and runs cull, sort and draw one after the
+     * other in the calling thread. A depth of 2 draws each frame in a
+     * separate thread while the application updates the scene for the next
+     * one, at the cost of one frame of latency, as described in the class
+     * documentation. This should only be called between frames, not while
+     * the pipeline is rendering.
+     *
+     * @param depth The pipeline depth to use, between 1 and
+     *    {@link #MAX_PIPELINE_DEPTH}
+     * @throws IllegalArgumentException The depth is out of range
+     */
+    public void setPipelineDepth(int depth)
+        throws IllegalArgumentException
+    {
+        if(depth < SERIAL_PIPELINE_DEPTH || depth > MAX_PIPELINE_DEPTH)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(INVALID_DEPTH_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+
+            NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+            Object[] msg_args = { new Integer(depth),
+                                  new Integer(MAX_PIPELINE_DEPTH) };
+            Format[] fmts = { n_fmt, n_fmt };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            msg_fmt.setFormats(fmts);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        if(depth == pipelineDepth)
+            return;
+
+        waitForDraw();
+
+        pipelineDepth = depth;
+        framePending = false;
+        frameDrawn = false;
+        pendingProfilingData = null;
+
+        if(depth == SERIAL_PIPELINE_DEPTH && drawThread != null)
+        {
+            drawThread.exit();
+            drawThread = null;
+        }
+    }
+
+    /**
+     * Get the currently set pipeline depth.
+     *
+     * @return A value between 1 and {@link #MAX_PIPELINE_DEPTH}
+     */
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+
+    /**
+     * Thread that calls draw on the output device when pipelining.
+     */
+    private class DrawThread extends Thread
+    {
+        /** Lock for handing work between the threads */
+        private final Object drawLock;
+
+        /** Profiling data to use for the requested draw */
+        private GraphicsProfilingData drawProfilingData;
+
+        /** A draw has been requested but not yet started */
+        private boolean drawRequested;
+
+        /** The last requested draw has completed */
+        private boolean drawComplete;
+
+        /** The result of the last draw */
+        private boolean drawResult;
+
+        /** Flag to tell the thread to exit */
+        private boolean exitNow;
+
+        /**
+         * Create a new draw thread. It is a daemon so that it won't prevent
+         * the application from exiting.
+         */
+        DrawThread()
+        {
+            super("Aviatrix3D pipelined draw");
+
+            drawLock = new Object();
+            drawComplete = true;
+            setDaemon(true);
+        }
+
+        /**
+         * Loop waiting for draw requests.
+         */
+        @Override
+        public void run()
+        {
+            while(true)
+            {
+                GraphicsProfilingData prof_data;
+
+                synchronized(drawLock)
+                {
+                    while(!drawRequested && !exitNow)
+                    {
+                        try
+                        {
+                            drawLock.wait();
+                        }
+                        catch(InterruptedException ie)
+                        {
+                        }
+                    }
+
+                    if(exitNow)
+                        break;
+
+                    drawRequested = false;
+                    prof_data = drawProfilingData;
+                    drawProfilingData = null;
+                }
+
+                boolean state = true;
+
+                try
+                {
+                    if(!terminate)
+                        state = drawable.draw(prof_data);
+                }
+                catch(RuntimeException re)
+                {
+                    I18nManager intl_mgr = I18nManager.getManager();
+                    String msg = intl_mgr.getString(DRAW_ERROR_PROP);
+                    errorReporter.errorReport(msg, re);
+                }
+
+                synchronized(drawLock)
+                {
+                    drawResult = state;
+                    drawComplete = true;
+                    drawLock.notifyAll();
+                }
+            }
+
+            synchronized(drawLock)
+            {
+                drawComplete = true;
+                drawLock.notifyAll();
+            }
+        }
+
+        /**
+         * Start drawing the currently set drawable objects.
+         *
+         * @param data The profiling data to record the draw with
+         */
+        void startDraw(GraphicsProfilingData data)
+        {
+            synchronized(drawLock)
+            {
+                drawProfilingData = data;
+                drawComplete = false;
+                drawRequested = true;
+                drawLock.notifyAll();
+            }
+        }
+
+        /**
+         * Block until the last requested draw has completed.
+         *
+         * @return The result of the draw call
+         */
+        boolean waitForDraw()
+        {
+            synchronized(drawLock)
+            {
+                while(!drawComplete)
+                {
+                    try
+                    {
+                        drawLock.wait();
+                    }
+                    catch(InterruptedException ie)
+                    {
+                    }
+                }
+
+                return drawResult;
+            }
+        }
+
+        /**
+         * Tell the thread to exit once any current draw has finished.
+         */
+        void exit()
+        {
+            synchronized(drawLock)
+            {
+                exitNow = true;
+                drawLock.notifyAll();
+            }
+        }
+    }
 }
@@ -884,11 +884,11 @@ public class FrustumCullStage extends BaseCullStage
                                         sr.getAppearanceRenderable();
 
                                     app_r =
-                                        new OverrideAppearanceProxyRenderable(app_r,
-                                                                              leaf_app);
+                                        proxyPool.getAppearanceProxy(app_r,
+                                                                     leaf_app);
                                 }
                                 OverrideShapeProxyRenderable proxy_r =
-                                    new OverrideShapeProxyRenderable(sr, app_r);
+                                    proxyPool.getShapeProxy(sr, app_r);
                                 workCullList[ret_val].renderable = proxy_r;
                             }
                             else
@@ -1562,12 +1562,12 @@ public class FrustumCullStage extends BaseCullStage
                                         sr.getAppearanceRenderable();
 
                                     app_r =
-                                        new OverrideAppearanceProxyRenderable(app_r,
-                                                                              leaf_app);
+                                        proxyPool.getAppearanceProxy(app_r,
+                                                                     leaf_app);
                                 }
 
                                 OverrideShapeProxyRenderable proxy_r =
-                                    new OverrideShapeProxyRenderable(sr, app_r);
+                                    proxyPool.getShapeProxy(sr, app_r);
                                 workCullList[ret_val].renderable = proxy_r;
                             }
                             else
@@ -1841,7 +1841,7 @@ public class FrustumCullStage extends BaseCullStage
                                     appearanceStack[lastAppearanceStack].getAppearanceRenderable();
 
                                 OverrideShapeProxyRenderable proxy_r =
-                                    new OverrideShapeProxyRenderable(sr, app_r);
+                                    proxyPool.getShapeProxy(sr, app_r);
                                 workCullList[ret_val].renderable = proxy_r;
                             }
                             else
@@ -1998,7 +1998,7 @@ public class FrustumCullStage extends BaseCullStage
                                          BoundingVolume testBounds,
                                          float[] testTx)
     {
-        return true;
+        return lightCuller.checkIntersect(geomBounds, geomTx, testBounds, testTx);
     }
 
     /**
@@ -2188,89 +2188,45 @@ public class FrustumCullStage extends BaseCullStage
         }
     }
 
-    /*
-     * Add global lights as necessary.
+    /**
+     * Add the global lights that reach each renderable, and cut each light
+     * list down to the most influential lights.
      *
      * @param cullEndIndex The current last item on the cull list
      */
-    private void processGlobalLights(int cullEndIndex) {
-
+    private void processGlobalLights(int cullEndIndex)
+    {
         int num_globals = lastGlobalLight + lastGlobalBoundedLight;
 
-        if(num_globals == 0)
+        if(num_globals == 0 && lightCuller.getMaxLights() == 0)
             return;
 
-        for (int i = 0; i < cullEndIndex; i++)
+        lightCuller.setGlobalLights(globalLightList,
+                                    globalLightTxList,
+                                    lastGlobalLight,
+                                    globalBoundedLightList,
+                                    globalBoundedLightTxList,
+                                    lastGlobalBoundedLight);
+
+        for(int i = 0; i < cullEndIndex; i++)
         {
             Renderable r = workCullList[i].renderable;
-            boolean addLights = false;
+            boolean add_lights = false;
 
-            if (r instanceof ShapeRenderable)
+            if(r instanceof ShapeRenderable)
             {
                 ShapeRenderable sr = (ShapeRenderable)r;
-                addLights = sr.isVisible() && !sr.is2D();
-
-            }
-            else if (r instanceof CustomRenderable)
-            {
-                addLights = true;
-            }
-
-            if(!addLights)
-                continue;
-
-            int src_size = (workCullList[i].lights == null) ?
-                0 :
-                workCullList[i].lights.length;
-
-            int valid_lights = workCullList[i].numLights;
-            int req_size = valid_lights + num_globals;
-
-            if(src_size < req_size)
-            {
-                // up the size of the array
-
-                VisualDetails[] tmp = new VisualDetails[req_size];
-                if(src_size != 0)
-                {
-                    System.arraycopy(workCullList[i].lights,
-                        0,
-                        tmp,
-                        0,
-                        src_size);
-                }
-
-                for(int j = src_size; j < req_size; j++)
-                    tmp[j] = new VisualDetails();
-
-                workCullList[i].lights = tmp;
-            }
-
-            // copy in the light information.
-            VisualDetails[] l_tmp = workCullList[i].lights;
-
-            for(int j = 0; j < lastGlobalLight; j++)
-            {
-                l_tmp[valid_lights].update(globalLightList[j],
-                                           globalLightTxList[j]);
-                valid_lights++;
+                add_lights = sr.isVisible() && !sr.is2D();
             }
-
-            for(int j = 0; j < lastGlobalBoundedLight; j++)
+            else if(r instanceof CustomRenderable)
             {
-                if(checkBoundsIntersect(
-                    workCullList[i].cullableBounds,
-                    workCullList[i].transform,
-                    globalBoundedLightList[j].getEffectBounds(),
-                    globalBoundedLightTxList[j]))
-                {
-                    l_tmp[valid_lights].update(globalBoundedLightList[j],
-                                               globalBoundedLightTxList[j]);
-                    valid_lights++;
-                }
+                add_lights = true;
             }
 
-            workCullList[i].numLights = valid_lights;
+            if(add_lights)
+                lightCuller.assignLights(workCullList[i]);
         }
+
+        lightCuller.clearGlobalLights();
     }
 }
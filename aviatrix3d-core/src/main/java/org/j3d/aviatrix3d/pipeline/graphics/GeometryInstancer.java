@@ -0,0 +1,523 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.rendering.InstancedGeometryRenderable;
+import org.j3d.aviatrix3d.rendering.Renderable;
+
+import org.j3d.aviatrix3d.pipeline.RenderOp;
+
+/**
+ * Post-sort pass that collapses repeated draws of the same geometry into a
+ * single instanced draw.
+ * <p>
+ *
+ * After state sorting, the sort stages only emit state changes when the
+ * state differs from the current state. A run of consecutive
+ * {@link RenderOp#RENDER_GEOMETRY} instructions therefore all share the same
+ * appearance, lights, clip planes and fog. Within each run, the draws are
+ * grouped by geometry instance. Each group with at least the minimum number
+ * of members, whose geometry is an {@link InstancedGeometryRenderable} that
+ * says it can be instanced, is replaced with a single
+ * {@link RenderOp#RENDER_GEOMETRY_INSTANCED} instruction that carries the
+ * transforms of all the members. Groups are output in the order that their
+ * first member appears in the run. Runs inside a transparent section are
+ * left alone, as their depth order must be kept.
+ * <p>
+ *
+ * Nothing is collapsed until the vertex attribute that the shaders read the
+ * per-instance transform from has been set. Without it the output device
+ * can only draw the members of a group one after the other, which costs the
+ * same as the separate draws, so the grouping would be wasted work. The
+ * attribute is passed on to the device with each instanced draw.
+ * <p>
+ *
+ * The transforms are kept in double precision, as they are for single
+ * draws. They are only converted to the single precision of the shader
+ * attribute as they are sent to the GL.
+ * <p>
+ *
+ * The instruction list is compacted in place. The detail objects freed by
+ * the collapse are moved to the end of the processed range so that the
+ * instruction list never loses any of its preallocated instances.
+ * <p>
+ *
+ * This class is not thread safe.
+ * <p>
+ *
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>invalidMinInstancesMsg: Error message when the minimum instance count
+ *     is less than 2</li>
+ * </ul>
+ */
+public class GeometryInstancer
+{
+    /** Message when the minimum instance count is too small */
+    private static final String INVALID_MIN_INSTANCES_PROP =
+        "org.j3d.aviatrix3d.pipeline.graphics.GeometryInstancer.invalidMinInstancesMsg";
+
+    /** Default minimum number of draws to make an instanced draw from */
+    public static final int DEFAULT_MIN_INSTANCES = 2;
+
+    /** Initial size of the run based arrays */
+    private static final int LIST_START_SIZE = 256;
+
+    /** The minimum number of draws to collapse */
+    private int minInstances;
+
+    /** The first attribute of the per-instance transform, or -1 if not set */
+    private int instanceTransformAttrib;
+
+    /**
+     * Open addressed table of the geometry in the current run, compared by
+     * identity. Empty slots are null. The length is a power of two.
+     */
+    private Renderable[] groupKeys;
+
+    /** The group index of each key in groupKeys */
+    private int[] groupIndex;
+
+    /** Slot in groupKeys used by each group, or -1 if it has no key */
+    private int[] groupSlot;
+
+    /** Index in the run of the first member of each group */
+    private int[] groupHead;
+
+    /** Index in the run of the last member of each group */
+    private int[] groupTail;
+
+    /** Number of members in each group */
+    private int[] groupSize;
+
+    /** Index in the run of the next member of the same group, or -1 */
+    private int[] nextInGroup;
+
+    /** Copy of the details of the run being processed */
+    private GraphicsDetails[] runDetails;
+
+    /** Details freed up by the collapse, waiting to be put back */
+    private GraphicsDetails[] spareDetails;
+
+    /** Number of valid items in spareDetails */
+    private int numSpare;
+
+    /** The number of instanced draws created by the last call */
+    private int numInstancedDraws;
+
+    /** The number of draws removed by the last call */
+    private int numDrawsCollapsed;
+
+    /**
+     * Create a new instancer that uses the default minimum instance count.
+     */
+    public GeometryInstancer()
+    {
+        minInstances = DEFAULT_MIN_INSTANCES;
+        instanceTransformAttrib = -1;
+
+        groupKeys = new Renderable[LIST_START_SIZE * 2];
+        groupIndex = new int[LIST_START_SIZE * 2];
+        groupSlot = new int[LIST_START_SIZE];
+
+        groupHead = new int[LIST_START_SIZE];
+        groupTail = new int[LIST_START_SIZE];
+        groupSize = new int[LIST_START_SIZE];
+        nextInGroup = new int[LIST_START_SIZE];
+        runDetails = new GraphicsDetails[LIST_START_SIZE];
+        spareDetails = new GraphicsDetails[LIST_START_SIZE];
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Set the minimum number of draws of the same geometry that will be
+     * collapsed into an instanced draw.
+     *
+     * @param count The minimum count. Must be at least 2
+     * @throws IllegalArgumentException The count was less than 2
+     */
+    public void setMinInstanceCount(int count)
+    {
+        if(count < 2)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(INVALID_MIN_INSTANCES_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+
+            NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+            Object[] msg_args = { new Integer(count) };
+            Format[] fmts = { n_fmt };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            msg_fmt.setFormats(fmts);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        minInstances = count;
+    }
+
+    /**
+     * Get the minimum number of draws of the same geometry that will be
+     * collapsed into an instanced draw.
+     *
+     * @return A value of 2 or more
+     */
+    public int getMinInstanceCount()
+    {
+        return minInstances;
+    }
+
+    /**
+     * Set the generic vertex attribute that the shaders read the
+     * per-instance transform from. Nothing is collapsed while this is -1,
+     * which is the default.
+     *
+     * @param index The first attribute index, or -1 to disable
+     */
+    public void setInstanceTransformAttribute(int index)
+    {
+        instanceTransformAttrib = index < 0 ? -1 : index;
+    }
+
+    /**
+     * Get the generic vertex attribute that the per-instance transform is
+     * sent through.
+     *
+     * @return The first attribute index, or -1 if not set
+     */
+    public int getInstanceTransformAttribute()
+    {
+        return instanceTransformAttrib;
+    }
+
+    /**
+     * Get the number of instanced draws that were created by the last call
+     * to {@link #collapse(GraphicsInstructions, int, int)}.
+     *
+     * @return A non-negative count
+     */
+    public int getInstancedDrawCount()
+    {
+        return numInstancedDraws;
+    }
+
+    /**
+     * Get the number of instructions that were removed by the last call to
+     * {@link #collapse(GraphicsInstructions, int, int)}.
+     *
+     * @return A non-negative count
+     */
+    public int getCollapsedDrawCount()
+    {
+        return numDrawsCollapsed;
+    }
+
+    /**
+     * Collapse the repeated geometry draws in the given range of the
+     * instruction list. The instructions after the range are not moved, so
+     * the caller should continue appending from the returned index.
+     *
+     * @param instr The instructions to process
+     * @param start The index of the first instruction to look at
+     * @param end The index after the last instruction to look at
+     * @return The index after the last valid instruction of the range
+     */
+    public int collapse(GraphicsInstructions instr, int start, int end)
+    {
+        numInstancedDraws = 0;
+        numDrawsCollapsed = 0;
+        numSpare = 0;
+
+        if(instanceTransformAttrib < 0)
+            return end;
+
+        RenderOp[] ops = instr.renderOps;
+        GraphicsDetails[] list = instr.renderList;
+
+        boolean transparent = false;
+        int write_idx = start;
+        int i = start;
+
+        while(i < end)
+        {
+            RenderOp op = ops[i];
+
+            if(op == RenderOp.START_TRANSPARENT)
+                transparent = true;
+            else if(op == RenderOp.STOP_TRANSPARENT)
+                transparent = false;
+
+            if(op != RenderOp.RENDER_GEOMETRY || transparent)
+            {
+                list[write_idx] = list[i];
+                ops[write_idx] = op;
+                write_idx++;
+                i++;
+                continue;
+            }
+
+            int run_end = i + 1;
+            while(run_end < end && ops[run_end] == RenderOp.RENDER_GEOMETRY)
+                run_end++;
+
+            write_idx = collapseRun(instr, i, run_end, write_idx);
+            i = run_end;
+        }
+
+        // Put the freed details back in the slots freed by the collapse
+        for(int j = 0; j < numSpare; j++)
+        {
+            GraphicsDetails d = spareDetails[j];
+            d.clear();
+            d.numInstances = 0;
+
+            list[write_idx + j] = d;
+            spareDetails[j] = null;
+        }
+
+        numDrawsCollapsed = end - write_idx;
+
+        return write_idx;
+    }
+
+    /**
+     * Group a single run of geometry draws and write out the result.
+     *
+     * @param instr The instructions to process
+     * @param start The index of the first draw in the run
+     * @param end The index after the last draw in the run
+     * @param writeIdx The index to start writing output at
+     * @return The index after the last instruction written
+     */
+    private int collapseRun(GraphicsInstructions instr,
+                            int start,
+                            int end,
+                            int writeIdx)
+    {
+        RenderOp[] ops = instr.renderOps;
+        GraphicsDetails[] list = instr.renderList;
+        int run_size = end - start;
+        int idx = writeIdx;
+
+        // Not enough draws to make any instances, so just move them down.
+        if(run_size < minInstances)
+        {
+            for(int i = start; i < end; i++)
+            {
+                list[idx] = list[i];
+                list[idx].numInstances = 0;
+                ops[idx] = RenderOp.RENDER_GEOMETRY;
+                idx++;
+            }
+
+            return idx;
+        }
+
+        checkCapacity(run_size);
+
+        int num_groups = 0;
+
+        for(int i = 0; i < run_size; i++)
+        {
+            GraphicsDetails d = list[start + i];
+            runDetails[i] = d;
+            nextInGroup[i] = -1;
+
+            int g = findGroup(d.renderable, num_groups);
+
+            if(g == num_groups)
+            {
+                groupHead[num_groups] = i;
+                groupTail[num_groups] = i;
+                groupSize[num_groups] = 1;
+                num_groups++;
+            }
+            else
+            {
+                nextInGroup[groupTail[g]] = i;
+                groupTail[g] = i;
+                groupSize[g]++;
+            }
+        }
+
+        // Empty the table ready for the next run
+        for(int g = 0; g < num_groups; g++)
+        {
+            if(groupSlot[g] != -1)
+                groupKeys[groupSlot[g]] = null;
+        }
+
+        for(int g = 0; g < num_groups; g++)
+        {
+            int member = groupHead[g];
+            GraphicsDetails first = runDetails[member];
+
+            if(groupSize[g] >= minInstances && isInstanceable(first.renderable))
+            {
+                int size = groupSize[g] * 16;
+
+                if(first.instanceTransforms == null ||
+                   first.instanceTransforms.length < size)
+                    first.instanceTransforms = new double[size];
+
+                double[] tx = first.instanceTransforms;
+                int offset = 0;
+
+                while(member != -1)
+                {
+                    GraphicsDetails d = runDetails[member];
+
+                    System.arraycopy(d.transform,
+                                     d.transformOffset,
+                                     tx,
+                                     offset,
+                                     16);
+
+                    offset += 16;
+
+                    if(d != first)
+                        spareDetails[numSpare++] = d;
+
+                    runDetails[member] = null;
+                    member = nextInGroup[member];
+                }
+
+                first.numInstances = groupSize[g];
+                first.instanceTransformAttrib = instanceTransformAttrib;
+                list[idx] = first;
+                ops[idx] = RenderOp.RENDER_GEOMETRY_INSTANCED;
+                idx++;
+
+                numInstancedDraws++;
+            }
+            else
+            {
+                while(member != -1)
+                {
+                    list[idx] = runDetails[member];
+                    list[idx].numInstances = 0;
+                    ops[idx] = RenderOp.RENDER_GEOMETRY;
+                    idx++;
+
+                    runDetails[member] = null;
+                    member = nextInGroup[member];
+                }
+            }
+        }
+
+        return idx;
+    }
+
+    /**
+     * Find the group of the given geometry in the current run. If the
+     * geometry has not been seen yet in this run, it is added to the table as
+     * the new group.
+     *
+     * @param geom The geometry to look up
+     * @param newGroup The index to give the geometry if it is not found
+     * @return The index of the group that the geometry belongs to
+     */
+    private int findGroup(Renderable geom, int newGroup)
+    {
+        groupSlot[newGroup] = -1;
+
+        // Nothing to share with, so always a group of its own
+        if(geom == null)
+            return newGroup;
+
+        int mask = groupKeys.length - 1;
+        int hash = System.identityHashCode(geom);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        while(groupKeys[slot] != null)
+        {
+            if(groupKeys[slot] == geom)
+                return groupIndex[slot];
+
+            slot = (slot + 1) & mask;
+        }
+
+        groupKeys[slot] = geom;
+        groupIndex[slot] = newGroup;
+        groupSlot[newGroup] = slot;
+
+        return newGroup;
+    }
+
+    /**
+     * Check to see if the given renderable can be drawn instanced.
+     *
+     * @param geom The geometry to check
+     * @return true if this can be drawn with an instanced draw
+     */
+    private boolean isInstanceable(Renderable geom)
+    {
+        return (geom instanceof InstancedGeometryRenderable) &&
+               ((InstancedGeometryRenderable)geom).isInstanceable();
+    }
+
+    /**
+     * Make sure the working arrays can hold a run of the given size.
+     *
+     * @param size The number of draws in the run
+     */
+    private void checkCapacity(int size)
+    {
+        if(groupHead.length < size)
+        {
+            groupHead = new int[size];
+            groupTail = new int[size];
+            groupSize = new int[size];
+            nextInGroup = new int[size];
+            groupSlot = new int[size];
+            runDetails = new GraphicsDetails[size];
+        }
+
+        // Keep the table at most half full so the probes stay short
+        int table_size = groupKeys.length;
+
+        while(table_size < size * 2)
+            table_size <<= 1;
+
+        if(table_size != groupKeys.length)
+        {
+            groupKeys = new Renderable[table_size];
+            groupIndex = new int[table_size];
+        }
+
+        if(spareDetails.length < numSpare + size)
+        {
+            GraphicsDetails[] tmp = new GraphicsDetails[numSpare + size];
+            System.arraycopy(spareDetails, 0, tmp, 0, numSpare);
+            spareDetails = tmp;
+        }
+    }
+}
@@ -13,7 +13,7 @@
 package org.j3d.aviatrix3d.pipeline.graphics;
 
 // External imports
-// None
+import org.j3d.maths.vector.Matrix4d;
 
 // Local imports
 import org.j3d.aviatrix3d.pipeline.RenderDetails;
@@ -22,14 +22,43 @@ import org.j3d.aviatrix3d.pipeline.RenderDetails;
  * Class for passing the detailed rendering information through the pipeline.
  * <p>
  *
+ * The transform is not necessarily the only thing in the
+ * <code>transform</code> array. Details that belong to the render list of a
+ * {@link GraphicsInstructions} share the single transform block of its
+ * {@link RenderListArena}, so the 16 values start at
+ * <code>transformOffset</code>. Always read the transform from that offset
+ * and write it through the setTransform() methods or at that offset.
+ *
  * @author Justin Couch
  * @version $Revision: 3.0 $
  */
 public class GraphicsDetails extends RenderDetails
 {
-    /** The transform from the root of the scene graph to here */
+    /**
+     * The transform from the root of the scene graph to here, starting at
+     * transformOffset. May be shared with other details objects.
+     */
     public double[] transform;
 
+    /** The index of the first transform value in the transform array */
+    public int transformOffset;
+
+    /**
+     * The per-instance transforms for an instanced render, as consecutive
+     * column-major 4x4 matrices. Only valid for RENDER_GEOMETRY_INSTANCED
+     * and may be longer than needed.
+     */
+    public double[] instanceTransforms;
+
+    /** The number of valid instances in instanceTransforms */
+    public int numInstances;
+
+    /**
+     * The first generic vertex attribute that the shader reads the
+     * per-instance transform from. Only valid for RENDER_GEOMETRY_INSTANCED.
+     */
+    public int instanceTransformAttrib;
+
     /**
      * Construct a default instance with nothing initialised.
      */
@@ -37,4 +66,103 @@ public class GraphicsDetails extends RenderDetails
     {
         transform = new double[16];
     }
+
+    /**
+     * Construct an instance that keeps its transform in a slot of a larger,
+     * shared block.
+     *
+     * @param block The array that holds the transform
+     * @param offset The index of the first transform value in the block
+     */
+    public GraphicsDetails(double[] block, int offset)
+    {
+        transform = block;
+        transformOffset = offset;
+    }
+
+    /**
+     * Copy the values from the given instance into this one. The renderable
+     * and instructions references are shared, the transforms are copied.
+     *
+     * @param details The source instance to copy from
+     */
+    public void set(GraphicsDetails details)
+    {
+        renderable = details.renderable;
+        id = details.id;
+        instructions = details.instructions;
+        numInstances = details.numInstances;
+        instanceTransformAttrib = details.instanceTransformAttrib;
+
+        System.arraycopy(details.transform,
+                         details.transformOffset,
+                         transform,
+                         transformOffset,
+                         16);
+
+        if(numInstances > 0)
+        {
+            int size = numInstances * 16;
+
+            if(instanceTransforms == null || instanceTransforms.length < size)
+                instanceTransforms = new double[size];
+
+            System.arraycopy(details.instanceTransforms,
+                             0,
+                             instanceTransforms,
+                             0,
+                             size);
+        }
+    }
+
+    /**
+     * Get a single value of the transform, relative to the start of this
+     * transform.
+     *
+     * @param index The index of the value, 0 to 15
+     * @return The value at that index
+     */
+    public double getTransformValue(int index)
+    {
+        return transform[transformOffset + index];
+    }
+
+    /**
+     * Set the transform from the given matrix.
+     *
+     * @param mat The matrix to copy
+     */
+    public void setTransform(Matrix4d mat)
+    {
+        RenderListArena.setTransform(transform, transformOffset, mat);
+    }
+
+    /**
+     * Set the transform from a column-major array of 16 values.
+     *
+     * @param mat The values to copy
+     */
+    public void setTransform(float[] mat)
+    {
+        RenderListArena.setTransform(transform, transformOffset, mat);
+    }
+
+    /**
+     * Set the transform of a 2D renderable. Only the scale and translation
+     * of the X and Y axes are kept, everything else is zeroed.
+     *
+     * @param mat The matrix to take the values from
+     */
+    public void set2DTransform(Matrix4d mat)
+    {
+        int off = transformOffset;
+
+        for(int i = 0; i < 16; i++)
+            transform[off + i] = 0;
+
+        transform[off] = mat.m00;
+        transform[off + 3] = mat.m30;
+        transform[off + 5] = mat.m11;
+        transform[off + 7] = mat.m31;
+    }
 }
@@ -59,16 +59,22 @@ public class GraphicsInstructions extends RenderInstructions
     /** The list of nodes in sorted order */
     public GraphicsDetails[] renderList;
 
+    /** Shared storage for the transforms of the renderList */
+    public RenderListArena arena;
+
     /**
      * Construct a new instance of this class with the arrays initialised
      * to a default size.
      */
     public GraphicsInstructions()
     {
+        arena = new RenderListArena(LIST_START_SIZE);
         renderList = new GraphicsDetails[LIST_START_SIZE];
 
+        double[] tx = arena.getTransforms();
+
         for(int i = 0; i < LIST_START_SIZE; i++)
-            renderList[i] = new GraphicsDetails();
+            renderList[i] = new GraphicsDetails(tx, arena.getTransformOffset(i));
 
         renderData = new GraphicsEnvironmentData[1];
     }
@@ -92,4 +98,29 @@ public class GraphicsInstructions extends RenderInstructions
 
         renderData = tmp;
     }
+
+    /**
+     * Resize the renderList to be at least the given size, keeping the
+     * existing details objects and their transforms. New details objects are
+     * created for the extra space and everything is bound to the arena. If
+     * the list is already big enough, do nothing. The renderOps array is not
+     * changed.
+     *
+     * @param reqdSize The number of elements required
+     */
+    public void ensureRenderListCapacity(int reqdSize)
+    {
+        if(renderList.length >= reqdSize)
+            return;
+
+        GraphicsDetails[] tmp = new GraphicsDetails[reqdSize];
+
+        System.arraycopy(renderList, 0, tmp, 0, renderList.length);
+
+        for(int i = renderList.length; i < reqdSize; i++)
+            tmp[i] = new GraphicsDetails(null, 0);
+
+        renderList = tmp;
+        arena.bind(renderList, reqdSize);
+    }
 }
@@ -29,4 +29,25 @@ public class GraphicsProfilingData extends ProfilingData
 
     /** The total number of renderables in the scene */
     public long numRenderables;
+
+    /** The number of state changes sent to GL by the state cache */
+    public long numStateChangesSubmitted;
+
+    /** The number of redundant state changes skipped by the state cache */
+    public long numStateChangesElided;
+
+    /**
+     * Reset all the values back to zero so that the instance can be reused
+     * for another frame.
+     */
+    @Override
+    public void clear()
+    {
+        super.clear();
+
+        numTriangles = 0;
+        numRenderables = 0;
+        numStateChangesSubmitted = 0;
+        numStateChangesElided = 0;
+    }
 }
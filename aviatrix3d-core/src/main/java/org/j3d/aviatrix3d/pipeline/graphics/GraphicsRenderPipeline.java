@@ -87,4 +87,13 @@ public interface GraphicsRenderPipeline extends RenderPipeline
      * now.
      */
     public void swapBuffers();
+
+    /**
+     * Block until any frame that this pipeline is still drawing has been
+     * completed. The render manager calls this before it runs the update
+     * callbacks for the next frame, so that nothing is drawn from the scene
+     * graph while it is being written to. Pipelines that finish drawing
+     * before render() returns have nothing to wait for.
+     */
+    public void waitForDraw();
 }
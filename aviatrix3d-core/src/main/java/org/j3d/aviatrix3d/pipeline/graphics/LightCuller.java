@@ -0,0 +1,895 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.util.Arrays;
+
+import org.j3d.maths.vector.Matrix4d;
+
+// Local imports
+import org.j3d.aviatrix3d.BoundingSphere;
+import org.j3d.aviatrix3d.BoundingVoid;
+import org.j3d.aviatrix3d.Light;
+import org.j3d.aviatrix3d.PointLight;
+import org.j3d.aviatrix3d.SpotLight;
+import org.j3d.aviatrix3d.rendering.BoundingVolume;
+import org.j3d.aviatrix3d.rendering.EffectRenderable;
+import org.j3d.aviatrix3d.rendering.Renderable;
+
+/**
+ * Works out which lights reach each renderable, and keeps only the most
+ * influential of them.
+ * <p>
+ *
+ * Light and object bounds are compared as axis aligned boxes in the space of
+ * the scene root, after transforming the local bounds. Lights bounded by a
+ * sphere are then checked a second time using the sphere itself, which is a
+ * much closer fit for point lights.
+ * <p>
+ *
+ * Global lights are set once per frame through
+ * {@link #setGlobalLights(EffectRenderable[], float[][], int, EffectRenderable[], float[][], int)}.
+ * When there are many bounded global lights, their world bounds are binned
+ * into a uniform grid so that each object only tests the lights in the cells
+ * it overlaps, instead of every light in the scene.
+ * <p>
+ *
+ * When an object ends up with more lights than the limit, each light is
+ * given an importance of its brightest diffuse colour component, divided by
+ * the attenuation at the distance between the light and the object bounds.
+ * Directional lights, and anything else that is not a point or spot light,
+ * have no attenuation. The strongest lights are kept, in their original
+ * order so that the sort stage can still match light sets between objects.
+ * <p>
+ *
+ * This class is not thread safe. All working space is kept between frames,
+ * so no allocation takes place once the scene has reached a steady size.
+ */
+class LightCuller
+{
+    /** Default maximum number of lights for an object, the OpenGL minimum */
+    static final int DEFAULT_MAX_LIGHTS = 8;
+
+    /** Use the grid once there are at least this many bounded lights */
+    static final int GRID_THRESHOLD = 16;
+
+    /** Maximum number of grid cells along each axis */
+    private static final int MAX_GRID_DIM = 32;
+
+    /** Maximum number of lights to keep per object. Zero for no limit */
+    private int maxLights;
+
+    /** The global lights without bounds for this frame */
+    private EffectRenderable[] globalLights;
+
+    /** Transforms of the global lights, transposed */
+    private float[][] globalTx;
+
+    /** Number of valid global lights */
+    private int numGlobal;
+
+    /** The bounded global lights for this frame */
+    private EffectRenderable[] boundedLights;
+
+    /** Transforms of the bounded global lights, transposed */
+    private float[][] boundedTx;
+
+    /** Number of valid bounded global lights */
+    private int numBounded;
+
+    /** World space box of each bounded light. 3 values per light */
+    private float[] lightMin;
+
+    /** World space box of each bounded light. 3 values per light */
+    private float[] lightMax;
+
+    /**
+     * World space sphere of each bounded light as centre and radius. The
+     * radius is negative if the light is not bounded by a sphere.
+     */
+    private float[] lightSphere;
+
+    /** The last query each light was seen by, to remove duplicates */
+    private int[] lightStamp;
+
+    /** Counter for the current query */
+    private int queryStamp;
+
+    /** True if the grid was built for this frame */
+    private boolean useGrid;
+
+    /** Lower corner of the grid */
+    private float[] gridMin;
+
+    /** Upper corner of the grid */
+    private float[] gridMax;
+
+    /** One over the size of a cell along each axis */
+    private float[] gridScale;
+
+    /** Number of cells along each axis */
+    private int[] gridDim;
+
+    /** Start of each cell in cellLights. One more than the cell count */
+    private int[] cellStart;
+
+    /** Light indices of all the cells, one cell after another */
+    private int[] cellLights;
+
+    /** Next place to write to for each cell while building */
+    private int[] cellFill;
+
+    /** Bounded light indices found for the current object */
+    private int[] candidates;
+
+    /** True if the current object has usable bounds */
+    private boolean objectBounded;
+
+    /** World space box of the current object */
+    private float[] objMin;
+
+    /** World space box of the current object */
+    private float[] objMax;
+
+    /** Importance of each light while ranking */
+    private float[] scores;
+
+    /** Lights picked to keep while ranking */
+    private boolean[] keep;
+
+    /** Scratch for reading local bounds */
+    private float[] localMin;
+
+    /** Scratch for reading local bounds */
+    private float[] localMax;
+
+    /** Scratch for a second world box */
+    private float[] testMin;
+
+    /** Scratch for a second world box */
+    private float[] testMax;
+
+    /** Scratch for light values */
+    private float[] tmpVec;
+
+    /**
+     * Create a new culler with the default light limit.
+     */
+    LightCuller()
+    {
+        maxLights = DEFAULT_MAX_LIGHTS;
+
+        lightMin = new float[0];
+        lightMax = new float[0];
+        lightSphere = new float[0];
+        lightStamp = new int[0];
+
+        gridMin = new float[3];
+        gridMax = new float[3];
+        gridScale = new float[3];
+        gridDim = new int[3];
+        cellStart = new int[1];
+        cellLights = new int[0];
+        cellFill = new int[0];
+        candidates = new int[0];
+
+        objMin = new float[3];
+        objMax = new float[3];
+        scores = new float[0];
+        keep = new boolean[0];
+
+        localMin = new float[3];
+        localMax = new float[3];
+        testMin = new float[3];
+        testMax = new float[3];
+        tmpVec = new float[3];
+    }
+
+    /**
+     * Set the maximum number of lights an object may keep.
+     *
+     * @param max The limit, or zero or less for no limit
+     */
+    void setMaxLights(int max)
+    {
+        maxLights = max < 0 ? 0 : max;
+    }
+
+    /**
+     * Get the maximum number of lights an object may keep.
+     *
+     * @return The limit, or zero for no limit
+     */
+    int getMaxLights()
+    {
+        return maxLights;
+    }
+
+    /**
+     * Set the global lights for this frame, and build the grid of bounded
+     * lights if there are enough of them. The arrays are referenced, not
+     * copied, so must not change until the lights have been assigned.
+     *
+     * @param lights Global lights without bounds
+     * @param lightTx Transposed transforms of the global lights
+     * @param numLights Number of valid global lights
+     * @param bounded Global lights with bounds
+     * @param boundedTx Transposed transforms of the bounded lights
+     * @param numBoundedLights Number of valid bounded lights
+     */
+    void setGlobalLights(EffectRenderable[] lights,
+                         float[][] lightTx,
+                         int numLights,
+                         EffectRenderable[] bounded,
+                         float[][] boundedTx,
+                         int numBoundedLights)
+    {
+        globalLights = lights;
+        globalTx = lightTx;
+        numGlobal = numLights;
+        boundedLights = bounded;
+        this.boundedTx = boundedTx;
+        numBounded = numBoundedLights;
+
+        useGrid = false;
+
+        if(numBounded == 0)
+            return;
+
+        if(lightMin.length < numBounded * 3)
+        {
+            int size = numBounded * 3 + 24;
+            lightMin = new float[size];
+            lightMax = new float[size];
+            lightSphere = new float[size / 3 * 4];
+            lightStamp = new int[size / 3];
+            candidates = new int[size / 3];
+            queryStamp = 0;
+        }
+
+        for(int i = 0; i < numBounded; i++)
+            calcLightBounds(i);
+
+        if(numBounded >= GRID_THRESHOLD)
+            buildGrid();
+    }
+
+    /**
+     * Drop the references to the global lights once they have been assigned.
+     */
+    void clearGlobalLights()
+    {
+        globalLights = null;
+        globalTx = null;
+        boundedLights = null;
+        boundedTx = null;
+        numGlobal = 0;
+        numBounded = 0;
+        useGrid = false;
+    }
+
+    /**
+     * Add the global lights that reach the object to its light list, then
+     * cut the list down to the most influential lights if it is over the
+     * limit. Local lights already in the list are kept ahead of the globals.
+     *
+     * @param details The object to assign lights to
+     */
+    void assignLights(GraphicsCullOutputDetails details)
+    {
+        int valid_lights = details.numLights;
+        int req_size = valid_lights + numGlobal + numBounded;
+
+        if(req_size == 0)
+            return;
+
+        int src_size = (details.lights == null) ? 0 : details.lights.length;
+
+        if(src_size < req_size)
+        {
+            VisualDetails[] tmp = new VisualDetails[req_size];
+            if(src_size != 0)
+                System.arraycopy(details.lights, 0, tmp, 0, src_size);
+
+            for(int j = src_size; j < req_size; j++)
+                tmp[j] = new VisualDetails();
+
+            details.lights = tmp;
+        }
+
+        setObjectBounds(details.cullableBounds, details.transform);
+
+        VisualDetails[] l_tmp = details.lights;
+
+        for(int j = 0; j < numGlobal; j++)
+        {
+            l_tmp[valid_lights].update(globalLights[j], globalTx[j]);
+            valid_lights++;
+        }
+
+        if(numBounded != 0)
+        {
+            int num_found = findBoundedLights();
+
+            for(int j = 0; j < num_found; j++)
+            {
+                int idx = candidates[j];
+                l_tmp[valid_lights].update(boundedLights[idx], boundedTx[idx]);
+                valid_lights++;
+            }
+        }
+
+        if(maxLights != 0 && valid_lights > maxLights)
+            valid_lights = keepStrongest(l_tmp, valid_lights);
+
+        details.numLights = valid_lights;
+    }
+
+    /**
+     * Check if the bounds of an object and a light intersect. Both sets of
+     * bounds are in their local space with the given transforms to the
+     * scene root. Missing object bounds intersect everything.
+     *
+     * @param geomBounds The bounds of the object, may be null
+     * @param geomTx The transform of the object
+     * @param lightBounds The bounds of the light
+     * @param lightTx The transposed transform of the light
+     * @return true if the bounds may overlap
+     */
+    boolean checkIntersect(BoundingVolume geomBounds,
+                           Matrix4d geomTx,
+                           BoundingVolume lightBounds,
+                           float[] lightTx)
+    {
+        if(!setObjectBounds(geomBounds, geomTx) ||
+           lightBounds == null ||
+           lightBounds instanceof BoundingVoid)
+            return true;
+
+        lightBounds.getExtents(localMin, localMax);
+        transformBox(lightTx, localMin, localMax, testMin, 0, testMax, 0);
+
+        if(!boxOverlap(testMin, testMax, 0))
+            return false;
+
+        if(lightBounds instanceof BoundingSphere)
+        {
+            BoundingSphere sphere = (BoundingSphere)lightBounds;
+            sphere.getCenter(tmpVec);
+            float r = sphere.getRadius() * maxScale(lightTx);
+            transformPoint(lightTx, tmpVec);
+
+            return distanceSquared(tmpVec[0], tmpVec[1], tmpVec[2]) <= r * r;
+        }
+
+        return true;
+    }
+
+    /**
+     * Work out the world box of the object and keep it for the tests that
+     * follow.
+     *
+     * @param bounds The local bounds of the object, may be null
+     * @param mat The transform of the object
+     * @return true if the object has usable bounds
+     */
+    private boolean setObjectBounds(BoundingVolume bounds, Matrix4d mat)
+    {
+        if(bounds == null || bounds instanceof BoundingVoid)
+        {
+            // Only the position is known, which is still good enough for
+            // ranking lights by distance.
+            objMin[0] = objMax[0] = (float)mat.m03;
+            objMin[1] = objMax[1] = (float)mat.m13;
+            objMin[2] = objMax[2] = (float)mat.m23;
+            objectBounded = false;
+        }
+        else
+        {
+            bounds.getExtents(localMin, localMax);
+
+            float cx = (localMin[0] + localMax[0]) * 0.5f;
+            float cy = (localMin[1] + localMax[1]) * 0.5f;
+            float cz = (localMin[2] + localMax[2]) * 0.5f;
+            float hx = (localMax[0] - localMin[0]) * 0.5f;
+            float hy = (localMax[1] - localMin[1]) * 0.5f;
+            float hz = (localMax[2] - localMin[2]) * 0.5f;
+
+            float wx = (float)(mat.m00 * cx + mat.m01 * cy + mat.m02 * cz + mat.m03);
+            float wy = (float)(mat.m10 * cx + mat.m11 * cy + mat.m12 * cz + mat.m13);
+            float wz = (float)(mat.m20 * cx + mat.m21 * cy + mat.m22 * cz + mat.m23);
+
+            float ex = (float)(Math.abs(mat.m00) * hx + Math.abs(mat.m01) * hy + Math.abs(mat.m02) * hz);
+            float ey = (float)(Math.abs(mat.m10) * hx + Math.abs(mat.m11) * hy + Math.abs(mat.m12) * hz);
+            float ez = (float)(Math.abs(mat.m20) * hx + Math.abs(mat.m21) * hy + Math.abs(mat.m22) * hz);
+
+            objMin[0] = wx - ex;
+            objMin[1] = wy - ey;
+            objMin[2] = wz - ez;
+            objMax[0] = wx + ex;
+            objMax[1] = wy + ey;
+            objMax[2] = wz + ez;
+            objectBounded = true;
+        }
+
+        return objectBounded;
+    }
+
+    /**
+     * Find the bounded global lights that reach the current object. The
+     * indices are left in the candidates list in ascending order.
+     *
+     * @return The number of lights found
+     */
+    private int findBoundedLights()
+    {
+        int num_found = 0;
+
+        if(!objectBounded)
+        {
+            for(int i = 0; i < numBounded; i++)
+                candidates[num_found++] = i;
+
+            return num_found;
+        }
+
+        if(!useGrid)
+        {
+            for(int i = 0; i < numBounded; i++)
+            {
+                if(lightReaches(i))
+                    candidates[num_found++] = i;
+            }
+
+            return num_found;
+        }
+
+        for(int i = 0; i < 3; i++)
+        {
+            if(objMax[i] < gridMin[i] || objMin[i] > gridMax[i])
+                return 0;
+        }
+
+        int lx = clampCell(objMin[0], 0);
+        int ly = clampCell(objMin[1], 1);
+        int lz = clampCell(objMin[2], 2);
+        int hx = clampCell(objMax[0], 0);
+        int hy = clampCell(objMax[1], 1);
+        int hz = clampCell(objMax[2], 2);
+
+        if(++queryStamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(lightStamp, 0);
+            queryStamp = 1;
+        }
+
+        int dim_x = gridDim[0];
+        int dim_xy = dim_x * gridDim[1];
+
+        for(int z = lz; z <= hz; z++)
+        {
+            for(int y = ly; y <= hy; y++)
+            {
+                for(int x = lx; x <= hx; x++)
+                {
+                    int cell = x + y * dim_x + z * dim_xy;
+                    int end = cellStart[cell + 1];
+
+                    for(int j = cellStart[cell]; j < end; j++)
+                    {
+                        int idx = cellLights[j];
+
+                        if(lightStamp[idx] == queryStamp)
+                            continue;
+
+                        lightStamp[idx] = queryStamp;
+
+                        if(lightReaches(idx))
+                            candidates[num_found++] = idx;
+                    }
+                }
+            }
+        }
+
+        // Keep the same order as the light list, so that objects lit by the
+        // same lights end up with identical lists for the sort stage.
+        Arrays.sort(candidates, 0, num_found);
+
+        return num_found;
+    }
+
+    /**
+     * Check if a bounded global light reaches the current object.
+     *
+     * @param idx Index of the light
+     * @return true if the light bounds overlap the object bounds
+     */
+    private boolean lightReaches(int idx)
+    {
+        int off = idx * 3;
+
+        if(!boxOverlap(lightMin, lightMax, off))
+            return false;
+
+        int s_off = idx * 4;
+        float r = lightSphere[s_off + 3];
+
+        if(r < 0)
+            return true;
+
+        return distanceSquared(lightSphere[s_off],
+                               lightSphere[s_off + 1],
+                               lightSphere[s_off + 2]) <= r * r;
+    }
+
+    /**
+     * Calculate the world bounds of a bounded global light.
+     *
+     * @param idx Index of the light
+     */
+    private void calcLightBounds(int idx)
+    {
+        BoundingVolume bounds = boundedLights[idx].getEffectBounds();
+        float[] tx = boundedTx[idx];
+
+        bounds.getExtents(localMin, localMax);
+        transformBox(tx, localMin, localMax, lightMin, idx * 3, lightMax, idx * 3);
+
+        int s_off = idx * 4;
+
+        if(bounds instanceof BoundingSphere)
+        {
+            BoundingSphere sphere = (BoundingSphere)bounds;
+            sphere.getCenter(tmpVec);
+            transformPoint(tx, tmpVec);
+
+            lightSphere[s_off] = tmpVec[0];
+            lightSphere[s_off + 1] = tmpVec[1];
+            lightSphere[s_off + 2] = tmpVec[2];
+            lightSphere[s_off + 3] = sphere.getRadius() * maxScale(tx);
+        }
+        else
+        {
+            lightSphere[s_off + 3] = -1;
+        }
+    }
+
+    /**
+     * Bin the bounded global lights into a uniform grid covering all of
+     * them. The cell size is the average light size, limited so that the
+     * grid does not get too many cells.
+     */
+    private void buildGrid()
+    {
+        float avg_size = 0;
+
+        for(int i = 0; i < 3; i++)
+        {
+            gridMin[i] = Float.POSITIVE_INFINITY;
+            gridMax[i] = Float.NEGATIVE_INFINITY;
+        }
+
+        for(int i = 0; i < numBounded; i++)
+        {
+            int off = i * 3;
+            float size = 0;
+
+            for(int j = 0; j < 3; j++)
+            {
+                if(lightMin[off + j] < gridMin[j])
+                    gridMin[j] = lightMin[off + j];
+
+                if(lightMax[off + j] > gridMax[j])
+                    gridMax[j] = lightMax[off + j];
+
+                float d = lightMax[off + j] - lightMin[off + j];
+                if(d > size)
+                    size = d;
+            }
+
+            avg_size += size;
+        }
+
+        avg_size /= numBounded;
+
+        int num_cells = 1;
+
+        for(int i = 0; i < 3; i++)
+        {
+            float extent = gridMax[i] - gridMin[i];
+            int dim = 1;
+
+            if(avg_size > 0 && extent > 0)
+                dim = (int)Math.ceil(extent / avg_size);
+
+            if(dim < 1)
+                dim = 1;
+            else if(dim > MAX_GRID_DIM)
+                dim = MAX_GRID_DIM;
+
+            gridDim[i] = dim;
+            gridScale[i] = extent > 0 ? dim / extent : 0;
+            num_cells *= dim;
+        }
+
+        if(cellStart.length < num_cells + 1)
+        {
+            cellStart = new int[num_cells + 1];
+            cellFill = new int[num_cells];
+        }
+
+        Arrays.fill(cellStart, 0, num_cells + 1, 0);
+
+        // First pass counts the lights in each cell, second pass fills them
+        int total = 0;
+
+        for(int pass = 0; pass < 2; pass++)
+        {
+            for(int i = 0; i < numBounded; i++)
+            {
+                int off = i * 3;
+                int lx = clampCell(lightMin[off], 0);
+                int ly = clampCell(lightMin[off + 1], 1);
+                int lz = clampCell(lightMin[off + 2], 2);
+                int hx = clampCell(lightMax[off], 0);
+                int hy = clampCell(lightMax[off + 1], 1);
+                int hz = clampCell(lightMax[off + 2], 2);
+
+                for(int z = lz; z <= hz; z++)
+                {
+                    for(int y = ly; y <= hy; y++)
+                    {
+                        for(int x = lx; x <= hx; x++)
+                        {
+                            int cell = x + (y + z * gridDim[1]) * gridDim[0];
+
+                            if(pass == 0)
+                                cellStart[cell + 1]++;
+                            else
+                                cellLights[cellFill[cell]++] = i;
+                        }
+                    }
+                }
+            }
+
+            if(pass == 0)
+            {
+                for(int i = 0; i < num_cells; i++)
+                    cellStart[i + 1] += cellStart[i];
+
+                total = cellStart[num_cells];
+
+                if(cellLights.length < total)
+                    cellLights = new int[total + (total >> 1)];
+
+                System.arraycopy(cellStart, 0, cellFill, 0, num_cells);
+            }
+        }
+
+        useGrid = true;
+    }
+
+    /**
+     * Find the cell along one axis for a value, clamped to the grid.
+     *
+     * @param value The world coordinate
+     * @param axis The axis to use
+     * @return A cell index along that axis
+     */
+    private int clampCell(float value, int axis)
+    {
+        int c = (int)Math.floor((value - gridMin[axis]) * gridScale[axis]);
+
+        if(c < 0)
+            return 0;
+
+        return c >= gridDim[axis] ? gridDim[axis] - 1 : c;
+    }
+
+    /**
+     * Cut the light list down to the limit, keeping the most influential
+     * lights in their original order.
+     *
+     * @param lights The light list of the object
+     * @param numLights The number of valid lights in the list
+     * @return The new number of valid lights
+     */
+    private int keepStrongest(VisualDetails[] lights, int numLights)
+    {
+        if(scores.length < numLights)
+        {
+            scores = new float[numLights + 8];
+            keep = new boolean[numLights + 8];
+        }
+
+        for(int i = 0; i < numLights; i++)
+        {
+            scores[i] = importance(lights[i].getRenderable(),
+                                   lights[i].getTransform());
+            keep[i] = false;
+        }
+
+        for(int k = 0; k < maxLights; k++)
+        {
+            int best = -1;
+
+            for(int i = 0; i < numLights; i++)
+            {
+                if(!keep[i] && (best == -1 || scores[i] > scores[best]))
+                    best = i;
+            }
+
+            keep[best] = true;
+        }
+
+        // Move the kept details down, swapping rather than overwriting so
+        // that every details instance stays in the array for reuse.
+        int valid = 0;
+
+        for(int i = 0; i < numLights; i++)
+        {
+            if(!keep[i])
+                continue;
+
+            if(i != valid)
+            {
+                VisualDetails tmp = lights[valid];
+                lights[valid] = lights[i];
+                lights[i] = tmp;
+            }
+
+            valid++;
+        }
+
+        // Don't hold on to the dropped lights past the end of the frame
+        for(int i = valid; i < numLights; i++)
+            lights[i].clear();
+
+        return valid;
+    }
+
+    /**
+     * Work out how much a light contributes to the current object.
+     *
+     * @param r The light
+     * @param tx The transposed transform of the light
+     * @return The importance, larger is more important
+     */
+    private float importance(Renderable r, float[] tx)
+    {
+        if(!(r instanceof Light))
+            return 1;
+
+        Light light = (Light)r;
+        light.getDiffuseColor(tmpVec);
+
+        float brightness = Math.max(tmpVec[0], Math.max(tmpVec[1], tmpVec[2]));
+
+        float c, l, q;
+
+        if(r instanceof PointLight)
+        {
+            PointLight pl = (PointLight)r;
+            pl.getAttenuation(tmpVec);
+            c = tmpVec[0];
+            l = tmpVec[1];
+            q = tmpVec[2];
+            pl.getPosition(tmpVec);
+        }
+        else if(r instanceof SpotLight)
+        {
+            SpotLight sl = (SpotLight)r;
+            sl.getAttenuation(tmpVec);
+            c = tmpVec[0];
+            l = tmpVec[1];
+            q = tmpVec[2];
+            sl.getPosition(tmpVec);
+        }
+        else
+            return brightness;
+
+        transformPoint(tx, tmpVec);
+
+        float d = (float)Math.sqrt(distanceSquared(tmpVec[0], tmpVec[1], tmpVec[2]));
+        float atten = c + l * d + q * d * d;
+
+        return atten > 0 ? brightness / atten : brightness;
+    }
+
+    /**
+     * Check if a world box overlaps the current object.
+     *
+     * @param min Array holding the lower corner
+     * @param max Array holding the upper corner
+     * @param offset Index of the first value in the arrays
+     * @return true if they overlap
+     */
+    private boolean boxOverlap(float[] min, float[] max, int offset)
+    {
+        return min[offset] <= objMax[0] && max[offset] >= objMin[0] &&
+               min[offset + 1] <= objMax[1] && max[offset + 1] >= objMin[1] &&
+               min[offset + 2] <= objMax[2] && max[offset + 2] >= objMin[2];
+    }
+
+    /**
+     * Squared distance from a point to the nearest point of the current
+     * object box. Zero if the point is inside.
+     */
+    private float distanceSquared(float x, float y, float z)
+    {
+        float dx = x < objMin[0] ? objMin[0] - x : (x > objMax[0] ? x - objMax[0] : 0);
+        float dy = y < objMin[1] ? objMin[1] - y : (y > objMax[1] ? y - objMax[1] : 0);
+        float dz = z < objMin[2] ? objMin[2] - z : (z > objMax[2] ? z - objMax[2] : 0);
+
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Transform a local box by a transposed matrix into a world box.
+     */
+    private static void transformBox(float[] tx,
+                                     float[] min,
+                                     float[] max,
+                                     float[] outMin,
+                                     int minOffset,
+                                     float[] outMax,
+                                     int maxOffset)
+    {
+        float cx = (min[0] + max[0]) * 0.5f;
+        float cy = (min[1] + max[1]) * 0.5f;
+        float cz = (min[2] + max[2]) * 0.5f;
+        float hx = (max[0] - min[0]) * 0.5f;
+        float hy = (max[1] - min[1]) * 0.5f;
+        float hz = (max[2] - min[2]) * 0.5f;
+
+        for(int i = 0; i < 3; i++)
+        {
+            float c = tx[i] * cx + tx[4 + i] * cy + tx[8 + i] * cz + tx[12 + i];
+            float e = Math.abs(tx[i]) * hx +
+                      Math.abs(tx[4 + i]) * hy +
+                      Math.abs(tx[8 + i]) * hz;
+
+            outMin[minOffset + i] = c - e;
+            outMax[maxOffset + i] = c + e;
+        }
+    }
+
+    /**
+     * Transform a point in place by a transposed matrix.
+     */
+    private static void transformPoint(float[] tx, float[] pos)
+    {
+        float x = pos[0];
+        float y = pos[1];
+        float z = pos[2];
+
+        pos[0] = tx[0] * x + tx[4] * y + tx[8] * z + tx[12];
+        pos[1] = tx[1] * x + tx[5] * y + tx[9] * z + tx[13];
+        pos[2] = tx[2] * x + tx[6] * y + tx[10] * z + tx[14];
+    }
+
+    /**
+     * Largest axis scale of a transposed matrix, for scaling a radius.
+     */
+    private static float maxScale(float[] tx)
+    {
+        float sx = tx[0] * tx[0] + tx[1] * tx[1] + tx[2] * tx[2];
+        float sy = tx[4] * tx[4] + tx[5] * tx[5] + tx[6] * tx[6];
+        float sz = tx[8] * tx[8] + tx[9] * tx[9] + tx[10] * tx[10];
+
+        return (float)Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+    }
+}
@@ -92,10 +92,7 @@ public class NullSortStage extends BaseSortStage
 
                     float[] src_tx = ld.getTransform();
 
-                    for(int k = 0; k < 16; k++)
-                    {
-                        instr.renderList[idx].transform[k] = src_tx[k];
-                    }
+                    instr.renderList[idx].setTransform(src_tx);
 
                     instr.renderList[idx].id = lastGlobalId++;
                     instr.renderOps[idx] = RenderOp.START_LIGHT;
@@ -113,10 +110,7 @@ public class NullSortStage extends BaseSortStage
 
                     float[] src_tx = cd.getTransform();
 
-                    for(int k = 0; k < 16; k++)
-                    {
-                        instr.renderList[idx].transform[k] = src_tx[k];
-                    }
+                    instr.renderList[idx].setTransform(src_tx);
 
                     instr.renderList[idx].id = lastGlobalId++;
                     instr.renderOps[idx] = RenderOp.START_CLIP_PLANE;
@@ -149,25 +143,7 @@ public class NullSortStage extends BaseSortStage
                         idx++;
                     }
 
-                    instr.renderList[idx].transform[0] = tx.m00;
-                    instr.renderList[idx].transform[1] = tx.m10;
-                    instr.renderList[idx].transform[2] = tx.m20;
-                    instr.renderList[idx].transform[3] = tx.m30;
-
-                    instr.renderList[idx].transform[4] = tx.m01;
-                    instr.renderList[idx].transform[5] = tx.m11;
-                    instr.renderList[idx].transform[6] = tx.m21;
-                    instr.renderList[idx].transform[7] = tx.m31;
-
-                    instr.renderList[idx].transform[8] = tx.m02;
-                    instr.renderList[idx].transform[9] = tx.m12;
-                    instr.renderList[idx].transform[10] = tx.m22;
-                    instr.renderList[idx].transform[11] = tx.m32;
-
-                    instr.renderList[idx].transform[12] = tx.m03;
-                    instr.renderList[idx].transform[13] = tx.m13;
-                    instr.renderList[idx].transform[14] = tx.m23;
-                    instr.renderList[idx].transform[15] = tx.m33;
+                    instr.renderList[idx].setTransform(tx);
 
                     instr.renderList[idx].renderable = shape.getGeometryRenderable();
                     instr.renderOps[idx] = RenderOp.RENDER_GEOMETRY;
@@ -191,25 +167,7 @@ public class NullSortStage extends BaseSortStage
                         idx++;
                     }
 
-                    instr.renderList[idx].transform[0] = tx.m00;
-                    instr.renderList[idx].transform[1] = 0;
-                    instr.renderList[idx].transform[2] = 0;
-                    instr.renderList[idx].transform[3] = tx.m30;
-
-                    instr.renderList[idx].transform[4] = 0;
-                    instr.renderList[idx].transform[5] = tx.m11;
-                    instr.renderList[idx].transform[6] = 0;
-                    instr.renderList[idx].transform[7] = tx.m31;
-
-                    instr.renderList[idx].transform[8] = 0;
-                    instr.renderList[idx].transform[9] = 0;
-                    instr.renderList[idx].transform[10] = 0;
-                    instr.renderList[idx].transform[11] = 0;
-
-                    instr.renderList[idx].transform[12] = 0;
-                    instr.renderList[idx].transform[13] = 0;
-                    instr.renderList[idx].transform[14] = 0;
-                    instr.renderList[idx].transform[15] = 0;
+                    instr.renderList[idx].set2DTransform(tx);
 
                     instr.renderList[idx].renderable = shape.getGeometryRenderable();
                     instr.renderOps[idx] = RenderOp.RENDER_GEOMETRY_2D;
@@ -230,25 +188,7 @@ public class NullSortStage extends BaseSortStage
 
                 Matrix4d tx = nodes[i].transform;
 
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = tx.m10;
-                instr.renderList[idx].transform[2] = tx.m20;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = tx.m01;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = tx.m21;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = tx.m02;
-                instr.renderList[idx].transform[9] = tx.m12;
-                instr.renderList[idx].transform[10] = tx.m22;
-                instr.renderList[idx].transform[11] = tx.m32;
-
-                instr.renderList[idx].transform[12] = tx.m03;
-                instr.renderList[idx].transform[13] = tx.m13;
-                instr.renderList[idx].transform[14] = tx.m23;
-                instr.renderList[idx].transform[15] = tx.m33;
+                instr.renderList[idx].setTransform(tx);
 
                 instr.renderOps[idx] = RenderOp.RENDER_CUSTOM;
                 idx++;
@@ -341,25 +281,7 @@ public class NullSortStage extends BaseSortStage
                 // state/depth/transparency sorting in this section.
                 Matrix4d tx = nodes[i].transform;
 
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = tx.m10;
-                instr.renderList[idx].transform[2] = tx.m20;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = tx.m01;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = tx.m21;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = tx.m02;
-                instr.renderList[idx].transform[9] = tx.m12;
-                instr.renderList[idx].transform[10] = tx.m22;
-                instr.renderList[idx].transform[11] = tx.m32;
-
-                instr.renderList[idx].transform[12] = tx.m03;
-                instr.renderList[idx].transform[13] = tx.m13;
-                instr.renderList[idx].transform[14] = tx.m23;
-                instr.renderList[idx].transform[15] = tx.m33;
+                instr.renderList[idx].setTransform(tx);
 
                 instr.renderList[idx].renderable = nodes[i].renderable;
                 instr.renderOps[idx] = RenderOp.START_RENDER_2D;
@@ -376,25 +298,7 @@ public class NullSortStage extends BaseSortStage
 
                 Matrix4d tx = nodes[i].transform;
 
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = tx.m10;
-                instr.renderList[idx].transform[2] = tx.m20;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = tx.m01;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = tx.m21;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = tx.m02;
-                instr.renderList[idx].transform[9] = tx.m12;
-                instr.renderList[idx].transform[10] = tx.m22;
-                instr.renderList[idx].transform[11] = tx.m32;
-
-                instr.renderList[idx].transform[12] = tx.m03;
-                instr.renderList[idx].transform[13] = tx.m13;
-                instr.renderList[idx].transform[14] = tx.m23;
-                instr.renderList[idx].transform[15] = tx.m33;
+                instr.renderList[idx].setTransform(tx);
 
                 instr.renderOps[idx] = RenderOp.RENDER_CUSTOM;
                 idx++;
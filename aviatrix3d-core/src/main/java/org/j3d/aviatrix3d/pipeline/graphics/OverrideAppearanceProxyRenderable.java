@@ -13,6 +13,8 @@
 package org.j3d.aviatrix3d.pipeline.graphics;
 
 // External imports
+import java.util.Arrays;
+
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 
@@ -94,105 +96,7 @@ class OverrideAppearanceProxyRenderable implements AppearanceRenderable
     OverrideAppearanceProxyRenderable(AppearanceRenderable primary,
                                       AppearanceRenderable secondary)
     {
-        visible = false;
-        transparent = false;
-
-        // Start by populating everything from the primary. Then if
-        // anything is null, copy in the secondary. We could delegate
-        // everything but that means during the rendering loop there
-        // will be a big pile of if statements. We want to avoid that
-        // because it blows performance badly, so let's just make a
-        // direct copy of everything now.
-        if(primary != null)
-        {
-            visible = primary.isVisible();
-
-            material = primary.getMaterialRenderable();
-            shader = primary.getShaderRenderable();
-
-            numTextures = primary.numTextureRenderables();
-
-            if(numTextures != 0)
-            {
-                textureUnits = new TextureRenderable[numTextures];
-                for(int i = 0; i < numTextures; i++)
-                    textureUnits[i] = primary.getTextureRenderable(i);
-            }
-
-            // Welcome to Java's bloody long lines. Yeah, I could probably use a
-            // static import here to shorten it up a bit.
-            blendAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.BLEND_ATTRIBUTE);
-            depthAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.DEPTH_ATTRIBUTE);
-            lineAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.LINE_ATTRIBUTE);
-            pointAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.POINT_ATTRIBUTE);
-            polyAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE);
-            stencilAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.STENCIL_ATTRIBUTE);
-            alphaAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.ALPHA_ATTRIBUTE);
-        }
-
-        // Now work through what we're missing
-
-        if(secondary != null)
-        {
-            if(material == null)
-                material = secondary.getMaterialRenderable();
-
-            if(shader == null)
-                shader = secondary.getShaderRenderable();
-
-            if(numTextures == 0)
-            {
-                numTextures = secondary.numTextureRenderables();
-
-                if(numTextures != 0)
-                {
-                    textureUnits = new TextureRenderable[numTextures];
-                    for(int i = 0; i < numTextures; i++)
-                        textureUnits[i] = secondary.getTextureRenderable(i);
-                }
-            }
-
-            if(blendAttr == null)
-                blendAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.BLEND_ATTRIBUTE);
-
-            if(depthAttr == null)
-                depthAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.DEPTH_ATTRIBUTE);
-
-            if(lineAttr == null)
-                lineAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.LINE_ATTRIBUTE);
-
-            if(pointAttr == null)
-                pointAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.POINT_ATTRIBUTE);
-
-            if(polyAttr == null)
-                polyAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE);
-
-            if(stencilAttr == null)
-                stencilAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.STENCIL_ATTRIBUTE);
-
-            if(alphaAttr == null)
-                alphaAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.ALPHA_ATTRIBUTE);
-
-        }
-
-        // Now we have everything, let's pre-determine the transparency
-        // flag so that we only need to do it once.
-        if(blendAttr != null || shader != null || alphaAttr != null)
-            transparent = false;
-        else if(material != null && material.hasTransparency())
-            transparent = true;
-        else
-        {
-            transparent = false;
-
-            for(int j = 0; j < numTextures && !transparent; j++)
-            {
-                if(textureUnits[j] == null)
-                    continue;
-
-                transparent = textureUnits[j].hasTransparency();
-            }
-        }
+        set(primary, secondary);
     }
 
     //---------------------------------------------------------------
@@ -405,6 +309,7 @@ class OverrideAppearanceProxyRenderable implements AppearanceRenderable
         {
             material.postRender(gl);
             gl.glPopAttrib();
+            GLStateCache.invalidateCurrentLighting();
         }
 
         if(pointAttr != null)
@@ -433,6 +338,7 @@ class OverrideAppearanceProxyRenderable implements AppearanceRenderable
             textureUnits[0].postRender(gl, SINGLE_TEXTURE);
             textureUnits[0].deactivateTexture(gl, SINGLE_TEXTURE);
             gl.glPopAttrib();
+            GLStateCache.invalidateCurrentTextures();
         }
         else if(numTextures > 1)
         {
@@ -443,6 +349,7 @@ class OverrideAppearanceProxyRenderable implements AppearanceRenderable
             }
 
             gl.glPopAttrib();
+            GLStateCache.invalidateCurrentTextures();
         }
     }
 
@@ -491,6 +398,142 @@ class OverrideAppearanceProxyRenderable implements AppearanceRenderable
     // Local Methods
     //---------------------------------------------------------------
 
+    /**
+     * Change the appearances that this proxy combines. Everything is copied
+     * from the primary first, then anything missing is filled in from the
+     * secondary. Used so that proxies can be pooled between frames.
+     *
+     * @param primary The overriding appearance
+     * @param secondary The leaf appearance used to fill in the gaps
+     */
+    void set(AppearanceRenderable primary, AppearanceRenderable secondary)
+    {
+        visible = false;
+        transparent = false;
+
+        material = null;
+        shader = null;
+        numTextures = 0;
+        blendAttr = null;
+        depthAttr = null;
+        lineAttr = null;
+        pointAttr = null;
+        polyAttr = null;
+        stencilAttr = null;
+        alphaAttr = null;
+
+        // Start by populating everything from the primary. Then if
+        // anything is null, copy in the secondary. We could delegate
+        // everything but that means during the rendering loop there
+        // will be a big pile of if statements. We want to avoid that
+        // because it blows performance badly, so let's just make a
+        // direct copy of everything now.
+        if(primary != null)
+        {
+            visible = primary.isVisible();
+
+            material = primary.getMaterialRenderable();
+            shader = primary.getShaderRenderable();
+
+            numTextures = primary.numTextureRenderables();
+
+            if(numTextures != 0)
+            {
+                ensureTextureCapacity(numTextures);
+                for(int i = 0; i < numTextures; i++)
+                    textureUnits[i] = primary.getTextureRenderable(i);
+            }
+
+            // Welcome to Java's bloody long lines. Yeah, I could probably use a
+            // static import here to shorten it up a bit.
+            blendAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.BLEND_ATTRIBUTE);
+            depthAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.DEPTH_ATTRIBUTE);
+            lineAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.LINE_ATTRIBUTE);
+            pointAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.POINT_ATTRIBUTE);
+            polyAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE);
+            stencilAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.STENCIL_ATTRIBUTE);
+            alphaAttr = primary.getAttributeRenderable(AppearanceAttributeRenderable.ALPHA_ATTRIBUTE);
+        }
+
+        // Now work through what we're missing
+
+        if(secondary != null)
+        {
+            if(material == null)
+                material = secondary.getMaterialRenderable();
+
+            if(shader == null)
+                shader = secondary.getShaderRenderable();
+
+            if(numTextures == 0)
+            {
+                numTextures = secondary.numTextureRenderables();
+
+                if(numTextures != 0)
+                {
+                    ensureTextureCapacity(numTextures);
+                    for(int i = 0; i < numTextures; i++)
+                        textureUnits[i] = secondary.getTextureRenderable(i);
+                }
+            }
+
+            if(blendAttr == null)
+                blendAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.BLEND_ATTRIBUTE);
+
+            if(depthAttr == null)
+                depthAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.DEPTH_ATTRIBUTE);
+
+            if(lineAttr == null)
+                lineAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.LINE_ATTRIBUTE);
+
+            if(pointAttr == null)
+                pointAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.POINT_ATTRIBUTE);
+
+            if(polyAttr == null)
+                polyAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE);
+
+            if(stencilAttr == null)
+                stencilAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.STENCIL_ATTRIBUTE);
+
+            if(alphaAttr == null)
+                alphaAttr = secondary.getAttributeRenderable(AppearanceAttributeRenderable.ALPHA_ATTRIBUTE);
+
+        }
+
+        // Now we have everything, let's pre-determine the transparency
+        // flag so that we only need to do it once.
+        if(blendAttr != null || shader != null || alphaAttr != null)
+            transparent = false;
+        else if(material != null && material.hasTransparency())
+            transparent = true;
+        else
+        {
+            transparent = false;
+
+            for(int j = 0; j < numTextures && !transparent; j++)
+            {
+                if(textureUnits[j] == null)
+                    continue;
+
+                transparent = textureUnits[j].hasTransparency();
+            }
+        }
+    }
+
+    /**
+     * Make sure the texture array has room for the given number of units,
+     * clearing any references left from a previous use.
+     *
+     * @param size The number of units required
+     */
+    private void ensureTextureCapacity(int size)
+    {
+        if(textureUnits == null || textureUnits.length < size)
+            textureUnits = new TextureRenderable[size];
+        else
+            Arrays.fill(textureUnits, null);
+    }
+
     /**
      * Compares this object with the specified object for order. Returns a
      * negative integer, zero, or a positive integer as this object is less
@@ -0,0 +1,182 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+// None
+
+// Local imports
+import org.j3d.aviatrix3d.rendering.AppearanceRenderable;
+import org.j3d.aviatrix3d.rendering.ShapeRenderable;
+
+/**
+ * Pool of the proxy renderables that the cull stages create when an
+ * appearance override is active, so that culling does not allocate new
+ * proxies every frame.
+ * <p>
+ *
+ * Proxies handed out during a frame are still referenced by the sorted
+ * render list and the output device after the cull stage has moved on, so
+ * they cannot be reused straight away. The pool keeps a small ring of
+ * generations, one per frame, and only recycles a generation once it is
+ * {@link #NUM_GENERATIONS} frames old. That covers the pipelined rendering
+ * and the redisplay of the last frame when nothing has changed.
+ * <p>
+ *
+ * Each generation grows as needed and never shrinks, so once a scene has
+ * reached a steady state no more proxies are created.
+ * <p>
+ *
+ * This class is not thread safe. Each culling thread needs its own pool.
+ */
+class OverrideProxyPool
+{
+    /** Number of frames a proxy is kept before being reused */
+    static final int NUM_GENERATIONS = 3;
+
+    /** Initial number of each proxy type per generation */
+    private static final int START_SIZE = 16;
+
+    /** Shape proxies for each generation */
+    private OverrideShapeProxyRenderable[][] shapeProxies;
+
+    /** Appearance proxies for each generation */
+    private OverrideAppearanceProxyRenderable[][] appearanceProxies;
+
+    /** Number of shape proxies used in each generation */
+    private int[] numShapes;
+
+    /** Number of appearance proxies used in each generation */
+    private int[] numAppearances;
+
+    /** The generation currently handing out proxies */
+    private int generation;
+
+    /** The frame number last given to startFrame() */
+    private int currentFrame;
+
+    /**
+     * Create a new, empty pool.
+     */
+    OverrideProxyPool()
+    {
+        shapeProxies = new OverrideShapeProxyRenderable[NUM_GENERATIONS][START_SIZE];
+        appearanceProxies =
+            new OverrideAppearanceProxyRenderable[NUM_GENERATIONS][START_SIZE];
+
+        numShapes = new int[NUM_GENERATIONS];
+        numAppearances = new int[NUM_GENERATIONS];
+
+        currentFrame = -1;
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Notify the pool that a new frame is being culled. Calling this more
+     * than once with the same frame number has no effect, so it can be
+     * called freely before the pool is used.
+     *
+     * @param frame The number of the frame being culled
+     */
+    void startFrame(int frame)
+    {
+        if(frame == currentFrame)
+            return;
+
+        currentFrame = frame;
+        generation = (generation + 1) % NUM_GENERATIONS;
+        numShapes[generation] = 0;
+        numAppearances[generation] = 0;
+    }
+
+    /**
+     * Fetch a shape proxy for this frame, set to the given shape and
+     * override appearance.
+     *
+     * @param shape The real shape renderable
+     * @param app The appearance to use instead of the shape's own
+     * @return A proxy ready for use
+     */
+    OverrideShapeProxyRenderable getShapeProxy(ShapeRenderable shape,
+                                               AppearanceRenderable app)
+    {
+        OverrideShapeProxyRenderable[] list = shapeProxies[generation];
+        int idx = numShapes[generation];
+
+        if(idx == list.length)
+        {
+            OverrideShapeProxyRenderable[] tmp =
+                new OverrideShapeProxyRenderable[idx * 2];
+            System.arraycopy(list, 0, tmp, 0, idx);
+            list = tmp;
+            shapeProxies[generation] = tmp;
+        }
+
+        OverrideShapeProxyRenderable ret_val = list[idx];
+
+        if(ret_val == null)
+        {
+            ret_val = new OverrideShapeProxyRenderable(shape, app);
+            list[idx] = ret_val;
+        }
+        else
+            ret_val.set(shape, app);
+
+        numShapes[generation] = idx + 1;
+
+        return ret_val;
+    }
+
+    /**
+     * Fetch an appearance proxy for this frame that combines the given
+     * override and leaf appearances.
+     *
+     * @param primary The override appearance
+     * @param secondary The leaf appearance used to fill in the gaps
+     * @return A proxy ready for use
+     */
+    OverrideAppearanceProxyRenderable getAppearanceProxy(AppearanceRenderable primary,
+                                                         AppearanceRenderable secondary)
+    {
+        OverrideAppearanceProxyRenderable[] list = appearanceProxies[generation];
+        int idx = numAppearances[generation];
+
+        if(idx == list.length)
+        {
+            OverrideAppearanceProxyRenderable[] tmp =
+                new OverrideAppearanceProxyRenderable[idx * 2];
+            System.arraycopy(list, 0, tmp, 0, idx);
+            list = tmp;
+            appearanceProxies[generation] = tmp;
+        }
+
+        OverrideAppearanceProxyRenderable ret_val = list[idx];
+
+        if(ret_val == null)
+        {
+            ret_val = new OverrideAppearanceProxyRenderable(primary, secondary);
+            list[idx] = ret_val;
+        }
+        else
+            ret_val.set(primary, secondary);
+
+        numAppearances[generation] = idx + 1;
+
+        return ret_val;
+    }
+}
@@ -43,8 +43,7 @@ class OverrideShapeProxyRenderable implements ShapeRenderable
      */
     OverrideShapeProxyRenderable(ShapeRenderable s, AppearanceRenderable or)
     {
-        shape = s;
-        override = or;
+        set(s, or);
     }
 
     //---------------------------------------------------------------
@@ -156,6 +155,19 @@ class OverrideShapeProxyRenderable implements ShapeRenderable
     // Local Methods
     //---------------------------------------------------------------
 
+    /**
+     * Change the shape and override that this proxy represents. Used so
+     * that proxies can be pooled between frames.
+     *
+     * @param s The real shape renderable
+     * @param or The overriding appearance
+     */
+    void set(ShapeRenderable s, AppearanceRenderable or)
+    {
+        shape = s;
+        override = or;
+    }
+
     /**
      * Compares this object with the specified object for order. Returns a
      * negative integer, zero, or a positive integer as this object is less
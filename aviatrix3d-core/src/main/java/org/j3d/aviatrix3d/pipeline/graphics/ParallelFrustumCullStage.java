@@ -0,0 +1,1903 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
+
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.BoundingVoid;
+import org.j3d.aviatrix3d.iutil.SharedWorkerPool;
+import org.j3d.aviatrix3d.rendering.*;
+
+/**
+ * Frustum culling stage that splits the traversal of large scene graphs
+ * across a fork/join pool of worker threads.
+ * <p>
+ *
+ * The culling rules are the same as {@link FrustumCullStage}. The difference
+ * is that whenever a group with more than the minimum split size of children
+ * is encountered, and the pool has idle capacity, the range of children is
+ * bisected and each half handed to a separate task. Every task keeps its own
+ * transform, light, clip plane, fog and appearance override stacks, plus its
+ * own output list. When a task completes, its output is spliced onto the end
+ * of the parent's output, so the final list handed to the sort stage is in
+ * exactly the same depth-first order that the single threaded stage would
+ * have produced.
+ * <p>
+ *
+ * Any {@link CustomCullable} or {@link CustomRenderable} implementations in
+ * the scene may be called from more than one thread during a single frame,
+ * though never concurrently for the same object instance unless the
+ * instance is shared in multiple places in the scene graph.
+ * <p>
+ *
+ * By default, the implementation will walk into shape3Ds looking for any
+ * offscreen textures to be rendered. If you know that you do not have any
+ * in the scene, then you can set an internal flag to not look for them, thus
+ * achieving a simple performance boost.
+ */
+public class ParallelFrustumCullStage extends BaseCullStage
+{
+    /** Message for the split size being too small */
+    private static final String INVALID_SPLIT_SIZE_PROP =
+        "org.j3d.aviatrix3d.pipeline.graphics.ParallelFrustumCullStage.invalidSplitSizeMsg";
+
+    /** Default minimum number of children a group needs to be split */
+    private static final int DEFAULT_SPLIT_SIZE = 2;
+
+    /**
+     * Only fork new work while the local task queue has fewer than this many
+     * tasks waiting to be stolen. Stops us flooding the pool with tiny tasks.
+     */
+    private static final int MAX_SURPLUS_TASKS = 3;
+
+    /** Initial size of the output list for a forked task */
+    private static final int TASK_LIST_START_SIZE = 64;
+
+    /** The pool that the culling tasks are run in */
+    private final ForkJoinPool forkPool;
+
+    /** True if the pool was created by this stage and may be shut down */
+    private final boolean ownsPool;
+
+    /** The minimum size of a child range before it may be split */
+    private int minSplitSize;
+
+    /** Working var to calculate the view matrix */
+    private Matrix4d viewMatrix;
+
+    /** The planes describing this frustum */
+    private Vector4d[] frustumPlanes;
+
+    /** Projection matrix used to generate the frustum planes with. */
+    private Matrix4d prjMatrix;
+
+    /** Array form of the projection matrix */
+    private float[] projectionMatrix;
+
+    /** Working array for fetching the view frustum for ortho projections */
+    private double[] orthoFrustum;
+
+    /** Angular resolution for this scene. Field of view / viewport width */
+    private float angularResolution;
+
+    /** The traversal state that writes directly into the output bucket */
+    private CullState rootState;
+
+    /** Recycled traversal states for the forked tasks */
+    private ArrayList<CullState> statePool;
+
+    /** Lock for the offscreen texture handling in the base class */
+    private final Object offscreenLock;
+
+    /**
+     * Task that processes either a complete subgraph from a root node, or a
+     * range of the children of a single group.
+     */
+    private class CullTask extends RecursiveAction
+    {
+        /** The state this task writes its output to */
+        private final CullState state;
+
+        /** If processing a subgraph, the root node of it. Otherwise null */
+        private final Cullable root;
+
+        /** The list of children to process a range of */
+        private final Cullable[] children;
+
+        /** The first child index to process */
+        private final int start;
+
+        /** The index after the last child to process */
+        private final int end;
+
+        /** All of the children are known to be inside the view frustum */
+        private final boolean allInBounds;
+
+        /**
+         * Create a task that processes a complete subgraph.
+         *
+         * @param state The state instance to write output to
+         * @param root The root node of the graph to process
+         */
+        CullTask(CullState state, Cullable root)
+        {
+            this.state = state;
+            this.root = root;
+
+            children = null;
+            start = 0;
+            end = 0;
+            allInBounds = false;
+        }
+
+        /**
+         * Create a task that processes a range of children of a group.
+         *
+         * @param state The state instance to write output to
+         * @param kids The list of children to process
+         * @param start The first child index to process
+         * @param end The index after the last child to process
+         * @param allInBounds true if the children are known to be visible
+         */
+        CullTask(CullState state,
+                 Cullable[] kids,
+                 int start,
+                 int end,
+                 boolean allInBounds)
+        {
+            this.state = state;
+            this.children = kids;
+            this.start = start;
+            this.end = end;
+            this.allInBounds = allInBounds;
+
+            root = null;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(root != null)
+                state.processRoot(root);
+            else
+                state.processChildren(children, start, end, allInBounds);
+        }
+    }
+
+    /**
+     * All of the per-thread traversal state. The stacks mirror those found in
+     * the base class, with the addition of a local output list and the
+     * global light lists.
+     */
+    private class CullState
+    {
+        /** A stack used to control the depth of the transform tree */
+        private Matrix4d[] transformStack;
+
+        /** Index to the next place to add items in the transformStack */
+        private int lastTxStack;
+
+        /** A stack used to control the depth of the fog nodes down the tree */
+        private EffectRenderable[] fogStack;
+
+        /** Index to the next place to add items in the fogStack */
+        private int lastFogStack;
+
+        /** The list of lights nodes currently valid while traversing. */
+        private EffectRenderable[] lightList;
+
+        /** The list of light transforms currently valid while traversing */
+        private float[][] lightTxList;
+
+        /** Index to the next place to add items in the lightList */
+        private int lastLight;
+
+        /** The list of clip plane nodes currently valid while traversing. */
+        private EffectRenderable[] clipList;
+
+        /** The list of clip transforms currently valid while traversing */
+        private float[][] clipTxList;
+
+        /** Index to the next place to add items in the clipList */
+        private int lastClip;
+
+        /** A stack used to control the appearance override nodes */
+        private OverrideRenderable[] appearanceStack;
+
+        /** Index to the next place to add items in the appearanceStack */
+        private int lastAppearanceStack;
+
+        /** The list of global lights valid while traversing. */
+        private EffectRenderable[] globalLightList;
+
+        /** The list of global light transforms valid while traversing */
+        private float[][] globalLightTxList;
+
+        /** Index to the next place to add items in the globalLightList */
+        private int lastGlobalLight;
+
+        /** The list of global lights with bounds valid while traversing. */
+        private EffectRenderable[] globalBoundedLightList;
+
+        /** The list of bounded global light transforms */
+        private float[][] globalBoundedLightTxList;
+
+        /** Index to the next place to add items in the bounded list */
+        private int lastGlobalBoundedLight;
+
+        /** The output list for this state */
+        private GraphicsCullOutputDetails[] cullList;
+
+        /** Number of valid items in the output list */
+        private int numNodes;
+
+        /** Class for interacting with the current Cullable object */
+        private CullInstructions cullInstructions;
+
+        /** Class for interacting with the current CustomCullable object */
+        private RenderableInstructions renderInstructions;
+
+        /** Recycled override proxies for the leaves this state finds */
+        private OverrideProxyPool proxies;
+
+        /** Bounds checks for the local lights of this state */
+        private LightCuller localLightCuller;
+
+        /**
+         * Create a new state instance with the given starting output size.
+         *
+         * @param listSize The initial number of output items to allocate
+         */
+        CullState(int listSize)
+        {
+            transformStack = new Matrix4d[TRANSFORM_STACK_SIZE];
+            for(int i = 0; i < TRANSFORM_STACK_SIZE; i++)
+                transformStack[i] = new Matrix4d();
+
+            fogStack = new EffectRenderable[TRANSFORM_STACK_SIZE];
+            appearanceStack = new OverrideRenderable[TRANSFORM_STACK_SIZE];
+
+            lightList = new EffectRenderable[LIGHT_START_SIZE];
+            lightTxList = new float[LIGHT_START_SIZE][16];
+
+            clipList = new EffectRenderable[LIGHT_START_SIZE];
+            clipTxList = new float[LIGHT_START_SIZE][16];
+
+            globalLightList = new EffectRenderable[LIGHT_START_SIZE];
+            globalLightTxList = new float[LIGHT_START_SIZE][16];
+
+            globalBoundedLightList = new EffectRenderable[LIGHT_START_SIZE];
+            globalBoundedLightTxList = new float[LIGHT_START_SIZE][16];
+
+            cullList = new GraphicsCullOutputDetails[listSize];
+            for(int i = 0; i < listSize; i++)
+                cullList[i] = new GraphicsCullOutputDetails();
+
+            cullInstructions = new CullInstructions();
+            renderInstructions = new RenderableInstructions();
+            proxies = new OverrideProxyPool();
+            localLightCuller = new LightCuller();
+        }
+
+        /**
+         * Reset all the stacks back to empty, ready for a new traversal.
+         */
+        void reset()
+        {
+            lastTxStack = 0;
+            lastFogStack = 0;
+            lastLight = 0;
+            lastClip = 0;
+            lastAppearanceStack = 0;
+            lastGlobalLight = 0;
+            lastGlobalBoundedLight = 0;
+            numNodes = 0;
+
+            fogStack[0] = null;
+            appearanceStack[0] = null;
+
+            proxies.startFrame(cullFrame);
+        }
+
+        /**
+         * Copy the currently active state of the parent into this state so
+         * that a forked task can carry on where the parent left off. Only the
+         * top of each stack is needed as the task never pops past it.
+         *
+         * @param parent The state to copy values from
+         */
+        void inherit(CullState parent)
+        {
+            reset();
+
+            transformStack[0].set(parent.transformStack[parent.lastTxStack]);
+
+            if(parent.lastFogStack != 0)
+            {
+                lastFogStack = 1;
+                fogStack[1] = parent.fogStack[parent.lastFogStack];
+            }
+
+            if(parent.lastAppearanceStack != 0)
+            {
+                lastAppearanceStack = 1;
+                appearanceStack[1] =
+                    parent.appearanceStack[parent.lastAppearanceStack];
+            }
+
+            for(int i = 0; i < parent.lastLight; i++)
+            {
+                resizeLightList();
+                lightList[lastLight] = parent.lightList[i];
+                System.arraycopy(parent.lightTxList[i], 0, lightTxList[lastLight], 0, 16);
+                lastLight++;
+            }
+
+            for(int i = 0; i < parent.lastClip; i++)
+            {
+                resizeClipList();
+                clipList[lastClip] = parent.clipList[i];
+                System.arraycopy(parent.clipTxList[i], 0, clipTxList[lastClip], 0, 16);
+                lastClip++;
+            }
+        }
+
+        /**
+         * Append the output and global lights of the child state on to the
+         * end of this state's lists. The output details objects are swapped
+         * between the two lists rather than copied, so the child ends up
+         * holding this state's spare instances.
+         *
+         * @param child The state to take the values from
+         */
+        void merge(CullState child)
+        {
+            int req_size = numNodes + child.numNodes + 1;
+
+            if(cullList.length < req_size)
+            {
+                int new_size = Math.max(req_size, cullList.length * 2);
+                GraphicsCullOutputDetails[] tmp_nodes =
+                    new GraphicsCullOutputDetails[new_size];
+
+                System.arraycopy(cullList, 0, tmp_nodes, 0, cullList.length);
+
+                for(int i = cullList.length; i < new_size; i++)
+                    tmp_nodes[i] = new GraphicsCullOutputDetails();
+
+                cullList = tmp_nodes;
+            }
+
+            for(int i = 0; i < child.numNodes; i++)
+            {
+                GraphicsCullOutputDetails tmp = cullList[numNodes];
+                cullList[numNodes] = child.cullList[i];
+                child.cullList[i] = tmp;
+                numNodes++;
+            }
+
+            for(int i = 0; i < child.lastGlobalLight; i++)
+            {
+                resizeGlobalLightList();
+                globalLightList[lastGlobalLight] = child.globalLightList[i];
+                System.arraycopy(child.globalLightTxList[i],
+                                 0,
+                                 globalLightTxList[lastGlobalLight],
+                                 0,
+                                 16);
+                lastGlobalLight++;
+            }
+
+            for(int i = 0; i < child.lastGlobalBoundedLight; i++)
+            {
+                resizeGlobalBoundedLightList();
+                globalBoundedLightList[lastGlobalBoundedLight] =
+                    child.globalBoundedLightList[i];
+                System.arraycopy(child.globalBoundedLightTxList[i],
+                                 0,
+                                 globalBoundedLightTxList[lastGlobalBoundedLight],
+                                 0,
+                                 16);
+                lastGlobalBoundedLight++;
+            }
+        }
+
+        /**
+         * Clear all the object references held by this state so that they
+         * are not held past the end of the frame.
+         */
+        void clearRefs()
+        {
+            for(int i = 0; i < numNodes; i++)
+            {
+                GraphicsCullOutputDetails d = cullList[i];
+                d.renderable = null;
+                d.localFog = null;
+                d.customData = null;
+                d.cullableBounds = null;
+
+                for(int n = 0; n < d.numLights; n++)
+                    d.lights[n].clear();
+
+                for(int n = 0; n < d.numClipPlanes; n++)
+                    d.clipPlanes[n].clear();
+
+                d.numLights = 0;
+                d.numClipPlanes = 0;
+            }
+
+            for(int i = 0; i < lastLight; i++)
+                lightList[i] = null;
+
+            for(int i = 0; i < lastClip; i++)
+                clipList[i] = null;
+
+            for(int i = 0; i < lastGlobalLight; i++)
+                globalLightList[i] = null;
+
+            for(int i = 0; i < lastGlobalBoundedLight; i++)
+                globalBoundedLightList[i] = null;
+
+            for(int i = 0; i <= lastFogStack; i++)
+                fogStack[i] = null;
+
+            for(int i = 0; i <= lastAppearanceStack; i++)
+                appearanceStack[i] = null;
+
+            renderInstructions.instructions = null;
+
+            for(int i = 0; i < cullInstructions.children.length; ++i)
+                cullInstructions.children[i] = null;
+
+            reset();
+        }
+
+        /**
+         * Process the root node of a scene. The transform stack should
+         * already have been initialised before calling this.
+         *
+         * @param node The root node to process
+         */
+        void processRoot(Cullable node)
+        {
+            if(node instanceof CustomCullable)
+                findAllNodes((CustomCullable)node);
+            else if(node instanceof GroupCullable)
+                findAllNodes((GroupCullable)node, false, false);
+            else if(node instanceof SingleCullable)
+                findNextNode((SingleCullable)node, false, false);
+        }
+
+        /**
+         * Process a range of the children of a group. If the range is big
+         * enough and the pool has spare capacity, it is bisected and the two
+         * halves run as separate tasks, with the output merged back in order.
+         *
+         * @param kids The list of children to process
+         * @param start The first child index to process
+         * @param end The index after the last child to process
+         * @param allInBounds true if the children are known to be visible
+         */
+        void processChildren(Cullable[] kids,
+                             int start,
+                             int end,
+                             boolean allInBounds)
+        {
+            if((end - start >= minSplitSize) &&
+               ForkJoinTask.inForkJoinPool() &&
+               (ForkJoinTask.getSurplusQueuedTaskCount() < MAX_SURPLUS_TASKS))
+            {
+                int mid = (start + end) >>> 1;
+
+                CullState left_state = acquireState(this);
+                CullState right_state = acquireState(this);
+
+                CullTask left =
+                    new CullTask(left_state, kids, start, mid, allInBounds);
+                CullTask right =
+                    new CullTask(right_state, kids, mid, end, allInBounds);
+
+                ForkJoinTask.invokeAll(left, right);
+
+                merge(left_state);
+                merge(right_state);
+
+                releaseState(left_state);
+                releaseState(right_state);
+
+                return;
+            }
+
+            for(int i = start; i < end && !terminate; i++)
+            {
+                // If a tg, push the new TX onto the stack
+                boolean is_tx = (kids[i] instanceof TransformCullable);
+
+                if(is_tx)
+                {
+                    resizeStack();
+                    TransformCullable tg = (TransformCullable)kids[i];
+                    tg.getTransform(transformStack[lastTxStack + 1]);
+
+                    transformStack[lastTxStack + 1].mul(transformStack[lastTxStack],
+                                                        transformStack[lastTxStack + 1]);
+                    lastTxStack++;
+                }
+
+                if(kids[i] instanceof GroupCullable)
+                {
+                    findAllNodes((GroupCullable)kids[i], allInBounds, is_tx);
+                }
+                else if(kids[i] instanceof LeafCullable)
+                {
+                    processLeaf((LeafCullable)kids[i]);
+                }
+                else if(kids[i] instanceof SingleCullable)
+                {
+                    findNextNode((SingleCullable)kids[i], allInBounds, false);
+                }
+                else if(kids[i] instanceof CustomCullable)
+                {
+                    findAllNodes((CustomCullable)kids[i]);
+                }
+
+                // Now pop the stacks.
+                if(is_tx)
+                    lastTxStack--;
+            }
+        }
+
+        /**
+         * Recursive walk of the tree to find all the renderable nodes,
+         * starting from a Cullable object.
+         *
+         * @param root The parent node to walk into
+         */
+        private void findAllNodes(CustomCullable root)
+        {
+            if(terminate)
+                return;
+
+            root.cullChildren(cullInstructions,
+                              transformStack[lastTxStack],
+                              viewMatrix,
+                              frustumPlanes,
+                              angularResolution);
+
+            if(cullInstructions.numChildren == 0)
+                return;
+
+            boolean cull_tx = cullInstructions.hasTransform;
+
+            if(cull_tx)
+            {
+                resizeStack();
+                transformStack[lastTxStack + 1].mul(transformStack[lastTxStack],
+                                                    cullInstructions.localTransform);
+                lastTxStack++;
+            }
+
+            // Make local copy of array because if the scene graph is nested
+            // with custom cullables, then the contents of this array will be
+            // trashed.
+            Cullable[] kids  = cullInstructions.children.clone();
+            int size = cullInstructions.numChildren;
+
+            int light_mark = lastLight;
+            int clip_mark = lastClip;
+            int fog_mark = lastFogStack;
+            int app_mark = lastAppearanceStack;
+
+            processEffects(kids, size);
+            processChildren(kids, 0, size, true);
+            popEffects(light_mark, clip_mark, fog_mark, app_mark);
+
+            if(cull_tx)
+                lastTxStack--;
+        }
+
+        /**
+         * Recursive walk of the tree to find all the renderable nodes.
+         *
+         * @param group The parent node to walk into
+         * @param allInBounds All of this group is inside the view frustum
+         * @param ignoreTrans Ignore the last transformation
+         */
+        private void findAllNodes(GroupCullable group,
+                                  boolean allInBounds,
+                                  boolean ignoreTrans)
+        {
+            if(terminate)
+                return;
+
+            boolean child_all_in = allInBounds;
+
+            if(!allInBounds)
+            {
+                BoundingVolume bounds = group.getBounds();
+                int mat_idx = ignoreTrans ? lastTxStack - 1 : lastTxStack;
+
+                int result = bounds.checkIntersectionFrustum(frustumPlanes,
+                                                             transformStack[mat_idx]);
+
+                switch(result)
+                {
+                    case BoundingVolume.FRUSTUM_ALLOUT:
+                        return;
+
+                    case BoundingVolume.FRUSTUM_ALLIN:
+                        child_all_in = true;
+                        break;
+
+                    case BoundingVolume.FRUSTUM_PARTIAL:
+                        break;
+                }
+            }
+
+            Cullable[] kids  = group.getCullableChildren();
+            int size = group.numCullableChildren();
+
+            int light_mark = lastLight;
+            int clip_mark = lastClip;
+            int fog_mark = lastFogStack;
+            int app_mark = lastAppearanceStack;
+
+            processEffects(kids, size);
+            processChildren(kids, 0, size, child_all_in);
+            popEffects(light_mark, clip_mark, fog_mark, app_mark);
+        }
+
+        /**
+         * From the given SingleCullable instance keep finding a
+         * non-sharedNode instance, before continuing on the recursion
+         *
+         * @param root The parent node to walk into
+         * @param allInBounds All of this group is inside the view frustum
+         * @param ignoreTrans Ignore the last transformation
+         */
+        private void findNextNode(SingleCullable root,
+                                  boolean allInBounds,
+                                  boolean ignoreTrans)
+        {
+            if(terminate)
+                return;
+
+            Cullable current = root.getCullableChild();
+
+            while(current instanceof SingleCullable)
+                current = ((SingleCullable)current).getCullableChild();
+
+            // If a tg, push the new TX onto the stack
+            boolean is_tx = (current instanceof TransformCullable);
+
+            if(is_tx)
+            {
+                resizeStack();
+                TransformCullable tg = (TransformCullable)current;
+                tg.getTransform(transformStack[lastTxStack + 1]);
+
+                transformStack[lastTxStack + 1].mul(transformStack[lastTxStack],
+                                                    transformStack[lastTxStack + 1]);
+                lastTxStack++;
+            }
+
+            if(current instanceof GroupCullable)
+                findAllNodes((GroupCullable)current, allInBounds, is_tx);
+            else if(current instanceof LeafCullable)
+                processLeaf((LeafCullable)current);
+            else if(current instanceof CustomCullable)
+                findAllNodes((CustomCullable)current);
+
+            if(is_tx)
+                lastTxStack--;
+        }
+
+        /**
+         * Process a leaf node that has been found during the traversal,
+         * adding it to the output if it is renderable geometry.
+         *
+         * @param cullable The leaf to process
+         */
+        private void processLeaf(LeafCullable cullable)
+        {
+            if(cullable.getCullableType() != LeafCullable.GEOMETRY_CULLABLE)
+                return;
+
+            Renderable r = cullable.getRenderable();
+
+            if(r instanceof ShapeRenderable)
+            {
+                ShapeRenderable sr = (ShapeRenderable)r;
+
+                if(!sr.isVisible())
+                    return;
+
+                resizeCullList();
+                GraphicsCullOutputDetails details = cullList[numNodes];
+
+                GeometryRenderable gr = sr.getGeometryRenderable();
+                if(gr instanceof CustomGeometryRenderable)
+                {
+                    CustomGeometryRenderable cgr = (CustomGeometryRenderable)gr;
+
+                    details.customData =
+                        cgr.processCull(transformStack[lastTxStack],
+                                        viewMatrix,
+                                        frustumPlanes,
+                                        angularResolution);
+                }
+                else
+                {
+                    details.customData = null;
+                }
+
+                Matrix4d mat = transformStack[lastTxStack];
+                details.transform.set(mat);
+
+                if(sr.is2D())
+                {
+                    details.renderable = r;
+                    details.localFog = null;
+                    details.numLights = 0;
+                    details.numClipPlanes = 0;
+                }
+                else
+                {
+                    // Walk into the shape and check that we don't have any
+                    // offscreen textures to render.
+                    if(checkOffscreens)
+                    {
+                        synchronized(offscreenLock)
+                        {
+                            checkForOffscreens(sr);
+                        }
+                    }
+
+                    if(lastAppearanceStack != 0)
+                    {
+                        OverrideRenderable ovr =
+                            appearanceStack[lastAppearanceStack];
+
+                        AppearanceRenderable app_r =
+                            ovr.getAppearanceRenderable();
+
+                        if(!ovr.useLocalOnlyAppearance())
+                        {
+                            AppearanceRenderable leaf_app =
+                                sr.getAppearanceRenderable();
+
+                            app_r =
+                                proxies.getAppearanceProxy(app_r,
+                                                           leaf_app);
+                        }
+
+                        details.renderable =
+                            proxies.getShapeProxy(sr, app_r);
+                    }
+                    else
+                        details.renderable = r;
+
+                    details.localFog = fogStack[lastFogStack];
+                    details.cullableBounds = cullable.getBounds();
+
+                    copyEffects(details);
+                }
+
+                numNodes++;
+            }
+            else if(cullable instanceof CustomRenderable)
+            {
+                findAllNodes((CustomRenderable)cullable, cullable.getBounds());
+            }
+        }
+
+        /**
+         * Process a CustomRenderable leaf.
+         *
+         * @param root The parent node to walk into
+         * @param bounds The bounds passed down from the owning cullable
+         */
+        private void findAllNodes(CustomRenderable root,
+                                  BoundingVolume bounds)
+        {
+            if(terminate)
+                return;
+
+            if(!root.processCull(renderInstructions,
+                                 transformStack[lastTxStack],
+                                 viewMatrix,
+                                 frustumPlanes,
+                                 angularResolution))
+                return;
+
+            boolean has_tx = renderInstructions.hasTransform;
+
+            if(has_tx)
+            {
+                resizeStack();
+                transformStack[lastTxStack + 1].mul(transformStack[lastTxStack],
+                                                    renderInstructions.localTransform);
+                lastTxStack++;
+            }
+
+            if(checkOffscreens && (root instanceof ShapeRenderable))
+            {
+                synchronized(offscreenLock)
+                {
+                    checkForOffscreens((ShapeRenderable)root);
+                }
+            }
+
+            resizeCullList();
+
+            GraphicsCullOutputDetails details = cullList[numNodes];
+            details.renderable = root;
+            details.localFog = fogStack[lastFogStack];
+            details.customData = renderInstructions.instructions;
+            details.cullableBounds = bounds;
+            details.transform.set(transformStack[lastTxStack]);
+
+            copyEffects(details);
+
+            numNodes++;
+
+            if(has_tx)
+                lastTxStack--;
+        }
+
+        /**
+         * Copy the currently valid lights and clip planes into the output
+         * details object.
+         *
+         * @param details The object to copy the values to
+         */
+        private void copyEffects(GraphicsCullOutputDetails details)
+        {
+            int src_size = (details.lights == null) ? 0 : details.lights.length;
+
+            if(src_size < lastLight)
+            {
+                VisualDetails[] tmp = new VisualDetails[lastLight];
+                if(src_size != 0)
+                    System.arraycopy(details.lights, 0, tmp, 0, src_size);
+
+                for(int j = src_size; j < lastLight; j++)
+                    tmp[j] = new VisualDetails();
+
+                details.lights = tmp;
+            }
+
+            VisualDetails[] l_tmp = details.lights;
+            int valid_lights = 0;
+
+            for(int j = 0; j < lastLight; j++)
+            {
+                BoundingVolume effect = lightList[j].getEffectBounds();
+
+                if((effect == null) ||
+                   localLightCuller.checkIntersect(details.cullableBounds,
+                                                   details.transform,
+                                                   effect,
+                                                   lightTxList[j]))
+                {
+                    l_tmp[valid_lights].update(lightList[j], lightTxList[j]);
+                    valid_lights++;
+                }
+            }
+
+            details.numLights = valid_lights;
+
+            src_size = (details.clipPlanes == null) ?
+                       0 :
+                       details.clipPlanes.length;
+
+            if(src_size < lastClip)
+            {
+                VisualDetails[] tmp = new VisualDetails[lastClip];
+                if(src_size != 0)
+                    System.arraycopy(details.clipPlanes, 0, tmp, 0, src_size);
+
+                for(int j = src_size; j < lastClip; j++)
+                    tmp[j] = new VisualDetails();
+
+                details.clipPlanes = tmp;
+            }
+
+            VisualDetails[] c_tmp = details.clipPlanes;
+            for(int j = 0; j < lastClip; j++)
+                c_tmp[j].update(clipList[j], clipTxList[j]);
+
+            details.numClipPlanes = lastClip;
+        }
+
+        /**
+         * Find all the effects and overrides at this level and push them
+         * onto the stacks.
+         *
+         * @param kids The list of children to look through
+         * @param size The number of valid children in the list
+         */
+        private void processEffects(Cullable[] kids, int size)
+        {
+            boolean have_local_fog = false;
+
+            for(int i = 0; i < size; i++)
+            {
+                if(!(kids[i] instanceof LeafCullable))
+                    continue;
+
+                LeafCullable cullable = (LeafCullable)kids[i];
+                Renderable r = cullable.getRenderable();
+
+                if(!(r instanceof CascadeRenderable))
+                    continue;
+
+                CascadeRenderable cascade = (CascadeRenderable)r;
+
+                if(!cascade.isEnabled())
+                    continue;
+
+                EffectRenderable effect;
+                Matrix4d mat = transformStack[lastTxStack];
+
+                switch(cullable.getCullableType())
+                {
+                    case LeafCullable.LIGHT_CULLABLE:
+                        effect = (EffectRenderable)r;
+                        BoundingVolume l_bounds = effect.getEffectBounds();
+
+                        if(l_bounds instanceof BoundingVoid)
+                            continue;
+
+                        if(effect.isGlobalOnly())
+                        {
+                            if(l_bounds == null)
+                            {
+                                resizeGlobalLightList();
+                                globalLightList[lastGlobalLight] = effect;
+                                copyTransposed(mat, globalLightTxList[lastGlobalLight]);
+                                lastGlobalLight++;
+                            }
+                            else
+                            {
+                                resizeGlobalBoundedLightList();
+                                globalBoundedLightList[lastGlobalBoundedLight] = effect;
+                                copyTransposed(mat,
+                                               globalBoundedLightTxList[lastGlobalBoundedLight]);
+                                lastGlobalBoundedLight++;
+                            }
+                        }
+                        else
+                        {
+                            resizeLightList();
+                            lightList[lastLight] = effect;
+                            copyTransposed(mat, lightTxList[lastLight]);
+                            lastLight++;
+                        }
+                        break;
+
+                    case LeafCullable.CLIP_CULLABLE:
+                        effect = (EffectRenderable)r;
+                        resizeClipList();
+                        clipList[lastClip] = effect;
+                        copyTransposed(mat, clipTxList[lastClip]);
+                        lastClip++;
+                        break;
+
+                    case LeafCullable.FOG_CULLABLE:
+                        effect = (EffectRenderable)r;
+                        if(!effect.isGlobalOnly() && !have_local_fog)
+                        {
+                            resizeFogStack();
+
+                            have_local_fog = true;
+                            lastFogStack++;
+                            fogStack[lastFogStack] = effect;
+                        }
+                        break;
+
+                    case LeafCullable.OVERRIDE_CULLABLE:
+                        OverrideRenderable override = (OverrideRenderable)r;
+
+                        // Check the one that is currently on the stack. If it
+                        // is set to override lower items, then we ignore this
+                        // update. If not set, then we add this item.
+                        if((lastAppearanceStack == 0) ||
+                           !appearanceStack[lastAppearanceStack].overrideLower())
+                        {
+                            resizeAppearanceStack();
+
+                            lastAppearanceStack++;
+                            appearanceStack[lastAppearanceStack] = override;
+                        }
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Pop the effect stacks back to the given marks, clearing references
+         * as we go.
+         *
+         * @param lightMark The light list index to pop back to
+         * @param clipMark The clip list index to pop back to
+         * @param fogMark The fog stack index to pop back to
+         * @param appMark The appearance stack index to pop back to
+         */
+        private void popEffects(int lightMark,
+                                int clipMark,
+                                int fogMark,
+                                int appMark)
+        {
+            while(lastLight > lightMark)
+                lightList[--lastLight] = null;
+
+            while(lastClip > clipMark)
+                clipList[--lastClip] = null;
+
+            while(lastFogStack > fogMark)
+                fogStack[lastFogStack--] = null;
+
+            while(lastAppearanceStack > appMark)
+                appearanceStack[lastAppearanceStack--] = null;
+        }
+
+        /**
+         * Copy the matrix into the array while transposing it into the GL
+         * column-major ordering.
+         *
+         * @param mat The source matrix
+         * @param tx The destination array
+         */
+        private void copyTransposed(Matrix4d mat, float[] tx)
+        {
+            tx[0] = (float)mat.m00;
+            tx[1] = (float)mat.m10;
+            tx[2] = (float)mat.m20;
+            tx[3] = (float)mat.m30;
+
+            tx[4] = (float)mat.m01;
+            tx[5] = (float)mat.m11;
+            tx[6] = (float)mat.m21;
+            tx[7] = (float)mat.m31;
+
+            tx[8] = (float)mat.m02;
+            tx[9] = (float)mat.m12;
+            tx[10] = (float)mat.m22;
+            tx[11] = (float)mat.m32;
+
+            tx[12] = (float)mat.m03;
+            tx[13] = (float)mat.m13;
+            tx[14] = (float)mat.m23;
+            tx[15] = (float)mat.m33;
+        }
+
+        /**
+         * Add the global lights that reach each renderable that this state
+         * has collected, and cut each light list down to the most
+         * influential lights. Called once the traversal has completed.
+         */
+        void processGlobalLights()
+        {
+            int num_globals = lastGlobalLight + lastGlobalBoundedLight;
+
+            if(num_globals == 0 && lightCuller.getMaxLights() == 0)
+                return;
+
+            lightCuller.setGlobalLights(globalLightList,
+                                        globalLightTxList,
+                                        lastGlobalLight,
+                                        globalBoundedLightList,
+                                        globalBoundedLightTxList,
+                                        lastGlobalBoundedLight);
+
+            for(int i = 0; i < numNodes; i++)
+            {
+                GraphicsCullOutputDetails details = cullList[i];
+                Renderable r = details.renderable;
+                boolean add_lights = false;
+
+                if(r instanceof ShapeRenderable)
+                {
+                    ShapeRenderable sr = (ShapeRenderable)r;
+                    add_lights = sr.isVisible() && !sr.is2D();
+                }
+                else if(r instanceof CustomRenderable)
+                {
+                    add_lights = true;
+                }
+
+                if(add_lights)
+                    lightCuller.assignLights(details);
+            }
+
+            lightCuller.clearGlobalLights();
+        }
+
+        /**
+         * Resize the output list if needed.
+         */
+        private void resizeCullList()
+        {
+            if((numNodes + 1) >= cullList.length)
+            {
+                int old_size = cullList.length;
+                int new_size = old_size + Math.max(old_size, LIST_INCREMENT);
+
+                GraphicsCullOutputDetails[] tmp_nodes =
+                    new GraphicsCullOutputDetails[new_size];
+
+                System.arraycopy(cullList, 0, tmp_nodes, 0, old_size);
+
+                for(int i = old_size; i < new_size; i++)
+                    tmp_nodes[i] = new GraphicsCullOutputDetails();
+
+                cullList = tmp_nodes;
+            }
+        }
+
+        /**
+         * Resize the transform stack if needed.
+         */
+        private void resizeStack()
+        {
+            if((lastTxStack + 1) == transformStack.length)
+            {
+                int old_size = transformStack.length;
+                int new_size = old_size + STACK_INCREMENT_SIZE;
+
+                Matrix4d[] tmp_matrix = new Matrix4d[new_size];
+
+                System.arraycopy(transformStack, 0, tmp_matrix, 0, old_size);
+
+                for(int i = old_size; i < new_size; i++)
+                    tmp_matrix[i] = new Matrix4d();
+
+                transformStack = tmp_matrix;
+            }
+        }
+
+        /**
+         * Resize the fog stack if needed.
+         */
+        private void resizeFogStack()
+        {
+            if((lastFogStack + 1) == fogStack.length)
+            {
+                EffectRenderable[] tmp =
+                    new EffectRenderable[fogStack.length + STACK_INCREMENT_SIZE];
+
+                System.arraycopy(fogStack, 0, tmp, 0, fogStack.length);
+                fogStack = tmp;
+            }
+        }
+
+        /**
+         * Resize the appearance stack if needed.
+         */
+        private void resizeAppearanceStack()
+        {
+            if((lastAppearanceStack + 1) == appearanceStack.length)
+            {
+                OverrideRenderable[] tmp =
+                    new OverrideRenderable[appearanceStack.length + STACK_INCREMENT_SIZE];
+
+                System.arraycopy(appearanceStack, 0, tmp, 0, appearanceStack.length);
+                appearanceStack = tmp;
+            }
+        }
+
+        /**
+         * Resize the light list if needed.
+         */
+        private void resizeLightList()
+        {
+            if((lastLight + 1) == lightList.length)
+            {
+                int old_size = lightList.length;
+                int new_size = old_size + LIST_INCREMENT;
+
+                EffectRenderable[] tmp_nodes = new EffectRenderable[new_size];
+                System.arraycopy(lightList, 0, tmp_nodes, 0, old_size);
+                lightList = tmp_nodes;
+
+                lightTxList = resizeTxList(lightTxList, new_size);
+            }
+        }
+
+        /**
+         * Resize the clip list if needed.
+         */
+        private void resizeClipList()
+        {
+            if((lastClip + 1) == clipList.length)
+            {
+                int old_size = clipList.length;
+                int new_size = old_size + LIST_INCREMENT;
+
+                EffectRenderable[] tmp_nodes = new EffectRenderable[new_size];
+                System.arraycopy(clipList, 0, tmp_nodes, 0, old_size);
+                clipList = tmp_nodes;
+
+                clipTxList = resizeTxList(clipTxList, new_size);
+            }
+        }
+
+        /**
+         * Resize the global light list if needed.
+         */
+        private void resizeGlobalLightList()
+        {
+            if((lastGlobalLight + 1) == globalLightList.length)
+            {
+                int old_size = globalLightList.length;
+                int new_size = old_size + LIST_INCREMENT;
+
+                EffectRenderable[] tmp_nodes = new EffectRenderable[new_size];
+                System.arraycopy(globalLightList, 0, tmp_nodes, 0, old_size);
+                globalLightList = tmp_nodes;
+
+                globalLightTxList = resizeTxList(globalLightTxList, new_size);
+            }
+        }
+
+        /**
+         * Resize the bounded global light list if needed.
+         */
+        private void resizeGlobalBoundedLightList()
+        {
+            if((lastGlobalBoundedLight + 1) == globalBoundedLightList.length)
+            {
+                int old_size = globalBoundedLightList.length;
+                int new_size = old_size + LIST_INCREMENT;
+
+                EffectRenderable[] tmp_nodes = new EffectRenderable[new_size];
+                System.arraycopy(globalBoundedLightList, 0, tmp_nodes, 0, old_size);
+                globalBoundedLightList = tmp_nodes;
+
+                globalBoundedLightTxList =
+                    resizeTxList(globalBoundedLightTxList, new_size);
+            }
+        }
+
+        /**
+         * Create a larger copy of a transform list, populating the new
+         * entries.
+         *
+         * @param src The source list to copy
+         * @param newSize The size of the new list
+         * @return The resized list
+         */
+        private float[][] resizeTxList(float[][] src, int newSize)
+        {
+            float[][] tmp_tx = new float[newSize][];
+            System.arraycopy(src, 0, tmp_tx, 0, src.length);
+
+            for(int i = src.length; i < newSize; i++)
+                tmp_tx[i] = new float[16];
+
+            return tmp_tx;
+        }
+    }
+
+    /** Initial depth of the per-task transform stacks */
+    private static final int TRANSFORM_STACK_SIZE = 64;
+
+    /** Increment size of the per-task stacks if they overflow */
+    private static final int STACK_INCREMENT_SIZE = 32;
+
+    /**
+     * Create a basic instance of this class with the list assuming there are
+     * no off-screen buffers in use for the initial internal setup. The stage
+     * runs in the worker pool shared with the rest of the scene graph, which
+     * has one thread per available processor.
+     */
+    public ParallelFrustumCullStage()
+    {
+        this(LIST_START_LENGTH);
+    }
+
+    /**
+     * Create a basic instance of this class with the list initial internal
+     * setup for the given number of renderable surfaces. The stage runs in
+     * the worker pool shared with the rest of the scene graph, which has one
+     * thread per available processor.
+     *
+     * @param numSurfaces Total number of surfaces to prepare rendering for
+     */
+    public ParallelFrustumCullStage(int numSurfaces)
+    {
+        this(numSurfaces, SharedWorkerPool.getPool(), false);
+    }
+
+    /**
+     * Create a basic instance of this class with the list initial internal
+     * setup for the given number of renderable surfaces and its own pool
+     * with a fixed number of worker threads. The size is just an initial
+     * estimate, and is used for optimisation purposes to prevent frequent
+     * array reallocations internally.
+     *
+     * @param numSurfaces Total number of surfaces to prepare rendering for
+     * @param numThreads The number of worker threads to use. Must be > 0
+     * @throws IllegalArgumentException The number of threads is not positive
+     */
+    public ParallelFrustumCullStage(int numSurfaces, int numThreads)
+    {
+        this(numSurfaces, new ForkJoinPool(numThreads), true);
+    }
+
+    /**
+     * Common constructor for running in the given pool.
+     *
+     * @param numSurfaces Total number of surfaces to prepare rendering for
+     * @param pool The pool to run the culling tasks in
+     * @param ownsPool true if the pool should be shut down with this stage
+     */
+    private ParallelFrustumCullStage(int numSurfaces,
+                                     ForkJoinPool pool,
+                                     boolean ownsPool)
+    {
+        super(numSurfaces);
+
+        this.ownsPool = ownsPool;
+
+        forkPool = pool;
+        minSplitSize = DEFAULT_SPLIT_SIZE;
+
+        prjMatrix = new Matrix4d();
+        viewMatrix = new Matrix4d();
+
+        projectionMatrix = new float[16];
+        orthoFrustum = new double[6];
+
+        frustumPlanes = new Vector4d[6];
+        for(int i = 0; i < 6; i++)
+            frustumPlanes[i] = new Vector4d();
+
+        rootState = new CullState(0);
+        statePool = new ArrayList<>();
+        offscreenLock = new Object();
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by BaseCullStage
+    //---------------------------------------------------------------
+
+    /**
+     * Update and cull the scenegraph. This generates an ordered list
+     * of nodes to render. It will not return until the culling is complete.
+     *
+     * @param scene The scene instance to cull
+     * @param subsceneId The index of the subscene in the viewport output
+     * @param layerId The index of the layer in the output
+     * @param viewIndex The index of the viewport in the parent
+     *    ViewportCollection
+     * @param layerIndex The index of the layer within the viewport
+     */
+    @Override
+    protected void cullScene(RenderPassCullable scene,
+                             int subsceneId,
+                             int layerId,
+                             int viewIndex,
+                             int layerIndex)
+    {
+        activeParent = null;
+
+        SceneRenderBucket bucket =
+            workLayers[subsceneId][layerId].viewports[viewIndex].scenes[layerIndex];
+
+        validSceneParents[0][0] = null;
+        validSceneParents[0][1] = null;
+
+        bucket.data.layerId = layerId;
+        bucket.data.subLayerId = layerIndex;
+
+        Cullable node = scene.getRootCullable();
+
+        bucket.numNodes = traverse(node,
+                                   true,
+                                   bucket,
+                                   scene.getViewCullable(),
+                                   bucket.data);
+    }
+
+    /**
+     * Update and cull the a single pass from a multipass rendering. This
+     * generates an ordered list of nodes to render in the same was as a normal
+     * scene, but with fewer items updated, such as only a single background
+     * for all passes. It will not return until the culling is complete.
+     *
+     * @param pass The rendering pass instance to cull
+     * @param subsceneId The index of the subscene in the viewport output
+     * @param layerId The index of the layer in the output
+     * @param viewIndex The index of the viewport in the parent
+     *    ViewportCollection
+     * @param layerIndex The index of the layer within the viewport
+     */
+    @Override
+    protected void cullRenderPass(RenderPassCullable pass,
+                                  int passNumber,
+                                  int subsceneId,
+                                  int layerId,
+                                  int viewIndex,
+                                  int layerIndex)
+    {
+        activeParent = null;
+
+        ViewportLayerCollection c =
+            workLayers[subsceneId][layerId].viewports[viewIndex];
+
+        MultipassDetails bucket = c.multipass[c.numMultipass].mainScene;
+
+        validSceneParents[0][0] = null;
+        validSceneParents[0][1] = null;
+
+        Cullable node = pass.getRootCullable();
+        fillRenderPassEnvData(pass,
+                              bucket.data[passNumber],
+                              bucket.buffers[passNumber]);
+
+        bucket.data[passNumber].layerId = layerId;
+        bucket.data[passNumber].subLayerId = layerIndex;
+
+        if(terminate)
+            return;
+
+        rootState.cullList = bucket.nodes[passNumber];
+
+        bucket.numNodes[passNumber] =
+            traverse(node,
+                     node instanceof GroupCullable,
+                     null,
+                     pass.getViewCullable(),
+                     bucket.data[passNumber]);
+
+        bucket.nodes[passNumber] = rootState.cullList;
+    }
+
+    /**
+     * Update and cull the scenegraph. This generates an ordered list
+     * of nodes to render. It will not return until the culling is complete.
+     *
+     * @param scene The scene instance to cull
+     * @param subsceneId The index of the subscene in the viewport output
+     * @param layerId The index of the layer in the output
+     * @param viewIndex The index of the viewport in the parent
+     *    ViewportCollection
+     * @param layerIndex The index of the layer within the viewport
+     */
+    @Override
+    protected void cullScene2D(RenderPassCullable scene,
+                               int subsceneId,
+                               int layerId,
+                               int viewIndex,
+                               int layerIndex)
+    {
+        activeParent = null;
+
+        SceneRenderBucket bucket =
+            workLayers[subsceneId][layerId].viewports[viewIndex].scenes[layerIndex];
+
+        validSceneParents[0][0] = null;
+        validSceneParents[0][1] = null;
+
+        bucket.data.layerId = layerId;
+        bucket.data.subLayerId = layerIndex;
+
+        Cullable node = scene.getRootCullable();
+
+        bucket.numNodes = traverse(node,
+                                   !(node instanceof CustomCullable),
+                                   bucket,
+                                   scene.getViewCullable(),
+                                   bucket.data);
+    }
+
+    /**
+     * Take the scene and fill in a GraphicsEnvironmentData instance.
+     *
+     * @param scene The scene to take data from
+     * @param envData Data instance to copy it to
+     */
+    @Override
+    protected void fillSingleEnvData(SceneCullable scene,
+                                     GraphicsEnvironmentData envData)
+    {
+        super.fillSingleEnvData(scene, envData);
+
+        ViewEnvironmentCullable view = scene.getViewCullable();
+        switch(view.getProjectionType())
+        {
+            case ViewEnvironmentCullable.PERSPECTIVE_PROJECTION:
+            case ViewEnvironmentCullable.INFINITE_PROJECTION:
+                angularResolution = (float)view.getFieldOfView();
+                break;
+
+            case ViewEnvironmentCullable.ORTHOGRAPHIC_PROJECTION:
+                view.getViewFrustum(orthoFrustum);
+                double angle = Math.atan2(orthoFrustum[1], orthoFrustum[5]) -
+                               Math.atan2(orthoFrustum[0], orthoFrustum[5]);
+                angularResolution = (float)Math.toDegrees(angle);
+                envData.projectionMatrix = projectionMatrix;
+                break;
+
+            case ViewEnvironmentCullable.CUSTOM_PROJECTION:
+                angularResolution = 1.0f;
+                envData.projectionMatrix = projectionMatrix;
+        }
+
+        int[] viewport = view.getViewportDimensions();
+
+        angularResolution /= viewport[2];
+    }
+
+    /**
+     * Clean up the unused resources after the end of the cull process. This
+     * releases any references that are no longer needed, and may have been
+     * kept from the previous culling pass.
+     */
+    @Override
+    protected void cleanupOldRefs()
+    {
+        rootState.numNodes = 0;
+        rootState.clearRefs();
+        rootState.cullList = null;
+
+        super.cleanupOldRefs();
+    }
+
+    //---------------------------------------------------------------
+    // Local methods
+    //---------------------------------------------------------------
+
+    /**
+     * Set the minimum number of children that a group must have before its
+     * child list will be split into separate tasks. Smaller values give
+     * better load balancing with narrow, deep scene graphs at the cost of a
+     * little more overhead per task. The default value is 2.
+     *
+     * @param size The number of children to use. Must be 2 or more
+     * @throws IllegalArgumentException The size is less than 2
+     */
+    public void setMinimumSplitSize(int size)
+        throws IllegalArgumentException
+    {
+        if(size < 2)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(INVALID_SPLIT_SIZE_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+
+            NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+            Object[] msg_args = { new Integer(size) };
+            Format[] fmts = { n_fmt };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            msg_fmt.setFormats(fmts);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        minSplitSize = size;
+    }
+
+    /**
+     * Get the currently set minimum split size for children lists.
+     *
+     * @return A value greater than or equal to 2
+     */
+    public int getMinimumSplitSize()
+    {
+        return minSplitSize;
+    }
+
+    /**
+     * Get the number of worker threads that this stage is using.
+     *
+     * @return A value greater than zero
+     */
+    public int getParallelism()
+    {
+        return forkPool.getParallelism();
+    }
+
+    /**
+     * Shut down the worker threads used by this stage. The stage cannot
+     * be used for culling after this has been called. The shared pool is
+     * left running for the other users of it.
+     */
+    public void shutdown()
+    {
+        terminate = true;
+
+        if(ownsPool)
+            forkPool.shutdown();
+    }
+
+    /**
+     * Common traversal code for all of the scene types. Sets up the frustum,
+     * runs the root task in the pool and then processes global lights.
+     *
+     * @param node The root node of the scene graph
+     * @param useRootTx true if the root node's transform should be used as
+     *   the initial transform, if it has one
+     * @param bucket The output bucket if a single scene, null for a pass.
+     *   When null, the root state's cull list must already be set
+     * @param view The view environment for calculating the frustum
+     * @param envData The environment data for this scene
+     * @return The number of nodes in the output list
+     */
+    private int traverse(Cullable node,
+                         boolean useRootTx,
+                         SceneRenderBucket bucket,
+                         ViewEnvironmentCullable view,
+                         GraphicsEnvironmentData envData)
+    {
+        if(bucket != null)
+            rootState.cullList = bucket.nodes;
+
+        rootState.reset();
+
+        Matrix4d root_tx = rootState.transformStack[0];
+
+        if(useRootTx && (node instanceof TransformCullable))
+            ((TransformCullable)node).getTransform(root_tx);
+        else
+            root_tx.setIdentity();
+
+        int ret_val = 0;
+
+        if((node instanceof CustomCullable) ||
+           (node instanceof GroupCullable) ||
+           (node instanceof SingleCullable))
+        {
+            viewMatrix.set(envData.viewTransform);
+
+            updateFrustum(view);
+
+            // updateFrustum trashed it, so reset so it can be used in
+            // the traversal.
+            viewMatrix.set(envData.viewTransform);
+
+            forkPool.invoke(new CullTask(rootState, node));
+
+            ret_val = rootState.numNodes;
+        }
+        else if(node instanceof LeafCullable)
+        {
+            LeafCullable cullable = (LeafCullable)node;
+
+            // if it is not geometry, nothing to do here.
+            if(cullable.getCullableType() != LeafCullable.GEOMETRY_CULLABLE)
+                return 0;
+
+            Renderable r = cullable.getRenderable();
+
+            if((r instanceof ShapeRenderable) && ((ShapeRenderable)r).is2D())
+            {
+                if(checkOffscreens)
+                    checkForOffscreens((ShapeRenderable)r);
+
+                rootState.resizeCullList();
+
+                GraphicsCullOutputDetails details = rootState.cullList[0];
+                details.renderable = r;
+                details.transform.setIdentity();
+                details.numLights = 0;
+                details.numClipPlanes = 0;
+
+                ret_val = 1;
+                rootState.numNodes = 1;
+            }
+        }
+
+        rootState.processGlobalLights();
+
+        if(bucket != null)
+            bucket.nodes = rootState.cullList;
+
+        // Clear the counter so that cleanup doesn't touch the valid output.
+        rootState.numNodes = 0;
+
+        return ret_val;
+    }
+
+    /**
+     * Fetch a state instance from the pool, initialised from the given
+     * parent state.
+     *
+     * @param parent The state to inherit the current stack tops from
+     * @return A state ready for use
+     */
+    private CullState acquireState(CullState parent)
+    {
+        CullState ret_val = null;
+
+        synchronized(statePool)
+        {
+            int size = statePool.size();
+            if(size != 0)
+                ret_val = statePool.remove(size - 1);
+        }
+
+        if(ret_val == null)
+            ret_val = new CullState(TASK_LIST_START_SIZE);
+
+        ret_val.inherit(parent);
+
+        return ret_val;
+    }
+
+    /**
+     * Return a state instance to the pool after clearing its references.
+     *
+     * @param state The state to return
+     */
+    private void releaseState(CullState state)
+    {
+        state.clearRefs();
+
+        synchronized(statePool)
+        {
+            statePool.add(state);
+        }
+    }
+
+    /**
+     * Recalculate the current frustum plane equations for the given render
+     * environment data.
+     *
+     * @param viewEnv Current viewing environment data from the scene
+     */
+    private void updateFrustum(ViewEnvironmentCullable viewEnv)
+    {
+        viewEnv.getProjectionMatrix(projectionMatrix);
+        prjMatrix.m00 = projectionMatrix[0];
+        prjMatrix.m01 = projectionMatrix[1];
+        prjMatrix.m02 = projectionMatrix[2];
+        prjMatrix.m03 = projectionMatrix[3];
+        prjMatrix.m10 = projectionMatrix[4];
+        prjMatrix.m11 = projectionMatrix[5];
+        prjMatrix.m12 = projectionMatrix[6];
+        prjMatrix.m13 = projectionMatrix[7];
+        prjMatrix.m20 = projectionMatrix[8];
+        prjMatrix.m21 = projectionMatrix[9];
+        prjMatrix.m22 = projectionMatrix[10];
+        prjMatrix.m23 = projectionMatrix[11];
+        prjMatrix.m30 = projectionMatrix[12];
+        prjMatrix.m31 = projectionMatrix[13];
+        prjMatrix.m32 = projectionMatrix[14];
+        prjMatrix.m33 = projectionMatrix[15];
+
+        double x, y, z, w;
+
+        matrixUtils.inverse(viewMatrix, viewMatrix);
+        viewMatrix.mul(prjMatrix, viewMatrix);
+
+        // Put result into opengl format
+        prjMatrix.m00 = viewMatrix.m00;
+        prjMatrix.m01 = viewMatrix.m10;
+        prjMatrix.m02 = viewMatrix.m20;
+        prjMatrix.m03 = viewMatrix.m30;
+        prjMatrix.m10 = viewMatrix.m01;
+        prjMatrix.m11 = viewMatrix.m11;
+        prjMatrix.m12 = viewMatrix.m21;
+        prjMatrix.m13 = viewMatrix.m31;
+        prjMatrix.m20 = viewMatrix.m02;
+        prjMatrix.m21 = viewMatrix.m12;
+        prjMatrix.m22 = viewMatrix.m22;
+        prjMatrix.m23 = viewMatrix.m32;
+        prjMatrix.m30 = viewMatrix.m03;
+        prjMatrix.m31 = viewMatrix.m13;
+        prjMatrix.m32 = viewMatrix.m23;
+        prjMatrix.m33 = viewMatrix.m33;
+
+        /* Extract the numbers for the RIGHT plane */
+        x = prjMatrix.m03 - prjMatrix.m00;
+        y = prjMatrix.m13 - prjMatrix.m10;
+        z = prjMatrix.m23 - prjMatrix.m20;
+        w = prjMatrix.m33 - prjMatrix.m30;
+
+        /* Normalize the result */
+        float t = 1.0f / (float)Math.sqrt(x * x + y * y + z * z);
+        frustumPlanes[0].x = x * t;
+        frustumPlanes[0].y = y * t;
+        frustumPlanes[0].z = z * t;
+        frustumPlanes[0].w = w * t;
+
+        /* Extract the numbers for the LEFT plane */
+        x = prjMatrix.m03 + prjMatrix.m00;
+        y = prjMatrix.m13 + prjMatrix.m10;
+        z = prjMatrix.m23 + prjMatrix.m20;
+        w = prjMatrix.m33 + prjMatrix.m30;
+
+        t = 1.0f / (float)Math.sqrt(x * x + y * y + z * z);
+        frustumPlanes[1].x = x * t;
+        frustumPlanes[1].y = y * t;
+        frustumPlanes[1].z = z * t;
+        frustumPlanes[1].w = w * t;
+
+        /* Extract the BOTTOM plane */
+        x = prjMatrix.m03 + prjMatrix.m01;
+        y = prjMatrix.m13 + prjMatrix.m11;
+        z = prjMatrix.m23 + prjMatrix.m21;
+        w = prjMatrix.m33 + prjMatrix.m31;
+
+        t = 1.0f / (float)Math.sqrt(x * x + y * y + z * z);
+        frustumPlanes[2].x = x * t;
+        frustumPlanes[2].y = y * t;
+        frustumPlanes[2].z = z * t;
+        frustumPlanes[2].w = w * t;
+
+        /* Extract the TOP plane */
+        x = prjMatrix.m03 - prjMatrix.m01;
+        y = prjMatrix.m13 - prjMatrix.m11;
+        z = prjMatrix.m23 - prjMatrix.m21;
+        w = prjMatrix.m33 - prjMatrix.m31;
+
+        t = 1.0f / (float)Math.sqrt(x * x + y * y + z * z);
+        frustumPlanes[3].x = x * t;
+        frustumPlanes[3].y = y * t;
+        frustumPlanes[3].z = z * t;
+        frustumPlanes[3].w = w * t;
+
+        /* Extract the FAR plane */
+        x = prjMatrix.m03 - prjMatrix.m02;
+        y = prjMatrix.m13 - prjMatrix.m12;
+        z = prjMatrix.m23 - prjMatrix.m22;
+        w = prjMatrix.m33 - prjMatrix.m32;
+
+        // Infinite projections give a zero length far plane normal
+        t = (float)Math.sqrt(x * x + y * y + z * z);
+        if(t == 0)
+            t = 1/1.19209290E-07f;
+        else
+            t = 1/t;
+
+        frustumPlanes[4].x = x * t;
+        frustumPlanes[4].y = y * t;
+        frustumPlanes[4].z = z * t;
+        frustumPlanes[4].w = w * t;
+
+        /* Extract the NEAR plane */
+        x = prjMatrix.m03 + prjMatrix.m02;
+        y = prjMatrix.m13 + prjMatrix.m12;
+        z = prjMatrix.m23 + prjMatrix.m22;
+        w = prjMatrix.m33 + prjMatrix.m32;
+
+        t = 1.0f / (float)Math.sqrt(x * x + y * y + z * z);
+        frustumPlanes[5].x = x * t;
+        frustumPlanes[5].y = y * t;
+        frustumPlanes[5].z = z * t;
+        frustumPlanes[5].w = w * t;
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.util.Arrays;
+
+// Local imports
+import org.j3d.aviatrix3d.rendering.*;
+
+/**
+ * State sorting that packs the state of each renderable into a single 64 bit
+ * key and then radix sorts the keys, giving O(n) sorting time.
+ * <p>
+ *
+ * The sort stages only issue a state change when the instance of a state
+ * object differs from the current one, so that is what is sorted on here.
+ * Each frame, every distinct instance of each type of state is given a small
+ * integer ID, in the order that it is first seen. Zero is reserved for no
+ * state, so objects without a given state sort first, just as they do with
+ * {@link StateSortComparator}. The IDs are packed into the key in the
+ * priority order, using only as many bits as the number of distinct
+ * instances of that state in the frame needs. If the states of the frame
+ * need more than 64 bits, the lowest priority states are left out of the
+ * key. Lights and clip planes are keyed on the whole list, not the
+ * individual lights.
+ * <p>
+ *
+ * The radix sort is stable, so renderables with identical keys stay in the
+ * order that the cull stage produced them. The relative order of two
+ * different instances of the same state type is their first-seen order, not
+ * their <code>compareTo()</code> order, so the output is not the same as
+ * sorting with {@link StateSortComparator}. It does produce the same
+ * grouping of renderables that share state instances.
+ * <p>
+ *
+ * This class is not thread safe.
+ */
+public class RadixStateSorter
+{
+    /** Number of bits sorted per radix pass */
+    private static final int RADIX_BITS = 8;
+
+    /** Number of buckets per radix pass */
+    private static final int RADIX_SIZE = 1 << RADIX_BITS;
+
+    /** Mask for a single digit */
+    private static final int RADIX_MASK = RADIX_SIZE - 1;
+
+    /** Key category that is the appearance instance, used as a tie-break */
+    private static final int APPEARANCE = -1;
+
+    /** Initial size of the node based arrays */
+    private static final int LIST_START_SIZE = 1024;
+
+    /** The categories that make up the key, highest priority first */
+    private final int[] categories;
+
+    /** Maps from instance to ID for each category */
+    private final IdentityIdMap[] objectIds;
+
+    /** Maps from light or clip plane list signature to ID */
+    private final SignatureIdMap lightSetIds;
+
+    /** Maps from light or clip plane list signature to ID */
+    private final SignatureIdMap clipSetIds;
+
+    /** IDs for the individual lights and clip planes */
+    private final IdentityIdMap effectIds;
+
+    /** Per node ID for each category, category major */
+    private int[] nodeIds;
+
+    /** The number of bits used for each category in the last sort */
+    private int[] categoryBits;
+
+    /** The sort keys, indexed the same as the source nodes */
+    private long[] keys;
+
+    /** Working copy of the keys for the radix passes */
+    private long[] tmpKeys;
+
+    /** Node order for the radix passes */
+    private int[] order;
+
+    /** Working copy of the node order for the radix passes */
+    private int[] tmpOrder;
+
+    /** Working copy of the nodes when permuting */
+    private GraphicsCullOutputDetails[] tmpNodes;
+
+    /** Histogram for the radix passes */
+    private int[] counts;
+
+    /** The number of bits of the key that were used in the last sort */
+    private int keyBits;
+
+    /**
+     * Open addressed map from object instance to an ID. IDs start at 1.
+     */
+    private static class IdentityIdMap
+    {
+        /** The keys, or null for an empty slot */
+        private Object[] keys;
+
+        /** The value for each key */
+        private int[] values;
+
+        /** The number of keys in the map, and the last ID given out */
+        private int size;
+
+        IdentityIdMap()
+        {
+            keys = new Object[64];
+            values = new int[64];
+        }
+
+        /**
+         * Get the ID for the object, assigning the next ID if it has not
+         * been seen before.
+         *
+         * @param obj The object to look up
+         * @return The ID, or zero for null
+         */
+        int getId(Object obj)
+        {
+            if(obj == null)
+                return 0;
+
+            int mask = keys.length - 1;
+            int idx = mix(System.identityHashCode(obj)) & mask;
+
+            while(keys[idx] != null)
+            {
+                if(keys[idx] == obj)
+                    return values[idx];
+
+                idx = (idx + 1) & mask;
+            }
+
+            keys[idx] = obj;
+            values[idx] = ++size;
+
+            if(size * 2 > keys.length)
+                rehash();
+
+            return size;
+        }
+
+        /**
+         * Remove everything from the map, keeping the storage.
+         */
+        void clear()
+        {
+            if(size != 0)
+            {
+                Arrays.fill(keys, null);
+                size = 0;
+            }
+        }
+
+        /**
+         * Double the storage and reinsert the existing values.
+         */
+        private void rehash()
+        {
+            Object[] old_keys = keys;
+            int[] old_values = values;
+
+            keys = new Object[old_keys.length * 2];
+            values = new int[old_keys.length * 2];
+
+            int mask = keys.length - 1;
+
+            for(int i = 0; i < old_keys.length; i++)
+            {
+                if(old_keys[i] == null)
+                    continue;
+
+                int idx = mix(System.identityHashCode(old_keys[i])) & mask;
+
+                while(keys[idx] != null)
+                    idx = (idx + 1) & mask;
+
+                keys[idx] = old_keys[i];
+                values[idx] = old_values[i];
+            }
+        }
+    }
+
+    /**
+     * Open addressed map from a 64 bit list signature to an ID. IDs start
+     * at 1, and a value of zero marks an empty slot.
+     */
+    private static class SignatureIdMap
+    {
+        /** The keys */
+        private long[] keys;
+
+        /** The value for each key, zero if the slot is empty */
+        private int[] values;
+
+        /** The number of keys in the map, and the last ID given out */
+        private int size;
+
+        SignatureIdMap()
+        {
+            keys = new long[64];
+            values = new int[64];
+        }
+
+        /**
+         * Get the ID for the signature, assigning the next ID if it has not
+         * been seen before.
+         *
+         * @param sig The signature to look up
+         * @return The ID
+         */
+        int getId(long sig)
+        {
+            int mask = keys.length - 1;
+            int idx = mix((int)(sig ^ (sig >>> 32))) & mask;
+
+            while(values[idx] != 0)
+            {
+                if(keys[idx] == sig)
+                    return values[idx];
+
+                idx = (idx + 1) & mask;
+            }
+
+            keys[idx] = sig;
+            values[idx] = ++size;
+
+            if(size * 2 > keys.length)
+                rehash();
+
+            return size;
+        }
+
+        /**
+         * Remove everything from the map, keeping the storage.
+         */
+        void clear()
+        {
+            if(size != 0)
+            {
+                Arrays.fill(values, 0);
+                size = 0;
+            }
+        }
+
+        /**
+         * Double the storage and reinsert the existing values.
+         */
+        private void rehash()
+        {
+            long[] old_keys = keys;
+            int[] old_values = values;
+
+            keys = new long[old_keys.length * 2];
+            values = new int[old_keys.length * 2];
+
+            int mask = keys.length - 1;
+
+            for(int i = 0; i < old_keys.length; i++)
+            {
+                if(old_values[i] == 0)
+                    continue;
+
+                long sig = old_keys[i];
+                int idx = mix((int)(sig ^ (sig >>> 32))) & mask;
+
+                while(values[idx] != 0)
+                    idx = (idx + 1) & mask;
+
+                keys[idx] = sig;
+                values[idx] = old_values[i];
+            }
+        }
+    }
+
+    /**
+     * Create a sorter using the default priority settings.
+     */
+    public RadixStateSorter()
+    {
+        this(null);
+    }
+
+    /**
+     * Create a sorter given the listed set of priorities, using the
+     * priority constants from {@link StateSortComparator}. If any priority is
+     * repeated, the second (or more) instance is ignored. If the list
+     * instance is null or zero length, the default order is assumed.
+     *
+     * @param priList The listing of priorities to use
+     */
+    public RadixStateSorter(int[] priList)
+    {
+        int[] pri_order = StateSortComparator.buildPriorityOrder(priList);
+
+        // Strip out anything that we don't know how to key, and add the
+        // appearance itself as the final tie-break.
+        int num_cats = 0;
+        int[] cats = new int[pri_order.length + 1];
+
+        for(int i = 0; i < pri_order.length; i++)
+        {
+            int pri = pri_order[i];
+
+            if((pri >= StateSortComparator.LIGHTS &&
+                pri <= StateSortComparator.STENCIL_ATTRIBS) ||
+               (pri >= StateSortComparator.TEXTURE_UNIT_0 &&
+                pri < StateSortComparator.TEXTURE_UNIT_0 + 32))
+                cats[num_cats++] = pri;
+        }
+
+        cats[num_cats++] = APPEARANCE;
+
+        categories = new int[num_cats];
+        System.arraycopy(cats, 0, categories, 0, num_cats);
+
+        objectIds = new IdentityIdMap[num_cats];
+        for(int i = 0; i < num_cats; i++)
+            objectIds[i] = new IdentityIdMap();
+
+        effectIds = new IdentityIdMap();
+        lightSetIds = new SignatureIdMap();
+        clipSetIds = new SignatureIdMap();
+
+        categoryBits = new int[num_cats];
+        counts = new int[RADIX_SIZE];
+
+        allocate(LIST_START_SIZE);
+    }
+
+    //---------------------------------------------------------------
+    // Local methods
+    //---------------------------------------------------------------
+
+    /**
+     * Sort the list of nodes in place by their state.
+     *
+     * @param nodes The nodes to sort
+     * @param numNodes The number of valid nodes in the array
+     */
+    public void sort(GraphicsCullOutputDetails[] nodes, int numNodes)
+    {
+        if(numNodes < 2)
+            return;
+
+        if(keys.length < numNodes)
+            allocate(numNodes);
+
+        buildKeys(nodes, numNodes);
+
+        if(keyBits == 0)
+            return;
+
+        radixSort(numNodes);
+
+        System.arraycopy(nodes, 0, tmpNodes, 0, numNodes);
+
+        for(int i = 0; i < numNodes; i++)
+            nodes[i] = tmpNodes[order[i]];
+
+        // Don't hold onto scene graph references between frames
+        Arrays.fill(tmpNodes, 0, numNodes, null);
+    }
+
+    /**
+     * Get the number of bits of the key that were needed to describe the
+     * state in the last call to {@link #sort}. A value of 64 may mean that
+     * some of the lower priority states were left out.
+     *
+     * @return A value between 0 and 64
+     */
+    public int getKeyBits()
+    {
+        return keyBits;
+    }
+
+    /**
+     * Generate the key for every node.
+     *
+     * @param nodes The nodes to sort
+     * @param numNodes The number of valid nodes in the array
+     */
+    private void buildKeys(GraphicsCullOutputDetails[] nodes, int numNodes)
+    {
+        int num_cats = categories.length;
+
+        for(int c = 0; c < num_cats; c++)
+            objectIds[c].clear();
+
+        effectIds.clear();
+        lightSetIds.clear();
+        clipSetIds.clear();
+
+        for(int n = 0; n < numNodes; n++)
+        {
+            GraphicsCullOutputDetails cd = nodes[n];
+            AppearanceRenderable app = null;
+
+            if(cd.renderable instanceof ShapeRenderable)
+                app = ((ShapeRenderable)cd.renderable).getAppearanceRenderable();
+
+            for(int c = 0; c < num_cats; c++)
+                nodeIds[c * numNodes + n] = getStateId(c, cd, app);
+        }
+
+        // Work out how many bits each category needs and how many fit
+        int total_bits = 0;
+
+        for(int c = 0; c < num_cats; c++)
+        {
+            int max_id = (categories[c] == StateSortComparator.LIGHTS) ?
+                         lightSetIds.size :
+                         (categories[c] == StateSortComparator.CLIP_PLANES) ?
+                         clipSetIds.size :
+                         objectIds[c].size;
+
+            int bits = 32 - Integer.numberOfLeadingZeros(max_id);
+
+            // If all nodes have the same state, no need to key it. We can only
+            // tell that when every node has one, as no state is ID 0.
+            if(max_id == 1)
+            {
+                boolean all_same = true;
+                int base = c * numNodes;
+
+                for(int n = 0; n < numNodes && all_same; n++)
+                    all_same = nodeIds[base + n] == 1;
+
+                if(all_same)
+                    bits = 0;
+            }
+
+            if(total_bits + bits > 64)
+                bits = 0;
+
+            categoryBits[c] = bits;
+            total_bits += bits;
+        }
+
+        keyBits = total_bits;
+
+        for(int n = 0; n < numNodes; n++)
+        {
+            long key = 0;
+
+            for(int c = 0; c < num_cats; c++)
+            {
+                int bits = categoryBits[c];
+
+                if(bits != 0)
+                    key = (key << bits) | nodeIds[c * numNodes + n];
+            }
+
+            keys[n] = key;
+        }
+    }
+
+    /**
+     * Find the ID of the state for the given category and node.
+     *
+     * @param cat The index of the category in the category list
+     * @param cd The node to get the state for
+     * @param app The appearance of the node, if it has one
+     * @return The ID of the state, or zero for none
+     */
+    private int getStateId(int cat,
+                           GraphicsCullOutputDetails cd,
+                           AppearanceRenderable app)
+    {
+        int pri = categories[cat];
+
+        switch(pri)
+        {
+            case StateSortComparator.LIGHTS:
+                if(cd.numLights == 0)
+                    return 0;
+
+                return lightSetIds.getId(listSignature(cd.lights, cd.numLights));
+
+            case StateSortComparator.CLIP_PLANES:
+                if(cd.numClipPlanes == 0)
+                    return 0;
+
+                return clipSetIds.getId(listSignature(cd.clipPlanes,
+                                                      cd.numClipPlanes));
+
+            case StateSortComparator.LOCAL_FOG:
+                return objectIds[cat].getId(cd.localFog);
+
+            case APPEARANCE:
+                return objectIds[cat].getId(app);
+        }
+
+        if(app == null)
+            return 0;
+
+        Object state = null;
+
+        switch(pri)
+        {
+            case StateSortComparator.MATERIALS:
+                state = app.getMaterialRenderable();
+                break;
+
+            case StateSortComparator.SHADER_OBJECTS:
+                state = app.getShaderRenderable();
+                break;
+
+            case StateSortComparator.FRAGMENT_SHADERS:
+                ShaderRenderable sh = app.getShaderRenderable();
+
+                if(sh != null)
+                    state = sh.getShaderRenderable(ShaderComponentRenderable.FRAGMENT_SHADER);
+                break;
+
+            case StateSortComparator.VERTEX_SHADERS:
+                sh = app.getShaderRenderable();
+
+                if(sh != null)
+                    state = sh.getShaderRenderable(ShaderComponentRenderable.VERTEX_SHADER);
+                break;
+
+            case StateSortComparator.POLYGON_ATTRIBS:
+                state = app.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE);
+                break;
+
+            case StateSortComparator.LINE_ATTRIBS:
+                state = app.getAttributeRenderable(AppearanceAttributeRenderable.LINE_ATTRIBUTE);
+                break;
+
+            case StateSortComparator.POINT_ATTRIBS:
+                state = app.getAttributeRenderable(AppearanceAttributeRenderable.POINT_ATTRIBUTE);
+                break;
+
+            case StateSortComparator.BLEND_ATTRIBS:
+                state = app.getAttributeRenderable(AppearanceAttributeRenderable.BLEND_ATTRIBUTE);
+                break;
+
+            case StateSortComparator.DEPTH_ATTRIBS:
+                state = app.getAttributeRenderable(AppearanceAttributeRenderable.DEPTH_ATTRIBUTE);
+                break;
+
+            case StateSortComparator.STENCIL_ATTRIBS:
+                state = app.getAttributeRenderable(AppearanceAttributeRenderable.STENCIL_ATTRIBUTE);
+                break;
+
+            default:
+                int unit = pri - StateSortComparator.TEXTURE_UNIT_0;
+
+                if(unit < app.numTextureRenderables())
+                    state = app.getTextureRenderable(unit);
+        }
+
+        return objectIds[cat].getId(state);
+    }
+
+    /**
+     * Generate a signature for a list of lights or clip planes from the
+     * IDs of the individual items.
+     *
+     * @param list The list of items
+     * @param num The number of valid items in the list
+     * @return The signature value
+     */
+    private long listSignature(VisualDetails[] list, int num)
+    {
+        long sig = num;
+
+        for(int i = 0; i < num; i++)
+        {
+            int id = effectIds.getId(list[i].getRenderable());
+            sig = sig * 0x9E3779B97F4A7C15L + id;
+        }
+
+        return sig;
+    }
+
+    /**
+     * Stable LSD radix sort of the keys, generating the order array.
+     *
+     * @param numNodes The number of keys to sort
+     */
+    private void radixSort(int numNodes)
+    {
+        for(int i = 0; i < numNodes; i++)
+            order[i] = i;
+
+        long[] src_keys = keys;
+        long[] dest_keys = tmpKeys;
+        int[] src_order = order;
+        int[] dest_order = tmpOrder;
+
+        for(int shift = 0; shift < keyBits; shift += RADIX_BITS)
+        {
+            Arrays.fill(counts, 0);
+
+            for(int i = 0; i < numNodes; i++)
+                counts[(int)(src_keys[i] >>> shift) & RADIX_MASK]++;
+
+            // Skip this digit if everything is in the same bucket
+            if(counts[(int)(src_keys[0] >>> shift) & RADIX_MASK] == numNodes)
+                continue;
+
+            int total = 0;
+            for(int i = 0; i < RADIX_SIZE; i++)
+            {
+                int c = counts[i];
+                counts[i] = total;
+                total += c;
+            }
+
+            for(int i = 0; i < numNodes; i++)
+            {
+                long key = src_keys[i];
+                int pos = counts[(int)(key >>> shift) & RADIX_MASK]++;
+
+                dest_keys[pos] = key;
+                dest_order[pos] = src_order[i];
+            }
+
+            long[] tk = src_keys;
+            src_keys = dest_keys;
+            dest_keys = tk;
+
+            int[] to = src_order;
+            src_order = dest_order;
+            dest_order = to;
+        }
+
+        // Make sure the results end up in the expected arrays
+        if(src_order != order)
+        {
+            System.arraycopy(src_order, 0, order, 0, numNodes);
+            System.arraycopy(src_keys, 0, keys, 0, numNodes);
+        }
+    }
+
+    /**
+     * Make sure the node based arrays are at least the given size.
+     *
+     * @param size The number of nodes required
+     */
+    private void allocate(int size)
+    {
+        keys = new long[size];
+        tmpKeys = new long[size];
+        order = new int[size];
+        tmpOrder = new int[size];
+        tmpNodes = new GraphicsCullOutputDetails[size];
+        nodeIds = new int[size * categories.length];
+    }
+
+    /**
+     * Scramble the bits of an identity hash code so that sequential values
+     * spread out across the table.
+     *
+     * @param hash The hash to mix
+     * @return The mixed value
+     */
+    private static int mix(int hash)
+    {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
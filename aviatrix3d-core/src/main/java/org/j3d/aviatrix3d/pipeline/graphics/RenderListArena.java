@@ -0,0 +1,251 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import org.j3d.maths.vector.Matrix4d;
+
+// Local imports
+// None
+
+/**
+ * Contiguous transform storage for the render list of a single
+ * {@link GraphicsInstructions}.
+ * <p>
+ *
+ * Rather than each {@link GraphicsDetails} owning its own 16 element
+ * transform array, all of the transforms of a render list live in a single
+ * <code>double[]</code> block, with the transform of list entry
+ * <code>i</code> starting at index <code>i * 16</code>. The details objects
+ * are still one object per entry. Each is bound to its slot of the block
+ * through its <code>transform</code> and <code>transformOffset</code>
+ * fields, and the sort stages and output devices read and write the
+ * transform through the details object.
+ * <p>
+ *
+ * Capacity only ever grows, and grows geometrically, so once the scene has
+ * reached a steady size no further allocation takes place. The number of
+ * times the storage has been grown is available from
+ * {@link #getGrowCount()} for checking that a frame loop has warmed up.
+ * <p>
+ *
+ * This class is not thread safe.
+ */
+public class RenderListArena
+{
+    /** Number of doubles used for a single transform */
+    public static final int TRANSFORM_SIZE = 16;
+
+    /** The transforms for all the slots, back to back */
+    private double[] transforms;
+
+    /** Copy of the block used when rebinding moves slots within it */
+    private double[] scratch;
+
+    /** The number of times the storage has been grown */
+    private int growCount;
+
+    /**
+     * Create a new arena with room for the given number of transforms.
+     *
+     * @param initialSize The number of slots to start with
+     */
+    public RenderListArena(int initialSize)
+    {
+        if(initialSize < 1)
+            initialSize = 1;
+
+        transforms = new double[initialSize * TRANSFORM_SIZE];
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Get the number of transform slots that can currently be addressed.
+     *
+     * @return A value greater than zero
+     */
+    public int getCapacity()
+    {
+        return transforms.length / TRANSFORM_SIZE;
+    }
+
+    /**
+     * Get the number of times the storage has needed to grow since this
+     * instance was created. Once a frame loop is warmed up, this should not
+     * change from one frame to the next.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getGrowCount()
+    {
+        return growCount;
+    }
+
+    /**
+     * Get the contiguous transform block. The transform for a slot starts
+     * at <code>slot * TRANSFORM_SIZE</code> and is column-major. The array
+     * instance changes when the arena grows, so do not hold on to it across
+     * frames.
+     *
+     * @return The current transform block
+     */
+    public double[] getTransforms()
+    {
+        return transforms;
+    }
+
+    /**
+     * Get the index into the transform block for the given slot.
+     *
+     * @param slot The index of the render list entry
+     * @return The index of the first value of the transform
+     */
+    public int getTransformOffset(int slot)
+    {
+        return slot * TRANSFORM_SIZE;
+    }
+
+    /**
+     * Make sure that there is room for at least the given number of slots.
+     * Existing transform values are kept. If the arena grows, the size is at
+     * least doubled so that a steadily growing scene only causes a small
+     * number of allocations.
+     *
+     * @param reqdSize The number of slots required
+     * @return true if the storage had to grow
+     */
+    public boolean ensureCapacity(int reqdSize)
+    {
+        int old_size = getCapacity();
+
+        if(reqdSize <= old_size)
+            return false;
+
+        int new_size = Math.max(reqdSize, old_size * 2);
+
+        double[] tmp_tx = new double[new_size * TRANSFORM_SIZE];
+        System.arraycopy(transforms, 0, tmp_tx, 0, transforms.length);
+        transforms = tmp_tx;
+
+        growCount++;
+
+        return true;
+    }
+
+    /**
+     * Point the details objects at consecutive slots of the transform block,
+     * growing the arena if needed. Whatever transform each details object
+     * currently holds is copied into its new slot, so this is safe to call
+     * after the list has been reordered or the block has grown. When slots
+     * move within the same block, the values are read from a copy of the
+     * block so that a move can't overwrite a slot that is still to be read.
+     *
+     * @param list The details objects to bind
+     * @param num The number of items in the list to bind
+     */
+    public void bind(GraphicsDetails[] list, int num)
+    {
+        ensureCapacity(num);
+
+        double[] src_block = transforms;
+
+        for(int i = 0; i < num; i++)
+        {
+            GraphicsDetails d = list[i];
+
+            if(d.transform == transforms &&
+               d.transformOffset != i * TRANSFORM_SIZE)
+            {
+                if(scratch == null || scratch.length < transforms.length)
+                    scratch = new double[transforms.length];
+
+                System.arraycopy(transforms, 0, scratch, 0, transforms.length);
+                src_block = scratch;
+                break;
+            }
+        }
+
+        for(int i = 0; i < num; i++)
+        {
+            GraphicsDetails d = list[i];
+            int offset = i * TRANSFORM_SIZE;
+
+            if(d.transform == transforms && d.transformOffset == offset)
+                continue;
+
+            if(d.transform != null)
+            {
+                double[] src = (d.transform == transforms) ?
+                    src_block : d.transform;
+
+                System.arraycopy(src,
+                                 d.transformOffset,
+                                 transforms,
+                                 offset,
+                                 TRANSFORM_SIZE);
+            }
+
+            d.transform = transforms;
+            d.transformOffset = offset;
+        }
+    }
+
+    /**
+     * Copy a matrix into an array at the given offset in the column-major
+     * order that OpenGL expects.
+     *
+     * @param dest The array to copy into
+     * @param offset The index of the first value to write
+     * @param mat The matrix to copy
+     */
+    static void setTransform(double[] dest, int offset, Matrix4d mat)
+    {
+        dest[offset] = mat.m00;
+        dest[offset + 1] = mat.m10;
+        dest[offset + 2] = mat.m20;
+        dest[offset + 3] = mat.m30;
+
+        dest[offset + 4] = mat.m01;
+        dest[offset + 5] = mat.m11;
+        dest[offset + 6] = mat.m21;
+        dest[offset + 7] = mat.m31;
+
+        dest[offset + 8] = mat.m02;
+        dest[offset + 9] = mat.m12;
+        dest[offset + 10] = mat.m22;
+        dest[offset + 11] = mat.m32;
+
+        dest[offset + 12] = mat.m03;
+        dest[offset + 13] = mat.m13;
+        dest[offset + 14] = mat.m23;
+        dest[offset + 15] = mat.m33;
+    }
+
+    /**
+     * Copy a column-major float array into an array at the given offset.
+     *
+     * @param dest The array to copy into
+     * @param offset The index of the first value to write
+     * @param mat The 16 values to copy
+     */
+    static void setTransform(double[] dest, int offset, float[] mat)
+    {
+        for(int i = 0; i < TRANSFORM_SIZE; i++)
+            dest[offset + i] = mat[i];
+    }
+}
@@ -632,12 +632,12 @@ public class SimpleFrustumCullStage extends BaseCullStage
                                         sr.getAppearanceRenderable();
 
                                     app_r =
-                                        new OverrideAppearanceProxyRenderable(app_r,
-                                                                              leaf_app);
+                                        proxyPool.getAppearanceProxy(app_r,
+                                                                     leaf_app);
                                 }
 
                                 OverrideShapeProxyRenderable proxy_r =
-                                    new OverrideShapeProxyRenderable((ShapeRenderable)kids[i], app_r);
+                                    proxyPool.getShapeProxy((ShapeRenderable)kids[i], app_r);
                                 workCullList[ret_val].renderable = proxy_r;
                             }
                             else
@@ -846,12 +846,12 @@ public class SimpleFrustumCullStage extends BaseCullStage
                                         sr.getAppearanceRenderable();
 
                                     app_r =
-                                        new OverrideAppearanceProxyRenderable(app_r,
-                                                                              leaf_app);
+                                        proxyPool.getAppearanceProxy(app_r,
+                                                                     leaf_app);
                                 }
 
                                 OverrideShapeProxyRenderable proxy_r =
-                                    new OverrideShapeProxyRenderable((ShapeRenderable)current, app_r);
+                                    proxyPool.getShapeProxy((ShapeRenderable)current, app_r);
                                 workCullList[cullEndIndex].renderable = proxy_r;
                             }
                             else
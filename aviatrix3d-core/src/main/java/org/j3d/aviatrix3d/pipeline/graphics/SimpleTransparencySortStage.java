@@ -375,10 +375,7 @@ public class SimpleTransparencySortStage extends BaseSortStage
 
                 float[] src_tx = ld.getTransform();
 
-                for(int k = 0; k < 16; k++)
-                {
-                    instr.renderList[idx].transform[k] = src_tx[k];
-                }
+                instr.renderList[idx].setTransform(src_tx);
 
                 instr.renderList[idx].id = lastGlobalId++;
                 instr.renderOps[idx] = RenderOp.START_LIGHT;
@@ -395,10 +392,7 @@ public class SimpleTransparencySortStage extends BaseSortStage
 
                 float[] src_tx = cd.getTransform();
 
-                for(int k = 0; k < 16; k++)
-                {
-                    instr.renderList[idx].transform[k] = src_tx[k];
-                }
+                instr.renderList[idx].setTransform(src_tx);
 
                 instr.renderList[idx].id = lastGlobalId++;
                 instr.renderOps[idx] = RenderOp.START_CLIP_PLANE;
@@ -437,25 +431,7 @@ public class SimpleTransparencySortStage extends BaseSortStage
                     idx++;
                 }
 
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = tx.m10;
-                instr.renderList[idx].transform[2] = tx.m20;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = tx.m01;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = tx.m21;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = tx.m02;
-                instr.renderList[idx].transform[9] = tx.m12;
-                instr.renderList[idx].transform[10] = tx.m22;
-                instr.renderList[idx].transform[11] = tx.m32;
-
-                instr.renderList[idx].transform[12] = tx.m03;
-                instr.renderList[idx].transform[13] = tx.m13;
-                instr.renderList[idx].transform[14] = tx.m23;
-                instr.renderList[idx].transform[15] = tx.m33;
+                instr.renderList[idx].setTransform(tx);
 
                 instr.renderList[idx].renderable = shape.getGeometryRenderable();
                 instr.renderOps[idx] = RenderOp.RENDER_GEOMETRY;
@@ -479,25 +455,7 @@ public class SimpleTransparencySortStage extends BaseSortStage
                     idx++;
                 }
 
-                instr.renderList[idx].transform[0] = tx.m00;
-                instr.renderList[idx].transform[1] = 0;
-                instr.renderList[idx].transform[2] = 0;
-                instr.renderList[idx].transform[3] = tx.m30;
-
-                instr.renderList[idx].transform[4] = 0;
-                instr.renderList[idx].transform[5] = tx.m11;
-                instr.renderList[idx].transform[6] = 0;
-                instr.renderList[idx].transform[7] = tx.m31;
-
-                instr.renderList[idx].transform[8] = 0;
-                instr.renderList[idx].transform[9] = 0;
-                instr.renderList[idx].transform[10] = 0;
-                instr.renderList[idx].transform[11] = 0;
-
-                instr.renderList[idx].transform[12] = 0;
-                instr.renderList[idx].transform[13] = 0;
-                instr.renderList[idx].transform[14] = 0;
-                instr.renderList[idx].transform[15] = 0;
+                instr.renderList[idx].set2DTransform(tx);
 
                 instr.renderList[idx].renderable = shape.getGeometryRenderable();
                 instr.renderOps[idx] = RenderOp.RENDER_GEOMETRY_2D;
@@ -516,25 +474,7 @@ public class SimpleTransparencySortStage extends BaseSortStage
             instr.renderList[idx].renderable = node.renderable;
             instr.renderList[idx].instructions = node.customData;
 
-            instr.renderList[idx].transform[0] = node.transform.m00;
-            instr.renderList[idx].transform[1] = node.transform.m10;
-            instr.renderList[idx].transform[2] = node.transform.m20;
-            instr.renderList[idx].transform[3] = node.transform.m30;
-
-            instr.renderList[idx].transform[4] = node.transform.m01;
-            instr.renderList[idx].transform[5] = node.transform.m11;
-            instr.renderList[idx].transform[6] = node.transform.m21;
-            instr.renderList[idx].transform[7] = node.transform.m31;
-
-            instr.renderList[idx].transform[8] = node.transform.m02;
-            instr.renderList[idx].transform[9] = node.transform.m12;
-            instr.renderList[idx].transform[10] = node.transform.m22;
-            instr.renderList[idx].transform[11] = node.transform.m32;
-
-            instr.renderList[idx].transform[12] = node.transform.m03;
-            instr.renderList[idx].transform[13] = node.transform.m13;
-            instr.renderList[idx].transform[14] = node.transform.m23;
-            instr.renderList[idx].transform[15] = node.transform.m33;
+            instr.renderList[idx].setTransform(node.transform);
 
             instr.renderOps[idx] = RenderOp.RENDER_CUSTOM;
             idx++;
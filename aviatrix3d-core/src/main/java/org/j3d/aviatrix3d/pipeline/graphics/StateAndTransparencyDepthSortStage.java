@@ -17,7 +17,6 @@ import java.text.Format;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.util.Locale;
-import java.util.Arrays;
 
 import org.j3d.maths.vector.Matrix4d;
 import org.j3d.maths.vector.Point3d;
@@ -332,7 +331,7 @@ public class StateAndTransparencyDepthSortStage extends BaseStateSortStage
         if(terminate)
             return idx;
 
-        Arrays.sort(opaqueList, 0, opaque, stateComparator);
+        sortByState(opaqueList, opaque);
 
         if(terminate)
             return idx;
@@ -372,6 +371,8 @@ public class StateAndTransparencyDepthSortStage extends BaseStateSortStage
             }
         }
 
+        idx = instanceGeometry(instr, instrCount, idx);
+
         new_size = idx + 1 + trans << 1;
 
         if(new_size > reqdSize)
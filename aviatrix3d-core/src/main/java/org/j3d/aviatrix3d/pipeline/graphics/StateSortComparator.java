@@ -168,31 +168,7 @@ public class StateSortComparator
      */
     public StateSortComparator(int[] priList)
     {
-        if((priList == null) || (priList.length == 0))
-            priList = DEFAULT_PRIORITIES;
-
-        priorityOrder = new int[priList.length];
-
-        // check using a simple run through the list. SUre it's n^2, but since
-        // we're only expecting 8-10 values, this is relatively trivial time
-        // cost.
-        int idx = 0;
-        for(int i = 0; i < priList.length; i++)
-        {
-            boolean exists = false;
-
-            for(int j = 0; j < idx; j++)
-            {
-                if(priorityOrder[j] == priList[i])
-                {
-                    exists = true;
-                    break;
-                }
-            }
-
-            if(!exists)
-                priorityOrder[idx++] = priList[i];
-        }
+        priorityOrder = buildPriorityOrder(priList);
     }
 
     /**
@@ -641,6 +617,46 @@ public class StateSortComparator
         return 0;
     }
 
+    /**
+     * Convert a user supplied priority listing to the form used internally.
+     * If any priority is repeated, the second (or more) instance is ignored.
+     * If the list instance is null or zero length, the default order is
+     * assumed.
+     *
+     * @param priList The listing of priorities to use
+     * @return The processed priority listing
+     */
+    static int[] buildPriorityOrder(int[] priList)
+    {
+        if((priList == null) || (priList.length == 0))
+            priList = DEFAULT_PRIORITIES;
+
+        int[] ret_val = new int[priList.length];
+
+        // check using a simple run through the list. SUre it's n^2, but since
+        // we're only expecting 8-10 values, this is relatively trivial time
+        // cost.
+        int idx = 0;
+        for(int i = 0; i < priList.length; i++)
+        {
+            boolean exists = false;
+
+            for(int j = 0; j < idx; j++)
+            {
+                if(ret_val[j] == priList[i])
+                {
+                    exists = true;
+                    break;
+                }
+            }
+
+            if(!exists)
+                ret_val[idx++] = priList[i];
+        }
+
+        return ret_val;
+    }
+
     /**
      * Indicates whether some other object is "equal to" this Comparator by
      * checking to see if it is the same class instance, and then if the
@@ -13,7 +13,7 @@
 package org.j3d.aviatrix3d.pipeline.graphics;
 
 // External imports
-import java.util.Arrays;
+// None
 
 // Local imports
 
@@ -62,7 +62,7 @@ public class StateSortStage extends BaseStateSortStage
                             GraphicsInstructions instr,
                             int instrCount)
     {
-        Arrays.sort(nodes, 0, numNodes, stateComparator);
+        sortByState(nodes, numNodes);
 
         int idx = instrCount;
 
@@ -102,7 +102,7 @@ public class StateSortStage extends BaseStateSortStage
             }
         }
 
-        return idx;
+        return instanceGeometry(instr, instrCount, idx);
     }
 
     @Override
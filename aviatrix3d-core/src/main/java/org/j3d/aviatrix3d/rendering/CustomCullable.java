@@ -33,6 +33,19 @@ import org.j3d.maths.vector.Vector4d;
  * Angular resolution may not be calculable from the available input data. For
  * example, an explicit viewport size is not yet available from the screen, or
  * the user has set the field of view to -1.
+ * <p>
+ *
+ * <b>Threading</b>
+ * <p>
+ *
+ * Cull stages that split the traversal across several worker threads, such
+ * as {@link org.j3d.aviatrix3d.pipeline.graphics.ParallelFrustumCullStage},
+ * may call {@link #cullChildren(CullInstructions, Matrix4d, Matrix4d,
+ * Vector4d[], float)} on different instances from several threads at once.
+ * If the same instance is used in more than one place in the scene graph,
+ * it may also be called concurrently for each of those places. The
+ * implementation must therefore only write to the provided output object
+ * and treat any state it keeps between calls as shared.
  *
  * @author Justin Couch
  * @version $Revision: 2.1 $
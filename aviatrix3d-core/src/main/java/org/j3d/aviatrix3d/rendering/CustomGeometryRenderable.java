@@ -44,6 +44,16 @@ import org.j3d.maths.vector.Vector4d;
  * Geometry that implement this interface should also be able to function
  * as normal unsorted geometry when the pipeline process does not support
  * any form of depth sorting.
+ * <p>
+ *
+ * {@link #processCull(Matrix4d, Matrix4d, Vector4d[], float)} is called from
+ * the cull stage. Cull stages that split the traversal across several worker
+ * threads, such as
+ * {@link org.j3d.aviatrix3d.pipeline.graphics.ParallelFrustumCullStage}, may
+ * call it from several threads at once, including concurrently on the same
+ * instance when the geometry is shared between several shapes. Any data
+ * needed at render time should be built and returned from that call rather
+ * than kept in fields of the geometry.
  *
  * @author Justin Couch
  * @version $Revision: 2.1 $
@@ -64,7 +64,9 @@ import org.j3d.maths.vector.Vector4d;
  * </li>
  * <li>The methods must be re-entrant as they can be called from multiple
  * places at once. For example, multiple pipes rendering the same object
- * on different screens simultaneously.
+ * on different screens simultaneously, or a cull stage that splits the
+ * traversal across several worker threads calling processCull() for each
+ * place the object is used in the scene graph.
  * </li>
  * <li>All state must be maintained within this class. It is assumed all
  * rendering takes place within the render method and there is no post-render
@@ -0,0 +1,704 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.rendering;
+
+// External imports
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2GL3;
+
+// Local imports
+// None
+
+/**
+ * Shadow copy of a subset of the OpenGL state, used to skip calls that would
+ * set a value that is already current.
+ * <p>
+ *
+ * The output device owns an instance per rendering processor and makes it
+ * current for the rendering thread for the duration of the draw loop. The
+ * renderables then issue their state changes through the static methods of
+ * this class, which look like the GL call they replace. If there is no
+ * current cache, for example when a renderable is used outside of the normal
+ * draw loop, the call is always passed straight through to GL.
+ * <p>
+ *
+ * The tracked state is:
+ * <ul>
+ * <li>Enable flags for blending, depth test, lighting and colour material</li>
+ * <li>Depth function and depth write mask</li>
+ * <li>Blend equation, source and destination factors and blend colour</li>
+ * <li>The active texture unit and the texture bound to each of the 1D, 2D,
+ *     3D and cube map targets of each unit</li>
+ * <li>The current shader program</li>
+ * <li>The material values last loaded</li>
+ * </ul>
+ * Any code that changes tracked state without going through this class must
+ * invalidate the cache afterwards. The rendering processor invalidates it
+ * after any operation that can run user code, such as custom renderables.
+ * <p>
+ *
+ * Every call made through a current cache is counted as either submitted to
+ * GL or elided. The counts are reset at the start of every frame.
+ */
+public class GLStateCache
+{
+    /** State value for something that has not been set yet */
+    private static final int UNKNOWN = -1;
+
+    /** Number of texture units we track */
+    private static final int MAX_TEXTURE_UNITS = 32;
+
+    /** Number of texture targets we track per unit */
+    private static final int NUM_TEXTURE_TARGETS = 4;
+
+    /** Index of the blend flag in the enable state */
+    private static final int BLEND_IDX = 0;
+
+    /** Index of the depth test flag in the enable state */
+    private static final int DEPTH_TEST_IDX = 1;
+
+    /** Index of the lighting flag in the enable state */
+    private static final int LIGHTING_IDX = 2;
+
+    /** Index of the colour material flag in the enable state */
+    private static final int COLOR_MATERIAL_IDX = 3;
+
+    /** Number of enable flags tracked */
+    private static final int NUM_ENABLE_FLAGS = 4;
+
+    /** The cache currently in use on each rendering thread */
+    private static final ThreadLocal<GLStateCache> currentCache =
+        new ThreadLocal<>();
+
+    /** Enable state of each tracked flag. 1 on, 0 off or UNKNOWN */
+    private int[] enableState;
+
+    /** The current depth function */
+    private int depthFunc;
+
+    /** The current depth mask. 1 write, 0 no write or UNKNOWN */
+    private int depthMask;
+
+    /** The current blend equation */
+    private int blendEquation;
+
+    /** Current RGB source blend factor */
+    private int blendSrcRGB;
+
+    /** Current RGB destination blend factor */
+    private int blendDestRGB;
+
+    /** Current alpha source blend factor */
+    private int blendSrcAlpha;
+
+    /** Current alpha destination blend factor */
+    private int blendDestAlpha;
+
+    /** Current blend colour */
+    private float[] blendColor;
+
+    /** True if the blend colour is known */
+    private boolean blendColorValid;
+
+    /** The active texture unit, as an offset from GL_TEXTURE0 */
+    private int activeUnit;
+
+    /** Texture bound to each target of each unit */
+    private int[] boundTextures;
+
+    /** The current shader program */
+    private int currentProgram;
+
+    /** The material whose values were last loaded, or null if unknown */
+    private Object currentMaterial;
+
+    /** The cache that was current before this one was activated */
+    private GLStateCache previousCache;
+
+    /** Number of calls passed through to GL this frame */
+    private int numSubmitted;
+
+    /** Number of calls skipped this frame */
+    private int numElided;
+
+    /**
+     * Create a new cache with all state unknown.
+     */
+    public GLStateCache()
+    {
+        enableState = new int[NUM_ENABLE_FLAGS];
+        blendColor = new float[4];
+        boundTextures = new int[MAX_TEXTURE_UNITS * NUM_TEXTURE_TARGETS];
+
+        invalidate();
+    }
+
+    //---------------------------------------------------------------
+    // Local methods
+    //---------------------------------------------------------------
+
+    /**
+     * Get the cache that is current for the calling thread.
+     *
+     * @return The current cache or null if none
+     */
+    public static GLStateCache getCurrentCache()
+    {
+        return currentCache.get();
+    }
+
+    /**
+     * Make this cache the current one for the calling thread. If another
+     * cache was already current, it is restored by {@link #deactivate()}.
+     */
+    public void activate()
+    {
+        previousCache = currentCache.get();
+        currentCache.set(this);
+    }
+
+    /**
+     * Stop this cache being the current one for the calling thread and
+     * restore the one that was current when it was activated. The restored
+     * cache is invalidated because the two may have been used on the same
+     * context.
+     */
+    public void deactivate()
+    {
+        if(previousCache != null)
+        {
+            previousCache.invalidate();
+            currentCache.set(previousCache);
+            previousCache = null;
+        }
+        else
+        {
+            // Clear rather than remove() so that the thread's map entry is
+            // kept and the next activate() does not allocate a new one.
+            currentCache.set(null);
+        }
+    }
+
+    /**
+     * Mark all of the state as unknown and reset the call counters. Called
+     * at the start of each frame.
+     */
+    public void reset()
+    {
+        invalidate();
+
+        numSubmitted = 0;
+        numElided = 0;
+    }
+
+    /**
+     * Mark all of the state as unknown, so that the next call that sets any
+     * of it is always passed through to GL.
+     */
+    public void invalidate()
+    {
+        for(int i = 0; i < NUM_ENABLE_FLAGS; i++)
+            enableState[i] = UNKNOWN;
+
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+        blendEquation = UNKNOWN;
+        blendSrcRGB = UNKNOWN;
+        blendDestRGB = UNKNOWN;
+        blendSrcAlpha = UNKNOWN;
+        blendDestAlpha = UNKNOWN;
+        blendColorValid = false;
+        currentProgram = UNKNOWN;
+
+        invalidateTextures();
+        invalidateLighting();
+    }
+
+    /**
+     * Mark the texture unit and binding state as unknown. Used after
+     * restoring the texture attribute bits.
+     */
+    public void invalidateTextures()
+    {
+        activeUnit = UNKNOWN;
+
+        for(int i = 0; i < boundTextures.length; i++)
+            boundTextures[i] = UNKNOWN;
+    }
+
+    /**
+     * Mark the lighting and material state as unknown. Used after restoring
+     * the lighting attribute bits and after rendering with colour material
+     * enabled.
+     */
+    public void invalidateLighting()
+    {
+        enableState[LIGHTING_IDX] = UNKNOWN;
+        enableState[COLOR_MATERIAL_IDX] = UNKNOWN;
+        currentMaterial = null;
+    }
+
+    /**
+     * Get the number of calls made through this cache that were passed on to
+     * GL since the last reset.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getSubmittedCount()
+    {
+        return numSubmitted;
+    }
+
+    /**
+     * Get the number of calls made through this cache that were skipped
+     * because they would not change the state, since the last reset.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getElidedCount()
+    {
+        return numElided;
+    }
+
+    /**
+     * Invalidate the lighting state of the current cache, if there is one.
+     */
+    public static void invalidateCurrentLighting()
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+            cache.invalidateLighting();
+    }
+
+    /**
+     * Invalidate the texture state of the current cache, if there is one.
+     */
+    public static void invalidateCurrentTextures()
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+            cache.invalidateTextures();
+    }
+
+    /**
+     * Enable a GL capability if it is not already enabled.
+     *
+     * @param gl The GL context to issue the call with
+     * @param cap The capability to enable
+     */
+    public static void glEnable(GL gl, int cap)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache == null || cache.changeEnable(cap, 1))
+            gl.glEnable(cap);
+    }
+
+    /**
+     * Disable a GL capability if it is not already disabled.
+     *
+     * @param gl The GL context to issue the call with
+     * @param cap The capability to disable
+     */
+    public static void glDisable(GL gl, int cap)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache == null || cache.changeEnable(cap, 0))
+            gl.glDisable(cap);
+    }
+
+    /**
+     * Set the depth function if it is different to the current one.
+     *
+     * @param gl The GL context to issue the call with
+     * @param func The depth function to use
+     */
+    public static void glDepthFunc(GL gl, int func)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            if(cache.depthFunc == func)
+            {
+                cache.numElided++;
+                return;
+            }
+
+            cache.depthFunc = func;
+            cache.numSubmitted++;
+        }
+
+        gl.glDepthFunc(func);
+    }
+
+    /**
+     * Set the depth write mask if it is different to the current one.
+     *
+     * @param gl The GL context to issue the call with
+     * @param flag true to enable writing to the depth buffer
+     */
+    public static void glDepthMask(GL gl, boolean flag)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            int mask = flag ? 1 : 0;
+
+            if(cache.depthMask == mask)
+            {
+                cache.numElided++;
+                return;
+            }
+
+            cache.depthMask = mask;
+            cache.numSubmitted++;
+        }
+
+        gl.glDepthMask(flag);
+    }
+
+    /**
+     * Set the blend equation if it is different to the current one.
+     *
+     * @param gl The GL context to issue the call with
+     * @param mode The blend equation to use
+     */
+    public static void glBlendEquation(GL gl, int mode)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            if(cache.blendEquation == mode)
+            {
+                cache.numElided++;
+                return;
+            }
+
+            cache.blendEquation = mode;
+            cache.numSubmitted++;
+        }
+
+        gl.glBlendEquation(mode);
+    }
+
+    /**
+     * Set the blend factors if they are different to the current ones.
+     *
+     * @param gl The GL context to issue the call with
+     * @param src The source factor for both colour and alpha
+     * @param dest The destination factor for both colour and alpha
+     */
+    public static void glBlendFunc(GL gl, int src, int dest)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null && !cache.changeBlendFunc(src, dest, src, dest))
+            return;
+
+        gl.glBlendFunc(src, dest);
+    }
+
+    /**
+     * Set separate colour and alpha blend factors if they are different to
+     * the current ones.
+     *
+     * @param gl The GL context to issue the call with
+     * @param srcRGB The source factor for colour
+     * @param destRGB The destination factor for colour
+     * @param srcAlpha The source factor for alpha
+     * @param destAlpha The destination factor for alpha
+     */
+    public static void glBlendFuncSeparate(GL gl,
+                                           int srcRGB,
+                                           int destRGB,
+                                           int srcAlpha,
+                                           int destAlpha)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null &&
+           !cache.changeBlendFunc(srcRGB, destRGB, srcAlpha, destAlpha))
+            return;
+
+        gl.glBlendFuncSeparate(srcRGB, destRGB, srcAlpha, destAlpha);
+    }
+
+    /**
+     * Set the blend colour if it is different to the current one.
+     *
+     * @param gl The GL context to issue the call with
+     * @param r The red component of the colour
+     * @param g The green component of the colour
+     * @param b The blue component of the colour
+     * @param a The alpha component of the colour
+     */
+    public static void glBlendColor(GL2GL3 gl, float r, float g, float b, float a)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            float[] col = cache.blendColor;
+
+            if(cache.blendColorValid &&
+               col[0] == r && col[1] == g && col[2] == b && col[3] == a)
+            {
+                cache.numElided++;
+                return;
+            }
+
+            col[0] = r;
+            col[1] = g;
+            col[2] = b;
+            col[3] = a;
+            cache.blendColorValid = true;
+            cache.numSubmitted++;
+        }
+
+        gl.glBlendColor(r, g, b, a);
+    }
+
+    /**
+     * Change the active texture unit if it is different to the current one.
+     *
+     * @param gl The GL context to issue the call with
+     * @param texture The unit to make active, GL_TEXTURE0 and above
+     */
+    public static void glActiveTexture(GL gl, int texture)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            int unit = texture - GL.GL_TEXTURE0;
+
+            if(unit < 0 || unit >= MAX_TEXTURE_UNITS)
+                unit = UNKNOWN;
+            else if(cache.activeUnit == unit)
+            {
+                cache.numElided++;
+                return;
+            }
+
+            cache.activeUnit = unit;
+            cache.numSubmitted++;
+        }
+
+        gl.glActiveTexture(texture);
+    }
+
+    /**
+     * Bind a texture to the active unit if it is not already bound there.
+     *
+     * @param gl The GL context to issue the call with
+     * @param target The texture target to bind to
+     * @param texture The texture object ID to bind
+     */
+    public static void glBindTexture(GL gl, int target, int texture)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            int idx = cache.textureIndex(target);
+
+            if(idx != UNKNOWN)
+            {
+                if(cache.boundTextures[idx] == texture)
+                {
+                    cache.numElided++;
+                    return;
+                }
+
+                cache.boundTextures[idx] = texture;
+            }
+
+            cache.numSubmitted++;
+        }
+
+        gl.glBindTexture(target, texture);
+    }
+
+    /**
+     * Make a shader program current if it is not already.
+     *
+     * @param gl The GL context to issue the call with
+     * @param program The program object ID, or 0 for fixed function
+     */
+    public static void glUseProgramObjectARB(GL2 gl, int program)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache != null)
+        {
+            if(cache.currentProgram == program)
+            {
+                cache.numElided++;
+                return;
+            }
+
+            cache.currentProgram = program;
+            cache.numSubmitted++;
+        }
+
+        gl.glUseProgramObjectARB(program);
+    }
+
+    /**
+     * Check whether a material needs loading, and record it as the current
+     * material if so. Materials are compared using their equals() method so
+     * that different objects with identical values are only loaded once.
+     * Since material values cannot change while a frame is being drawn, the
+     * object itself can be kept rather than a copy of its values.
+     *
+     * @param material The material about to be loaded
+     * @return true if the material values need to be sent to GL
+     */
+    public static boolean isMaterialChange(Object material)
+    {
+        GLStateCache cache = currentCache.get();
+
+        if(cache == null)
+            return true;
+
+        if(cache.currentMaterial != null && cache.currentMaterial.equals(material))
+        {
+            cache.numElided++;
+            return false;
+        }
+
+        cache.currentMaterial = material;
+        cache.numSubmitted++;
+
+        return true;
+    }
+
+    /**
+     * Update the tracked state of an enable flag.
+     *
+     * @param cap The capability being changed
+     * @param state 1 for enabled, 0 for disabled
+     * @return true if the call needs to be made
+     */
+    private boolean changeEnable(int cap, int state)
+    {
+        int idx;
+
+        switch(cap)
+        {
+            case GL.GL_BLEND:
+                idx = BLEND_IDX;
+                break;
+
+            case GL.GL_DEPTH_TEST:
+                idx = DEPTH_TEST_IDX;
+                break;
+
+            case GL2.GL_LIGHTING:
+                idx = LIGHTING_IDX;
+                break;
+
+            case GL2.GL_COLOR_MATERIAL:
+                idx = COLOR_MATERIAL_IDX;
+                break;
+
+            default:
+                numSubmitted++;
+                return true;
+        }
+
+        if(enableState[idx] == state)
+        {
+            numElided++;
+            return false;
+        }
+
+        enableState[idx] = state;
+        numSubmitted++;
+
+        return true;
+    }
+
+    /**
+     * Update the tracked blend factors.
+     *
+     * @return true if the call needs to be made
+     */
+    private boolean changeBlendFunc(int srcRGB,
+                                    int destRGB,
+                                    int srcAlpha,
+                                    int destAlpha)
+    {
+        if(blendSrcRGB == srcRGB && blendDestRGB == destRGB &&
+           blendSrcAlpha == srcAlpha && blendDestAlpha == destAlpha)
+        {
+            numElided++;
+            return false;
+        }
+
+        blendSrcRGB = srcRGB;
+        blendDestRGB = destRGB;
+        blendSrcAlpha = srcAlpha;
+        blendDestAlpha = destAlpha;
+        numSubmitted++;
+
+        return true;
+    }
+
+    /**
+     * Find the binding slot for the given target on the active unit.
+     *
+     * @param target The texture target
+     * @return The index into boundTextures or UNKNOWN if not tracked
+     */
+    private int textureIndex(int target)
+    {
+        if(activeUnit == UNKNOWN)
+            return UNKNOWN;
+
+        int offset;
+
+        switch(target)
+        {
+            case GL2.GL_TEXTURE_1D:
+                offset = 0;
+                break;
+
+            case GL.GL_TEXTURE_2D:
+                offset = 1;
+                break;
+
+            case GL2.GL_TEXTURE_3D:
+                offset = 2;
+                break;
+
+            case GL.GL_TEXTURE_CUBE_MAP:
+                offset = 3;
+                break;
+
+            default:
+                return UNKNOWN;
+        }
+
+        return activeUnit * NUM_TEXTURE_TARGETS + offset;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.rendering;
+
+// External imports
+import com.jogamp.opengl.GL2;
+
+// Local imports
+// None
+
+/**
+ * Geometry that is capable of drawing multiple copies of itself with a
+ * single hardware instanced draw call.
+ * <p>
+ *
+ * When the sort stage finds the same geometry drawn several times in a row
+ * with identical state, it may collapse those draws into a single instanced
+ * draw. The output device is responsible for making the per-instance
+ * transforms available to the shader before calling
+ * {@link #renderInstanced(GL2, int)}. The geometry only needs to set up its
+ * own vertex state and issue the instanced form of its normal draw call.
+ */
+public interface InstancedGeometryRenderable extends GeometryRenderable
+{
+    /**
+     * Check to see if the geometry can currently be drawn with an instanced
+     * draw call. Geometry that has nothing to draw, or that uses state that
+     * cannot be shared between instances, should return false.
+     *
+     * @return true if the geometry can be instanced
+     */
+    public boolean isInstanceable();
+
+    /**
+     * Render the given number of copies of the geometry now, using the
+     * instanced form of the draw call.
+     *
+     * @param gl The GL context to render with
+     * @param numInstances The number of copies to draw
+     */
+    public void renderInstanced(GL2 gl, int numInstances);
+}
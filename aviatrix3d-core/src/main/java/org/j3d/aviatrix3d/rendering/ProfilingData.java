@@ -33,4 +33,17 @@ public class ProfilingData
 
     /** The number of nodes coming into the sort stage */
     public int sceneSortInput;
+
+    /**
+     * Reset all the values back to zero so that the instance can be reused
+     * for another frame.
+     */
+    public void clear()
+    {
+        sceneRenderTime = 0;
+        sceneCullTime = 0;
+        sceneSortTime = 0;
+        sceneDrawTime = 0;
+        sceneSortInput = 0;
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.rendering;
+
+// External imports
+import com.jogamp.openal.AL;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Point3d;
+
+// Local imports
+// None
+
+/**
+ * An audio renderable that can play through an OpenAL source owned by the
+ * output device, and keep playing virtually when it has no source at all.
+ * <p>
+ *
+ * Output devices that only have a limited number of voices hand out sources
+ * from a fixed pool to the loudest renderables each frame. While a source is
+ * bound, {@link #render(AL, Matrix4d)} is used as normal and must not
+ * generate a source of its own. While there is no source, the renderable
+ * is told how much time has passed so that it can track where playback would
+ * be, and picks up from that point when it next gets a source.
+ */
+public interface VirtualAudioRenderable extends AudioRenderable
+{
+    /**
+     * Calculate the gain that this renderable would be heard at from the
+     * given listener position, including the distance and cone attenuation.
+     * Both the transform and the position are in world coordinates. A
+     * renderable that is not currently playing returns zero.
+     *
+     * @param transform The transformation from the renderable to the world
+     * @param listener The position of the listener in world coordinates
+     * @return A gain value, zero or greater
+     */
+    public float getAudibleGain(Matrix4d transform, Point3d listener);
+
+    /**
+     * Bind the given device owned source to this renderable. The source
+     * is set up with the current state and playback position during the
+     * next call to {@link #render(AL, Matrix4d)}.
+     *
+     * @param source The OpenAL source ID to use
+     */
+    public void bindSource(int source);
+
+    /**
+     * Release the currently bound source, recording the playback position
+     * so that it can be resumed later. The source should be stopped and
+     * left with no buffer attached. Does nothing if no source is bound.
+     *
+     * @param al The al context to use
+     */
+    public void releaseSource(AL al);
+
+    /**
+     * Advance the playback position of a renderable that does not currently
+     * have a source bound.
+     *
+     * @param deltaTime The time in seconds since the last update
+     */
+    public void updateVirtual(float deltaTime);
+}
@@ -15,9 +15,11 @@
 package org.j3d.aviatrix3d;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.j3d.maths.vector.AxisAngle4d;
 import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -230,6 +232,183 @@ public class BoundingBoxTest
                      "Segment intersection incorrect");
     }
 
+    @Test(groups = "unit", dataProvider = "frustum tests")
+    public void testFrustumIntersection(float[] minExtents,
+                                        float[] maxExtents,
+                                        double[] translation,
+                                        int expectedResult)
+    {
+        Vector4d[] planes = createCubeFrustum(10);
+        double[] flat_planes = new double[24];
+        BoundingBoxBatch.flattenPlanes(planes, flat_planes);
+
+        Matrix4d test_matrix = new Matrix4d();
+        test_matrix.setIdentity();
+        test_matrix.m03 = translation[0];
+        test_matrix.m13 = translation[1];
+        test_matrix.m23 = translation[2];
+
+        BoundingBox class_under_test = new BoundingBox(minExtents, maxExtents);
+
+        assertEquals(class_under_test.checkIntersectionFrustum(planes, test_matrix),
+                     expectedResult,
+                     "Frustum intersection incorrect");
+
+        assertEquals(class_under_test.checkIntersectionFrustum(flat_planes, test_matrix),
+                     expectedResult,
+                     "Flat plane frustum intersection incorrect");
+
+        BoundingBoxBatch batch = new BoundingBoxBatch(1);
+        batch.add(class_under_test, test_matrix);
+
+        int[] results = new int[1];
+        batch.checkIntersectionFrustum(flat_planes, results);
+
+        assertEquals(results[0], expectedResult, "Batch frustum intersection incorrect");
+    }
+
+    @Test(groups = "unit")
+    public void testFrustumPlaneCoherency() throws Exception
+    {
+        Vector4d[] planes = createCubeFrustum(10);
+
+        Matrix4d test_matrix = new Matrix4d();
+        test_matrix.setIdentity();
+
+        BoundingBox class_under_test =
+            new BoundingBox(new float[] { -1, -1, -1 }, new float[] { 1, 1, 1 });
+
+        // Rejected by the +X plane first, then moved so that a different
+        // plane rejects it, then brought back inside. The cached plane must
+        // never change the answer.
+        test_matrix.m03 = 20;
+        assertEquals(class_under_test.checkIntersectionFrustum(planes, test_matrix),
+                     BoundingVolume.FRUSTUM_ALLOUT,
+                     "+X should be out");
+
+        test_matrix.m03 = 0;
+        test_matrix.m13 = -20;
+        assertEquals(class_under_test.checkIntersectionFrustum(planes, test_matrix),
+                     BoundingVolume.FRUSTUM_ALLOUT,
+                     "-Y should be out");
+
+        test_matrix.m13 = 0;
+        assertEquals(class_under_test.checkIntersectionFrustum(planes, test_matrix),
+                     BoundingVolume.FRUSTUM_ALLIN,
+                     "Centre should be in");
+
+        test_matrix.m13 = 10;
+        assertEquals(class_under_test.checkIntersectionFrustum(planes, test_matrix),
+                     BoundingVolume.FRUSTUM_PARTIAL,
+                     "Edge should be partial");
+    }
+
+    @Test(groups = "unit")
+    public void testFrustumMatchesCornerTest() throws Exception
+    {
+        Random rand = new Random(1234);
+        Vector4d[] planes = createCubeFrustum(10);
+        double[] flat_planes = new double[24];
+        BoundingBoxBatch.flattenPlanes(planes, flat_planes);
+
+        AxisAngle4d rotation = new AxisAngle4d();
+        Matrix4d test_matrix = new Matrix4d();
+        float[] min = new float[3];
+        float[] max = new float[3];
+
+        BoundingBoxBatch batch = new BoundingBoxBatch(4);
+        int[] expected = new int[500];
+
+        for(int i = 0; i < 500; i++)
+        {
+            for(int j = 0; j < 3; j++)
+            {
+                min[j] = rand.nextFloat() * 10 - 5;
+                max[j] = min[j] + rand.nextFloat() * 5;
+            }
+
+            rotation.set(rand.nextDouble(),
+                         rand.nextDouble(),
+                         rand.nextDouble() + 0.1,
+                         rand.nextDouble() * Math.PI * 2);
+            test_matrix.set(rotation);
+            test_matrix.m03 = rand.nextDouble() * 30 - 15;
+            test_matrix.m13 = rand.nextDouble() * 30 - 15;
+            test_matrix.m23 = rand.nextDouble() * 30 - 15;
+
+            BoundingBox class_under_test = new BoundingBox(min, max);
+
+            expected[i] = cornerFrustumTest(min, max, planes, test_matrix);
+
+            assertEquals(class_under_test.checkIntersectionFrustum(planes, test_matrix),
+                         expected[i],
+                         "Frustum test " + i + " doesn't match corner test");
+            assertEquals(class_under_test.checkIntersectionFrustum(flat_planes, test_matrix),
+                         expected[i],
+                         "Flat frustum test " + i + " doesn't match corner test");
+
+            batch.add(class_under_test, test_matrix);
+        }
+
+        assertEquals(batch.size(), 500, "Batch didn't grow to hold all boxes");
+
+        int[] results = new int[500];
+        batch.checkIntersectionFrustum(flat_planes, results);
+
+        // The batch uses the enclosing world box, so it may only ever be
+        // more conservative than the exact test.
+        for(int i = 0; i < 500; i++)
+        {
+            if(expected[i] != BoundingVolume.FRUSTUM_ALLOUT)
+                assertNotEquals(results[i],
+                                BoundingVolume.FRUSTUM_ALLOUT,
+                                "Batch culled visible box " + i);
+
+            if(results[i] == BoundingVolume.FRUSTUM_ALLIN)
+                assertEquals(expected[i],
+                             BoundingVolume.FRUSTUM_ALLIN,
+                             "Batch box " + i + " wrongly all in");
+        }
+    }
+
+    @DataProvider(name = "frustum tests")
+    public Object[][] generateFrustumTestsData()
+    {
+        Object[][] ret_val = new Object[5][4];
+
+        // Box in the middle
+        ret_val[0][0] = new float[] { -1.0f, -1.0f, -1.0f };
+        ret_val[0][1] = new float[] {  1.0f,  1.0f,  1.0f };
+        ret_val[0][2] = new double[] { 0, 0, 0 };
+        ret_val[0][3] = BoundingVolume.FRUSTUM_ALLIN;
+
+        // Box straddling the +X plane
+        ret_val[1][0] = new float[] { -1.0f, -1.0f, -1.0f };
+        ret_val[1][1] = new float[] {  1.0f,  1.0f,  1.0f };
+        ret_val[1][2] = new double[] { 10, 0, 0 };
+        ret_val[1][3] = BoundingVolume.FRUSTUM_PARTIAL;
+
+        // Box completely outside the -Z plane
+        ret_val[2][0] = new float[] { -1.0f, -1.0f, -1.0f };
+        ret_val[2][1] = new float[] {  1.0f,  1.0f,  1.0f };
+        ret_val[2][2] = new double[] { 0, 0, -15 };
+        ret_val[2][3] = BoundingVolume.FRUSTUM_ALLOUT;
+
+        // Box larger than the frustum
+        ret_val[3][0] = new float[] { -20.0f, -20.0f, -20.0f };
+        ret_val[3][1] = new float[] {  20.0f,  20.0f,  20.0f };
+        ret_val[3][2] = new double[] { 0, 0, 0 };
+        ret_val[3][3] = BoundingVolume.FRUSTUM_PARTIAL;
+
+        // Offset box moved back into the frustum by the transform
+        ret_val[4][0] = new float[] { 30.0f, 30.0f, 30.0f };
+        ret_val[4][1] = new float[] { 32.0f, 32.0f, 32.0f };
+        ret_val[4][2] = new double[] { -31, -31, -31 };
+        ret_val[4][3] = BoundingVolume.FRUSTUM_ALLIN;
+
+        return ret_val;
+    }
+
     @DataProvider(name = "point tests")
     public Object[][] generatePointTestsData()
     {
@@ -518,4 +697,67 @@ public class BoundingBoxTest
 
         return ret_val;
     }
+
+    /**
+     * Create a set of frustum planes describing a cube centred on the origin,
+     * with the normals pointing inwards.
+     *
+     * @param halfSize Distance from the origin to each plane
+     * @return The 6 planes
+     */
+    private Vector4d[] createCubeFrustum(double halfSize)
+    {
+        Vector4d[] ret_val = new Vector4d[6];
+
+        for(int i = 0; i < 6; i++)
+            ret_val[i] = new Vector4d();
+
+        ret_val[0].set(-1, 0, 0, halfSize);
+        ret_val[1].set(1, 0, 0, halfSize);
+        ret_val[2].set(0, 1, 0, halfSize);
+        ret_val[3].set(0, -1, 0, halfSize);
+        ret_val[4].set(0, 0, -1, halfSize);
+        ret_val[5].set(0, 0, 1, halfSize);
+
+        return ret_val;
+    }
+
+    /**
+     * Reference frustum test that transforms all 8 corners of the box and
+     * tests each one against each plane.
+     */
+    private int cornerFrustumTest(float[] min,
+                                  float[] max,
+                                  Vector4d[] planes,
+                                  Matrix4d mat)
+    {
+        int all_in_count = 0;
+
+        for(int p = 0; p < 6; p++)
+        {
+            int in_count = 0;
+
+            for(int i = 0; i < 8; i++)
+            {
+                double x = ((i & 1) == 0) ? min[0] : max[0];
+                double y = ((i & 2) == 0) ? min[1] : max[1];
+                double z = ((i & 4) == 0) ? min[2] : max[2];
+
+                double t_x = mat.m00 * x + mat.m01 * y + mat.m02 * z + mat.m03;
+                double t_y = mat.m10 * x + mat.m11 * y + mat.m12 * z + mat.m13;
+                double t_z = mat.m20 * x + mat.m21 * y + mat.m22 * z + mat.m23;
+
+                if(planes[p].x * t_x + planes[p].y * t_y + planes[p].z * t_z + planes[p].w > 0)
+                    in_count++;
+            }
+
+            if(in_count == 0)
+                return BoundingVolume.FRUSTUM_ALLOUT;
+
+            if(in_count == 8)
+                all_in_count++;
+        }
+
+        return (all_in_count == 6) ? BoundingVolume.FRUSTUM_ALLIN : BoundingVolume.FRUSTUM_PARTIAL;
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+import java.nio.Buffer;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLContext;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.j3d.aviatrix3d.test.AV3DMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.test.MockGL2;
+
+/**
+ * Unit tests for the index type and interleaved VBO layout of indexed geometry
+ */
+public class IndexedGeometryFormatTest
+{
+    private static final float[] COORDS = {
+        0, 0, 0,  1, 0, 0,  1, 1, 0,  0, 1, 0
+    };
+
+    private static final float[] NORMALS = {
+        0, 0, 1,  0, 0, 1,  0, 0, 1,  0, 0, 1
+    };
+
+    private static final float[] TEX_COORDS = {
+        0, 0,  1, 0,  1, 1,  0, 1
+    };
+
+    private static final int[] INDICES = { 0, 1, 2,  0, 2, 3 };
+
+    private MockGL2 mockGL2;
+
+    private boolean savedVboQuery;
+
+    private boolean savedVboAvailable;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        mockGL2 = new MockGL2(mock(GLContext.class));
+
+        savedVboQuery = VertexGeometry.vboQueryComplete;
+        savedVboAvailable = VertexGeometry.vboAvailable;
+    }
+
+    @AfterMethod(groups = "unit")
+    public void cleanupTests() throws Exception
+    {
+        VertexGeometry.vboQueryComplete = savedVboQuery;
+        VertexGeometry.vboAvailable = savedVboAvailable;
+    }
+
+    @Test(groups = "unit")
+    public void testShortIndicesUsed() throws Exception
+    {
+        IndexedTriangleArray class_under_test = new IndexedTriangleArray();
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, COORDS);
+        class_under_test.setIndices(INDICES, INDICES.length);
+
+        assertTrue(class_under_test.isShortIndicesEnabled(), "Short indices not default");
+        assertEquals(class_under_test.getIndexType(), GL.GL_UNSIGNED_SHORT,
+                     "Small mesh not compacted");
+        assertEquals(class_under_test.getBufferDataSize(),
+                     COORDS.length * 4 + INDICES.length * 2,
+                     "Index buffer should be half size");
+
+        VertexGeometry.vboQueryComplete = true;
+        VertexGeometry.vboAvailable = false;
+
+        class_under_test.render(mockGL2);
+
+        mockGL2.verifyCall("glDrawElements",
+                           GL.GL_TRIANGLES,
+                           INDICES.length,
+                           GL.GL_UNSIGNED_SHORT,
+                           avAny(Buffer.class));
+
+        class_under_test.setShortIndicesEnabled(false);
+
+        assertEquals(class_under_test.getIndexType(), GL.GL_UNSIGNED_INT,
+                     "Int indices not restored when disabled");
+
+        class_under_test.render(mockGL2);
+
+        mockGL2.verifyCall("glDrawElements",
+                           GL.GL_TRIANGLES,
+                           INDICES.length,
+                           GL.GL_UNSIGNED_INT,
+                           avAny(Buffer.class));
+    }
+
+    @Test(groups = "unit")
+    public void testLargeIndexUsesInt() throws Exception
+    {
+        float[] coords = new float[65537 * 3];
+        int[] indices = { 0, 1, 65536 };
+
+        IndexedTriangleArray class_under_test = new IndexedTriangleArray();
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, coords);
+        class_under_test.setIndices(indices, indices.length);
+
+        assertEquals(class_under_test.getIndexType(), GL.GL_UNSIGNED_INT,
+                     "Index above 16 bits was compacted");
+
+        // The largest index that fits in 16 bits is still compacted
+        indices[2] = 65535;
+        class_under_test.setIndices(indices, indices.length);
+
+        assertEquals(class_under_test.getIndexType(), GL.GL_UNSIGNED_SHORT,
+                     "Index of 65535 not compacted");
+    }
+
+    @Test(groups = "unit")
+    public void testInterleavedVBO() throws Exception
+    {
+        VertexGeometry.vboQueryComplete = true;
+        VertexGeometry.vboAvailable = true;
+
+        IndexedTriangleArray class_under_test =
+            new IndexedTriangleArray(true, VertexGeometry.VBO_HINT_STATIC);
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, COORDS);
+        class_under_test.setIndices(INDICES, INDICES.length);
+        class_under_test.setNormals(NORMALS);
+        class_under_test.setTextureCoordinates(new int[] { TriangleArray.TEXTURE_COORDINATE_2 },
+                                               new float[][] { TEX_COORDS });
+        class_under_test.setInterleavedEnabled(true);
+
+        assertTrue(class_under_test.isInterleavedEnabled(), "Interleaving not enabled");
+
+        class_under_test.render(mockGL2);
+
+        // One block of 4 vertices, each 8 floats
+        mockGL2.verifyCall("glBufferData",
+                           GL.GL_ARRAY_BUFFER,
+                           128L,
+                           avNull(),
+                           VertexGeometry.VBO_HINT_STATIC);
+        mockGL2.verifyCall("glBufferSubData",
+                           GL.GL_ARRAY_BUFFER,
+                           0L,
+                           128L,
+                           avAny(Buffer.class));
+        assertEquals(mockGL2.getCallCount("glBufferSubData"), 1,
+                     "Normals and tex coords sent separately");
+
+        mockGL2.verifyCall("glBufferData",
+                           GL.GL_ELEMENT_ARRAY_BUFFER,
+                           12L,
+                           avNull(),
+                           VertexGeometry.VBO_HINT_STATIC);
+
+        mockGL2.verifyCall("glVertexPointer", 3, GL.GL_FLOAT, 32, 0L);
+        mockGL2.verifyCall("glNormalPointer", GL.GL_FLOAT, 32, 12L);
+        mockGL2.verifyCall("glTexCoordPointer", 2, GL.GL_FLOAT, 32, 24L);
+
+        mockGL2.verifyCall("glDrawElements",
+                           GL.GL_TRIANGLES,
+                           INDICES.length,
+                           GL.GL_UNSIGNED_SHORT,
+                           0L);
+
+        // Nothing changed, so nothing is sent again
+        class_under_test.render(mockGL2);
+
+        assertEquals(mockGL2.getCallCount("glBufferData"), 0, "Data sent again");
+    }
+}
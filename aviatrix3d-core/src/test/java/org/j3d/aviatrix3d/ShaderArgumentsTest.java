@@ -14,12 +14,22 @@
 
 package org.j3d.aviatrix3d;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.GLContext;
+
+import org.j3d.util.ErrorReporter;
 import org.j3d.util.I18nManager;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
+import org.j3d.aviatrix3d.test.MockGL2;
+
 /**
  * Unit tests for the ShaderArguments class
  *
@@ -34,6 +44,12 @@ public class ShaderArgumentsTest
         intl_mgr.setApplication("StandardRenderingProcessorTest", "config.i18n.org-j3d-aviatrix3d-resources-core");
     }
 
+    @AfterMethod(groups = "unit")
+    public void cleanupTests() throws Exception
+    {
+        ShaderArguments.setErrorReporter(null);
+    }
+
     @Test(groups = "unit")
     public void testBasicFloatUniformRegistration() throws Exception
     {
@@ -314,4 +330,190 @@ public class ShaderArgumentsTest
         // Different size, should result in the exception.
         class_under_test.setUniformSampler(TEST_UNIFORM_NAME, 1);
     }
+
+    @Test(groups = "unit")
+    public void testUploadOnlyWhenChanged() throws Exception
+    {
+        final Integer TEST_PROGRAM_ID = 1;
+        final float[] TEST_DATA = { 1, 2 };
+
+        UniformGL2 mock_gl = new UniformGL2();
+        mock_gl.setLocation(TEST_PROGRAM_ID, "uni", 4);
+
+        ShaderArguments class_under_test = new ShaderArguments();
+        class_under_test.setUniform("uni", 2, TEST_DATA, 1);
+
+        class_under_test.render(mock_gl, TEST_PROGRAM_ID);
+        class_under_test.render(mock_gl, TEST_PROGRAM_ID);
+
+        assertEquals(mock_gl.getCallCount("glGetUniformLocation"), 1, "Location not cached");
+        assertEquals(mock_gl.getCallCount("glUniform2fv"), 1, "Unchanged value uploaded");
+
+        class_under_test.setUniform("uni", 2, TEST_DATA, 1);
+        class_under_test.render(mock_gl, TEST_PROGRAM_ID);
+
+        assertEquals(mock_gl.getCallCount("glGetUniformLocation"), 1, "Location fetched again");
+        assertEquals(mock_gl.getCallCount("glUniform2fv"), 2, "Changed value not uploaded");
+
+        mock_gl.verifyCall("glUniform2fv", 4, 1, TEST_DATA, 0);
+    }
+
+    @Test(groups = "unit")
+    public void testLocationsPerProgram() throws Exception
+    {
+        final Integer TEST_PROGRAM_1 = 1;
+        final Integer TEST_PROGRAM_2 = 2;
+
+        UniformGL2 mock_gl = new UniformGL2();
+        mock_gl.setLocation(TEST_PROGRAM_1, "uni", 3);
+        mock_gl.setLocation(TEST_PROGRAM_2, "uni", 7);
+
+        ShaderArguments class_under_test = new ShaderArguments();
+        class_under_test.setUniformSampler("uni", 1);
+
+        // Alternate between programs as a shared argument set would
+        for(int i = 0; i < 3; i++)
+        {
+            class_under_test.render(mock_gl, TEST_PROGRAM_1);
+            class_under_test.render(mock_gl, TEST_PROGRAM_2);
+        }
+
+        assertEquals(mock_gl.getCallCount("glGetUniformLocation"), 2,
+                     "Should fetch once per program");
+        assertEquals(mock_gl.getCallCount("glUniform1i"), 2,
+                     "Should upload once per program");
+
+        mock_gl.verifyCall("glUniform1i", 3, 1);
+        mock_gl.verifyCall("glUniform1i", 7, 1);
+    }
+
+    @Test(groups = "unit")
+    public void testSharedProgramReuploads() throws Exception
+    {
+        final Integer TEST_PROGRAM_ID = 1;
+
+        UniformGL2 mock_gl = new UniformGL2();
+        mock_gl.setLocation(TEST_PROGRAM_ID, "uni", 2);
+
+        ShaderArguments args_1 = new ShaderArguments();
+        args_1.setUniformSampler("uni", 1);
+
+        ShaderArguments args_2 = new ShaderArguments();
+        args_2.setUniformSampler("uni", 5);
+
+        args_1.render(mock_gl, TEST_PROGRAM_ID);
+        args_2.render(mock_gl, TEST_PROGRAM_ID);
+        args_1.render(mock_gl, TEST_PROGRAM_ID);
+        args_1.render(mock_gl, TEST_PROGRAM_ID);
+
+        assertEquals(mock_gl.getCallCount("glUniform1i"), 3, "Wrong upload count");
+
+        mock_gl.verifyCall("glUniform1i", 2, 1);
+        mock_gl.verifyCall("glUniform1i", 2, 5);
+        mock_gl.verifyCall("glUniform1i", 2, 1);
+    }
+
+    @Test(groups = "unit")
+    public void testRelinkRefetchesLocations() throws Exception
+    {
+        final Integer TEST_PROGRAM_ID = 1;
+
+        UniformGL2 mock_gl = new UniformGL2();
+        mock_gl.setLocation(TEST_PROGRAM_ID, "uni", 2);
+
+        ShaderArguments class_under_test = new ShaderArguments();
+        class_under_test.setUniformSampler("uni", 1);
+
+        class_under_test.render(mock_gl, TEST_PROGRAM_ID);
+
+        mock_gl.setLocation(TEST_PROGRAM_ID, "uni", 6);
+        ShaderArguments.programChanged(mock_gl, TEST_PROGRAM_ID);
+
+        class_under_test.render(mock_gl, TEST_PROGRAM_ID);
+
+        assertEquals(mock_gl.getCallCount("glGetUniformLocation"), 2,
+                     "Location not fetched after relink");
+
+        mock_gl.verifyCall("glUniform1i", 2, 1);
+        mock_gl.verifyCall("glUniform1i", 6, 1);
+    }
+
+    @Test(groups = "unit")
+    public void testUnknownUniformReportedOnce() throws Exception
+    {
+        final Integer TEST_PROGRAM_1 = 1;
+        final Integer TEST_PROGRAM_2 = 2;
+
+        ErrorReporter mock_reporter = mock(ErrorReporter.class);
+        ShaderArguments.setErrorReporter(mock_reporter);
+
+        UniformGL2 mock_gl = new UniformGL2();
+
+        ShaderArguments class_under_test = new ShaderArguments();
+        class_under_test.setUniform("missing", 1, new int[1], 1);
+
+        class_under_test.render(mock_gl, TEST_PROGRAM_1);
+        class_under_test.render(mock_gl, TEST_PROGRAM_1);
+        class_under_test.render(mock_gl, TEST_PROGRAM_2);
+
+        verify(mock_reporter, times(1)).warningReport(anyString(), any(Exception.class));
+
+        assertEquals(mock_gl.getCallCount("glGetUniformLocation"), 2,
+                     "Missing location should be remembered per program");
+        assertEquals(mock_gl.getCallCount("glUniform1iv"), 0,
+                     "Missing uniform uploaded");
+    }
+
+    @Test(groups = "unit")
+    public void testRemoveUniform() throws Exception
+    {
+        final Integer TEST_PROGRAM_ID = 1;
+
+        UniformGL2 mock_gl = new UniformGL2();
+        mock_gl.setLocation(TEST_PROGRAM_ID, "a", 1);
+        mock_gl.setLocation(TEST_PROGRAM_ID, "b", 2);
+
+        ShaderArguments class_under_test = new ShaderArguments();
+        class_under_test.setUniformSampler("a", 3);
+        class_under_test.setUniformSampler("b", 4);
+        class_under_test.removeUniform("a");
+
+        assertEquals(class_under_test.getUniformType("b"),
+                     ShaderArguments.SAMPLER_UNIFORM_TYPE,
+                     "Remaining uniform lost");
+
+        class_under_test.render(mock_gl, TEST_PROGRAM_ID);
+
+        assertEquals(mock_gl.getCallCount("glUniform1i"), 1, "Removed uniform uploaded");
+
+        mock_gl.verifyCall("glUniform1i", 2, 4);
+    }
+
+    /**
+     * Mock GL that hands out preset uniform locations and -1 for anything
+     * else.
+     */
+    private static class UniformGL2 extends MockGL2
+    {
+        private Map<String, Integer> locations = new HashMap<>();
+
+        UniformGL2()
+        {
+            super(mock(GLContext.class));
+        }
+
+        void setLocation(int program, String name, int location)
+        {
+            locations.put(program + ":" + name, location);
+        }
+
+        @Override
+        public int glGetUniformLocation(int program, String name)
+        {
+            getMethodDetails("glGetUniformLocation");
+
+            Integer loc = locations.get(program + ":" + name);
+            return loc == null ? -1 : loc;
+        }
+    }
 }
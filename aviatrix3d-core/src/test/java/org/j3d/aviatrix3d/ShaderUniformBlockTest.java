@@ -0,0 +1,293 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GLContext;
+
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.j3d.aviatrix3d.test.AV3DMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.test.MockGL2;
+
+/**
+ * Unit tests for the std140 uniform block
+ */
+public class ShaderUniformBlockTest
+{
+    private MockGL2 mockGL2;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("ShaderUniformBlockTest", "config.i18n.org-j3d-aviatrix3d-resources-core");
+
+        mockGL2 = new MockGL2(mock(GLContext.class));
+    }
+
+    @Test(groups = "unit")
+    public void testStd140Offsets() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+
+        assertEquals(class_under_test.getUniformOffset("a"), 0, "Wrong float offset");
+        assertEquals(class_under_test.getUniformOffset("b"), 16, "vec3 not 16 byte aligned");
+        assertEquals(class_under_test.getUniformOffset("c"), 28, "Float should pack after vec3");
+        assertEquals(class_under_test.getUniformOffset("d"), 32, "Wrong vec2 offset");
+        assertEquals(class_under_test.getUniformOffset("e"), 48, "mat4 not 16 byte aligned");
+        assertEquals(class_under_test.getUniformOffset("f"), 112, "Wrong array offset");
+        assertEquals(class_under_test.getUniformOffset("g"), 160, "Array elements not padded");
+        assertEquals(class_under_test.getUniformOffset("h"), 176, "Wrong int offset");
+        assertEquals(class_under_test.getUniformOffset("missing"), -1, "Unknown name found");
+
+        assertEquals(class_under_test.getNumUniforms(), 8, "Wrong uniform count");
+        assertEquals(class_under_test.getBlockSize(), 192, "Block size not rounded to 16");
+    }
+
+    @Test(groups = "unit")
+    public void testStd140Packing() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+
+        class_under_test.setUniform("b", new float[] { 1, 2, 3 }, 1);
+        class_under_test.setUniform("c", new float[] { 4 }, 1);
+        class_under_test.setUniform("f", new float[] { 5, 6, 7 }, 3);
+        class_under_test.setUniform("h", new int[] { 9 }, 1);
+
+        // Row major input should be transposed into columns
+        float[] row_major = {
+            1, 2, 3, 4,
+            5, 6, 7, 8,
+            9, 10, 11, 12,
+            13, 14, 15, 16
+        };
+
+        class_under_test.setUniformMatrix("e", row_major, 1, false);
+
+        ByteBuffer data = getData(class_under_test);
+
+        assertEquals(data.getFloat(16), 1f, "vec3 x");
+        assertEquals(data.getFloat(20), 2f, "vec3 y");
+        assertEquals(data.getFloat(24), 3f, "vec3 z");
+        assertEquals(data.getFloat(28), 4f, "Float after vec3");
+
+        assertEquals(data.getFloat(112), 5f, "Array element 0");
+        assertEquals(data.getFloat(116), 0f, "Array padding written");
+        assertEquals(data.getFloat(128), 6f, "Array element 1");
+        assertEquals(data.getFloat(144), 7f, "Array element 2");
+
+        assertEquals(data.getInt(176), 9, "Int value");
+
+        // First column is the first value of each row
+        assertEquals(data.getFloat(48), 1f, "Column 0 row 0");
+        assertEquals(data.getFloat(52), 5f, "Column 0 row 1");
+        assertEquals(data.getFloat(56), 9f, "Column 0 row 2");
+        assertEquals(data.getFloat(60), 13f, "Column 0 row 3");
+        assertEquals(data.getFloat(64), 2f, "Column 1 row 0");
+        assertEquals(data.getFloat(108), 16f, "Column 3 row 3");
+    }
+
+    @Test(groups = "unit")
+    public void testMatrixColumnPadding() throws Exception
+    {
+        ShaderUniformBlock class_under_test = new ShaderUniformBlock("Block", 0);
+        class_under_test.addUniform("m", ShaderArguments.MATRIX_UNIFORM_TYPE, 3, 2);
+        class_under_test.addUniform("x", ShaderArguments.FLOAT_UNIFORM_TYPE, 1, 1);
+
+        assertEquals(class_under_test.getUniformOffset("x"), 96, "mat3 columns not padded");
+
+        float[] col_major = new float[18];
+        for(int i = 0; i < col_major.length; i++)
+            col_major[i] = i + 1;
+
+        class_under_test.setUniformMatrix("m", col_major, 2, true);
+
+        ByteBuffer data = getData(class_under_test);
+
+        assertEquals(data.getFloat(0), 1f, "Matrix 0 column 0");
+        assertEquals(data.getFloat(8), 3f, "Matrix 0 column 0 last row");
+        assertEquals(data.getFloat(12), 0f, "Column padding written");
+        assertEquals(data.getFloat(16), 4f, "Matrix 0 column 1");
+        assertEquals(data.getFloat(48), 10f, "Matrix 1 column 0");
+    }
+
+    @Test(groups = "unit")
+    public void testDirtyRangeUpload() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+
+        // First bind allocates and sends everything
+        class_under_test.bind(mockGL2);
+
+        mockGL2.verifyCall("glGenBuffers", 1, avAny(int[].class), 0);
+        mockGL2.verifyCall("glBindBufferBase", GL2ES3.GL_UNIFORM_BUFFER, 2, 0);
+        mockGL2.verifyCall("glBufferData",
+                           GL2ES3.GL_UNIFORM_BUFFER,
+                           192L,
+                           avAny(ByteBuffer.class),
+                           GL.GL_DYNAMIC_DRAW);
+
+        // Nothing changed so just bound
+        class_under_test.bind(mockGL2);
+
+        assertEquals(mockGL2.getCallCount("glBufferData"), 0, "Unchanged block reallocated");
+        assertEquals(mockGL2.getCallCount("glBufferSubData"), 0, "Unchanged block sent");
+        assertEquals(mockGL2.getCallCount("glBindBufferBase"), 1, "Block not bound");
+
+        class_under_test.setUniform("c", new float[] { 1 }, 1);
+        class_under_test.bind(mockGL2);
+
+        mockGL2.verifyCall("glBufferSubData",
+                           GL2ES3.GL_UNIFORM_BUFFER,
+                           28L,
+                           4L,
+                           avAny(ByteBuffer.class));
+
+        // Two separate changes are merged into a single range
+        class_under_test.setUniform("a", new float[] { 1 }, 1);
+        class_under_test.setUniform("d", new float[] { 1, 2 }, 1);
+        class_under_test.bind(mockGL2);
+        class_under_test.bind(mockGL2);
+
+        assertEquals(mockGL2.getCallCount("glBufferSubData"), 1, "Range sent more than once");
+
+        mockGL2.verifyCall("glBufferSubData",
+                           GL2ES3.GL_UNIFORM_BUFFER,
+                           0L,
+                           40L,
+                           avAny(ByteBuffer.class));
+
+        // Growing the block means the whole buffer is reallocated
+        class_under_test.addUniform("extra", ShaderArguments.FLOAT_UNIFORM_TYPE, 4, 1);
+        class_under_test.bind(mockGL2);
+
+        mockGL2.verifyCall("glBufferData",
+                           GL2ES3.GL_UNIFORM_BUFFER,
+                           208L,
+                           avAny(ByteBuffer.class),
+                           GL.GL_DYNAMIC_DRAW);
+
+        class_under_test.cleanup(mockGL2);
+
+        assertEquals(mockGL2.getCallCount("glDeleteBuffers"), 1, "Buffer not deleted");
+    }
+
+    @Test(groups = "unit")
+    public void testProgramBindsBlock() throws Exception
+    {
+        ShaderUniformBlock test_block = createTestBlock();
+
+        ShaderProgram program = new ShaderProgram();
+        program.addUniformBlock(test_block);
+
+        assertEquals(program.getNumUniformBlocks(), 1, "Block not added");
+
+        program.initialize(mockGL2);
+        program.render(mockGL2);
+        program.render(mockGL2);
+
+        assertEquals(mockGL2.getCallCount("glUniformBlockBinding"), 1,
+                     "Binding should only be set once per link");
+        assertEquals(mockGL2.getCallCount("glBindBufferBase"), 2,
+                     "Block should be bound each time the program is used");
+        assertEquals(mockGL2.getCallCount("glBufferData"), 1,
+                     "Block should only be sent once");
+
+        program.removeUniformBlock(test_block);
+
+        assertEquals(program.getNumUniformBlocks(), 0, "Block not removed");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testSetUnknownUniform() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+        class_under_test.setUniform("missing", new float[1], 1);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testSetWrongType() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+        class_under_test.setUniform("a", new int[1], 1);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testSetTooManyItems() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+        class_under_test.setUniform("f", new float[4], 4);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateUniform() throws Exception
+    {
+        ShaderUniformBlock class_under_test = createTestBlock();
+        class_under_test.addUniform("a", ShaderArguments.FLOAT_UNIFORM_TYPE, 1, 1);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testSamplerNotAllowed() throws Exception
+    {
+        ShaderUniformBlock class_under_test = new ShaderUniformBlock("Block", 0);
+        class_under_test.addUniform("s", ShaderArguments.SAMPLER_UNIFORM_TYPE, 1, 1);
+    }
+
+    /**
+     * Create a block with a mix of types that exercises the std140 rules:
+     * <pre>
+     * float a; vec3 b; float c; vec2 d; mat4 e; float f[3]; vec4 g; int h;
+     * </pre>
+     */
+    private ShaderUniformBlock createTestBlock()
+    {
+        ShaderUniformBlock ret_val = new ShaderUniformBlock("Block", 2);
+
+        ret_val.addUniform("a", ShaderArguments.FLOAT_UNIFORM_TYPE, 1, 1);
+        ret_val.addUniform("b", ShaderArguments.FLOAT_UNIFORM_TYPE, 3, 1);
+        ret_val.addUniform("c", ShaderArguments.FLOAT_UNIFORM_TYPE, 1, 1);
+        ret_val.addUniform("d", ShaderArguments.FLOAT_UNIFORM_TYPE, 2, 1);
+        ret_val.addUniform("e", ShaderArguments.MATRIX_UNIFORM_TYPE, 4, 1);
+        ret_val.addUniform("f", ShaderArguments.FLOAT_UNIFORM_TYPE, 1, 3);
+        ret_val.addUniform("g", ShaderArguments.FLOAT_UNIFORM_TYPE, 4, 1);
+        ret_val.addUniform("h", ShaderArguments.INT_UNIFORM_TYPE, 1, 1);
+
+        return ret_val;
+    }
+
+    /**
+     * Get the packed block data in a form that can be read back.
+     */
+    private ByteBuffer getData(ShaderUniformBlock block)
+    {
+        byte[] bytes = new byte[block.getBlockSize()];
+        block.getBlockData(bytes);
+
+        ByteBuffer ret_val = ByteBuffer.wrap(bytes);
+        ret_val.order(ByteOrder.nativeOrder());
+
+        return ret_val;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+// External imports
+import com.jogamp.openal.AL;
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Point3d;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+// Local imports
+// None
+
+/**
+ * Unit tests for the gain calculation and virtual playback of sounds.
+ */
+public class SoundTest
+{
+    @Test(groups = "unit")
+    public void testVirtualPlayback() throws Exception
+    {
+        // 200 mono 8 bit samples at 100Hz is two seconds long
+        ByteAudioComponent src =
+            new ByteAudioComponent(AudioSource.FORMAT_MONO8, 100, false, new byte[200]);
+
+        assertEquals(src.getDuration(), 2, 1e-6f, "Wrong sample length");
+
+        PointSound class_under_test = new PointSound();
+        class_under_test.setAudioSource(src);
+        class_under_test.setEnabled(true);
+        class_under_test.startSound();
+
+        class_under_test.updateVirtual(0.5f);
+        assertEquals(class_under_test.getPlaybackOffset(), 0.5f, 1e-6f, "Wrong offset");
+
+        class_under_test.pauseSound();
+        class_under_test.updateVirtual(0.5f);
+        assertEquals(class_under_test.getPlaybackOffset(), 0.5f, 1e-6f, "Paused sound moved");
+
+        class_under_test.startSound();
+        class_under_test.updateVirtual(1.6f);
+        assertFalse(class_under_test.isPlaying(), "Sound should have finished");
+        assertEquals(class_under_test.getPlaybackOffset(), 0, 0, "Finished sound not rewound");
+    }
+
+    @Test(groups = "unit")
+    public void testVirtualLooping() throws Exception
+    {
+        ByteAudioComponent src =
+            new ByteAudioComponent(AudioSource.FORMAT_MONO16, 100, true, new byte[400]);
+
+        PointSound class_under_test = new PointSound();
+        class_under_test.setAudioSource(src);
+        class_under_test.setEnabled(true);
+        class_under_test.startSound();
+
+        class_under_test.updateVirtual(2.25f);
+
+        assertTrue(class_under_test.isPlaying(), "Looped sound should keep playing");
+        assertEquals(class_under_test.getPlaybackOffset(), 0.25f, 1e-5f, "Loop not wrapped");
+    }
+
+    @Test(groups = "unit")
+    public void testReleaseKeepsOffset() throws Exception
+    {
+        AL mock_al = mock(AL.class);
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                float[] val = (float[])invocation.getArguments()[2];
+                val[0] = 1.25f;
+                return null;
+            }
+        }).when(mock_al).alGetSourcef(eq(7), eq(AL.AL_SEC_OFFSET), any(float[].class), eq(0));
+
+        ByteAudioComponent src =
+            new ByteAudioComponent(AudioSource.FORMAT_MONO8, 100, false, new byte[200]);
+
+        PointSound class_under_test = new PointSound();
+        class_under_test.setAudioSource(src);
+        class_under_test.setEnabled(true);
+        class_under_test.startSound();
+
+        // Nothing bound, so should be ignored
+        class_under_test.releaseSource(mock_al);
+        verifyZeroInteractions(mock_al);
+
+        class_under_test.bindSource(7);
+        class_under_test.releaseSource(mock_al);
+
+        assertEquals(class_under_test.getPlaybackOffset(), 1.25f, 0, "Offset not kept");
+        assertTrue(class_under_test.isPlaying(), "Should still be playing virtually");
+
+        verify(mock_al, times(1)).alSourceStop(7);
+        verify(mock_al, times(1)).alSourcei(7, AL.AL_BUFFER, 0);
+    }
+
+    @Test(groups = "unit")
+    public void testDistanceGain() throws Exception
+    {
+        PointSound class_under_test = new PointSound();
+        class_under_test.setEnabled(true);
+        class_under_test.setRefDistance(2);
+        class_under_test.setMaxDistance(20);
+        class_under_test.setIntensity(0.5f);
+
+        Matrix4d tx = new Matrix4d();
+        tx.setIdentity();
+        tx.m13 = 4;
+
+        Point3d listener = new Point3d();
+
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 0, 0, "Stopped sound is audible");
+
+        class_under_test.startSound();
+
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 0.25f, 1e-6f, "Wrong gain");
+
+        // Inside the reference distance is full intensity
+        listener.y = 3;
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 0.5f, 1e-6f, "Wrong near gain");
+
+        // Clamped at the max distance
+        listener.y = 100;
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 0.05f, 1e-6f, "Wrong far gain");
+    }
+
+    @Test(groups = "unit")
+    public void testConeGain() throws Exception
+    {
+        ConeSound class_under_test = new ConeSound();
+        class_under_test.setEnabled(true);
+        class_under_test.startSound();
+        class_under_test.setRefDistance(new float[] { 1, 0, 0 });
+        class_under_test.setInnerAngle(90);
+        class_under_test.setOuterAngle(180);
+
+        Matrix4d tx = new Matrix4d();
+        tx.setIdentity();
+
+        Point3d listener = new Point3d();
+        listener.x = 5;
+
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 1, 1e-6f, "Wrong gain in cone");
+
+        double angle = Math.toRadians(67.5);
+        listener.x = 5 * Math.cos(angle);
+        listener.y = 5 * Math.sin(angle);
+
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 0.5f, 1e-4f, "Wrong gain between cones");
+
+        listener.x = -5;
+        listener.y = 0;
+
+        assertEquals(class_under_test.getAudibleGain(tx, listener), 0, 0, "Should be silent behind");
+    }
+}
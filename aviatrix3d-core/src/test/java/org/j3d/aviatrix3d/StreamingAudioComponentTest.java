@@ -0,0 +1,420 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+// External imports
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.openal.AL;
+import org.j3d.util.ErrorReporter;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+// Local imports
+// None
+
+/**
+ * Unit tests for streaming sample data through a queue of buffers.
+ */
+public class StreamingAudioComponentTest
+{
+    /** The source ID used by the tests */
+    private static final int SOURCE = 7;
+
+    /** Temporary file holding the sample data */
+    private File dataFile;
+
+    /** Channel open on the sample data */
+    private FileChannel channel;
+
+    /** The sample data written to the file */
+    private byte[] fileData;
+
+    /** Buffer IDs currently queued on the fake source, oldest first */
+    private List<Integer> sourceQueue;
+
+    /** The data last loaded into each buffer */
+    private Map<Integer, byte[]> bufferData;
+
+    /** Data from the buffers that have been played, in order */
+    private ByteArrayOutputStream played;
+
+    /** The value returned for the source's playback offset */
+    private float sourceOffset;
+
+    @BeforeMethod(groups = "unit")
+    public void setup() throws Exception
+    {
+        sourceQueue = new ArrayList<>();
+        bufferData = new HashMap<>();
+        played = new ByteArrayOutputStream();
+        sourceOffset = 0;
+    }
+
+    @AfterMethod(groups = "unit")
+    public void cleanup() throws Exception
+    {
+        if(channel != null)
+            channel.close();
+
+        if(dataFile != null)
+            dataFile.delete();
+
+        channel = null;
+        dataFile = null;
+    }
+
+    @Test(groups = "unit")
+    public void testInvalidSetup() throws Exception
+    {
+        openData(100);
+
+        try
+        {
+            new StreamingAudioComponent(AudioSource.FORMAT_MONO8, 100, false, channel, 0, 100, 64, 1);
+            fail("Should not allow a single buffer");
+        }
+        catch(IllegalArgumentException iae)
+        {
+            // pass
+        }
+
+        try
+        {
+            new StreamingAudioComponent(AudioSource.FORMAT_STEREO16, 100, false, channel, 0, 100, 3, 2);
+            fail("Should not allow a chunk smaller than a frame");
+        }
+        catch(IllegalArgumentException iae)
+        {
+            // pass
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testStreamStats() throws Exception
+    {
+        openData(100);
+
+        StreamingAudioComponent class_under_test =
+            new StreamingAudioComponent(AudioSource.FORMAT_STEREO16, 100, false, channel, 0, 8000, 1001, 3);
+
+        assertTrue(class_under_test.isStreamed(), "Should be streamed");
+        assertEquals(class_under_test.getChunkSize(), 1000, "Chunk not rounded to whole frames");
+        assertEquals(class_under_test.getNumBuffers(), 3, "Wrong buffer count");
+        assertEquals(class_under_test.getStreamMemory(), 6000, "Wrong memory use");
+        assertEquals(class_under_test.getDuration(), 20, 1e-6f, "Wrong duration");
+        assertEquals(class_under_test.getStartLatency(), 0, 0, "Latency before attached");
+
+        StreamingAudioComponent default_stream =
+            new StreamingAudioComponent(AudioSource.FORMAT_MONO8, 100, false, channel, 0, 100000000);
+
+        assertEquals(default_stream.getStreamMemory(),
+                     2L * StreamingAudioComponent.DEFAULT_NUM_BUFFERS * StreamingAudioComponent.DEFAULT_CHUNK_SIZE,
+                     "Memory should not depend on the data length");
+    }
+
+    @Test(groups = "unit")
+    public void testWholeStream() throws Exception
+    {
+        openData(10000);
+
+        AL mock_al = createFakeAL();
+
+        StreamingAudioComponent class_under_test =
+            new StreamingAudioComponent(AudioSource.FORMAT_MONO8, 1000, false, channel, 0, 10000, 1024, 3);
+
+        assertEquals(class_under_test.getBufferId(mock_al, 0), 100, "Wrong first buffer");
+        verify(mock_al, times(1)).alGenBuffers(eq(3), any(int[].class), eq(0));
+
+        class_under_test.attachSource(mock_al, SOURCE, 0);
+
+        assertEquals(sourceQueue.size(), 1, "First chunk should be queued straight away");
+        assertTrue(class_under_test.getStartLatency() >= 0, "Latency not recorded");
+
+        playUntil(mock_al, class_under_test, Integer.MAX_VALUE);
+
+        assertEquals(played.toByteArray(), fileData, "Wrong data played");
+        assertTrue(sourceQueue.isEmpty(), "Buffers left queued");
+        assertTrue(bufferData.size() <= 3, "Too many buffers used");
+    }
+
+    @Test(groups = "unit")
+    public void testLoopedStream() throws Exception
+    {
+        openData(3000);
+
+        AL mock_al = createFakeAL();
+
+        StreamingAudioComponent class_under_test =
+            new StreamingAudioComponent(AudioSource.FORMAT_MONO8, 1000, true, channel, 0, 3000, 1024, 2);
+
+        class_under_test.getBufferId(mock_al, 0);
+        class_under_test.attachSource(mock_al, SOURCE, 0);
+
+        assertTrue(playUntil(mock_al, class_under_test, 8000), "Looped stream ended");
+
+        byte[] result = played.toByteArray();
+
+        for(int i = 0; i < result.length; i++)
+            assertEquals(result[i], fileData[i % 3000], "Wrong data at " + i);
+    }
+
+    @Test(groups = "unit")
+    public void testSeekAndDetach() throws Exception
+    {
+        openData(20000);
+
+        AL mock_al = createFakeAL();
+
+        // 16 bit mono at 1000Hz is 2000 bytes a second
+        StreamingAudioComponent class_under_test =
+            new StreamingAudioComponent(AudioSource.FORMAT_MONO16, 1000, false, channel, 0, 20000, 2048, 4);
+
+        class_under_test.getBufferId(mock_al, 0);
+        class_under_test.attachSource(mock_al, SOURCE, 2.5f);
+
+        assertEquals(sourceQueue.size(), 1, "First chunk not queued");
+
+        byte[] first = bufferData.get(sourceQueue.get(0));
+        assertEquals(first.length, 2048, "Wrong chunk length");
+
+        for(int i = 0; i < first.length; i++)
+            assertEquals(first[i], fileData[5000 + i], "Wrong seek data at " + i);
+
+        sourceOffset = 0.5f;
+
+        float offset = class_under_test.detachSource(mock_al, SOURCE);
+
+        assertEquals(offset, 3, 1e-6f, "Wrong position after detach");
+        assertTrue(sourceQueue.isEmpty(), "Buffers not removed from the source");
+        verify(mock_al, times(1)).alSourceStop(SOURCE);
+
+        // Resume further on
+        class_under_test.attachSource(mock_al, SOURCE, 4.5f);
+
+        first = bufferData.get(sourceQueue.get(0));
+
+        for(int i = 0; i < first.length; i++)
+            assertEquals(first[i], fileData[9000 + i], "Wrong resumed data at " + i);
+
+        sourceOffset = 1.5f;
+
+        offset = class_under_test.detachSource(mock_al, SOURCE);
+        assertEquals(offset, 6, 1e-6f, "Wrong position past end of queue");
+    }
+
+    @Test(groups = "unit")
+    public void testErrorsReported() throws Exception
+    {
+        openData(10000);
+
+        ErrorReporter reporter = mock(ErrorReporter.class);
+
+        AL fail_al = mock(AL.class);
+        when(fail_al.alGetError()).thenReturn(AL.AL_INVALID_VALUE);
+
+        StreamingAudioComponent class_under_test =
+            new StreamingAudioComponent(AudioSource.FORMAT_MONO8, 1000, false, channel, 0, 10000, 1024, 3);
+        class_under_test.setErrorReporter(reporter);
+
+        assertEquals(class_under_test.getBufferId(fail_al, 0), -1, "Buffer creation should fail");
+        verify(reporter, times(1)).errorReport(anyString(), (Throwable)isNull());
+
+        // The first read is made straight away and the rest on the refill
+        // thread, which reports through the same reporter
+        AL mock_al = createFakeAL();
+        channel.close();
+
+        class_under_test.getBufferId(mock_al, 0);
+        class_under_test.attachSource(mock_al, SOURCE, 0);
+
+        verify(reporter, timeout(1000).atLeastOnce()).errorReport(anyString(), any(IOException.class));
+    }
+
+    /**
+     * Write the given number of bytes of test data to a temporary file and
+     * open a channel on it.
+     */
+    private void openData(int size) throws Exception
+    {
+        fileData = new byte[size];
+
+        for(int i = 0; i < size; i++)
+            fileData[i] = (byte)(i % 251);
+
+        dataFile = File.createTempFile("av3d_stream", ".raw");
+
+        FileOutputStream fos = new FileOutputStream(dataFile);
+        fos.write(fileData);
+        fos.close();
+
+        channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Keep playing everything that is queued until the stream ends or the
+     * given number of bytes has been played.
+     *
+     * @return true if the stream still had more to play
+     */
+    private boolean playUntil(AL al,
+                              StreamingAudioComponent stream,
+                              int maxBytes)
+        throws Exception
+    {
+        boolean more = true;
+
+        for(int i = 0; i < 10000 && (more || !sourceQueue.isEmpty()); i++)
+        {
+            if(played.size() >= maxBytes)
+                break;
+
+            more = stream.updateSource(al, SOURCE);
+            Thread.sleep(1);
+        }
+
+        return more;
+    }
+
+    /**
+     * Create an AL that behaves like a single source that instantly plays
+     * everything queued on it.
+     */
+    private AL createFakeAL()
+    {
+        AL mock_al = mock(AL.class);
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] args = invocation.getArguments();
+                int num = (Integer)args[0];
+                int[] ids = (int[])args[1];
+
+                for(int i = 0; i < num; i++)
+                    ids[i] = 100 + i;
+
+                return null;
+            }
+        }).when(mock_al).alGenBuffers(anyInt(), any(int[].class), eq(0));
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] args = invocation.getArguments();
+                int id = (Integer)args[0];
+                ByteBuffer data = ((ByteBuffer)args[2]).duplicate();
+                int size = (Integer)args[3];
+
+                byte[] bytes = new byte[size];
+                data.get(bytes);
+                bufferData.put(id, bytes);
+
+                return null;
+            }
+        }).when(mock_al).alBufferData(anyInt(), anyInt(), any(Buffer.class), anyInt(), anyInt());
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] args = invocation.getArguments();
+                int num = (Integer)args[1];
+                int[] ids = (int[])args[2];
+
+                for(int i = 0; i < num; i++)
+                    sourceQueue.add(ids[i]);
+
+                return null;
+            }
+        }).when(mock_al).alSourceQueueBuffers(eq(SOURCE), anyInt(), any(int[].class), eq(0));
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] args = invocation.getArguments();
+                int num = (Integer)args[1];
+                int[] ids = (int[])args[2];
+
+                for(int i = 0; i < num; i++)
+                {
+                    ids[i] = sourceQueue.remove(0);
+                    byte[] bytes = bufferData.get(ids[i]);
+                    played.write(bytes, 0, bytes.length);
+                }
+
+                return null;
+            }
+        }).when(mock_al).alSourceUnqueueBuffers(eq(SOURCE), anyInt(), any(int[].class), eq(0));
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                int[] val = (int[])invocation.getArguments()[2];
+                val[0] = sourceQueue.size();
+                return null;
+            }
+        }).when(mock_al).alGetSourcei(eq(SOURCE), eq(AL.AL_BUFFERS_PROCESSED), any(int[].class), eq(0));
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                float[] val = (float[])invocation.getArguments()[2];
+                val[0] = sourceOffset;
+                return null;
+            }
+        }).when(mock_al).alGetSourcef(eq(SOURCE), eq(AL.AL_SEC_OFFSET), any(float[].class), eq(0));
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                sourceQueue.clear();
+                return null;
+            }
+        }).when(mock_al).alSourcei(SOURCE, AL.AL_BUFFER, 0);
+
+        return mock_al;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit tests for the triangle tree used to accelerate geometry picking
+ */
+public class TriangleBVHTest
+{
+    private static final int NUM_TRIANGLES = 2000;
+
+    private static final int NUM_PICKS = 200;
+
+    @Test(groups = "unit")
+    public void testBalancedTree() throws Exception
+    {
+        float[] coords = createTriangleSoup(new Random(7), NUM_TRIANGLES);
+
+        TriangleBVH class_under_test =
+            new TriangleBVH(coords, 3, null, NUM_TRIANGLES);
+
+        // 2000 triangles in leaves of up to 4 is at least 500 leaves, so
+        // log2 gives a minimum depth of 9. A median split should be exact.
+        int depth = class_under_test.getDepth();
+
+        assertTrue(depth >= 9, "Tree too short to hold all triangles " + depth);
+        assertTrue(depth <= 12, "Tree not balanced, depth " + depth);
+        assertTrue(class_under_test.getNodeCount() < NUM_TRIANGLES,
+                   "Too many nodes created");
+    }
+
+    @Test(groups = "unit")
+    public void testCandidatesIncludeAllHits() throws Exception
+    {
+        float[] coords = createTriangleSoup(new Random(11), NUM_TRIANGLES);
+
+        TriangleBVH class_under_test =
+            new TriangleBVH(coords, 3, null, NUM_TRIANGLES);
+
+        // A ray straight down through the centre of each triangle must
+        // always return that triangle.
+        float[] origin = new float[3];
+        float[] direction = { 0, 0, -1 };
+
+        for(int i = 0; i < NUM_TRIANGLES; i += 17)
+        {
+            int base = i * 9;
+            origin[0] = (coords[base] + coords[base + 3] + coords[base + 6]) / 3;
+            origin[1] = (coords[base + 1] + coords[base + 4] + coords[base + 7]) / 3;
+            origin[2] = 100;
+
+            int num = class_under_test.findCandidates(origin,
+                                                      direction,
+                                                      Double.POSITIVE_INFINITY);
+            int[] found = class_under_test.getCandidates();
+
+            boolean has_tri = false;
+            for(int j = 0; j < num && !has_tri; j++)
+                has_tri = found[j] == i;
+
+            assertTrue(has_tri, "Triangle " + i + " not a candidate");
+            assertTrue(num < NUM_TRIANGLES / 10,
+                       "Tree did not reject enough triangles: " + num);
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testTriangleArrayPickMatchesLinear() throws Exception
+    {
+        Random rand = new Random(42);
+        float[] coords = createTriangleSoup(rand, NUM_TRIANGLES);
+
+        TriangleArray plain_geom = new TriangleArray();
+        plain_geom.setVertices(TriangleArray.COORDINATE_3, coords);
+
+        TriangleArray class_under_test = new TriangleArray();
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, coords);
+        class_under_test.setPickTreeEnabled(true);
+
+        assertTrue(class_under_test.isPickTreeEnabled(), "Tree not enabled");
+
+        checkPicks(rand, plain_geom, class_under_test);
+    }
+
+    @Test(groups = "unit")
+    public void testIndexedTriangleArrayPickMatchesLinear() throws Exception
+    {
+        Random rand = new Random(1234);
+        float[] coords = createTriangleSoup(rand, NUM_TRIANGLES);
+
+        // Pick random triangles out of the soup, in a shuffled order
+        int[] indices = new int[NUM_TRIANGLES * 3];
+        for(int i = 0; i < NUM_TRIANGLES; i++)
+        {
+            int tri = rand.nextInt(NUM_TRIANGLES);
+            indices[i * 3] = tri * 3;
+            indices[i * 3 + 1] = tri * 3 + 1;
+            indices[i * 3 + 2] = tri * 3 + 2;
+        }
+
+        IndexedTriangleArray plain_geom = new IndexedTriangleArray();
+        plain_geom.setVertices(TriangleArray.COORDINATE_3, coords);
+        plain_geom.setIndices(indices, indices.length);
+
+        IndexedTriangleArray class_under_test = new IndexedTriangleArray();
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, coords);
+        class_under_test.setIndices(indices, indices.length);
+        class_under_test.setPickTreeEnabled(true);
+
+        checkPicks(rand, plain_geom, class_under_test);
+
+        // Drop half the triangles and make sure the tree follows
+        plain_geom.setIndices(indices, indices.length / 2);
+        class_under_test.setIndices(indices, indices.length / 2);
+
+        checkPicks(rand, plain_geom, class_under_test);
+    }
+
+    @Test(groups = "unit")
+    public void testTreeRebuiltOnVertexChange() throws Exception
+    {
+        float[] coords = {
+            0, 0, 0,  1, 0, 0,  0, 1, 0
+        };
+
+        TriangleArray class_under_test = new TriangleArray();
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, coords);
+        class_under_test.setPickTreeEnabled(true);
+
+        float[] start = { 0.25f, 0.25f, 1 };
+        float[] end = { 0.25f, 0.25f, -1 };
+        float[] data_out = new float[3];
+
+        assertTrue(class_under_test.pickLineSegment(start, end, false, data_out, 0),
+                   "Did not pick the original triangle");
+
+        // Move the triangle away from the segment
+        float[] moved_coords = {
+            10, 10, 0,  11, 10, 0,  10, 11, 0
+        };
+
+        class_under_test.setVertices(TriangleArray.COORDINATE_3, moved_coords);
+
+        assertFalse(class_under_test.pickLineSegment(start, end, false, data_out, 0),
+                    "Picked using the old tree");
+
+        start[0] = 10.25f;
+        start[1] = 10.25f;
+        end[0] = 10.25f;
+        end[1] = 10.25f;
+
+        assertTrue(class_under_test.pickLineSegment(start, end, false, data_out, 0),
+                   "Did not pick the moved triangle");
+        assertEquals(data_out[0], 10.25f, 0.0001f, "Wrong X intersection");
+        assertEquals(data_out[1], 10.25f, 0.0001f, "Wrong Y intersection");
+        assertEquals(data_out[2], 0, 0.0001f, "Wrong Z intersection");
+    }
+
+    /**
+     * Fire random rays and segments at both geometries and check that the
+     * results are identical.
+     */
+    private void checkPicks(Random rand,
+                            VertexGeometry expectedGeom,
+                            VertexGeometry testGeom)
+    {
+        float[] start = new float[3];
+        float[] end = new float[3];
+        float[] expected_out = new float[3];
+        float[] test_out = new float[3];
+        int num_hits = 0;
+
+        for(int i = 0; i < NUM_PICKS; i++)
+        {
+            start[0] = rand.nextFloat() * 120 - 60;
+            start[1] = rand.nextFloat() * 120 - 60;
+            start[2] = rand.nextFloat() * 120 - 60;
+
+            end[0] = rand.nextFloat() * 120 - 60;
+            end[1] = rand.nextFloat() * 120 - 60;
+            end[2] = rand.nextFloat() * 120 - 60;
+
+            boolean expected = expectedGeom.pickLineSegment(start,
+                                                            end,
+                                                            false,
+                                                            expected_out,
+                                                            VertexGeometry.INTERSECT_COORDS);
+            boolean found = testGeom.pickLineSegment(start,
+                                                     end,
+                                                     false,
+                                                     test_out,
+                                                     VertexGeometry.INTERSECT_COORDS);
+
+            assertEquals(found, expected, "Segment pick differs " + i);
+
+            if(expected)
+            {
+                num_hits++;
+                assertEquals(test_out, expected_out, "Segment point differs " + i);
+            }
+
+            // Reuse the end point as a ray direction
+            end[0] -= start[0];
+            end[1] -= start[1];
+            end[2] -= start[2];
+
+            expected = expectedGeom.pickLineRay(start,
+                                                end,
+                                                false,
+                                                expected_out,
+                                                VertexGeometry.INTERSECT_COORDS);
+            found = testGeom.pickLineRay(start,
+                                        end,
+                                        false,
+                                        test_out,
+                                        VertexGeometry.INTERSECT_COORDS);
+
+            assertEquals(found, expected, "Ray pick differs " + i);
+
+            if(expected)
+            {
+                num_hits++;
+                assertEquals(test_out, expected_out, "Ray point differs " + i);
+            }
+        }
+
+        assertTrue(num_hits > 0, "Test did not hit anything");
+    }
+
+    /**
+     * Create a set of small random triangles scattered through a cube.
+     */
+    private float[] createTriangleSoup(Random rand, int numTriangles)
+    {
+        float[] ret_val = new float[numTriangles * 9];
+
+        for(int i = 0; i < numTriangles; i++)
+        {
+            float c_x = rand.nextFloat() * 100 - 50;
+            float c_y = rand.nextFloat() * 100 - 50;
+            float c_z = rand.nextFloat() * 100 - 50;
+
+            for(int j = 0; j < 3; j++)
+            {
+                int idx = i * 9 + j * 3;
+                ret_val[idx] = c_x + rand.nextFloat() * 6 - 3;
+                ret_val[idx + 1] = c_y + rand.nextFloat() * 6 - 3;
+                ret_val[idx + 2] = c_z + rand.nextFloat() * 6 - 3;
+            }
+        }
+
+        return ret_val;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit tests for keeping vertex data only in the internal buffers
+ */
+public class VertexGeometryStorageTest
+{
+    private static final float[] COORDS = {
+        0, 0, 0,  1, 0, 0,  0, 1, 0,
+        2, 2, -1,  3, 2, -1,  2, 3, 4
+    };
+
+    private static final float[] NORMALS = {
+        0, 0, 1,  0, 0, 1,  0, 0, 1,
+        1, 0, 0,  1, 0, 0,  1, 0, 0
+    };
+
+    private static final float[] COLORS = {
+        1, 0, 0,  0, 1, 0,  0, 0, 1,
+        1, 1, 0,  0, 1, 1,  1, 0, 1
+    };
+
+    private static final float[] TEX_COORDS = {
+        0, 0,  1, 0,  0, 1,
+        0, 0,  1, 0,  0, 1
+    };
+
+    @Test(groups = "unit")
+    public void testDataReadFromBuffers() throws Exception
+    {
+        TriangleArray class_under_test = createGeometry(true);
+
+        assertTrue(class_under_test.isBufferOnlyStorage(), "Mode not set");
+        assertEquals(class_under_test.getHeapDataSize(), 0, "User arrays kept");
+
+        float[] coords = new float[COORDS.length];
+        float[] normals = new float[NORMALS.length];
+        float[] colors = new float[COLORS.length];
+        float[][] tex_coords = { new float[TEX_COORDS.length] };
+
+        class_under_test.getVertices(coords);
+        class_under_test.getNormals(normals);
+        class_under_test.getColors(colors);
+        class_under_test.getTextureCoordinates(tex_coords);
+
+        assertEquals(coords, COORDS, "Wrong coordinates");
+        assertEquals(normals, NORMALS, "Wrong normals");
+        assertEquals(colors, COLORS, "Wrong colours");
+        assertEquals(tex_coords[0], TEX_COORDS, "Wrong texture coordinates");
+
+        float[] value = new float[3];
+
+        class_under_test.getVertex(4, value);
+        assertEquals(value, new float[] { 3, 2, -1 }, "Wrong single vertex");
+
+        class_under_test.getColor(4, value);
+        assertEquals(value, new float[] { 0, 1, 1 }, "Wrong single colour");
+
+        class_under_test.getTextureCoordinate(1, 0, value);
+        assertEquals(value[0], 1f, "Wrong texture coordinate s");
+        assertEquals(value[1], 0f, "Wrong texture coordinate t");
+
+        class_under_test.recomputeBounds();
+
+        BoundingBox bounds = (BoundingBox)class_under_test.getBounds();
+        float[] min = new float[3];
+        float[] max = new float[3];
+        bounds.getMinimum(min);
+        bounds.getMaximum(max);
+
+        assertEquals(min, new float[] { 0, 0, -1 }, "Wrong minimum bounds");
+        assertEquals(max, new float[] { 3, 3, 4 }, "Wrong maximum bounds");
+    }
+
+    @Test(groups = "unit")
+    public void testPickingWithoutArrays() throws Exception
+    {
+        TriangleArray class_under_test = createGeometry(true);
+        class_under_test.setPickTreeEnabled(true);
+
+        float[] start = { 2.25f, 2.25f, 10 };
+        float[] end = { 2.25f, 2.25f, -10 };
+        float[] data_out = new float[3];
+
+        assertTrue(class_under_test.pickLineSegment(start, end, false, data_out, 0),
+                   "Did not pick the second triangle");
+        assertEquals(data_out[0], 2.25f, 0.0001f, "Wrong X intersection");
+        assertEquals(data_out[1], 2.25f, 0.0001f, "Wrong Y intersection");
+    }
+
+    @Test(groups = "unit")
+    public void testMemoryReport() throws Exception
+    {
+        TriangleArray class_under_test = createGeometry(false);
+
+        long user_bytes = (COORDS.length + NORMALS.length +
+                           COLORS.length + TEX_COORDS.length) * 4;
+
+        assertFalse(class_under_test.isBufferOnlyStorage(), "Wrong default mode");
+        assertEquals(class_under_test.getHeapDataSize(), user_bytes, "Wrong heap size");
+        assertEquals(class_under_test.getBufferDataSize(), user_bytes, "Wrong buffer size");
+
+        // Turning it on after the fact drops the references
+        class_under_test.setBufferOnlyStorage(true);
+
+        assertEquals(class_under_test.getHeapDataSize(), 0, "Arrays not dropped");
+        assertEquals(class_under_test.getBufferDataSize(), user_bytes, "Buffers changed");
+
+        int[] indices = { 0, 1, 2, 3, 4, 5 };
+
+        IndexedTriangleArray indexed_geom = new IndexedTriangleArray();
+        indexed_geom.setBufferOnlyStorage(true);
+        indexed_geom.setVertices(TriangleArray.COORDINATE_3, COORDS);
+        indexed_geom.setIndices(indices, indices.length);
+
+        assertEquals(indexed_geom.getHeapDataSize(), 24, "Indices not counted");
+
+        // Few enough vertices for the indices to be held as shorts
+        assertEquals(indexed_geom.getBufferDataSize(),
+                     COORDS.length * 4 + indices.length * 2,
+                     "Index buffer not counted");
+    }
+
+    /**
+     * Create the geometry with a full set of per-vertex data.
+     */
+    private TriangleArray createGeometry(boolean bufferOnly)
+    {
+        TriangleArray ret_val = new TriangleArray();
+        ret_val.setBufferOnlyStorage(bufferOnly);
+        ret_val.setVertices(TriangleArray.COORDINATE_3, COORDS);
+        ret_val.setNormals(NORMALS);
+        ret_val.setColors(false, COLORS);
+        ret_val.setTextureCoordinates(new int[] { TriangleArray.TEXTURE_COORDINATE_2 },
+                                      new float[][] { TEX_COORDS });
+
+        return ret_val;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.iutil;
+
+import java.nio.FloatBuffer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit tests for packing vertex data into an interleaved layout
+ */
+public class InterleavedVertexLayoutTest
+{
+    @Test(groups = "unit")
+    public void testStrideAndOffsets() throws Exception
+    {
+        InterleavedVertexLayout class_under_test = new InterleavedVertexLayout();
+
+        class_under_test.setLayout(3, true, 2);
+        assertEquals(class_under_test.getVertexSize(), 8, "Wrong full vertex size");
+        assertEquals(class_under_test.getStride(), 32, "Wrong full stride");
+        assertEquals(class_under_test.getNormalOffset(), 12, "Wrong normal offset");
+        assertEquals(class_under_test.getTexCoordOffset(), 24, "Wrong tex coord offset");
+
+        class_under_test.setLayout(3, false, 2);
+        assertEquals(class_under_test.getStride(), 20, "Wrong stride without normals");
+        assertEquals(class_under_test.getNormalOffset(), -1, "Normal offset with no normals");
+        assertEquals(class_under_test.getTexCoordOffset(), 12, "Tex coords not after coords");
+
+        class_under_test.setLayout(4, true, 0);
+        assertEquals(class_under_test.getStride(), 28, "Wrong stride without tex coords");
+        assertEquals(class_under_test.getNormalOffset(), 16, "Normal not after 4D coord");
+        assertEquals(class_under_test.getTexCoordOffset(), -1, "Tex offset with no tex coords");
+
+        class_under_test.setLayout(2, false, 0);
+        assertEquals(class_under_test.getStride(), 8, "Wrong stride for 2D coords only");
+    }
+
+    @Test(groups = "unit")
+    public void testPackedValues() throws Exception
+    {
+        FloatBuffer coords = FloatBuffer.wrap(new float[] {
+            1, 2, 3,  4, 5, 6
+        });
+
+        FloatBuffer normals = FloatBuffer.wrap(new float[] {
+            0, 0, 1,  0, 1, 0
+        });
+
+        FloatBuffer tex_coords = FloatBuffer.wrap(new float[] {
+            0.5f, 0.25f,  0.75f, 1
+        });
+
+        InterleavedVertexLayout class_under_test = new InterleavedVertexLayout();
+        class_under_test.setLayout(3, true, 2);
+
+        FloatBuffer result = class_under_test.pack(coords, normals, tex_coords, 2);
+
+        float[] expected = {
+            1, 2, 3,  0, 0, 1,  0.5f, 0.25f,
+            4, 5, 6,  0, 1, 0,  0.75f, 1
+        };
+
+        assertEquals(result.position(), 0, "Not rewound");
+        assertEquals(result.remaining(), expected.length, "Wrong packed size");
+
+        for(int i = 0; i < expected.length; i++)
+            assertEquals(result.get(i), expected[i], "Wrong value at " + i);
+
+        assertTrue(result.isDirect(), "Packed data must be direct for GL");
+        assertEquals(coords.position(), 0, "Source position changed");
+
+        // Smaller data reuses the same buffer, with the limit pulled in
+        class_under_test.setLayout(3, false, 0);
+        FloatBuffer smaller = class_under_test.pack(coords, null, null, 1);
+
+        assertSame(smaller, result, "Buffer reallocated when big enough");
+        assertEquals(smaller.remaining(), 3, "Wrong packed size after shrink");
+        assertEquals(smaller.get(2), 3f, "Wrong coordinate after shrink");
+
+        // Other layouts on the same thread pack into the same staging buffer
+        InterleavedVertexLayout other_layout = new InterleavedVertexLayout();
+        other_layout.setLayout(3, true, 0);
+
+        FloatBuffer other = other_layout.pack(coords, normals, null, 2);
+
+        assertSame(other, result, "Staging buffer not shared between layouts");
+        assertEquals(other.remaining(), 12, "Wrong packed size for other layout");
+        assertEquals(other.get(11), 0f, "Wrong normal for other layout");
+    }
+}
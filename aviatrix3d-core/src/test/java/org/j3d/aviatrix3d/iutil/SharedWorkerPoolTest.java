@@ -0,0 +1,39 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.iutil;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit tests for the shared worker pool
+ */
+public class SharedWorkerPoolTest
+{
+    @Test(groups = "unit")
+    public void testSinglePool() throws Exception
+    {
+        ForkJoinPool pool = SharedWorkerPool.getPool();
+
+        assertNotNull(pool, "No pool created");
+        assertSame(SharedWorkerPool.getPool(), pool, "Pool not shared");
+        assertEquals(pool.getParallelism(),
+                     Runtime.getRuntime().availableProcessors(),
+                     "Pool not sized to the processors");
+    }
+}
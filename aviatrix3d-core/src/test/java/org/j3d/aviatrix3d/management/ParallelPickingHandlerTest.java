@@ -0,0 +1,347 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.management;
+
+import java.util.List;
+import java.util.Random;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.*;
+import org.j3d.aviatrix3d.iutil.SharedWorkerPool;
+import org.j3d.aviatrix3d.picking.*;
+
+/**
+ * Unit tests for the parallel picking handler
+ */
+public class ParallelPickingHandlerTest
+{
+    private static final int NUM_SHAPES = 60;
+
+    private static final int NUM_REQUESTS = 500;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("ParallelPickingHandlerTest", "config.i18n.org-j3d-aviatrix3d-resources-core");
+    }
+
+    @Test(groups = "unit")
+    public void testBasicConstruction() throws Exception
+    {
+        ParallelPickingHandler class_under_test = new ParallelPickingHandler(3);
+
+        assertEquals(class_under_test.getParallelism(), 3, "Wrong thread count");
+        assertTrue(class_under_test.getChunkSize() > 0, "Invalid default chunk size");
+        assertNotNull(class_under_test.getStatistics(), "No statistics");
+        assertEquals(class_under_test.getStatistics().getRequestCount(), 0,
+                     "Statistics not empty");
+
+        class_under_test.shutdown();
+    }
+
+    @Test(groups = "unit")
+    public void testSharedPool() throws Exception
+    {
+        ParallelPickingHandler class_under_test = new ParallelPickingHandler();
+
+        assertEquals(class_under_test.getParallelism(),
+                     SharedWorkerPool.getPool().getParallelism(),
+                     "Default handler not in the shared pool");
+
+        class_under_test.shutdown();
+
+        assertFalse(SharedWorkerPool.getPool().isShutdown(), "Shared pool was shut down");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidThreadCount() throws Exception
+    {
+        new ParallelPickingHandler(0);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidChunkSize() throws Exception
+    {
+        ParallelPickingHandler class_under_test = new ParallelPickingHandler(1);
+
+        try
+        {
+            class_under_test.setChunkSize(0);
+        }
+        finally
+        {
+            class_under_test.shutdown();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testBatchMatchesSingleThreaded() throws Exception
+    {
+        Random rand = new Random(5150);
+        Group root = createScene(rand);
+
+        PickRequest[] expected = new PickRequest[NUM_REQUESTS];
+        PickRequest[] actual = new PickRequest[NUM_REQUESTS];
+
+        for(int i = 0; i < NUM_REQUESTS; i++)
+        {
+            expected[i] = createRequest(rand, i);
+            actual[i] = copyRequest(expected[i]);
+        }
+
+        DefaultPickingHandler reference = new DefaultPickingHandler();
+        reference.pickBatch(root, expected, NUM_REQUESTS);
+
+        ParallelPickingHandler class_under_test = new ParallelPickingHandler(4);
+        class_under_test.setChunkSize(7);
+
+        // Run twice to make sure the reused worker state gives the same answer
+        for(int pass = 0; pass < 2; pass++)
+        {
+            class_under_test.pickBatch(root, actual, NUM_REQUESTS);
+
+            int num_found = 0;
+
+            for(int i = 0; i < NUM_REQUESTS; i++)
+            {
+                checkRequest(expected[i], actual[i], i);
+                num_found += actual[i].pickCount;
+            }
+
+            assertTrue(num_found > 0, "Test did not pick anything");
+        }
+
+        PickingStatistics stats = class_under_test.getStatistics();
+
+        assertEquals(stats.getCallCount(), 2, "Wrong number of calls");
+        assertEquals(stats.getRequestCount(), NUM_REQUESTS * 2, "Wrong request count");
+        assertTrue(stats.getRequestsPerSecond() > 0, "No throughput recorded");
+
+        long[] histogram = new long[PickingStatistics.NUM_LATENCY_BUCKETS];
+        stats.getLatencyHistogram(histogram);
+
+        long total = 0;
+        for(int i = 0; i < histogram.length; i++)
+            total += histogram[i];
+
+        assertEquals(total, NUM_REQUESTS * 2, "Histogram does not cover all requests");
+
+        stats.reset();
+
+        assertEquals(stats.getRequestCount(), 0, "Reset did not clear requests");
+        assertEquals(stats.getRequestsPerSecond(), 0.0, "Reset did not clear time");
+
+        class_under_test.shutdown();
+    }
+
+    @Test(groups = "unit")
+    public void testSinglePickStatistics() throws Exception
+    {
+        Random rand = new Random(42);
+        Group root = createScene(rand);
+
+        PickRequest expected = createRequest(rand, 0);
+        PickRequest actual = copyRequest(expected);
+
+        DefaultPickingHandler reference = new DefaultPickingHandler();
+        reference.pickSingle(root, expected);
+
+        ParallelPickingHandler class_under_test = new ParallelPickingHandler(2);
+        class_under_test.pickBatch(root, new PickRequest[] { actual }, 1);
+
+        assertEquals(actual.pickCount, expected.pickCount, "Different pick count");
+        assertEquals(class_under_test.getStatistics().getRequestCount(), 1,
+                     "Single pick not recorded");
+
+        class_under_test.shutdown();
+    }
+
+    @Test(groups = "unit")
+    public void testLatencyBuckets() throws Exception
+    {
+        assertEquals(PickingStatistics.getLatencyBucket(0), 0, "Zero time");
+        assertEquals(PickingStatistics.getLatencyBucket(999), 0, "Sub microsecond");
+        assertEquals(PickingStatistics.getLatencyBucket(1000), 1, "One microsecond");
+        assertEquals(PickingStatistics.getLatencyBucket(3999), 2, "Three microseconds");
+        assertEquals(PickingStatistics.getLatencyBucket(4000), 3, "Four microseconds");
+        assertEquals(PickingStatistics.getLatencyBucket(Long.MAX_VALUE),
+                     PickingStatistics.NUM_LATENCY_BUCKETS - 1,
+                     "Overflow not clamped");
+    }
+
+    /**
+     * Compare the outputs of two requests
+     */
+    private void checkRequest(PickRequest expected, PickRequest actual, int idx)
+    {
+        assertEquals(actual.pickCount, expected.pickCount,
+                     "Different pick count for request " + idx);
+
+        if(expected.pickCount == 0)
+            return;
+
+        if(expected.foundPaths instanceof List)
+        {
+            List<?> exp_list = (List<?>)expected.foundPaths;
+            List<?> act_list = (List<?>)actual.foundPaths;
+
+            for(int i = 0; i < expected.pickCount; i++)
+                checkPath((SceneGraphPath)exp_list.get(i),
+                          (SceneGraphPath)act_list.get(i),
+                          idx);
+        }
+        else
+        {
+            checkPath((SceneGraphPath)expected.foundPaths,
+                      (SceneGraphPath)actual.foundPaths,
+                      idx);
+        }
+    }
+
+    /**
+     * Compare the contents of two paths
+     */
+    private void checkPath(SceneGraphPath expected, SceneGraphPath actual, int idx)
+    {
+        assertEquals(actual.getNodeCount(), expected.getNodeCount(),
+                     "Different path length for request " + idx);
+
+        for(int i = 0; i < expected.getNodeCount(); i++)
+            assertSame(actual.getNode(i), expected.getNode(i),
+                       "Different path node " + i + " for request " + idx);
+
+        Matrix4d exp_mat = new Matrix4d();
+        Matrix4d act_mat = new Matrix4d();
+
+        expected.getTransform(exp_mat);
+        actual.getTransform(act_mat);
+
+        assertEquals(act_mat, exp_mat, "Different transform for request " + idx);
+    }
+
+    /**
+     * Create a scene of shapes under randomly positioned transforms. Half of
+     * the shapes share the same geometry.
+     */
+    private Group createScene(Random rand)
+    {
+        float[] coords = {
+            -1, -1, 0,  1, -1, 0,  1, 1, 0,
+            -1, -1, 0,  1, 1, 0,  -1, 1, 0,
+            -1, 0, -1,  1, 0, -1,  1, 0, 1,
+        };
+
+        TriangleArray shared_geom = new TriangleArray();
+        shared_geom.setVertices(TriangleArray.COORDINATE_3, coords);
+
+        Group root = new Group();
+        Matrix4d mat = new Matrix4d();
+
+        for(int i = 0; i < NUM_SHAPES; i++)
+        {
+            mat.setIdentity();
+            mat.m03 = rand.nextFloat() * 20 - 10;
+            mat.m13 = rand.nextFloat() * 20 - 10;
+            mat.m23 = rand.nextFloat() * 20 - 10;
+
+            TransformGroup tx = new TransformGroup();
+            tx.setTransform(mat);
+
+            Shape3D shape = new Shape3D();
+
+            if((i & 1) == 0)
+            {
+                shape.setGeometry(shared_geom);
+            }
+            else
+            {
+                TriangleArray geom = new TriangleArray();
+                geom.setVertices(TriangleArray.COORDINATE_3, coords);
+                shape.setGeometry(geom);
+            }
+
+            tx.addChild(shape);
+            root.addChild(tx);
+        }
+
+        root.requestBoundsUpdate();
+
+        return root;
+    }
+
+    /**
+     * Create a random ray or segment pick with one of the sort types.
+     */
+    private PickRequest createRequest(Random rand, int idx)
+    {
+        PickRequest ret_val = new PickRequest();
+
+        ret_val.pickType = PickRequest.FIND_ALL;
+        ret_val.pickGeometryType = (idx % 2 == 0) ?
+                                   PickRequest.PICK_RAY :
+                                   PickRequest.PICK_LINE_SEGMENT;
+        ret_val.pickSortType = (idx % 3 == 0) ?
+                               PickRequest.SORT_ANY :
+                               PickRequest.SORT_ALL;
+        ret_val.useGeometry = (idx % 5 != 0);
+        ret_val.generateVWorldMatrix = true;
+
+        ret_val.origin[0] = rand.nextFloat() * 20 - 10;
+        ret_val.origin[1] = rand.nextFloat() * 20 - 10;
+        ret_val.origin[2] = 30;
+
+        if(ret_val.pickGeometryType == PickRequest.PICK_RAY)
+        {
+            ret_val.destination[0] = rand.nextFloat() * 0.4f - 0.2f;
+            ret_val.destination[1] = rand.nextFloat() * 0.4f - 0.2f;
+            ret_val.destination[2] = -1;
+        }
+        else
+        {
+            ret_val.destination[0] = ret_val.origin[0] + rand.nextFloat() * 4 - 2;
+            ret_val.destination[1] = ret_val.origin[1] + rand.nextFloat() * 4 - 2;
+            ret_val.destination[2] = -30;
+        }
+
+        return ret_val;
+    }
+
+    /**
+     * Copy the input part of a request.
+     */
+    private PickRequest copyRequest(PickRequest src)
+    {
+        PickRequest ret_val = new PickRequest();
+
+        ret_val.pickType = src.pickType;
+        ret_val.pickGeometryType = src.pickGeometryType;
+        ret_val.pickSortType = src.pickSortType;
+        ret_val.useGeometry = src.useGeometry;
+        ret_val.generateVWorldMatrix = src.generateVWorldMatrix;
+        ret_val.additionalData = src.additionalData;
+
+        System.arraycopy(src.origin, 0, ret_val.origin, 0, 3);
+        System.arraycopy(src.destination, 0, ret_val.destination, 0, 3);
+
+        return ret_val;
+    }
+}
@@ -23,6 +23,8 @@ import org.j3d.util.I18nManager;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -34,6 +36,7 @@ import org.j3d.aviatrix3d.pipeline.audio.AudioDetails;
 import org.j3d.aviatrix3d.pipeline.audio.AudioEnvironmentData;
 import org.j3d.aviatrix3d.pipeline.audio.AudioInstructions;
 import org.j3d.aviatrix3d.rendering.AudioRenderable;
+import org.j3d.aviatrix3d.rendering.VirtualAudioRenderable;
 
 /**
  * Unit tests for the audio output device.
@@ -269,4 +272,121 @@ public class OpenALAudioDeviceTest
 
         assertTrue(class_under_test.isDisposed(), "Should mark the device as disposed");
     }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidVoiceCount() throws Exception
+    {
+        new OpenALAudioDevice(-1);
+    }
+
+    @Test(groups = "unit")
+    public void testVoicePooling() throws Exception
+    {
+        AL pool_al = mock(AL.class);
+        when(mockProvider.getAL()).thenReturn(pool_al);
+        when(pool_al.alGetError()).thenReturn(AL.AL_NO_ERROR);
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                int[] ids = (int[])invocation.getArguments()[1];
+                ids[0] = 10;
+                ids[1] = 11;
+                return null;
+            }
+        }).when(pool_al).alGenSources(eq(2), any(int[].class), eq(0));
+
+        OpenALAudioDevice class_under_test = new OpenALAudioDevice(2);
+        class_under_test.setOpenALProvider(mockProvider);
+        class_under_test.setErrorReporter(mockReporter);
+
+        assertEquals(class_under_test.getMaxVoices(), 2, "Wrong voice count");
+
+        VirtualAudioRenderable loud = mock(VirtualAudioRenderable.class);
+        VirtualAudioRenderable middle = mock(VirtualAudioRenderable.class);
+        VirtualAudioRenderable quiet = mock(VirtualAudioRenderable.class);
+        VirtualAudioRenderable silent = mock(VirtualAudioRenderable.class);
+
+        AudioInstructions test_instructions =
+            createRankedInstructions(new VirtualAudioRenderable[] { silent, loud, middle, quiet },
+                                     new float[] { 0, 0.9f, 0.5f, 0.1f });
+
+        class_under_test.setDrawableObjects(null, test_instructions);
+
+        // Init draw, then the real one
+        class_under_test.draw(null);
+        class_under_test.draw(null);
+
+        verify(pool_al, times(1)).alGenSources(eq(2), any(int[].class), eq(0));
+        verify(pool_al, never()).alGenSources(eq(1), any(IntBuffer.class));
+
+        verify(loud, times(1)).bindSource(anyInt());
+        verify(middle, times(1)).bindSource(anyInt());
+        verify(quiet, never()).bindSource(anyInt());
+        verify(silent, never()).bindSource(anyInt());
+
+        verify(loud, times(1)).render(eq(pool_al), any(Matrix4d.class));
+        verify(quiet, never()).render(eq(pool_al), any(Matrix4d.class));
+        verify(quiet, times(1)).updateVirtual(anyFloat());
+        verify(silent, times(1)).updateVirtual(anyFloat());
+
+        assertEquals(class_under_test.getNumActiveVoices(), 2, "Both voices should be used");
+
+        // Now the quiet one gets louder than the loud one. The middle one
+        // should keep its voice, and the loud one hand its over.
+        test_instructions =
+            createRankedInstructions(new VirtualAudioRenderable[] { quiet, middle, loud, silent },
+                                     new float[] { 0.95f, 0.5f, 0.05f, 0 });
+
+        class_under_test.setDrawableObjects(null, test_instructions);
+        class_under_test.draw(null);
+
+        verify(loud, times(1)).releaseSource(pool_al);
+        verify(middle, never()).releaseSource(pool_al);
+        verify(middle, times(1)).bindSource(anyInt());
+        verify(quiet, times(1)).bindSource(anyInt());
+        verify(loud, times(1)).updateVirtual(anyFloat());
+
+        assertEquals(class_under_test.getNumActiveVoices(), 2, "Both voices should be used");
+
+        class_under_test.dispose();
+
+        verify(quiet, times(1)).releaseSource(pool_al);
+        verify(middle, times(1)).releaseSource(pool_al);
+        verify(pool_al, times(1)).alDeleteSources(eq(2), any(int[].class), eq(0));
+    }
+
+    /**
+     * Build a set of instructions for the given renderables, which are
+     * assumed to be already in gain order.
+     */
+    private AudioInstructions createRankedInstructions(VirtualAudioRenderable[] renderables,
+                                                       float[] gains)
+    {
+        int num = renderables.length;
+
+        AudioInstructions ret_val = new AudioInstructions();
+        ret_val.renderData = new AudioEnvironmentData();
+        ret_val.renderData.viewTransform.setIdentity();
+        ret_val.renderList = new AudioDetails[num * 2];
+        ret_val.renderOps = new RenderOp[num * 2];
+        ret_val.numValid = num * 2;
+
+        for(int i = 0; i < num; i++)
+        {
+            AudioDetails details = new AudioDetails();
+            details.transform.setIdentity();
+            details.renderable = renderables[i];
+            details.gain = gains[i];
+
+            ret_val.renderList[i * 2] = details;
+            ret_val.renderList[i * 2 + 1] = details;
+            ret_val.renderOps[i * 2] = RenderOp.START_RENDER;
+            ret_val.renderOps[i * 2 + 1] = RenderOp.STOP_RENDER;
+        }
+
+        return ret_val;
+    }
 }
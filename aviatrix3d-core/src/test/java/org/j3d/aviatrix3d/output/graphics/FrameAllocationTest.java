@@ -0,0 +1,431 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.output.graphics;
+
+// External imports
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.AbstractList;
+
+import com.jogamp.opengl.GL2;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.*;
+import org.j3d.aviatrix3d.pipeline.graphics.*;
+import org.j3d.aviatrix3d.rendering.LayerCullable;
+import org.j3d.aviatrix3d.test.MockGL2;
+import org.j3d.aviatrix3d.test.MockGLContext;
+
+/**
+ * Checks that the cull, sort and draw path does not allocate anything once
+ * it has warmed up.
+ */
+public class FrameAllocationTest
+{
+    /** Frames used to warm up the pools before measuring */
+    private static final int WARM_UP_FRAMES = 200;
+
+    /** Frames measured after warming up */
+    private static final int TEST_FRAMES = 100;
+
+    /** Number of measuring rounds before giving up */
+    private static final int MAX_ROUNDS = 5;
+
+    /** Number of shapes in each group of the scene */
+    private static final int NUM_SHAPES = 10;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("FrameAllocationTest", "config.i18n.org-j3d-aviatrix3d-resources-core");
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            throw new SkipException("Thread allocation counting not available");
+
+        threadBean = (com.sun.management.ThreadMXBean)bean;
+
+        if(!threadBean.isThreadAllocatedMemorySupported())
+            throw new SkipException("Thread allocation counting not supported");
+
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test(groups = "unit")
+    public void testNoAllocationAfterWarmUp() throws Exception
+    {
+        LiveLayer layer = createScene();
+        layer.makeLive();
+
+        LayerCullable[] layers = { layer };
+
+        long thread_id = Thread.currentThread().getId();
+
+        ProductionAllocationGL gl = new ProductionAllocationGL(threadBean, thread_id)
+        {
+            @Override
+            public GL2 getGL2()
+            {
+                return this;
+            }
+
+            @Override
+            public void glGetIntegerv(int pname, int[] params, int offset)
+            {
+                super.glGetIntegerv(pname, params, offset);
+
+                // Enough lights and clip planes for the scene
+                params[offset] = 8;
+            }
+        };
+
+        MockGLContext context = new MockGLContext(gl, null);
+
+        StandardRenderingProcessor renderer =
+            new StandardRenderingProcessor(mock(GraphicsOutputDevice.class));
+        renderer.setOwnerBuffer(new MainCanvasDescriptor());
+
+        // No drawable to fetch the clear size from
+        renderer.setColorClearNeeded(false);
+        renderer.init(context);
+
+        FrustumCullStage culler = new FrustumCullStage();
+        StateSortStage sorter = new StateSortStage();
+        sorter.setRadixSortEnabled(true);
+
+        CullToSingleSortListener cull_listener = new CullToSingleSortListener();
+        cull_listener.setSorter(sorter);
+        culler.setCulledGeometryReceiver(cull_listener);
+
+        DrawCounter draw_listener = new DrawCounter(renderer);
+        sorter.setSortedGeometryReceiver(draw_listener);
+
+        GraphicsProfilingData profiling_data = new GraphicsProfilingData();
+
+        for(int i = 0; i < WARM_UP_FRAMES; i++)
+            renderFrame(culler, renderer, context, layers, profiling_data);
+
+        assertTrue(gl.getCallCount("glDrawArrays") > 0, "Nothing was drawn");
+        assertTrue(gl.getCallCount("glLightfv") > 0, "No lights were drawn");
+        assertTrue(gl.getCallCount("glClipPlane") > 0, "No clip planes were drawn");
+
+        // The query itself may allocate, so measure that as well
+        long start = threadBean.getThreadAllocatedBytes(thread_id);
+        long query_bytes = threadBean.getThreadAllocatedBytes(thread_id) - start;
+
+        // The JIT can deoptimise a method part way through a run and
+        // rebuild objects it had removed by escape analysis, which shows up
+        // as a one-off allocation. Only fail if every round allocates.
+        long used = 0;
+
+        for(int round = 0; round < MAX_ROUNDS; round++)
+        {
+            gl.startMeasuring();
+
+            for(int i = 0; i < TEST_FRAMES; i++)
+                renderFrame(culler, renderer, context, layers, profiling_data);
+
+            used = gl.stopMeasuring(query_bytes);
+
+            if(used == 0)
+                break;
+        }
+
+        assertEquals(draw_listener.numDrawn,
+                     gl.getCallCount("glFlush"),
+                     "Frames were skipped");
+        assertEquals(used, 0, "Allocated over " + TEST_FRAMES + " warm frames");
+    }
+
+    /**
+     * Run the scene through the full pipeline once.
+     */
+    private void renderFrame(FrustumCullStage culler,
+                             StandardRenderingProcessor renderer,
+                             MockGLContext context,
+                             LayerCullable[] layers,
+                             GraphicsProfilingData profilingData)
+    {
+        profilingData.clear();
+        culler.cull(null, profilingData, layers, 1);
+        renderer.prepareData(context);
+        renderer.render(context, profilingData);
+    }
+
+    /**
+     * Build a scene with two lit groups of shapes, each with its own light
+     * so that the sorter has to start and stop lights, a clip plane and a
+     * group that is under an appearance override.
+     */
+    private LiveLayer createScene()
+    {
+        Viewpoint vp = new Viewpoint();
+
+        Group root = new Group();
+        root.addChild(vp);
+        root.addChild(createGroup(-4, new DirectionalLight(), false));
+        root.addChild(createGroup(0, new DirectionalLight(), false));
+        root.addChild(createGroup(4, null, true));
+
+        ClipPlane clip = new ClipPlane();
+        clip.setPlaneEquation(new double[] { 0, 0, 1, 50 });
+        clip.setEnabled(true);
+        root.addChild(clip);
+
+        SimpleScene scene = new SimpleScene();
+        scene.setRenderedGeometry(root);
+        scene.setActiveView(vp);
+
+        SimpleViewport view = new SimpleViewport();
+        view.setScene(scene);
+        view.setDimensions(0, 0, 500, 500);
+
+        LiveLayer layer = new LiveLayer();
+        layer.setViewport(view);
+
+        return layer;
+    }
+
+    /**
+     * Create a group of shapes in a column at the given X position.
+     */
+    private Group createGroup(float x, Light light, boolean override)
+    {
+        Group ret_val = new Group();
+
+        if(light != null)
+        {
+            light.setEnabled(true);
+            ret_val.addChild(light);
+        }
+
+        if(override)
+        {
+            Appearance ovr_app = new Appearance();
+            ovr_app.setMaterial(new Material());
+
+            AppearanceOverride ovr = new AppearanceOverride();
+            ovr.setAppearance(ovr_app);
+            ovr.setEnabled(true);
+
+            ret_val.addChild(ovr);
+        }
+
+        float[] coords = { 0, 0, 0,  1, 0, 0,  0, 1, 1 };
+        float[] normals = { 0, 0, 1,  0, 0, 1,  0, 0, 1 };
+
+        Matrix4d mat = new Matrix4d();
+
+        for(int i = 0; i < NUM_SHAPES; i++)
+        {
+            TriangleArray geom = new TriangleArray();
+            geom.setVertices(TriangleArray.COORDINATE_3, coords);
+            geom.setNormals(normals);
+
+            Material material = new Material();
+            material.setDiffuseColor(new float[] { i / (float)NUM_SHAPES, 0, 1 });
+
+            Appearance app = new Appearance();
+            app.setMaterial(material);
+
+            Shape3D shape = new Shape3D();
+            shape.setGeometry(geom);
+            shape.setAppearance(app);
+
+            mat.setIdentity();
+            mat.m03 = x;
+            mat.m13 = i - NUM_SHAPES / 2;
+            mat.m23 = -20;
+
+            TransformGroup tx = new TransformGroup();
+            tx.setTransform(mat);
+            tx.addChild(shape);
+
+            ret_val.addChild(tx);
+        }
+
+        return ret_val;
+    }
+
+    /**
+     * Layer that can be made live without a render manager.
+     */
+    private static class LiveLayer extends SimpleLayer
+    {
+        void makeLive()
+        {
+            setLive(true);
+        }
+    }
+
+    /**
+     * Mock GL that leaves the memory used by the mock itself out of the count.
+     * Each mock call allocates from the point it looks up its call details
+     * to the point it stores its arguments, so only the bytes allocated
+     * between GL calls are added up. The stored arguments are thrown away.
+     */
+    private static class ProductionAllocationGL extends MockGL2
+    {
+        private final com.sun.management.ThreadMXBean threadBean;
+
+        private final long threadId;
+
+        private final Field argumentsField;
+
+        private final ArgumentSink argumentSink;
+
+        /** Bytes allocated outside the mock since measuring started */
+        private long productionBytes;
+
+        /**
+         * Number of stretches counted since measuring started. Each one
+         * starts with an allocation query.
+         */
+        private int numSegments;
+
+        /** Allocated bytes when the mock last handed back control */
+        private long lastExit;
+
+        ProductionAllocationGL(com.sun.management.ThreadMXBean bean, long id)
+            throws NoSuchFieldException
+        {
+            super(null);
+
+            threadBean = bean;
+            threadId = id;
+            argumentSink = new ArgumentSink();
+
+            argumentsField = CallDetails.class.getDeclaredField("foundArguments");
+            argumentsField.setAccessible(true);
+        }
+
+        @Override
+        protected CallDetails getMethodDetails(String methodName)
+        {
+            long now = threadBean.getThreadAllocatedBytes(threadId);
+            productionBytes += now - lastExit;
+            numSegments++;
+            lastExit = now;
+
+            CallDetails details = super.getMethodDetails(methodName);
+
+            try
+            {
+                if(argumentsField.get(details) != argumentSink)
+                    argumentsField.set(details, argumentSink);
+            }
+            catch(IllegalAccessException iae)
+            {
+                throw new IllegalStateException(iae);
+            }
+
+            return details;
+        }
+
+        /**
+         * Start counting allocations from now.
+         */
+        void startMeasuring()
+        {
+            productionBytes = 0;
+            numSegments = 0;
+            lastExit = threadBean.getThreadAllocatedBytes(threadId);
+        }
+
+        /**
+         * Stop counting and return the bytes allocated outside the mock.
+         *
+         * @param queryBytes The bytes allocated by one allocation query
+         */
+        long stopMeasuring(long queryBytes)
+        {
+            long now = threadBean.getThreadAllocatedBytes(threadId);
+            productionBytes += now - lastExit;
+            numSegments++;
+
+            return productionBytes - numSegments * queryBytes;
+        }
+
+        /**
+         * Drops the arguments of each call, marking where the mock's own
+         * allocation for the call ends.
+         */
+        private class ArgumentSink extends AbstractList<Object[]>
+        {
+            @Override
+            public boolean add(Object[] args)
+            {
+                lastExit = threadBean.getThreadAllocatedBytes(threadId);
+                return true;
+            }
+
+            @Override
+            public Object[] get(int index)
+            {
+                throw new IndexOutOfBoundsException();
+            }
+
+            @Override
+            public int size()
+            {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Passes the sorted output straight to the renderer.
+     */
+    private static class DrawCounter implements SortedGeometryReceiver
+    {
+        private final StandardRenderingProcessor renderer;
+
+        private int numDrawn;
+
+        DrawCounter(StandardRenderingProcessor renderer)
+        {
+            this.renderer = renderer;
+        }
+
+        @Override
+        public void sortedOutput(GraphicsRequestData otherData,
+                                 GraphicsProfilingData profilingData,
+                                 GraphicsInstructions[] commands,
+                                 int numValid)
+        {
+            GraphicsInstructions instr = commands[0];
+
+            renderer.setDrawableObjects(otherData,
+                                        instr.renderList,
+                                        instr.renderOps,
+                                        instr.numValid,
+                                        instr.renderData);
+            numDrawn++;
+        }
+    }
+}
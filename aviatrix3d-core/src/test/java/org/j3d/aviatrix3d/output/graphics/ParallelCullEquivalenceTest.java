@@ -0,0 +1,522 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.output.graphics;
+
+// External imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jogamp.opengl.GL2;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.*;
+import org.j3d.aviatrix3d.pipeline.graphics.*;
+import org.j3d.aviatrix3d.rendering.LayerCullable;
+import org.j3d.aviatrix3d.rendering.OffscreenBufferRenderable;
+import org.j3d.aviatrix3d.rendering.Renderable;
+import org.j3d.aviatrix3d.rendering.ShapeRenderable;
+import org.j3d.aviatrix3d.test.MockGL2;
+import org.j3d.aviatrix3d.test.MockGLContext;
+
+/**
+ * Checks that the parallel frustum cull stage produces the same output as
+ * the single threaded stage for the same scene.
+ */
+public class ParallelCullEquivalenceTest
+{
+    /** Number of shapes in each group of the scene */
+    private static final int NUM_SHAPES = 10;
+
+    /** Number of worker threads to force the traversal to fork */
+    private static final int NUM_THREADS = 4;
+
+    /** GL calls that are compared between the two rendered outputs */
+    private static final String[] GL_CALLS =
+    {
+        "glDrawArrays",
+        "glLightfv",
+        "glClipPlane",
+        "glMaterialfv",
+        "glMultMatrixd",
+        "glEnable",
+        "glDisable"
+    };
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("ParallelCullEquivalenceTest",
+                                "config.i18n.org-j3d-aviatrix3d-resources-core");
+    }
+
+    @Test(groups = "unit")
+    public void testInvalidSplitSize() throws Exception
+    {
+        ParallelFrustumCullStage class_under_test =
+            new ParallelFrustumCullStage(1, NUM_THREADS);
+
+        try
+        {
+            class_under_test.setMinimumSplitSize(1);
+            fail("Should not allow a split size less than 2");
+        }
+        catch(IllegalArgumentException iae)
+        {
+            // pass
+        }
+        finally
+        {
+            class_under_test.shutdown();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testCullOutputMatches() throws Exception
+    {
+        LiveLayer layer = createScene();
+        layer.makeLive();
+
+        LayerCullable[] layers = { layer };
+
+        FrustumCullStage serial_culler = new FrustumCullStage();
+        ParallelFrustumCullStage class_under_test =
+            new ParallelFrustumCullStage(1, NUM_THREADS);
+        class_under_test.setMinimumSplitSize(2);
+
+        try
+        {
+            List<NodeRecord> expected = cull(serial_culler, layers);
+            assertEquals(expected.size(), NUM_SHAPES * 5, "Not every shape was culled");
+
+            // Run a few frames in case the task split differs between runs
+            for(int i = 0; i < 5; i++)
+            {
+                List<NodeRecord> found = cull(class_under_test, layers);
+
+                assertEquals(found.size(), expected.size(), "Wrong node count in frame " + i);
+
+                for(int j = 0; j < expected.size(); j++)
+                    compareNode(found.get(j), expected.get(j), "frame " + i + " node " + j);
+            }
+        }
+        finally
+        {
+            class_under_test.shutdown();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testRenderedOutputMatches() throws Exception
+    {
+        LiveLayer layer = createScene();
+        layer.makeLive();
+
+        LayerCullable[] layers = { layer };
+
+        FrustumCullStage serial_culler = new FrustumCullStage();
+        ParallelFrustumCullStage class_under_test =
+            new ParallelFrustumCullStage(1, NUM_THREADS);
+        class_under_test.setMinimumSplitSize(2);
+
+        try
+        {
+            MockGL2 expected_gl = render(serial_culler, layers);
+            MockGL2 found_gl = render(class_under_test, layers);
+
+            assertTrue(expected_gl.getCallCount("glDrawArrays") > 0, "Nothing was drawn");
+            assertTrue(expected_gl.getCallCount("glLightfv") > 0, "No lights were drawn");
+            assertTrue(expected_gl.getCallCount("glClipPlane") > 0, "No clip planes were drawn");
+
+            for(int i = 0; i < GL_CALLS.length; i++)
+                assertEquals(found_gl.getCallCount(GL_CALLS[i]),
+                             expected_gl.getCallCount(GL_CALLS[i]),
+                             "Different number of " + GL_CALLS[i] + " calls");
+
+            assertEquals(found_gl.getCallCount(),
+                         expected_gl.getCallCount(),
+                         "Different total number of GL calls");
+        }
+        finally
+        {
+            class_under_test.shutdown();
+        }
+    }
+
+    /**
+     * Cull the layers once and return a copy of everything that was output.
+     */
+    private List<NodeRecord> cull(GraphicsCullStage culler, LayerCullable[] layers)
+    {
+        OutputCapture capture = new OutputCapture();
+        culler.setCulledGeometryReceiver(capture);
+        culler.cull(null, new GraphicsProfilingData(), layers, 1);
+
+        assertEquals(capture.numFrames, 1, "Output not sent for the frame");
+
+        return capture.nodes;
+    }
+
+    /**
+     * Run the scene through a full cull, sort and draw pass and return the
+     * GL that it was drawn with.
+     */
+    private MockGL2 render(GraphicsCullStage culler, LayerCullable[] layers)
+    {
+        MockGL2 gl = new MockGL2(null)
+        {
+            @Override
+            public GL2 getGL2()
+            {
+                return this;
+            }
+
+            @Override
+            public void glGetIntegerv(int pname, int[] params, int offset)
+            {
+                super.glGetIntegerv(pname, params, offset);
+
+                // Enough lights and clip planes for the scene
+                params[offset] = 8;
+            }
+        };
+
+        MockGLContext context = new MockGLContext(gl, null);
+
+        final StandardRenderingProcessor renderer =
+            new StandardRenderingProcessor(mock(GraphicsOutputDevice.class));
+        renderer.setOwnerBuffer(new MainCanvasDescriptor());
+
+        // No drawable to fetch the clear size from
+        renderer.setColorClearNeeded(false);
+        renderer.init(context);
+
+        StateSortStage sorter = new StateSortStage();
+
+        CullToSingleSortListener cull_listener = new CullToSingleSortListener();
+        cull_listener.setSorter(sorter);
+        culler.setCulledGeometryReceiver(cull_listener);
+
+        sorter.setSortedGeometryReceiver(new SortedGeometryReceiver()
+        {
+            @Override
+            public void sortedOutput(GraphicsRequestData otherData,
+                                     GraphicsProfilingData profilingData,
+                                     GraphicsInstructions[] commands,
+                                     int numValid)
+            {
+                GraphicsInstructions instr = commands[0];
+
+                renderer.setDrawableObjects(otherData,
+                                            instr.renderList,
+                                            instr.renderOps,
+                                            instr.numValid,
+                                            instr.renderData);
+            }
+        });
+
+        GraphicsProfilingData profiling_data = new GraphicsProfilingData();
+
+        culler.cull(null, profiling_data, layers, 1);
+        renderer.prepareData(context);
+        renderer.render(context, profiling_data);
+
+        return gl;
+    }
+
+    /**
+     * Check that the two captured nodes have the same contents.
+     */
+    private void compareNode(NodeRecord found, NodeRecord expected, String msg)
+    {
+        assertSame(found.geometry, expected.geometry, "Wrong renderable in " + msg);
+        assertSame(found.appearance, expected.appearance, "Wrong appearance in " + msg);
+        assertEquals(found.overridden, expected.overridden, "Wrong override state in " + msg);
+        assertTrue(Arrays.equals(found.transform, expected.transform), "Wrong transform in " + msg);
+        assertSame(found.localFog, expected.localFog, "Wrong fog in " + msg);
+
+        assertEquals(found.lights.size(), expected.lights.size(), "Wrong light count in " + msg);
+
+        for(int i = 0; i < expected.lights.size(); i++)
+        {
+            assertSame(found.lights.get(i), expected.lights.get(i), "Wrong light " + i + " in " + msg);
+            assertTrue(Arrays.equals(found.lightTransforms.get(i), expected.lightTransforms.get(i)),
+                       "Wrong light transform " + i + " in " + msg);
+        }
+
+        assertEquals(found.clipPlanes.size(),
+                     expected.clipPlanes.size(),
+                     "Wrong clip plane count in " + msg);
+
+        for(int i = 0; i < expected.clipPlanes.size(); i++)
+        {
+            assertSame(found.clipPlanes.get(i),
+                       expected.clipPlanes.get(i),
+                       "Wrong clip plane " + i + " in " + msg);
+            assertTrue(Arrays.equals(found.clipTransforms.get(i), expected.clipTransforms.get(i)),
+                       "Wrong clip plane transform " + i + " in " + msg);
+        }
+    }
+
+    /**
+     * Build a scene with two lit groups of shapes, a clip plane, a group
+     * under an appearance override and a nested group that has both its own
+     * light and an override, so that the per-task stacks have to be
+     * inherited across several levels of splitting.
+     */
+    private LiveLayer createScene()
+    {
+        Viewpoint vp = new Viewpoint();
+
+        ClipPlane clip = new ClipPlane();
+        clip.setPlaneEquation(new double[] { 0, 0, 1, 50 });
+        clip.setEnabled(true);
+
+        Group nested = createGroup(-8, new PointLight(), true);
+        nested.addChild(createGroup(8, new SpotLight(), false));
+
+        Group root = new Group();
+        root.addChild(vp);
+        root.addChild(clip);
+        root.addChild(createGroup(-4, new DirectionalLight(), false));
+        root.addChild(createGroup(0, new DirectionalLight(), false));
+        root.addChild(createGroup(4, null, true));
+        root.addChild(nested);
+
+        SimpleScene scene = new SimpleScene();
+        scene.setRenderedGeometry(root);
+        scene.setActiveView(vp);
+
+        SimpleViewport view = new SimpleViewport();
+        view.setScene(scene);
+        view.setDimensions(0, 0, 500, 500);
+
+        LiveLayer layer = new LiveLayer();
+        layer.setViewport(view);
+
+        return layer;
+    }
+
+    /**
+     * Create a group of shapes in a column at the given X position.
+     */
+    private Group createGroup(float x, Light light, boolean override)
+    {
+        Group ret_val = new Group();
+
+        if(light != null)
+        {
+            light.setEnabled(true);
+            ret_val.addChild(light);
+        }
+
+        if(override)
+        {
+            Appearance ovr_app = new Appearance();
+            ovr_app.setMaterial(new Material());
+
+            AppearanceOverride ovr = new AppearanceOverride();
+            ovr.setAppearance(ovr_app);
+            ovr.setEnabled(true);
+
+            ret_val.addChild(ovr);
+        }
+
+        float[] coords = { 0, 0, 0,  1, 0, 0,  0, 1, 1 };
+        float[] normals = { 0, 0, 1,  0, 0, 1,  0, 0, 1 };
+
+        Matrix4d mat = new Matrix4d();
+
+        for(int i = 0; i < NUM_SHAPES; i++)
+        {
+            TriangleArray geom = new TriangleArray();
+            geom.setVertices(TriangleArray.COORDINATE_3, coords);
+            geom.setNormals(normals);
+
+            Material material = new Material();
+            material.setDiffuseColor(new float[] { i / (float)NUM_SHAPES, 0, 1 });
+
+            Appearance app = new Appearance();
+            app.setMaterial(material);
+
+            Shape3D shape = new Shape3D();
+            shape.setGeometry(geom);
+            shape.setAppearance(app);
+
+            mat.setIdentity();
+            mat.m03 = x;
+            mat.m13 = i - NUM_SHAPES / 2;
+            mat.m23 = -20;
+
+            TransformGroup tx = new TransformGroup();
+            tx.setTransform(mat);
+            tx.addChild(shape);
+
+            ret_val.addChild(tx);
+        }
+
+        return ret_val;
+    }
+
+    /**
+     * Layer that can be made live without a render manager.
+     */
+    private static class LiveLayer extends SimpleLayer
+    {
+        void makeLive()
+        {
+            setLive(true);
+        }
+    }
+
+    /**
+     * Copy of the details of a single culled node. The cull stages reuse
+     * their output objects between frames, so everything is copied out.
+     */
+    private static class NodeRecord
+    {
+        /** The geometry of the shape that was output */
+        Renderable geometry;
+
+        /** The appearance that will be used to render the shape */
+        Object appearance;
+
+        /** True if the shape was replaced by an override proxy */
+        boolean overridden;
+
+        /** The world transform of the node */
+        double[] transform;
+
+        /** The local fog, if any */
+        Object localFog;
+
+        /** The lights affecting this node, in output order */
+        List<Renderable> lights = new ArrayList<>();
+
+        /** The transforms of the lights, matching the light list */
+        List<float[]> lightTransforms = new ArrayList<>();
+
+        /** The clip planes affecting this node, in output order */
+        List<Renderable> clipPlanes = new ArrayList<>();
+
+        /** The transforms of the clip planes, matching the clip list */
+        List<float[]> clipTransforms = new ArrayList<>();
+    }
+
+    /**
+     * Receiver that copies out every node of the first scene of every
+     * viewport of every layer.
+     */
+    private static class OutputCapture implements CulledGeometryReceiver
+    {
+        /** The captured nodes in output order */
+        List<NodeRecord> nodes = new ArrayList<>();
+
+        /** The number of times output was received */
+        int numFrames;
+
+        @Override
+        public void culledOutput(GraphicsRequestData otherData,
+                                 GraphicsProfilingData profilingData,
+                                 ViewportCollection[][] layers,
+                                 int[] numLayers,
+                                 int numScenes,
+                                 OffscreenBufferRenderable[][] sceneParent)
+        {
+            numFrames++;
+
+            for(int i = 0; i < numScenes; i++)
+            {
+                for(int j = 0; j < numLayers[i]; j++)
+                {
+                    ViewportCollection layer = layers[i][j];
+
+                    for(int k = 0; k < layer.numViewports; k++)
+                    {
+                        ViewportLayerCollection viewport = layer.viewports[k];
+
+                        for(int m = 0; m < viewport.numScenes; m++)
+                        {
+                            SceneRenderBucket bucket = viewport.scenes[m];
+
+                            for(int n = 0; n < bucket.numNodes; n++)
+                                nodes.add(copyNode(bucket.nodes[n]));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Create a copy of the details of a single node.
+         */
+        private NodeRecord copyNode(GraphicsCullOutputDetails details)
+        {
+            NodeRecord ret_val = new NodeRecord();
+
+            Renderable r = details.renderable;
+
+            // Overridden shapes are output as an internal proxy that
+            // returns the override appearance instead of the real one.
+            if(r instanceof ShapeRenderable)
+            {
+                ShapeRenderable shape = (ShapeRenderable)r;
+                ret_val.geometry = shape.getGeometryRenderable();
+                ret_val.appearance = shape.getAppearanceRenderable();
+                ret_val.overridden = !(r instanceof Shape3D);
+            }
+            else
+            {
+                ret_val.geometry = r;
+            }
+
+            Matrix4d mat = details.transform;
+            ret_val.transform = new double[]
+            {
+                mat.m00, mat.m01, mat.m02, mat.m03,
+                mat.m10, mat.m11, mat.m12, mat.m13,
+                mat.m20, mat.m21, mat.m22, mat.m23,
+                mat.m30, mat.m31, mat.m32, mat.m33
+            };
+
+            ret_val.localFog = details.localFog;
+
+            for(int i = 0; i < details.numLights; i++)
+            {
+                VisualDetails vd = details.lights[i];
+                ret_val.lights.add(vd.getRenderable());
+                ret_val.lightTransforms.add(vd.getTransform().clone());
+            }
+
+            for(int i = 0; i < details.numClipPlanes; i++)
+            {
+                VisualDetails vd = details.clipPlanes[i];
+                ret_val.clipPlanes.add(vd.getRenderable());
+                ret_val.clipTransforms.add(vd.getTransform().clone());
+            }
+
+            return ret_val;
+        }
+    }
+}
@@ -29,6 +29,8 @@ import static org.j3d.aviatrix3d.test.AV3DMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
+import org.j3d.aviatrix3d.DepthAttributes;
+import org.j3d.aviatrix3d.IndexedTriangleArray;
 import org.j3d.aviatrix3d.pipeline.RenderOp;
 import org.j3d.aviatrix3d.pipeline.graphics.*;
 import org.j3d.aviatrix3d.rendering.ObjectRenderable;
@@ -203,4 +205,190 @@ public class StandardRenderingProcessorTest
 
         assertEquals(test_profile_data.numRenderables, 2, "Should have registered renderables");
     }
+
+    @Test(groups = "unit", dependsOnMethods = "testBasicRenderingLoop")
+    public void testStateCacheElidesRedundantState() throws Exception
+    {
+        when(mockContext.makeCurrent()).thenReturn(GLContext.CONTEXT_CURRENT);
+
+        GraphicsProfilingData test_profile_data = new GraphicsProfilingData();
+        StandardRenderingProcessor class_under_test = createStateRenderer();
+
+        assertTrue(class_under_test.isStateCacheEnabled(), "State cache should default on");
+
+        class_under_test.render(mockContext, test_profile_data);
+
+        int cached_mask_calls = mockGL2.getCallCount("glDepthMask");
+        int cached_func_calls = mockGL2.getCallCount("glDepthFunc");
+
+        assertTrue(test_profile_data.numStateChangesElided > 0, "Should have skipped some state");
+        assertTrue(test_profile_data.numStateChangesSubmitted > 0, "Should have sent some state");
+
+        setupTests();
+        when(mockContext.makeCurrent()).thenReturn(GLContext.CONTEXT_CURRENT);
+
+        test_profile_data = new GraphicsProfilingData();
+        class_under_test = createStateRenderer();
+        class_under_test.setStateCacheEnabled(false);
+
+        assertFalse(class_under_test.isStateCacheEnabled(), "State cache not disabled");
+
+        class_under_test.render(mockContext, test_profile_data);
+
+        // Two identical depth states, each setting and restoring the mask and
+        // function. Only the first set should make it through the cache.
+        assertEquals(mockGL2.getCallCount("glDepthMask"), cached_mask_calls + 3,
+                     "Wrong number of depth mask calls skipped");
+        assertEquals(mockGL2.getCallCount("glDepthFunc"), cached_func_calls + 3,
+                     "Wrong number of depth function calls skipped");
+        assertEquals(test_profile_data.numStateChangesElided, 0,
+                     "Should not count anything when disabled");
+    }
+
+    @Test(groups = "unit", dependsOnMethods = "testBasicRenderingLoop")
+    public void testInstancedDrawCalls() throws Exception
+    {
+        InstancingGL2 instancing_gl = new InstancingGL2();
+        when(mockGL.getGL2()).thenReturn(instancing_gl);
+        when(mockContext.makeCurrent()).thenReturn(GLContext.CONTEXT_CURRENT);
+
+        StandardRenderingProcessor class_under_test = createInstancedRenderer(4);
+        class_under_test.render(mockContext, new GraphicsProfilingData());
+
+        assertEquals(instancing_gl.getCallCount("glDrawElementsInstanced"), 1,
+                     "Should be a single instanced draw");
+        assertEquals(instancing_gl.getCallCount("glDrawElements"), 0,
+                     "Instances drawn separately");
+        assertEquals(instancing_gl.getCallCount("glBufferData"), 1,
+                     "Transforms not streamed once");
+        assertEquals(instancing_gl.getCallCount("glVertexAttribDivisor"), 8,
+                     "Divisor not set and reset for each matrix column");
+
+        // First matrix column, at the attribute the sort stage recorded
+        instancing_gl.verifyCall("glVertexAttribPointer",
+                                 3,
+                                 4,
+                                 GL.GL_FLOAT,
+                                 false,
+                                 64,
+                                 0L);
+        instancing_gl.verifyCall("glDrawElementsInstanced",
+                                 GL.GL_TRIANGLES,
+                                 3,
+                                 GL.GL_UNSIGNED_SHORT,
+                                 avAny(java.nio.Buffer.class),
+                                 4);
+    }
+
+    @Test(groups = "unit", dependsOnMethods = "testBasicRenderingLoop")
+    public void testInstancedFallbackDrawCalls() throws Exception
+    {
+        when(mockContext.makeCurrent()).thenReturn(GLContext.CONTEXT_CURRENT);
+
+        // The context doesn't support instancing, so each instance is drawn
+        // separately.
+        StandardRenderingProcessor class_under_test = createInstancedRenderer(4);
+        class_under_test.render(mockContext, new GraphicsProfilingData());
+
+        assertEquals(mockGL2.getCallCount("glDrawElementsInstanced"), 0,
+                     "Instanced draw without support");
+        assertEquals(mockGL2.getCallCount("glDrawElements"), 4,
+                     "Wrong number of fallback draws");
+        assertEquals(mockGL2.getCallCount("glMultMatrixd"), 4,
+                     "Wrong number of instance transforms");
+    }
+
+    /**
+     * Create a processor ready to render a single instanced draw of a
+     * triangle with the given number of instances.
+     */
+    private StandardRenderingProcessor createInstancedRenderer(int numInstances)
+    {
+        float[] coords = { 0, 0, 0, 1, 0, 0, 0, 1, 0 };
+        int[] indices = { 0, 1, 2 };
+
+        IndexedTriangleArray geom = new IndexedTriangleArray(false, 0);
+        geom.setVertices(IndexedTriangleArray.COORDINATE_3, coords);
+        geom.setIndices(indices, 3);
+
+        GraphicsDetails details = new GraphicsDetails();
+        details.renderable = geom;
+        details.numInstances = numInstances;
+        details.instanceTransforms = new double[numInstances * 16];
+        details.instanceTransformAttrib = 3;
+
+        GraphicsDetails[] test_nodes = { details };
+        RenderOp[] test_ops = { RenderOp.RENDER_GEOMETRY_INSTANCED };
+
+        GraphicsEnvironmentData test_env_data = new GraphicsEnvironmentData();
+        test_env_data.viewProjectionType = ViewEnvironmentCullable.PERSPECTIVE_PROJECTION;
+        GraphicsEnvironmentData[] test_env_data_list = { test_env_data };
+
+        StandardRenderingProcessor ret_val = new StandardRenderingProcessor(mockOutputDevice);
+        ret_val.setOwnerBuffer(new MainCanvasDescriptor());
+        ret_val.prepareData(mockContext);
+        ret_val.setDrawableObjects(new GraphicsRequestData(),
+                                   test_nodes,
+                                   test_ops,
+                                   test_ops.length,
+                                   test_env_data_list);
+
+        return ret_val;
+    }
+
+    /**
+     * Create a processor ready to render two separate but identical depth
+     * states in sequence.
+     */
+    private StandardRenderingProcessor createStateRenderer()
+    {
+        GraphicsDetails state_1 = new GraphicsDetails();
+        state_1.renderable = new DepthAttributes();
+
+        GraphicsDetails state_2 = new GraphicsDetails();
+        state_2.renderable = new DepthAttributes();
+
+        GraphicsDetails[] test_nodes = { state_1, state_1, state_2, state_2 };
+
+        RenderOp[] test_ops = {
+            RenderOp.START_STATE,
+            RenderOp.STOP_STATE,
+            RenderOp.START_STATE,
+            RenderOp.STOP_STATE
+        };
+
+        GraphicsEnvironmentData test_env_data = new GraphicsEnvironmentData();
+        test_env_data.viewProjectionType = ViewEnvironmentCullable.PERSPECTIVE_PROJECTION;
+        GraphicsEnvironmentData[] test_env_data_list = { test_env_data };
+
+        StandardRenderingProcessor ret_val = new StandardRenderingProcessor(mockOutputDevice);
+        ret_val.setOwnerBuffer(new MainCanvasDescriptor());
+        ret_val.prepareData(mockContext);
+        ret_val.setDrawableObjects(new GraphicsRequestData(),
+                                   test_nodes,
+                                   test_ops,
+                                   test_ops.length,
+                                   test_env_data_list);
+
+        return ret_val;
+    }
+
+    /**
+     * Mock GL that reports the instanced drawing calls as available.
+     */
+    private class InstancingGL2 extends MockGL2
+    {
+        InstancingGL2()
+        {
+            super(mockContext);
+        }
+
+        @Override
+        public boolean isFunctionAvailable(String glFunctionName)
+        {
+            return glFunctionName.equals("glDrawElementsInstanced") ||
+                   glFunctionName.equals("glDrawArraysInstanced") ||
+                   glFunctionName.equals("glVertexAttribDivisor");
+        }
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.audio;
+
+// External imports
+import org.j3d.maths.vector.Matrix4d;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.PointSound;
+import org.j3d.aviatrix3d.pipeline.RenderableRequestData;
+import org.j3d.aviatrix3d.rendering.AudioRenderable;
+
+/**
+ * Unit tests for ranking sounds by their gain at the listener.
+ */
+public class PriorityAudioCullStageTest
+{
+    /**
+     * Receiver that just keeps the last output it was given.
+     */
+    private static class TestReceiver implements CulledAudioReceiver
+    {
+        AudioCullOutputDetails[] nodes;
+        int numNodes;
+
+        @Override
+        public void culledOutput(RenderableRequestData otherData,
+                                 AudioEnvironmentData data,
+                                 AudioCullOutputDetails[] nodes,
+                                 int numNodes)
+        {
+            this.nodes = nodes;
+            this.numNodes = numNodes;
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testRankedByGain() throws Exception
+    {
+        PointSound far = createSound(true);
+        PointSound near = createSound(true);
+        PointSound middle = createSound(true);
+        PointSound stopped = createSound(false);
+
+        AudioRenderable other = mock(AudioRenderable.class);
+
+        AudioCullOutputDetails[] nodes =
+        {
+            createDetails(stopped, 2),
+            createDetails(far, 11),
+            createDetails(other, 0),
+            createDetails(near, 3),
+            createDetails(middle, 6)
+        };
+
+        // Listener sits at x = 1
+        AudioEnvironmentData env = new AudioEnvironmentData();
+        env.viewTransform.setIdentity();
+        env.viewTransform.m03 = 1;
+
+        TestReceiver receiver = new TestReceiver();
+
+        PriorityAudioCullStage class_under_test = new PriorityAudioCullStage();
+        class_under_test.setCulledAudioReceiver(receiver);
+        class_under_test.culledOutput(null, env, nodes, nodes.length);
+
+        assertEquals(receiver.numNodes, 5, "All nodes should be passed on");
+
+        assertSame(receiver.nodes[0].renderable, other, "Unranked renderable should be at full gain");
+        assertSame(receiver.nodes[1].renderable, near, "Wrong loudest sound");
+        assertSame(receiver.nodes[2].renderable, middle, "Wrong middle sound");
+        assertSame(receiver.nodes[3].renderable, far, "Wrong quietest sound");
+        assertSame(receiver.nodes[4].renderable, stopped, "Stopped sound should be last");
+
+        assertEquals(receiver.nodes[0].gain, 1, 1e-6f, "Wrong unranked gain");
+        assertEquals(receiver.nodes[1].gain, 0.5f, 1e-6f, "Wrong near gain");
+        assertEquals(receiver.nodes[2].gain, 0.2f, 1e-6f, "Wrong middle gain");
+        assertEquals(receiver.nodes[3].gain, 0.1f, 1e-6f, "Wrong far gain");
+        assertEquals(receiver.nodes[4].gain, 0, 0, "Stopped sound should be silent");
+    }
+
+    @Test(groups = "unit")
+    public void testNoReceiver() throws Exception
+    {
+        PriorityAudioCullStage class_under_test = new PriorityAudioCullStage();
+
+        AudioCullOutputDetails[] nodes = { createDetails(createSound(true), 5) };
+
+        AudioEnvironmentData env = new AudioEnvironmentData();
+        env.viewTransform.setIdentity();
+
+        class_under_test.culledOutput(null, env, nodes, 1);
+    }
+
+    /**
+     * Create a sound with a reference distance of 1 so the gain is one over
+     * the distance.
+     */
+    private PointSound createSound(boolean play)
+    {
+        PointSound ret_val = new PointSound();
+        ret_val.setRefDistance(1);
+        ret_val.setEnabled(true);
+
+        if(play)
+            ret_val.startSound();
+
+        return ret_val;
+    }
+
+    /**
+     * Create a details instance for the renderable at the given X position.
+     */
+    private AudioCullOutputDetails createDetails(AudioRenderable renderable,
+                                                 float x)
+    {
+        AudioCullOutputDetails ret_val = new AudioCullOutputDetails();
+        ret_val.renderable = renderable;
+
+        Matrix4d mat = new Matrix4d();
+        mat.setIdentity();
+        mat.m03 = x;
+
+        ret_val.transform.set(mat);
+
+        return ret_val;
+    }
+}
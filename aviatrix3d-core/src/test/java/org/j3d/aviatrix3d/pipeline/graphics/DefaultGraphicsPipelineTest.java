@@ -0,0 +1,371 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.pipeline.RenderOp;
+import org.j3d.aviatrix3d.pipeline.RenderableRequestData;
+import org.j3d.aviatrix3d.rendering.LayerCullable;
+import org.j3d.aviatrix3d.rendering.OffscreenBufferRenderable;
+import org.j3d.aviatrix3d.rendering.ProfilingData;
+import org.j3d.util.ErrorReporter;
+import org.j3d.util.I18nManager;
+
+/**
+ * Unit tests for the default graphics pipeline
+ */
+public class DefaultGraphicsPipelineTest
+{
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("DefaultGraphicsPipelineTest", "config.i18n.org-j3d-aviatrix3d-resources-core");
+    }
+
+    @Test(groups = "unit")
+    public void testBasicConstruction() throws Exception
+    {
+        DefaultGraphicsPipeline class_under_test = new DefaultGraphicsPipeline();
+
+        assertEquals(class_under_test.getPipelineDepth(),
+                     DefaultGraphicsPipeline.SERIAL_PIPELINE_DEPTH,
+                     "Default should be serial rendering");
+        assertNull(class_under_test.getGraphicsOutputDevice(), "No device should be set");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidLowDepth() throws Exception
+    {
+        DefaultGraphicsPipeline class_under_test = new DefaultGraphicsPipeline();
+        class_under_test.setPipelineDepth(0);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidHighDepth() throws Exception
+    {
+        DefaultGraphicsPipeline class_under_test = new DefaultGraphicsPipeline();
+        class_under_test.setPipelineDepth(DefaultGraphicsPipeline.MAX_PIPELINE_DEPTH + 1);
+    }
+
+    @Test(groups = "unit")
+    public void testSerialRenderOrder() throws Exception
+    {
+        List<Integer> draw_order = new ArrayList<>();
+        GraphicsOutputDevice mock_device = createRecordingDevice(draw_order);
+
+        DefaultGraphicsPipeline class_under_test =
+            new DefaultGraphicsPipeline(new TestCullStage(), new TestSortStage());
+        class_under_test.setGraphicsOutputDevice(mock_device);
+        class_under_test.setRenderableLayers(new LayerCullable[1], 1);
+
+        for(int i = 0; i < 3; i++)
+            assertTrue(class_under_test.render(), "Render " + i + " failed");
+
+        assertEquals(draw_order.size(), 3, "Wrong number of frames submitted");
+
+        for(int i = 0; i < 3; i++)
+            assertEquals(draw_order.get(i).intValue(), i, "Wrong frame submitted");
+    }
+
+    @Test(groups = "unit")
+    public void testPipelinedRenderOrder() throws Exception
+    {
+        List<Integer> draw_order = new ArrayList<>();
+        GraphicsOutputDevice mock_device = createRecordingDevice(draw_order);
+
+        DefaultGraphicsPipeline class_under_test =
+            new DefaultGraphicsPipeline(new TestCullStage(), new TestSortStage(), 2);
+        class_under_test.setGraphicsOutputDevice(mock_device);
+        class_under_test.setRenderableLayers(new LayerCullable[1], 1);
+
+        try
+        {
+            for(int i = 0; i < 4; i++)
+            {
+                // Same order as the render manager uses
+                class_under_test.waitForDraw();
+                assertTrue(class_under_test.render(), "Render " + i + " failed");
+                class_under_test.swapBuffers();
+            }
+
+            class_under_test.waitForDraw();
+
+            // Each frame is drawn after its swap call, and shown by the
+            // swap of the frame after, so the first swap is skipped.
+            assertEquals(draw_order.size(), 4, "Wrong number of frames submitted");
+
+            for(int i = 0; i < 4; i++)
+                assertEquals(draw_order.get(i).intValue(), i, "Wrong frame submitted");
+
+            verify(mock_device, times(4)).draw(any(GraphicsProfilingData.class));
+            verify(mock_device, times(3)).swap();
+
+            // Display only should show frame 3 and draw it again
+            assertTrue(class_under_test.displayOnly(), "Display only failed");
+            class_under_test.swapBuffers();
+            class_under_test.waitForDraw();
+
+            assertEquals(draw_order.size(), 4, "Display only should not cull");
+            verify(mock_device, times(5)).draw(any(GraphicsProfilingData.class));
+            verify(mock_device, times(4)).swap();
+        }
+        finally
+        {
+            class_under_test.halt();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testPipelinedDrawFinishedBeforeWrites() throws Exception
+    {
+        final List<Thread> draw_threads = new ArrayList<>();
+        final boolean[] draw_running = new boolean[1];
+        GraphicsOutputDevice mock_device = mock(GraphicsOutputDevice.class);
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+                throws Exception
+            {
+                synchronized(draw_running)
+                {
+                    draw_threads.add(Thread.currentThread());
+                    draw_running[0] = true;
+                }
+
+                // Long enough for the caller to get ahead if not waiting
+                Thread.sleep(50);
+
+                synchronized(draw_running)
+                {
+                    draw_running[0] = false;
+                }
+
+                return Boolean.TRUE;
+            }
+        }).when(mock_device).draw(any(GraphicsProfilingData.class));
+
+        TestCullStage culler = new TestCullStage();
+        culler.drawRunning = draw_running;
+
+        DefaultGraphicsPipeline class_under_test =
+            new DefaultGraphicsPipeline(culler, new TestSortStage(), 2);
+        class_under_test.setGraphicsOutputDevice(mock_device);
+        class_under_test.setRenderableLayers(new LayerCullable[1], 1);
+
+        try
+        {
+            class_under_test.render();
+            class_under_test.swapBuffers();
+
+            class_under_test.waitForDraw();
+
+            synchronized(draw_running)
+            {
+                assertEquals(draw_threads.size(), 1, "Frame not drawn");
+                assertFalse(draw_running[0], "Still drawing after the wait");
+            }
+
+            assertNotSame(draw_threads.get(0), Thread.currentThread(),
+                          "Frame should be drawn on the draw thread");
+
+            // Without the manager's wait, the cull must still not run
+            // while the last frame is being drawn.
+            class_under_test.render();
+            class_under_test.swapBuffers();
+            class_under_test.render();
+
+            assertFalse(culler.culledWhileDrawing, "Cull overlapped the draw");
+        }
+        finally
+        {
+            class_under_test.halt();
+        }
+    }
+
+    /**
+     * Create a mock output device that records the ID of the first render
+     * item of the first instruction each time the drawable objects are set.
+     *
+     * @param drawOrder The list to record IDs in
+     * @return The mock device
+     */
+    private GraphicsOutputDevice createRecordingDevice(final List<Integer> drawOrder)
+    {
+        GraphicsOutputDevice mock_device = mock(GraphicsOutputDevice.class);
+
+        when(mock_device.draw(any(GraphicsProfilingData.class))).thenReturn(true);
+
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                GraphicsInstructions[] commands =
+                    (GraphicsInstructions[])invocation.getArguments()[1];
+                drawOrder.add(commands[0].renderList[0].id);
+                return null;
+            }
+        }).when(mock_device).setDrawableObjects(any(GraphicsRequestData.class),
+                                                any(GraphicsInstructions[].class),
+                                                anyInt());
+
+        return mock_device;
+    }
+
+    /**
+     * Cull stage that passes straight through to the receiver.
+     */
+    private static class TestCullStage implements GraphicsCullStage
+    {
+        private CulledGeometryReceiver receiver;
+
+        /** Flag set by the device while it draws, if being watched */
+        boolean[] drawRunning;
+
+        /** Set if a cull happened while the device was drawing */
+        boolean culledWhileDrawing;
+
+        @Override
+        public void setOffscreenCheckEnabled(boolean state)
+        {
+        }
+
+        @Override
+        public boolean isOffscreenCheckEnabled()
+        {
+            return false;
+        }
+
+        @Override
+        public void setCulledGeometryReceiver(CulledGeometryReceiver sgr)
+        {
+            receiver = sgr;
+        }
+
+        @Override
+        public void setEyePointOffset(float x, float y, float z)
+        {
+        }
+
+        @Override
+        public void setScreenOrientation(float x, float y, float z, float a)
+        {
+        }
+
+        @Override
+        public void cull(RenderableRequestData otherData,
+                         ProfilingData profilingData,
+                         LayerCullable[] layers,
+                         int numLayers)
+        {
+            if(drawRunning != null)
+            {
+                synchronized(drawRunning)
+                {
+                    if(drawRunning[0])
+                        culledWhileDrawing = true;
+                }
+            }
+
+            receiver.culledOutput((GraphicsRequestData)otherData,
+                                  (GraphicsProfilingData)profilingData,
+                                  null,
+                                  null,
+                                  0,
+                                  null);
+        }
+
+        @Override
+        public void halt()
+        {
+        }
+
+        @Override
+        public void setErrorReporter(ErrorReporter reporter)
+        {
+        }
+    }
+
+    /**
+     * Sort stage that reuses a single instruction instance, writing the
+     * frame number into the first render item.
+     */
+    private static class TestSortStage implements GraphicsSortStage
+    {
+        private SortedGeometryReceiver receiver;
+
+        private GraphicsInstructions[] commands;
+
+        private int frameNumber;
+
+        TestSortStage()
+        {
+            commands = new GraphicsInstructions[] { new GraphicsInstructions() };
+            commands[0].renderData[0] = new GraphicsEnvironmentData();
+        }
+
+        @Override
+        public void sort(GraphicsRequestData otherData,
+                         GraphicsProfilingData profilingData,
+                         ViewportCollection[][] layers,
+                         int[] numLayers,
+                         int numScenes,
+                         OffscreenBufferRenderable[][] sceneParent)
+        {
+            commands[0].renderList[0].id = frameNumber++;
+            commands[0].renderOps[0] = RenderOp.RENDER_GEOMETRY;
+            commands[0].numValid = 1;
+
+            receiver.sortedOutput(otherData, profilingData, commands, 1);
+        }
+
+        @Override
+        public void setSortedGeometryReceiver(SortedGeometryReceiver sgr)
+        {
+            receiver = sgr;
+        }
+
+        @Override
+        public void halt()
+        {
+        }
+
+        @Override
+        public void setErrorReporter(ErrorReporter reporter)
+        {
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.util.IdentityHashMap;
+
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.pipeline.RenderOp;
+import org.j3d.aviatrix3d.rendering.*;
+
+/**
+ * Unit tests for collapsing repeated geometry into instanced draws
+ */
+public class GeometryInstancerTest
+{
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("GeometryInstancerTest", "config.i18n.org-j3d-aviatrix3d-resources-core");
+    }
+
+    @Test(groups = "unit")
+    public void testRunCollapsed() throws Exception
+    {
+        InstancedGeometryRenderable geom_a = createGeometry(true);
+        InstancedGeometryRenderable geom_b = createGeometry(true);
+        ObjectRenderable state = mock(ObjectRenderable.class);
+
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int count = 0;
+
+        count = addOp(instr, count, RenderOp.START_STATE, state, 0);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom_a, 1);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom_b, 2);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom_a, 3);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom_a, 4);
+        count = addOp(instr, count, RenderOp.STOP_STATE, state, 0);
+
+        GraphicsDetails[] orig = new GraphicsDetails[count];
+        System.arraycopy(instr.renderList, 0, orig, 0, count);
+
+        GeometryInstancer class_under_test = new GeometryInstancer();
+        class_under_test.setInstanceTransformAttribute(3);
+        int result = class_under_test.collapse(instr, 0, count);
+
+        assertEquals(result, 4, "Wrong number of instructions left");
+        assertEquals(class_under_test.getInstancedDrawCount(), 1, "Wrong instanced count");
+        assertEquals(class_under_test.getCollapsedDrawCount(), 2, "Wrong collapsed count");
+
+        assertEquals(instr.renderOps[0], RenderOp.START_STATE, "State moved");
+        assertEquals(instr.renderOps[1], RenderOp.RENDER_GEOMETRY_INSTANCED, "Not instanced");
+        assertEquals(instr.renderOps[2], RenderOp.RENDER_GEOMETRY, "Single draw changed");
+        assertEquals(instr.renderOps[3], RenderOp.STOP_STATE, "State not moved down");
+
+        GraphicsDetails instanced = instr.renderList[1];
+        assertSame(instanced.renderable, geom_a, "Wrong instanced geometry");
+        assertEquals(instanced.numInstances, 3, "Wrong instance count");
+
+        // Transforms are in the original draw order
+        assertEquals(instanced.instanceTransforms[12], 1.0, "First transform");
+        assertEquals(instanced.instanceTransforms[28], 3.0, "Second transform");
+        assertEquals(instanced.instanceTransforms[44], 4.0, "Third transform");
+        assertEquals(instanced.instanceTransformAttrib, 3, "Attribute not passed on");
+
+        assertSame(instr.renderList[2].renderable, geom_b, "Wrong single geometry");
+        assertEquals(instr.renderList[2].numInstances, 0, "Single draw has instances");
+
+        // None of the detail objects should have been lost or duplicated
+        IdentityHashMap<GraphicsDetails, Boolean> found = new IdentityHashMap<>();
+        for(int i = 0; i < count; i++)
+            found.put(instr.renderList[i], Boolean.TRUE);
+
+        for(int i = 0; i < count; i++)
+            assertTrue(found.containsKey(orig[i]), "Details lost " + i);
+
+        assertNull(instr.renderList[4].renderable, "Spare details not cleared");
+        assertNull(instr.renderList[5].renderable, "Spare details not cleared");
+    }
+
+    @Test(groups = "unit")
+    public void testMinimumCount() throws Exception
+    {
+        InstancedGeometryRenderable geom = createGeometry(true);
+
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int count = 0;
+
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 1);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 2);
+
+        GeometryInstancer class_under_test = new GeometryInstancer();
+        class_under_test.setInstanceTransformAttribute(3);
+        class_under_test.setMinInstanceCount(3);
+
+        assertEquals(class_under_test.getMinInstanceCount(), 3, "Min count not set");
+        assertEquals(class_under_test.collapse(instr, 0, count), 2, "Collapsed below minimum");
+        assertEquals(instr.renderOps[0], RenderOp.RENDER_GEOMETRY, "Op changed");
+
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 3);
+
+        assertEquals(class_under_test.collapse(instr, 0, count), 1, "Not collapsed at minimum");
+        assertEquals(instr.renderList[0].numInstances, 3, "Wrong instance count");
+    }
+
+    @Test(groups = "unit")
+    public void testSeparateRunsNotMerged() throws Exception
+    {
+        InstancedGeometryRenderable geom = createGeometry(true);
+        ObjectRenderable state = mock(ObjectRenderable.class);
+
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int count = 0;
+
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 1);
+        count = addOp(instr, count, RenderOp.START_STATE, state, 0);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 2);
+
+        GeometryInstancer class_under_test = new GeometryInstancer();
+        class_under_test.setInstanceTransformAttribute(3);
+
+        assertEquals(class_under_test.collapse(instr, 0, count), 3, "Merged across state");
+        assertEquals(class_under_test.getInstancedDrawCount(), 0, "Instanced across state");
+    }
+
+    @Test(groups = "unit")
+    public void testTransparentAndUninstanceableIgnored() throws Exception
+    {
+        InstancedGeometryRenderable geom = createGeometry(true);
+        InstancedGeometryRenderable empty_geom = createGeometry(false);
+        GeometryRenderable plain_geom = mock(GeometryRenderable.class);
+
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int count = 0;
+
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, empty_geom, 1);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, empty_geom, 2);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, plain_geom, 3);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, plain_geom, 4);
+        count = addOp(instr, count, RenderOp.START_TRANSPARENT, null, 0);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 5);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 6);
+        count = addOp(instr, count, RenderOp.STOP_TRANSPARENT, null, 0);
+
+        GeometryInstancer class_under_test = new GeometryInstancer();
+        class_under_test.setInstanceTransformAttribute(3);
+
+        assertEquals(class_under_test.collapse(instr, 0, count), count, "Something collapsed");
+
+        for(int i = 0; i < count; i++)
+            assertNotEquals(instr.renderOps[i],
+                            RenderOp.RENDER_GEOMETRY_INSTANCED,
+                            "Instanced at " + i);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidMinimumCount() throws Exception
+    {
+        GeometryInstancer class_under_test = new GeometryInstancer();
+        class_under_test.setMinInstanceCount(1);
+    }
+
+    @Test(groups = "unit")
+    public void testDetailsCopy() throws Exception
+    {
+        GraphicsDetails src = new GraphicsDetails();
+        src.numInstances = 2;
+        src.instanceTransforms = new double[48];
+        src.instanceTransformAttrib = 3;
+        src.instanceTransforms[31] = 5;
+
+        GraphicsDetails class_under_test = new GraphicsDetails();
+        class_under_test.set(src);
+
+        assertEquals(class_under_test.numInstances, 2, "Count not copied");
+        assertNotSame(class_under_test.instanceTransforms,
+                      src.instanceTransforms,
+                      "Transforms not copied");
+        assertEquals(class_under_test.instanceTransforms[31], 5.0, "Wrong transform value");
+        assertEquals(class_under_test.instanceTransformAttrib, 3, "Attribute not copied");
+    }
+
+    @Test(groups = "unit")
+    public void testNothingCollapsedWithoutAttribute() throws Exception
+    {
+        InstancedGeometryRenderable geom = createGeometry(true);
+
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int count = 0;
+
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 1);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 2);
+        count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom, 3);
+
+        GeometryInstancer class_under_test = new GeometryInstancer();
+
+        assertEquals(class_under_test.getInstanceTransformAttribute(), -1,
+                     "Attribute should default off");
+        assertEquals(class_under_test.collapse(instr, 0, count), count,
+                     "Collapsed without an attribute");
+        assertEquals(class_under_test.getInstancedDrawCount(), 0,
+                     "Instanced without an attribute");
+
+        for(int i = 0; i < count; i++)
+            assertEquals(instr.renderOps[i], RenderOp.RENDER_GEOMETRY, "Op changed");
+    }
+
+    @Test(groups = "unit")
+    public void testManyGroups() throws Exception
+    {
+        int num_geom = 150;
+        InstancedGeometryRenderable[] geom = new InstancedGeometryRenderable[num_geom];
+
+        for(int i = 0; i < num_geom; i++)
+            geom[i] = createGeometry(true);
+
+        GeometryInstancer class_under_test = new GeometryInstancer();
+        class_under_test.setInstanceTransformAttribute(3);
+
+        // Run twice to check that the groups of one call are not left over
+        // in the next one.
+        for(int pass = 0; pass < 2; pass++)
+        {
+            GraphicsInstructions instr = new GraphicsInstructions();
+            instr.ensureRenderListCapacity(num_geom * 2);
+            instr.renderOps = new RenderOp[num_geom * 2];
+
+            int count = 0;
+
+            for(int i = 0; i < num_geom; i++)
+                count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom[i], i);
+
+            for(int i = 0; i < num_geom; i++)
+                count = addOp(instr, count, RenderOp.RENDER_GEOMETRY, geom[i], i);
+
+            assertEquals(class_under_test.collapse(instr, 0, count), num_geom,
+                         "Wrong number of instructions left in pass " + pass);
+            assertEquals(class_under_test.getInstancedDrawCount(), num_geom,
+                         "Wrong instanced count in pass " + pass);
+
+            for(int i = 0; i < num_geom; i++)
+            {
+                assertSame(instr.renderList[i].renderable, geom[i],
+                           "Groups out of order in pass " + pass);
+                assertEquals(instr.renderList[i].numInstances, 2,
+                             "Wrong instance count in pass " + pass);
+            }
+        }
+    }
+
+    /**
+     * Create a mock geometry that answers whether it can be instanced.
+     */
+    private InstancedGeometryRenderable createGeometry(boolean instanceable)
+    {
+        InstancedGeometryRenderable ret_val =
+            mock(InstancedGeometryRenderable.class);
+        when(ret_val.isInstanceable()).thenReturn(instanceable);
+
+        return ret_val;
+    }
+
+    /**
+     * Append an op to the instruction list. The transform is a translation
+     * with the given X value so that the order can be checked.
+     */
+    private int addOp(GraphicsInstructions instr,
+                      int idx,
+                      RenderOp op,
+                      Renderable rend,
+                      int x)
+    {
+        GraphicsDetails d = instr.renderList[idx];
+        int off = d.transformOffset;
+
+        instr.renderOps[idx] = op;
+        d.renderable = rend;
+        d.transform[off] = 1;
+        d.transform[off + 5] = 1;
+        d.transform[off + 10] = 1;
+        d.transform[off + 15] = 1;
+        d.transform[off + 12] = x;
+
+        return idx + 1;
+    }
+}
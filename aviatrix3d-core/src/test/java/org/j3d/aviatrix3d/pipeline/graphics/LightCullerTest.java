@@ -0,0 +1,247 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.util.Random;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.BoundingBox;
+import org.j3d.aviatrix3d.BoundingSphere;
+import org.j3d.aviatrix3d.DirectionalLight;
+import org.j3d.aviatrix3d.PointLight;
+import org.j3d.aviatrix3d.rendering.EffectRenderable;
+
+/**
+ * Unit tests for assigning lights to renderables
+ */
+public class LightCullerTest
+{
+    /** White light colour */
+    private static final float[] WHITE = { 1, 1, 1 };
+
+    /** An empty light list */
+    private static final EffectRenderable[] NO_LIGHTS = new EffectRenderable[0];
+
+    @Test(groups = "unit")
+    public void testBoundedLightCulled() throws Exception
+    {
+        LightCuller class_under_test = new LightCuller();
+
+        PointLight light = new PointLight(WHITE);
+        light.setEffectBounds(new BoundingSphere(5));
+
+        EffectRenderable[] lights = { light };
+        float[][] tx = { translation(0, 0, 0) };
+
+        class_under_test.setGlobalLights(NO_LIGHTS, new float[0][], 0, lights, tx, 1);
+
+        GraphicsCullOutputDetails near = createDetails(3, 0, 0);
+        class_under_test.assignLights(near);
+
+        assertEquals(near.numLights, 1, "Light within range not assigned");
+        assertSame(near.lights[0].getRenderable(), light, "Wrong light assigned");
+
+        // Inside the box of the sphere, but outside the sphere itself
+        GraphicsCullOutputDetails corner = createDetails(5, 5, 0);
+        class_under_test.assignLights(corner);
+
+        assertEquals(corner.numLights, 0, "Light outside the sphere assigned");
+
+        GraphicsCullOutputDetails far = createDetails(20, 0, 0);
+        class_under_test.assignLights(far);
+
+        assertEquals(far.numLights, 0, "Light out of range assigned");
+
+        // No bounds means it can't be culled
+        GraphicsCullOutputDetails unbounded = createDetails(20, 0, 0);
+        unbounded.cullableBounds = null;
+        class_under_test.assignLights(unbounded);
+
+        assertEquals(unbounded.numLights, 1, "Unbounded object not lit");
+    }
+
+    @Test(groups = "unit")
+    public void testGridMatchesDirectTest() throws Exception
+    {
+        LightCuller class_under_test = new LightCuller();
+        class_under_test.setMaxLights(0);
+
+        Random rand = new Random(42);
+        int num_lights = LightCuller.GRID_THRESHOLD * 4;
+
+        EffectRenderable[] lights = new EffectRenderable[num_lights];
+        float[][] tx = new float[num_lights][];
+
+        for(int i = 0; i < num_lights; i++)
+        {
+            PointLight light = new PointLight(WHITE);
+            light.setEffectBounds(new BoundingSphere(2 + rand.nextFloat() * 4));
+            lights[i] = light;
+            tx[i] = translation(rand.nextFloat() * 60 - 30,
+                                rand.nextFloat() * 10,
+                                rand.nextFloat() * 60 - 30);
+        }
+
+        class_under_test.setGlobalLights(NO_LIGHTS, new float[0][], 0, lights, tx, num_lights);
+
+        LightCuller direct = new LightCuller();
+        int total = 0;
+
+        for(int i = 0; i < 500; i++)
+        {
+            GraphicsCullOutputDetails details =
+                createDetails(rand.nextFloat() * 80 - 40,
+                              rand.nextFloat() * 10,
+                              rand.nextFloat() * 80 - 40);
+
+            class_under_test.assignLights(details);
+
+            int found = 0;
+
+            for(int j = 0; j < num_lights; j++)
+            {
+                if(!direct.checkIntersect(details.cullableBounds,
+                                          details.transform,
+                                          lights[j].getEffectBounds(),
+                                          tx[j]))
+                    continue;
+
+                assertTrue(found < details.numLights, "Missed light " + j);
+                assertSame(details.lights[found].getRenderable(),
+                           lights[j],
+                           "Wrong light or order for object " + i);
+                found++;
+            }
+
+            assertEquals(details.numLights, found, "Extra lights for object " + i);
+            total += found;
+        }
+
+        assertTrue(total > 0, "Test never hit a light");
+    }
+
+    @Test(groups = "unit")
+    public void testKeepStrongest() throws Exception
+    {
+        LightCuller class_under_test = new LightCuller();
+        class_under_test.setMaxLights(2);
+
+        assertEquals(class_under_test.getMaxLights(), 2, "Limit not set");
+
+        DirectionalLight sun = new DirectionalLight(new float[] { 0.5f, 0.5f, 0.5f });
+
+        PointLight far = new PointLight(WHITE);
+        far.setEffectBounds(new BoundingSphere(100));
+        far.setAttenuation(1, 1, 0);
+
+        PointLight near = new PointLight(WHITE);
+        near.setEffectBounds(new BoundingSphere(100));
+        near.setAttenuation(1, 1, 0);
+
+        PointLight dim = new PointLight(new float[] { 0.1f, 0.1f, 0.1f });
+        dim.setEffectBounds(new BoundingSphere(100));
+
+        EffectRenderable[] globals = { sun };
+        float[][] global_tx = { translation(0, 0, 0) };
+
+        EffectRenderable[] bounded = { far, dim, near };
+        float[][] bounded_tx = {
+            translation(50, 0, 0),
+            translation(2, 0, 0),
+            translation(3, 0, 0)
+        };
+
+        class_under_test.setGlobalLights(globals, global_tx, 1, bounded, bounded_tx, 3);
+
+        GraphicsCullOutputDetails details = createDetails(0, 0, 0);
+        class_under_test.assignLights(details);
+
+        assertEquals(details.numLights, 2, "Limit not applied");
+        assertSame(details.lights[0].getRenderable(), sun, "Directional light dropped");
+        assertSame(details.lights[1].getRenderable(), near, "Nearest light not kept");
+        assertNull(details.lights[2].getRenderable(), "Dropped light not cleared");
+
+        class_under_test.setMaxLights(0);
+
+        details = createDetails(0, 0, 0);
+        class_under_test.assignLights(details);
+
+        assertEquals(details.numLights, 4, "No limit should keep all lights");
+    }
+
+    @Test(groups = "unit")
+    public void testLocalLightsRanked() throws Exception
+    {
+        LightCuller class_under_test = new LightCuller();
+        class_under_test.setMaxLights(1);
+
+        PointLight bright = new PointLight(WHITE);
+        PointLight dim = new PointLight(new float[] { 0.2f, 0.2f, 0.2f });
+
+        GraphicsCullOutputDetails details = createDetails(0, 0, 0);
+        details.lights = new VisualDetails[] { new VisualDetails(), new VisualDetails() };
+        details.lights[0].update(dim, translation(0, 0, 0));
+        details.lights[1].update(bright, translation(0, 0, 0));
+        details.numLights = 2;
+
+        class_under_test.setGlobalLights(NO_LIGHTS, new float[0][], 0, NO_LIGHTS, new float[0][], 0);
+        class_under_test.assignLights(details);
+
+        assertEquals(details.numLights, 1, "Local lights not limited");
+        assertSame(details.lights[0].getRenderable(), bright, "Wrong local light kept");
+    }
+
+    /**
+     * Create an output details with a 2x2x2 box at the given position.
+     */
+    private GraphicsCullOutputDetails createDetails(float x, float y, float z)
+    {
+        GraphicsCullOutputDetails ret_val = new GraphicsCullOutputDetails();
+        ret_val.cullableBounds = new BoundingBox(new float[] { -1, -1, -1 },
+                                                 new float[] { 1, 1, 1 });
+
+        Matrix4d mat = ret_val.transform;
+        mat.setIdentity();
+        mat.m03 = x;
+        mat.m13 = y;
+        mat.m23 = z;
+
+        return ret_val;
+    }
+
+    /**
+     * Create a transposed translation matrix in the form the cull stage
+     * keeps light transforms.
+     */
+    private float[] translation(float x, float y, float z)
+    {
+        float[] ret_val = new float[16];
+        ret_val[0] = 1;
+        ret_val[5] = 1;
+        ret_val[10] = 1;
+        ret_val[15] = 1;
+        ret_val[12] = x;
+        ret_val[13] = y;
+        ret_val[14] = z;
+
+        return ret_val;
+    }
+}
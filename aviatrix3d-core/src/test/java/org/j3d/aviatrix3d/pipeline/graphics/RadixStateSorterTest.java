@@ -0,0 +1,359 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.rendering.*;
+
+/**
+ * Unit tests for the radix based state sorter
+ */
+public class RadixStateSorterTest
+{
+    private static final int NUM_NODES = 3000;
+
+    @Test(groups = "unit")
+    public void testEmptyAndSingle() throws Exception
+    {
+        RadixStateSorter class_under_test = new RadixStateSorter();
+
+        GraphicsCullOutputDetails[] nodes = new GraphicsCullOutputDetails[1];
+        class_under_test.sort(nodes, 0);
+
+        nodes[0] = new GraphicsCullOutputDetails();
+        GraphicsCullOutputDetails orig = nodes[0];
+
+        class_under_test.sort(nodes, 1);
+
+        assertSame(nodes[0], orig, "Single node changed");
+    }
+
+    @Test(groups = "unit")
+    public void testIdenticalStateKeepsOrder() throws Exception
+    {
+        AppearanceRenderable app = mock(AppearanceRenderable.class);
+        GraphicsCullOutputDetails[] nodes = new GraphicsCullOutputDetails[50];
+
+        for(int i = 0; i < nodes.length; i++)
+            nodes[i] = createNode(app, null);
+
+        GraphicsCullOutputDetails[] orig = nodes.clone();
+
+        RadixStateSorter class_under_test = new RadixStateSorter();
+        class_under_test.sort(nodes, nodes.length);
+
+        assertEquals(class_under_test.getKeyBits(), 0, "Shared state was keyed");
+
+        for(int i = 0; i < nodes.length; i++)
+            assertSame(nodes[i], orig[i], "Node moved at " + i);
+    }
+
+    @Test(groups = "unit")
+    public void testDefaultPriorityGrouping() throws Exception
+    {
+        int[] priorities = {
+            StateSortComparator.LIGHTS,
+            StateSortComparator.TEXTURE_UNIT_0,
+            StateSortComparator.MATERIALS,
+            StateSortComparator.POLYGON_ATTRIBS
+        };
+
+        checkGrouping(new RadixStateSorter(), priorities, new Random(17));
+    }
+
+    @Test(groups = "unit")
+    public void testCustomPriorityGrouping() throws Exception
+    {
+        int[] priorities = {
+            StateSortComparator.POLYGON_ATTRIBS,
+            StateSortComparator.MATERIALS,
+            StateSortComparator.LIGHTS,
+            StateSortComparator.TEXTURE_UNIT_0
+        };
+
+        // Duplicates should be ignored
+        int[] pri_list = {
+            StateSortComparator.POLYGON_ATTRIBS,
+            StateSortComparator.MATERIALS,
+            StateSortComparator.POLYGON_ATTRIBS,
+            StateSortComparator.LIGHTS,
+            StateSortComparator.TEXTURE_UNIT_0
+        };
+
+        checkGrouping(new RadixStateSorter(pri_list), priorities, new Random(99));
+    }
+
+    @Test(groups = "unit")
+    public void testNoStateSortsFirst() throws Exception
+    {
+        TransparentObjectRenderable material = mock(TransparentObjectRenderable.class);
+
+        AppearanceRenderable lit_app = mock(AppearanceRenderable.class);
+        when(lit_app.getMaterialRenderable()).thenReturn(material);
+
+        AppearanceRenderable plain_app = mock(AppearanceRenderable.class);
+
+        GraphicsCullOutputDetails[] nodes = new GraphicsCullOutputDetails[20];
+
+        for(int i = 0; i < nodes.length; i++)
+            nodes[i] = createNode(i < 10 ? lit_app : plain_app, null);
+
+        RadixStateSorter class_under_test =
+            new RadixStateSorter(new int[] { StateSortComparator.MATERIALS });
+        class_under_test.sort(nodes, nodes.length);
+
+        for(int i = 0; i < 10; i++)
+            assertNull(getState(nodes[i], StateSortComparator.MATERIALS),
+                       "Material before no material at " + i);
+    }
+
+    @Test(groups = "unit")
+    public void testStageToggle() throws Exception
+    {
+        StateSortStage class_under_test = new StateSortStage();
+
+        assertFalse(class_under_test.isRadixSortEnabled(), "Enabled by default");
+
+        class_under_test.setRadixSortEnabled(true);
+        assertTrue(class_under_test.isRadixSortEnabled(), "Not enabled");
+        assertNotNull(class_under_test.radixSorter, "No sorter created");
+
+        class_under_test.setRadixSortEnabled(false);
+        assertFalse(class_under_test.isRadixSortEnabled(), "Not disabled");
+    }
+
+    /**
+     * Build a random set of nodes, sort them and then check that each level
+     * of the priority list forms contiguous runs within the level above and
+     * that nodes with identical state kept their relative order.
+     */
+    private void checkGrouping(RadixStateSorter sorter,
+                               int[] priorities,
+                               Random rand)
+    {
+        TransparentObjectRenderable[] materials = new TransparentObjectRenderable[5];
+        for(int i = 1; i < materials.length; i++)
+            materials[i] = mock(TransparentObjectRenderable.class);
+
+        AppearanceAttributeRenderable[] poly_attribs = new AppearanceAttributeRenderable[3];
+        for(int i = 1; i < poly_attribs.length; i++)
+            poly_attribs[i] = mock(AppearanceAttributeRenderable.class);
+
+        TextureRenderable[] textures = new TextureRenderable[7];
+        for(int i = 1; i < textures.length; i++)
+            textures[i] = mock(TextureRenderable.class);
+
+        VisualDetails[][] light_sets = new VisualDetails[3][];
+        light_sets[1] = createLights(2);
+        light_sets[2] = createLights(3);
+
+        // A pool of appearances with random combinations of the state
+        AppearanceRenderable[] apps = new AppearanceRenderable[40];
+
+        for(int i = 0; i < apps.length; i++)
+        {
+            AppearanceRenderable app = mock(AppearanceRenderable.class);
+            TextureRenderable tex = textures[rand.nextInt(textures.length)];
+
+            when(app.getMaterialRenderable())
+                .thenReturn(materials[rand.nextInt(materials.length)]);
+            when(app.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE))
+                .thenReturn(poly_attribs[rand.nextInt(poly_attribs.length)]);
+            when(app.numTextureRenderables()).thenReturn(tex == null ? 0 : 1);
+            when(app.getTextureRenderable(0)).thenReturn(tex);
+
+            apps[i] = app;
+        }
+
+        GraphicsCullOutputDetails[] nodes = new GraphicsCullOutputDetails[NUM_NODES];
+        IdentityHashMap<GraphicsCullOutputDetails, Integer> orig_index =
+            new IdentityHashMap<>();
+
+        for(int i = 0; i < NUM_NODES; i++)
+        {
+            nodes[i] = createNode(apps[rand.nextInt(apps.length)],
+                                  light_sets[rand.nextInt(light_sets.length)]);
+            orig_index.put(nodes[i], i);
+        }
+
+        // Sort twice to make sure reusing the internal state works
+        for(int pass = 0; pass < 2; pass++)
+        {
+            sorter.sort(nodes, NUM_NODES);
+
+            assertTrue(sorter.getKeyBits() > 0, "Nothing keyed");
+
+            Set<GraphicsCullOutputDetails> seen =
+                new HashSet<>();
+
+            for(int i = 0; i < NUM_NODES; i++)
+                assertTrue(seen.add(nodes[i]), "Node duplicated at " + i);
+
+            assertEquals(seen.size(), NUM_NODES, "Nodes lost");
+
+            for(int level = 1; level <= priorities.length; level++)
+            {
+                List<List<Object>> finished = new ArrayList<>();
+                List<Object> current = getPrefix(nodes[0], priorities, level);
+
+                for(int i = 1; i < NUM_NODES; i++)
+                {
+                    List<Object> prefix = getPrefix(nodes[i], priorities, level);
+
+                    if(!samePrefix(prefix, current))
+                    {
+                        for(int j = 0; j < finished.size(); j++)
+                            assertFalse(samePrefix(finished.get(j), prefix),
+                                        "State split at level " + level +
+                                        " index " + i);
+
+                        finished.add(current);
+                        current = prefix;
+                    }
+                }
+            }
+
+            for(int i = 1; i < NUM_NODES; i++)
+            {
+                if(getAppearance(nodes[i]) == getAppearance(nodes[i - 1]) &&
+                   getState(nodes[i], StateSortComparator.LIGHTS) ==
+                   getState(nodes[i - 1], StateSortComparator.LIGHTS))
+                {
+                    assertTrue(orig_index.get(nodes[i]) > orig_index.get(nodes[i - 1]),
+                               "Sort not stable at " + i);
+                }
+            }
+
+            // Reset the original order for the next pass
+            for(int i = 0; i < NUM_NODES; i++)
+                orig_index.put(nodes[i], i);
+        }
+    }
+
+    /**
+     * Compare two state prefixes by identity.
+     */
+    private boolean samePrefix(List<Object> a, List<Object> b)
+    {
+        for(int i = 0; i < a.size(); i++)
+        {
+            if(a.get(i) != b.get(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the state of the node for the first few priorities.
+     */
+    private List<Object> getPrefix(GraphicsCullOutputDetails node,
+                                   int[] priorities,
+                                   int level)
+    {
+        List<Object> ret_val = new ArrayList<>(level);
+
+        for(int i = 0; i < level; i++)
+            ret_val.add(getState(node, priorities[i]));
+
+        return ret_val;
+    }
+
+    /**
+     * Get a single piece of state from the node.
+     */
+    private Object getState(GraphicsCullOutputDetails node, int priority)
+    {
+        AppearanceRenderable app = getAppearance(node);
+
+        switch(priority)
+        {
+            case StateSortComparator.LIGHTS:
+                return node.numLights == 0 ? null : node.lights;
+
+            case StateSortComparator.MATERIALS:
+                return app.getMaterialRenderable();
+
+            case StateSortComparator.POLYGON_ATTRIBS:
+                return app.getAttributeRenderable(AppearanceAttributeRenderable.POLYGON_ATTRIBUTE);
+
+            case StateSortComparator.TEXTURE_UNIT_0:
+                return app.numTextureRenderables() == 0 ?
+                       null : app.getTextureRenderable(0);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the appearance of the node.
+     */
+    private AppearanceRenderable getAppearance(GraphicsCullOutputDetails node)
+    {
+        return ((ShapeRenderable)node.renderable).getAppearanceRenderable();
+    }
+
+    /**
+     * Create a node for a shape with the given appearance and lights.
+     */
+    private GraphicsCullOutputDetails createNode(AppearanceRenderable app,
+                                                 VisualDetails[] lights)
+    {
+        ShapeRenderable shape = mock(ShapeRenderable.class);
+        when(shape.getAppearanceRenderable()).thenReturn(app);
+
+        GraphicsCullOutputDetails ret_val = new GraphicsCullOutputDetails();
+        ret_val.renderable = shape;
+
+        if(lights != null)
+        {
+            ret_val.lights = lights;
+            ret_val.numLights = lights.length;
+        }
+
+        return ret_val;
+    }
+
+    /**
+     * Create a list of lights.
+     */
+    private VisualDetails[] createLights(int num)
+    {
+        VisualDetails[] ret_val = new VisualDetails[num];
+        float[] tx = new float[16];
+
+        for(int i = 0; i < num; i++)
+        {
+            ret_val[i] = new VisualDetails();
+            ret_val[i].update(mock(EffectRenderable.class), tx);
+        }
+
+        return ret_val;
+    }
+}
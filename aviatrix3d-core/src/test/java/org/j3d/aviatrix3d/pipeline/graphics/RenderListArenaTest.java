@@ -0,0 +1,197 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.pipeline.graphics;
+
+// External imports
+import org.j3d.maths.vector.Matrix4d;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.pipeline.RenderOp;
+
+/**
+ * Unit tests for the contiguous render list transform storage
+ */
+public class RenderListArenaTest
+{
+    @Test(groups = "unit")
+    public void testDetailsShareBlock() throws Exception
+    {
+        GraphicsInstructions instr = new GraphicsInstructions();
+        double[] block = instr.arena.getTransforms();
+
+        for(int i = 0; i < instr.renderList.length; i++)
+        {
+            assertSame(instr.renderList[i].transform, block, "Not in shared block " + i);
+            assertEquals(instr.renderList[i].transformOffset,
+                         instr.arena.getTransformOffset(i),
+                         "Wrong offset " + i);
+        }
+
+        Matrix4d mat = new Matrix4d();
+        mat.setIdentity();
+        mat.m03 = 7;
+        mat.m13 = 8;
+
+        instr.renderList[1].setTransform(mat);
+
+        assertEquals(block[16], 1.0, "Wrong m00");
+        assertEquals(block[28], 7.0, "Wrong X translation");
+        assertEquals(block[29], 8.0, "Wrong Y translation");
+        assertEquals(block[0], 0.0, "Previous slot written");
+        assertEquals(block[32], 0.0, "Next slot written");
+        assertEquals(instr.renderList[1].getTransformValue(12), 7.0, "Wrong value read back");
+
+        mat.m00 = 2;
+        mat.m30 = 3;
+        instr.renderList[2].set2DTransform(mat);
+
+        assertEquals(instr.renderList[2].getTransformValue(0), 2.0, "Wrong 2D scale");
+        assertEquals(instr.renderList[2].getTransformValue(3), 3.0, "Wrong 2D raster X");
+        assertEquals(instr.renderList[2].getTransformValue(12), 0.0, "3D translation kept");
+    }
+
+    @Test(groups = "unit")
+    public void testGrowKeepsTransforms() throws Exception
+    {
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int start_size = instr.renderList.length;
+
+        for(int i = 0; i < start_size; i++)
+            instr.renderList[i].setTransform(translation(i));
+
+        // Reorder like the instancer does, so details are out of slot order
+        GraphicsDetails tmp = instr.renderList[0];
+        instr.renderList[0] = instr.renderList[3];
+        instr.renderList[3] = tmp;
+
+        instr.ensureRenderListCapacity(start_size + 1);
+
+        assertTrue(instr.renderList.length > start_size, "List not grown");
+        assertEquals(instr.arena.getGrowCount(), 1, "Wrong grow count");
+
+        double[] block = instr.arena.getTransforms();
+
+        for(int i = 0; i < instr.renderList.length; i++)
+        {
+            assertSame(instr.renderList[i].transform, block, "Not rebound " + i);
+            assertEquals(instr.renderList[i].transformOffset, i * 16, "Wrong offset " + i);
+        }
+
+        assertEquals(instr.renderList[0].getTransformValue(12), 3.0, "Swapped transform lost");
+        assertEquals(instr.renderList[3].getTransformValue(12), 0.0, "Swapped transform lost");
+        assertEquals(instr.renderList[5].getTransformValue(12), 5.0, "Transform not copied");
+    }
+
+    @Test(groups = "unit")
+    public void testNoAllocationAfterWarmUp() throws Exception
+    {
+        GraphicsInstructions instr = new GraphicsInstructions();
+        Matrix4d mat = translation(1);
+
+        // Warm up over a few frames with a growing scene
+        for(int frame = 1; frame <= 4; frame++)
+            runFrame(instr, mat, frame * 600);
+
+        int grow_count = instr.arena.getGrowCount();
+        double[] block = instr.arena.getTransforms();
+        GraphicsDetails[] list = instr.renderList;
+
+        assertTrue(grow_count > 0, "Warm up never grew");
+        assertTrue(grow_count < 4, "Not growing geometrically");
+
+        for(int frame = 0; frame < 100; frame++)
+            runFrame(instr, mat, 2400 - (frame % 3) * 100);
+
+        assertEquals(instr.arena.getGrowCount(), grow_count, "Grew after warm up");
+        assertSame(instr.arena.getTransforms(), block, "Block reallocated");
+        assertSame(instr.renderList, list, "Render list reallocated");
+    }
+
+    @Test(groups = "unit")
+    public void testReorderedRebindInPlace() throws Exception
+    {
+        GraphicsInstructions instr = new GraphicsInstructions();
+        int start_size = instr.renderList.length;
+
+        // First grow leaves spare room in the arena but not the list
+        instr.ensureRenderListCapacity(start_size + 1);
+        double[] block = instr.arena.getTransforms();
+
+        assertTrue(instr.arena.getCapacity() > start_size + 1, "No spare arena capacity");
+
+        for(int i = 0; i < instr.renderList.length; i++)
+            instr.renderList[i].setTransform(translation(i));
+
+        // Reverse the first few so that every move reads a slot written by
+        // an earlier one.
+        for(int i = 0; i < 4; i++)
+        {
+            GraphicsDetails tmp = instr.renderList[i];
+            instr.renderList[i] = instr.renderList[7 - i];
+            instr.renderList[7 - i] = tmp;
+        }
+
+        instr.ensureRenderListCapacity(start_size + 2);
+
+        assertEquals(instr.arena.getGrowCount(), 1, "Arena should not have grown again");
+        assertSame(instr.arena.getTransforms(), block, "Block reallocated");
+
+        for(int i = 0; i < 8; i++)
+        {
+            assertEquals(instr.renderList[i].transformOffset, i * 16, "Wrong offset " + i);
+            assertEquals(instr.renderList[i].getTransformValue(12),
+                         (double)(7 - i),
+                         "Transform overwritten at " + i);
+        }
+
+        assertEquals(instr.renderList[8].getTransformValue(12), 8.0, "Unmoved transform lost");
+    }
+
+    /**
+     * Fill the list with the given number of draws the way a sort stage
+     * does.
+     */
+    private void runFrame(GraphicsInstructions instr, Matrix4d mat, int count)
+    {
+        if(instr.renderList.length < count)
+        {
+            instr.ensureRenderListCapacity(count);
+            instr.renderOps = new RenderOp[count];
+        }
+
+        for(int i = 0; i < count; i++)
+        {
+            instr.renderOps[i] = RenderOp.RENDER_GEOMETRY;
+            instr.renderList[i].setTransform(mat);
+        }
+
+        instr.numValid = count;
+    }
+
+    /**
+     * Create a translation along the X axis.
+     */
+    private Matrix4d translation(double x)
+    {
+        Matrix4d ret_val = new Matrix4d();
+        ret_val.setIdentity();
+        ret_val.m03 = x;
+
+        return ret_val;
+    }
+}
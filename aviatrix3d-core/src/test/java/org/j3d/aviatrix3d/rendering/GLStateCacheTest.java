@@ -0,0 +1,227 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.rendering;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.test.MockGL2;
+
+/**
+ * Unit tests for the GL state cache
+ */
+public class GLStateCacheTest
+{
+    private MockGL2 mockGL2;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        mockGL2 = new MockGL2(mock(GLContext.class));
+    }
+
+    @AfterMethod(groups = "unit")
+    public void cleanupTests() throws Exception
+    {
+        // Make sure no test leaves a cache current on the test thread
+        GLStateCache cache;
+        while((cache = GLStateCache.getCurrentCache()) != null)
+            cache.deactivate();
+    }
+
+    @Test(groups = "unit")
+    public void testPassThroughWithoutCache() throws Exception
+    {
+        assertNull(GLStateCache.getCurrentCache(), "Cache already current");
+
+        GLStateCache.glEnable(mockGL2, GL.GL_BLEND);
+        GLStateCache.glEnable(mockGL2, GL.GL_BLEND);
+        GLStateCache.glDepthFunc(mockGL2, GL.GL_LESS);
+        GLStateCache.glDepthFunc(mockGL2, GL.GL_LESS);
+
+        assertEquals(mockGL2.getCallCount("glEnable"), 2, "Enable calls skipped");
+        assertEquals(mockGL2.getCallCount("glDepthFunc"), 2, "Depth calls skipped");
+        assertTrue(GLStateCache.isMaterialChange(this), "Material skipped");
+    }
+
+    @Test(groups = "unit")
+    public void testEnableElision() throws Exception
+    {
+        GLStateCache class_under_test = new GLStateCache();
+        class_under_test.activate();
+
+        assertSame(GLStateCache.getCurrentCache(), class_under_test, "Not current");
+
+        GLStateCache.glEnable(mockGL2, GL.GL_BLEND);
+        GLStateCache.glEnable(mockGL2, GL.GL_BLEND);
+        GLStateCache.glDisable(mockGL2, GL.GL_BLEND);
+        GLStateCache.glDisable(mockGL2, GL.GL_BLEND);
+
+        // Untracked capabilities always go through
+        GLStateCache.glEnable(mockGL2, GL.GL_CULL_FACE);
+        GLStateCache.glEnable(mockGL2, GL.GL_CULL_FACE);
+
+        assertEquals(mockGL2.getCallCount("glEnable"), 3, "Wrong enable count");
+        assertEquals(mockGL2.getCallCount("glDisable"), 1, "Wrong disable count");
+        assertEquals(class_under_test.getSubmittedCount(), 4, "Wrong submitted count");
+        assertEquals(class_under_test.getElidedCount(), 2, "Wrong elided count");
+
+        class_under_test.invalidate();
+        GLStateCache.glDisable(mockGL2, GL.GL_BLEND);
+
+        assertEquals(mockGL2.getCallCount("glDisable"), 2, "Invalidate ignored");
+
+        class_under_test.reset();
+
+        assertEquals(class_under_test.getSubmittedCount(), 0, "Submitted not reset");
+        assertEquals(class_under_test.getElidedCount(), 0, "Elided not reset");
+
+        class_under_test.deactivate();
+
+        assertNull(GLStateCache.getCurrentCache(), "Still current");
+    }
+
+    @Test(groups = "unit")
+    public void testDepthAndBlendElision() throws Exception
+    {
+        GLStateCache class_under_test = new GLStateCache();
+        class_under_test.activate();
+
+        GLStateCache.glDepthFunc(mockGL2, GL.GL_LEQUAL);
+        GLStateCache.glDepthFunc(mockGL2, GL.GL_LEQUAL);
+        GLStateCache.glDepthMask(mockGL2, false);
+        GLStateCache.glDepthMask(mockGL2, false);
+        GLStateCache.glDepthMask(mockGL2, true);
+
+        GLStateCache.glBlendFunc(mockGL2, GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+        GLStateCache.glBlendFuncSeparate(mockGL2,
+                                         GL.GL_SRC_ALPHA,
+                                         GL.GL_ONE_MINUS_SRC_ALPHA,
+                                         GL.GL_SRC_ALPHA,
+                                         GL.GL_ONE_MINUS_SRC_ALPHA);
+        GLStateCache.glBlendFunc(mockGL2, GL.GL_ONE, GL.GL_ZERO);
+
+        GLStateCache.glBlendEquation(mockGL2, GL.GL_FUNC_ADD);
+        GLStateCache.glBlendEquation(mockGL2, GL.GL_FUNC_ADD);
+
+        GLStateCache.glBlendColor(mockGL2, 0, 0, 0, 0.5f);
+        GLStateCache.glBlendColor(mockGL2, 0, 0, 0, 0.5f);
+        GLStateCache.glBlendColor(mockGL2, 0, 0, 0, 0.25f);
+
+        assertEquals(mockGL2.getCallCount("glDepthFunc"), 1, "Wrong depth func count");
+        assertEquals(mockGL2.getCallCount("glDepthMask"), 2, "Wrong depth mask count");
+        assertEquals(mockGL2.getCallCount("glBlendFunc"), 2, "Wrong blend func count");
+        assertEquals(mockGL2.getCallCount("glBlendFuncSeparate"), 0,
+                     "Equivalent separate blend not skipped");
+        assertEquals(mockGL2.getCallCount("glBlendEquation"), 1, "Wrong equation count");
+        assertEquals(mockGL2.getCallCount("glBlendColor"), 2, "Wrong blend colour count");
+
+        assertEquals(class_under_test.getSubmittedCount(), 8, "Wrong submitted count");
+        assertEquals(class_under_test.getElidedCount(), 5, "Wrong elided count");
+    }
+
+    @Test(groups = "unit")
+    public void testTextureBindingPerUnit() throws Exception
+    {
+        GLStateCache class_under_test = new GLStateCache();
+        class_under_test.activate();
+
+        // Unit not known yet, so can't track the binding
+        GLStateCache.glBindTexture(mockGL2, GL.GL_TEXTURE_2D, 5);
+        GLStateCache.glBindTexture(mockGL2, GL.GL_TEXTURE_2D, 5);
+
+        assertEquals(mockGL2.getCallCount("glBindTexture"), 2, "Bound with unknown unit");
+
+        GLStateCache.glActiveTexture(mockGL2, GL.GL_TEXTURE0);
+        GLStateCache.glBindTexture(mockGL2, GL.GL_TEXTURE_2D, 5);
+        GLStateCache.glBindTexture(mockGL2, GL.GL_TEXTURE_2D, 5);
+
+        assertEquals(mockGL2.getCallCount("glBindTexture"), 3, "Rebind not skipped");
+
+        // Same ID on another unit is a different binding
+        GLStateCache.glActiveTexture(mockGL2, GL.GL_TEXTURE1);
+        GLStateCache.glBindTexture(mockGL2, GL.GL_TEXTURE_2D, 5);
+        GLStateCache.glActiveTexture(mockGL2, GL.GL_TEXTURE1);
+
+        assertEquals(mockGL2.getCallCount("glBindTexture"), 4, "Unit not tracked");
+        assertEquals(mockGL2.getCallCount("glActiveTexture"), 2, "Wrong active count");
+
+        GLStateCache.glActiveTexture(mockGL2, GL.GL_TEXTURE0);
+        GLStateCache.glBindTexture(mockGL2, GL.GL_TEXTURE_2D, 5);
+        GLStateCache.glBindTexture(mockGL2, GL2.GL_TEXTURE_3D, 5);
+
+        assertEquals(mockGL2.getCallCount("glBindTexture"), 5, "Target not tracked");
+
+        GLStateCache.invalidateCurrentTextures();
+        GLStateCache.glActiveTexture(mockGL2, GL.GL_TEXTURE0);
+
+        assertEquals(mockGL2.getCallCount("glActiveTexture"), 4, "Unit not invalidated");
+    }
+
+    @Test(groups = "unit")
+    public void testProgramAndMaterial() throws Exception
+    {
+        GLStateCache class_under_test = new GLStateCache();
+        class_under_test.activate();
+
+        GLStateCache.glUseProgramObjectARB(mockGL2, 3);
+        GLStateCache.glUseProgramObjectARB(mockGL2, 3);
+        GLStateCache.glUseProgramObjectARB(mockGL2, 0);
+
+        assertEquals(mockGL2.getCallCount("glUseProgramObjectARB"), 2,
+                     "Wrong program count");
+
+        // Equal values in different objects are only loaded once
+        String mat_1 = new String("material");
+        String mat_2 = new String("material");
+
+        assertTrue(GLStateCache.isMaterialChange(mat_1), "First material skipped");
+        assertFalse(GLStateCache.isMaterialChange(mat_2), "Equal material loaded");
+        assertTrue(GLStateCache.isMaterialChange("other"), "Different material skipped");
+
+        GLStateCache.invalidateCurrentLighting();
+
+        assertTrue(GLStateCache.isMaterialChange("other"), "Lighting not invalidated");
+    }
+
+    @Test(groups = "unit")
+    public void testNestedActivation() throws Exception
+    {
+        GLStateCache outer = new GLStateCache();
+        GLStateCache inner = new GLStateCache();
+
+        outer.activate();
+        GLStateCache.glEnable(mockGL2, GL.GL_DEPTH_TEST);
+
+        inner.activate();
+        assertSame(GLStateCache.getCurrentCache(), inner, "Inner not current");
+        inner.deactivate();
+
+        assertSame(GLStateCache.getCurrentCache(), outer, "Outer not restored");
+
+        // Outer must have been invalidated as the inner may have changed state
+        GLStateCache.glEnable(mockGL2, GL.GL_DEPTH_TEST);
+
+        assertEquals(mockGL2.getCallCount("glEnable"), 2, "Outer not invalidated");
+    }
+}
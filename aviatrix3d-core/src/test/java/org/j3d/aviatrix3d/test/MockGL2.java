@@ -9792,7 +9792,8 @@ public class MockGL2 extends MockGL implements GL2
     @Override
     public void glVertexAttribDivisor(int index, int divisor)
     {
-        throw new UnsupportedOperationException();
+        CallDetails details = getMethodDetails("glVertexAttribDivisor");
+        details.foundArguments.add(new Object[] { index, divisor });
     }
 
     @Override
@@ -14033,7 +14034,8 @@ public class MockGL2 extends MockGL implements GL2
     @Override
     public void glDrawElements(int mode, int count, int type, Buffer indices)
     {
-
+        CallDetails details = getMethodDetails("glDrawElements");
+        details.foundArguments.add(new Object[] { mode, count, type, indices });
     }
 
     @Override
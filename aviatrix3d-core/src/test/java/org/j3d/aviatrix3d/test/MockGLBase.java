@@ -471,6 +471,20 @@ public class MockGLBase implements GLBase
         methodCallCount = 0;
     }
 
+    /**
+     * Get the number of times a single method has been called, ignoring any
+     * calls already checked with verifyCall().
+     *
+     * @param methodName The name of the GL method
+     * @return The number of calls, zero if never called
+     */
+    public int getCallCount(String methodName)
+    {
+        CallDetails details = methodCallDetails.get(methodName);
+
+        return details == null ? 0 : details.callCount;
+    }
+
     public void verifyCall(String methodName, Object... wantedArgs)
     {
         CallDetails details = methodCallDetails.get(methodName);
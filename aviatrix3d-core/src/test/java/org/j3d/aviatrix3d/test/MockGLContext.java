@@ -0,0 +1,294 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.aviatrix3d.test;
+
+// External imports
+import java.nio.IntBuffer;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLDebugListener;
+import com.jogamp.opengl.GLDrawable;
+import com.jogamp.opengl.GLException;
+
+// Local imports
+// None
+
+/**
+ * Plain context implementation for tests that need a context which does
+ * not do any work, or create any garbage, when it is called.
+ * <p>
+ *
+ * Mockito based contexts allocate for every call made on them, which makes
+ * them unusable for tests that measure allocation. This just hands back
+ * the GL instance and drawable it was given, and claims to always be
+ * current.
+ */
+public class MockGLContext extends GLContext
+{
+    /** The GL instance to return */
+    private GL gl;
+
+    /** The drawable to return */
+    private GLDrawable drawable;
+
+    /**
+     * Create a new context that returns the given GL instance.
+     *
+     * @param gl The GL instance to return from getGL()
+     * @param drawable The drawable to return, may be null
+     */
+    public MockGLContext(GL gl, GLDrawable drawable)
+    {
+        this.gl = gl;
+        this.drawable = drawable;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by GLContext
+    //---------------------------------------------------------------
+
+    @Override
+    public GLDrawable setGLDrawable(GLDrawable readWrite, boolean setWriteOnly)
+    {
+        GLDrawable ret_val = drawable;
+        drawable = readWrite;
+
+        return ret_val;
+    }
+
+    @Override
+    public GLDrawable getGLDrawable()
+    {
+        return drawable;
+    }
+
+    @Override
+    public boolean isGLReadDrawableAvailable()
+    {
+        return false;
+    }
+
+    @Override
+    public GLDrawable setGLReadDrawable(GLDrawable read)
+    {
+        return drawable;
+    }
+
+    @Override
+    public GLDrawable getGLReadDrawable()
+    {
+        return drawable;
+    }
+
+    @Override
+    public int makeCurrent() throws GLException
+    {
+        return CONTEXT_CURRENT;
+    }
+
+    @Override
+    public void release() throws GLException
+    {
+    }
+
+    @Override
+    public void copy(GLContext source, int mask) throws GLException
+    {
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+
+    @Override
+    public GL getRootGL()
+    {
+        return gl;
+    }
+
+    @Override
+    public GL getGL()
+    {
+        return gl;
+    }
+
+    @Override
+    public GL setGL(GL gl)
+    {
+        GL ret_val = this.gl;
+        this.gl = gl;
+
+        return ret_val;
+    }
+
+    @Override
+    public boolean isFunctionAvailable(String glFunctionName)
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isExtensionAvailable(String glExtensionName)
+    {
+        return true;
+    }
+
+    @Override
+    public int getPlatformExtensionCount()
+    {
+        return 0;
+    }
+
+    @Override
+    public String getPlatformExtensionsString()
+    {
+        return "";
+    }
+
+    @Override
+    public int getGLExtensionCount()
+    {
+        return 0;
+    }
+
+    @Override
+    public String getGLExtensionsString()
+    {
+        return "";
+    }
+
+    @Override
+    public int getContextCreationFlags()
+    {
+        return 0;
+    }
+
+    @Override
+    public void setContextCreationFlags(int flags)
+    {
+    }
+
+    @Override
+    public int getDefaultVAO()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getBoundFramebuffer(int target)
+    {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultDrawFramebuffer()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultReadFramebuffer()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultReadBuffer()
+    {
+        return GL.GL_BACK;
+    }
+
+    @Override
+    public int getDefaultPixelDataType()
+    {
+        return GL.GL_UNSIGNED_BYTE;
+    }
+
+    @Override
+    public int getDefaultPixelDataFormat()
+    {
+        return GL.GL_RGBA;
+    }
+
+    @Override
+    public String getGLDebugMessageExtension()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isGLDebugSynchronous()
+    {
+        return false;
+    }
+
+    @Override
+    public void setGLDebugSynchronous(boolean synchronous)
+    {
+    }
+
+    @Override
+    public boolean isGLDebugMessageEnabled()
+    {
+        return false;
+    }
+
+    @Override
+    public void enableGLDebugMessage(boolean enable) throws GLException
+    {
+    }
+
+    @Override
+    public void addGLDebugListener(GLDebugListener listener)
+    {
+    }
+
+    @Override
+    public void removeGLDebugListener(GLDebugListener listener)
+    {
+    }
+
+    @Override
+    public void glDebugMessageControl(int source,
+                                      int type,
+                                      int severity,
+                                      int count,
+                                      IntBuffer ids,
+                                      boolean enabled)
+    {
+    }
+
+    @Override
+    public void glDebugMessageControl(int source,
+                                      int type,
+                                      int severity,
+                                      int count,
+                                      int[] ids,
+                                      int ids_offset,
+                                      boolean enabled)
+    {
+    }
+
+    @Override
+    public void glDebugMessageInsert(int source,
+                                     int type,
+                                     int id,
+                                     int severity,
+                                     String buf)
+    {
+    }
+}
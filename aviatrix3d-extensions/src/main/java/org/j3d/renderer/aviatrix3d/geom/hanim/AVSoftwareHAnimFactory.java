@@ -10,7 +10,10 @@
 package org.j3d.renderer.aviatrix3d.geom.hanim;
 
 // External imports
-// None
+import java.text.MessageFormat;
+import java.util.Locale;
+
+import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.geom.hanim.*;
@@ -20,13 +23,40 @@ import org.j3d.geom.hanim.*;
  * implements skinned mesh rendering using software.
  * <p>
  *
+ * Three forms of skinning are available. The speed and space forms have each
+ * joint add its weighted influence into the skin in turn, working on a
+ * float array or a buffer respectively. The parallel form keeps the
+ * influences per vertex instead, so that the skin can be calculated over
+ * many threads and many humanoids at once with a {@link SkinningEngine}.
+ * <p>
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>invalidModeMsg: Error message when an unknown skinning mode is given</li>
+ * </ul>
+ *
  * @author Justin Couch
  * @version $Revision: 1.3 $
  */
 public class AVSoftwareHAnimFactory implements HAnimFactory
 {
-    /** Flag to say whether we should optimise for speed or space */
-    private final boolean useSpeed;
+    /** Skinning mode that optimises for speed */
+    public static final int SKIN_SPEED = 0;
+
+    /** Skinning mode that optimises for space */
+    public static final int SKIN_SPACE = 1;
+
+    /** Skinning mode that can be run over many threads */
+    public static final int SKIN_PARALLEL = 2;
+
+    /** Message when the skinning mode is not one we know about */
+    private static final String INVALID_MODE_PROP =
+        "org.j3d.renderer.aviatrix3d.geom.hanim.AVSoftwareHAnimFactory.invalidModeMsg";
+
+    /** The skinning mode to create nodes for */
+    private final int skinMode;
+
+    /** Should parallel humanoids leave their skinning for a batch call */
+    private boolean deferSkinning;
 
     /**
      * Create a new factory instance that generates nodes optimised for either
@@ -36,7 +66,33 @@ public class AVSoftwareHAnimFactory implements HAnimFactory
      */
     public AVSoftwareHAnimFactory(boolean speed)
     {
-        useSpeed = speed;
+        skinMode = speed ? SKIN_SPEED : SKIN_SPACE;
+    }
+
+    /**
+     * Create a new factory instance that generates nodes using the given
+     * skinning mode.
+     *
+     * @param mode One of the SKIN_ constants
+     * @throws IllegalArgumentException The mode is not a known value
+     */
+    public AVSoftwareHAnimFactory(int mode)
+    {
+        if(mode != SKIN_SPEED && mode != SKIN_SPACE && mode != SKIN_PARALLEL)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(INVALID_MODE_PROP);
+
+            Object[] msg_args = { new Integer(mode) };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        skinMode = mode;
     }
 
 
@@ -81,10 +137,17 @@ public class AVSoftwareHAnimFactory implements HAnimFactory
     @Override
     public HAnimJoint createJoint()
     {
-        if(useSpeed)
-            return new SoftwareSpeedJoint();
-        else
-            return new SoftwareSpaceJoint();
+        switch(skinMode)
+        {
+            case SKIN_SPEED:
+                return new SoftwareSpeedJoint();
+
+            case SKIN_PARALLEL:
+                return new SoftwareParallelJoint();
+
+            default:
+                return new SoftwareSpaceJoint();
+        }
     }
 
     /**
@@ -95,10 +158,19 @@ public class AVSoftwareHAnimFactory implements HAnimFactory
     @Override
     public HAnimHumanoid createHumanoid()
     {
-        if(useSpeed)
-            return new SoftwareSpeedHumanoid();
-        else
-            return new SoftwareSpaceHumanoid();
+        switch(skinMode)
+        {
+            case SKIN_SPEED:
+                return new SoftwareSpeedHumanoid();
+
+            case SKIN_PARALLEL:
+                SoftwareParallelHumanoid ret_val = new SoftwareParallelHumanoid();
+                ret_val.setDeferredSkinning(deferSkinning);
+                return ret_val;
+
+            default:
+                return new SoftwareSpaceHumanoid();
+        }
     }
 
     /**
@@ -111,4 +183,41 @@ public class AVSoftwareHAnimFactory implements HAnimFactory
     {
         return new HumanoidManager();
     }
+
+    //----------------------------------------------------------
+    // Local Methods
+    //----------------------------------------------------------
+
+    /**
+     * Get the skinning mode that this factory creates nodes for.
+     *
+     * @return One of the SKIN_ constants
+     */
+    public int getSkinMode()
+    {
+        return skinMode;
+    }
+
+    /**
+     * Set whether humanoids created from now on leave their skinning to a
+     * batch call on a {@link SkinningEngine}, rather than skinning at the end
+     * of each <code>updateSkeleton()</code> call. Only used by the parallel
+     * skinning mode.
+     *
+     * @param enable true to defer the skinning to a batch call
+     */
+    public void setDeferredSkinning(boolean enable)
+    {
+        deferSkinning = enable;
+    }
+
+    /**
+     * Check whether humanoids created by this factory defer their skinning.
+     *
+     * @return true if the skinning is left for a batch call
+     */
+    public boolean isDeferredSkinning()
+    {
+        return deferSkinning;
+    }
 }
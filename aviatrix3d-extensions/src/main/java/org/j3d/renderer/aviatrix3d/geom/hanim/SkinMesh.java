@@ -0,0 +1,349 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.hanim;
+
+// External imports
+import org.j3d.maths.vector.Matrix4d;
+
+// Local imports
+// None
+
+/**
+ * Vertex-major skinning data for a single mesh.
+ * <p>
+ *
+ * The joint influences are held in compressed rows, one row per vertex.
+ * The influences of vertex <code>v</code> are the entries from
+ * <code>influenceStart[v]</code> up to <code>influenceStart[v + 1]</code> of
+ * the joint index and weight arrays. The joint transforms are flattened into
+ * a float palette of 12 values per joint, holding the top three rows of the
+ * matrix.
+ * <p>
+ *
+ * Each output vertex is then worked out as a gather over its own
+ * influences, so a vertex is written exactly once. That means any range of
+ * vertices can be skinned independently of any other range, which is what
+ * lets {@link SkinningEngine} split the work over several threads.
+ * <p>
+ *
+ * The influences are rebuilt in two passes. Each influence is counted with
+ * {@link #countInfluence(int)}, then {@link #endCount()} lays out the rows
+ * and each influence is added with {@link #addInfluence(int, int, float)}.
+ */
+class SkinMesh
+{
+    /** Number of palette values for each joint */
+    static final int PALETTE_STRIDE = 12;
+
+    /** Source coordinates of the skin */
+    private float[] sourceCoords;
+
+    /** Source normals of the skin. May be null */
+    private float[] sourceNormals;
+
+    /** Skinned coordinates */
+    private float[] outputCoords;
+
+    /** Skinned normals. May be null */
+    private float[] outputNormals;
+
+    /** Number of vertices in the mesh */
+    private int numVertices;
+
+    /** True if normals are to be skinned as well */
+    private boolean useNormals;
+
+    /** Start of each vertex row in the influence arrays */
+    private int[] influenceStart;
+
+    /** Palette index of the joint for each influence */
+    private int[] influenceJoint;
+
+    /** Weight of each influence */
+    private float[] influenceWeight;
+
+    /** Next place to write to for each vertex while adding influences */
+    private int[] influenceFill;
+
+    /** The flattened joint matrices */
+    private float[] palette;
+
+    /**
+     * Create a new, empty mesh.
+     */
+    SkinMesh()
+    {
+        influenceStart = new int[1];
+        influenceJoint = new int[0];
+        influenceWeight = new float[0];
+        influenceFill = new int[0];
+        palette = new float[0];
+    }
+
+    /**
+     * Set the source and output arrays of the mesh. The output arrays may
+     * be the same ones handed to the geometry. Normals are only skinned if
+     * both normal arrays are given and hold values for every vertex.
+     *
+     * @param srcCoords The unskinned coordinates
+     * @param srcNormals The unskinned normals or null
+     * @param destCoords Where to write the skinned coordinates
+     * @param destNormals Where to write the skinned normals or null
+     * @param numVerts The number of vertices in the mesh
+     * @param numNormals The number of normals in the mesh
+     */
+    void setArrays(float[] srcCoords,
+                   float[] srcNormals,
+                   float[] destCoords,
+                   float[] destNormals,
+                   int numVerts,
+                   int numNormals)
+    {
+        sourceCoords = srcCoords;
+        sourceNormals = srcNormals;
+        outputCoords = destCoords;
+        outputNormals = destNormals;
+        numVertices = numVerts;
+
+        useNormals = srcNormals != null &&
+                     destNormals != null &&
+                     numNormals >= numVerts;
+    }
+
+    /**
+     * Get the number of vertices in the mesh.
+     *
+     * @return A value greater than or equal to zero
+     */
+    int getNumVertices()
+    {
+        return numVertices;
+    }
+
+    /**
+     * Get the total number of joint influences over all the vertices.
+     *
+     * @return A value greater than or equal to zero
+     */
+    int getNumInfluences()
+    {
+        return influenceStart[numVertices];
+    }
+
+    /**
+     * Make sure the palette has room for the given number of joints.
+     *
+     * @param numJoints The number of joints in the skeleton
+     */
+    void setNumJoints(int numJoints)
+    {
+        if(palette.length < numJoints * PALETTE_STRIDE)
+            palette = new float[numJoints * PALETTE_STRIDE];
+    }
+
+    /**
+     * Copy a joint matrix into the palette.
+     *
+     * @param joint The palette index of the joint
+     * @param mat The transform of the joint into skin space
+     */
+    void setJointMatrix(int joint, Matrix4d mat)
+    {
+        int p = joint * PALETTE_STRIDE;
+
+        palette[p]      = (float)mat.m00;
+        palette[p + 1]  = (float)mat.m01;
+        palette[p + 2]  = (float)mat.m02;
+        palette[p + 3]  = (float)mat.m03;
+        palette[p + 4]  = (float)mat.m10;
+        palette[p + 5]  = (float)mat.m11;
+        palette[p + 6]  = (float)mat.m12;
+        palette[p + 7]  = (float)mat.m13;
+        palette[p + 8]  = (float)mat.m20;
+        palette[p + 9]  = (float)mat.m21;
+        palette[p + 10] = (float)mat.m22;
+        palette[p + 11] = (float)mat.m23;
+    }
+
+    /**
+     * Clear the influences, ready to count a new set.
+     */
+    void beginInfluences()
+    {
+        if(influenceStart.length < numVertices + 1)
+        {
+            influenceStart = new int[numVertices + 1];
+            influenceFill = new int[numVertices];
+        }
+        else
+        {
+            for(int i = 0; i <= numVertices; i++)
+                influenceStart[i] = 0;
+        }
+    }
+
+    /**
+     * Count one influence on a vertex. Vertices out of range are ignored.
+     *
+     * @param vertex The index of the vertex
+     */
+    void countInfluence(int vertex)
+    {
+        if(vertex >= 0 && vertex < numVertices)
+            influenceStart[vertex + 1]++;
+    }
+
+    /**
+     * All the influences have been counted, so lay out the rows.
+     */
+    void endCount()
+    {
+        for(int i = 0; i < numVertices; i++)
+            influenceStart[i + 1] += influenceStart[i];
+
+        int total = influenceStart[numVertices];
+
+        if(influenceJoint.length < total)
+        {
+            influenceJoint = new int[total];
+            influenceWeight = new float[total];
+        }
+
+        System.arraycopy(influenceStart, 0, influenceFill, 0, numVertices);
+    }
+
+    /**
+     * Add an influence to a vertex. Must be called once for every counted
+     * influence, in any order. Vertices out of range are ignored.
+     *
+     * @param vertex The index of the vertex
+     * @param joint The palette index of the joint
+     * @param weight The weight of the joint on the vertex
+     */
+    void addInfluence(int vertex, int joint, float weight)
+    {
+        if(vertex < 0 || vertex >= numVertices)
+            return;
+
+        int pos = influenceFill[vertex]++;
+        influenceJoint[pos] = joint;
+        influenceWeight[pos] = weight;
+    }
+
+    /**
+     * Skin a range of vertices using the current palette.
+     *
+     * @param first The first vertex to skin
+     * @param last One past the last vertex to skin
+     */
+    void skin(int first, int last)
+    {
+        final float[] pal = palette;
+        final int[] start = influenceStart;
+        final int[] joints = influenceJoint;
+        final float[] weights = influenceWeight;
+        final float[] src = sourceCoords;
+        final float[] dest = outputCoords;
+
+        if(!useNormals)
+        {
+            for(int v = first; v < last; v++)
+            {
+                int off = v * 3;
+                float x = src[off];
+                float y = src[off + 1];
+                float z = src[off + 2];
+
+                float out_x = 0;
+                float out_y = 0;
+                float out_z = 0;
+
+                int end = start[v + 1];
+
+                for(int k = start[v]; k < end; k++)
+                {
+                    int p = joints[k] * PALETTE_STRIDE;
+                    float w = weights[k];
+
+                    out_x += (pal[p] * x + pal[p + 1] * y + pal[p + 2] * z + pal[p + 3]) * w;
+                    out_y += (pal[p + 4] * x + pal[p + 5] * y + pal[p + 6] * z + pal[p + 7]) * w;
+                    out_z += (pal[p + 8] * x + pal[p + 9] * y + pal[p + 10] * z + pal[p + 11]) * w;
+                }
+
+                dest[off] = out_x;
+                dest[off + 1] = out_y;
+                dest[off + 2] = out_z;
+            }
+        }
+        else
+        {
+            final float[] src_n = sourceNormals;
+            final float[] dest_n = outputNormals;
+
+            for(int v = first; v < last; v++)
+            {
+                int off = v * 3;
+                float cx = src[off];
+                float cy = src[off + 1];
+                float cz = src[off + 2];
+
+                float nx = src_n[off];
+                float ny = src_n[off + 1];
+                float nz = src_n[off + 2];
+
+                float out_cx = 0;
+                float out_cy = 0;
+                float out_cz = 0;
+                float out_nx = 0;
+                float out_ny = 0;
+                float out_nz = 0;
+
+                int end = start[v + 1];
+
+                for(int k = start[v]; k < end; k++)
+                {
+                    int p = joints[k] * PALETTE_STRIDE;
+                    float w = weights[k];
+
+                    float m00 = pal[p];
+                    float m01 = pal[p + 1];
+                    float m02 = pal[p + 2];
+                    float m10 = pal[p + 4];
+                    float m11 = pal[p + 5];
+                    float m12 = pal[p + 6];
+                    float m20 = pal[p + 8];
+                    float m21 = pal[p + 9];
+                    float m22 = pal[p + 10];
+
+                    out_cx += (m00 * cx + m01 * cy + m02 * cz + pal[p + 3]) * w;
+                    out_cy += (m10 * cx + m11 * cy + m12 * cz + pal[p + 7]) * w;
+                    out_cz += (m20 * cx + m21 * cy + m22 * cz + pal[p + 11]) * w;
+
+                    out_nx += (m00 * nx + m01 * ny + m02 * nz) * w;
+                    out_ny += (m10 * nx + m11 * ny + m12 * nz) * w;
+                    out_nz += (m20 * nx + m21 * ny + m22 * nz) * w;
+                }
+
+                dest[off] = out_cx;
+                dest[off + 1] = out_cy;
+                dest[off + 2] = out_cz;
+
+                dest_n[off] = out_nx;
+                dest_n[off + 1] = out_ny;
+                dest_n[off + 2] = out_nz;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.hanim;
+
+// External imports
+// None
+
+// Local imports
+import org.j3d.geom.hanim.HAnimObject;
+import org.j3d.geom.hanim.HAnimObjectParent;
+
+/**
+ * Parent of a joint that keeps its skin influences in a vertex-major form.
+ * <p>
+ *
+ * A joint could have either a joint or a humanoid as the parent, so the
+ * notification is passed up the chain until it reaches the humanoid.
+ */
+interface SkinObjectParent extends HAnimObjectParent
+{
+    /**
+     * Notification that the child has changed the vertices it influences.
+     * A change could be in the weights, indexed fields or new children added.
+     *
+     * @param child Reference to the child that has changed
+     */
+    public void childInfluencesChanged(HAnimObject child);
+}
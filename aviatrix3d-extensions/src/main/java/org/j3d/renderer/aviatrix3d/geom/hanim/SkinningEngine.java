@@ -0,0 +1,264 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.hanim;
+
+// External imports
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Local imports
+import org.j3d.aviatrix3d.iutil.SharedWorkerPool;
+import org.j3d.geom.hanim.HAnimHumanoid;
+
+/**
+ * Runs the software skinning of one or many humanoids over a fork/join pool.
+ * <p>
+ *
+ * Only humanoids created by an {@link AVSoftwareHAnimFactory} in parallel
+ * mode can be skinned by the engine. Each of those humanoids keeps its skin
+ * in a vertex-major form, so the vertices of one humanoid can be split over
+ * several threads, and several humanoids can be skinned at the same time.
+ * <p>
+ *
+ * By default a parallel humanoid skins itself, using the shared engine,
+ * at the end of its <code>updateSkeleton()</code> call. For crowds, create
+ * the humanoids from a factory with deferred skinning turned on, update all
+ * of their skeletons as normal, then pass the whole set to
+ * {@link #skin(HAnimHumanoid[], int)} in one go. That should happen in the
+ * same application update call as the skeleton updates. Any humanoid that
+ * is missed is skinned on its own when its geometry is next updated.
+ */
+public class SkinningEngine
+{
+    /** Default smallest number of vertices given to a single task */
+    public static final int DEFAULT_SPLIT_SIZE = 2048;
+
+    /** Engine used by the humanoids that skin themselves */
+    private static SkinningEngine sharedEngine;
+
+    /** The pool to run the skinning tasks in */
+    private final ForkJoinPool pool;
+
+    /** Smallest number of vertices given to a single task */
+    private int splitSize;
+
+    /**
+     * Task that skins a range of vertices of a single mesh, splitting
+     * itself in half until the range is small enough.
+     */
+    private static class VertexTask extends RecursiveAction
+    {
+        /** The mesh to skin */
+        private final SkinMesh mesh;
+
+        /** First vertex to skin */
+        private final int first;
+
+        /** One past the last vertex to skin */
+        private final int last;
+
+        /** Smallest range to split */
+        private final int splitSize;
+
+        VertexTask(SkinMesh mesh, int first, int last, int splitSize)
+        {
+            this.mesh = mesh;
+            this.first = first;
+            this.last = last;
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(last - first <= splitSize)
+            {
+                mesh.skin(first, last);
+                return;
+            }
+
+            int mid = (first + last) >>> 1;
+
+            ForkJoinTask.invokeAll(new VertexTask(mesh, first, mid, splitSize),
+                                   new VertexTask(mesh, mid, last, splitSize));
+        }
+    }
+
+    /**
+     * Task that skins a range of meshes, splitting itself in half until
+     * there is a single mesh left, which is then split by vertex.
+     */
+    private static class MeshTask extends RecursiveAction
+    {
+        /** The meshes to skin */
+        private final SkinMesh[] meshes;
+
+        /** First mesh to skin */
+        private final int first;
+
+        /** One past the last mesh to skin */
+        private final int last;
+
+        /** Smallest vertex range to split */
+        private final int splitSize;
+
+        MeshTask(SkinMesh[] meshes, int first, int last, int splitSize)
+        {
+            this.meshes = meshes;
+            this.first = first;
+            this.last = last;
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(last - first == 1)
+            {
+                SkinMesh mesh = meshes[first];
+                new VertexTask(mesh, 0, mesh.getNumVertices(), splitSize).compute();
+                return;
+            }
+
+            int mid = (first + last) >>> 1;
+
+            ForkJoinTask.invokeAll(new MeshTask(meshes, first, mid, splitSize),
+                                   new MeshTask(meshes, mid, last, splitSize));
+        }
+    }
+
+    /**
+     * Create an engine that runs in the worker pool shared with the rest of
+     * the scene graph.
+     */
+    public SkinningEngine()
+    {
+        this(SharedWorkerPool.getPool());
+    }
+
+    /**
+     * Create an engine that runs in the given pool.
+     *
+     * @param pool The pool to run the skinning tasks in
+     */
+    public SkinningEngine(ForkJoinPool pool)
+    {
+        this.pool = pool;
+
+        splitSize = DEFAULT_SPLIT_SIZE;
+    }
+
+    /**
+     * Set the smallest number of vertices that is given to a single task.
+     * Meshes smaller than this are skinned on the calling thread.
+     *
+     * @param size The number of vertices, at least one
+     */
+    public void setSplitSize(int size)
+    {
+        splitSize = size < 1 ? 1 : size;
+    }
+
+    /**
+     * Get the smallest number of vertices that is given to a single task.
+     *
+     * @return A value greater than zero
+     */
+    public int getSplitSize()
+    {
+        return splitSize;
+    }
+
+    /**
+     * Skin the pending updates of a set of humanoids. Humanoids that were
+     * not created in parallel mode, or have nothing pending, are skipped.
+     *
+     * @param humanoids The humanoids to skin
+     * @param numHumanoids The number of valid humanoids in the array
+     */
+    public void skin(HAnimHumanoid[] humanoids, int numHumanoids)
+    {
+        SkinMesh[] meshes = new SkinMesh[numHumanoids];
+        int num_meshes = 0;
+        int num_verts = 0;
+
+        for(int i = 0; i < numHumanoids; i++)
+        {
+            if(!(humanoids[i] instanceof SoftwareParallelHumanoid))
+                continue;
+
+            SkinMesh mesh = ((SoftwareParallelHumanoid)humanoids[i]).takePendingSkin();
+
+            if(mesh != null)
+            {
+                meshes[num_meshes++] = mesh;
+                num_verts += mesh.getNumVertices();
+            }
+        }
+
+        skin(meshes, num_meshes, num_verts);
+    }
+
+    /**
+     * Skin a single mesh, splitting it over the pool if it is big enough.
+     *
+     * @param mesh The mesh to skin
+     */
+    void skin(SkinMesh mesh)
+    {
+        int num_verts = mesh.getNumVertices();
+
+        if(num_verts <= splitSize)
+            mesh.skin(0, num_verts);
+        else
+            pool.invoke(new VertexTask(mesh, 0, num_verts, splitSize));
+    }
+
+    /**
+     * Skin a set of meshes over the pool.
+     *
+     * @param meshes The meshes to skin
+     * @param numMeshes The number of valid meshes in the array
+     * @param numVertices Total vertices over all the meshes
+     */
+    void skin(SkinMesh[] meshes, int numMeshes, int numVertices)
+    {
+        if(numMeshes == 0)
+            return;
+
+        if(numVertices <= splitSize)
+        {
+            // Not worth waking up the pool for
+            for(int i = 0; i < numMeshes; i++)
+                meshes[i].skin(0, meshes[i].getNumVertices());
+        }
+        else
+            pool.invoke(new MeshTask(meshes, 0, numMeshes, splitSize));
+    }
+
+    /**
+     * Get the engine used by humanoids that skin themselves.
+     *
+     * @return The shared engine
+     */
+    static synchronized SkinningEngine getSharedEngine()
+    {
+        if(sharedEngine == null)
+            sharedEngine = new SkinningEngine();
+
+        return sharedEngine;
+    }
+}
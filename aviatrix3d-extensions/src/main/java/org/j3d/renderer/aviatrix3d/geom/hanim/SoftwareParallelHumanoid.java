@@ -0,0 +1,383 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.hanim;
+
+// External imports
+// None
+
+// Local imports
+import org.j3d.aviatrix3d.*;
+
+import org.j3d.renderer.aviatrix3d.nodes.BufferGeometry;
+
+import org.j3d.geom.hanim.HAnimObject;
+
+/**
+ * Software humanoid that skins each vertex as a gather over its own joint
+ * influences, so that the skinning can be split over many threads.
+ * <p>
+ *
+ * The joint influences are held in a {@link SkinMesh}, which is rebuilt
+ * whenever a joint changes its indices, weights or children. When the
+ * skeleton changes, the joint matrices are copied into the mesh palette and
+ * every vertex is recalculated, either straight away using the shared
+ * {@link SkinningEngine}, or later as part of a batch if deferred skinning
+ * is enabled. Any skin left pending is finished before the geometry is
+ * updated.
+ */
+class SoftwareParallelHumanoid extends SoftwareHumanoid
+    implements SkinObjectParent
+{
+    /** The vertex-major skin data */
+    private final SkinMesh skinMesh;
+
+    /** Local copy of the unskinned coordinates */
+    private float[] sourceCoords;
+
+    /** Local copy of the unskinned normals */
+    private float[] sourceNormals;
+
+    /** True if the skin influences need rebuilding before the next skin */
+    private boolean influencesChanged;
+
+    /** True if the skinning is left for a batch skin call */
+    private boolean deferSkinning;
+
+    /** True if the skeleton has been updated but the skin not calculated */
+    private boolean skinPending;
+
+    /** True if the coordinate buffer is older than the coordinate array */
+    private boolean coordsBufferStale;
+
+    /** True if the normal buffer is older than the normal array */
+    private boolean normalsBufferStale;
+
+    /**
+     * Create a new, default instance of the humanoid.
+     */
+    SoftwareParallelHumanoid()
+    {
+        skinMesh = new SkinMesh();
+        influencesChanged = true;
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by NodeUpdateListener
+    //----------------------------------------------------------
+
+    /**
+     * Notification that its safe to update the node now with any operations
+     * that could potentially effect the node's bounds.
+     *
+     * @param src The node or Node Component that is to be updated.
+     */
+    @Override
+    public void updateNodeBoundsChanges(Object src)
+    {
+        if(src instanceof BufferGeometry)
+        {
+            finishPendingSkin();
+
+            if(coordsBufferStale)
+            {
+                coordsBuffer.rewind();
+                coordsBuffer.put(coordsArray, 0, numSkinCoords);
+                coordsBufferStale = false;
+            }
+        }
+        else if(src instanceof VertexGeometry)
+            finishPendingSkin();
+
+        super.updateNodeBoundsChanges(src);
+    }
+
+    /**
+     * Notification that its safe to update the node now with any operations
+     * that only change the node's properties, but do not change the bounds.
+     *
+     * @param src The node or Node Component that is to be updated.
+     */
+    @Override
+    public void updateNodeDataChanges(Object src)
+    {
+        if(src instanceof BufferGeometry)
+        {
+            finishPendingSkin();
+
+            if(normalsBufferStale)
+            {
+                normalsBuffer.rewind();
+                normalsBuffer.put(normalsArray, 0, numSkinNormals);
+                normalsBufferStale = false;
+            }
+        }
+        else if(src instanceof VertexGeometry)
+            finishPendingSkin();
+
+        super.updateNodeDataChanges(src);
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by HAnimHumanoid
+    //----------------------------------------------------------
+
+    /**
+     * Set a new value for the skinCoord of this joint. If the array is null or
+     * not long enough an exception is generated. The array must be at least
+     * a multiple of 3 units long.
+     *
+     * @param val The new skinCoord value to use
+     * @param numElements The number of 3d-vectors in the array
+     * @throws IllegalArgumentException The array is null or not long enough.
+     */
+    @Override
+    public void setSkinCoord(float[] val, int numElements)
+    {
+        super.setSkinCoord(val, numElements);
+
+        if(coordsArray == null || coordsArray.length < numElements * 3)
+        {
+            coordsArray = new float[numElements * 3];
+            sourceCoords = new float[numElements * 3];
+        }
+
+        System.arraycopy(val, 0, sourceCoords, 0, numElements * 3);
+        System.arraycopy(val, 0, coordsArray, 0, numElements * 3);
+
+        outputCoords = coordsArray;
+
+        updateMeshArrays();
+    }
+
+    /**
+     * Set a new value for the skinNormal of this joint. If the array is null or
+     * not long enough an exception is generated. The array must be at least
+     * a multiple of 3 units long.
+     *
+     * @param val The new skinNormal value to use
+     * @param numElements The number of 3d-vectors in the array
+     * @throws IllegalArgumentException The array is null or not long enough.
+     */
+    @Override
+    public void setSkinNormal(float[] val, int numElements)
+    {
+        super.setSkinNormal(val, numElements);
+
+        if(normalsArray == null || normalsArray.length < numElements * 3)
+        {
+            normalsArray = new float[numElements * 3];
+            sourceNormals = new float[numElements * 3];
+        }
+
+        System.arraycopy(val, 0, sourceNormals, 0, numElements * 3);
+        System.arraycopy(val, 0, normalsArray, 0, numElements * 3);
+
+        outputNormals = normalsArray;
+
+        updateMeshArrays();
+    }
+
+    /**
+     * Replace the existing skeleton with the new set of skeleton. The skeleton
+     * can only consist of a single Joint and multiple Site objects. Any other
+     * HAnim object types shall issue an exception.
+     *
+     * @param kids The collection of child objects to now use
+     * @param numValid The number kids to copy from the given array
+     */
+    @Override
+    public void setSkeleton(HAnimObject[] kids, int numValid)
+    {
+        super.setSkeleton(kids, numValid);
+
+        influencesChanged = true;
+    }
+
+    /**
+     * All the skeletal changes are in for this frame, so update the matrix
+     * values now. If nothing has changed, don't bother doing any calculations
+     * and return immediately.
+     */
+    @Override
+    public void updateSkeleton()
+    {
+        // If no coordinates have been set, ignore this mesh
+        if(outputCoords == null)
+            return;
+
+        // keep the flag because the superclass is going to overwrite it.
+        boolean geom_changed = skeletonChanged;
+
+        super.updateSkeleton();
+
+        if(!geom_changed)
+            return;
+
+        if(influencesChanged)
+            rebuildInfluences();
+
+        skinMesh.setNumJoints(objectCount);
+
+        for(int i = 0; i < numSkeleton; i++)
+        {
+            if(skeleton[i] instanceof SoftwareParallelJoint)
+                ((SoftwareParallelJoint)skeleton[i]).updatePalette(skinMesh);
+        }
+
+        if(deferSkinning)
+            skinPending = true;
+        else
+            SkinningEngine.getSharedEngine().skin(skinMesh);
+
+        coordsBufferStale = numSkinCoords != 0;
+        normalsBufferStale = numSkinNormals != 0;
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by SkinObjectParent
+    //----------------------------------------------------------
+
+    /**
+     * Notification that the child has changed the vertices it influences.
+     * A change could be in the weights, indexed fields or new children added.
+     *
+     * @param child Reference to the child that has changed
+     */
+    @Override
+    public void childInfluencesChanged(HAnimObject child)
+    {
+        influencesChanged = true;
+
+        // Make sure the skin is recalculated with the new influences
+        skeletonChanged = true;
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by SoftwareHumanoid
+    //----------------------------------------------------------
+
+    /**
+     * Get the internal representation of the updated mesh skin coordinates.
+     *
+     * @return An object that is either a float[] or FloatBuffer, depending on
+     *    the internal implementation used.
+     */
+    @Override
+    public Object getUpdatedSkinCoords()
+    {
+        finishPendingSkin();
+
+        return coordsArray;
+    }
+
+    /**
+     * Get the internal representation of the updated mesh skin normals.
+     *
+     * @return An object that is either a float[] or FloatBuffer, depending on
+     *    the internal implementation used.
+     */
+    @Override
+    public Object getUpdatedSkinNormals()
+    {
+        finishPendingSkin();
+
+        return normalsArray;
+    }
+
+    //----------------------------------------------------------
+    // Local methods
+    //----------------------------------------------------------
+
+    /**
+     * Set whether the skin is calculated at the end of
+     * <code>updateSkeleton()</code>, or left for a batch call to
+     * {@link SkinningEngine#skin(org.j3d.geom.hanim.HAnimHumanoid[], int)}.
+     *
+     * @param enable true to leave the skinning for a batch call
+     */
+    void setDeferredSkinning(boolean enable)
+    {
+        deferSkinning = enable;
+
+        if(!enable)
+            finishPendingSkin();
+    }
+
+    /**
+     * Get the skin mesh if it is waiting to be skinned, and mark it as no
+     * longer pending. The caller is then responsible for skinning it.
+     *
+     * @return The mesh to skin or null if there is nothing pending
+     */
+    SkinMesh takePendingSkin()
+    {
+        if(!skinPending)
+            return null;
+
+        skinPending = false;
+
+        return skinMesh;
+    }
+
+    /**
+     * Skin the mesh now if it is still waiting for a batch call.
+     */
+    private void finishPendingSkin()
+    {
+        SkinMesh mesh = takePendingSkin();
+
+        if(mesh != null)
+            SkinningEngine.getSharedEngine().skin(mesh);
+    }
+
+    /**
+     * Pass the current source and output arrays through to the mesh.
+     */
+    private void updateMeshArrays()
+    {
+        skinMesh.setArrays(sourceCoords,
+                           sourceNormals,
+                           coordsArray,
+                           normalsArray,
+                           numSkinCoords / 3,
+                           numSkinNormals / 3);
+
+        influencesChanged = true;
+    }
+
+    /**
+     * Rebuild the vertex-major influences from the joints of the skeleton.
+     */
+    private void rebuildInfluences()
+    {
+        skinMesh.beginInfluences();
+
+        for(int i = 0; i < numSkeleton; i++)
+        {
+            if(skeleton[i] instanceof SoftwareParallelJoint)
+                ((SoftwareParallelJoint)skeleton[i]).countInfluences(skinMesh);
+        }
+
+        skinMesh.endCount();
+
+        for(int i = 0; i < numSkeleton; i++)
+        {
+            if(skeleton[i] instanceof SoftwareParallelJoint)
+                ((SoftwareParallelJoint)skeleton[i]).addInfluences(skinMesh);
+        }
+
+        influencesChanged = false;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.hanim;
+
+// External imports
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.geom.hanim.HAnimObject;
+import org.j3d.geom.hanim.HAnimObjectParent;
+
+/**
+ * Implementation of the joint object that leaves the skinning to the
+ * humanoid, so that it can be run over many threads.
+ * <p>
+ *
+ * The joint does no per-vertex work of its own. Its influences are copied
+ * into the vertex-major {@link SkinMesh} of the humanoid when they change,
+ * and its global matrix is copied into the mesh palette each frame.
+ * <p>
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>jointTypeSingleMsg: Error message when a non-parallel joint given</li>
+ * <li>jointTypeMultiMsg: Error message when a non-parallel joint given</li>
+ * </ul>
+ */
+class SoftwareParallelJoint extends SoftwareJoint
+    implements SkinObjectParent
+{
+    /** Other joint type added to a parallel joint */
+    private static final String WRONG_TYPE_SINGLE_PROP =
+        "org.j3d.renderer.aviatrix3d.geom.hanim.SoftwareParallelJoint.jointTypeSingleMsg";
+
+    /** Other joint type added to a parallel joint */
+    private static final String WRONG_TYPE_MULTI_PROP =
+        "org.j3d.renderer.aviatrix3d.geom.hanim.SoftwareParallelJoint.jointTypeMultiMsg";
+
+    /**
+     * Create a new, default instance of the joint.
+     */
+    SoftwareParallelJoint()
+    {
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by HAnimJoint
+    //----------------------------------------------------------
+
+    /**
+     * Set a new value for the skinCoordIndex of this joint. If the array is null or
+     * not long enough an exception is generated. The array must be at least
+     * as long as the numValid field value.
+     *
+     * @param val The new skinCoordIndex value to use
+     * @param numValid The number of valid values to read from the index list
+     * @throws IllegalArgumentException The array is null or not long enough.
+     */
+    @Override
+    public void setSkinCoordIndex(int[] val, int numValid)
+    {
+        super.setSkinCoordIndex(val, numValid);
+
+        if(parent != null)
+            ((SkinObjectParent)parent).childInfluencesChanged(this);
+    }
+
+    /**
+     * Set a new value for the skinCoordWeight of this joint. If the array is null or
+     * not long enough an exception is generated. The array must be at least
+     * as long as the currently set skinCoordIndex values length.
+     *
+     * @param val The new skinCoordWeight value to use
+     * @throws IllegalArgumentException The array is null or not long enough.
+     */
+    @Override
+    public void setSkinCoordWeight(float[] val)
+    {
+        super.setSkinCoordWeight(val);
+
+        if(parent != null)
+            ((SkinObjectParent)parent).childInfluencesChanged(this);
+    }
+
+    /**
+     * Replace the existing children with the new set of children.
+     *
+     * @param kids The collection of child objects to now use
+     * @param numValid The number kids to copy from the given array
+     */
+    @Override
+    public void setChildren(HAnimObject[] kids, int numValid)
+    {
+        for(int i = 0; i < numValid; i++)
+        {
+            if(!(kids[i] instanceof SoftwareParallelJoint))
+            {
+                I18nManager intl_mgr = I18nManager.getManager();
+                String msg_pattern = intl_mgr.getString(WRONG_TYPE_MULTI_PROP);
+
+                Locale lcl = intl_mgr.getFoundLocale();
+                NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+                String cls_name = kids[i] == null ? "null" : kids[i].getClass().getName();
+                Object[] msg_args = { new Integer(i), cls_name };
+                Format[] fmts = { n_fmt, null };
+                MessageFormat msg_fmt =
+                    new MessageFormat(msg_pattern, lcl);
+                msg_fmt.setFormats(fmts);
+                String msg = msg_fmt.format(msg_args);
+
+                throw new IllegalArgumentException(msg);
+            }
+        }
+
+        super.setChildren(kids, numValid);
+
+        if(parent != null)
+            ((SkinObjectParent)parent).childInfluencesChanged(this);
+    }
+
+    /**
+     * Add a child node to the existing collection. Duplicates and null values
+     * are allowed.
+     *
+     * @param kid The new child instance to add
+     */
+    @Override
+    public void addChild(HAnimObject kid)
+    {
+        if(!(kid instanceof SoftwareParallelJoint))
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            Locale lcl = intl_mgr.getFoundLocale();
+            String msg_pattern = intl_mgr.getString(WRONG_TYPE_SINGLE_PROP);
+
+            String cls_name = kid == null ? "null" : kid.getClass().getName();
+            Object[] msg_args = { cls_name };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        super.addChild(kid);
+
+        if(parent != null)
+            ((SkinObjectParent)parent).childInfluencesChanged(this);
+    }
+
+    /**
+     * Set the parent of this node to the given reference. Any previous
+     * reference is removed.
+     *
+     * @param parent The new parent instance to use
+     * @param srcCoords The array for the original, unmodified coordinates
+     * @param numCoords Number of valid coordinate values
+     * @param srcNormals The array for the original, unmodified normals
+     * @param numNormals Number of valid normal values
+     * @param destCoords The array/buffer for the transformed coordinates
+     * @param destNormals The array/buffer for the transformed normals
+     */
+    @Override
+    protected void setParent(HAnimObjectParent parent,
+                             float[] srcCoords,
+                             int numCoords,
+                             float[] srcNormals,
+                             int numNormals,
+                             Object destCoords,
+                             Object destNormals)
+    {
+        super.setParent(parent,
+                        srcCoords,
+                        numCoords,
+                        srcNormals,
+                        numNormals,
+                        destCoords,
+                        destNormals);
+
+        if(parent != null)
+            ((SkinObjectParent)parent).childInfluencesChanged(this);
+    }
+
+    /**
+     * All the skeletal changes are in for this frame, so update the matrix
+     * values now. The skin itself is updated by the humanoid once the whole
+     * skeleton has been walked.
+     *
+     * @param parentTransform The transformation into global coordinates of
+     *   the parent of this joint
+     * @param parentChanged Flag to indicate that the parent transformation
+     *   matrix has changed or is still the same as last call
+     */
+    @Override
+    protected void updateSkeleton(Matrix4d parentTransform,
+                                  boolean parentChanged)
+    {
+        super.updateSkeleton(parentTransform, parentChanged);
+
+        dirty = false;
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by SkinObjectParent
+    //----------------------------------------------------------
+
+    /**
+     * Notification that the child has changed the vertices it influences.
+     * A change could be in the weights, indexed fields or new children added.
+     *
+     * @param child Reference to the child that has changed
+     */
+    @Override
+    public void childInfluencesChanged(HAnimObject child)
+    {
+        if(parent != null)
+            ((SkinObjectParent)parent).childInfluencesChanged(child);
+    }
+
+    //----------------------------------------------------------
+    // Local Methods
+    //----------------------------------------------------------
+
+    /**
+     * Count the influences of this joint and all of its children into the
+     * mesh.
+     *
+     * @param mesh The mesh to count the influences in
+     */
+    void countInfluences(SkinMesh mesh)
+    {
+        for(int i = 0; i < numSkinCoord; i++)
+            mesh.countInfluence(skinCoordIndex[i]);
+
+        for(int i = 0; i < numChildren; i++)
+        {
+            if(children[i] instanceof SoftwareParallelJoint)
+                ((SoftwareParallelJoint)children[i]).countInfluences(mesh);
+        }
+    }
+
+    /**
+     * Add the influences of this joint and all of its children to the mesh.
+     * The mesh must have counted the same set first.
+     *
+     * @param mesh The mesh to add the influences to
+     */
+    void addInfluences(SkinMesh mesh)
+    {
+        for(int i = 0; i < numSkinCoord; i++)
+            mesh.addInfluence(skinCoordIndex[i], objectIndex, skinCoordWeight[i]);
+
+        for(int i = 0; i < numChildren; i++)
+        {
+            if(children[i] instanceof SoftwareParallelJoint)
+                ((SoftwareParallelJoint)children[i]).addInfluences(mesh);
+        }
+    }
+
+    /**
+     * Copy the global matrix of this joint and all of its children into the
+     * mesh palette.
+     *
+     * @param mesh The mesh to update the palette of
+     */
+    void updatePalette(SkinMesh mesh)
+    {
+        mesh.setJointMatrix(objectIndex, globalMatrix);
+
+        for(int i = 0; i < numChildren; i++)
+        {
+            if(children[i] instanceof SoftwareParallelJoint)
+                ((SoftwareParallelJoint)children[i]).updatePalette(mesh);
+        }
+    }
+}
@@ -0,0 +1,1137 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.particle;
+
+// External imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.BoundingBox;
+import org.j3d.aviatrix3d.Geometry;
+import org.j3d.aviatrix3d.NodeUpdateListener;
+import org.j3d.aviatrix3d.iutil.SharedWorkerPool;
+
+import org.j3d.renderer.aviatrix3d.nodes.QuadArray;
+
+/**
+ * A particle system for very large particle counts that keeps its state in
+ * flat arrays and renders each particle as a billboard quad.
+ * <p>
+ *
+ * Unlike the {@link AVParticleSystem} derived classes, there is no object
+ * per particle. Position, velocity, colour and age are each held in their
+ * own float array, indexed by particle. Each frame the particles are updated
+ * in fixed size chunks over a fork/join pool, and the quads are then written
+ * straight into the NIO buffers of a
+ * {@link org.j3d.renderer.aviatrix3d.nodes.QuadArray}, so the geometry never
+ * copies them. The bounds are gathered per chunk while the particles are
+ * moved and handed to the geometry as explicit bounds, so the vertices are
+ * never scanned again to find them.
+ * <p>
+ *
+ * The simulation is deliberately simple: particles are emitted from a box
+ * with a randomised velocity, accelerate under a constant acceleration with
+ * optional drag, take their colour from an optional ramp over their age and
+ * die when they reach their lifetime. Dead particles are replaced by the last
+ * live particle, so the draw order is not stable.
+ * <p>
+ *
+ * Quads are laid out as per {@link QuadParticleSystem}, but built from a
+ * right and an up axis that can be changed each frame. Passing in the
+ * viewer's axes makes the quads face the viewer. Call
+ * {@link #update(float)} once per frame from the application update
+ * observer.
+ * <p>
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>numColorCompMsg: Error message when user gave a colour component
+ *     size that was not 0, 3 or 4.</li>
+ * </ul>
+ */
+public class BillboardParticleSystem
+    implements NodeUpdateListener
+{
+    /** Default number of particles updated by a single task */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /** Error message indicating wrong number of colour components supplied */
+    private static final String COLOR_COMP_PROP =
+        "org.j3d.renderer.aviatrix3d.geom.particle.BillboardParticleSystem.numColorCompMsg";
+
+    /** The texture type constant needed when setting texture coordinates */
+    private static final int[] TEX_TYPES =
+        { QuadArray.TEXTURE_COORDINATE_2 };
+
+    /** Texture coordinates of the four corners of each quad */
+    private static final float[] QUAD_TEX_COORDS = { 1, 0, 1, 1, 0, 1, 0, 0 };
+
+    /** Task mode that moves the particles */
+    private static final int SIMULATE = 0;
+
+    /** Task mode that writes the quads */
+    private static final int WRITE = 1;
+
+    /** Number of particles written to the scratch array at a time */
+    private static final int WRITE_BLOCK_SIZE = 1024;
+
+    /** Per thread scratch array for building up a block of quads */
+    private static final ThreadLocal<float[]> WRITE_SCRATCH =
+        new ThreadLocal<float[]>()
+        {
+            @Override
+            protected float[] initialValue()
+            {
+                return new float[WRITE_BLOCK_SIZE * 16];
+            }
+        };
+
+    /** The name of this system */
+    private final String systemName;
+
+    /** Maximum number of particles this system can hold */
+    private final int maxParticleCount;
+
+    /** Number of colour components to generate */
+    private final int numColors;
+
+    /** The pool to run the update tasks in */
+    private final ForkJoinPool pool;
+
+    /** The geometry that the particles are written to */
+    private final QuadArray particleGeometry;
+
+    /** Vertex buffer handed to the geometry */
+    private final FloatBuffer vertexBuffer;
+
+    /** Colour buffer handed to the geometry. Null if no colours */
+    private final FloatBuffer colorBuffer;
+
+    /** Bounds handed to the geometry */
+    private final BoundingBox particleBounds;
+
+    /** Number of live particles */
+    private int particleCount;
+
+    /** X position of each particle */
+    private final float[] posX;
+
+    /** Y position of each particle */
+    private final float[] posY;
+
+    /** Z position of each particle */
+    private final float[] posZ;
+
+    /** X velocity of each particle */
+    private final float[] velX;
+
+    /** Y velocity of each particle */
+    private final float[] velY;
+
+    /** Z velocity of each particle */
+    private final float[] velZ;
+
+    /** Age of each particle in seconds */
+    private final float[] age;
+
+    /** Lifetime of each particle in seconds */
+    private final float[] lifetime;
+
+    /** Red component of each particle. Null if no colours */
+    private final float[] red;
+
+    /** Green component of each particle. Null if no colours */
+    private final float[] green;
+
+    /** Blue component of each particle. Null if no colours */
+    private final float[] blue;
+
+    /** Alpha component of each particle. Null if no colours */
+    private final float[] alpha;
+
+    /** Min and max of the particle positions in each chunk */
+    private float[] chunkBounds;
+
+    /** Number of particles updated by a single task */
+    private int chunkSize;
+
+    /** Centre of the emitter box */
+    private final float[] emitPosition;
+
+    /** Half size of the emitter box */
+    private final float[] emitPositionRange;
+
+    /** Base velocity of new particles */
+    private final float[] emitVelocity;
+
+    /** Maximum random change to the velocity of new particles */
+    private final float[] emitVelocityRange;
+
+    /** Colour of new particles when there is no ramp */
+    private final float[] emitColor;
+
+    /** Base lifetime of new particles */
+    private float particleLifetime;
+
+    /** Maximum random change to the lifetime of new particles */
+    private float lifetimeRange;
+
+    /** Number of particles to emit each second */
+    private float emitRate;
+
+    /** Partial particles left over from the last frame */
+    private float emitRemainder;
+
+    /** Constant acceleration applied to all particles */
+    private final float[] acceleration;
+
+    /** Fraction of the velocity lost per second */
+    private float drag;
+
+    /** Key times of the colour ramp */
+    private float[] rampTimes;
+
+    /** RGBA colour for each key of the colour ramp */
+    private float[] rampColors;
+
+    /** Number of keys in the colour ramp */
+    private int numRampKeys;
+
+    /** Half width of each quad */
+    private float particleWidth;
+
+    /** Half height of each quad */
+    private float particleHeight;
+
+    /** Unit right axis of the quads */
+    private final float[] rightAxis;
+
+    /** Unit up axis of the quads */
+    private final float[] upAxis;
+
+    /** Source of randomness for the emitter */
+    private final Random random;
+
+    /**
+     * Task that updates a range of chunks, splitting itself in half until it
+     * has a single chunk.
+     */
+    private static class ChunkTask extends RecursiveAction
+    {
+        /** The system to update */
+        private final BillboardParticleSystem system;
+
+        /** Whether to simulate or write the quads */
+        private final int mode;
+
+        /** First chunk to update */
+        private final int first;
+
+        /** One past the last chunk to update */
+        private final int last;
+
+        /** Time step for the simulation */
+        private final float deltaTime;
+
+        ChunkTask(BillboardParticleSystem system,
+                  int mode,
+                  int first,
+                  int last,
+                  float deltaTime)
+        {
+            this.system = system;
+            this.mode = mode;
+            this.first = first;
+            this.last = last;
+            this.deltaTime = deltaTime;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(last - first == 1)
+            {
+                if(mode == SIMULATE)
+                    system.simulateChunk(first, deltaTime);
+                else
+                    system.writeChunk(first);
+
+                return;
+            }
+
+            int mid = (first + last) >>> 1;
+
+            ForkJoinTask.invokeAll(new ChunkTask(system, mode, first, mid, deltaTime),
+                                   new ChunkTask(system, mode, mid, last, deltaTime));
+        }
+    }
+
+    /**
+     * Create a new particle system that runs in the worker pool shared with
+     * the rest of the scene graph.
+     *
+     * @param name A name to register with this system. May be null.
+     * @param particleCount The maximum number of particles to create
+     * @param numColors The number of colour components to generate: 0, 3 or 4.
+     * @throws IllegalArgumentException The number of colour components was not
+     *    in the acceptable set of values.
+     */
+    public BillboardParticleSystem(String name,
+                                   int particleCount,
+                                   int numColors)
+    {
+        this(name, particleCount, numColors, SharedWorkerPool.getPool());
+    }
+
+    /**
+     * Create a new particle system that runs in the given pool.
+     *
+     * @param name A name to register with this system. May be null.
+     * @param particleCount The maximum number of particles to create
+     * @param numColors The number of colour components to generate: 0, 3 or 4.
+     * @param pool The pool to run the update tasks in
+     * @throws IllegalArgumentException The number of colour components was not
+     *    in the acceptable set of values.
+     */
+    public BillboardParticleSystem(String name,
+                                   int particleCount,
+                                   int numColors,
+                                   ForkJoinPool pool)
+    {
+        if(numColors != 0 && numColors != 3 && numColors != 4)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(COLOR_COMP_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+
+            NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+            Object[] msg_args = { new Float(numColors) };
+            Format[] fmts = { n_fmt };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            msg_fmt.setFormats(fmts);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        systemName = name;
+        maxParticleCount = particleCount;
+        this.numColors = numColors;
+        this.pool = pool;
+
+        posX = new float[particleCount];
+        posY = new float[particleCount];
+        posZ = new float[particleCount];
+        velX = new float[particleCount];
+        velY = new float[particleCount];
+        velZ = new float[particleCount];
+        age = new float[particleCount];
+        lifetime = new float[particleCount];
+
+        if(numColors != 0)
+        {
+            red = new float[particleCount];
+            green = new float[particleCount];
+            blue = new float[particleCount];
+            alpha = new float[particleCount];
+        }
+        else
+        {
+            red = null;
+            green = null;
+            blue = null;
+            alpha = null;
+        }
+
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        chunkBounds = new float[6];
+
+        emitPosition = new float[3];
+        emitPositionRange = new float[3];
+        emitVelocity = new float[3];
+        emitVelocityRange = new float[3];
+        emitColor = new float[] { 1, 1, 1, 1 };
+        acceleration = new float[3];
+
+        particleLifetime = 1;
+        particleWidth = 0.02f;
+        particleHeight = 0.02f;
+
+        rightAxis = new float[] { 1, 0, 0 };
+        upAxis = new float[] { 0, 1, 0 };
+
+        rampTimes = new float[0];
+        rampColors = new float[0];
+
+        random = new Random();
+
+        // The normals and texture coordinates never change, so fill them in
+        // for every possible quad now.
+        int num_verts = particleCount * 4;
+
+        vertexBuffer = createBuffer(num_verts * 3);
+        colorBuffer = numColors == 0 ? null : createBuffer(num_verts * numColors);
+
+        FloatBuffer normals = createBuffer(num_verts * 3);
+        FloatBuffer tex_coords = createBuffer(num_verts * 2);
+
+        for(int i = 0; i < num_verts; i++)
+        {
+            normals.put(0);
+            normals.put(0);
+            normals.put(1);
+        }
+
+        for(int i = 0; i < particleCount; i++)
+            tex_coords.put(QUAD_TEX_COORDS);
+
+        normals.rewind();
+        tex_coords.rewind();
+
+        particleBounds = new BoundingBox();
+
+        particleGeometry = new QuadArray();
+        particleGeometry.setVertices(QuadArray.COORDINATE_3, vertexBuffer, 0);
+        particleGeometry.setNormals(normals);
+        particleGeometry.setTextureCoordinates(TEX_TYPES, new FloatBuffer[] { tex_coords });
+        particleGeometry.setBounds(particleBounds);
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by NodeUpdateListener
+    //----------------------------------------------------------
+
+    /**
+     * Notification that its safe to update the node now with any operations
+     * that could potentially effect the node's bounds.
+     *
+     * @param src The node or Node Component that is to be updated.
+     */
+    @Override
+    public void updateNodeBoundsChanges(Object src)
+    {
+        int num_chunks = (particleCount + chunkSize - 1) / chunkSize;
+
+        if(num_chunks == 1)
+            writeChunk(0);
+        else if(num_chunks > 1)
+            pool.invoke(new ChunkTask(this, WRITE, 0, num_chunks, 0));
+
+        particleGeometry.setVertices(QuadArray.COORDINATE_3,
+                                     vertexBuffer,
+                                     particleCount * 4);
+        particleGeometry.setBounds(particleBounds);
+    }
+
+    /**
+     * Notification that its safe to update the node now with any operations
+     * that only change the node's properties, but do not change the bounds.
+     *
+     * @param src The node or Node Component that is to be updated.
+     */
+    @Override
+    public void updateNodeDataChanges(Object src)
+    {
+        particleGeometry.setColors(numColors == 4, colorBuffer);
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Get the scene graph object that represents this particle system and can
+     * be inserted into the scene graph.
+     *
+     * @return The geometry holding the particle quads
+     */
+    public Geometry getNode()
+    {
+        return particleGeometry;
+    }
+
+    /**
+     * Get the name this system was registered with.
+     *
+     * @return The name of the system, which may be null
+     */
+    public String getName()
+    {
+        return systemName;
+    }
+
+    /**
+     * Get the number of particles that are currently alive.
+     *
+     * @return A value between zero and the maximum particle count
+     */
+    public int getParticleCount()
+    {
+        return particleCount;
+    }
+
+    /**
+     * Get the maximum number of particles this system can hold.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getMaxParticleCount()
+    {
+        return maxParticleCount;
+    }
+
+    /**
+     * Set the number of particles that are updated by a single task. Systems
+     * with fewer particles than this are updated on the calling thread.
+     *
+     * @param size The number of particles, at least one
+     */
+    public void setChunkSize(int size)
+    {
+        chunkSize = size < 1 ? 1 : size;
+    }
+
+    /**
+     * Get the number of particles that are updated by a single task.
+     *
+     * @return A value greater than zero
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Set the box that new particles are emitted from.
+     *
+     * @param position The centre of the box
+     * @param range The half size of the box along each axis
+     */
+    public void setEmitterPosition(float[] position, float[] range)
+    {
+        emitPosition[0] = position[0];
+        emitPosition[1] = position[1];
+        emitPosition[2] = position[2];
+
+        emitPositionRange[0] = range[0];
+        emitPositionRange[1] = range[1];
+        emitPositionRange[2] = range[2];
+    }
+
+    /**
+     * Set the velocity that new particles start with.
+     *
+     * @param velocity The base velocity
+     * @param range The maximum random change along each axis
+     */
+    public void setEmitterVelocity(float[] velocity, float[] range)
+    {
+        emitVelocity[0] = velocity[0];
+        emitVelocity[1] = velocity[1];
+        emitVelocity[2] = velocity[2];
+
+        emitVelocityRange[0] = range[0];
+        emitVelocityRange[1] = range[1];
+        emitVelocityRange[2] = range[2];
+    }
+
+    /**
+     * Set the colour of new particles. Only used when there is no colour
+     * ramp. Three component systems ignore the alpha value.
+     *
+     * @param color The RGBA colour to use
+     */
+    public void setEmitterColor(float[] color)
+    {
+        emitColor[0] = color[0];
+        emitColor[1] = color[1];
+        emitColor[2] = color[2];
+        emitColor[3] = color[3];
+    }
+
+    /**
+     * Set how long new particles live for.
+     *
+     * @param time The base lifetime in seconds
+     * @param range The maximum random change to the lifetime
+     */
+    public void setLifetime(float time, float range)
+    {
+        particleLifetime = time;
+        lifetimeRange = range;
+    }
+
+    /**
+     * Set the number of particles emitted each second. Emission stops when
+     * the system is full.
+     *
+     * @param rate The number of particles per second
+     */
+    public void setEmissionRate(float rate)
+    {
+        emitRate = rate;
+    }
+
+    /**
+     * Set a constant acceleration, such as gravity, that applies to every
+     * particle.
+     *
+     * @param accel The acceleration along each axis
+     */
+    public void setAcceleration(float[] accel)
+    {
+        acceleration[0] = accel[0];
+        acceleration[1] = accel[1];
+        acceleration[2] = accel[2];
+    }
+
+    /**
+     * Set the fraction of velocity that is lost each second.
+     *
+     * @param amount A value between 0 and 1
+     */
+    public void setDrag(float amount)
+    {
+        drag = amount;
+    }
+
+    /**
+     * Set a ramp that sets the particle colour from its age. Colours are
+     * linearly interpolated between keys and clamped before the first and
+     * after the last. Use zero keys to turn the ramp off.
+     *
+     * @param times Age in seconds of each key, in increasing order
+     * @param colors RGBA colour of each key
+     * @param numKeys The number of keys to use from the arrays
+     */
+    public void setColorRamp(float[] times, float[] colors, int numKeys)
+    {
+        if(rampTimes.length < numKeys)
+        {
+            rampTimes = new float[numKeys];
+            rampColors = new float[numKeys * 4];
+        }
+
+        if(numKeys != 0)
+        {
+            System.arraycopy(times, 0, rampTimes, 0, numKeys);
+            System.arraycopy(colors, 0, rampColors, 0, numKeys * 4);
+        }
+
+        numRampKeys = numKeys;
+    }
+
+    /**
+     * Set the size of each quad. The quad extends this far either side of
+     * the particle position along each axis.
+     *
+     * @param width The half width of the quad in meters
+     * @param height The half height of the quad in meters
+     */
+    public void setParticleSize(float width, float height)
+    {
+        particleWidth = width;
+        particleHeight = height;
+    }
+
+    /**
+     * Set the axes that the quads are built from. To have the quads face
+     * the viewer, pass in the x and y axes of the view orientation each frame.
+     *
+     * @param right Unit vector for the width of the quads
+     * @param up Unit vector for the height of the quads
+     */
+    public void setBillboardAxes(float[] right, float[] up)
+    {
+        rightAxis[0] = right[0];
+        rightAxis[1] = right[1];
+        rightAxis[2] = right[2];
+
+        upAxis[0] = up[0];
+        upAxis[1] = up[1];
+        upAxis[2] = up[2];
+    }
+
+    /**
+     * Seed the random source of the emitter, so a run can be repeated.
+     *
+     * @param seed The seed value to use
+     */
+    public void setRandomSeed(long seed)
+    {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Emit a burst of particles now, on top of the normal emission rate.
+     * Emission stops when the system is full.
+     *
+     * @param count The number of particles to emit
+     * @return The number of particles actually emitted
+     */
+    public int emitParticles(int count)
+    {
+        int num = Math.min(count, maxParticleCount - particleCount);
+
+        for(int i = 0; i < num; i++)
+            emit(particleCount++);
+
+        return num;
+    }
+
+    /**
+     * Remove all the particles.
+     */
+    public void clear()
+    {
+        particleCount = 0;
+        emitRemainder = 0;
+    }
+
+    /**
+     * Move the simulation on by the given time and update the geometry.
+     * Should be called once per frame from the application update observer.
+     *
+     * @param deltaTime The time since the last update in seconds
+     */
+    public void update(float deltaTime)
+    {
+        removeDead();
+
+        emitRemainder += emitRate * deltaTime;
+        int to_emit = (int)emitRemainder;
+        emitRemainder -= to_emit;
+
+        emitParticles(to_emit);
+
+        int num_chunks = (particleCount + chunkSize - 1) / chunkSize;
+
+        if(chunkBounds.length < num_chunks * 6)
+            chunkBounds = new float[num_chunks * 6];
+
+        if(num_chunks == 1)
+            simulateChunk(0, deltaTime);
+        else if(num_chunks > 1)
+            pool.invoke(new ChunkTask(this, SIMULATE, 0, num_chunks, deltaTime));
+
+        updateBounds(num_chunks);
+
+        if(particleGeometry.isLive())
+        {
+            particleGeometry.boundsChanged(this);
+
+            if(colorBuffer != null)
+                particleGeometry.dataChanged(this);
+        }
+        else
+        {
+            updateNodeBoundsChanges(particleGeometry);
+
+            if(colorBuffer != null)
+                updateNodeDataChanges(particleGeometry);
+        }
+    }
+
+    /**
+     * Age, move and colour all the particles in one chunk, and record the
+     * bounds of their positions.
+     *
+     * @param chunk The index of the chunk to update
+     * @param dt The time step in seconds
+     */
+    void simulateChunk(int chunk, float dt)
+    {
+        int first = chunk * chunkSize;
+        int last = Math.min(first + chunkSize, particleCount);
+
+        float ax = acceleration[0] * dt;
+        float ay = acceleration[1] * dt;
+        float az = acceleration[2] * dt;
+        float damp = Math.max(0, 1 - drag * dt);
+
+        float min_x = Float.POSITIVE_INFINITY;
+        float min_y = Float.POSITIVE_INFINITY;
+        float min_z = Float.POSITIVE_INFINITY;
+        float max_x = Float.NEGATIVE_INFINITY;
+        float max_y = Float.NEGATIVE_INFINITY;
+        float max_z = Float.NEGATIVE_INFINITY;
+
+        for(int i = first; i < last; i++)
+        {
+            float vx = (velX[i] + ax) * damp;
+            float vy = (velY[i] + ay) * damp;
+            float vz = (velZ[i] + az) * damp;
+
+            float x = posX[i] + vx * dt;
+            float y = posY[i] + vy * dt;
+            float z = posZ[i] + vz * dt;
+
+            velX[i] = vx;
+            velY[i] = vy;
+            velZ[i] = vz;
+
+            posX[i] = x;
+            posY[i] = y;
+            posZ[i] = z;
+
+            age[i] += dt;
+
+            if(x < min_x)
+                min_x = x;
+            if(x > max_x)
+                max_x = x;
+            if(y < min_y)
+                min_y = y;
+            if(y > max_y)
+                max_y = y;
+            if(z < min_z)
+                min_z = z;
+            if(z > max_z)
+                max_z = z;
+        }
+
+        if(red != null && numRampKeys != 0)
+        {
+            for(int i = first; i < last; i++)
+                applyRamp(i);
+        }
+
+        int b = chunk * 6;
+        chunkBounds[b] = min_x;
+        chunkBounds[b + 1] = min_y;
+        chunkBounds[b + 2] = min_z;
+        chunkBounds[b + 3] = max_x;
+        chunkBounds[b + 4] = max_y;
+        chunkBounds[b + 5] = max_z;
+    }
+
+    /**
+     * Write the quads and colours of all the particles in one chunk into the
+     * geometry buffers. Values are built up a block at a time in a scratch
+     * array and bulk copied in, as that is far quicker than putting single
+     * values into a direct buffer.
+     *
+     * @param chunk The index of the chunk to write
+     */
+    void writeChunk(int chunk)
+    {
+        int first = chunk * chunkSize;
+        int last = Math.min(first + chunkSize, particleCount);
+
+        float rx = rightAxis[0] * particleWidth;
+        float ry = rightAxis[1] * particleWidth;
+        float rz = rightAxis[2] * particleWidth;
+        float ux = upAxis[0] * particleHeight;
+        float uy = upAxis[1] * particleHeight;
+        float uz = upAxis[2] * particleHeight;
+
+        // Corner offsets in the same order as QuadParticle
+        float c1x = rx - ux;
+        float c1y = ry - uy;
+        float c1z = rz - uz;
+        float c2x = rx + ux;
+        float c2y = ry + uy;
+        float c2z = rz + uz;
+
+        float[] scratch = WRITE_SCRATCH.get();
+
+        FloatBuffer verts = vertexBuffer.duplicate();
+        verts.position(first * 12);
+
+        for(int block = first; block < last; block += WRITE_BLOCK_SIZE)
+        {
+            int block_end = Math.min(block + WRITE_BLOCK_SIZE, last);
+            int v = 0;
+
+            for(int i = block; i < block_end; i++)
+            {
+                float x = posX[i];
+                float y = posY[i];
+                float z = posZ[i];
+
+                scratch[v] = x + c1x;
+                scratch[v + 1] = y + c1y;
+                scratch[v + 2] = z + c1z;
+
+                scratch[v + 3] = x + c2x;
+                scratch[v + 4] = y + c2y;
+                scratch[v + 5] = z + c2z;
+
+                scratch[v + 6] = x - c1x;
+                scratch[v + 7] = y - c1y;
+                scratch[v + 8] = z - c1z;
+
+                scratch[v + 9] = x - c2x;
+                scratch[v + 10] = y - c2y;
+                scratch[v + 11] = z - c2z;
+
+                v += 12;
+            }
+
+            verts.put(scratch, 0, v);
+        }
+
+        if(colorBuffer == null)
+            return;
+
+        FloatBuffer cols = colorBuffer.duplicate();
+        cols.position(first * 4 * numColors);
+
+        for(int block = first; block < last; block += WRITE_BLOCK_SIZE)
+        {
+            int block_end = Math.min(block + WRITE_BLOCK_SIZE, last);
+            int c = 0;
+
+            if(numColors == 4)
+            {
+                for(int i = block; i < block_end; i++)
+                {
+                    float r = red[i];
+                    float g = green[i];
+                    float b = blue[i];
+                    float a = alpha[i];
+
+                    for(int k = 0; k < 4; k++)
+                    {
+                        scratch[c] = r;
+                        scratch[c + 1] = g;
+                        scratch[c + 2] = b;
+                        scratch[c + 3] = a;
+                        c += 4;
+                    }
+                }
+            }
+            else
+            {
+                for(int i = block; i < block_end; i++)
+                {
+                    float r = red[i];
+                    float g = green[i];
+                    float b = blue[i];
+
+                    for(int k = 0; k < 4; k++)
+                    {
+                        scratch[c] = r;
+                        scratch[c + 1] = g;
+                        scratch[c + 2] = b;
+                        c += 3;
+                    }
+                }
+            }
+
+            cols.put(scratch, 0, c);
+        }
+    }
+
+    /**
+     * Get the X position of a live particle.
+     *
+     * @param index The index of the particle
+     * @return The current position value
+     */
+    float getPositionX(int index)
+    {
+        return posX[index];
+    }
+
+    /**
+     * Get the age of a live particle.
+     *
+     * @param index The index of the particle
+     * @return The current age in seconds
+     */
+    float getAge(int index)
+    {
+        return age[index];
+    }
+
+    /**
+     * Merge the chunk bounds and grow them by the quad size.
+     *
+     * @param numChunks The number of chunks that were updated
+     */
+    private void updateBounds(int numChunks)
+    {
+        if(numChunks == 0)
+        {
+            particleBounds.setMinimum(emitPosition[0], emitPosition[1], emitPosition[2]);
+            particleBounds.setMaximum(emitPosition[0], emitPosition[1], emitPosition[2]);
+            return;
+        }
+
+        float min_x = chunkBounds[0];
+        float min_y = chunkBounds[1];
+        float min_z = chunkBounds[2];
+        float max_x = chunkBounds[3];
+        float max_y = chunkBounds[4];
+        float max_z = chunkBounds[5];
+
+        for(int i = 1; i < numChunks; i++)
+        {
+            int b = i * 6;
+
+            min_x = Math.min(min_x, chunkBounds[b]);
+            min_y = Math.min(min_y, chunkBounds[b + 1]);
+            min_z = Math.min(min_z, chunkBounds[b + 2]);
+            max_x = Math.max(max_x, chunkBounds[b + 3]);
+            max_y = Math.max(max_y, chunkBounds[b + 4]);
+            max_z = Math.max(max_z, chunkBounds[b + 5]);
+        }
+
+        // Each corner is at most this far from the particle position
+        float ex = Math.abs(rightAxis[0] * particleWidth) + Math.abs(upAxis[0] * particleHeight);
+        float ey = Math.abs(rightAxis[1] * particleWidth) + Math.abs(upAxis[1] * particleHeight);
+        float ez = Math.abs(rightAxis[2] * particleWidth) + Math.abs(upAxis[2] * particleHeight);
+
+        particleBounds.setMinimum(min_x - ex, min_y - ey, min_z - ez);
+        particleBounds.setMaximum(max_x + ex, max_y + ey, max_z + ez);
+    }
+
+    /**
+     * Remove all particles that have reached their lifetime by moving the
+     * last live particle into their place.
+     */
+    private void removeDead()
+    {
+        int i = 0;
+
+        while(i < particleCount)
+        {
+            if(age[i] < lifetime[i])
+            {
+                i++;
+                continue;
+            }
+
+            int last = --particleCount;
+
+            posX[i] = posX[last];
+            posY[i] = posY[last];
+            posZ[i] = posZ[last];
+            velX[i] = velX[last];
+            velY[i] = velY[last];
+            velZ[i] = velZ[last];
+            age[i] = age[last];
+            lifetime[i] = lifetime[last];
+
+            if(red != null)
+            {
+                red[i] = red[last];
+                green[i] = green[last];
+                blue[i] = blue[last];
+                alpha[i] = alpha[last];
+            }
+        }
+    }
+
+    /**
+     * Initialise a new particle at the given index from the emitter.
+     *
+     * @param i The index of the particle to set up
+     */
+    private void emit(int i)
+    {
+        posX[i] = emitPosition[0] + emitPositionRange[0] * (random.nextFloat() * 2 - 1);
+        posY[i] = emitPosition[1] + emitPositionRange[1] * (random.nextFloat() * 2 - 1);
+        posZ[i] = emitPosition[2] + emitPositionRange[2] * (random.nextFloat() * 2 - 1);
+
+        velX[i] = emitVelocity[0] + emitVelocityRange[0] * (random.nextFloat() * 2 - 1);
+        velY[i] = emitVelocity[1] + emitVelocityRange[1] * (random.nextFloat() * 2 - 1);
+        velZ[i] = emitVelocity[2] + emitVelocityRange[2] * (random.nextFloat() * 2 - 1);
+
+        age[i] = 0;
+        lifetime[i] = particleLifetime + lifetimeRange * (random.nextFloat() * 2 - 1);
+
+        if(red != null)
+        {
+            if(numRampKeys != 0)
+                applyRamp(i);
+            else
+            {
+                red[i] = emitColor[0];
+                green[i] = emitColor[1];
+                blue[i] = emitColor[2];
+                alpha[i] = emitColor[3];
+            }
+        }
+    }
+
+    /**
+     * Set the colour of a particle from the colour ramp using its age.
+     *
+     * @param i The index of the particle to colour
+     */
+    private void applyRamp(int i)
+    {
+        float t = age[i];
+        int key = 0;
+
+        while(key < numRampKeys && rampTimes[key] <= t)
+            key++;
+
+        int c;
+
+        if(key == 0 || key == numRampKeys)
+        {
+            c = (key == 0 ? 0 : numRampKeys - 1) * 4;
+
+            red[i] = rampColors[c];
+            green[i] = rampColors[c + 1];
+            blue[i] = rampColors[c + 2];
+            alpha[i] = rampColors[c + 3];
+        }
+        else
+        {
+            float t0 = rampTimes[key - 1];
+            float frac = (t - t0) / (rampTimes[key] - t0);
+            c = (key - 1) * 4;
+
+            red[i] = rampColors[c] + (rampColors[c + 4] - rampColors[c]) * frac;
+            green[i] = rampColors[c + 1] + (rampColors[c + 5] - rampColors[c + 1]) * frac;
+            blue[i] = rampColors[c + 2] + (rampColors[c + 6] - rampColors[c + 2]) * frac;
+            alpha[i] = rampColors[c + 3] + (rampColors[c + 7] - rampColors[c + 3]) * frac;
+        }
+    }
+
+    /**
+     * Convenience method to allocate a NIO buffer for the vertex handling that
+     * handles floats.
+     *
+     * @param size The number of floats to have in the array
+     */
+    private static FloatBuffer createBuffer(int size)
+    {
+        // Need to allocate a byte buffer 4 times the size requested because the
+        // size is treated as bytes, not number of floats.
+        ByteBuffer buf = ByteBuffer.allocateDirect(size * 4);
+        buf.order(ByteOrder.nativeOrder());
+
+        return buf.asFloatBuffer();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.terrain;
+
+// External imports
+// None
+
+// Local imports
+// None
+
+/**
+ * Height field source that wraps an in-memory array of heights.
+ * <p>
+ *
+ * The array is in [row][column] order with row 0 at the southern edge, the
+ * same layout that the height map parsers produce for a
+ * {@link org.j3d.loaders.HeightMapSourceOrigin#BOTTOM_LEFT} origin. The
+ * array is referenced, not copied.
+ */
+public class ArrayHeightField implements HeightFieldSource
+{
+    /** The heights in [row][column] order */
+    private final float[][] heights;
+
+    /** Distance between columns */
+    private final float columnSpacing;
+
+    /** Distance between rows */
+    private final float rowSpacing;
+
+    /**
+     * Create a new source for the given heights.
+     *
+     * @param heights The heights in [row][column] order
+     * @param columnSpacing The distance between two columns
+     * @param rowSpacing The distance between two rows
+     */
+    public ArrayHeightField(float[][] heights,
+                            float columnSpacing,
+                            float rowSpacing)
+    {
+        this.heights = heights;
+        this.columnSpacing = columnSpacing;
+        this.rowSpacing = rowSpacing;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by HeightFieldSource
+    //---------------------------------------------------------------
+
+    @Override
+    public int getNumColumns()
+    {
+        return heights[0].length;
+    }
+
+    @Override
+    public int getNumRows()
+    {
+        return heights.length;
+    }
+
+    @Override
+    public float getColumnSpacing()
+    {
+        return columnSpacing;
+    }
+
+    @Override
+    public float getRowSpacing()
+    {
+        return rowSpacing;
+    }
+
+    @Override
+    public float getHeight(int column, int row)
+    {
+        return heights[row][column];
+    }
+}
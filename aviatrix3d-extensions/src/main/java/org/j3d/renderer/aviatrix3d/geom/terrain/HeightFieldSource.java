@@ -0,0 +1,74 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.terrain;
+
+// External imports
+// None
+
+// Local imports
+// None
+
+/**
+ * Random access to the samples of a regular grid of heights.
+ * <p>
+ *
+ * The grid is addressed by column and row. Column 0 is the western edge and
+ * row 0 is the southern edge, so sample (0, 0) is the south west corner.
+ * Implementations are free to hold the data however they like, such as a
+ * memory mapped file, so callers should not assume that fetching a height
+ * is as cheap as an array lookup, but it must not allocate.
+ * <p>
+ *
+ * Implementations must allow concurrent reads.
+ */
+public interface HeightFieldSource
+{
+    /**
+     * Get the number of samples in the east-west direction.
+     *
+     * @return A value of at least 2
+     */
+    public int getNumColumns();
+
+    /**
+     * Get the number of samples in the north-south direction.
+     *
+     * @return A value of at least 2
+     */
+    public int getNumRows();
+
+    /**
+     * Get the distance between two neighbouring columns.
+     *
+     * @return A positive distance
+     */
+    public float getColumnSpacing();
+
+    /**
+     * Get the distance between two neighbouring rows.
+     *
+     * @return A positive distance
+     */
+    public float getRowSpacing();
+
+    /**
+     * Get the height of a single sample.
+     *
+     * @param column The column of the sample, [0, getNumColumns())
+     * @param row The row of the sample, [0, getNumRows())
+     * @return The height at that sample
+     */
+    public float getHeight(int column, int row);
+}
@@ -0,0 +1,1042 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.terrain;
+
+// External imports
+import java.text.MessageFormat;
+import java.util.Locale;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.*;
+import org.j3d.aviatrix3d.rendering.Cullable;
+import org.j3d.aviatrix3d.rendering.CullInstructions;
+import org.j3d.aviatrix3d.rendering.CustomCullable;
+
+/**
+ * A terrain node that splits a height field into square tiles, keeps a
+ * quadtree of their bounds, and only builds the geometry of a tile the
+ * first time it is found to be visible.
+ * <p>
+ *
+ * The tile bounds are worked out once, when the node is created, by
+ * scanning the heights. After that the only heights read are those of tiles
+ * that are culled in. Built tiles are kept in a least recently used cache.
+ * When the memory used by the cached geometry goes over the budget set with
+ * {@link #setMemoryBudget(long)}, the tiles that have not been seen for the
+ * longest are thrown away, to be rebuilt if they come back into view. A tile
+ * is never thrown away within {@link #MIN_KEEP_PASSES} cull passes of being
+ * seen, so that frames still in the rendering pipeline do not lose their
+ * geometry. This means the budget can be exceeded for a short time when a
+ * lot of the terrain is visible at once. For the same reason, changing the
+ * appearance only marks the built tiles as stale. A stale tile is rebuilt
+ * the next time it is visible, with the old geometry held until it is
+ * {@link #MIN_KEEP_PASSES} passes old, and stale tiles that are not seen
+ * again are thrown away as soon as they are that old.
+ * <p>
+ *
+ * The terrain lies in the X-Z plane with heights along +Y. Column 0, row 0
+ * of the source is at the origin, columns increase along +X and rows
+ * increase along -Z, so north is -Z. Texture coordinates run from 0 to 1
+ * over the whole terrain rather than over each tile, and the normals are
+ * taken from the neighbouring samples across tile edges, so there are no
+ * seams between tiles.
+ * <p>
+ *
+ * The tile geometry is generated inside the cull stage, so the height
+ * source must be safe to read from the culling threads. The tile geometry
+ * is private to this node and is not available for picking.
+ */
+public class TiledTerrain extends BaseNode
+    implements CustomCullable
+{
+    /** Error message when the tile size is less than one */
+    private static final String TILE_SIZE_PROP =
+        "org.j3d.renderer.aviatrix3d.geom.terrain.TiledTerrain.tileSizeMsg";
+
+    /** Error message when the memory budget is negative */
+    private static final String NEG_BUDGET_PROP =
+        "org.j3d.renderer.aviatrix3d.geom.terrain.TiledTerrain.negBudgetMsg";
+
+    /**
+     * The number of cull passes that a tile is kept for after it was last
+     * visible, regardless of the memory budget.
+     */
+    public static final int MIN_KEEP_PASSES = 3;
+
+    /** The default memory budget for the tile geometry, 64MB */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /** Index used to mark no tree node or no tile */
+    private static final int NULL_INDEX = -1;
+
+    /** Bitmask with a bit set for each of the 6 frustum planes */
+    private static final int ALL_PLANES = 0x3F;
+
+    /** Number of floats of vertex data per vertex: coord, normal, texture */
+    private static final int FLOATS_PER_VERTEX = 8;
+
+    /** The source of the heights */
+    private final HeightFieldSource source;
+
+    /** Number of grid cells along each side of a tile */
+    private final int tileSize;
+
+    /** Number of tiles in the east-west direction */
+    private final int numTilesX;
+
+    /** Number of tiles in the north-south direction */
+    private final int numTilesZ;
+
+    /** Min and max extents of each tree node, 6 values per node */
+    private float[] nodeBounds;
+
+    /** Up to 4 children of each tree node, NULL_INDEX when not used */
+    private int[] nodeChildren;
+
+    /** The tile held by each leaf tree node, NULL_INDEX for other nodes */
+    private int[] nodeTile;
+
+    /** Number of tree nodes in use */
+    private int numNodes;
+
+    /** The built geometry of each tile, or null if not cached */
+    private Shape3D[] tileShapes;
+
+    /** The cull pass in which each tile was last visible */
+    private int[] tileLastPass;
+
+    /** Set for cached tiles that were built with an older appearance */
+    private boolean[] tileStale;
+
+    /** Replaced tile shapes that may still be in the rendering pipeline */
+    private Shape3D[] retiredShapes;
+
+    /** The tile that each retired shape was built for */
+    private int[] retiredTiles;
+
+    /** The cull pass in which each retired shape was last visible */
+    private int[] retiredLastPass;
+
+    /** Number of retired shapes waiting to be released */
+    private int numRetired;
+
+    /** Previous, more recently used, tile in the cache list */
+    private int[] tilePrev;
+
+    /** Next, less recently used, tile in the cache list */
+    private int[] tileNext;
+
+    /** The most recently used cached tile */
+    private int lruHead;
+
+    /** The least recently used cached tile */
+    private int lruTail;
+
+    /** Number of tiles currently cached */
+    private int numCachedTiles;
+
+    /** Estimated number of bytes used by the cached tiles */
+    private long cachedMemory;
+
+    /** The number of bytes that the cache tries to stay under */
+    private long memoryBudget;
+
+    /** Counter of the cull passes made over this node */
+    private int cullPass;
+
+    /** The appearance given to every tile */
+    private Appearance appearance;
+
+    /** Frustum planes in the local coordinate space, 4 values per plane */
+    private double[] localPlanes;
+
+    /** Working array for the coordinates of the tile being built */
+    private float[] wkCoords;
+
+    /** Working array for the normals of the tile being built */
+    private float[] wkNormals;
+
+    /** Working array for the texture coordinates of the tile being built */
+    private float[][] wkTexCoords;
+
+    /** Working array for the indices of the tile being built */
+    private int[] wkIndices;
+
+    /** Working array for the strip counts of the tile being built */
+    private int[] wkStripCounts;
+
+    /** The texture type of the single texture set */
+    private int[] wkTexTypes;
+
+    /**
+     * Create a new terrain over the given height source. A tile covers
+     * tileSize by tileSize grid cells, so it has (tileSize + 1) squared
+     * vertices. Tiles of up to 255 cells a side can use 16 bit indices.
+     *
+     * @param source The source of the heights
+     * @param tileSize The number of grid cells along each side of a tile
+     * @throws IllegalArgumentException The tile size is less than 1
+     */
+    public TiledTerrain(HeightFieldSource source, int tileSize)
+    {
+        if(tileSize < 1)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(TILE_SIZE_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+            Object[] msg_args = { tileSize };
+            MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.source = source;
+        this.tileSize = tileSize;
+
+        numTilesX = (source.getNumColumns() - 2) / tileSize + 1;
+        numTilesZ = (source.getNumRows() - 2) / tileSize + 1;
+
+        int num_tiles = numTilesX * numTilesZ;
+
+        tileShapes = new Shape3D[num_tiles];
+        tileLastPass = new int[num_tiles];
+        tileStale = new boolean[num_tiles];
+        tilePrev = new int[num_tiles];
+        tileNext = new int[num_tiles];
+
+        lruHead = NULL_INDEX;
+        lruTail = NULL_INDEX;
+
+        memoryBudget = DEFAULT_MEMORY_BUDGET;
+        localPlanes = new double[24];
+
+        // Every inner node of the tree has at least 2 children, so there
+        // can never be more than twice as many nodes as there are tiles.
+        int max_nodes = num_tiles * 2;
+        nodeBounds = new float[max_nodes * 6];
+        nodeChildren = new int[max_nodes * 4];
+        nodeTile = new int[max_nodes];
+
+        buildNode(0, 0, numTilesX, numTilesZ);
+
+        recomputeBounds();
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by CustomCullable
+    //----------------------------------------------------------
+
+    /**
+     * Check this node for children to traverse. The angular resolution is
+     * defined as Field Of View (in radians) / viewport width in pixels.
+     * Tiles that are visible for the first time have their geometry built
+     * here, and tiles over the memory budget are evicted once the pass is
+     * complete.
+     *
+     * @param output Fill in the child information here
+     * @param vworldTx The transformation from the root of the scene to
+     *    this node according to the current traversal path
+     * @param viewTransform The transformation from the root of the scene
+     *    graph to the active viewpoint
+     * @param frustumPlanes Listing of frustum planes in the order: right,
+     *    left, bottom, top, far, near
+     * @param angularRes Angular resolution of the screen, or 0 if not
+     *    calculable from the available data.
+     */
+    @Override
+    public synchronized void cullChildren(CullInstructions output,
+                                          Matrix4d vworldTx,
+                                          Matrix4d viewTransform,
+                                          Vector4d[] frustumPlanes,
+                                          float angularRes)
+    {
+        output.hasTransform = false;
+        output.numChildren = 0;
+
+        if(output.children == null || output.children.length < tileShapes.length)
+            output.resizeChildren(tileShapes.length);
+
+        cullPass++;
+
+        // Take the planes into local space once, rather than taking
+        // every box out into world space.
+        for(int i = 0; i < 6; i++)
+        {
+            Vector4d p = frustumPlanes[i];
+            int idx = i * 4;
+
+            localPlanes[idx] =
+                p.x * vworldTx.m00 + p.y * vworldTx.m10 + p.z * vworldTx.m20;
+            localPlanes[idx + 1] =
+                p.x * vworldTx.m01 + p.y * vworldTx.m11 + p.z * vworldTx.m21;
+            localPlanes[idx + 2] =
+                p.x * vworldTx.m02 + p.y * vworldTx.m12 + p.z * vworldTx.m22;
+            localPlanes[idx + 3] =
+                p.x * vworldTx.m03 + p.y * vworldTx.m13 + p.z * vworldTx.m23 +
+                p.w;
+        }
+
+        output.numChildren = cullNode(0, ALL_PLANES, output.children, 0);
+
+        evictTiles();
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by Node
+    //----------------------------------------------------------
+
+    /**
+     * Internal method to recalculate the implicit bounds of this Node. The
+     * bounds are those of the root of the tile tree, which do not change.
+     */
+    @Override
+    protected void recomputeBounds()
+    {
+        if(!implicitBounds)
+            return;
+
+        if((bounds instanceof BoundingVoid) || (bounds == null))
+            bounds = new BoundingBox();
+
+        BoundingBox bbox = (BoundingBox)bounds;
+        bbox.setMinimum(nodeBounds[0], nodeBounds[1], nodeBounds[2]);
+        bbox.setMaximum(nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+    }
+
+    /**
+     * Request a recomputation of the bounds of this object. If this object is
+     * not currently live, you can request a recompute of the bounds to get the
+     * most current values. If this node is currently live, then the request is
+     * ignored.
+     */
+    @Override
+    public void requestBoundsUpdate()
+    {
+        if(alive || !implicitBounds)
+            return;
+
+        recomputeBounds();
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by SceneGraphObject
+    //----------------------------------------------------------
+
+    /**
+     * Set the scenegraph update handler for this node.  It will notify
+     * all the cached tiles of the value. A null value will clear the current
+     * handler.
+     *
+     * @param handler The instance to use as a handler
+     */
+    @Override
+    protected void setUpdateHandler(NodeUpdateHandler handler)
+    {
+        super.setUpdateHandler(handler);
+
+        for(int t = lruHead; t != NULL_INDEX; t = tileNext[t])
+            setUpdateHandler(tileShapes[t]);
+
+        for(int i = 0; i < numRetired; i++)
+            setUpdateHandler(retiredShapes[i]);
+    }
+
+    /**
+     * Notification that this object is live now.
+     */
+    @Override
+    protected void setLive(boolean state)
+    {
+        // Ignore stuff that doesn't change the state
+        if(state == alive)
+            return;
+
+        for(int t = lruHead; t != NULL_INDEX; t = tileNext[t])
+            setLive(tileShapes[t], state);
+
+        for(int i = 0; i < numRetired; i++)
+            setLive(retiredShapes[i], state);
+
+        super.setLive(state);
+    }
+
+    //----------------------------------------------------------
+    // Local Methods
+    //----------------------------------------------------------
+
+    /**
+     * Set the appearance to use for every tile. Any tiles already built are
+     * marked as stale so that they are rebuilt with the new appearance the
+     * next time they are visible. Stale tiles that are not seen again are
+     * thrown away once they are {@link #MIN_KEEP_PASSES} passes old. A null
+     * value clears the appearance.
+     *
+     * @param app The appearance to use, or null
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener data changed callback method
+     */
+    public void setAppearance(Appearance app)
+        throws InvalidWriteTimingException
+    {
+        if(isLive() && updateHandler != null &&
+           !updateHandler.isDataWritePermitted(this))
+            throw new InvalidWriteTimingException(getDataWriteTimingMessage());
+
+        synchronized(this)
+        {
+            appearance = app;
+
+            // Frames still in the pipeline may be using the current
+            // geometry, so leave it to the normal ageing to remove.
+            for(int t = lruHead; t != NULL_INDEX; t = tileNext[t])
+                tileStale[t] = true;
+        }
+    }
+
+    /**
+     * Get the appearance used for every tile.
+     *
+     * @return The current appearance, or null if not set
+     */
+    public Appearance getAppearance()
+    {
+        return appearance;
+    }
+
+    /**
+     * Set the number of bytes that the cache of built tiles should try to
+     * stay under. The change is applied at the end of the next cull pass.
+     * A value of zero keeps only the tiles that have been visible in the
+     * last few passes.
+     *
+     * @param bytes The memory budget in bytes
+     * @throws IllegalArgumentException The budget is negative
+     */
+    public void setMemoryBudget(long bytes)
+    {
+        if(bytes < 0)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(NEG_BUDGET_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+            Object[] msg_args = { bytes };
+            MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Get the number of bytes that the cache of built tiles tries to stay
+     * under.
+     *
+     * @return The memory budget in bytes
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Get an estimate of the number of bytes used by the geometry of the
+     * tiles that are currently built. This includes any stale geometry
+     * that has been replaced but not yet released.
+     *
+     * @return A number of bytes >= 0
+     */
+    public synchronized long getCachedMemory()
+    {
+        return cachedMemory;
+    }
+
+    /**
+     * Get the number of tiles that currently have their geometry built.
+     *
+     * @return A number between 0 and getNumTiles()
+     */
+    public synchronized int getNumCachedTiles()
+    {
+        return numCachedTiles;
+    }
+
+    /**
+     * Get the total number of tiles the terrain is split into.
+     *
+     * @return A number of tiles > 0
+     */
+    public int getNumTiles()
+    {
+        return tileShapes.length;
+    }
+
+    /**
+     * Get the number of grid cells along each side of a tile.
+     *
+     * @return A value of at least 1
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Get the source of the heights that this terrain was built from.
+     *
+     * @return The height field source
+     */
+    public HeightFieldSource getHeightFieldSource()
+    {
+        return source;
+    }
+
+    /**
+     * Recursively test a branch of the tile tree against the local frustum
+     * planes, building the geometry of any visible tile that is not cached.
+     * Planes that a node is entirely inside of are not tested again for the
+     * nodes below it.
+     *
+     * @param node The tree node to start from
+     * @param planeMask Bitmask of the planes that still need testing
+     * @param kids The array to place the visible tiles in
+     * @param count The number of tiles already in the array
+     * @return The new number of tiles in the array
+     */
+    private int cullNode(int node, int planeMask, Cullable[] kids, int count)
+    {
+        int idx = node * 6;
+
+        double c_x = (nodeBounds[idx] + nodeBounds[idx + 3]) * 0.5;
+        double c_y = (nodeBounds[idx + 1] + nodeBounds[idx + 4]) * 0.5;
+        double c_z = (nodeBounds[idx + 2] + nodeBounds[idx + 5]) * 0.5;
+
+        double h_x = (nodeBounds[idx + 3] - nodeBounds[idx]) * 0.5;
+        double h_y = (nodeBounds[idx + 4] - nodeBounds[idx + 1]) * 0.5;
+        double h_z = (nodeBounds[idx + 5] - nodeBounds[idx + 2]) * 0.5;
+
+        int child_mask = 0;
+
+        for(int p = 0; p < 6; p++)
+        {
+            if((planeMask & (1 << p)) == 0)
+                continue;
+
+            int p_idx = p * 4;
+            double p_x = localPlanes[p_idx];
+            double p_y = localPlanes[p_idx + 1];
+            double p_z = localPlanes[p_idx + 2];
+
+            double dist = p_x * c_x + p_y * c_y + p_z * c_z + localPlanes[p_idx + 3];
+            double radius = Math.abs(p_x) * h_x + Math.abs(p_y) * h_y +
+                            Math.abs(p_z) * h_z;
+
+            if(dist + radius <= 0)
+                return count;
+
+            if(dist - radius <= 0)
+                child_mask |= (1 << p);
+        }
+
+        int tile = nodeTile[node];
+
+        if(tile != NULL_INDEX)
+        {
+            kids[count++] = fetchTile(tile);
+            return count;
+        }
+
+        int c_idx = node * 4;
+
+        for(int i = 0; i < 4; i++)
+        {
+            int child = nodeChildren[c_idx + i];
+
+            if(child != NULL_INDEX)
+                count = cullNode(child, child_mask, kids, count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Fetch the geometry of a tile that has just been found visible,
+     * building it if needed, and move it to the front of the cache. Stale
+     * tiles are rebuilt, with the old geometry held back until it is too
+     * old to still be in the pipeline.
+     *
+     * @param tile The index of the tile
+     * @return The shape holding the tile geometry
+     */
+    private Shape3D fetchTile(int tile)
+    {
+        Shape3D shape = tileShapes[tile];
+
+        if(shape != null)
+        {
+            unlinkTile(tile);
+
+            if(tileStale[tile])
+            {
+                retireTile(tile);
+                shape = null;
+            }
+        }
+
+        if(shape == null)
+        {
+            shape = buildTile(tile);
+
+            tileShapes[tile] = shape;
+            tileStale[tile] = false;
+            numCachedTiles++;
+            cachedMemory += tileMemory(tile);
+
+            setParent(shape, this);
+            setLive(shape, alive);
+            setUpdateHandler(shape);
+        }
+
+        // Link in at the head of the list
+        tilePrev[tile] = NULL_INDEX;
+        tileNext[tile] = lruHead;
+
+        if(lruHead != NULL_INDEX)
+            tilePrev[lruHead] = tile;
+        else
+            lruTail = tile;
+
+        lruHead = tile;
+        tileLastPass[tile] = cullPass;
+
+        return shape;
+    }
+
+    /**
+     * Release retired geometry and throw away stale tiles once they are old
+     * enough, then throw away the least recently used tiles until the cache
+     * is back under the memory budget, or the remaining tiles are too recent
+     * to be thrown away.
+     */
+    private void evictTiles()
+    {
+        int oldest_pass = cullPass - MIN_KEEP_PASSES;
+
+        int kept = 0;
+
+        for(int i = 0; i < numRetired; i++)
+        {
+            if(retiredLastPass[i] <= oldest_pass)
+            {
+                cachedMemory -= tileMemory(retiredTiles[i]);
+                releaseShape(retiredShapes[i]);
+            }
+            else
+            {
+                retiredShapes[kept] = retiredShapes[i];
+                retiredTiles[kept] = retiredTiles[i];
+                retiredLastPass[kept] = retiredLastPass[i];
+                kept++;
+            }
+        }
+
+        for(int i = kept; i < numRetired; i++)
+            retiredShapes[i] = null;
+
+        numRetired = kept;
+
+        // The list is in order of the last visible pass, so everything from
+        // here to the tail is old enough to go.
+        int tile = lruTail;
+
+        while(tile != NULL_INDEX && tileLastPass[tile] <= oldest_pass)
+        {
+            int prev = tilePrev[tile];
+
+            if(tileStale[tile] || cachedMemory > memoryBudget)
+                evictTile(tile);
+
+            tile = prev;
+        }
+    }
+
+    /**
+     * Throw away the geometry of a single cached tile.
+     *
+     * @param tile The index of the tile
+     */
+    private void evictTile(int tile)
+    {
+        Shape3D shape = tileShapes[tile];
+
+        unlinkTile(tile);
+
+        tileShapes[tile] = null;
+        tileStale[tile] = false;
+        numCachedTiles--;
+        cachedMemory -= tileMemory(tile);
+
+        releaseShape(shape);
+    }
+
+    /**
+     * Move the geometry of a stale tile, which has already been removed from
+     * the cache list, to the retired list. Its memory stays counted until it
+     * is released.
+     *
+     * @param tile The index of the tile
+     */
+    private void retireTile(int tile)
+    {
+        if(retiredShapes == null)
+        {
+            retiredShapes = new Shape3D[8];
+            retiredTiles = new int[8];
+            retiredLastPass = new int[8];
+        }
+        else if(numRetired == retiredShapes.length)
+        {
+            int size = numRetired * 2;
+
+            Shape3D[] tmp_shapes = new Shape3D[size];
+            System.arraycopy(retiredShapes, 0, tmp_shapes, 0, numRetired);
+            retiredShapes = tmp_shapes;
+
+            int[] tmp = new int[size];
+            System.arraycopy(retiredTiles, 0, tmp, 0, numRetired);
+            retiredTiles = tmp;
+
+            tmp = new int[size];
+            System.arraycopy(retiredLastPass, 0, tmp, 0, numRetired);
+            retiredLastPass = tmp;
+        }
+
+        retiredShapes[numRetired] = tileShapes[tile];
+        retiredTiles[numRetired] = tile;
+        retiredLastPass[numRetired] = tileLastPass[tile];
+        numRetired++;
+
+        tileShapes[tile] = null;
+        tileStale[tile] = false;
+        numCachedTiles--;
+    }
+
+    /**
+     * Detach a shape that is no longer used from this node.
+     *
+     * @param shape The shape to release
+     */
+    private void releaseShape(Shape3D shape)
+    {
+        setParent(shape, null);
+        setLive(shape, false);
+        clearUpdateHandler(shape);
+    }
+
+    /**
+     * Remove a tile from the cache list, leaving its geometry alone.
+     *
+     * @param tile The index of the tile
+     */
+    private void unlinkTile(int tile)
+    {
+        int prev = tilePrev[tile];
+        int next = tileNext[tile];
+
+        if(prev != NULL_INDEX)
+            tileNext[prev] = next;
+        else
+            lruHead = next;
+
+        if(next != NULL_INDEX)
+            tilePrev[next] = prev;
+        else
+            lruTail = prev;
+    }
+
+    /**
+     * Build the geometry for a single tile. There is one triangle strip for
+     * each row of grid cells.
+     *
+     * @param tile The index of the tile
+     * @return A new shape holding the geometry
+     */
+    private Shape3D buildTile(int tile)
+    {
+        int tx = tile % numTilesX;
+        int tz = tile / numTilesX;
+
+        int num_cols = source.getNumColumns();
+        int num_rows = source.getNumRows();
+
+        int col_start = tx * tileSize;
+        int col_end = Math.min(col_start + tileSize, num_cols - 1);
+        int row_start = tz * tileSize;
+        int row_end = Math.min(row_start + tileSize, num_rows - 1);
+
+        int width = col_end - col_start + 1;
+        int depth = row_end - row_start + 1;
+        int num_verts = width * depth;
+
+        if(wkCoords == null)
+        {
+            int max_verts = (tileSize + 1) * (tileSize + 1);
+
+            wkCoords = new float[max_verts * 3];
+            wkNormals = new float[max_verts * 3];
+            wkTexCoords = new float[1][max_verts * 2];
+            wkIndices = new int[tileSize * (tileSize + 1) * 2];
+            wkStripCounts = new int[tileSize];
+            wkTexTypes = new int[] { VertexGeometry.TEXTURE_COORDINATE_2 };
+        }
+
+        float dx = source.getColumnSpacing();
+        float dz = source.getRowSpacing();
+        float s_scale = 1.0f / (num_cols - 1);
+        float t_scale = 1.0f / (num_rows - 1);
+
+        float[] tex_coords = wkTexCoords[0];
+        int v = 0;
+
+        for(int r = row_start; r <= row_end; r++)
+        {
+            // Neighbours for the normals come from outside the tile where
+            // they exist, so that adjoining tiles shade the same.
+            int r_prev = r > 0 ? r - 1 : r;
+            int r_next = r < num_rows - 1 ? r + 1 : r;
+
+            for(int c = col_start; c <= col_end; c++)
+            {
+                int c_prev = c > 0 ? c - 1 : c;
+                int c_next = c < num_cols - 1 ? c + 1 : c;
+
+                int v3 = v * 3;
+                wkCoords[v3] = c * dx;
+                wkCoords[v3 + 1] = source.getHeight(c, r);
+                wkCoords[v3 + 2] = -r * dz;
+
+                // Rows run along -Z, so the Z slope has its sign flipped.
+                float slope_x = (source.getHeight(c_next, r) -
+                                 source.getHeight(c_prev, r)) /
+                                ((c_next - c_prev) * dx);
+                float slope_z = (source.getHeight(c, r_prev) -
+                                 source.getHeight(c, r_next)) /
+                                ((r_next - r_prev) * dz);
+
+                float n_x = -slope_x;
+                float n_z = -slope_z;
+                float d = (float)(1 / Math.sqrt(n_x * n_x + 1 + n_z * n_z));
+
+                wkNormals[v3] = n_x * d;
+                wkNormals[v3 + 1] = d;
+                wkNormals[v3 + 2] = n_z * d;
+
+                int v2 = v * 2;
+                tex_coords[v2] = c * s_scale;
+                tex_coords[v2 + 1] = r * t_scale;
+
+                v++;
+            }
+        }
+
+        int num_strips = depth - 1;
+        int i = 0;
+
+        for(int s = 0; s < num_strips; s++)
+        {
+            int near_row = s * width;
+            int far_row = near_row + width;
+
+            for(int c = 0; c < width; c++)
+            {
+                wkIndices[i++] = far_row + c;
+                wkIndices[i++] = near_row + c;
+            }
+
+            wkStripCounts[s] = width * 2;
+        }
+
+        IndexedTriangleStripArray geom =
+            new IndexedTriangleStripArray(true, VertexGeometry.VBO_HINT_STATIC);
+        geom.setBufferOnlyStorage(true);
+        geom.setVertices(VertexGeometry.COORDINATE_3, wkCoords, num_verts);
+        geom.setIndices(wkIndices, i);
+        geom.setStripCount(wkStripCounts, num_strips);
+        geom.setNormals(wkNormals);
+        geom.setTextureCoordinates(wkTexTypes, wkTexCoords, 1);
+
+        Shape3D shape = new Shape3D();
+        shape.setGeometry(geom);
+        shape.setAppearance(appearance);
+
+        return shape;
+    }
+
+    /**
+     * Estimate the number of bytes used by the built geometry of a tile.
+     * This counts the vertex buffers and both the kept and the buffer copy
+     * of the indices, but not the fixed overhead of the objects.
+     *
+     * @param tile The index of the tile
+     * @return The estimated size in bytes
+     */
+    private long tileMemory(int tile)
+    {
+        int tx = tile % numTilesX;
+        int tz = tile / numTilesX;
+
+        int width =
+            Math.min(tileSize, source.getNumColumns() - 1 - tx * tileSize) + 1;
+        int depth =
+            Math.min(tileSize, source.getNumRows() - 1 - tz * tileSize) + 1;
+
+        long num_verts = width * depth;
+        long num_indices = (depth - 1) * width * 2;
+        int index_size = num_verts <= 0x10000 ? 2 : 4;
+
+        return num_verts * FLOATS_PER_VERTEX * 4 + num_indices * (4 + index_size);
+    }
+
+    /**
+     * Recursively build the tile tree over a range of tiles, splitting the
+     * range in half along each axis that is more than one tile wide.
+     *
+     * @param startX The first tile column in the range
+     * @param startZ The first tile row in the range
+     * @param endX One past the last tile column in the range
+     * @param endZ One past the last tile row in the range
+     * @return The index of the new tree node
+     */
+    private int buildNode(int startX, int startZ, int endX, int endZ)
+    {
+        int node = numNodes++;
+        int idx = node * 6;
+        int c_idx = node * 4;
+
+        nodeChildren[c_idx] = NULL_INDEX;
+        nodeChildren[c_idx + 1] = NULL_INDEX;
+        nodeChildren[c_idx + 2] = NULL_INDEX;
+        nodeChildren[c_idx + 3] = NULL_INDEX;
+
+        if(endX - startX == 1 && endZ - startZ == 1)
+        {
+            int tile = startZ * numTilesX + startX;
+            nodeTile[node] = tile;
+            computeTileBounds(startX, startZ, idx);
+
+            return node;
+        }
+
+        nodeTile[node] = NULL_INDEX;
+
+        int mid_x = endX - startX > 1 ? (startX + endX) >>> 1 : endX;
+        int mid_z = endZ - startZ > 1 ? (startZ + endZ) >>> 1 : endZ;
+
+        int num_kids = 0;
+
+        for(int z = 0; z < 2; z++)
+        {
+            int z0 = z == 0 ? startZ : mid_z;
+            int z1 = z == 0 ? mid_z : endZ;
+
+            if(z0 == z1)
+                continue;
+
+            for(int x = 0; x < 2; x++)
+            {
+                int x0 = x == 0 ? startX : mid_x;
+                int x1 = x == 0 ? mid_x : endX;
+
+                if(x0 == x1)
+                    continue;
+
+                int child = buildNode(x0, z0, x1, z1);
+                int ch_idx = child * 6;
+
+                nodeChildren[c_idx + num_kids] = child;
+
+                if(num_kids == 0)
+                {
+                    System.arraycopy(nodeBounds, ch_idx, nodeBounds, idx, 6);
+                }
+                else
+                {
+                    for(int i = 0; i < 3; i++)
+                    {
+                        if(nodeBounds[ch_idx + i] < nodeBounds[idx + i])
+                            nodeBounds[idx + i] = nodeBounds[ch_idx + i];
+
+                        if(nodeBounds[ch_idx + i + 3] > nodeBounds[idx + i + 3])
+                            nodeBounds[idx + i + 3] = nodeBounds[ch_idx + i + 3];
+                    }
+                }
+
+                num_kids++;
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * Work out the bounds of a single tile by scanning its heights.
+     *
+     * @param tileX The tile column
+     * @param tileZ The tile row
+     * @param idx The index in nodeBounds to write the bounds to
+     */
+    private void computeTileBounds(int tileX, int tileZ, int idx)
+    {
+        int col_start = tileX * tileSize;
+        int col_end = Math.min(col_start + tileSize, source.getNumColumns() - 1);
+        int row_start = tileZ * tileSize;
+        int row_end = Math.min(row_start + tileSize, source.getNumRows() - 1);
+
+        float min_y = Float.POSITIVE_INFINITY;
+        float max_y = Float.NEGATIVE_INFINITY;
+
+        for(int c = col_start; c <= col_end; c++)
+        {
+            for(int r = row_start; r <= row_end; r++)
+            {
+                float h = source.getHeight(c, r);
+
+                if(h < min_y)
+                    min_y = h;
+
+                if(h > max_y)
+                    max_y = h;
+            }
+        }
+
+        float dx = source.getColumnSpacing();
+        float dz = source.getRowSpacing();
+
+        nodeBounds[idx] = col_start * dx;
+        nodeBounds[idx + 1] = min_y;
+        nodeBounds[idx + 2] = -row_end * dz;
+        nodeBounds[idx + 3] = col_end * dx;
+        nodeBounds[idx + 4] = max_y;
+        nodeBounds[idx + 5] = -row_start * dz;
+    }
+}
@@ -28,6 +28,8 @@ import org.j3d.geom.GeometryData;
 import org.j3d.geom.terrain.ElevationGridGenerator;
 import org.j3d.loaders.HeightMapSource;
 
+import org.j3d.renderer.aviatrix3d.geom.terrain.ArrayHeightField;
+import org.j3d.renderer.aviatrix3d.geom.terrain.TiledTerrain;
 import org.j3d.renderer.aviatrix3d.loader.AVLoader;
 import org.j3d.renderer.aviatrix3d.loader.AVModel;
 
@@ -41,9 +43,11 @@ import org.j3d.renderer.aviatrix3d.loader.AVModel;
  * a single 0-1 scale for the width of the object.
  * <p>
  *
- * The loader produces a single mesh that represents the file's contents. No
- * further processing is performed in the current implementation to break the
- * points into smaller tiles or use multi-resolution terrain structures.
+ * By default the loader produces a single mesh that represents the file's
+ * contents. When {@link #setTiledMode(boolean) tiled mode} is enabled, the
+ * heights are instead handed to a {@link TiledTerrain}, which splits them
+ * into tiles and only builds the geometry of the tiles that are visible.
+ * DEM files are text, so the heights are still parsed into memory first.
  * <p>
  *
  * DEM models do not contain layers or anything else other than the raw
@@ -59,6 +63,9 @@ public class DEMLoader
     private static final int[] TEX_COORD_TYPES =
         { VertexGeometry.TEXTURE_COORDINATE_2 };
 
+    /** The default number of grid cells along each side of a tile */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
     /** The currently set load flags */
     private int loadFlags;
 
@@ -71,6 +78,15 @@ public class DEMLoader
     /** Generator of the grid structure for the geometry */
     private ElevationGridGenerator generator;
 
+    /** Flag defining whether a tiled terrain is produced */
+    private boolean tiledMode;
+
+    /** Number of grid cells along each side of a tile in tiled mode */
+    private int tileSize;
+
+    /** Memory budget for the tile geometry in tiled mode */
+    private long tileMemoryBudget;
+
     /**
      * Construct a new default loader with no flags set
      */
@@ -78,6 +94,9 @@ public class DEMLoader
     {
         loadFlags = LOAD_ALL;
         keepModel = false;
+        tiledMode = false;
+        tileSize = DEFAULT_TILE_SIZE;
+        tileMemoryBudget = TiledTerrain.DEFAULT_MEMORY_BUDGET;
     }
 
     //---------------------------------------------------------------
@@ -240,6 +259,72 @@ public class DEMLoader
     // Local methods
     //----------------------------------------------------------
 
+    /**
+     * Set whether the loader should produce a {@link TiledTerrain} rather
+     * than a single mesh. The tiles are built when they are first visible
+     * and are thrown away again when over the memory budget.
+     *
+     * @param enable true to produce a tiled terrain
+     */
+    public void setTiledMode(boolean enable)
+    {
+        tiledMode = enable;
+    }
+
+    /**
+     * Check to see whether the loader produces a tiled terrain.
+     *
+     * @return true when a tiled terrain is produced
+     */
+    public boolean isTiledMode()
+    {
+        return tiledMode;
+    }
+
+    /**
+     * Set the number of grid cells along each side of a tile when in tiled
+     * mode. The value is checked when the next terrain is created.
+     *
+     * @param size The number of grid cells, at least 1
+     */
+    public void setTileSize(int size)
+    {
+        tileSize = size;
+    }
+
+    /**
+     * Get the number of grid cells along each side of a tile when in tiled
+     * mode.
+     *
+     * @return The number of grid cells
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Set the memory budget given to the terrain produced in tiled mode.
+     * The value is checked when the next terrain is created.
+     *
+     * @param bytes The memory budget in bytes
+     * @see TiledTerrain#setMemoryBudget(long)
+     */
+    public void setTileMemoryBudget(long bytes)
+    {
+        tileMemoryBudget = bytes;
+    }
+
+    /**
+     * Get the memory budget given to the terrain produced in tiled mode.
+     *
+     * @return The memory budget in bytes
+     */
+    public long getTileMemoryBudget()
+    {
+        return tileMemoryBudget;
+    }
+
     /**
      * Get the header used to describe the last stream parsed. If no stream
      * has been parsed yet, this will return null.
@@ -335,6 +420,25 @@ public class DEMLoader
 
         DEMTypeARecord header = parser.getTypeARecord();
 
+        if(tiledMode)
+        {
+            ArrayHeightField source =
+                new ArrayHeightField(heights,
+                                     (float)header.spatialResolution[DEMRecord.X],
+                                     (float)header.spatialResolution[DEMRecord.Y]);
+
+            TiledTerrain terrain = new TiledTerrain(source, tileSize);
+            terrain.setMemoryBudget(tileMemoryBudget);
+
+            if(!keepModel)
+                parser.clear();
+
+            Group root_group = new Group();
+            root_group.addChild(terrain);
+
+            return new DEMModel(root_group, header);
+        }
+
         float width =
             (float)(heights[0].length * header.spatialResolution[DEMRecord.X]);
 
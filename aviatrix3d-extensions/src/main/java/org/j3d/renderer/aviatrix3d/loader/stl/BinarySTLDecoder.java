@@ -0,0 +1,271 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.loader.stl;
+
+// External imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Local imports
+// None
+
+/**
+ * Decoder for the facets of a binary STL file that splits the work over a
+ * fork/join pool.
+ * <p>
+ *
+ * A binary STL file is an 80 byte header, a little-endian facet count, and
+ * then 50 bytes for each facet: the normal, the three vertices and 2 bytes
+ * of attributes. Every facet is at a known offset, so the facets are split
+ * into chunks and each chunk is decoded straight into its own part of the
+ * output arrays using absolute reads, which do not change the state of the
+ * shared source buffers.
+ * <p>
+ *
+ * The data may be spread over several buffers, as a single mapping of a
+ * file cannot be over 2GB. Each buffer holds a whole number of facets.
+ */
+class BinarySTLDecoder
+{
+    /** Size of the header, including the facet count */
+    static final int HEADER_SIZE = 84;
+
+    /** Size of a single facet */
+    static final int FACET_SIZE = 50;
+
+    /** Number of facets decoded by a single task */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** The pool to run the decoding tasks in */
+    private final ForkJoinPool pool;
+
+    /**
+     * Task that decodes a range of facets from a single buffer, splitting
+     * itself in half until the range is small enough.
+     */
+    private static class DecodeTask extends RecursiveAction
+    {
+        /** The buffer holding the facets */
+        private final ByteBuffer source;
+
+        /** First facet to decode, relative to the start of the buffer */
+        private final int sourceFacet;
+
+        /** Index of that facet in the output arrays */
+        private final int destFacet;
+
+        /** Number of facets to decode */
+        private final int count;
+
+        /** Output coordinates, 9 values per facet */
+        private final float[] coords;
+
+        /** Output face normals, 3 values per facet */
+        private final float[] normals;
+
+        DecodeTask(ByteBuffer source,
+                   int sourceFacet,
+                   int destFacet,
+                   int count,
+                   float[] coords,
+                   float[] normals)
+        {
+            this.source = source;
+            this.sourceFacet = sourceFacet;
+            this.destFacet = destFacet;
+            this.count = count;
+            this.coords = coords;
+            this.normals = normals;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(count <= CHUNK_SIZE)
+            {
+                decodeFacets(source, sourceFacet, destFacet, count, coords, normals);
+                return;
+            }
+
+            int half = count >>> 1;
+
+            DecodeTask left = new DecodeTask(source,
+                                             sourceFacet,
+                                             destFacet,
+                                             half,
+                                             coords,
+                                             normals);
+            DecodeTask right = new DecodeTask(source,
+                                              sourceFacet + half,
+                                              destFacet + half,
+                                              count - half,
+                                              coords,
+                                              normals);
+
+            ForkJoinTask.invokeAll(left, right);
+        }
+    }
+
+    /**
+     * Create a new decoder that runs in the given pool.
+     *
+     * @param pool The pool to run the decoding tasks in
+     */
+    BinarySTLDecoder(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Check whether data of the given size with the given header is a binary
+     * STL file. ASCII files can start with anything the binary header can,
+     * so the only reliable test is that the size matches the facet count.
+     *
+     * @param header Buffer holding at least the first 84 bytes of the data
+     * @param size The total size of the data in bytes
+     * @return The number of facets if the data is binary STL, or -1
+     */
+    static int getFacetCount(ByteBuffer header, long size)
+    {
+        if(size < HEADER_SIZE)
+            return -1;
+
+        long count = header.order(ByteOrder.LITTLE_ENDIAN).getInt(80) & 0xFFFFFFFFL;
+
+        if(count > Integer.MAX_VALUE / 9 ||
+           size != HEADER_SIZE + count * FACET_SIZE)
+            return -1;
+
+        return (int)count;
+    }
+
+    /**
+     * Decode all the facets held in the given buffers. All but the last
+     * buffer must hold exactly facetsPerBuffer facets, starting at the
+     * first byte of the buffer.
+     *
+     * @param buffers The buffers holding the facet data
+     * @param facetsPerBuffer The number of facets held in each full buffer
+     * @param numFacets The total number of facets to decode
+     * @param coords Array for the coordinates, at least 9 * numFacets long
+     * @param normals Array for the face normals, at least 3 * numFacets long
+     */
+    void decode(ByteBuffer[] buffers,
+                int facetsPerBuffer,
+                int numFacets,
+                float[] coords,
+                float[] normals)
+    {
+        final DecodeTask[] tasks = new DecodeTask[buffers.length];
+
+        for(int i = 0; i < buffers.length; i++)
+        {
+            int first = i * facetsPerBuffer;
+            int count = Math.min(facetsPerBuffer, numFacets - first);
+
+            buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            tasks[i] = new DecodeTask(buffers[i], 0, first, count, coords, normals);
+        }
+
+        if(numFacets <= CHUNK_SIZE)
+        {
+            // Not worth waking up the pool for
+            for(int i = 0; i < tasks.length; i++)
+                tasks[i].compute();
+        }
+        else if(tasks.length == 1)
+            pool.invoke(tasks[0]);
+        else
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+    }
+
+    /**
+     * Decode a range of facets. Normals that are missing from the file,
+     * which is common, are worked out from the vertices.
+     *
+     * @param source The buffer holding the facets
+     * @param sourceFacet First facet to decode, relative to the buffer
+     * @param destFacet Index of that facet in the output arrays
+     * @param count Number of facets to decode
+     * @param coords Output coordinates, 9 values per facet
+     * @param normals Output face normals, 3 values per facet
+     */
+    private static void decodeFacets(ByteBuffer source,
+                                     int sourceFacet,
+                                     int destFacet,
+                                     int count,
+                                     float[] coords,
+                                     float[] normals)
+    {
+        int pos = sourceFacet * FACET_SIZE;
+        int c_idx = destFacet * 9;
+        int n_idx = destFacet * 3;
+
+        for(int i = 0; i < count; i++)
+        {
+            float n_x = source.getFloat(pos);
+            float n_y = source.getFloat(pos + 4);
+            float n_z = source.getFloat(pos + 8);
+
+            for(int j = 0; j < 9; j++)
+                coords[c_idx + j] = source.getFloat(pos + 12 + j * 4);
+
+            if(n_x == 0 && n_y == 0 && n_z == 0)
+            {
+                float e1_x = coords[c_idx + 3] - coords[c_idx];
+                float e1_y = coords[c_idx + 4] - coords[c_idx + 1];
+                float e1_z = coords[c_idx + 5] - coords[c_idx + 2];
+                float e2_x = coords[c_idx + 6] - coords[c_idx];
+                float e2_y = coords[c_idx + 7] - coords[c_idx + 1];
+                float e2_z = coords[c_idx + 8] - coords[c_idx + 2];
+
+                n_x = e1_y * e2_z - e1_z * e2_y;
+                n_y = e1_z * e2_x - e1_x * e2_z;
+                n_z = e1_x * e2_y - e1_y * e2_x;
+
+                float len = (float)Math.sqrt(n_x * n_x + n_y * n_y + n_z * n_z);
+
+                if(len != 0)
+                {
+                    n_x /= len;
+                    n_y /= len;
+                    n_z /= len;
+                }
+            }
+
+            normals[n_idx] = n_x;
+            normals[n_idx + 1] = n_y;
+            normals[n_idx + 2] = n_z;
+
+            pos += FACET_SIZE;
+            c_idx += 9;
+            n_idx += 3;
+        }
+    }
+}
@@ -15,7 +15,10 @@ package org.j3d.renderer.aviatrix3d.loader.stl;
 // External imports
 import java.io.*;
 
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.Format;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
@@ -25,6 +28,7 @@ import org.j3d.util.I18nManager;
 
 // Local imports
 import org.j3d.aviatrix3d.*;
+import org.j3d.aviatrix3d.iutil.SharedWorkerPool;
 import org.j3d.loaders.stl.*;
 
 import org.j3d.renderer.aviatrix3d.loader.AVLoader;
@@ -39,6 +43,24 @@ import org.j3d.renderer.aviatrix3d.loader.AVModel;
  * recognized if an invalid amount of data is contained in the file.
  * <p>
  *
+ * Binary files that are loaded from a {@link File} or a file: URL are memory
+ * mapped, and the facets are decoded in parallel straight into float arrays.
+ * Binary data from a stream is read into memory and decoded the same way.
+ * ASCII files are still read through {@link STLFileReader}.
+ * <p>
+ *
+ * By default each facet is a separate triangle with the face normal on all
+ * three corners. When {@link #setVertexWelding(boolean) vertex welding} is
+ * enabled, corners closer than the weld tolerance are merged and an
+ * {@link IndexedTriangleArray} with smoothed vertex normals is produced
+ * instead. This typically cuts the vertex count by a factor of six, but
+ * also smooths over hard edges.
+ * <p>
+ *
+ * The geometry created only keeps its data in the internal buffers, so the
+ * decoded arrays do not stay on the heap as well.
+ * <p>
+ *
  * STL models do not contain layers or any other form of scene graph objects
  * beyond the triangle geometry. All load flags are ignored.
  *
@@ -51,17 +73,36 @@ public class STLLoader implements AVLoader
     private static final String INVALID_FACE_COUNT_PROP =
         "org.j3d.renderer.aviatrix3d.loader.stl.STLLoader.faceCountMismatchMsg";
 
+    /** Maximum number of facets in a single mapped buffer, about 1GB */
+    private static final int MAX_SEGMENT_FACETS =
+        (1 << 30) / BinarySTLDecoder.FACET_SIZE;
+
     /** The currently set load flags */
     private int loadFlags;
 
     /** Flag defining whether we should keep the internal model too. */
     private boolean keepModel;
 
+    /** Flag defining whether duplicate vertices are merged */
+    private boolean weldVertices;
+
+    /** Distance under which vertices are merged */
+    private float weldTolerance;
+
+    /** Decoder for binary facet data */
+    private final BinarySTLDecoder decoder;
+
+    /** Welder from the last load, kept to reuse its working arrays */
+    private VertexWelder welder;
+
     /**
      * Creates a STLLoader object.
      */
     public STLLoader()
     {
+        weldVertices = false;
+        weldTolerance = 0;
+        decoder = new BinarySTLDecoder(SharedWorkerPool.getPool());
     }
 
     //---------------------------------------------------------------
@@ -78,6 +119,21 @@ public class STLLoader implements AVLoader
     @Override
     public AVModel load(URL url) throws IOException
     {
+        if("file".equals(url.getProtocol()))
+        {
+            try
+            {
+                AVModel model = loadMapped(new File(url.toURI()));
+
+                if(model != null)
+                    return model;
+            }
+            catch(URISyntaxException | IllegalArgumentException e)
+            {
+                // Not a plain local file, so let the reader open the URL.
+            }
+        }
+
         STLFileReader reader = new STLFileReader(url);
 
         return loadInternal(reader);
@@ -97,9 +153,43 @@ public class STLLoader implements AVLoader
     @Override
     public AVModel load(InputStream stream) throws IOException
     {
-System.out.println("STLLoader.load(InputStream) not implemented yet");
-        return null;
-//        return loadInternal(stream);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] block = new byte[65536];
+        int read;
+
+        while((read = stream.read(block)) != -1)
+            bytes.write(block, 0, read);
+
+        byte[] data = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        int num_facets = BinarySTLDecoder.getFacetCount(buffer, data.length);
+
+        if(num_facets >= 0)
+        {
+            buffer.position(BinarySTLDecoder.HEADER_SIZE);
+            ByteBuffer[] facets = { buffer.slice() };
+
+            return loadBinary(facets, num_facets, num_facets);
+        }
+
+        // The ASCII reader only works from a file or URL, so hand it a
+        // copy of what was read.
+        File tmp_file = File.createTempFile("stl", ".stl");
+
+        try
+        {
+            try(FileOutputStream fos = new FileOutputStream(tmp_file))
+            {
+                fos.write(data);
+            }
+
+            return loadInternal(new STLFileReader(tmp_file));
+        }
+        finally
+        {
+            tmp_file.delete();
+        }
     }
 
     /**
@@ -112,6 +202,11 @@ System.out.println("STLLoader.load(InputStream) not implemented yet");
     @Override
     public AVModel load(File file) throws IOException
     {
+        AVModel model = loadMapped(file);
+
+        if(model != null)
+            return model;
+
         STLFileReader reader = new STLFileReader(file);
 
         return loadInternal(reader);
@@ -170,6 +265,189 @@ System.out.println("STLLoader.load(InputStream) not implemented yet");
     // Local methods
     //----------------------------------------------------------
 
+    /**
+     * Set whether duplicate vertices should be merged into an indexed
+     * geometry with smoothed normals. The value is checked at the start of
+     * the next load.
+     *
+     * @param enable true to weld duplicate vertices
+     */
+    public void setVertexWelding(boolean enable)
+    {
+        weldVertices = enable;
+    }
+
+    /**
+     * Check to see whether duplicate vertices are being merged.
+     *
+     * @return true when vertices are welded
+     */
+    public boolean isVertexWelding()
+    {
+        return weldVertices;
+    }
+
+    /**
+     * Set the distance under which two vertices are merged when welding.
+     * Zero, the default, merges only vertices with exactly the same
+     * coordinates, which is all that is needed for most STL files as the
+     * corners are written out from the same values each time. Negative
+     * values are treated as zero.
+     *
+     * @param tolerance The distance in model units
+     */
+    public void setWeldTolerance(float tolerance)
+    {
+        weldTolerance = tolerance > 0 ? tolerance : 0;
+    }
+
+    /**
+     * Get the distance under which two vertices are merged when welding.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public float getWeldTolerance()
+    {
+        return weldTolerance;
+    }
+
+    /**
+     * Memory map the file and load it if it is binary STL.
+     *
+     * @param file The file to load
+     * @return The loaded model, or null if the file is not binary STL
+     * @throws IOException something went wrong while reading the file
+     */
+    private STLModel loadMapped(File file)
+        throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            if(size < BinarySTLDecoder.HEADER_SIZE)
+                return null;
+
+            ByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY,
+                            0,
+                            BinarySTLDecoder.HEADER_SIZE);
+
+            int num_facets = BinarySTLDecoder.getFacetCount(header, size);
+
+            if(num_facets < 0)
+                return null;
+
+            int num_buffers =
+                (num_facets + MAX_SEGMENT_FACETS - 1) / MAX_SEGMENT_FACETS;
+
+            ByteBuffer[] buffers = new ByteBuffer[num_buffers];
+
+            for(int i = 0; i < num_buffers; i++)
+            {
+                int first = i * MAX_SEGMENT_FACETS;
+                int count = Math.min(MAX_SEGMENT_FACETS, num_facets - first);
+
+                buffers[i] =
+                    channel.map(FileChannel.MapMode.READ_ONLY,
+                                BinarySTLDecoder.HEADER_SIZE +
+                                    (long)first * BinarySTLDecoder.FACET_SIZE,
+                                (long)count * BinarySTLDecoder.FACET_SIZE);
+            }
+
+            // Mappings stay valid after the channel is closed
+            return loadBinary(buffers, MAX_SEGMENT_FACETS, num_facets);
+        }
+    }
+
+    /**
+     * Create a STLModel object from binary facet data.
+     *
+     * @param buffers The buffers holding the facet data
+     * @param facetsPerBuffer The number of facets held in each full buffer
+     * @param numFacets The total number of facets
+     * @return The model representing the facets
+     */
+    private STLModel loadBinary(ByteBuffer[] buffers,
+                                int facetsPerBuffer,
+                                int numFacets)
+    {
+        Group root_group = new Group();
+        STLModel model = new STLModel(root_group);
+
+        float[] f_coords = new float[numFacets * 9];
+        float[] f_normals = new float[numFacets * 3];
+
+        decoder.decode(buffers, facetsPerBuffer, numFacets, f_coords, f_normals);
+
+        if(numFacets != 0)
+            root_group.addChild(createShape(f_coords, f_normals, numFacets));
+
+        return model;
+    }
+
+    /**
+     * Create the shape for a single object from its facets.
+     *
+     * @param coords The facet corners, 9 values per facet
+     * @param faceNormals The face normals, 3 values per facet
+     * @param numFacets The number of facets to use
+     * @return A shape holding the geometry
+     */
+    private Shape3D createShape(float[] coords, float[] faceNormals, int numFacets)
+    {
+        VertexGeometry geom;
+
+        if(weldVertices)
+        {
+            if(welder == null || welder.getTolerance() != weldTolerance)
+                welder = new VertexWelder(weldTolerance);
+
+            welder.weld(coords, faceNormals, numFacets);
+
+            IndexedTriangleArray itg = new IndexedTriangleArray();
+            itg.setBufferOnlyStorage(true);
+            itg.setVertices(IndexedTriangleArray.COORDINATE_3,
+                            welder.getVertices(),
+                            welder.getNumVertices());
+            itg.setIndices(welder.getIndices(), numFacets * 3);
+            itg.setNormals(welder.getNormals());
+
+            geom = itg;
+        }
+        else
+        {
+            float[] vtx_normals = new float[numFacets * 9];
+
+            for(int i = 0; i < numFacets; i++)
+            {
+                float n_x = faceNormals[i * 3];
+                float n_y = faceNormals[i * 3 + 1];
+                float n_z = faceNormals[i * 3 + 2];
+
+                for(int j = 0; j < 9; j += 3)
+                {
+                    vtx_normals[i * 9 + j] = n_x;
+                    vtx_normals[i * 9 + j + 1] = n_y;
+                    vtx_normals[i * 9 + j + 2] = n_z;
+                }
+            }
+
+            TriangleArray tg = new TriangleArray();
+            tg.setBufferOnlyStorage(true);
+            tg.setVertices(TriangleArray.COORDINATE_3, coords, numFacets * 3);
+            tg.setNormals(vtx_normals);
+
+            geom = tg;
+        }
+
+        Shape3D shape = new Shape3D();
+        shape.setGeometry(geom);
+
+        return shape;
+    }
+
     /**
      * Create a STLModel object from the contents of the STL file.
      *
@@ -190,14 +468,14 @@ System.out.println("STLLoader.load(InputStream) not implemented yet");
         double[] normal = new double[3];
         double[][] vertices = new double[3][3];
 
-        float[] f_normals = new float[num_facets[0] * 9];
+        float[] f_normals = new float[num_facets[0] * 3];
         float[] f_coords = new float[num_facets[0] * 9];
 
         for(int i = 0; i < num_objects; i++)
         {
-            if(f_normals.length < num_facets[i] * 9)
+            if(f_coords.length < num_facets[i] * 9)
             {
-                f_normals = new float[num_facets[i] * 9];
+                f_normals = new float[num_facets[i] * 3];
                 f_coords = new float[num_facets[i] * 9];
             }
 
@@ -206,17 +484,9 @@ System.out.println("STLLoader.load(InputStream) not implemented yet");
             {
                 if(reader.getNextFacet(normal, vertices))
                 {
-                    f_normals[j * 9] = (float)normal[0];
-                    f_normals[j * 9 + 1] = (float)normal[1];
-                    f_normals[j * 9 + 2] = (float)normal[2];
-
-                    f_normals[j * 9 + 3] = (float)normal[0];
-                    f_normals[j * 9 + 4] = (float)normal[1];
-                    f_normals[j * 9 + 5] = (float)normal[2];
-
-                    f_normals[j * 9 + 6] = (float)normal[0];
-                    f_normals[j * 9 + 7] = (float)normal[1];
-                    f_normals[j * 9 + 8] = (float)normal[2];
+                    f_normals[j * 3] = (float)normal[0];
+                    f_normals[j * 3 + 1] = (float)normal[1];
+                    f_normals[j * 3 + 2] = (float)normal[2];
 
                     f_coords[j * 9] = (float)vertices[0][0];
                     f_coords[j * 9 + 1] = (float)vertices[0][1];
@@ -250,14 +520,7 @@ System.out.println("STLLoader.load(InputStream) not implemented yet");
 				}
             }
 
-            TriangleArray geom = new TriangleArray();
-            geom.setVertices(TriangleArray.COORDINATE_3,
-                             f_coords,
-                             num_facets[i] * 3);
-            geom.setNormals(f_normals);
-
-            Shape3D shape = new Shape3D();
-            shape.setGeometry(geom);
+            Shape3D shape = createShape(f_coords, f_normals, num_facets[i]);
             root_group.addChild(shape);
 
             if(names[i] != null)
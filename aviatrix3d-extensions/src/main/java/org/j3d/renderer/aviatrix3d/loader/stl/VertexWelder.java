@@ -0,0 +1,347 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.loader.stl;
+
+// External imports
+// None
+
+// Local imports
+// None
+
+/**
+ * Merges the repeated corners of a triangle soup into a shared vertex list
+ * and builds the index list and smooth vertex normals to go with it.
+ * <p>
+ *
+ * STL stores every facet with its own copy of its three corners, so a closed
+ * mesh carries roughly six copies of each vertex. The welder hashes each
+ * corner into a uniform grid with cells the size of the tolerance. A corner
+ * can then only match a vertex in its own cell or one of the 26 around it.
+ * With a tolerance of zero, only corners with exactly the same coordinates
+ * are merged and a single hash lookup is needed.
+ * <p>
+ *
+ * Vertex normals are the sum of the normals of the faces using the vertex,
+ * weighted by the face area, so that slivers do not skew the result.
+ * <p>
+ *
+ * The hash chains are kept in plain int arrays, so welding does not create
+ * an object per vertex. An instance may be reused, but is not thread safe.
+ */
+class VertexWelder
+{
+    /** Initial number of vertices that room is allocated for */
+    private static final int INITIAL_SIZE = 1024;
+
+    /** Distance under which two corners are merged */
+    private final float tolerance;
+
+    /** Square of the tolerance, for the distance checks */
+    private final float toleranceSq;
+
+    /** 1 / tolerance, or 0 when welding exact matches only */
+    private final float invCellSize;
+
+    /** Head of the chain for each hash slot, or -1 if empty */
+    private int[] hashHeads;
+
+    /** Next vertex in the same hash chain, or -1 at the end */
+    private int[] hashNext;
+
+    /** The merged vertex coordinates, 3 per vertex */
+    private float[] vertices;
+
+    /** The summed and then normalised vertex normals, 3 per vertex */
+    private float[] normals;
+
+    /** Vertex index for each corner, 3 per facet */
+    private int[] indices;
+
+    /** Number of merged vertices */
+    private int numVertices;
+
+    /**
+     * Create a new welder with the given tolerance.
+     *
+     * @param tolerance The distance under which corners are merged. Zero
+     *    merges only exact matches
+     */
+    VertexWelder(float tolerance)
+    {
+        this.tolerance = tolerance;
+        toleranceSq = tolerance * tolerance;
+        invCellSize = tolerance > 0 ? 1 / tolerance : 0;
+
+        vertices = new float[INITIAL_SIZE * 3];
+        normals = new float[INITIAL_SIZE * 3];
+        hashNext = new int[INITIAL_SIZE];
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Weld the corners of the given facets.
+     *
+     * @param coords The facet corners, 9 values per facet
+     * @param faceNormals The unit face normals, 3 values per facet. Used to
+     *    orient the computed normals if the winding disagrees
+     * @param numFacets The number of facets to weld
+     */
+    void weld(float[] coords, float[] faceNormals, int numFacets)
+    {
+        numVertices = 0;
+
+        if(indices == null || indices.length < numFacets * 3)
+            indices = new int[numFacets * 3];
+
+        // Most closed meshes end up with about half as many vertices as
+        // facets, so size the hash table for that.
+        int table_size = Integer.highestOneBit(Math.max(numFacets, 16)) << 1;
+
+        if(hashHeads == null || hashHeads.length != table_size)
+            hashHeads = new int[table_size];
+
+        for(int i = 0; i < table_size; i++)
+            hashHeads[i] = -1;
+
+        int c_idx = 0;
+
+        for(int i = 0; i < numFacets; i++)
+        {
+            float e1_x = coords[c_idx + 3] - coords[c_idx];
+            float e1_y = coords[c_idx + 4] - coords[c_idx + 1];
+            float e1_z = coords[c_idx + 5] - coords[c_idx + 2];
+            float e2_x = coords[c_idx + 6] - coords[c_idx];
+            float e2_y = coords[c_idx + 7] - coords[c_idx + 1];
+            float e2_z = coords[c_idx + 8] - coords[c_idx + 2];
+
+            // The length of the cross product is twice the area, which is
+            // exactly the weighting wanted.
+            float n_x = e1_y * e2_z - e1_z * e2_y;
+            float n_y = e1_z * e2_x - e1_x * e2_z;
+            float n_z = e1_x * e2_y - e1_y * e2_x;
+
+            if(n_x * faceNormals[i * 3] +
+               n_y * faceNormals[i * 3 + 1] +
+               n_z * faceNormals[i * 3 + 2] < 0)
+            {
+                n_x = -n_x;
+                n_y = -n_y;
+                n_z = -n_z;
+            }
+
+            for(int j = 0; j < 3; j++)
+            {
+                int v = findOrAdd(coords[c_idx], coords[c_idx + 1], coords[c_idx + 2]);
+
+                normals[v * 3] += n_x;
+                normals[v * 3 + 1] += n_y;
+                normals[v * 3 + 2] += n_z;
+
+                indices[i * 3 + j] = v;
+                c_idx += 3;
+            }
+        }
+
+        for(int i = 0; i < numVertices * 3; i += 3)
+        {
+            float x = normals[i];
+            float y = normals[i + 1];
+            float z = normals[i + 2];
+            float len = (float)Math.sqrt(x * x + y * y + z * z);
+
+            if(len != 0)
+            {
+                normals[i] = x / len;
+                normals[i + 1] = y / len;
+                normals[i + 2] = z / len;
+            }
+            else
+            {
+                normals[i] = 0;
+                normals[i + 1] = 0;
+                normals[i + 2] = 1;
+            }
+        }
+    }
+
+    /**
+     * Get the distance under which corners are merged.
+     *
+     * @return A value greater than or equal to zero
+     */
+    float getTolerance()
+    {
+        return tolerance;
+    }
+
+    /**
+     * Get the number of vertices left after the last weld.
+     *
+     * @return A value greater than or equal to zero
+     */
+    int getNumVertices()
+    {
+        return numVertices;
+    }
+
+    /**
+     * Get the merged vertex coordinates. The array is owned by the welder
+     * and may be longer than the valid data.
+     *
+     * @return 3 values per vertex
+     */
+    float[] getVertices()
+    {
+        return vertices;
+    }
+
+    /**
+     * Get the smoothed vertex normals. The array is owned by the welder and
+     * may be longer than the valid data.
+     *
+     * @return 3 values per vertex
+     */
+    float[] getNormals()
+    {
+        return normals;
+    }
+
+    /**
+     * Get the vertex index of each facet corner. The array is owned by the
+     * welder and may be longer than the valid data.
+     *
+     * @return 3 values per facet
+     */
+    int[] getIndices()
+    {
+        return indices;
+    }
+
+    /**
+     * Find the vertex matching the given position, adding a new one if
+     * there is none within the tolerance.
+     *
+     * @param x The x coordinate of the corner
+     * @param y The y coordinate of the corner
+     * @param z The z coordinate of the corner
+     * @return The index of the matching vertex
+     */
+    private int findOrAdd(float x, float y, float z)
+    {
+        int mask = hashHeads.length - 1;
+
+        if(tolerance == 0)
+        {
+            // Adding zero folds -0 onto 0 so they hash the same
+            int h = hash(Float.floatToIntBits(x + 0.0f),
+                         Float.floatToIntBits(y + 0.0f),
+                         Float.floatToIntBits(z + 0.0f)) & mask;
+
+            for(int v = hashHeads[h]; v != -1; v = hashNext[v])
+            {
+                if(vertices[v * 3] == x &&
+                   vertices[v * 3 + 1] == y &&
+                   vertices[v * 3 + 2] == z)
+                    return v;
+            }
+
+            return addVertex(x, y, z, h);
+        }
+
+        int cx = (int)Math.floor(x * invCellSize);
+        int cy = (int)Math.floor(y * invCellSize);
+        int cz = (int)Math.floor(z * invCellSize);
+
+        for(int dx = -1; dx <= 1; dx++)
+        {
+            for(int dy = -1; dy <= 1; dy++)
+            {
+                for(int dz = -1; dz <= 1; dz++)
+                {
+                    int h = hash(cx + dx, cy + dy, cz + dz) & mask;
+
+                    for(int v = hashHeads[h]; v != -1; v = hashNext[v])
+                    {
+                        float d_x = vertices[v * 3] - x;
+                        float d_y = vertices[v * 3 + 1] - y;
+                        float d_z = vertices[v * 3 + 2] - z;
+
+                        if(d_x * d_x + d_y * d_y + d_z * d_z <= toleranceSq)
+                            return v;
+                    }
+                }
+            }
+        }
+
+        return addVertex(x, y, z, hash(cx, cy, cz) & mask);
+    }
+
+    /**
+     * Add a new vertex to the end of the list and the front of a hash chain.
+     *
+     * @param x The x coordinate of the vertex
+     * @param y The y coordinate of the vertex
+     * @param z The z coordinate of the vertex
+     * @param slot The hash slot to add it to
+     * @return The index of the new vertex
+     */
+    private int addVertex(float x, float y, float z, int slot)
+    {
+        if(numVertices == hashNext.length)
+        {
+            int new_size = numVertices * 2;
+
+            float[] tmp = new float[new_size * 3];
+            System.arraycopy(vertices, 0, tmp, 0, numVertices * 3);
+            vertices = tmp;
+
+            tmp = new float[new_size * 3];
+            System.arraycopy(normals, 0, tmp, 0, numVertices * 3);
+            normals = tmp;
+
+            int[] tmp_next = new int[new_size];
+            System.arraycopy(hashNext, 0, tmp_next, 0, numVertices);
+            hashNext = tmp_next;
+        }
+
+        int v = numVertices++;
+
+        vertices[v * 3] = x;
+        vertices[v * 3 + 1] = y;
+        vertices[v * 3 + 2] = z;
+
+        normals[v * 3] = 0;
+        normals[v * 3 + 1] = 0;
+        normals[v * 3 + 2] = 0;
+
+        hashNext[v] = hashHeads[slot];
+        hashHeads[slot] = v;
+
+        return v;
+    }
+
+    /**
+     * Mix three ints into a well spread hash value.
+     */
+    private static int hash(int a, int b, int c)
+    {
+        int h = a * 73856093 ^ b * 19349663 ^ c * 83492791;
+
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.loader.vterrain;
+
+// External imports
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.Locale;
+
+import org.j3d.exporters.vterrain.BTVersion;
+import org.j3d.loaders.UnsupportedFormatException;
+import org.j3d.loaders.vterrain.BTHeader;
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.renderer.aviatrix3d.geom.terrain.HeightFieldSource;
+
+/**
+ * Height field source that reads the heights of a BT file straight out of a
+ * memory mapping of the file, rather than loading them all into the heap.
+ * <p>
+ *
+ * Versions 1.1 to 1.3 of the format are supported, with either 2 byte
+ * integer or 4 byte float heights. The heights are stored by column from
+ * the south west corner, so reading a tile touches a small number of
+ * contiguous runs of the file. Files over 1GB are mapped in several pieces,
+ * each holding a whole number of columns. The file itself is closed once
+ * mapped, and the mapping is released when this object is garbage
+ * collected.
+ */
+public class BTHeightField implements HeightFieldSource
+{
+    /** Message when the file is not a version we can map */
+    private static final String UNSUPPORTED_VERSION_PROP =
+        "org.j3d.renderer.aviatrix3d.loader.vterrain.BTHeightField.unsupportedVersionMsg";
+
+    /** Message when the height byte size is not 2 or 4 */
+    private static final String DATA_SIZE_PROP =
+        "org.j3d.renderer.aviatrix3d.loader.vterrain.BTHeightField.dataSizeMsg";
+
+    /** Message when the file is shorter than the header says */
+    private static final String TRUNCATED_PROP =
+        "org.j3d.renderer.aviatrix3d.loader.vterrain.BTHeightField.truncatedMsg";
+
+    /** Size of the header at the start of every BT file */
+    private static final int HEADER_SIZE = 256;
+
+    /** Largest number of bytes put in a single mapped piece */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    /** The header read from the file */
+    private final BTHeader header;
+
+    /** The mapped pieces of the height data */
+    private final MappedByteBuffer[] segments;
+
+    /** Number of whole columns held by each mapped piece */
+    private final int columnsPerSegment;
+
+    /** true if the heights are floats, false for shorts */
+    private final boolean floatData;
+
+    /** Number of bytes per height value */
+    private final int dataSize;
+
+    /** Multiplier to take the stored heights to metres */
+    private final float verticalScale;
+
+    /** Distance between columns */
+    private final float columnSpacing;
+
+    /** Distance between rows */
+    private final float rowSpacing;
+
+    /**
+     * Map the given BT file.
+     *
+     * @param file The file to read
+     * @throws IOException The file could not be read or is too short
+     * @throws UnsupportedFormatException The file is not a BT version that
+     *    can be mapped
+     */
+    public BTHeightField(File file)
+        throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = raf.getChannel();
+
+            if(channel.size() < HEADER_SIZE)
+                throw new IOException(truncatedMessage(file));
+
+            MappedByteBuffer head =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[10];
+            head.get(magic);
+
+            header = new BTHeader();
+            header.version = parseVersion(new String(magic, StandardCharsets.US_ASCII));
+            header.columns = head.getInt(10);
+            header.rows = head.getInt(14);
+
+            dataSize = head.getShort(18);
+            floatData = head.getShort(20) == 1;
+
+            if(dataSize != 2 && dataSize != 4)
+            {
+                I18nManager intl_mgr = I18nManager.getManager();
+                String msg_pattern = intl_mgr.getString(DATA_SIZE_PROP);
+
+                Locale lcl = intl_mgr.getFoundLocale();
+                Object[] msg_args = { dataSize };
+                MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+                String msg = msg_fmt.format(msg_args);
+
+                throw new UnsupportedFormatException(msg);
+            }
+
+            header.utmZone = head.getShort(24);
+            header.datum = head.getShort(26);
+            header.leftExtent = head.getDouble(28);
+            header.rightExtent = head.getDouble(36);
+            header.bottomExtent = head.getDouble(44);
+            header.topExtent = head.getDouble(52);
+
+            float v_scale = 1;
+
+            if(header.version == BTVersion.VERSION_1_3)
+            {
+                header.utmProjection = header.utmZone != 0;
+                header.needsExternalProj = head.getShort(60) == 1;
+
+                v_scale = head.getFloat(62);
+
+                // Older writers of 1.3 files leave this empty
+                if(v_scale == 0)
+                    v_scale = 1;
+            }
+            else
+            {
+                header.utmProjection = head.getShort(22) == 1;
+                header.needsExternalProj =
+                    header.version == BTVersion.VERSION_1_2 &&
+                    head.getShort(60) == 1;
+            }
+
+            verticalScale = v_scale;
+
+            long column_bytes = (long)header.rows * dataSize;
+            long data_size = column_bytes * header.columns;
+
+            if(channel.size() < HEADER_SIZE + data_size)
+                throw new IOException(truncatedMessage(file));
+
+            columnsPerSegment =
+                (int)Math.max(1, Math.min(header.columns,
+                                          MAX_SEGMENT_SIZE / column_bytes));
+
+            int num_segments =
+                (header.columns + columnsPerSegment - 1) / columnsPerSegment;
+
+            segments = new MappedByteBuffer[num_segments];
+
+            for(int i = 0; i < num_segments; i++)
+            {
+                int first_col = i * columnsPerSegment;
+                int num_cols =
+                    Math.min(columnsPerSegment, header.columns - first_col);
+
+                segments[i] =
+                    channel.map(FileChannel.MapMode.READ_ONLY,
+                                HEADER_SIZE + first_col * column_bytes,
+                                num_cols * column_bytes);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        columnSpacing = (float)(header.rightExtent - header.leftExtent) /
+                        (header.columns - 1);
+        rowSpacing = (float)(header.topExtent - header.bottomExtent) /
+                     (header.rows - 1);
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by HeightFieldSource
+    //---------------------------------------------------------------
+
+    @Override
+    public int getNumColumns()
+    {
+        return header.columns;
+    }
+
+    @Override
+    public int getNumRows()
+    {
+        return header.rows;
+    }
+
+    @Override
+    public float getColumnSpacing()
+    {
+        return columnSpacing;
+    }
+
+    @Override
+    public float getRowSpacing()
+    {
+        return rowSpacing;
+    }
+
+    @Override
+    public float getHeight(int column, int row)
+    {
+        int seg = column / columnsPerSegment;
+        int col = column - seg * columnsPerSegment;
+        int offset = (col * header.rows + row) * dataSize;
+
+        if(floatData)
+            return segments[seg].getFloat(offset) * verticalScale;
+        else
+            return segments[seg].getShort(offset) * verticalScale;
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Get the header read from the file.
+     *
+     * @return The file header
+     */
+    public BTHeader getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * Build the message for a file that is shorter than it should be.
+     *
+     * @param file The file being read
+     * @return The formatted message
+     */
+    private String truncatedMessage(File file)
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        String msg_pattern = intl_mgr.getString(TRUNCATED_PROP);
+
+        Locale lcl = intl_mgr.getFoundLocale();
+        Object[] msg_args = { file.getPath() };
+        MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+
+        return msg_fmt.format(msg_args);
+    }
+
+    /**
+     * Work out the version from the identifier at the start of the file.
+     *
+     * @param magic The first 10 bytes of the file as a string
+     * @return The matching version
+     * @throws UnsupportedFormatException The version is not one that can
+     *    be mapped
+     */
+    private BTVersion parseVersion(String magic)
+    {
+        switch(magic)
+        {
+            case "binterr1.1":
+                return BTVersion.VERSION_1_1;
+
+            case "binterr1.2":
+                return BTVersion.VERSION_1_2;
+
+            case "binterr1.3":
+                return BTVersion.VERSION_1_3;
+        }
+
+        I18nManager intl_mgr = I18nManager.getManager();
+        String msg_pattern = intl_mgr.getString(UNSUPPORTED_VERSION_PROP);
+
+        Locale lcl = intl_mgr.getFoundLocale();
+        Object[] msg_args = { magic };
+        MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+        String msg = msg_fmt.format(msg_args);
+
+        throw new UnsupportedFormatException(msg);
+    }
+}
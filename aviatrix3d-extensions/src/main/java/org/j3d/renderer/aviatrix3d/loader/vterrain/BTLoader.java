@@ -15,6 +15,7 @@ package org.j3d.renderer.aviatrix3d.loader.vterrain;
 // External imports
 import java.io.*;
 
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 
@@ -22,12 +23,16 @@ import java.net.URLConnection;
 import org.j3d.aviatrix3d.*;
 
 import org.j3d.loaders.HeightMapSourceOrigin;
+import org.j3d.loaders.UnsupportedFormatException;
 import org.j3d.loaders.vterrain.*;
 
 import org.j3d.geom.GeometryData;
 import org.j3d.geom.terrain.ElevationGridGenerator;
 import org.j3d.loaders.HeightMapSource;
 
+import org.j3d.renderer.aviatrix3d.geom.terrain.ArrayHeightField;
+import org.j3d.renderer.aviatrix3d.geom.terrain.HeightFieldSource;
+import org.j3d.renderer.aviatrix3d.geom.terrain.TiledTerrain;
 import org.j3d.renderer.aviatrix3d.loader.AVLoader;
 import org.j3d.renderer.aviatrix3d.loader.AVModel;
 
@@ -41,9 +46,13 @@ import org.j3d.renderer.aviatrix3d.loader.AVModel;
  * a single 0-1 scale for the width of the object.
  * <p>
  *
- * The loader produces a single mesh that represents the file's contents. No
- * further processing is performed in the current implementation to break the
- * points into smaller tiles or use multi-resolution terrain structures.
+ * By default the loader produces a single mesh that represents the file's
+ * contents. When {@link #setTiledMode(boolean) tiled mode} is enabled, a
+ * {@link TiledTerrain} is produced instead, which splits the heights into
+ * tiles and only builds the geometry of the tiles that are visible. Files
+ * loaded from a {@link File} or a file: URL are memory mapped in tiled mode,
+ * so the heights are never all loaded into the heap. Other URLs and streams
+ * cannot be mapped, and are parsed into memory first.
  * <p>
  *
  * The definition of the file format can be found at:
@@ -64,6 +73,9 @@ public class BTLoader
     private static final int[] TEX_COORD_TYPES =
         { VertexGeometry.TEXTURE_COORDINATE_2 };
 
+    /** The default number of grid cells along each side of a tile */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
     /** The currently set load flags */
     private int loadFlags;
 
@@ -79,6 +91,18 @@ public class BTLoader
     /** Step information because it is not held anywhere else */
     private float[] gridStepData;
 
+    /** Flag defining whether a tiled terrain is produced */
+    private boolean tiledMode;
+
+    /** Number of grid cells along each side of a tile in tiled mode */
+    private int tileSize;
+
+    /** Memory budget for the tile geometry in tiled mode */
+    private long tileMemoryBudget;
+
+    /** The mapped file from the last load, if it was memory mapped */
+    private BTHeightField mappedSource;
+
     /**
      * Construct a new default loader with no flags set
      */
@@ -86,6 +110,9 @@ public class BTLoader
     {
         loadFlags = LOAD_ALL;
         keepModel = false;
+        tiledMode = false;
+        tileSize = DEFAULT_TILE_SIZE;
+        tileMemoryBudget = TiledTerrain.DEFAULT_MEMORY_BUDGET;
     }
 
     //---------------------------------------------------------------
@@ -102,6 +129,20 @@ public class BTLoader
     @Override
     public AVModel load(URL url) throws IOException
     {
+        if(tiledMode && "file".equals(url.getProtocol()))
+        {
+            try
+            {
+                return loadMapped(new File(url.toURI()));
+            }
+            catch(URISyntaxException | IllegalArgumentException |
+                  UnsupportedFormatException e)
+            {
+                // Not a plain local file, or a version that cannot be
+                // mapped, so fall back to reading the stream below.
+            }
+        }
+
         InputStream input = null;
 
         try
@@ -149,6 +190,19 @@ public class BTLoader
     @Override
     public AVModel load(File file) throws IOException
     {
+        if(tiledMode)
+        {
+            try
+            {
+                return loadMapped(file);
+            }
+            catch(UnsupportedFormatException ufe)
+            {
+                // Older versions cannot be mapped, but the parser can still
+                // read them into memory.
+            }
+        }
+
         FileInputStream fis = new FileInputStream(file);
         BufferedInputStream input = new BufferedInputStream(fis);
 
@@ -217,6 +271,9 @@ public class BTLoader
     @Override
     public float[][] getHeights()
     {
+        if(mappedSource != null || parser == null)
+            return null;
+
         return parser.getHeights();
     }
 
@@ -250,7 +307,78 @@ public class BTLoader
      */
     public BTHeader getHeader()
     {
-        return parser.getHeader();
+        if(mappedSource != null)
+            return mappedSource.getHeader();
+
+        return parser == null ? null : parser.getHeader();
+    }
+
+    /**
+     * Set whether the loader should produce a {@link TiledTerrain} rather
+     * than a single mesh. The tiles are built when they are first visible
+     * and are thrown away again when over the memory budget. When a file
+     * is memory mapped, {@link #getHeights()} returns null as the heights
+     * are not held in memory.
+     *
+     * @param enable true to produce a tiled terrain
+     */
+    public void setTiledMode(boolean enable)
+    {
+        tiledMode = enable;
+    }
+
+    /**
+     * Check to see whether the loader produces a tiled terrain.
+     *
+     * @return true when a tiled terrain is produced
+     */
+    public boolean isTiledMode()
+    {
+        return tiledMode;
+    }
+
+    /**
+     * Set the number of grid cells along each side of a tile when in tiled
+     * mode. The value is checked when the next terrain is created.
+     *
+     * @param size The number of grid cells, at least 1
+     */
+    public void setTileSize(int size)
+    {
+        tileSize = size;
+    }
+
+    /**
+     * Get the number of grid cells along each side of a tile when in tiled
+     * mode.
+     *
+     * @return The number of grid cells
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Set the memory budget given to the terrain produced in tiled mode.
+     * The value is checked when the next terrain is created.
+     *
+     * @param bytes The memory budget in bytes
+     * @see TiledTerrain#setMemoryBudget(long)
+     */
+    public void setTileMemoryBudget(long bytes)
+    {
+        tileMemoryBudget = bytes;
+    }
+
+    /**
+     * Get the memory budget given to the terrain produced in tiled mode.
+     *
+     * @return The memory budget in bytes
+     */
+    public long getTileMemoryBudget()
+    {
+        return tileMemoryBudget;
     }
 
     //----------------------------------------------------------
@@ -266,6 +394,8 @@ public class BTLoader
     private AVModel loadInternal(InputStream input)
         throws IOException
     {
+        mappedSource = null;
+
         if(parser == null)
             parser = new BTParser(input);
         else
@@ -275,6 +405,22 @@ public class BTLoader
 
         BTHeader header = parser.getHeader();
 
+        if(tiledMode)
+        {
+            float col_step = (float)(header.rightExtent - header.leftExtent) /
+                             (header.columns - 1);
+            float row_step = (float)(header.topExtent - header.bottomExtent) /
+                             (header.rows - 1);
+
+            ArrayHeightField source =
+                new ArrayHeightField(heights, col_step, row_step);
+
+            if(!keepModel)
+                parser.clear();
+
+            return createTiledModel(source, header);
+        }
+
         float width = (float)(header.rightExtent - header.leftExtent);
         float depth = (float)(header.topExtent - header.bottomExtent);
 
@@ -344,4 +490,41 @@ public class BTLoader
 
         return model;
     }
+
+    /**
+     * Memory map the file and build a tiled terrain over it.
+     *
+     * @param file The file to map
+     * @return The scene description
+     * @throws IOException something went wrong while reading the file
+     */
+    private AVModel loadMapped(File file)
+        throws IOException
+    {
+        mappedSource = new BTHeightField(file);
+
+        return createTiledModel(mappedSource, mappedSource.getHeader());
+    }
+
+    /**
+     * Create the model holding a tiled terrain for the given heights.
+     *
+     * @param source The source of the heights
+     * @param header The header of the file the heights came from
+     * @return The scene description
+     */
+    private AVModel createTiledModel(HeightFieldSource source, BTHeader header)
+    {
+        gridStepData = new float[2];
+        gridStepData[0] = source.getColumnSpacing();
+        gridStepData[1] = source.getRowSpacing();
+
+        TiledTerrain terrain = new TiledTerrain(source, tileSize);
+        terrain.setMemoryBudget(tileMemoryBudget);
+
+        Group root_group = new Group();
+        root_group.addChild(terrain);
+
+        return new BTModel(root_group, header);
+    }
 }
@@ -0,0 +1,1403 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.nodes;
+
+// External imports
+import java.util.IdentityHashMap;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.*;
+import org.j3d.aviatrix3d.picking.*;
+import org.j3d.aviatrix3d.rendering.*;
+
+/**
+ * A grouping node that keeps a bounding volume hierarchy over its children
+ * so that culling and picking of groups with very large numbers of children
+ * does not need to visit every child.
+ * <p>
+ *
+ * The hierarchy is a binary tree of axis-aligned boxes, built incrementally
+ * as children are added and removed, and kept height balanced with tree
+ * rotations. When a child reports that its bounds have changed, only the
+ * leaf for that child and the chain of boxes above it are refitted, so a
+ * single moving child costs O(log n) rather than a pass over all children.
+ * <p>
+ *
+ * Children that do not have usable bounds, such as those with a
+ * {@link BoundingVoid}, and children that are not geometry, such as lights,
+ * fog and clip planes, are not placed in the hierarchy. They are always
+ * passed through to the cull and pick stages so that their effects are still
+ * applied to the visible children.
+ * <p>
+ *
+ * The order in which children are handed to the renderer is the order found
+ * in the hierarchy, not the order in which they were added.
+ * <p>
+ *
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>pickTimingMsg: Error message when attempting to pick outside the app
+ *     update observer callback.</li>
+ * <li>notPickableMsg: Error message when the user has set the pickmask to
+ *     zero and then requested a pick directly on this object.</li>
+ * </ul>
+ */
+public class BVHGroup extends BaseGroup
+    implements CustomCullable, CustomPickTarget, PickableObject
+{
+    /** Message when attempting to pick the object at the wrong time */
+    private static final String PICK_TIMING_PROP =
+        "org.j3d.renderer.aviatrix3d.nodes.BVHGroup.pickTimingMsg";
+
+    /**
+     * You are attempting to pick a node you have marked as not-pickable, yet
+     * called the pick method on this class anyway.
+     */
+    private static final String PICKABLE_FALSE_PROP =
+        "org.j3d.renderer.aviatrix3d.nodes.BVHGroup.notPickableMsg";
+
+    /** Index used to mark no tree node */
+    private static final int NULL_NODE = -1;
+
+    /** Parent value of a leaf that is held outside the hierarchy */
+    private static final int UNINDEXED_NODE = -2;
+
+    /** Parent value of a tree node that is in the free list */
+    private static final int FREE_NODE = -3;
+
+    /** Initial number of tree nodes to allocate */
+    private static final int TREE_START_SIZE = 16;
+
+    /** Bitmask with a bit set for each of the 6 frustum planes */
+    private static final int ALL_PLANES = 0x3F;
+
+    /** Min and max extents of each tree node, 6 values per node */
+    private float[] nodeBounds;
+
+    /** Index of the parent of each tree node, or one of the marker values */
+    private int[] nodeParent;
+
+    /** Left child of each tree node, NULL_NODE for leaves */
+    private int[] nodeLeft;
+
+    /** Right child of each tree node, NULL_NODE for leaves */
+    private int[] nodeRight;
+
+    /** Height of the subtree below each tree node. Leaves are 0 */
+    private int[] nodeHeight;
+
+    /** The scene graph child held by each leaf */
+    private Node[] nodeChild;
+
+    /**
+     * The next leaf holding the same child, for shared children that have
+     * been added more than once.
+     */
+    private int[] nodeNextLeaf;
+
+    /** The index of the root tree node, or NULL_NODE when empty */
+    private int rootNode;
+
+    /** Head of the list of free tree nodes, linked through nodeLeft */
+    private int firstFreeNode;
+
+    /** The leaves that are not in the hierarchy */
+    private int[] unindexedLeaves;
+
+    /** Number of valid items in unindexedLeaves */
+    private int numUnindexed;
+
+    /** Map from each child to the first leaf that holds it */
+    private IdentityHashMap<Node, Integer> leafMap;
+
+    /** Frustum planes in the local coordinate space, 4 values per plane */
+    private double[] localPlanes;
+
+    /** Flag indicating if this object is pickable currently */
+    private int pickFlags;
+
+    /**
+     * Construct a new, empty group.
+     */
+    public BVHGroup()
+    {
+        nodeBounds = new float[TREE_START_SIZE * 6];
+        nodeParent = new int[TREE_START_SIZE];
+        nodeLeft = new int[TREE_START_SIZE];
+        nodeRight = new int[TREE_START_SIZE];
+        nodeHeight = new int[TREE_START_SIZE];
+        nodeChild = new Node[TREE_START_SIZE];
+        nodeNextLeaf = new int[TREE_START_SIZE];
+
+        unindexedLeaves = new int[TREE_START_SIZE];
+        leafMap = new IdentityHashMap<>();
+        localPlanes = new double[24];
+
+        pickFlags = 0xFFFFFFFF;
+
+        clearTree();
+    }
+
+    //-------------------------------------------------
+    // Methods defined by CustomCullable
+    //-------------------------------------------------
+
+    /**
+     * Check this node for children to traverse. The angular resolution is
+     * defined as Field Of View (in radians) / viewport width in pixels.
+     *
+     * @param output Fill in the child information here
+     * @param vworldTx The transformation from the root of the scene to
+     *    this node according to the current traversal path
+     * @param viewTransform The transformation from the root of the scene
+     *    graph to the active viewpoint
+     * @param frustumPlanes Listing of frustum planes in the order: right,
+     *    left, bottom, top, far, near
+     * @param angularRes Angular resolution of the screen, or 0 if not
+     *    calculable from the available data.
+     */
+    @Override
+    public void cullChildren(CullInstructions output,
+                             Matrix4d vworldTx,
+                             Matrix4d viewTransform,
+                             Vector4d[] frustumPlanes,
+                             float angularRes)
+    {
+        output.hasTransform = false;
+        output.numChildren = 0;
+
+        if(output.children == null || output.children.length < lastChild)
+            output.resizeChildren(lastChild);
+
+        Cullable[] kids = output.children;
+        int count = 0;
+
+        for(int i = 0; i < numUnindexed; i++)
+        {
+            Node child = nodeChild[unindexedLeaves[i]];
+
+            if(child instanceof Cullable)
+                kids[count++] = (Cullable)child;
+        }
+
+        if(rootNode != NULL_NODE)
+        {
+            // Take the planes into local space once, rather than taking
+            // every box out into world space.
+            for(int i = 0; i < 6; i++)
+            {
+                Vector4d p = frustumPlanes[i];
+                int idx = i * 4;
+
+                localPlanes[idx] =
+                    p.x * vworldTx.m00 + p.y * vworldTx.m10 + p.z * vworldTx.m20;
+                localPlanes[idx + 1] =
+                    p.x * vworldTx.m01 + p.y * vworldTx.m11 + p.z * vworldTx.m21;
+                localPlanes[idx + 2] =
+                    p.x * vworldTx.m02 + p.y * vworldTx.m12 + p.z * vworldTx.m22;
+                localPlanes[idx + 3] =
+                    p.x * vworldTx.m03 + p.y * vworldTx.m13 + p.z * vworldTx.m23 +
+                    p.w;
+            }
+
+            count = cullNode(rootNode, ALL_PLANES, kids, count);
+        }
+
+        output.numChildren = count;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by CustomPickTarget
+    //---------------------------------------------------------------
+
+    /**
+     * This node is being subjected to picking, so process the provided data
+     * and return the instructions on the list of available children and any
+     * transformation information to the system.
+     * <p>
+     *
+     * @param output Fill in the results of the picking evaluation here
+     * @param vworldTx The transformation from the root of the scene to
+     *    this node according to the current traversal path
+     * @param request The picking request made of this object
+     */
+    @Override
+    public void pickChildren(PickInstructions output,
+                             Matrix4d vworldTx,
+                             PickRequest request)
+    {
+        output.hasTransform = false;
+        output.numChildren = 0;
+
+        if(output.children == null || output.children.length < lastChild)
+            output.resizeChildren(lastChild);
+
+        PickTarget[] kids = output.children;
+        int count = 0;
+
+        for(int i = 0; i < numUnindexed; i++)
+        {
+            Node child = nodeChild[unindexedLeaves[i]];
+
+            if(child instanceof PickTarget)
+                kids[count++] = (PickTarget)child;
+        }
+
+        if(rootNode != NULL_NODE)
+        {
+            // Frustum picks are not supported by the bounds tests, so hand
+            // everything over and let the picking handler sort it out.
+            boolean test_bounds =
+                request.pickGeometryType != PickRequest.PICK_FRUSTUM;
+
+            // Locally allocated so that picking stays re-entrant.
+            count = pickNode(rootNode,
+                             test_bounds,
+                             vworldTx,
+                             request,
+                             new PickingUtils(),
+                             new BoundingBox(),
+                             kids,
+                             count);
+        }
+
+        output.numChildren = count;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by PickTarget
+    //---------------------------------------------------------------
+
+    /**
+     * Return the type constant that represents the type of pick target this
+     * is. Used to provided optimised picking implementations.
+     *
+     * @return One of the _PICK_TYPE constants
+     */
+    @Override
+    public final int getPickTargetType()
+    {
+        return PickTarget.CUSTOM_PICK_TYPE;
+    }
+
+    /**
+     * Check the given pick mask against the node's internal pick mask
+     * representation. If there is a match in one or more bitfields then this
+     * will return true, allowing picking to continue to process for this
+     * target.
+     *
+     * @param mask The bit mask to check against
+     * @return true if the mask has an overlapping set of bitfields
+     */
+    @Override
+    public boolean checkPickMask(int mask)
+    {
+        return ((pickFlags & mask) != 0);
+    }
+
+    /**
+     * Get the bounds of this picking target so that testing can be performed
+     * on the object.
+     *
+     * @return A representation of the volume representing the pickable objects
+     */
+    @Override
+    public BoundingVolume getPickableBounds()
+    {
+        return bounds;
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by PickableObject
+    //---------------------------------------------------------------
+
+    /**
+     * Set the node as being pickable currently using the given bit mask.
+     * A mask of 0 will completely disable picking.
+     *
+     * @param state A bit mask of available options to pick for
+     */
+    @Override
+    public void setPickMask(int state)
+    {
+        pickFlags = state;
+    }
+
+    /**
+     * Get the current pickable state mask of this object. A value of zero
+     * means it is completely unpickable.
+     *
+     * @return A bit mask of available options to pick for
+     */
+    @Override
+    public int getPickMask()
+    {
+        return pickFlags;
+    }
+
+    /**
+     * Check for all intersections against this geometry and it's children to
+     * see if there is an intersection with the given set of requests.
+     *
+     * @param reqs The list of picks to be made, starting at this object
+     * @param numRequests The number of valid pick requests to process
+     * @throws NotPickableException This object has been marked as non pickable,
+     *   but you decided to try to call the method anyway
+     * @throws InvalidPickTimingException An attempt was made to pick outside
+     *   of the ApplicationUpdateObserver callback method
+     */
+    @Override
+    public void pickBatch(PickRequest[] reqs, int numRequests)
+        throws NotPickableException, InvalidPickTimingException
+    {
+        if(updateHandler == null || !updateHandler.isPickingPermitted())
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg = intl_mgr.getString(PICK_TIMING_PROP);
+            throw new InvalidPickTimingException(msg);
+        }
+
+        if(pickFlags == 0)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg = intl_mgr.getString(PICKABLE_FALSE_PROP);
+            throw new NotPickableException(msg);
+        }
+
+        PickingManager picker = updateHandler.getPickingManager();
+
+        picker.pickBatch(this, reqs, numRequests);
+    }
+
+    /**
+     * Check for all intersections against this geometry and it's children to
+     * see if there is an intersection with the given set of requests.
+     *
+     * @param req The details of the pick to be made
+     * @throws NotPickableException This object has been marked as non pickable,
+     *   but you decided to try to call the method anyway
+     * @throws InvalidPickTimingException An attempt was made to pick outside
+     *   of the ApplicationUpdateObserver callback method
+     */
+    @Override
+    public void pickSingle(PickRequest req)
+        throws NotPickableException, InvalidPickTimingException
+    {
+        if(updateHandler == null || !updateHandler.isPickingPermitted())
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg = intl_mgr.getString(PICK_TIMING_PROP);
+            throw new InvalidPickTimingException(msg);
+        }
+
+        if(pickFlags == 0)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg = intl_mgr.getString(PICKABLE_FALSE_PROP);
+            throw new NotPickableException(msg);
+        }
+
+        PickingManager picker = updateHandler.getPickingManager();
+
+        picker.pickSingle(this, req);
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by Node
+    //----------------------------------------------------------
+
+    /**
+     * Notification from one of the children that it has updated its bounds.
+     * Refits the leaves holding that child and the boxes above them before
+     * passing on to the normal bounds update handling.
+     *
+     * @param child The child node whose bounds have just been updated
+     */
+    @Override
+    protected void childBoundsUpdated(Node child)
+    {
+        Integer leaf = leafMap.get(child);
+
+        if(leaf != null)
+        {
+            for(int l = leaf; l != NULL_NODE; l = nodeNextLeaf[l])
+                refitLeaf(l);
+        }
+
+        updateBounds();
+    }
+
+    /**
+     * Internal method to recalculate the implicit bounds of this Node. Uses
+     * the box at the root of the hierarchy combined with the bounds of any
+     * children held outside of it.
+     */
+    @Override
+    protected void recomputeBounds()
+    {
+        if(!implicitBounds)
+            return;
+
+        boolean found = false;
+
+        float min_x = 0;
+        float min_y = 0;
+        float min_z = 0;
+        float max_x = 0;
+        float max_y = 0;
+        float max_z = 0;
+
+        if(rootNode != NULL_NODE)
+        {
+            int idx = rootNode * 6;
+            min_x = nodeBounds[idx];
+            min_y = nodeBounds[idx + 1];
+            min_z = nodeBounds[idx + 2];
+            max_x = nodeBounds[idx + 3];
+            max_y = nodeBounds[idx + 4];
+            max_z = nodeBounds[idx + 5];
+            found = true;
+        }
+
+        for(int i = 0; i < numUnindexed; i++)
+        {
+            BoundingVolume bds = nodeChild[unindexedLeaves[i]].getBounds();
+
+            if(bds == null || bds instanceof BoundingVoid)
+                continue;
+
+            bds.getExtents(wkVec1, wkVec2);
+
+            if(!found)
+            {
+                min_x = wkVec1[0];
+                min_y = wkVec1[1];
+                min_z = wkVec1[2];
+                max_x = wkVec2[0];
+                max_y = wkVec2[1];
+                max_z = wkVec2[2];
+                found = true;
+                continue;
+            }
+
+            if(wkVec1[0] < min_x)
+                min_x = wkVec1[0];
+
+            if(wkVec1[1] < min_y)
+                min_y = wkVec1[1];
+
+            if(wkVec1[2] < min_z)
+                min_z = wkVec1[2];
+
+            if(wkVec2[0] > max_x)
+                max_x = wkVec2[0];
+
+            if(wkVec2[1] > max_y)
+                max_y = wkVec2[1];
+
+            if(wkVec2[2] > max_z)
+                max_z = wkVec2[2];
+        }
+
+        if(!found)
+        {
+            bounds = INVALID_BOUNDS;
+            return;
+        }
+
+        if((bounds instanceof BoundingVoid) || (bounds == null))
+            bounds = new BoundingBox();
+
+        BoundingBox bbox = (BoundingBox)bounds;
+        bbox.setMinimum(min_x, min_y, min_z);
+        bbox.setMaximum(max_x, max_y, max_z);
+    }
+
+    /**
+     * Request a recomputation of the bounds of this object. If this object is
+     * not currently live, you can request a recompute of the bounds to get the
+     * most current values. If this node is currently live, then the request is
+     * ignored.
+     * <p>
+     * The bounds of every child are refetched and the whole hierarchy is
+     * refitted.
+     */
+    @Override
+    public void requestBoundsUpdate()
+    {
+        if(alive || (lastChild == 0) || !implicitBounds)
+            return;
+
+        for(int i = 0; i < lastChild; i++)
+        {
+            if(childList[i] != null)
+                childList[i].requestBoundsUpdate();
+        }
+
+        refitAllLeaves();
+        recomputeBounds();
+
+        dirtyBoundsCount = 0;
+    }
+
+    //----------------------------------------------------------
+    // Methods defined by SceneGraphObject
+    //----------------------------------------------------------
+
+    /**
+     * Notification that this object is live now. Bounds changes made to
+     * children while they were not live are not reported, so the hierarchy
+     * is refitted as it goes live.
+     */
+    @Override
+    protected void setLive(boolean state)
+    {
+        if(state && !alive)
+            refitAllLeaves();
+
+        super.setLive(state);
+    }
+
+    //-------------------------------------------------
+    // Methods defined by BaseGroup
+    //-------------------------------------------------
+
+    /**
+     * Appends the specified child node to this group node's list of children
+     *
+     * @param newChild The child to add
+     * @throws AlreadyParentedException There is a valid parent already set
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener bounds changed callback method
+     */
+    @Override
+    public void addChild(Node newChild)
+        throws AlreadyParentedException, InvalidWriteTimingException
+    {
+        super.addChild(newChild);
+
+        if(newChild != null)
+            addLeaf(newChild);
+    }
+
+    /**
+     * Replaces the child node at the specified index in this group
+     * node's list of children with the specified child.
+     *
+     * @param newChild The child node to use
+     * @param idx The index to replace.  Must be greater than 0 and less then numChildren
+     * @throws IndexOutOfBoundsException When the idx is invalid
+     * @throws AlreadyParentedException There is a valid parent already set
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener bounds callback method
+     */
+    @Override
+    public void setChild(Node newChild, int idx)
+        throws AlreadyParentedException, InvalidWriteTimingException
+    {
+        Node old_child = (idx >= 0 && idx < lastChild) ? childList[idx] : null;
+
+        super.setChild(newChild, idx);
+
+        // The base class allows writing one past the end without counting
+        // it as a child, so don't index that either.
+        if(idx >= lastChild)
+            return;
+
+        if(old_child != null)
+            removeLeaf(old_child);
+
+        if(newChild != null)
+            addLeaf(newChild);
+    }
+
+    /**
+     * Remove the child at the specified index from the group.
+     *
+     * @param idx The index of the child to remove
+     * @throws IndexOutOfBoundsException When the idx is invalid
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener bounds changed callback method
+     */
+    @Override
+    public void removeChild(int idx)
+        throws InvalidWriteTimingException
+    {
+        Node old_child = (idx >= 0 && idx < lastChild) ? childList[idx] : null;
+
+        super.removeChild(idx);
+
+        if(old_child != null)
+            removeLeaf(old_child);
+    }
+
+    /**
+     * Removes all children from the group.
+     *
+     * @throws InvalidWriteTimingException An attempt was made to write outside
+     *   of the NodeUpdateListener callback method
+     */
+    @Override
+    public void removeAllChildren()
+        throws InvalidWriteTimingException
+    {
+        super.removeAllChildren();
+
+        clearTree();
+    }
+
+    //-------------------------------------------------
+    // Local methods
+    //-------------------------------------------------
+
+    /**
+     * Get the height of the hierarchy. An empty group or one with a single
+     * indexed child has a height of 0. Mostly useful for diagnostics.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getTreeHeight()
+    {
+        return (rootNode == NULL_NODE) ? 0 : nodeHeight[rootNode];
+    }
+
+    /**
+     * Recursively cull a branch of the hierarchy against the local space
+     * frustum planes.
+     *
+     * @param node The tree node to start from
+     * @param planeMask Bitmask of the planes that the parent box was not
+     *    completely inside of
+     * @param kids The array to place the visible children in
+     * @param count The number of children already in the array
+     * @return The new number of children in the array
+     */
+    private int cullNode(int node, int planeMask, Cullable[] kids, int count)
+    {
+        int idx = node * 6;
+
+        double c_x = (nodeBounds[idx] + nodeBounds[idx + 3]) * 0.5;
+        double c_y = (nodeBounds[idx + 1] + nodeBounds[idx + 4]) * 0.5;
+        double c_z = (nodeBounds[idx + 2] + nodeBounds[idx + 5]) * 0.5;
+
+        double h_x = (nodeBounds[idx + 3] - nodeBounds[idx]) * 0.5;
+        double h_y = (nodeBounds[idx + 4] - nodeBounds[idx + 1]) * 0.5;
+        double h_z = (nodeBounds[idx + 5] - nodeBounds[idx + 2]) * 0.5;
+
+        int child_mask = 0;
+
+        for(int p = 0; p < 6; p++)
+        {
+            if((planeMask & (1 << p)) == 0)
+                continue;
+
+            int p_idx = p * 4;
+            double p_x = localPlanes[p_idx];
+            double p_y = localPlanes[p_idx + 1];
+            double p_z = localPlanes[p_idx + 2];
+
+            double dist = p_x * c_x + p_y * c_y + p_z * c_z + localPlanes[p_idx + 3];
+            double radius = Math.abs(p_x) * h_x + Math.abs(p_y) * h_y +
+                            Math.abs(p_z) * h_z;
+
+            if(dist + radius <= 0)
+                return count;
+
+            if(dist - radius <= 0)
+                child_mask |= (1 << p);
+        }
+
+        if(nodeLeft[node] == NULL_NODE)
+        {
+            Node child = nodeChild[node];
+
+            if(child instanceof Cullable)
+                kids[count++] = (Cullable)child;
+
+            return count;
+        }
+
+        count = cullNode(nodeLeft[node], child_mask, kids, count);
+        return cullNode(nodeRight[node], child_mask, kids, count);
+    }
+
+    /**
+     * Recursively test a branch of the hierarchy against the pick request.
+     * The boxes are taken to world space as the enclosing axis aligned box,
+     * so the test is conservative. The picking handler tests each returned
+     * child for itself.
+     *
+     * @param node The tree node to start from
+     * @param testBounds true if the box should be tested against the
+     *    request, false to accept everything below this node
+     * @param vworldTx The transformation from the root of the scene to
+     *    this node
+     * @param request The picking request made of this object
+     * @param pickUtils Utility class for processing the pick request
+     * @param wkBox Working box to place the world space bounds into
+     * @param kids The array to place the picked children in
+     * @param count The number of children already in the array
+     * @return The new number of children in the array
+     */
+    private int pickNode(int node,
+                         boolean testBounds,
+                         Matrix4d vworldTx,
+                         PickRequest request,
+                         PickingUtils pickUtils,
+                         BoundingBox wkBox,
+                         PickTarget[] kids,
+                         int count)
+    {
+        if(testBounds)
+        {
+            int idx = node * 6;
+
+            double c_x = (nodeBounds[idx] + nodeBounds[idx + 3]) * 0.5;
+            double c_y = (nodeBounds[idx + 1] + nodeBounds[idx + 4]) * 0.5;
+            double c_z = (nodeBounds[idx + 2] + nodeBounds[idx + 5]) * 0.5;
+
+            double h_x = (nodeBounds[idx + 3] - nodeBounds[idx]) * 0.5;
+            double h_y = (nodeBounds[idx + 4] - nodeBounds[idx + 1]) * 0.5;
+            double h_z = (nodeBounds[idx + 5] - nodeBounds[idx + 2]) * 0.5;
+
+            double w_x = vworldTx.m00 * c_x + vworldTx.m01 * c_y +
+                         vworldTx.m02 * c_z + vworldTx.m03;
+            double w_y = vworldTx.m10 * c_x + vworldTx.m11 * c_y +
+                         vworldTx.m12 * c_z + vworldTx.m13;
+            double w_z = vworldTx.m20 * c_x + vworldTx.m21 * c_y +
+                         vworldTx.m22 * c_z + vworldTx.m23;
+
+            double e_x = Math.abs(vworldTx.m00) * h_x +
+                         Math.abs(vworldTx.m01) * h_y +
+                         Math.abs(vworldTx.m02) * h_z;
+            double e_y = Math.abs(vworldTx.m10) * h_x +
+                         Math.abs(vworldTx.m11) * h_y +
+                         Math.abs(vworldTx.m12) * h_z;
+            double e_z = Math.abs(vworldTx.m20) * h_x +
+                         Math.abs(vworldTx.m21) * h_y +
+                         Math.abs(vworldTx.m22) * h_z;
+
+            wkBox.setMinimum((float)(w_x - e_x), (float)(w_y - e_y), (float)(w_z - e_z));
+            wkBox.setMaximum((float)(w_x + e_x), (float)(w_y + e_y), (float)(w_z + e_z));
+
+            if(!pickUtils.checkIntersection(wkBox, request))
+                return count;
+        }
+
+        if(nodeLeft[node] == NULL_NODE)
+        {
+            Node child = nodeChild[node];
+
+            if(child instanceof PickTarget)
+                kids[count++] = (PickTarget)child;
+
+            return count;
+        }
+
+        count = pickNode(nodeLeft[node],
+                         testBounds,
+                         vworldTx,
+                         request,
+                         pickUtils,
+                         wkBox,
+                         kids,
+                         count);
+
+        return pickNode(nodeRight[node],
+                        testBounds,
+                        vworldTx,
+                        request,
+                        pickUtils,
+                        wkBox,
+                        kids,
+                        count);
+    }
+
+    /**
+     * Create a new leaf for the given child and place it in the hierarchy,
+     * or in the unindexed list if it has no usable bounds.
+     *
+     * @param child The child to add
+     */
+    private void addLeaf(Node child)
+    {
+        int leaf = allocateNode();
+        nodeChild[leaf] = child;
+        nodeNextLeaf[leaf] = NULL_NODE;
+
+        Integer first = leafMap.get(child);
+
+        if(first == null)
+            leafMap.put(child, leaf);
+        else
+        {
+            int l = first;
+            while(nodeNextLeaf[l] != NULL_NODE)
+                l = nodeNextLeaf[l];
+
+            nodeNextLeaf[l] = leaf;
+        }
+
+        if(fetchChildBounds(leaf))
+            insertLeaf(leaf);
+        else
+            addUnindexed(leaf);
+    }
+
+    /**
+     * Remove one of the leaves holding the given child.
+     *
+     * @param child The child to remove
+     */
+    private void removeLeaf(Node child)
+    {
+        Integer first = leafMap.get(child);
+
+        if(first == null)
+            return;
+
+        int leaf = first;
+
+        if(nodeNextLeaf[leaf] == NULL_NODE)
+            leafMap.remove(child);
+        else
+            leafMap.put(child, nodeNextLeaf[leaf]);
+
+        if(nodeParent[leaf] == UNINDEXED_NODE)
+            removeUnindexed(leaf);
+        else
+            extractLeaf(leaf);
+
+        freeNode(leaf);
+    }
+
+    /**
+     * Refetch the bounds of the child held by the leaf and update the
+     * boxes above it, moving the leaf in or out of the hierarchy if the
+     * child has gained or lost usable bounds.
+     *
+     * @param leaf The leaf to refit
+     */
+    private void refitLeaf(int leaf)
+    {
+        boolean indexed = nodeParent[leaf] != UNINDEXED_NODE;
+        boolean has_bounds = fetchChildBounds(leaf);
+
+        if(indexed && has_bounds)
+        {
+            int node = nodeParent[leaf];
+
+            while(node != NULL_NODE)
+            {
+                if(!updateNodeBounds(node))
+                    break;
+
+                node = nodeParent[node];
+            }
+        }
+        else if(indexed)
+        {
+            extractLeaf(leaf);
+            addUnindexed(leaf);
+        }
+        else if(has_bounds)
+        {
+            removeUnindexed(leaf);
+            insertLeaf(leaf);
+        }
+    }
+
+    /**
+     * Refit every leaf in the group. Used when changes to the children may
+     * have happened without any notification.
+     */
+    private void refitAllLeaves()
+    {
+        for(int i = 0; i < lastChild; i++)
+        {
+            if(childList[i] == null)
+                continue;
+
+            Integer leaf = leafMap.get(childList[i]);
+
+            if(leaf != null)
+            {
+                for(int l = leaf; l != NULL_NODE; l = nodeNextLeaf[l])
+                    refitLeaf(l);
+            }
+        }
+    }
+
+    /**
+     * Copy the bounds of the child held by a leaf into the leaf box.
+     *
+     * @param leaf The leaf to update
+     * @return true if the child has usable bounds, false if it should be
+     *    kept out of the hierarchy
+     */
+    private boolean fetchChildBounds(int leaf)
+    {
+        Node child = nodeChild[leaf];
+
+        // Effects need to reach the cull stage regardless of where they are.
+        if(child instanceof LeafCullable &&
+           ((LeafCullable)child).getCullableType() != LeafCullable.GEOMETRY_CULLABLE)
+            return false;
+
+        BoundingVolume bds = child.getBounds();
+
+        if(bds == null || bds instanceof BoundingVoid)
+            return false;
+
+        bds.getExtents(wkVec1, wkVec2);
+
+        int idx = leaf * 6;
+        nodeBounds[idx] = wkVec1[0];
+        nodeBounds[idx + 1] = wkVec1[1];
+        nodeBounds[idx + 2] = wkVec1[2];
+        nodeBounds[idx + 3] = wkVec2[0];
+        nodeBounds[idx + 4] = wkVec2[1];
+        nodeBounds[idx + 5] = wkVec2[2];
+
+        return true;
+    }
+
+    /**
+     * Insert a leaf into the hierarchy next to the sibling that gives the
+     * lowest increase in surface area, then rebalance up to the root.
+     *
+     * @param leaf The leaf to insert
+     */
+    private void insertLeaf(int leaf)
+    {
+        nodeLeft[leaf] = NULL_NODE;
+        nodeRight[leaf] = NULL_NODE;
+        nodeHeight[leaf] = 0;
+
+        if(rootNode == NULL_NODE)
+        {
+            rootNode = leaf;
+            nodeParent[leaf] = NULL_NODE;
+            return;
+        }
+
+        int sibling = rootNode;
+
+        while(nodeLeft[sibling] != NULL_NODE)
+        {
+            int left = nodeLeft[sibling];
+            int right = nodeRight[sibling];
+
+            float area = surfaceArea(sibling);
+            float combined = combinedArea(sibling, leaf);
+
+            // Cost of making a new parent here, and the minimum cost of
+            // pushing the leaf further down the tree.
+            float cost = 2 * combined;
+            float inherit_cost = 2 * (combined - area);
+
+            float left_cost = combinedArea(left, leaf) + inherit_cost;
+            if(nodeLeft[left] != NULL_NODE)
+                left_cost -= surfaceArea(left);
+
+            float right_cost = combinedArea(right, leaf) + inherit_cost;
+            if(nodeLeft[right] != NULL_NODE)
+                right_cost -= surfaceArea(right);
+
+            if(cost < left_cost && cost < right_cost)
+                break;
+
+            sibling = (left_cost < right_cost) ? left : right;
+        }
+
+        int old_parent = nodeParent[sibling];
+        int new_parent = allocateNode();
+
+        nodeParent[new_parent] = old_parent;
+        nodeLeft[new_parent] = sibling;
+        nodeRight[new_parent] = leaf;
+        nodeChild[new_parent] = null;
+        nodeParent[sibling] = new_parent;
+        nodeParent[leaf] = new_parent;
+
+        if(old_parent == NULL_NODE)
+            rootNode = new_parent;
+        else if(nodeLeft[old_parent] == sibling)
+            nodeLeft[old_parent] = new_parent;
+        else
+            nodeRight[old_parent] = new_parent;
+
+        rebalanceFrom(new_parent);
+    }
+
+    /**
+     * Take a leaf out of the hierarchy, replacing its parent with its
+     * sibling. The leaf node itself is not freed.
+     *
+     * @param leaf The leaf to extract
+     */
+    private void extractLeaf(int leaf)
+    {
+        if(leaf == rootNode)
+        {
+            rootNode = NULL_NODE;
+            return;
+        }
+
+        int parent_node = nodeParent[leaf];
+        int grand_parent = nodeParent[parent_node];
+        int sibling = (nodeLeft[parent_node] == leaf) ?
+                      nodeRight[parent_node] :
+                      nodeLeft[parent_node];
+
+        if(grand_parent == NULL_NODE)
+        {
+            rootNode = sibling;
+            nodeParent[sibling] = NULL_NODE;
+        }
+        else
+        {
+            if(nodeLeft[grand_parent] == parent_node)
+                nodeLeft[grand_parent] = sibling;
+            else
+                nodeRight[grand_parent] = sibling;
+
+            nodeParent[sibling] = grand_parent;
+            rebalanceFrom(grand_parent);
+        }
+
+        freeNode(parent_node);
+    }
+
+    /**
+     * Walk from the given node to the root, rebalancing and recomputing the
+     * box and height of each node on the way.
+     *
+     * @param node The first internal node to update
+     */
+    private void rebalanceFrom(int node)
+    {
+        while(node != NULL_NODE)
+        {
+            node = balance(node);
+            updateNodeBounds(node);
+            updateNodeHeight(node);
+
+            node = nodeParent[node];
+        }
+    }
+
+    /**
+     * If the two subtrees of the node differ in height by more than one,
+     * rotate the taller one up to take its place.
+     *
+     * @param node The node to balance
+     * @return The node now in the position of the one passed in
+     */
+    private int balance(int node)
+    {
+        if(nodeLeft[node] == NULL_NODE || nodeHeight[node] < 2)
+            return node;
+
+        int left = nodeLeft[node];
+        int right = nodeRight[node];
+        int diff = nodeHeight[right] - nodeHeight[left];
+
+        if(diff > 1)
+            return rotateUp(node, right);
+
+        if(diff < -1)
+            return rotateUp(node, left);
+
+        return node;
+    }
+
+    /**
+     * Rotate the given child up to replace its parent. The taller of the
+     * child's own children stays with it, and the shorter one takes the
+     * child's old place under the parent.
+     *
+     * @param node The node to rotate down
+     * @param up The child of node to rotate up
+     * @return The index of the rotated up node
+     */
+    private int rotateUp(int node, int up)
+    {
+        int up_left = nodeLeft[up];
+        int up_right = nodeRight[up];
+        int old_parent = nodeParent[node];
+
+        nodeParent[up] = old_parent;
+        nodeParent[node] = up;
+
+        if(old_parent == NULL_NODE)
+            rootNode = up;
+        else if(nodeLeft[old_parent] == node)
+            nodeLeft[old_parent] = up;
+        else
+            nodeRight[old_parent] = up;
+
+        int keep = up_left;
+        int move = up_right;
+
+        if(nodeHeight[up_right] > nodeHeight[up_left])
+        {
+            keep = up_right;
+            move = up_left;
+        }
+
+        nodeLeft[up] = node;
+        nodeRight[up] = keep;
+
+        if(nodeLeft[node] == up)
+            nodeLeft[node] = move;
+        else
+            nodeRight[node] = move;
+
+        nodeParent[move] = node;
+
+        updateNodeBounds(node);
+        updateNodeHeight(node);
+        updateNodeBounds(up);
+        updateNodeHeight(up);
+
+        return up;
+    }
+
+    /**
+     * Set the box of an internal node to enclose its two children.
+     *
+     * @param node The node to update
+     * @return true if the box changed
+     */
+    private boolean updateNodeBounds(int node)
+    {
+        int idx = node * 6;
+        int l_idx = nodeLeft[node] * 6;
+        int r_idx = nodeRight[node] * 6;
+        boolean changed = false;
+
+        for(int i = 0; i < 3; i++)
+        {
+            float min = Math.min(nodeBounds[l_idx + i], nodeBounds[r_idx + i]);
+            float max = Math.max(nodeBounds[l_idx + i + 3], nodeBounds[r_idx + i + 3]);
+
+            if(nodeBounds[idx + i] != min || nodeBounds[idx + i + 3] != max)
+            {
+                nodeBounds[idx + i] = min;
+                nodeBounds[idx + i + 3] = max;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Set the height of an internal node from its two children.
+     *
+     * @param node The node to update
+     */
+    private void updateNodeHeight(int node)
+    {
+        nodeHeight[node] =
+            1 + Math.max(nodeHeight[nodeLeft[node]], nodeHeight[nodeRight[node]]);
+    }
+
+    /**
+     * Calculate half the surface area of a node box, which is all that the
+     * insertion cost comparisons need.
+     *
+     * @param node The node to measure
+     * @return The half area of the box
+     */
+    private float surfaceArea(int node)
+    {
+        int idx = node * 6;
+        float d_x = nodeBounds[idx + 3] - nodeBounds[idx];
+        float d_y = nodeBounds[idx + 4] - nodeBounds[idx + 1];
+        float d_z = nodeBounds[idx + 5] - nodeBounds[idx + 2];
+
+        return d_x * d_y + d_y * d_z + d_z * d_x;
+    }
+
+    /**
+     * Calculate half the surface area of the box enclosing two nodes.
+     *
+     * @param node1 The first node
+     * @param node2 The second node
+     * @return The half area of the combined box
+     */
+    private float combinedArea(int node1, int node2)
+    {
+        int idx1 = node1 * 6;
+        int idx2 = node2 * 6;
+
+        float d_x = Math.max(nodeBounds[idx1 + 3], nodeBounds[idx2 + 3]) -
+                    Math.min(nodeBounds[idx1], nodeBounds[idx2]);
+        float d_y = Math.max(nodeBounds[idx1 + 4], nodeBounds[idx2 + 4]) -
+                    Math.min(nodeBounds[idx1 + 1], nodeBounds[idx2 + 1]);
+        float d_z = Math.max(nodeBounds[idx1 + 5], nodeBounds[idx2 + 5]) -
+                    Math.min(nodeBounds[idx1 + 2], nodeBounds[idx2 + 2]);
+
+        return d_x * d_y + d_y * d_z + d_z * d_x;
+    }
+
+    /**
+     * Add a leaf to the list of those kept outside the hierarchy.
+     *
+     * @param leaf The leaf to add
+     */
+    private void addUnindexed(int leaf)
+    {
+        if(numUnindexed == unindexedLeaves.length)
+        {
+            int[] tmp = new int[numUnindexed * 2];
+            System.arraycopy(unindexedLeaves, 0, tmp, 0, numUnindexed);
+            unindexedLeaves = tmp;
+        }
+
+        unindexedLeaves[numUnindexed++] = leaf;
+        nodeParent[leaf] = UNINDEXED_NODE;
+    }
+
+    /**
+     * Remove a leaf from the list of those kept outside the hierarchy.
+     *
+     * @param leaf The leaf to remove
+     */
+    private void removeUnindexed(int leaf)
+    {
+        for(int i = 0; i < numUnindexed; i++)
+        {
+            if(unindexedLeaves[i] == leaf)
+            {
+                numUnindexed--;
+                System.arraycopy(unindexedLeaves,
+                                 i + 1,
+                                 unindexedLeaves,
+                                 i,
+                                 numUnindexed - i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Fetch an unused tree node, growing the arrays if needed.
+     *
+     * @return The index of the node
+     */
+    private int allocateNode()
+    {
+        if(firstFreeNode == NULL_NODE)
+        {
+            int old_size = nodeParent.length;
+            int new_size = old_size * 2;
+
+            float[] tmp_f = new float[new_size * 6];
+            System.arraycopy(nodeBounds, 0, tmp_f, 0, old_size * 6);
+            nodeBounds = tmp_f;
+
+            nodeParent = resize(nodeParent, new_size);
+            nodeLeft = resize(nodeLeft, new_size);
+            nodeRight = resize(nodeRight, new_size);
+            nodeHeight = resize(nodeHeight, new_size);
+            nodeNextLeaf = resize(nodeNextLeaf, new_size);
+
+            Node[] tmp_n = new Node[new_size];
+            System.arraycopy(nodeChild, 0, tmp_n, 0, old_size);
+            nodeChild = tmp_n;
+
+            linkFreeNodes(old_size, new_size);
+        }
+
+        int ret_val = firstFreeNode;
+        firstFreeNode = nodeLeft[ret_val];
+
+        nodeParent[ret_val] = NULL_NODE;
+        nodeLeft[ret_val] = NULL_NODE;
+        nodeRight[ret_val] = NULL_NODE;
+        nodeHeight[ret_val] = 0;
+
+        return ret_val;
+    }
+
+    /**
+     * Return a tree node to the free list.
+     *
+     * @param node The node to release
+     */
+    private void freeNode(int node)
+    {
+        nodeChild[node] = null;
+        nodeParent[node] = FREE_NODE;
+        nodeLeft[node] = firstFreeNode;
+        firstFreeNode = node;
+    }
+
+    /**
+     * Place a range of tree nodes in the free list.
+     *
+     * @param start The first node index
+     * @param end One past the last node index
+     */
+    private void linkFreeNodes(int start, int end)
+    {
+        for(int i = start; i < end - 1; i++)
+        {
+            nodeLeft[i] = i + 1;
+            nodeParent[i] = FREE_NODE;
+        }
+
+        nodeLeft[end - 1] = NULL_NODE;
+        nodeParent[end - 1] = FREE_NODE;
+        firstFreeNode = start;
+    }
+
+    /**
+     * Throw away the entire hierarchy.
+     */
+    private void clearTree()
+    {
+        for(int i = 0; i < nodeChild.length; i++)
+            nodeChild[i] = null;
+
+        linkFreeNodes(0, nodeParent.length);
+
+        rootNode = NULL_NODE;
+        numUnindexed = 0;
+        leafMap.clear();
+    }
+
+    /**
+     * Create a larger copy of the given array.
+     *
+     * @param src The array to copy
+     * @param newSize The size of the new array
+     * @return The new array with the old values copied
+     */
+    private int[] resize(int[] src, int newSize)
+    {
+        int[] ret_val = new int[newSize];
+        System.arraycopy(src, 0, ret_val, 0, src.length);
+
+        return ret_val;
+    }
+}
@@ -1778,7 +1778,9 @@ public abstract class BufferGeometry extends Geometry
      */
     protected void recomputeBounds()
     {
-        if(numCoords == 0)
+        // Explicit bounds turn off the auto computation, so don't scan the
+        // vertices or overwrite the user's box.
+        if(numCoords == 0 || !implicitBounds)
             return;
 
         vertexBuffer.rewind();
@@ -55,10 +55,10 @@ import org.j3d.texture.TextureCacheFactory;
  *   org.j3d.texture.DefaultCacheType
  * </pre>
  *
- * with one of the values (case-sensitive) <code>fixed</code>, <code>lru</code>
- * or <code>weakref</code>. Setting the type through the method call will
- * override this setting. However, the cache type can only be set once. All
- * further attempts will result in an exception.
+ * with one of the values (case-sensitive) <code>fixed</code>, <code>lru</code>,
+ * <code>weakref</code> or <code>budget</code>. Setting the type through the
+ * method call will override this setting. However, the cache type can only
+ * be set once. All further attempts will result in an exception.
  * <p>
  *
  * <b>Internationalisation Resource Names</b>
@@ -71,6 +71,14 @@ import org.j3d.texture.TextureCacheFactory;
  */
 public class AVTextureCacheFactory implements TextureCacheFactory
 {
+    /**
+     * ID of the cache that keeps the most recently used textures within a
+     * memory budget. See {@link BudgetTextureCache}. The value is negative
+     * so that it can never be one of the IDs above {@link #LAST_CACHE_ID}
+     * that applications register their own caches with.
+     */
+    public static final int BUDGET_CACHE = -2;
+
     /** Error message when the user provides a bad cache type */
     private static final String CACHE_TYPE_PROP =
 		"org.j3d.renderer.aviatrix3d.texture.AVTextureCacheFactory.invalidCacheTypeMsg";
@@ -125,7 +133,7 @@ public class AVTextureCacheFactory implements TextureCacheFactory
      *
      * @return The default cache implementation
      */
-    public static AVTextureCache getCache()
+    public static synchronized AVTextureCache getCache()
     {
         if(defaultCacheType == NO_CACHE_SET)
         {
@@ -140,6 +148,8 @@ public class AVTextureCacheFactory implements TextureCacheFactory
                 defaultCacheType = LRU_CACHE;
             else if(str.equals("weakref"))
                 defaultCacheType = WEAKREF_CACHE;
+            else if(str.equals("budget"))
+                defaultCacheType = BUDGET_CACHE;
             else
                 defaultCacheType = DEFAULT_CACHE_ID;
         }
@@ -157,7 +167,7 @@ public class AVTextureCacheFactory implements TextureCacheFactory
      * @return A reference to the global cache of that type
      * @throws IllegalArgumentException The cacheType is not a valid type
      */
-    public static AVTextureCache getCache(int cacheType)
+    public static synchronized AVTextureCache getCache(int cacheType)
     {
         AVTextureCache ret_val = (AVTextureCache)cacheMap.get(cacheType);
 
@@ -180,6 +190,11 @@ public class AVTextureCacheFactory implements TextureCacheFactory
                     cacheMap.put(WEAKREF_CACHE, ret_val);
                     break;
 
+                case BUDGET_CACHE:
+                    ret_val = new BudgetTextureCache();
+                    cacheMap.put(BUDGET_CACHE, ret_val);
+                    break;
+
                 default:
 					I18nManager intl_mgr = I18nManager.getManager();
 					String msg_pattern = intl_mgr.getString(CACHE_TYPE_PROP);
@@ -214,7 +229,8 @@ public class AVTextureCacheFactory implements TextureCacheFactory
      * @param cache The instance of the cache to register
      * @throws IllegalArgumentException The cacheType is invalid
      */
-    public static void registerCacheType(int cacheType, AVTextureCache cache)
+    public static synchronized void registerCacheType(int cacheType,
+                                                      AVTextureCache cache)
     {
         if(cacheType <= LAST_CACHE_ID)
 		{
@@ -23,13 +23,20 @@ import java.io.FileNotFoundException;
 import java.text.MessageFormat;
 import java.util.Locale;
 
+import javax.imageio.ImageIO;
+
 import org.j3d.util.ImageUtils;
 import org.j3d.util.I18nManager;
 
 // Local imports
+import org.j3d.aviatrix3d.Texture;
+import org.j3d.aviatrix3d.Texture1D;
+import org.j3d.aviatrix3d.Texture2D;
+import org.j3d.aviatrix3d.Texture3D;
 import org.j3d.aviatrix3d.TextureComponent;
+import org.j3d.aviatrix3d.TextureComponent1D;
 import org.j3d.aviatrix3d.TextureComponent2D;
-import org.j3d.aviatrix3d.Texture;
+import org.j3d.aviatrix3d.TextureComponent3D;
 
 
 /**
@@ -64,15 +71,14 @@ public abstract class AbstractTextureCache implements AVTextureCache
     };
 
     /** Texture utilities class to help do the boring stuff */
-//    protected TextureCreateUtils texUtils;
+    protected TextureCreateUtils texUtils;
 
     /**
-     * Construct a new instance of the empty cache. Empty implementation,
-     * does nothing.
+     * Construct a new instance of the empty cache.
      */
     protected AbstractTextureCache()
     {
-//        texUtils = new TextureCreateUtils();
+        texUtils = new TextureCreateUtils();
     }
 
     //------------------------------------------------------------------------
@@ -136,10 +142,11 @@ public abstract class AbstractTextureCache implements AVTextureCache
     protected TextureComponent2D load2DImage(URL url)
         throws IOException
     {
-        System.out.println("load2DImage not implemented");
-        return null;
-/*
-        Object content = url.getContent(CLASS_TYPES);
+        Object content = ImageIO.read(url);
+
+        // Fall back to the content handlers for formats ImageIO lacks
+        if(content == null)
+            content = url.getContent(CLASS_TYPES);
 
         if(content == null)
 		{
@@ -147,7 +154,7 @@ public abstract class AbstractTextureCache implements AVTextureCache
 			Locale lcl = intl_mgr.getFoundLocale();
 			String msg_pattern = intl_mgr.getString(NO_IMAGE_PROP);
 
-			Object[] msg_args = { filename };
+			Object[] msg_args = { url.toExternalForm() };
 			MessageFormat msg_fmt =
 				new MessageFormat(msg_pattern, lcl);
 			String msg = msg_fmt.format(msg_args);
@@ -156,6 +163,29 @@ public abstract class AbstractTextureCache implements AVTextureCache
 		}
 
         return texUtils.create2DTextureComponent(content);
-*/
+    }
+
+    /**
+     * Create a base level texture that uses the given image component.
+     *
+     * @param img The image to build the texture around
+     * @return A texture of the matching dimensions
+     */
+    protected Texture createTexture(TextureComponent img)
+    {
+        int format = texUtils.getTextureFormat(img);
+        TextureComponent[] sources = { img };
+        Texture ret_val;
+
+        if(img instanceof TextureComponent3D)
+            ret_val = new Texture3D();
+        else if(img instanceof TextureComponent1D)
+            ret_val = new Texture1D();
+        else
+            ret_val = new Texture2D();
+
+        ret_val.setSources(Texture.MODE_BASE_LEVEL, format, sources, 1);
+
+        return ret_val;
     }
 }
@@ -0,0 +1,616 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.texture;
+
+// External imports
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.j3d.util.DefaultErrorReporter;
+import org.j3d.util.ErrorReporter;
+import org.j3d.util.I18nManager;
+
+import org.j3d.aviatrix3d.NodeUpdateListener;
+import org.j3d.aviatrix3d.Texture;
+import org.j3d.aviatrix3d.Texture2D;
+import org.j3d.aviatrix3d.TextureComponent2D;
+
+// Local imports
+// None
+
+/**
+ * Loads, decodes and converts texture images on a pool of background
+ * threads, so that the application thread does not stall while new content
+ * streams in.
+ * <p>
+ *
+ * A request names the image and the texture it is for. The texture shows
+ * the placeholder image, if one is set, until the real one is ready. The
+ * worker threads read the file, build the image component and convert it
+ * to the pixel buffer that OpenGL needs, which is normally done lazily on
+ * the first draw. Requests are served in order of priority, lowest first,
+ * so the distance to the viewer is a good value to use. The priority of a
+ * waiting request can be changed as the viewer moves.
+ * <p>
+ *
+ * Finished images are not applied straight away, as a texture that is live
+ * may only be changed during its data changed callback. The application
+ * calls {@link #publishCompleted(int)} from its
+ * {@link org.j3d.aviatrix3d.ApplicationUpdateObserver} each frame, which
+ * requests the callbacks for some or all of the finished textures.
+ * Textures that are not live are updated directly.
+ * <p>
+ *
+ * When a texture cache is set, images already in it are used without
+ * loading them again, and newly loaded images are registered with it.
+ * <p>
+ *
+ * The queue depths and completed and failed counts can be read at any time
+ * for monitoring.
+ * <p>
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>loadFailedMsg: Error message when an image could not be loaded</li>
+ * </ul>
+ */
+public class AsyncTextureLoader
+    implements NodeUpdateListener
+{
+    /** Message when an image could not be loaded */
+    private static final String LOAD_FAILED_PROP =
+        "org.j3d.renderer.aviatrix3d.texture.AsyncTextureLoader.loadFailedMsg";
+
+    /** Default number of worker threads */
+    public static final int DEFAULT_NUM_THREADS = 2;
+
+    /** A single request to load an image into a texture */
+    private static class LoadRequest implements Comparable<LoadRequest>
+    {
+        /** Where to load the image from */
+        final URL url;
+
+        /** The texture to put it in */
+        final Texture2D texture;
+
+        /** Order the request was made in, to break ties */
+        final long sequence;
+
+        /** Lower values are loaded first */
+        float priority;
+
+        /** Set when a newer request for the same texture replaces this */
+        volatile boolean cancelled;
+
+        /** The converted image, once loaded */
+        TextureComponent2D image;
+
+        LoadRequest(URL url, Texture2D texture, float priority, long sequence)
+        {
+            this.url = url;
+            this.texture = texture;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(LoadRequest o)
+        {
+            if(priority != o.priority)
+                return priority < o.priority ? -1 : 1;
+
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Worker thread that takes the highest priority request and loads it.
+     */
+    private class LoaderThread extends Thread
+    {
+        /**
+         * Create a new worker. It is a daemon so that it won't prevent the
+         * application from exiting.
+         *
+         * @param id Number of the worker, for the thread name
+         */
+        LoaderThread(int id)
+        {
+            super("Aviatrix3D texture loader " + id);
+
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            while(!terminate)
+            {
+                LoadRequest req;
+
+                try
+                {
+                    req = loadQueue.take();
+                }
+                catch(InterruptedException ie)
+                {
+                    continue;
+                }
+
+                if(req.cancelled)
+                    continue;
+
+                numActive.incrementAndGet();
+
+                try
+                {
+                    req.image = loadImage(req.url);
+                    completedQueue.add(req);
+                }
+                catch(Exception e)
+                {
+                    numFailed.incrementAndGet();
+
+                    I18nManager intl_mgr = I18nManager.getManager();
+                    String msg_pattern = intl_mgr.getString(LOAD_FAILED_PROP);
+
+                    Locale lcl = intl_mgr.getFoundLocale();
+                    Object[] msg_args = { req.url.toExternalForm() };
+                    MessageFormat msg_fmt = new MessageFormat(msg_pattern, lcl);
+                    String msg = msg_fmt.format(msg_args);
+
+                    errorReporter.errorReport(msg, e);
+
+                    synchronized(pendingRequests)
+                    {
+                        if(pendingRequests.get(req.texture) == req)
+                            pendingRequests.remove(req.texture);
+                    }
+                }
+                finally
+                {
+                    numActive.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** Requests waiting for a worker */
+    private final PriorityBlockingQueue<LoadRequest> loadQueue;
+
+    /** Requests that are loaded and waiting to be published */
+    private final ConcurrentLinkedQueue<LoadRequest> completedQueue;
+
+    /**
+     * The latest unpublished request for each texture. Textures compare
+     * equal by their state, so this is keyed on identity.
+     */
+    private final IdentityHashMap<Texture2D, LoadRequest> pendingRequests;
+
+    /** Requests whose data changed callback has been asked for */
+    private final IdentityHashMap<Texture2D, LoadRequest> publishingRequests;
+
+    /** The worker threads */
+    private final LoaderThread[] workers;
+
+    /** Counter for the request order */
+    private final AtomicLong nextSequence;
+
+    /** Number of requests currently being loaded */
+    private final AtomicInteger numActive;
+
+    /** Number of images applied to their textures */
+    private final AtomicLong numCompleted;
+
+    /** Number of images that failed to load */
+    private final AtomicLong numFailed;
+
+    /** Utilities to build and convert the image components */
+    private final TextureCreateUtils texUtils;
+
+    /** Image shown until the real one is ready. May be null */
+    private TextureComponent2D placeholder;
+
+    /** Cache to share the loaded images through. May be null */
+    private AVTextureCache textureCache;
+
+    /** Error reporter used to send out messages */
+    private ErrorReporter errorReporter;
+
+    /** Flag to tell the workers to exit */
+    private volatile boolean terminate;
+
+    /**
+     * Create a loader with the default number of worker threads.
+     */
+    public AsyncTextureLoader()
+    {
+        this(DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * Create a loader with the given number of worker threads. The threads
+     * are started straight away.
+     *
+     * @param numThreads The number of worker threads, at least one is used
+     */
+    public AsyncTextureLoader(int numThreads)
+    {
+        loadQueue = new PriorityBlockingQueue<LoadRequest>();
+        completedQueue = new ConcurrentLinkedQueue<LoadRequest>();
+        pendingRequests = new IdentityHashMap<Texture2D, LoadRequest>();
+        publishingRequests = new IdentityHashMap<Texture2D, LoadRequest>();
+        nextSequence = new AtomicLong();
+        numActive = new AtomicInteger();
+        numCompleted = new AtomicLong();
+        numFailed = new AtomicLong();
+        texUtils = new TextureCreateUtils();
+        errorReporter = DefaultErrorReporter.getDefaultReporter();
+
+        workers = new LoaderThread[Math.max(numThreads, 1)];
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new LoaderThread(i);
+            workers[i].start();
+        }
+    }
+
+    //---------------------------------------------------------------
+    // Methods defined by NodeUpdateListener
+    //---------------------------------------------------------------
+
+    @Override
+    public void updateNodeBoundsChanges(Object src)
+    {
+    }
+
+    @Override
+    public void updateNodeDataChanges(Object src)
+    {
+        LoadRequest req;
+
+        synchronized(pendingRequests)
+        {
+            req = publishingRequests.remove(src);
+        }
+
+        if(req != null)
+            applyImage(req);
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Register an error reporter with the loader so that any errors generated
+     * by the loading can be reported in a nice, pretty fashion. Setting a
+     * value of null will clear the currently set reporter. If one is already
+     * set, the new value replaces the old.
+     *
+     * @param reporter The instance to use or null
+     */
+    public void setErrorReporter(ErrorReporter reporter)
+    {
+        if(reporter == null)
+            errorReporter = DefaultErrorReporter.getDefaultReporter();
+        else
+            errorReporter = reporter;
+
+        texUtils.setErrorReporter(reporter);
+    }
+
+    /**
+     * Set the image that new textures show until their real image is ready.
+     * Textures that are already waiting are not changed.
+     *
+     * @param img The placeholder image or null for none
+     */
+    public void setPlaceholder(TextureComponent2D img)
+    {
+        placeholder = img;
+    }
+
+    /**
+     * Get the image that new textures show until their real image is ready.
+     *
+     * @return The placeholder image or null for none
+     */
+    public TextureComponent2D getPlaceholder()
+    {
+        return placeholder;
+    }
+
+    /**
+     * Set the cache to look in before loading an image and to register the
+     * loaded images with.
+     *
+     * @param cache The cache to use or null for none
+     */
+    public void setTextureCache(AVTextureCache cache)
+    {
+        textureCache = cache;
+    }
+
+    /**
+     * Create a new texture and start loading its image. The texture uses the
+     * placeholder until the image is published.
+     *
+     * @param url Where to load the image from
+     * @param priority Loading priority. Lower values are loaded first
+     * @return A texture that will hold the image
+     */
+    public Texture2D requestTexture(URL url, float priority)
+    {
+        Texture2D tex = new Texture2D();
+
+        if(placeholder != null)
+            tex.setSources(Texture.MODE_BASE_LEVEL,
+                           texUtils.getTextureFormat(placeholder),
+                           new TextureComponent2D[] { placeholder },
+                           1);
+
+        requestTexture(url, tex, priority);
+
+        return tex;
+    }
+
+    /**
+     * Start loading a new image for an existing texture. The texture keeps
+     * its current image until the new one is published. If the texture
+     * already has a request waiting, that request is replaced.
+     *
+     * @param url Where to load the image from
+     * @param texture The texture to put the image in
+     * @param priority Loading priority. Lower values are loaded first
+     */
+    public void requestTexture(URL url, Texture2D texture, float priority)
+    {
+        LoadRequest req =
+            new LoadRequest(url, texture, priority, nextSequence.getAndIncrement());
+
+        synchronized(pendingRequests)
+        {
+            LoadRequest old = pendingRequests.put(texture, req);
+
+            if(old != null)
+            {
+                old.cancelled = true;
+                loadQueue.remove(old);
+            }
+        }
+
+        loadQueue.add(req);
+    }
+
+    /**
+     * Change the priority of a request that has not been started yet. Has no
+     * effect if the image is already being loaded or is finished.
+     *
+     * @param texture The texture the request is for
+     * @param priority The new priority. Lower values are loaded first
+     * @return true if a waiting request was found and changed
+     */
+    public boolean setPriority(Texture2D texture, float priority)
+    {
+        synchronized(pendingRequests)
+        {
+            LoadRequest req = pendingRequests.get(texture);
+
+            // Removing it first keeps the queue ordering valid, and tells
+            // us that no worker has taken it yet.
+            if(req == null || !loadQueue.remove(req))
+                return false;
+
+            req.priority = priority;
+            loadQueue.add(req);
+        }
+
+        return true;
+    }
+
+    /**
+     * Cancel the waiting request for a texture. The texture keeps whatever
+     * image it has now.
+     *
+     * @param texture The texture the request is for
+     */
+    public void cancelRequest(Texture2D texture)
+    {
+        synchronized(pendingRequests)
+        {
+            LoadRequest req = pendingRequests.remove(texture);
+
+            if(req != null)
+            {
+                req.cancelled = true;
+                loadQueue.remove(req);
+            }
+        }
+    }
+
+    /**
+     * Publish the images that have finished loading. For textures that are
+     * live, this asks for the data changed callback, so it must be called
+     * from the application update observer or another place where callbacks
+     * may be requested. Other textures are updated straight away.
+     *
+     * @param maxCount The maximum number of textures to publish, to spread
+     *    the upload cost over several frames. Zero or less publishes all
+     * @return The number of textures published
+     */
+    public int publishCompleted(int maxCount)
+    {
+        int count = 0;
+        LoadRequest req;
+
+        while((maxCount <= 0 || count < maxCount) &&
+              (req = completedQueue.poll()) != null)
+        {
+            synchronized(pendingRequests)
+            {
+                // Skip anything replaced or cancelled while loading
+                if(req.cancelled || pendingRequests.get(req.texture) != req)
+                    continue;
+
+                pendingRequests.remove(req.texture);
+            }
+
+            if(req.texture.isLive())
+            {
+                synchronized(pendingRequests)
+                {
+                    publishingRequests.put(req.texture, req);
+                }
+
+                req.texture.dataChanged(this);
+            }
+            else
+                applyImage(req);
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the number of requests waiting for a worker.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getQueueDepth()
+    {
+        return loadQueue.size();
+    }
+
+    /**
+     * Get the number of requests being loaded right now.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getActiveCount()
+    {
+        return numActive.get();
+    }
+
+    /**
+     * Get the number of loaded images waiting to be published.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public int getCompletedQueueDepth()
+    {
+        return completedQueue.size();
+    }
+
+    /**
+     * Get the number of images that have been applied to their textures.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public long getCompletedCount()
+    {
+        return numCompleted.get();
+    }
+
+    /**
+     * Get the number of images that failed to load.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public long getFailedCount()
+    {
+        return numFailed.get();
+    }
+
+    /**
+     * Stop the worker threads. Waiting requests are dropped. Images that
+     * have already loaded can still be published.
+     */
+    public void shutdown()
+    {
+        terminate = true;
+        loadQueue.clear();
+
+        for(int i = 0; i < workers.length; i++)
+            workers[i].interrupt();
+    }
+
+    /**
+     * Load and convert an image. Called on a worker thread.
+     *
+     * @param url Where to load the image from
+     * @return The converted image component
+     * @throws IOException The image could not be read
+     */
+    private TextureComponent2D loadImage(URL url)
+        throws IOException
+    {
+        AVTextureCache cache = textureCache;
+        String key = url.toExternalForm();
+
+        if(cache != null && cache.checkTextureComponent(key))
+        {
+            TextureComponent2D comp =
+                (TextureComponent2D)cache.fetchTextureComponent(url);
+
+            if(comp != null)
+                return comp;
+        }
+
+        BufferedImage img = ImageIO.read(url);
+
+        if(img == null)
+            throw new FileNotFoundException(key);
+
+        TextureComponent2D comp = texUtils.create2DTextureComponent(img);
+
+        // Asking for the format forces the conversion to the OpenGL pixel
+        // layout now, rather than on the first draw.
+        comp.getFormat(0);
+
+        if(cache != null)
+            cache.registerTextureComponent(comp, key);
+
+        return comp;
+    }
+
+    /**
+     * Put the loaded image into the texture.
+     *
+     * @param req The finished request
+     */
+    private void applyImage(LoadRequest req)
+    {
+        req.texture.setSources(Texture.MODE_BASE_LEVEL,
+                               texUtils.getTextureFormat(req.image),
+                               new TextureComponent2D[] { req.image },
+                               1);
+
+        numCompleted.incrementAndGet();
+    }
+}
@@ -0,0 +1,699 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.texture;
+
+// External imports
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.j3d.aviatrix3d.Texture;
+import org.j3d.aviatrix3d.Texture2D;
+import org.j3d.aviatrix3d.Texture3D;
+import org.j3d.aviatrix3d.TextureComponent;
+import org.j3d.aviatrix3d.TextureComponent2D;
+import org.j3d.aviatrix3d.TextureComponent3D;
+
+// Local imports
+// None
+
+/**
+ * A cache for texture instance management that keeps the most recently used
+ * textures up to a limit on their estimated size in bytes.
+ * <p>
+ *
+ * Each name in the cache holds a texture, its image component, or both.
+ * Both share the same pixels, so the size of an entry is the estimated
+ * size of the image component, or of the texture when there is no
+ * component. The estimate is the uncompressed size of the base level, plus
+ * a third for mipmaps, as that is what the driver needs to hold.
+ * <p>
+ *
+ * The entries are kept in access order, so a fetch moves its entry to the
+ * most recently used end in constant time. When a new entry takes the total
+ * over the budget, entries are removed from the least recently used end
+ * until it fits again. The new entry itself is never removed, so a single
+ * texture larger than the whole budget is still cached on its own.
+ * <p>
+ *
+ * All methods are thread safe. Images are loaded outside of the lock, so a
+ * slow load does not hold up fetches of other names. When several threads
+ * ask for the same missing name at once, only one of them loads it and the
+ * rest wait for the result.
+ * <p>
+ *
+ * Hit, miss, load and eviction counts are kept for monitoring. A fetch
+ * of a texture whose image component is already cached counts as a hit, as
+ * nothing needs to be loaded. Checking for a name also counts as a use of
+ * it for the ordering.
+ * <p>
+ *
+ * By default the budget is 64MB. It can be changed with
+ * {@link #setMemoryBudget(long)} or with the property
+ * <pre>
+ *     org.j3d.texture.BudgetSize
+ * </pre>
+ * which must be set before the cache is created.
+ */
+public class BudgetTextureCache extends AbstractTextureCache
+{
+    /** The system property name for the budget in bytes */
+    public static final String BUDGET_SIZE_PROP =
+        "org.j3d.texture.BudgetSize";
+
+    /** Default budget if nothing else is set, in bytes */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /** What is held for a single name */
+    private static class CacheEntry
+    {
+        /** The texture, if one has been created or registered */
+        Texture texture;
+
+        /** The image component, if one has been loaded or registered */
+        TextureComponent component;
+
+        /** Estimated size of the entry in bytes */
+        long size;
+    }
+
+    /** The entries in least to most recently used order */
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    /** Loads that are in progress, so other threads can wait for them */
+    private final HashMap<String, FutureTask<TextureComponent>> pendingLoads;
+
+    /** Maximum total estimated size of the entries */
+    private long memoryBudget;
+
+    /** Current total estimated size of the entries */
+    private long memoryUsed;
+
+    /** Number of fetches that found what they wanted */
+    private long numHits;
+
+    /** Number of fetches that did not */
+    private long numMisses;
+
+    /** Number of images actually loaded */
+    private long numLoads;
+
+    /** Number of entries removed to stay within the budget */
+    private long numEvictions;
+
+    /**
+     * Construct a new instance of the empty cache.
+     */
+    BudgetTextureCache()
+    {
+        entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+        pendingLoads = new HashMap<String, FutureTask<TextureComponent>>();
+
+        long budget = DEFAULT_MEMORY_BUDGET;
+        String prop = System.getProperty(BUDGET_SIZE_PROP);
+
+        if(prop != null)
+        {
+            try
+            {
+                budget = Long.parseLong(prop);
+            }
+            catch(NumberFormatException nfe)
+            {
+            }
+        }
+
+        memoryBudget = budget;
+    }
+
+    //------------------------------------------------------------------------
+    // Methods defined by AVTextureCache
+    //------------------------------------------------------------------------
+
+    /**
+     * Fetch the texture named by the filename. The filename may be
+     * either absolute or relative to the classpath.
+     *
+     * @param filename The filename to fetch
+     * @return The texture instance for that filename
+     * @throws IOException An I/O error occurred during loading
+     */
+    @Override
+    public Texture fetchTexture(String filename)
+        throws IOException
+    {
+        return getTexture(filename, null);
+    }
+
+    /**
+     * Fetch the texture named by the URL.
+     *
+     * @param url The URL to read data from
+     * @return The texture instance for that URL
+     * @throws IOException An I/O error occurred during loading
+     */
+    @Override
+    public Texture fetchTexture(URL url)
+        throws IOException
+    {
+        return getTexture(url.toExternalForm(), url);
+    }
+
+    /**
+     * Param fetch the imagecomponent named by the filename. The filename may
+     * be either absolute or relative to the classpath.
+     *
+     * @param filename The filename to fetch
+     * @return The TextureComponent instance for that filename
+     * @throws IOException An I/O error occurred during loading
+     */
+    @Override
+    public TextureComponent fetchTextureComponent(String filename)
+        throws IOException
+    {
+        return getComponent(filename, null);
+    }
+
+    /**
+     * Fetch the image component named by the URL.
+     *
+     * @param url The URL to read data from
+     * @return The TextureComponent instance for that URL
+     * @throws IOException An I/O error occurred during loading
+     */
+    @Override
+    public TextureComponent fetchTextureComponent(URL url)
+        throws IOException
+    {
+        return getComponent(url.toExternalForm(), url);
+    }
+
+    /**
+     * Check to see if a filename is cached for an TextureComponent.
+     *
+     * @param filename The filename loaded
+     * @return Whether the filename is cached as an TextureComponent
+     */
+    @Override
+    public synchronized boolean checkTextureComponent(String filename)
+    {
+        CacheEntry entry = entries.get(filename);
+
+        return entry != null && entry.component != null;
+    }
+
+    /**
+     * Register a texture with the cache assigned to a filename.
+     *
+     * @param texture The texture to store
+     * @param filename The filename to register
+     */
+    @Override
+    public synchronized void registerTexture(Texture texture, String filename)
+    {
+        store(filename, texture, null);
+    }
+
+    /**
+     * Register an imagecomponent with the cache assigned to a filename.
+     *
+     * @param component The texture to store
+     * @param filename The filename to register
+     */
+    @Override
+    public synchronized void registerTextureComponent(TextureComponent component,
+                                                      String filename)
+    {
+        store(filename, null, component);
+    }
+
+    //------------------------------------------------------------------------
+    // Methods defined by TextureCache
+    //------------------------------------------------------------------------
+
+    /**
+     * Explicitly remove the named texture and image component from the cache.
+     * If the objects have already been freed according to the rules of the
+     * cache system, this request is silently ignored.
+     *
+     * @param filename The name the texture was registered under
+     */
+    @Override
+    public synchronized void releaseTexture(String filename)
+    {
+        CacheEntry entry = entries.remove(filename);
+
+        if(entry != null)
+            memoryUsed -= entry.size;
+    }
+
+    /**
+     * Explicitly remove the named texture and image component from the cache.
+     * If the objects have already been freed according to the rules of the
+     * cache system, this request is silently ignored.
+     *
+     * @param url The URL the texture was registered under
+     */
+    @Override
+    public void releaseTexture(URL url)
+    {
+        releaseTexture(url.toExternalForm());
+    }
+
+    /**
+     * Clear the entire cache now. It will be empty after this call, forcing
+     * all fetch requests to reload the data from the source. Use with
+     * caution.
+     */
+    @Override
+    public synchronized void clearAll()
+    {
+        entries.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Check to see if a filename is cached for a Texture.
+     *
+     * @param filename The filename loaded
+     * @return Whether the filename is cached as a Texture
+     */
+    @Override
+    public synchronized boolean checkTexture(String filename)
+    {
+        CacheEntry entry = entries.get(filename);
+
+        return entry != null && entry.texture != null;
+    }
+
+    //------------------------------------------------------------------------
+    // Local methods
+    //------------------------------------------------------------------------
+
+    /**
+     * Set the maximum total estimated size of the cached textures. If the
+     * cache is already over the new budget, the least recently used entries
+     * are removed straight away.
+     *
+     * @param bytes The budget in bytes
+     */
+    public synchronized void setMemoryBudget(long bytes)
+    {
+        memoryBudget = bytes;
+
+        evict(null);
+    }
+
+    /**
+     * Get the maximum total estimated size of the cached textures.
+     *
+     * @return The budget in bytes
+     */
+    public synchronized long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Get the current total estimated size of the cached textures.
+     *
+     * @return The size in bytes
+     */
+    public synchronized long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
+    /**
+     * Get the number of names currently held in the cache.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of fetches that were answered from the cache.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized long getHitCount()
+    {
+        return numHits;
+    }
+
+    /**
+     * Get the number of fetches that could not be answered from the cache.
+     * This includes fetches that waited for another thread to load the same
+     * name.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized long getMissCount()
+    {
+        return numMisses;
+    }
+
+    /**
+     * Get the number of images that have been loaded from their source.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized long getLoadCount()
+    {
+        return numLoads;
+    }
+
+    /**
+     * Get the number of entries removed to stay within the budget. Explicit
+     * releases are not counted.
+     *
+     * @return A value greater than or equal to zero
+     */
+    public synchronized long getEvictionCount()
+    {
+        return numEvictions;
+    }
+
+    /**
+     * Clear the hit, miss, load and eviction counts back to zero. The
+     * cached entries are not changed.
+     */
+    public synchronized void resetStatistics()
+    {
+        numHits = 0;
+        numMisses = 0;
+        numLoads = 0;
+        numEvictions = 0;
+    }
+
+    /**
+     * Fetch the texture for a name, creating it from the image component
+     * if needed.
+     *
+     * @param name The key to the cache
+     * @param url The URL to load from, or null to treat the name as a file
+     * @return The texture instance for that name
+     * @throws IOException An I/O error occurred during loading
+     */
+    private Texture getTexture(String name, URL url)
+        throws IOException
+    {
+        synchronized(this)
+        {
+            CacheEntry entry = entries.get(name);
+
+            if(entry != null && entry.texture != null)
+            {
+                numHits++;
+                return entry.texture;
+            }
+        }
+
+        TextureComponent img = getComponent(name, url);
+        Texture texture = createTexture(img);
+
+        synchronized(this)
+        {
+            CacheEntry entry = entries.get(name);
+
+            // Another thread may have got there first, in which case keep
+            // theirs so that everyone shares the same instance.
+            if(entry != null && entry.texture != null)
+                return entry.texture;
+
+            store(name, texture, img);
+        }
+
+        return texture;
+    }
+
+    /**
+     * Fetch the image component for a name, loading it if needed.
+     *
+     * @param name The key to the cache
+     * @param url The URL to load from, or null to treat the name as a file
+     * @return The TextureComponent instance for that name
+     * @throws IOException An I/O error occurred during loading
+     */
+    private TextureComponent getComponent(final String name, final URL url)
+        throws IOException
+    {
+        FutureTask<TextureComponent> task;
+        boolean owner = false;
+
+        synchronized(this)
+        {
+            CacheEntry entry = entries.get(name);
+
+            if(entry != null && entry.component != null)
+            {
+                numHits++;
+                return entry.component;
+            }
+
+            numMisses++;
+            task = pendingLoads.get(name);
+
+            if(task == null)
+            {
+                task = new FutureTask<TextureComponent>(
+                    new Callable<TextureComponent>()
+                    {
+                        @Override
+                        public TextureComponent call() throws IOException
+                        {
+                            return url != null ? load2DImage(url) :
+                                                 load2DImage(name);
+                        }
+                    });
+
+                pendingLoads.put(name, task);
+                owner = true;
+            }
+        }
+
+        if(owner)
+        {
+            task.run();
+
+            synchronized(this)
+            {
+                pendingLoads.remove(name);
+
+                if(!task.isCancelled())
+                {
+                    numLoads++;
+
+                    try
+                    {
+                        store(name, null, task.get());
+                    }
+                    catch(InterruptedException | ExecutionException e)
+                    {
+                        // Load failed, reported below
+                    }
+                }
+            }
+        }
+
+        try
+        {
+            return task.get();
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(name);
+        }
+        catch(ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+            else if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            else if(cause instanceof Error)
+                throw (Error)cause;
+            else
+                throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Add to or replace the parts of an entry, then bring the cache back
+     * within the budget. Must be called with the lock held.
+     *
+     * @param name The key to the cache
+     * @param texture The texture to store, or null to leave it unchanged
+     * @param component The component to store, or null to leave it unchanged
+     */
+    private void store(String name, Texture texture, TextureComponent component)
+    {
+        CacheEntry entry = entries.get(name);
+
+        if(entry == null)
+        {
+            entry = new CacheEntry();
+            entries.put(name, entry);
+        }
+        else
+            memoryUsed -= entry.size;
+
+        if(texture != null)
+            entry.texture = texture;
+
+        if(component != null)
+            entry.component = component;
+
+        if(entry.component != null)
+            entry.size = estimateSize(entry.component);
+        else if(entry.texture != null)
+            entry.size = estimateSize(entry.texture);
+        else
+            entry.size = 0;
+
+        memoryUsed += entry.size;
+
+        evict(name);
+    }
+
+    /**
+     * Remove the least recently used entries until the total is within the
+     * budget. Must be called with the lock held.
+     *
+     * @param keep The name of an entry that must not be removed, or null
+     */
+    private void evict(String keep)
+    {
+        Iterator<Map.Entry<String, CacheEntry>> itr =
+            entries.entrySet().iterator();
+
+        while(memoryUsed > memoryBudget && itr.hasNext())
+        {
+            Map.Entry<String, CacheEntry> e = itr.next();
+
+            if(e.getKey().equals(keep))
+                continue;
+
+            memoryUsed -= e.getValue().size;
+            itr.remove();
+            numEvictions++;
+        }
+    }
+
+    /**
+     * Estimate the memory needed by an image component.
+     *
+     * @param comp The component to check
+     * @return The estimated size in bytes
+     */
+    private static long estimateSize(TextureComponent comp)
+    {
+        long pixels = comp.getWidth();
+
+        if(comp instanceof TextureComponent2D)
+            pixels *= ((TextureComponent2D)comp).getHeight();
+        else if(comp instanceof TextureComponent3D)
+            pixels *= (long)((TextureComponent3D)comp).getHeight() *
+                      ((TextureComponent3D)comp).getDepth();
+
+        int pixel_size;
+
+        switch(comp.getFormat(0))
+        {
+            case TextureComponent.FORMAT_SINGLE_COMPONENT:
+                pixel_size = 1;
+                break;
+
+            case TextureComponent.FORMAT_INTENSITY_ALPHA:
+            case TextureComponent.FORMAT_LUMINANCE_ALPHA:
+                pixel_size = 2;
+                break;
+
+            case TextureComponent.FORMAT_RGB:
+            case TextureComponent.FORMAT_BGR:
+                pixel_size = 3;
+                break;
+
+            default:
+                pixel_size = 4;
+        }
+
+        long size = pixels * pixel_size;
+
+        if(comp.getNumLevels() > 1)
+            size += size / 3;
+
+        return size;
+    }
+
+    /**
+     * Estimate the memory needed by a texture that has no image component
+     * registered with it.
+     *
+     * @param tex The texture to check
+     * @return The estimated size in bytes
+     */
+    private static long estimateSize(Texture tex)
+    {
+        long pixels = Math.max(tex.getWidth(), 0);
+
+        if(tex instanceof Texture2D)
+            pixels *= ((Texture2D)tex).getHeight();
+        else if(tex instanceof Texture3D)
+            pixels *= (long)((Texture3D)tex).getHeight() *
+                      ((Texture3D)tex).getDepth();
+
+        int pixel_size;
+
+        switch(tex.getFormat())
+        {
+            case Texture.FORMAT_ALPHA:
+            case Texture.FORMAT_INTENSITY:
+            case Texture.FORMAT_LUMINANCE:
+                pixel_size = 1;
+                break;
+
+            case Texture.FORMAT_LUMINANCE_ALPHA:
+                pixel_size = 2;
+                break;
+
+            case Texture.FORMAT_RGB:
+                pixel_size = 3;
+                break;
+
+            default:
+                pixel_size = 4;
+        }
+
+        long size = pixels * pixel_size;
+
+        if(tex.getGenerateMipMap())
+            size += size / 3;
+
+        return size;
+    }
+}
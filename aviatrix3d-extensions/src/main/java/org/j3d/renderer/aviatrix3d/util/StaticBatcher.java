@@ -0,0 +1,787 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.util;
+
+// External imports
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+
+// Local imports
+import org.j3d.aviatrix3d.*;
+
+/**
+ * Merges the shapes of a subtree that never changes into a small number of
+ * large shapes, to cut down on the number of draw calls and state changes.
+ * <p>
+ *
+ * The batcher walks the subtree under the given group, following plain
+ * {@link Group} and {@link TransformGroup} nodes. Any other grouping node,
+ * such as a switch or shared group, is treated as a boundary and left alone.
+ * Each {@link Shape3D} found with a {@link TriangleArray} or
+ * {@link IndexedTriangleArray} is a candidate for merging. The transforms
+ * from the root down to the shape are baked into the vertices and normals,
+ * and the shapes are then grouped by equal {@link Appearance} and matching
+ * vertex data format. Each group is split into batches that stay under the
+ * vertex limit, and each batch of two or more shapes is replaced by a single
+ * shape with an {@link IndexedTriangleArray} that is added directly to the
+ * root group. The original shapes are removed from their parents. Groups
+ * that end up empty are left in place.
+ * <p>
+ *
+ * The vertex limit keeps the batches small enough that view frustum culling
+ * still works at a sensible granularity. The default limit also keeps every
+ * index within the range of an unsigned short.
+ * <p>
+ *
+ * Only 3D coordinates, normals, colours and a single set of texture
+ * coordinates are merged. Shapes using edge flags, secondary colours, fog
+ * coordinates, shader attributes or multiple texture sets are not touched.
+ * <p>
+ *
+ * The subtree must not be live when it is batched. This is intended to be
+ * run once after loading a model, before it is added to the scene graph.
+ * This code is not multi-thread safe.
+ * <p>
+ *
+ * <b>Internationalisation Resource Names</b>
+ * <ul>
+ * <li>invalidMaxVerticesMsg: Error message when the vertex limit is too
+ *     small to hold a triangle</li>
+ * <li>liveGroupMsg: Error message when asked to batch a live subtree</li>
+ * </ul>
+ */
+public class StaticBatcher
+{
+    /** Error message when the vertex limit is too small */
+    private static final String INVALID_MAX_VERTICES_PROP =
+        "org.j3d.renderer.aviatrix3d.util.StaticBatcher.invalidMaxVerticesMsg";
+
+    /** Error message when the group is live */
+    private static final String LIVE_GROUP_PROP =
+        "org.j3d.renderer.aviatrix3d.util.StaticBatcher.liveGroupMsg";
+
+    /** Default maximum number of vertices in a single batch */
+    public static final int DEFAULT_MAX_VERTICES = 65535;
+
+    /** Format flag for having normals */
+    private static final int FORMAT_NORMALS = 0x01;
+
+    /** Number of bits to shift the colour component count by in the format */
+    private static final int FORMAT_COLOR_SHIFT = 1;
+
+    /** Number of bits to shift the texture coordinate type by in the format */
+    private static final int FORMAT_TEXTURE_SHIFT = 4;
+
+    /** Number of bytes in a float or int */
+    private static final int VALUE_SIZE = 4;
+
+    /** The maximum number of vertices in a single batch */
+    private int maxVertices;
+
+    /** Whether the merged geometry should use VBOs */
+    private boolean useVbo;
+
+    /** Shapes found that are able to be merged */
+    private ArrayList<ShapeDetails> candidates;
+
+    /** The batches currently being filled */
+    private ArrayList<Batch> batches;
+
+    /** Draw calls in the subtree before the last batching */
+    private int drawCallsBefore;
+
+    /** Draw calls in the subtree after the last batching */
+    private int drawCallsAfter;
+
+    /** Bytes of vertex and index data before the last batching */
+    private long memoryBefore;
+
+    /** Bytes of vertex and index data after the last batching */
+    private long memoryAfter;
+
+    /** Number of shapes that were merged by the last batching */
+    private int numMergedShapes;
+
+    /** Number of merged shapes created by the last batching */
+    private int numBatches;
+
+    /**
+     * A shape that is a candidate for merging, along with the details needed
+     * to merge it.
+     */
+    private static class ShapeDetails
+    {
+        /** The shape to merge */
+        final Shape3D shape;
+
+        /** The group that the shape is a child of */
+        final Group parent;
+
+        /** The transform from the batching root to the shape */
+        final Matrix4d transform;
+
+        /** The geometry of the shape */
+        final VertexGeometry geometry;
+
+        /** The data format used to match up shapes */
+        final int format;
+
+        /** The number of vertices in the geometry */
+        final int numVertices;
+
+        /** The number of indices in the geometry */
+        final int numIndices;
+
+        ShapeDetails(Shape3D shape,
+                     Group parent,
+                     Matrix4d transform,
+                     VertexGeometry geometry,
+                     int format)
+        {
+            this.shape = shape;
+            this.parent = parent;
+            this.transform = transform;
+            this.geometry = geometry;
+            this.format = format;
+
+            numVertices = geometry.getValidVertexCount();
+
+            if(geometry instanceof IndexedTriangleArray)
+                numIndices = ((IndexedTriangleArray)geometry).getValidIndexCount();
+            else
+                numIndices = numVertices;
+        }
+    }
+
+    /**
+     * A collection of shapes that will be merged into a single shape.
+     */
+    private static class Batch
+    {
+        /** The appearance that all the shapes share */
+        final Appearance appearance;
+
+        /** The data format that all the shapes share */
+        final int format;
+
+        /** The shapes to merge */
+        final ArrayList<ShapeDetails> shapes;
+
+        /** Total number of vertices of all the shapes */
+        int numVertices;
+
+        /** Total number of indices of all the shapes */
+        int numIndices;
+
+        Batch(Appearance app, int format)
+        {
+            appearance = app;
+            this.format = format;
+            shapes = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Create a new batcher using the default vertex limit.
+     */
+    public StaticBatcher()
+    {
+        maxVertices = DEFAULT_MAX_VERTICES;
+        useVbo = true;
+
+        candidates = new ArrayList<>();
+        batches = new ArrayList<>();
+    }
+
+    //---------------------------------------------------------------
+    // Local Methods
+    //---------------------------------------------------------------
+
+    /**
+     * Set the maximum number of vertices that a single merged shape may
+     * contain. Shapes that are already bigger than this are left alone.
+     *
+     * @param max The vertex limit. Must be at least 3
+     * @throws IllegalArgumentException The limit was less than 3
+     */
+    public void setMaxVertices(int max)
+    {
+        if(max < 3)
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg_pattern = intl_mgr.getString(INVALID_MAX_VERTICES_PROP);
+
+            Locale lcl = intl_mgr.getFoundLocale();
+
+            NumberFormat n_fmt = NumberFormat.getNumberInstance(lcl);
+
+            Object[] msg_args = { new Integer(max) };
+            Format[] fmts = { n_fmt };
+            MessageFormat msg_fmt =
+                new MessageFormat(msg_pattern, lcl);
+            msg_fmt.setFormats(fmts);
+            String msg = msg_fmt.format(msg_args);
+
+            throw new IllegalArgumentException(msg);
+        }
+
+        maxVertices = max;
+    }
+
+    /**
+     * Get the maximum number of vertices that a single merged shape may
+     * contain.
+     *
+     * @return A value of 3 or more
+     */
+    public int getMaxVertices()
+    {
+        return maxVertices;
+    }
+
+    /**
+     * Set whether the merged geometry should use vertex buffer objects. The
+     * default is to use them, as the merged geometry never changes.
+     *
+     * @param enable true to use VBOs for the merged geometry
+     */
+    public void setVBOEnabled(boolean enable)
+    {
+        useVbo = enable;
+    }
+
+    /**
+     * Check whether the merged geometry uses vertex buffer objects.
+     *
+     * @return true if VBOs are used
+     */
+    public boolean isVBOEnabled()
+    {
+        return useVbo;
+    }
+
+    /**
+     * Merge the shapes of the subtree below the given group. The merged
+     * shapes are added as children of this group.
+     *
+     * @param root The group at the top of the subtree to merge
+     * @return The number of merged shapes that were added to the root
+     * @throws IllegalStateException The group is currently live
+     */
+    public int batch(Group root)
+    {
+        if(root.isLive())
+        {
+            I18nManager intl_mgr = I18nManager.getManager();
+            String msg = intl_mgr.getString(LIVE_GROUP_PROP);
+
+            throw new IllegalStateException(msg);
+        }
+
+        drawCallsBefore = 0;
+        drawCallsAfter = 0;
+        memoryBefore = 0;
+        memoryAfter = 0;
+        numMergedShapes = 0;
+        numBatches = 0;
+
+        Matrix4d identity = new Matrix4d();
+        identity.setIdentity();
+
+        findShapes(root, identity);
+
+        for(int i = 0; i < candidates.size(); i++)
+            addToBatch(candidates.get(i));
+
+        for(int i = 0; i < batches.size(); i++)
+        {
+            Batch b = batches.get(i);
+
+            if(b.shapes.size() < 2)
+                continue;
+
+            Shape3D shape = mergeBatch(b);
+            root.addChild(shape);
+
+            for(int j = 0; j < b.shapes.size(); j++)
+            {
+                ShapeDetails details = b.shapes.get(j);
+                details.parent.removeChild(details.shape);
+                memoryAfter -= getMemorySize(details.geometry);
+            }
+
+            memoryAfter += getMemorySize((VertexGeometry)shape.getGeometry());
+            drawCallsAfter -= b.shapes.size() - 1;
+            numMergedShapes += b.shapes.size();
+            numBatches++;
+        }
+
+        candidates.clear();
+        batches.clear();
+
+        return numBatches;
+    }
+
+    /**
+     * Get the number of shapes found below the root by the last batching,
+     * which is the number of draw calls that it took to render.
+     *
+     * @return A non-negative count
+     */
+    public int getDrawCallsBefore()
+    {
+        return drawCallsBefore;
+    }
+
+    /**
+     * Get the number of shapes left below the root after the last batching,
+     * which is the number of draw calls that it now takes to render.
+     *
+     * @return A non-negative count
+     */
+    public int getDrawCallsAfter()
+    {
+        return drawCallsAfter;
+    }
+
+    /**
+     * Get the number of bytes of vertex and index data in the shapes below
+     * the root before the last batching. Only geometry that the batcher
+     * understands is counted.
+     *
+     * @return A non-negative byte count
+     */
+    public long getMemoryBefore()
+    {
+        return memoryBefore;
+    }
+
+    /**
+     * Get the number of bytes of vertex and index data in the shapes below
+     * the root after the last batching. Only geometry that the batcher
+     * understands is counted. This may be larger than before if shared
+     * geometry was baked into several batches.
+     *
+     * @return A non-negative byte count
+     */
+    public long getMemoryAfter()
+    {
+        return memoryAfter;
+    }
+
+    /**
+     * Get the number of original shapes that were merged by the last
+     * batching.
+     *
+     * @return A non-negative count
+     */
+    public int getMergedShapeCount()
+    {
+        return numMergedShapes;
+    }
+
+    /**
+     * Get the number of merged shapes that were created by the last
+     * batching.
+     *
+     * @return A non-negative count
+     */
+    public int getBatchCount()
+    {
+        return numBatches;
+    }
+
+    /**
+     * Walk the subtree looking for shapes that can be merged.
+     *
+     * @param group The group to look at the children of
+     * @param transform The transform from the root to this group
+     */
+    private void findShapes(Group group, Matrix4d transform)
+    {
+        int num_children = group.numChildren();
+
+        for(int i = 0; i < num_children; i++)
+        {
+            Node child = group.getChild(i);
+
+            if(child instanceof Shape3D)
+            {
+                Shape3D shape = (Shape3D)child;
+                Geometry geom = shape.getGeometry();
+
+                drawCallsBefore++;
+                drawCallsAfter++;
+
+                if(!(geom instanceof VertexGeometry))
+                    continue;
+
+                VertexGeometry v_geom = (VertexGeometry)geom;
+                long size = getMemorySize(v_geom);
+                memoryBefore += size;
+                memoryAfter += size;
+
+                int format = getFormat(v_geom);
+
+                if(format != -1)
+                    candidates.add(new ShapeDetails(shape,
+                                                    group,
+                                                    transform,
+                                                    v_geom,
+                                                    format));
+            }
+            else if(child instanceof TransformGroup)
+            {
+                Matrix4d local = new Matrix4d();
+                ((TransformGroup)child).getTransform(local);
+
+                Matrix4d child_tx = new Matrix4d();
+                child_tx.mul(transform, local);
+
+                findShapes((Group)child, child_tx);
+            }
+            else if(child != null && child.getClass() == Group.class)
+            {
+                findShapes((Group)child, transform);
+            }
+        }
+    }
+
+    /**
+     * Work out the format of the geometry, used to make sure only matching
+     * geometry is merged together.
+     *
+     * @param geom The geometry to check
+     * @return The format or -1 if the geometry cannot be merged
+     */
+    private int getFormat(VertexGeometry geom)
+    {
+        if(!(geom instanceof TriangleArray) &&
+           !(geom instanceof IndexedTriangleArray))
+            return -1;
+
+        int num_vertices = geom.getValidVertexCount();
+
+        if(geom.getVertexType() != VertexGeometry.COORDINATE_3 ||
+           geom.hasExtendedVertexData() ||
+           geom.getNumTextureArrays() > 1 ||
+           num_vertices == 0 ||
+           num_vertices > maxVertices)
+            return -1;
+
+        int ret_val = geom.hasNormals() ? FORMAT_NORMALS : 0;
+
+        ret_val |= geom.getColorComponents() << FORMAT_COLOR_SHIFT;
+
+        if(geom.getNumTextureArrays() == 1)
+            ret_val |= geom.getTextureCoordinateType(0) << FORMAT_TEXTURE_SHIFT;
+
+        return ret_val;
+    }
+
+    /**
+     * Add the shape to a batch with a matching appearance and format that
+     * has enough room, or start a new batch.
+     *
+     * @param details The shape to add
+     */
+    private void addToBatch(ShapeDetails details)
+    {
+        Appearance app = details.shape.getAppearance();
+        Batch batch = null;
+
+        for(int i = batches.size() - 1; i >= 0 && batch == null; i--)
+        {
+            Batch b = batches.get(i);
+
+            if(b.format != details.format ||
+               b.numVertices + details.numVertices > maxVertices)
+                continue;
+
+            if((app == null && b.appearance == null) ||
+               (app != null && app.equals(b.appearance)))
+                batch = b;
+        }
+
+        if(batch == null)
+        {
+            batch = new Batch(app, details.format);
+            batches.add(batch);
+        }
+
+        batch.shapes.add(details);
+        batch.numVertices += details.numVertices;
+        batch.numIndices += details.numIndices;
+    }
+
+    /**
+     * Build the merged shape for the given batch.
+     *
+     * @param batch The batch to merge
+     * @return A new shape holding the merged geometry
+     */
+    private Shape3D mergeBatch(Batch batch)
+    {
+        boolean has_normals = (batch.format & FORMAT_NORMALS) != 0;
+        int color_size = (batch.format >> FORMAT_COLOR_SHIFT) & 0x07;
+        int tex_type = batch.format >> FORMAT_TEXTURE_SHIFT;
+        int tex_size = tex_type;
+
+        float[] coords = new float[batch.numVertices * 3];
+        float[] normals = has_normals ? new float[batch.numVertices * 3] : null;
+        float[] colors = color_size != 0 ? new float[batch.numVertices * color_size] : null;
+        float[] tex_coords = tex_size != 0 ? new float[batch.numVertices * tex_size] : null;
+        int[] indices = new int[batch.numIndices];
+
+        int vtx_offset = 0;
+        int idx_offset = 0;
+
+        for(int i = 0; i < batch.shapes.size(); i++)
+        {
+            ShapeDetails details = batch.shapes.get(i);
+            VertexGeometry geom = details.geometry;
+            Matrix4d tx = details.transform;
+            int num_vtx = details.numVertices;
+
+            float[] src = new float[num_vtx * 3];
+            geom.getVertices(src);
+            transformCoords(tx, src, coords, vtx_offset * 3, num_vtx);
+
+            if(has_normals)
+            {
+                geom.getNormals(src);
+                transformNormals(tx, src, normals, vtx_offset * 3, num_vtx);
+            }
+
+            if(color_size != 0)
+            {
+                if(geom.isSingleColor())
+                {
+                    float[] color = new float[color_size];
+                    geom.getColors(color);
+
+                    for(int j = 0; j < num_vtx; j++)
+                        System.arraycopy(color,
+                                         0,
+                                         colors,
+                                         (vtx_offset + j) * color_size,
+                                         color_size);
+                }
+                else
+                {
+                    float[] tmp = new float[num_vtx * color_size];
+                    geom.getColors(tmp);
+                    System.arraycopy(tmp,
+                                     0,
+                                     colors,
+                                     vtx_offset * color_size,
+                                     num_vtx * color_size);
+                }
+            }
+
+            if(tex_size != 0)
+            {
+                float[][] tmp = { new float[num_vtx * tex_size] };
+                geom.getTextureCoordinates(tmp);
+                System.arraycopy(tmp[0],
+                                 0,
+                                 tex_coords,
+                                 vtx_offset * tex_size,
+                                 num_vtx * tex_size);
+            }
+
+            if(geom instanceof IndexedTriangleArray)
+            {
+                int[] tmp = new int[details.numIndices];
+                ((IndexedTriangleArray)geom).getIndices(tmp);
+                System.arraycopy(tmp, 0, indices, idx_offset, details.numIndices);
+            }
+            else
+            {
+                for(int j = 0; j < details.numIndices; j++)
+                    indices[idx_offset + j] = j;
+            }
+
+            // Mirroring transforms flip the winding of the triangles
+            boolean flip = determinant3(tx) < 0;
+
+            for(int j = 0; j < details.numIndices; j++)
+                indices[idx_offset + j] += vtx_offset;
+
+            if(flip)
+            {
+                for(int j = 0; j + 2 < details.numIndices; j += 3)
+                {
+                    int tmp = indices[idx_offset + j + 1];
+                    indices[idx_offset + j + 1] = indices[idx_offset + j + 2];
+                    indices[idx_offset + j + 2] = tmp;
+                }
+            }
+
+            vtx_offset += num_vtx;
+            idx_offset += details.numIndices;
+        }
+
+        IndexedTriangleArray geom =
+            new IndexedTriangleArray(useVbo, VertexGeometry.VBO_HINT_STATIC);
+        geom.setVertices(VertexGeometry.COORDINATE_3, coords, batch.numVertices);
+        geom.setIndices(indices, batch.numIndices);
+
+        if(has_normals)
+            geom.setNormals(normals);
+
+        if(color_size != 0)
+            geom.setColors(color_size == 4, colors);
+
+        if(tex_size != 0)
+        {
+            int[] types = { tex_type };
+            float[][] tex = { tex_coords };
+            geom.setTextureCoordinates(types, tex);
+        }
+
+        Shape3D ret_val = new Shape3D();
+        ret_val.setGeometry(geom);
+        ret_val.setAppearance(batch.appearance);
+
+        return ret_val;
+    }
+
+    /**
+     * Transform the coordinates by the full matrix.
+     *
+     * @param tx The matrix to transform by
+     * @param src The source coordinates
+     * @param dest The array to write the transformed coordinates to
+     * @param offset The offset into dest to start writing at
+     * @param num The number of coordinates to transform
+     */
+    private void transformCoords(Matrix4d tx,
+                                 float[] src,
+                                 float[] dest,
+                                 int offset,
+                                 int num)
+    {
+        for(int i = 0; i < num; i++)
+        {
+            double x = src[i * 3];
+            double y = src[i * 3 + 1];
+            double z = src[i * 3 + 2];
+
+            dest[offset++] = (float)(tx.m00 * x + tx.m01 * y + tx.m02 * z + tx.m03);
+            dest[offset++] = (float)(tx.m10 * x + tx.m11 * y + tx.m12 * z + tx.m13);
+            dest[offset++] = (float)(tx.m20 * x + tx.m21 * y + tx.m22 * z + tx.m23);
+        }
+    }
+
+    /**
+     * Transform the normals by the inverse transpose of the upper 3x3 of the
+     * matrix, and normalise the result. The inverse transpose is the matrix
+     * of cofactors divided by the determinant, so only the sign of the
+     * determinant is needed once the result is normalised.
+     *
+     * @param tx The matrix to transform by
+     * @param src The source normals
+     * @param dest The array to write the transformed normals to
+     * @param offset The offset into dest to start writing at
+     * @param num The number of normals to transform
+     */
+    private void transformNormals(Matrix4d tx,
+                                  float[] src,
+                                  float[] dest,
+                                  int offset,
+                                  int num)
+    {
+        double c00 = tx.m11 * tx.m22 - tx.m12 * tx.m21;
+        double c01 = tx.m12 * tx.m20 - tx.m10 * tx.m22;
+        double c02 = tx.m10 * tx.m21 - tx.m11 * tx.m20;
+        double c10 = tx.m02 * tx.m21 - tx.m01 * tx.m22;
+        double c11 = tx.m00 * tx.m22 - tx.m02 * tx.m20;
+        double c12 = tx.m01 * tx.m20 - tx.m00 * tx.m21;
+        double c20 = tx.m01 * tx.m12 - tx.m02 * tx.m11;
+        double c21 = tx.m02 * tx.m10 - tx.m00 * tx.m12;
+        double c22 = tx.m00 * tx.m11 - tx.m01 * tx.m10;
+
+        double sign = determinant3(tx) < 0 ? -1 : 1;
+
+        for(int i = 0; i < num; i++)
+        {
+            double x = src[i * 3];
+            double y = src[i * 3 + 1];
+            double z = src[i * 3 + 2];
+
+            double nx = c00 * x + c01 * y + c02 * z;
+            double ny = c10 * x + c11 * y + c12 * z;
+            double nz = c20 * x + c21 * y + c22 * z;
+
+            double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+            if(len != 0)
+                len = sign / len;
+
+            dest[offset++] = (float)(nx * len);
+            dest[offset++] = (float)(ny * len);
+            dest[offset++] = (float)(nz * len);
+        }
+    }
+
+    /**
+     * Calculate the determinant of the upper 3x3 of the matrix.
+     *
+     * @param tx The matrix to use
+     * @return The determinant
+     */
+    private double determinant3(Matrix4d tx)
+    {
+        return tx.m00 * (tx.m11 * tx.m22 - tx.m12 * tx.m21) -
+               tx.m01 * (tx.m10 * tx.m22 - tx.m12 * tx.m20) +
+               tx.m02 * (tx.m10 * tx.m21 - tx.m11 * tx.m20);
+    }
+
+    /**
+     * Work out the number of bytes of vertex and index data the geometry
+     * holds.
+     *
+     * @param geom The geometry to size
+     * @return The number of bytes used
+     */
+    private long getMemorySize(VertexGeometry geom)
+    {
+        long num_vtx = geom.getValidVertexCount();
+        long values = num_vtx * geom.getVertexType();
+
+        if(geom.hasNormals())
+            values += num_vtx * 3;
+
+        if(geom.isSingleColor())
+            values += geom.getColorComponents();
+        else
+            values += num_vtx * geom.getColorComponents();
+
+        for(int i = 0; i < geom.getNumTextureArrays(); i++)
+            values += num_vtx * geom.getTextureCoordinateType(i);
+
+        if(geom instanceof IndexedVertexGeometry)
+            values += ((IndexedVertexGeometry)geom).getValidIndexCount();
+
+        return values * VALUE_SIZE;
+    }
+}
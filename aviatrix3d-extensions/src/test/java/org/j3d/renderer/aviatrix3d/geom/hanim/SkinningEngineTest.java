@@ -0,0 +1,469 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.hanim;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+import org.testng.Reporter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.geom.hanim.HAnimHumanoid;
+import org.j3d.geom.hanim.HAnimJoint;
+import org.j3d.geom.hanim.HAnimObject;
+
+/**
+ * Unit tests for the vertex-major software skinning: the skin mesh gather,
+ * the engine that splits it over threads and the humanoid that uses them.
+ * Also has a crowd skinning benchmark that is not part of the unit group.
+ */
+public class SkinningEngineTest
+{
+    /** Vertices in each humanoid for the benchmark */
+    private static final int BENCHMARK_VERTICES =
+        Integer.getInteger("hanim.benchmark.vertices", 20000);
+
+    /** Number of humanoids in the benchmark crowd */
+    private static final int BENCHMARK_HUMANOIDS =
+        Integer.getInteger("hanim.benchmark.humanoids", 32);
+
+    /** Joints in the chain of each test humanoid */
+    private static final int NUM_JOINTS = 12;
+
+    /** Influences on each vertex of the test humanoids */
+    private static final int INFLUENCES_PER_VERTEX = 3;
+
+    @BeforeClass(groups = { "unit", "benchmark" })
+    public void setupClass() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication(getClass().getName(), "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit")
+    public void testGatherMatchesScatter() throws Exception
+    {
+        Random rand = new Random(7);
+        int num_verts = 500;
+        int num_joints = 6;
+
+        float[] coords = randomArray(rand, num_verts * 3);
+        float[] normals = randomArray(rand, num_verts * 3);
+        Matrix4d[] mats = new Matrix4d[num_joints];
+
+        for(int i = 0; i < num_joints; i++)
+            mats[i] = randomMatrix(rand);
+
+        // Each joint influences a random subset of the vertices
+        int[][] indices = new int[num_joints][];
+        float[][] weights = new float[num_joints][];
+
+        for(int i = 0; i < num_joints; i++)
+        {
+            int count = 50 + rand.nextInt(200);
+            indices[i] = new int[count];
+            weights[i] = new float[count];
+
+            for(int j = 0; j < count; j++)
+            {
+                indices[i][j] = rand.nextInt(num_verts);
+                weights[i][j] = rand.nextFloat();
+            }
+        }
+
+        // Reference result, a scatter per joint as the speed joints do
+        double[] ref_coords = new double[num_verts * 3];
+        double[] ref_normals = new double[num_verts * 3];
+
+        for(int i = 0; i < num_joints; i++)
+        {
+            Matrix4d m = mats[i];
+
+            for(int j = 0; j < indices[i].length; j++)
+            {
+                int v = indices[i][j] * 3;
+                double w = weights[i][j];
+                float x = coords[v];
+                float y = coords[v + 1];
+                float z = coords[v + 2];
+
+                ref_coords[v] += (m.m00 * x + m.m01 * y + m.m02 * z + m.m03) * w;
+                ref_coords[v + 1] += (m.m10 * x + m.m11 * y + m.m12 * z + m.m13) * w;
+                ref_coords[v + 2] += (m.m20 * x + m.m21 * y + m.m22 * z + m.m23) * w;
+
+                x = normals[v];
+                y = normals[v + 1];
+                z = normals[v + 2];
+
+                ref_normals[v] += (m.m00 * x + m.m01 * y + m.m02 * z) * w;
+                ref_normals[v + 1] += (m.m10 * x + m.m11 * y + m.m12 * z) * w;
+                ref_normals[v + 2] += (m.m20 * x + m.m21 * y + m.m22 * z) * w;
+            }
+        }
+
+        float[] out_coords = new float[num_verts * 3];
+        float[] out_normals = new float[num_verts * 3];
+
+        SkinMesh class_under_test = new SkinMesh();
+        class_under_test.setArrays(coords, normals, out_coords, out_normals, num_verts, num_verts);
+        class_under_test.setNumJoints(num_joints);
+
+        for(int i = 0; i < num_joints; i++)
+            class_under_test.setJointMatrix(i, mats[i]);
+
+        class_under_test.beginInfluences();
+
+        for(int i = 0; i < num_joints; i++)
+        {
+            for(int j = 0; j < indices[i].length; j++)
+                class_under_test.countInfluence(indices[i][j]);
+        }
+
+        class_under_test.endCount();
+
+        // Add in the reverse order to check the order does not matter
+        int total = 0;
+
+        for(int i = num_joints - 1; i >= 0; i--)
+        {
+            for(int j = 0; j < indices[i].length; j++)
+                class_under_test.addInfluence(indices[i][j], i, weights[i][j]);
+
+            total += indices[i].length;
+        }
+
+        assertEquals(class_under_test.getNumInfluences(), total, "Wrong influence count");
+
+        class_under_test.skin(0, num_verts);
+
+        for(int i = 0; i < num_verts * 3; i++)
+        {
+            assertEquals(out_coords[i], ref_coords[i], 1e-3, "Wrong coordinate " + i);
+            assertEquals(out_normals[i], ref_normals[i], 1e-3, "Wrong normal " + i);
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testParallelMatchesSerial() throws Exception
+    {
+        Random rand = new Random(11);
+        int num_meshes = 5;
+
+        SkinMesh[] serial = new SkinMesh[num_meshes];
+        SkinMesh[] parallel = new SkinMesh[num_meshes];
+        float[][] serial_out = new float[num_meshes][];
+        float[][] parallel_out = new float[num_meshes][];
+        int total = 0;
+
+        for(int i = 0; i < num_meshes; i++)
+        {
+            int num_verts = 1000 + rand.nextInt(5000);
+            long seed = rand.nextLong();
+
+            serial_out[i] = new float[num_verts * 3];
+            parallel_out[i] = new float[num_verts * 3];
+            serial[i] = createMesh(new Random(seed), num_verts, serial_out[i]);
+            parallel[i] = createMesh(new Random(seed), num_verts, parallel_out[i]);
+
+            total += num_verts;
+        }
+
+        for(int i = 0; i < num_meshes; i++)
+            serial[i].skin(0, serial[i].getNumVertices());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try
+        {
+            SkinningEngine class_under_test = new SkinningEngine(pool);
+            class_under_test.setSplitSize(100);
+
+            assertEquals(class_under_test.getSplitSize(), 100, "Split size not set");
+
+            class_under_test.skin(parallel, num_meshes, total);
+
+            for(int i = 0; i < num_meshes; i++)
+                assertEquals(parallel_out[i], serial_out[i], "Mesh " + i + " differs");
+
+            // Single mesh path
+            Arrays.fill(parallel_out[0], 0);
+            class_under_test.skin(parallel[0]);
+
+            assertEquals(parallel_out[0], serial_out[0], "Single mesh differs");
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testHumanoidMatchesSpeed() throws Exception
+    {
+        Random rand = new Random(3);
+        int num_verts = 3000;
+        float[] coords = randomArray(rand, num_verts * 3);
+        float[] normals = randomArray(rand, num_verts * 3);
+
+        AVSoftwareHAnimFactory speed_fac = new AVSoftwareHAnimFactory(true);
+        AVSoftwareHAnimFactory parallel_fac =
+            new AVSoftwareHAnimFactory(AVSoftwareHAnimFactory.SKIN_PARALLEL);
+
+        assertEquals(parallel_fac.getSkinMode(), AVSoftwareHAnimFactory.SKIN_PARALLEL, "Wrong mode");
+
+        HAnimJoint[] speed_joints = new HAnimJoint[NUM_JOINTS];
+        HAnimJoint[] parallel_joints = new HAnimJoint[NUM_JOINTS];
+
+        SoftwareHumanoid speed =
+            createHumanoid(speed_fac, new Random(5), coords, normals, num_verts, speed_joints);
+        SoftwareHumanoid parallel =
+            createHumanoid(parallel_fac, new Random(5), coords, normals, num_verts, parallel_joints);
+
+        for(int frame = 0; frame < 3; frame++)
+        {
+            float angle = 0.3f * (frame + 1);
+
+            for(int i = 0; i < NUM_JOINTS; i += 2)
+            {
+                float[] rot = { 0, 0, 1, angle };
+                speed_joints[i].setRotation(rot);
+                parallel_joints[i].setRotation(rot);
+            }
+
+            speed.updateSkeleton();
+            parallel.updateSkeleton();
+
+            float[] expected = (float[])speed.getUpdatedSkinCoords();
+            float[] actual = (float[])parallel.getUpdatedSkinCoords();
+            float[] expected_n = (float[])speed.getUpdatedSkinNormals();
+            float[] actual_n = (float[])parallel.getUpdatedSkinNormals();
+
+            for(int i = 0; i < num_verts * 3; i++)
+            {
+                assertEquals(actual[i], expected[i], 1e-3, "Coord " + i + " frame " + frame);
+                assertEquals(actual_n[i], expected_n[i], 1e-3, "Normal " + i + " frame " + frame);
+            }
+        }
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidFactoryMode() throws Exception
+    {
+        new AVSoftwareHAnimFactory(42);
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkCrowd() throws Exception
+    {
+        int num_verts = BENCHMARK_VERTICES;
+        int num_humanoids = BENCHMARK_HUMANOIDS;
+
+        Random rand = new Random(1);
+        float[] coords = randomArray(rand, num_verts * 3);
+        float[] normals = randomArray(rand, num_verts * 3);
+
+        int[] modes =
+        {
+            AVSoftwareHAnimFactory.SKIN_SPEED,
+            AVSoftwareHAnimFactory.SKIN_SPACE,
+            AVSoftwareHAnimFactory.SKIN_PARALLEL
+        };
+
+        String[] names = { "speed", "space", "parallel" };
+
+        SkinningEngine engine = new SkinningEngine();
+
+        for(int m = 0; m < modes.length; m++)
+        {
+            AVSoftwareHAnimFactory factory = new AVSoftwareHAnimFactory(modes[m]);
+            factory.setDeferredSkinning(true);
+
+            HAnimHumanoid[] crowd = new HAnimHumanoid[num_humanoids];
+            HAnimJoint[][] joints = new HAnimJoint[num_humanoids][NUM_JOINTS];
+
+            for(int i = 0; i < num_humanoids; i++)
+                crowd[i] = createHumanoid(factory,
+                                          new Random(i),
+                                          coords,
+                                          normals,
+                                          num_verts,
+                                          joints[i]);
+
+            int frames = 20;
+            long start = 0;
+
+            // First pass warms up, second pass is timed
+            for(int pass = 0; pass < 2; pass++)
+            {
+                start = System.nanoTime();
+
+                for(int f = 0; f < frames; f++)
+                {
+                    float[] rot = { 0, 0, 1, 0.01f * (f + pass * frames) };
+
+                    for(int i = 0; i < num_humanoids; i++)
+                    {
+                        joints[i][1].setRotation(rot);
+                        crowd[i].updateSkeleton();
+                    }
+
+                    engine.skin(crowd, num_humanoids);
+                }
+            }
+
+            double secs = (System.nanoTime() - start) / 1e9;
+            double verts = (double)num_verts * num_humanoids * frames;
+
+            Reporter.log(String.format("HAnim %s skinning: %d humanoids x %d vertices, %.1f frames/s, %.1f M vertices/s",
+                                       names[m],
+                                       num_humanoids,
+                                       num_verts,
+                                       frames / secs,
+                                       verts / secs / 1e6));
+        }
+    }
+
+    /**
+     * Create a humanoid with a single chain of joints, each influencing a
+     * random set of the vertices.
+     */
+    private SoftwareHumanoid createHumanoid(AVSoftwareHAnimFactory factory,
+                                            Random rand,
+                                            float[] coords,
+                                            float[] normals,
+                                            int numVerts,
+                                            HAnimJoint[] joints)
+    {
+        SoftwareHumanoid humanoid = (SoftwareHumanoid)factory.createHumanoid();
+
+        int[][] indices = new int[NUM_JOINTS][numVerts * INFLUENCES_PER_VERTEX / NUM_JOINTS + 1];
+        float[][] weights = new float[NUM_JOINTS][indices[0].length];
+        int[] counts = new int[NUM_JOINTS];
+
+        // Spread each vertex over several joints, with weights adding to one
+        for(int v = 0; v < numVerts; v++)
+        {
+            int first = rand.nextInt(NUM_JOINTS);
+
+            for(int k = 0; k < INFLUENCES_PER_VERTEX; k++)
+            {
+                int j = (first + k) % NUM_JOINTS;
+
+                if(counts[j] == indices[j].length)
+                    continue;
+
+                indices[j][counts[j]] = v;
+                weights[j][counts[j]] = 1.0f / INFLUENCES_PER_VERTEX;
+                counts[j]++;
+            }
+        }
+
+        for(int i = 0; i < NUM_JOINTS; i++)
+        {
+            joints[i] = factory.createJoint();
+            joints[i].setCenter(new float[] { 0, i * 0.1f, 0 });
+            joints[i].setSkinCoordIndex(indices[i], counts[i]);
+            joints[i].setSkinCoordWeight(weights[i]);
+
+            if(i != 0)
+                joints[i - 1].addChild(joints[i]);
+        }
+
+        humanoid.setSkinCoord(coords, numVerts);
+        humanoid.setSkinNormal(normals, numVerts);
+        humanoid.setSkeleton(new HAnimObject[] { joints[0] }, 1);
+        humanoid.updateSkeleton();
+
+        return humanoid;
+    }
+
+    /**
+     * Create a mesh with random joints and influences writing to the given
+     * output array.
+     */
+    private SkinMesh createMesh(Random rand, int numVerts, float[] output)
+    {
+        int num_joints = 8;
+        SkinMesh ret_val = new SkinMesh();
+        ret_val.setArrays(randomArray(rand, numVerts * 3), null, output, null, numVerts, 0);
+        ret_val.setNumJoints(num_joints);
+
+        for(int i = 0; i < num_joints; i++)
+            ret_val.setJointMatrix(i, randomMatrix(rand));
+
+        int[] joint = new int[numVerts * 2];
+        float[] weight = new float[numVerts * 2];
+
+        for(int i = 0; i < joint.length; i++)
+        {
+            joint[i] = rand.nextInt(num_joints);
+            weight[i] = rand.nextFloat();
+        }
+
+        ret_val.beginInfluences();
+
+        for(int i = 0; i < joint.length; i++)
+            ret_val.countInfluence(i >> 1);
+
+        ret_val.endCount();
+
+        for(int i = 0; i < joint.length; i++)
+            ret_val.addInfluence(i >> 1, joint[i], weight[i]);
+
+        return ret_val;
+    }
+
+    /**
+     * Create an array of random values between -1 and 1.
+     */
+    private float[] randomArray(Random rand, int size)
+    {
+        float[] ret_val = new float[size];
+
+        for(int i = 0; i < size; i++)
+            ret_val[i] = rand.nextFloat() * 2 - 1;
+
+        return ret_val;
+    }
+
+    /**
+     * Create a matrix with random rotation and translation parts.
+     */
+    private Matrix4d randomMatrix(Random rand)
+    {
+        Matrix4d ret_val = new Matrix4d();
+        ret_val.setIdentity();
+        ret_val.m00 = rand.nextDouble();
+        ret_val.m01 = rand.nextDouble();
+        ret_val.m02 = rand.nextDouble();
+        ret_val.m03 = rand.nextDouble() * 10;
+        ret_val.m10 = rand.nextDouble();
+        ret_val.m11 = rand.nextDouble();
+        ret_val.m12 = rand.nextDouble();
+        ret_val.m13 = rand.nextDouble() * 10;
+        ret_val.m20 = rand.nextDouble();
+        ret_val.m21 = rand.nextDouble();
+        ret_val.m22 = rand.nextDouble();
+        ret_val.m23 = rand.nextDouble() * 10;
+
+        return ret_val;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.particle;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import org.j3d.util.I18nManager;
+import org.testng.Reporter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.BoundingBox;
+
+import org.j3d.renderer.aviatrix3d.nodes.QuadArray;
+
+/**
+ * Unit tests for the array based billboard particle system. Also has a
+ * throughput benchmark that is not part of the unit group.
+ */
+public class BillboardParticleSystemTest
+{
+    /** Particle count for the benchmark */
+    private static final int BENCHMARK_PARTICLES =
+        Integer.getInteger("particle.benchmark.count", 1000000);
+
+    /** A zero vector */
+    private static final float[] ZERO = { 0, 0, 0 };
+
+    @BeforeClass(groups = { "unit", "benchmark" })
+    public void setupClass() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication(getClass().getName(), "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidColorCount() throws Exception
+    {
+        new BillboardParticleSystem("bad", 10, 2);
+    }
+
+    @Test(groups = "unit")
+    public void testEmissionAndDeath() throws Exception
+    {
+        BillboardParticleSystem class_under_test =
+            new BillboardParticleSystem("emit", 1000, 0);
+
+        class_under_test.setEmissionRate(100);
+        class_under_test.setLifetime(1, 0);
+
+        class_under_test.update(0.5f);
+        assertEquals(class_under_test.getParticleCount(), 50, "Wrong first emission");
+
+        class_under_test.update(0.6f);
+        assertEquals(class_under_test.getParticleCount(), 110, "Wrong second emission");
+
+        // First batch is now past its lifetime
+        class_under_test.update(0.1f);
+        assertEquals(class_under_test.getParticleCount(), 70, "Dead particles not removed");
+
+        for(int i = 0; i < 70; i++)
+            assertTrue(class_under_test.getAge(i) < 1, "Dead particle kept at " + i);
+
+        assertEquals(class_under_test.emitParticles(2000), 930, "Burst not capped");
+        assertEquals(class_under_test.getParticleCount(), 1000, "System not full");
+
+        class_under_test.clear();
+        assertEquals(class_under_test.getParticleCount(), 0, "System not cleared");
+    }
+
+    @Test(groups = "unit")
+    public void testMotion() throws Exception
+    {
+        BillboardParticleSystem class_under_test =
+            new BillboardParticleSystem("motion", 10, 0);
+
+        class_under_test.setLifetime(100, 0);
+        class_under_test.setEmitterVelocity(new float[] { 1, 0, 0 }, ZERO);
+        class_under_test.emitParticles(1);
+
+        class_under_test.update(0.5f);
+        assertEquals(class_under_test.getPositionX(0), 0.5f, 1e-6f, "Wrong first step");
+
+        class_under_test.update(0.5f);
+        assertEquals(class_under_test.getPositionX(0), 1.0f, 1e-6f, "Wrong second step");
+
+        class_under_test.setDrag(0.5f);
+        class_under_test.update(1);
+        assertEquals(class_under_test.getPositionX(0), 1.5f, 1e-6f, "Drag not applied");
+
+        class_under_test.setDrag(0);
+        class_under_test.setAcceleration(new float[] { 2, 0, 0 });
+        class_under_test.update(1);
+        assertEquals(class_under_test.getPositionX(0), 4.0f, 1e-6f, "Acceleration not applied");
+    }
+
+    @Test(groups = "unit")
+    public void testQuadsAndBounds() throws Exception
+    {
+        BillboardParticleSystem class_under_test =
+            new BillboardParticleSystem("quads", 5000, 4);
+
+        class_under_test.setRandomSeed(3);
+        class_under_test.setLifetime(10, 0);
+        class_under_test.setParticleSize(0.5f, 0.25f);
+        class_under_test.setEmitterPosition(new float[] { 0, 5, 0 },
+                                            new float[] { 10, 1, 10 });
+        class_under_test.setEmitterVelocity(ZERO, new float[] { 2, 2, 2 });
+        class_under_test.setChunkSize(512);
+        class_under_test.emitParticles(5000);
+        class_under_test.update(0.1f);
+
+        QuadArray geom = (QuadArray)class_under_test.getNode();
+        int num_verts = 5000 * 4;
+
+        assertEquals(geom.getValidVertexCount(), num_verts, "Wrong vertex count");
+
+        float[] verts = readVertices(class_under_test, num_verts * 3);
+
+        float[] min = new float[3];
+        float[] max = new float[3];
+        BoundingBox bounds = (BoundingBox)geom.getBounds();
+        bounds.getMinimum(min);
+        bounds.getMaximum(max);
+
+        float[] real_min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float[] real_max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+
+        for(int i = 0; i < num_verts * 3; i++)
+        {
+            int axis = i % 3;
+            real_min[axis] = Math.min(real_min[axis], verts[i]);
+            real_max[axis] = Math.max(real_max[axis], verts[i]);
+        }
+
+        for(int i = 0; i < 3; i++)
+        {
+            assertEquals(min[i], real_min[i], 1e-4f, "Wrong minimum on axis " + i);
+            assertEquals(max[i], real_max[i], 1e-4f, "Wrong maximum on axis " + i);
+        }
+
+        // First quad should be centred on its particle with the right size
+        float cx = (verts[0] + verts[6]) / 2;
+        assertEquals(cx, class_under_test.getPositionX(0), 1e-5f, "Quad not centred");
+        assertEquals(verts[0] - verts[6], 1.0f, 1e-5f, "Wrong quad width");
+        assertEquals(verts[4] - verts[1], 0.5f, 1e-5f, "Wrong quad height");
+    }
+
+    @Test(groups = "unit")
+    public void testParallelMatchesSerial() throws Exception
+    {
+        int count = 20000;
+        float[] times = { 0, 0.5f, 1 };
+        float[] colors = { 1, 1, 1, 1,  1, 0, 0, 0.5f,  0, 0, 1, 0 };
+
+        BillboardParticleSystem serial = new BillboardParticleSystem("serial", count, 4);
+        serial.setChunkSize(count);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try
+        {
+            BillboardParticleSystem class_under_test =
+                new BillboardParticleSystem("parallel", count, 4, pool);
+            class_under_test.setChunkSize(300);
+
+            assertEquals(class_under_test.getChunkSize(), 300, "Chunk size not set");
+
+            BillboardParticleSystem[] systems = { serial, class_under_test };
+
+            for(BillboardParticleSystem s: systems)
+            {
+                s.setRandomSeed(42);
+                s.setLifetime(1, 0.5f);
+                s.setEmissionRate(count);
+                s.setEmitterVelocity(new float[] { 0, 3, 0 }, new float[] { 1, 1, 1 });
+                s.setAcceleration(new float[] { 0, -9.8f, 0 });
+                s.setDrag(0.1f);
+                s.setColorRamp(times, colors, 3);
+            }
+
+            for(int frame = 0; frame < 30; frame++)
+            {
+                serial.update(1 / 30f);
+                class_under_test.update(1 / 30f);
+            }
+
+            int num = serial.getParticleCount();
+
+            assertEquals(class_under_test.getParticleCount(), num, "Counts differ");
+            assertTrue(num > 0, "No particles alive");
+
+            QuadArray s_geom = (QuadArray)serial.getNode();
+            QuadArray p_geom = (QuadArray)class_under_test.getNode();
+
+            assertEquals(readVertices(class_under_test, num * 12),
+                         readVertices(serial, num * 12),
+                         "Vertices differ");
+
+            BoundingBox s_bounds = (BoundingBox)s_geom.getBounds();
+            BoundingBox p_bounds = (BoundingBox)p_geom.getBounds();
+            float[] s_val = new float[3];
+            float[] p_val = new float[3];
+
+            s_bounds.getMinimum(s_val);
+            p_bounds.getMinimum(p_val);
+            assertEquals(p_val, s_val, "Minimum bounds differ");
+
+            s_bounds.getMaximum(s_val);
+            p_bounds.getMaximum(p_val);
+            assertEquals(p_val, s_val, "Maximum bounds differ");
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkUpdate() throws Exception
+    {
+        int count = BENCHMARK_PARTICLES;
+
+        BillboardParticleSystem class_under_test =
+            new BillboardParticleSystem("bench", count, 4);
+
+        class_under_test.setLifetime(1000, 0);
+        class_under_test.setEmitterVelocity(ZERO, new float[] { 1, 1, 1 });
+        class_under_test.setAcceleration(new float[] { 0, -9.8f, 0 });
+        class_under_test.setEmitterColor(new float[] { 1, 0.5f, 0, 1 });
+        class_under_test.emitParticles(count);
+
+        // Warm up first so the timings do not include compilation
+        for(int i = 0; i < 30; i++)
+            class_under_test.update(1 / 60f);
+
+        int frames = 120;
+        long start = System.nanoTime();
+
+        for(int i = 0; i < frames; i++)
+            class_under_test.update(1 / 60f);
+
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        Reporter.log(String.format("Billboard particles: %d particles, %.2f ms/frame, %.1f M particles/s",
+                                   count,
+                                   secs * 1000 / frames,
+                                   (double)count * frames / secs / 1e6));
+    }
+
+    /**
+     * Read the given number of values from the start of the vertex buffer
+     * of the system's geometry.
+     */
+    private float[] readVertices(BillboardParticleSystem system, int size)
+    {
+        QuadArray geom = (QuadArray)system.getNode();
+        FloatBuffer buf = FloatBuffer.allocate(system.getMaxParticleCount() * 12);
+        geom.getVertices(buf);
+
+        float[] ret_val = new float[size];
+        buf.rewind();
+        buf.get(ret_val);
+
+        return ret_val;
+    }
+}
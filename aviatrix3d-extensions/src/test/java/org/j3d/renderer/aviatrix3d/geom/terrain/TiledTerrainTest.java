@@ -0,0 +1,357 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.geom.terrain;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.Appearance;
+import org.j3d.aviatrix3d.BoundingBox;
+import org.j3d.aviatrix3d.IndexedTriangleStripArray;
+import org.j3d.aviatrix3d.Shape3D;
+import org.j3d.aviatrix3d.rendering.CullInstructions;
+
+/**
+ * Unit tests for the tiled terrain node
+ */
+public class TiledTerrainTest
+{
+    private static final int NUM_COLUMNS = 101;
+    private static final int NUM_ROWS = 81;
+    private static final int TILE_SIZE = 16;
+
+    @BeforeClass(groups = "unit")
+    public void setupClass() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication(getClass().getName(), "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidTileSize() throws Exception
+    {
+        new TiledTerrain(createSource(1, 1), 0);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeMemoryBudget() throws Exception
+    {
+        TiledTerrain class_under_test = new TiledTerrain(createSource(1, 1), TILE_SIZE);
+        class_under_test.setMemoryBudget(-1);
+    }
+
+    @Test(groups = "unit")
+    public void testBasicConstruction() throws Exception
+    {
+        HeightFieldSource source = createSource(2, 0.5f);
+        TiledTerrain class_under_test = new TiledTerrain(source, TILE_SIZE);
+
+        // 100 by 80 cells is 7 by 5 tiles, with partial tiles at the edges
+        assertEquals(class_under_test.getNumTiles(), 35, "Wrong tile count");
+        assertEquals(class_under_test.getTileSize(), TILE_SIZE, "Wrong tile size");
+        assertEquals(class_under_test.getNumCachedTiles(), 0, "Tiles built too early");
+        assertEquals(class_under_test.getCachedMemory(), 0, "Memory used too early");
+        assertEquals(class_under_test.getMemoryBudget(),
+                     TiledTerrain.DEFAULT_MEMORY_BUDGET,
+                     "Wrong default budget");
+        assertSame(class_under_test.getHeightFieldSource(), source, "Wrong source");
+
+        float min_y = Float.POSITIVE_INFINITY;
+        float max_y = Float.NEGATIVE_INFINITY;
+
+        for(int c = 0; c < NUM_COLUMNS; c++)
+        {
+            for(int r = 0; r < NUM_ROWS; r++)
+            {
+                float h = source.getHeight(c, r);
+                min_y = Math.min(min_y, h);
+                max_y = Math.max(max_y, h);
+            }
+        }
+
+        assertTrue(class_under_test.getBounds() instanceof BoundingBox,
+                   "Terrain should have box bounds");
+
+        float[] min = new float[3];
+        float[] max = new float[3];
+        class_under_test.getBounds().getExtents(min, max);
+
+        assertEquals(min[0], 0, 0.0001f, "Wrong min X");
+        assertEquals(max[0], 200, 0.0001f, "Wrong max X");
+        assertEquals(min[1], min_y, 0.0001f, "Wrong min Y");
+        assertEquals(max[1], max_y, 0.0001f, "Wrong max Y");
+        assertEquals(min[2], -40, 0.0001f, "Wrong min Z");
+        assertEquals(max[2], 0, 0.0001f, "Wrong max Z");
+    }
+
+    @Test(groups = "unit")
+    public void testOnlyVisibleTilesBuilt() throws Exception
+    {
+        TiledTerrain class_under_test = new TiledTerrain(createSource(1, 1), TILE_SIZE);
+
+        CullInstructions output = new CullInstructions();
+        Vector4d[] planes = createCubeFrustum(10);
+
+        // Cube centred on (32, 0, -20) in the terrain space, which
+        // overlaps tiles 1 and 2 along X and 0 and 1 along Z.
+        Matrix4d mat = createTranslation(-32, 0, 20);
+        class_under_test.cullChildren(output, mat, mat, planes, 0);
+
+        assertEquals(output.numChildren, 4, "Wrong number of visible tiles");
+        assertEquals(class_under_test.getNumCachedTiles(), 4, "Only the visible tiles should be built");
+        assertTrue(class_under_test.getCachedMemory() > 0, "Built tiles use no memory");
+
+        for(int i = 0; i < output.numChildren; i++)
+        {
+            Shape3D shape = (Shape3D)output.children[i];
+            IndexedTriangleStripArray geom = (IndexedTriangleStripArray)shape.getGeometry();
+
+            float[] coords = new float[geom.getValidVertexCount() * 3];
+            geom.getVertices(coords);
+
+            // First vertex is the south west corner, last the north east
+            float min_x = coords[0];
+            float max_z = coords[2];
+            float max_x = coords[coords.length - 3];
+            float min_z = coords[coords.length - 1];
+
+            assertTrue(max_x > 22 && min_x < 42, "Tile outside the frustum in X");
+            assertTrue(max_z > -30 && min_z < -10, "Tile outside the frustum in Z");
+        }
+
+        // Same view again reuses the same geometry
+        Object first = output.children[0];
+        class_under_test.cullChildren(output, mat, mat, planes, 0);
+
+        assertEquals(class_under_test.getNumCachedTiles(), 4, "Tiles rebuilt");
+        assertSame(output.children[0], first, "Cached tile not reused");
+
+        // Looking away from the terrain gives nothing
+        Matrix4d away = createTranslation(0, 0, -500);
+        class_under_test.cullChildren(output, away, away, planes, 0);
+
+        assertEquals(output.numChildren, 0, "Tiles visible from outside the terrain");
+    }
+
+    @Test(groups = "unit")
+    public void testTileGeometry() throws Exception
+    {
+        // Heights slope up to the east by 0.5 per column
+        float[][] heights = new float[TILE_SIZE + 1][TILE_SIZE + 1];
+
+        for(int r = 0; r <= TILE_SIZE; r++)
+        {
+            for(int c = 0; c <= TILE_SIZE; c++)
+                heights[r][c] = c * 0.5f;
+        }
+
+        HeightFieldSource source = new ArrayHeightField(heights, 1, 1);
+        TiledTerrain class_under_test = new TiledTerrain(source, TILE_SIZE);
+
+        CullInstructions output = new CullInstructions();
+        Matrix4d mat = createTranslation(-8, 0, 8);
+        class_under_test.cullChildren(output, mat, mat, createCubeFrustum(100), 0);
+
+        assertEquals(output.numChildren, 1, "Should be a single tile");
+
+        Shape3D shape = (Shape3D)output.children[0];
+        IndexedTriangleStripArray geom = (IndexedTriangleStripArray)shape.getGeometry();
+
+        int num_verts = (TILE_SIZE + 1) * (TILE_SIZE + 1);
+        assertEquals(geom.getValidVertexCount(), num_verts, "Wrong vertex count");
+        assertEquals(geom.getValidStripCount(), TILE_SIZE, "Should be a strip per row");
+
+        float[] coords = new float[num_verts * 3];
+        float[] normals = new float[num_verts * 3];
+        geom.getVertices(coords);
+        geom.getNormals(normals);
+
+        float len = (float)Math.sqrt(0.25 + 1);
+
+        for(int r = 0; r <= TILE_SIZE; r++)
+        {
+            for(int c = 0; c <= TILE_SIZE; c++)
+            {
+                int idx = (r * (TILE_SIZE + 1) + c) * 3;
+
+                assertEquals(coords[idx], c, 0.0001f, "Wrong X coordinate");
+                assertEquals(coords[idx + 1], c * 0.5f, 0.0001f, "Wrong height");
+                assertEquals(coords[idx + 2], -r, 0.0001f, "Wrong Z coordinate");
+
+                assertEquals(normals[idx], -0.5f / len, 0.0001f, "Wrong normal X");
+                assertEquals(normals[idx + 1], 1 / len, 0.0001f, "Wrong normal Y");
+                assertEquals(normals[idx + 2], 0, 0.0001f, "Wrong normal Z");
+            }
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testEvictionOverBudget() throws Exception
+    {
+        TiledTerrain class_under_test = new TiledTerrain(createSource(1, 1), TILE_SIZE);
+        class_under_test.setMemoryBudget(0);
+
+        CullInstructions output = new CullInstructions();
+        Vector4d[] planes = createCubeFrustum(4);
+
+        Matrix4d first_view = createTranslation(-8, 0, 8);
+        Matrix4d second_view = createTranslation(-72, 0, 56);
+
+        class_under_test.cullChildren(output, first_view, first_view, planes, 0);
+        assertEquals(class_under_test.getNumCachedTiles(), 1, "First tile not built");
+
+        // Recently seen tiles are kept even when over budget
+        for(int i = 1; i < TiledTerrain.MIN_KEEP_PASSES; i++)
+        {
+            class_under_test.cullChildren(output, second_view, second_view, planes, 0);
+            assertEquals(class_under_test.getNumCachedTiles(), 2, "Tile evicted too soon");
+        }
+
+        class_under_test.cullChildren(output, second_view, second_view, planes, 0);
+        assertEquals(class_under_test.getNumCachedTiles(), 1, "Old tile not evicted");
+
+        Object second_tile = output.children[0];
+
+        // Going back rebuilds the first tile, and the budget is then large
+        // enough that nothing is thrown away.
+        class_under_test.setMemoryBudget(Long.MAX_VALUE);
+
+        for(int i = 0; i <= TiledTerrain.MIN_KEEP_PASSES; i++)
+            class_under_test.cullChildren(output, first_view, first_view, planes, 0);
+
+        assertEquals(class_under_test.getNumCachedTiles(), 2, "Tile evicted under budget");
+
+        class_under_test.cullChildren(output, second_view, second_view, planes, 0);
+        assertSame(output.children[0], second_tile, "Cached tile not reused");
+    }
+
+    @Test(groups = "unit")
+    public void testAppearanceChangeRebuildsTiles() throws Exception
+    {
+        TiledTerrain class_under_test = new TiledTerrain(createSource(1, 1), TILE_SIZE);
+
+        CullInstructions output = new CullInstructions();
+        Vector4d[] planes = createCubeFrustum(4);
+        Matrix4d mat = createTranslation(-8, 0, 8);
+
+        class_under_test.cullChildren(output, mat, mat, planes, 0);
+        assertNull(((Shape3D)output.children[0]).getAppearance(), "Should have no appearance");
+
+        Object old_tile = output.children[0];
+        long tile_memory = class_under_test.getCachedMemory();
+
+        Appearance app = new Appearance();
+        class_under_test.setAppearance(app);
+
+        assertSame(class_under_test.getAppearance(), app, "Appearance not set");
+        assertEquals(class_under_test.getNumCachedTiles(), 1, "Tiles thrown away straight away");
+        assertEquals(class_under_test.getCachedMemory(), tile_memory, "Memory released straight away");
+
+        class_under_test.cullChildren(output, mat, mat, planes, 0);
+        assertNotSame(output.children[0], old_tile, "Stale tile not rebuilt");
+        assertSame(((Shape3D)output.children[0]).getAppearance(), app, "Rebuilt without the appearance");
+        assertEquals(class_under_test.getNumCachedTiles(), 1, "Wrong tile count after rebuild");
+
+        // The old geometry may still be in the pipeline for a few passes
+        for(int i = 2; i < TiledTerrain.MIN_KEEP_PASSES; i++)
+        {
+            class_under_test.cullChildren(output, mat, mat, planes, 0);
+            assertEquals(class_under_test.getCachedMemory(),
+                         tile_memory * 2,
+                         "Old geometry released too soon");
+        }
+
+        class_under_test.cullChildren(output, mat, mat, planes, 0);
+        assertEquals(class_under_test.getCachedMemory(), tile_memory, "Old geometry not released");
+    }
+
+    @Test(groups = "unit")
+    public void testStaleTileAgedOut() throws Exception
+    {
+        TiledTerrain class_under_test = new TiledTerrain(createSource(1, 1), TILE_SIZE);
+
+        CullInstructions output = new CullInstructions();
+        Vector4d[] planes = createCubeFrustum(4);
+
+        Matrix4d first_view = createTranslation(-8, 0, 8);
+        Matrix4d second_view = createTranslation(-72, 0, 56);
+
+        class_under_test.cullChildren(output, first_view, first_view, planes, 0);
+        class_under_test.setAppearance(new Appearance());
+
+        // Stale tiles follow the same minimum keep time as the budget
+        for(int i = 1; i < TiledTerrain.MIN_KEEP_PASSES; i++)
+        {
+            class_under_test.cullChildren(output, second_view, second_view, planes, 0);
+            assertEquals(class_under_test.getNumCachedTiles(), 2, "Stale tile evicted too soon");
+        }
+
+        class_under_test.cullChildren(output, second_view, second_view, planes, 0);
+        assertEquals(class_under_test.getNumCachedTiles(), 1, "Stale tile kept under budget");
+    }
+
+    /**
+     * Create a source of NUM_COLUMNS by NUM_ROWS with bumpy heights.
+     */
+    private HeightFieldSource createSource(float columnSpacing, float rowSpacing)
+    {
+        float[][] heights = new float[NUM_ROWS][NUM_COLUMNS];
+
+        for(int r = 0; r < NUM_ROWS; r++)
+        {
+            for(int c = 0; c < NUM_COLUMNS; c++)
+                heights[r][c] = (float)(Math.sin(c * 0.3) * Math.cos(r * 0.2) * 2);
+        }
+
+        return new ArrayHeightField(heights, columnSpacing, rowSpacing);
+    }
+
+    private Matrix4d createTranslation(double x, double y, double z)
+    {
+        Matrix4d ret_val = new Matrix4d();
+        ret_val.setIdentity();
+        ret_val.m03 = x;
+        ret_val.m13 = y;
+        ret_val.m23 = z;
+
+        return ret_val;
+    }
+
+    /**
+     * Create a set of frustum planes describing a cube centred on the origin,
+     * with the normals pointing inwards.
+     */
+    private Vector4d[] createCubeFrustum(double halfSize)
+    {
+        Vector4d[] ret_val = new Vector4d[6];
+
+        for(int i = 0; i < 6; i++)
+            ret_val[i] = new Vector4d();
+
+        ret_val[0].set(-1, 0, 0, halfSize);
+        ret_val[1].set(1, 0, 0, halfSize);
+        ret_val[2].set(0, 1, 0, halfSize);
+        ret_val[3].set(0, -1, 0, halfSize);
+        ret_val[4].set(0, 0, -1, halfSize);
+        ret_val[5].set(0, 0, 1, halfSize);
+
+        return ret_val;
+    }
+}
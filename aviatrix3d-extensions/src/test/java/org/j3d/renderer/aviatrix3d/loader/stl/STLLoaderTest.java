@@ -0,0 +1,389 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.loader.stl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.*;
+import org.j3d.renderer.aviatrix3d.loader.AVModel;
+
+/**
+ * Unit tests for the binary STL fast path: the parallel decoder, the vertex
+ * welder and the loader that puts them together. Also has a throughput
+ * benchmark that is not part of the unit group.
+ */
+public class STLLoaderTest
+{
+    /** Corners of a unit cube, as 12 facets with outward winding */
+    private static final float[] CUBE_COORDS =
+    {
+        0, 0, 0,  0, 1, 0,  1, 1, 0,
+        0, 0, 0,  1, 1, 0,  1, 0, 0,
+        0, 0, 1,  1, 0, 1,  1, 1, 1,
+        0, 0, 1,  1, 1, 1,  0, 1, 1,
+        0, 0, 0,  1, 0, 0,  1, 0, 1,
+        0, 0, 0,  1, 0, 1,  0, 0, 1,
+        0, 1, 0,  0, 1, 1,  1, 1, 1,
+        0, 1, 0,  1, 1, 1,  1, 1, 0,
+        0, 0, 0,  0, 0, 1,  0, 1, 1,
+        0, 0, 0,  0, 1, 1,  0, 1, 0,
+        1, 0, 0,  1, 1, 0,  1, 1, 1,
+        1, 0, 0,  1, 1, 1,  1, 0, 1
+    };
+
+    /** Facet count for the benchmark, about 25MB of data */
+    private static final int BENCHMARK_FACETS =
+        Integer.getInteger("stl.benchmark.facets", 500000);
+
+    @BeforeClass(groups = { "unit", "benchmark" })
+    public void setupClass() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication(getClass().getName(), "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit")
+    public void testFacetCountCheck() throws Exception
+    {
+        ByteBuffer data = createBinary(CUBE_COORDS, 12, true);
+
+        assertEquals(BinarySTLDecoder.getFacetCount(data, data.capacity()), 12, "Wrong facet count");
+        assertEquals(BinarySTLDecoder.getFacetCount(data, data.capacity() - 1), -1, "Short data accepted");
+        assertEquals(BinarySTLDecoder.getFacetCount(data, 20), -1, "Data shorter than header accepted");
+    }
+
+    @Test(groups = "unit")
+    public void testParallelDecodeMatchesSequential() throws Exception
+    {
+        int num_facets = 50000;
+        float[] coords = createGrid(num_facets);
+        ByteBuffer data = createBinary(coords, num_facets, false);
+
+        data.position(BinarySTLDecoder.HEADER_SIZE);
+        ByteBuffer facets = data.slice();
+
+        // Split over several buffers to check the offsets between them
+        int per_buffer = 15000;
+        int num_buffers = (num_facets + per_buffer - 1) / per_buffer;
+        ByteBuffer[] buffers = new ByteBuffer[num_buffers];
+
+        for(int i = 0; i < num_buffers; i++)
+        {
+            int count = Math.min(per_buffer, num_facets - i * per_buffer);
+
+            facets.position(i * per_buffer * BinarySTLDecoder.FACET_SIZE);
+            facets.limit(facets.position() + count * BinarySTLDecoder.FACET_SIZE);
+            buffers[i] = facets.slice();
+            facets.clear();
+        }
+
+        float[] dec_coords = new float[num_facets * 9];
+        float[] dec_normals = new float[num_facets * 3];
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BinarySTLDecoder class_under_test = new BinarySTLDecoder(pool);
+        class_under_test.decode(buffers, per_buffer, num_facets, dec_coords, dec_normals);
+        pool.shutdown();
+
+        assertTrue(Arrays.equals(dec_coords, coords), "Coordinates not decoded exactly");
+
+        // The written normals are all zero, so they must have been computed
+        for(int i = 0; i < num_facets; i++)
+        {
+            assertEquals(dec_normals[i * 3], 0, 0.0001f, "Wrong x normal at " + i);
+            assertEquals(dec_normals[i * 3 + 1], 0, 0.0001f, "Wrong y normal at " + i);
+            assertEquals(dec_normals[i * 3 + 2], 1, 0.0001f, "Wrong z normal at " + i);
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testExactWeld() throws Exception
+    {
+        float[] normals = computeNormals(CUBE_COORDS, 12);
+
+        VertexWelder class_under_test = new VertexWelder(0);
+        class_under_test.weld(CUBE_COORDS, normals, 12);
+
+        assertEquals(class_under_test.getNumVertices(), 8, "Cube not welded to 8 vertices");
+
+        float[] vertices = class_under_test.getVertices();
+        float[] vtx_normals = class_under_test.getNormals();
+        int[] indices = class_under_test.getIndices();
+
+        for(int i = 0; i < 36; i++)
+        {
+            int v = indices[i];
+
+            assertEquals(vertices[v * 3], CUBE_COORDS[i * 3], "Wrong x for corner " + i);
+            assertEquals(vertices[v * 3 + 1], CUBE_COORDS[i * 3 + 1], "Wrong y for corner " + i);
+            assertEquals(vertices[v * 3 + 2], CUBE_COORDS[i * 3 + 2], "Wrong z for corner " + i);
+        }
+
+        // Every corner normal should point out from the middle of the cube
+        for(int v = 0; v < 8; v++)
+        {
+            float dot = (vertices[v * 3] - 0.5f) * vtx_normals[v * 3] +
+                        (vertices[v * 3 + 1] - 0.5f) * vtx_normals[v * 3 + 1] +
+                        (vertices[v * 3 + 2] - 0.5f) * vtx_normals[v * 3 + 2];
+
+            assertTrue(dot > 0, "Normal " + v + " points inwards");
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testToleranceWeld() throws Exception
+    {
+        float[] coords = CUBE_COORDS.clone();
+
+        // Nudge one copy of each corner by less than the tolerance,
+        // including across the cell boundaries at 0 and 1.
+        for(int i = 0; i < coords.length; i += 9)
+        {
+            coords[i] += coords[i] == 0 ? -0.0004f : 0.0004f;
+            coords[i + 1] += 0.0003f;
+        }
+
+        float[] normals = computeNormals(coords, 12);
+
+        VertexWelder exact = new VertexWelder(0);
+        exact.weld(coords, normals, 12);
+        assertTrue(exact.getNumVertices() > 8, "Exact weld merged moved corners");
+
+        VertexWelder class_under_test = new VertexWelder(0.001f);
+        class_under_test.weld(coords, normals, 12);
+        assertEquals(class_under_test.getNumVertices(), 8, "Corners within tolerance not merged");
+    }
+
+    @Test(groups = "unit")
+    public void testWelderGrowth() throws Exception
+    {
+        int num_facets = 5000;
+        float[] coords = createGrid(num_facets);
+        float[] normals = computeNormals(coords, num_facets);
+
+        VertexWelder class_under_test = new VertexWelder(0);
+        class_under_test.weld(coords, normals, num_facets);
+
+        int num_vtx = class_under_test.getNumVertices();
+        assertTrue(num_vtx > 1024, "Test does not cause the arrays to grow");
+
+        // Each grid quad is two facets sharing two corners
+        assertEquals(num_vtx, num_facets / 2 * 4, "Wrong welded vertex count");
+
+        float[] vtx_normals = class_under_test.getNormals();
+
+        for(int i = 0; i < num_vtx; i++)
+            assertEquals(vtx_normals[i * 3 + 2], 1, 0.0001f, "Normal lost at vertex " + i);
+    }
+
+    @Test(groups = "unit")
+    public void testLoadMappedFile() throws Exception
+    {
+        File file = writeFile(createBinary(CUBE_COORDS, 12, true));
+
+        try
+        {
+            STLLoader class_under_test = new STLLoader();
+
+            AVModel model = class_under_test.load(file);
+            Shape3D shape = (Shape3D)model.getModelRoot().getChild(0);
+            TriangleArray tris = (TriangleArray)shape.getGeometry();
+
+            assertEquals(tris.getValidVertexCount(), 36, "Wrong unwelded vertex count");
+
+            float[] coords = new float[36 * 3];
+            tris.getVertices(coords);
+            assertTrue(Arrays.equals(coords, CUBE_COORDS), "Wrong unwelded coordinates");
+
+            class_under_test.setVertexWelding(true);
+            assertTrue(class_under_test.isVertexWelding(), "Welding not enabled");
+
+            model = class_under_test.load(file.toURI().toURL());
+            shape = (Shape3D)model.getModelRoot().getChild(0);
+            IndexedTriangleArray itris = (IndexedTriangleArray)shape.getGeometry();
+
+            assertEquals(itris.getValidVertexCount(), 8, "Wrong welded vertex count");
+            assertEquals(itris.getValidIndexCount(), 36, "Wrong welded index count");
+            assertTrue(itris.hasNormals(), "No welded normals");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testLoadBinaryStream() throws Exception
+    {
+        ByteBuffer data = createBinary(CUBE_COORDS, 12, true);
+
+        STLLoader class_under_test = new STLLoader();
+        class_under_test.setVertexWelding(true);
+
+        AVModel model =
+            class_under_test.load(new ByteArrayInputStream(data.array()));
+
+        assertNotNull(model, "No model from stream");
+
+        Shape3D shape = (Shape3D)model.getModelRoot().getChild(0);
+        IndexedTriangleArray geom = (IndexedTriangleArray)shape.getGeometry();
+
+        assertEquals(geom.getValidVertexCount(), 8, "Wrong vertex count from stream");
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkLoad() throws Exception
+    {
+        int num_facets = BENCHMARK_FACETS;
+        File file = writeFile(createBinary(createGrid(num_facets), num_facets, true));
+
+        try
+        {
+            STLLoader class_under_test = new STLLoader();
+
+            for(int i = 0; i < 2; i++)
+            {
+                class_under_test.setVertexWelding(i == 1);
+
+                AVModel model = class_under_test.load(file);
+
+                assertNotNull(model, "No model loaded");
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Create a flat grid of quads in the z = 0 plane, two facets per quad,
+     * with no corners shared between quads.
+     */
+    private float[] createGrid(int numFacets)
+    {
+        float[] coords = new float[numFacets * 9];
+
+        for(int i = 0; i < numFacets / 2; i++)
+        {
+            float x = (i % 1000) * 2;
+            float y = (i / 1000) * 2;
+            int idx = i * 18;
+
+            float[] quad =
+            {
+                x, y, 0,  x + 1, y, 0,  x + 1, y + 1, 0,
+                x, y, 0,  x + 1, y + 1, 0,  x, y + 1, 0
+            };
+
+            System.arraycopy(quad, 0, coords, idx, 18);
+        }
+
+        return coords;
+    }
+
+    /**
+     * Work out the unit face normals of the facets.
+     */
+    private float[] computeNormals(float[] coords, int numFacets)
+    {
+        float[] normals = new float[numFacets * 3];
+
+        for(int i = 0; i < numFacets; i++)
+        {
+            int c = i * 9;
+            float e1_x = coords[c + 3] - coords[c];
+            float e1_y = coords[c + 4] - coords[c + 1];
+            float e1_z = coords[c + 5] - coords[c + 2];
+            float e2_x = coords[c + 6] - coords[c];
+            float e2_y = coords[c + 7] - coords[c + 1];
+            float e2_z = coords[c + 8] - coords[c + 2];
+
+            float n_x = e1_y * e2_z - e1_z * e2_y;
+            float n_y = e1_z * e2_x - e1_x * e2_z;
+            float n_z = e1_x * e2_y - e1_y * e2_x;
+            float len = (float)Math.sqrt(n_x * n_x + n_y * n_y + n_z * n_z);
+
+            normals[i * 3] = n_x / len;
+            normals[i * 3 + 1] = n_y / len;
+            normals[i * 3 + 2] = n_z / len;
+        }
+
+        return normals;
+    }
+
+    /**
+     * Build the contents of a binary STL file.
+     *
+     * @param writeNormals true to write the face normals, false to leave
+     *    them as zero
+     */
+    private ByteBuffer createBinary(float[] coords, int numFacets, boolean writeNormals)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(BinarySTLDecoder.HEADER_SIZE +
+                                             numFacets * BinarySTLDecoder.FACET_SIZE);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Starting the header with "solid" is common, and must not matter
+        buf.put("solid binary test".getBytes());
+        buf.putInt(80, numFacets);
+        buf.position(BinarySTLDecoder.HEADER_SIZE);
+
+        float[] normals = writeNormals ? computeNormals(coords, numFacets) : null;
+
+        for(int i = 0; i < numFacets; i++)
+        {
+            for(int j = 0; j < 3; j++)
+                buf.putFloat(writeNormals ? normals[i * 3 + j] : 0);
+
+            for(int j = 0; j < 9; j++)
+                buf.putFloat(coords[i * 9 + j]);
+
+            buf.putShort((short)0);
+        }
+
+        buf.rewind();
+
+        return buf;
+    }
+
+    /**
+     * Write the data out to a temporary file.
+     */
+    private File writeFile(ByteBuffer data) throws IOException
+    {
+        File file = File.createTempFile("stltest", ".stl");
+
+        try(FileOutputStream fos = new FileOutputStream(file))
+        {
+            fos.write(data.array());
+        }
+
+        return file;
+    }
+}
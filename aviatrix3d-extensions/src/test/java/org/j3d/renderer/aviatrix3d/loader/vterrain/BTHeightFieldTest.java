@@ -0,0 +1,242 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.loader.vterrain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.j3d.exporters.vterrain.BTVersion;
+import org.j3d.loaders.UnsupportedFormatException;
+import org.j3d.loaders.vterrain.BTHeader;
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.Group;
+import org.j3d.renderer.aviatrix3d.geom.terrain.TiledTerrain;
+import org.j3d.renderer.aviatrix3d.loader.AVModel;
+
+/**
+ * Unit tests for the memory mapped BT height field and the tiled mode of
+ * the BT loader
+ */
+public class BTHeightFieldTest
+{
+    private static final int NUM_COLUMNS = 40;
+    private static final int NUM_ROWS = 30;
+
+    @BeforeClass(groups = "unit")
+    public void setupClass() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication(getClass().getName(), "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit")
+    public void testFloatHeights() throws Exception
+    {
+        File file = writeFile("binterr1.3", 4, true, 2.5f, NUM_COLUMNS * NUM_ROWS);
+
+        try
+        {
+            BTHeightField class_under_test = new BTHeightField(file);
+
+            BTHeader header = class_under_test.getHeader();
+            assertEquals(header.version, BTVersion.VERSION_1_3, "Wrong version");
+            assertEquals(header.utmZone, 17, "Wrong UTM zone");
+            assertTrue(header.utmProjection, "Should be UTM");
+
+            assertEquals(class_under_test.getNumColumns(), NUM_COLUMNS, "Wrong column count");
+            assertEquals(class_under_test.getNumRows(), NUM_ROWS, "Wrong row count");
+            assertEquals(class_under_test.getColumnSpacing(), 10, 0.0001f, "Wrong column spacing");
+            assertEquals(class_under_test.getRowSpacing(), 5, 0.0001f, "Wrong row spacing");
+
+            for(int c = 0; c < NUM_COLUMNS; c++)
+            {
+                for(int r = 0; r < NUM_ROWS; r++)
+                    assertEquals(class_under_test.getHeight(c, r),
+                                 sampleHeight(c, r) * 2.5f,
+                                 0.0001f,
+                                 "Wrong height at " + c + ", " + r);
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testShortHeights() throws Exception
+    {
+        File file = writeFile("binterr1.2", 2, false, 0, NUM_COLUMNS * NUM_ROWS);
+
+        try
+        {
+            BTHeightField class_under_test = new BTHeightField(file);
+
+            assertEquals(class_under_test.getHeader().version,
+                         BTVersion.VERSION_1_2,
+                         "Wrong version");
+
+            for(int c = 0; c < NUM_COLUMNS; c++)
+            {
+                for(int r = 0; r < NUM_ROWS; r++)
+                    assertEquals(class_under_test.getHeight(c, r),
+                                 sampleHeight(c, r),
+                                 0.0001f,
+                                 "Wrong height at " + c + ", " + r);
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit", expectedExceptions = UnsupportedFormatException.class)
+    public void testOldVersionRejected() throws Exception
+    {
+        File file = writeFile("binterr1.0", 2, false, 0, NUM_COLUMNS * NUM_ROWS);
+
+        try
+        {
+            new BTHeightField(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit", expectedExceptions = IOException.class)
+    public void testTruncatedFile() throws Exception
+    {
+        File file = writeFile("binterr1.3", 4, true, 1, NUM_COLUMNS * NUM_ROWS - 1);
+
+        try
+        {
+            new BTHeightField(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testLoaderTiledMode() throws Exception
+    {
+        File file = writeFile("binterr1.3", 4, true, 1, NUM_COLUMNS * NUM_ROWS);
+
+        try
+        {
+            BTLoader class_under_test = new BTLoader();
+            class_under_test.setTiledMode(true);
+            class_under_test.setTileSize(8);
+            class_under_test.setTileMemoryBudget(1024);
+
+            assertTrue(class_under_test.isTiledMode(), "Tiled mode not set");
+
+            AVModel model = class_under_test.load(file);
+            Group root = model.getModelRoot();
+
+            assertEquals(root.numChildren(), 1, "Should be a single child");
+            assertTrue(root.getChild(0) instanceof TiledTerrain, "Child should be a tiled terrain");
+
+            TiledTerrain terrain = (TiledTerrain)root.getChild(0);
+            assertEquals(terrain.getTileSize(), 8, "Tile size not passed on");
+            assertEquals(terrain.getMemoryBudget(), 1024, "Memory budget not passed on");
+            assertEquals(terrain.getNumTiles(), 5 * 4, "Wrong tile count");
+            assertTrue(terrain.getHeightFieldSource() instanceof BTHeightField,
+                       "File should have been memory mapped");
+
+            assertNull(class_under_test.getHeights(), "Mapped heights should not be returned");
+            assertEquals(class_under_test.getHeader().columns, NUM_COLUMNS, "Wrong header");
+            assertEquals(class_under_test.getGridStep()[0], 10, 0.0001f, "Wrong grid step");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private float sampleHeight(int column, int row)
+    {
+        return column * 3 - row * 2 + 7;
+    }
+
+    /**
+     * Write a BT file of NUM_COLUMNS by NUM_ROWS covering 390 by 145 units,
+     * with only the given number of samples written out.
+     */
+    private File writeFile(String magic,
+                           int dataSize,
+                           boolean floatData,
+                           float verticalScale,
+                           int numSamples)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(256 + numSamples * dataSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.put(magic.getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(10, NUM_COLUMNS);
+        buffer.putInt(14, NUM_ROWS);
+        buffer.putShort(18, (short)dataSize);
+        buffer.putShort(20, (short)(floatData ? 1 : 0));
+        buffer.putShort(22, (short)1);
+        buffer.putShort(24, (short)17);
+        buffer.putShort(26, (short)6326);
+        buffer.putDouble(28, 1000);
+        buffer.putDouble(36, 1390);
+        buffer.putDouble(44, 2000);
+        buffer.putDouble(52, 2145);
+        buffer.putShort(60, (short)0);
+        buffer.putFloat(62, verticalScale);
+
+        int sample = 0;
+
+        for(int c = 0; c < NUM_COLUMNS && sample < numSamples; c++)
+        {
+            for(int r = 0; r < NUM_ROWS && sample < numSamples; r++)
+            {
+                int pos = 256 + sample * dataSize;
+
+                if(floatData)
+                    buffer.putFloat(pos, sampleHeight(c, r));
+                else
+                    buffer.putShort(pos, (short)sampleHeight(c, r));
+
+                sample++;
+            }
+        }
+
+        File ret_val = File.createTempFile("bt_test", ".bt");
+
+        try(FileOutputStream fos = new FileOutputStream(ret_val))
+        {
+            fos.write(buffer.array());
+        }
+
+        return ret_val;
+    }
+}
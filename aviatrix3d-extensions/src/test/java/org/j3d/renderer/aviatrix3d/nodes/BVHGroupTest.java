@@ -0,0 +1,353 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.nodes;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.j3d.maths.vector.AxisAngle4d;
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.maths.vector.Vector4d;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.BoundingBox;
+import org.j3d.aviatrix3d.BoundingVoid;
+import org.j3d.aviatrix3d.PickingUtils;
+import org.j3d.aviatrix3d.PointLight;
+import org.j3d.aviatrix3d.Shape3D;
+import org.j3d.aviatrix3d.picking.PickInstructions;
+import org.j3d.aviatrix3d.picking.PickRequest;
+import org.j3d.aviatrix3d.rendering.BoundingVolume;
+import org.j3d.aviatrix3d.rendering.CullInstructions;
+
+/**
+ * Unit tests for the bounding volume hierarchy group
+ */
+public class BVHGroupTest
+{
+    private static final int NUM_CHILDREN = 1000;
+
+    @Test(groups = "unit")
+    public void testBasicConstruction() throws Exception
+    {
+        BVHGroup class_under_test = new BVHGroup();
+
+        assertEquals(class_under_test.numChildren(), 0, "Should not have children");
+        assertEquals(class_under_test.getTreeHeight(), 0, "Empty tree should have no height");
+        assertTrue(class_under_test.getBounds() instanceof BoundingVoid,
+                   "Empty group should have void bounds");
+
+        CullInstructions output = new CullInstructions();
+        class_under_test.cullChildren(output,
+                                      createIdentity(),
+                                      createIdentity(),
+                                      createCubeFrustum(10),
+                                      0);
+
+        assertEquals(output.numChildren, 0, "Empty group culled children");
+    }
+
+    @Test(groups = "unit")
+    public void testCullMatchesChildBounds() throws Exception
+    {
+        Random rand = new Random(42);
+        Vector4d[] planes = createCubeFrustum(10);
+
+        BVHGroup class_under_test = new BVHGroup();
+        Shape3D[] children = createChildren(class_under_test, rand);
+
+        Matrix4d test_matrix = new Matrix4d();
+        AxisAngle4d rotation = new AxisAngle4d();
+
+        for(int i = 0; i < 20; i++)
+        {
+            rotation.set(rand.nextDouble(),
+                         rand.nextDouble(),
+                         rand.nextDouble() + 0.1,
+                         rand.nextDouble() * Math.PI * 2);
+            test_matrix.set(rotation);
+            test_matrix.m03 = rand.nextDouble() * 40 - 20;
+            test_matrix.m13 = rand.nextDouble() * 40 - 20;
+            test_matrix.m23 = rand.nextDouble() * 40 - 20;
+
+            checkCull(class_under_test, children, planes, test_matrix);
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testBalancedTree() throws Exception
+    {
+        BVHGroup class_under_test = new BVHGroup();
+
+        // Worst case for a naive incremental tree is sorted input
+        for(int i = 0; i < NUM_CHILDREN; i++)
+        {
+            Shape3D shape = new Shape3D();
+            shape.setBounds(new BoundingBox(new float[] { i, 0, 0 },
+                                            new float[] { i + 0.5f, 1, 1 }));
+
+            class_under_test.addChild(shape);
+        }
+
+        // log2(1000) is 10. A height balanced tree should be well within 2x.
+        int height = class_under_test.getTreeHeight();
+
+        assertTrue(height >= 10, "Tree too short to hold all children: " + height);
+        assertTrue(height <= 20, "Tree not balanced, height " + height);
+    }
+
+    @Test(groups = "unit")
+    public void testRemoveChildren() throws Exception
+    {
+        Random rand = new Random(1234);
+        Vector4d[] planes = createCubeFrustum(10);
+
+        BVHGroup class_under_test = new BVHGroup();
+        Shape3D[] children = createChildren(class_under_test, rand);
+
+        for(int i = 0; i < NUM_CHILDREN; i += 2)
+            class_under_test.removeChild(children[i]);
+
+        // Remaining ones are the odd children
+        Shape3D[] remaining = new Shape3D[NUM_CHILDREN / 2];
+        for(int i = 0; i < remaining.length; i++)
+            remaining[i] = children[i * 2 + 1];
+
+        assertEquals(class_under_test.numChildren(), remaining.length, "Wrong child count");
+
+        Matrix4d test_matrix = createIdentity();
+        checkCull(class_under_test, remaining, planes, test_matrix);
+
+        // Replace one with a new child
+        Shape3D new_child = new Shape3D();
+        new_child.setBounds(new BoundingBox(new float[] { -1, -1, -1 },
+                                            new float[] { 1, 1, 1 }));
+
+        class_under_test.setChild(new_child, 0);
+        remaining[0] = new_child;
+
+        checkCull(class_under_test, remaining, planes, test_matrix);
+
+        class_under_test.removeAllChildren();
+
+        CullInstructions output = new CullInstructions();
+        class_under_test.cullChildren(output, test_matrix, test_matrix, planes, 0);
+
+        assertEquals(output.numChildren, 0, "Children remain after removing all");
+        assertEquals(class_under_test.getTreeHeight(), 0, "Tree remains after removing all");
+    }
+
+    @Test(groups = "unit")
+    public void testChildBoundsUpdate() throws Exception
+    {
+        Vector4d[] planes = createCubeFrustum(10);
+        Matrix4d test_matrix = createIdentity();
+
+        BVHGroup class_under_test = new BVHGroup();
+
+        Shape3D[] children = new Shape3D[100];
+        for(int i = 0; i < children.length; i++)
+        {
+            children[i] = new Shape3D();
+            children[i].setBounds(new BoundingBox(new float[] { -1, -1, i },
+                                                  new float[] { 1, 1, i + 1 }));
+            class_under_test.addChild(children[i]);
+        }
+
+        class_under_test.requestBoundsUpdate();
+
+        // Move the last child out past the others and make sure both the
+        // culling and the group bounds follow it.
+        Shape3D moving_child = children[children.length - 1];
+        moving_child.setBounds(new BoundingBox(new float[] { -1, -1, 500 },
+                                               new float[] { 1, 1, 501 }));
+
+        class_under_test.childBoundsUpdated(moving_child);
+
+        float[] min = new float[3];
+        float[] max = new float[3];
+        class_under_test.getBounds().getExtents(min, max);
+
+        assertEquals(max[2], 501f, "Group bounds did not grow to the moved child");
+
+        checkCull(class_under_test, children, planes, test_matrix);
+
+        // Now back into the frustum
+        moving_child.setBounds(new BoundingBox(new float[] { -1, -1, 0 },
+                                               new float[] { 1, 1, 1 }));
+
+        class_under_test.childBoundsUpdated(moving_child);
+
+        class_under_test.getBounds().getExtents(min, max);
+
+        assertEquals(max[2], 99f, "Group bounds did not shrink after move");
+
+        checkCull(class_under_test, children, planes, test_matrix);
+    }
+
+    @Test(groups = "unit")
+    public void testUnindexedChildren() throws Exception
+    {
+        Vector4d[] planes = createCubeFrustum(10);
+        Matrix4d test_matrix = createIdentity();
+
+        BVHGroup class_under_test = new BVHGroup();
+
+        Shape3D far_shape = new Shape3D();
+        far_shape.setBounds(new BoundingBox(new float[] { 100, 100, 100 },
+                                            new float[] { 101, 101, 101 }));
+
+        PointLight light = new PointLight();
+
+        class_under_test.addChild(far_shape);
+        class_under_test.addChild(light);
+
+        CullInstructions output = new CullInstructions();
+        class_under_test.cullChildren(output, test_matrix, test_matrix, planes, 0);
+
+        assertEquals(output.numChildren, 1, "Light should always be passed through");
+        assertSame(output.children[0], light, "Wrong child passed through");
+    }
+
+    @Test(groups = "unit")
+    public void testPickMatchesChildBounds() throws Exception
+    {
+        Random rand = new Random(99);
+
+        BVHGroup class_under_test = new BVHGroup();
+        Shape3D[] children = createChildren(class_under_test, rand);
+
+        PickingUtils pick_utils = new PickingUtils();
+        PickRequest request = new PickRequest();
+        request.pickGeometryType = PickRequest.PICK_RAY;
+
+        Matrix4d test_matrix = createIdentity();
+
+        for(int i = 0; i < 20; i++)
+        {
+            request.origin[0] = rand.nextFloat() * 40 - 20;
+            request.origin[1] = rand.nextFloat() * 40 - 20;
+            request.origin[2] = 50;
+
+            request.destination[0] = rand.nextFloat() - 0.5f;
+            request.destination[1] = rand.nextFloat() - 0.5f;
+            request.destination[2] = -1;
+
+            Set<Object> expected = new HashSet<>();
+            for(Shape3D child : children)
+            {
+                if(pick_utils.checkIntersection(child.getBounds(), request))
+                    expected.add(child);
+            }
+
+            PickInstructions output = new PickInstructions();
+            class_under_test.pickChildren(output, test_matrix, request);
+
+            Set<Object> found = new HashSet<>();
+            for(int j = 0; j < output.numChildren; j++)
+                found.add(output.children[j]);
+
+            assertFalse(output.hasTransform, "Group should not have a transform");
+            assertEquals(found, expected, "Picked children differ for ray " + i);
+        }
+    }
+
+    /**
+     * Cull the group and compare the output to testing every child directly.
+     */
+    private void checkCull(BVHGroup group,
+                           Shape3D[] children,
+                           Vector4d[] planes,
+                           Matrix4d mat)
+    {
+        Set<Object> expected = new HashSet<>();
+
+        for(Shape3D child : children)
+        {
+            BoundingVolume bds = child.getBounds();
+
+            if(bds.checkIntersectionFrustum(planes, mat) != BoundingVolume.FRUSTUM_ALLOUT)
+                expected.add(child);
+        }
+
+        CullInstructions output = new CullInstructions();
+        group.cullChildren(output, mat, mat, planes, 0);
+
+        Set<Object> found = new HashSet<>();
+        for(int i = 0; i < output.numChildren; i++)
+            found.add(output.children[i]);
+
+        assertEquals(output.numChildren, found.size(), "Child returned more than once");
+        assertEquals(found, expected, "Culled children differ from direct test");
+    }
+
+    /**
+     * Fill the group with shapes with random bounds.
+     */
+    private Shape3D[] createChildren(BVHGroup group, Random rand)
+    {
+        Shape3D[] ret_val = new Shape3D[NUM_CHILDREN];
+        float[] min = new float[3];
+        float[] max = new float[3];
+
+        for(int i = 0; i < NUM_CHILDREN; i++)
+        {
+            for(int j = 0; j < 3; j++)
+            {
+                min[j] = rand.nextFloat() * 60 - 30;
+                max[j] = min[j] + rand.nextFloat() * 3;
+            }
+
+            ret_val[i] = new Shape3D();
+            ret_val[i].setBounds(new BoundingBox(min, max));
+
+            group.addChild(ret_val[i]);
+        }
+
+        return ret_val;
+    }
+
+    private Matrix4d createIdentity()
+    {
+        Matrix4d ret_val = new Matrix4d();
+        ret_val.setIdentity();
+
+        return ret_val;
+    }
+
+    /**
+     * Create a set of frustum planes describing a cube centred on the origin,
+     * with the normals pointing inwards.
+     */
+    private Vector4d[] createCubeFrustum(double halfSize)
+    {
+        Vector4d[] ret_val = new Vector4d[6];
+
+        for(int i = 0; i < 6; i++)
+            ret_val[i] = new Vector4d();
+
+        ret_val[0].set(-1, 0, 0, halfSize);
+        ret_val[1].set(1, 0, 0, halfSize);
+        ret_val[2].set(0, 1, 0, halfSize);
+        ret_val[3].set(0, -1, 0, halfSize);
+        ret_val[4].set(0, 0, -1, halfSize);
+        ret_val[5].set(0, 0, 1, halfSize);
+
+        return ret_val;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.nodes;
+
+// External imports
+import java.nio.FloatBuffer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+// Local imports
+import org.j3d.aviatrix3d.BoundingBox;
+import org.j3d.aviatrix3d.BoundingSphere;
+import org.j3d.aviatrix3d.rendering.BoundingVolume;
+
+/**
+ * Unit tests for the bounds handling of the buffer geometry base class
+ */
+public class BufferGeometryTest
+{
+    /** Vertices of a quad whose first vertex is the minimum corner */
+    private static final float[] QUAD_COORDS =
+    {
+        -1, -2, -3,
+         2,  1,  0,
+         3,  4,  5,
+         0,  0,  1
+    };
+
+    @Test(groups = "unit")
+    public void testImplicitBoundsRecomputed() throws Exception
+    {
+        QuadArray class_under_test = new QuadArray();
+        class_under_test.setVertices(BufferGeometry.COORDINATE_3,
+                                     FloatBuffer.wrap(QUAD_COORDS),
+                                     4);
+
+        BoundingVolume bounds = class_under_test.getBounds();
+        assertTrue(bounds instanceof BoundingBox, "Implicit bounds should be a box");
+
+        float[] min = new float[3];
+        float[] max = new float[3];
+        ((BoundingBox)bounds).getMinimum(min);
+        ((BoundingBox)bounds).getMaximum(max);
+
+        assertEquals(min, new float[] { -1, -2, -3 }, "Wrong implicit minimum");
+        assertEquals(max, new float[] { 3, 4, 5 }, "Wrong implicit maximum");
+
+        // Replace the vertices and check the box follows them
+        float[] moved = new float[QUAD_COORDS.length];
+        for(int i = 0; i < moved.length; i++)
+            moved[i] = QUAD_COORDS[i] + 10;
+
+        class_under_test.setVertices(BufferGeometry.COORDINATE_3,
+                                     FloatBuffer.wrap(moved),
+                                     4);
+        class_under_test.recomputeBounds();
+
+        ((BoundingBox)class_under_test.getBounds()).getMinimum(min);
+        ((BoundingBox)class_under_test.getBounds()).getMaximum(max);
+
+        assertEquals(min, new float[] { 9, 8, 7 }, "Implicit minimum not recomputed");
+        assertEquals(max, new float[] { 13, 14, 15 }, "Implicit maximum not recomputed");
+    }
+
+    @Test(groups = "unit")
+    public void testExplicitBoundsKept() throws Exception
+    {
+        QuadArray class_under_test = new QuadArray();
+        class_under_test.setVertices(BufferGeometry.COORDINATE_3,
+                                     FloatBuffer.wrap(QUAD_COORDS),
+                                     4);
+
+        BoundingSphere explicit = new BoundingSphere();
+        class_under_test.setBounds(explicit);
+        class_under_test.recomputeBounds();
+
+        assertSame(class_under_test.getBounds(), explicit,
+                   "Explicit bounds should not be replaced by a recompute");
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.texture;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+import org.j3d.util.ErrorReporter;
+import org.j3d.util.I18nManager;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.*;
+
+/**
+ * Unit tests for the background texture loader
+ */
+public class AsyncTextureLoaderTest
+{
+    /** How long to wait for a background load before failing */
+    private static final long TIMEOUT = 10000;
+
+    /** The loader under test */
+    private AsyncTextureLoader class_under_test;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("AsyncTextureLoaderTest", "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+
+        class_under_test = new AsyncTextureLoader(2);
+    }
+
+    @AfterMethod(groups = "unit")
+    public void shutdownLoader() throws Exception
+    {
+        class_under_test.shutdown();
+    }
+
+    @Test(groups = "unit")
+    public void testLoadWithPlaceholder() throws Exception
+    {
+        File file = writeImage(32);
+
+        try
+        {
+            class_under_test.setPlaceholder(createPlaceholder());
+
+            Texture2D tex = class_under_test.requestTexture(file.toURI().toURL(), 10);
+
+            assertEquals(tex.getWidth(), 1, "Placeholder not used");
+
+            waitForCompleted(1);
+
+            assertEquals(class_under_test.getQueueDepth(), 0, "Request still queued");
+            assertEquals(class_under_test.publishCompleted(0), 1, "Wrong publish count");
+            assertEquals(tex.getWidth(), 32, "Image not applied");
+            assertEquals(tex.getHeight(), 16, "Wrong height applied");
+            assertEquals(class_under_test.getCompletedCount(), 1, "Wrong completed count");
+            assertEquals(class_under_test.getCompletedQueueDepth(), 0, "Completed queue not drained");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testPublishLimit() throws Exception
+    {
+        File file = writeImage(32);
+
+        try
+        {
+            URL url = file.toURI().toURL();
+            Texture2D tex_1 = class_under_test.requestTexture(url, 1);
+            Texture2D tex_2 = class_under_test.requestTexture(url, 2);
+
+            waitForCompleted(2);
+
+            assertEquals(class_under_test.publishCompleted(1), 1, "Limit not applied");
+            assertEquals(class_under_test.publishCompleted(1), 1, "Second not published");
+            assertEquals(class_under_test.publishCompleted(1), 0, "Nothing left to publish");
+
+            assertEquals(tex_1.getWidth(), 32, "First texture not loaded");
+            assertEquals(tex_2.getWidth(), 32, "Second texture not loaded");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testReplacedRequest() throws Exception
+    {
+        File small = writeImage(32);
+        File large = writeImage(64);
+
+        try
+        {
+            Texture2D tex = new Texture2D();
+
+            class_under_test.requestTexture(small.toURI().toURL(), tex, 1);
+            class_under_test.requestTexture(large.toURI().toURL(), tex, 1);
+
+            long end = System.currentTimeMillis() + TIMEOUT;
+
+            while(tex.getWidth() != 64 && System.currentTimeMillis() < end)
+            {
+                class_under_test.publishCompleted(0);
+                Thread.sleep(5);
+            }
+
+            assertEquals(tex.getWidth(), 64, "Latest request not applied");
+            assertEquals(class_under_test.getCompletedCount(), 1, "Replaced request applied");
+        }
+        finally
+        {
+            small.delete();
+            large.delete();
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testFailedLoad() throws Exception
+    {
+        class_under_test.setErrorReporter(new QuietReporter());
+        class_under_test.setPlaceholder(createPlaceholder());
+
+        File missing = new File(System.getProperty("java.io.tmpdir"),
+                                "no-such-async-texture.png");
+
+        Texture2D tex = class_under_test.requestTexture(missing.toURI().toURL(), 0);
+
+        long end = System.currentTimeMillis() + TIMEOUT;
+
+        while(class_under_test.getFailedCount() == 0 &&
+              System.currentTimeMillis() < end)
+            Thread.sleep(5);
+
+        assertEquals(class_under_test.getFailedCount(), 1, "Failure not counted");
+        assertEquals(class_under_test.publishCompleted(0), 0, "Failed load published");
+        assertEquals(tex.getWidth(), 1, "Placeholder lost");
+    }
+
+    @Test(groups = "unit")
+    public void testSharedThroughCache() throws Exception
+    {
+        File file = writeImage(32);
+
+        try
+        {
+            BudgetTextureCache cache = new BudgetTextureCache();
+            class_under_test.setTextureCache(cache);
+
+            URL url = file.toURI().toURL();
+
+            class_under_test.requestTexture(url, 0);
+            waitForCompleted(1);
+            class_under_test.publishCompleted(0);
+
+            assertTrue(cache.checkTextureComponent(url.toExternalForm()),
+                       "Loaded image not registered with the cache");
+
+            class_under_test.requestTexture(url, 0);
+            waitForCompleted(1);
+            class_under_test.publishCompleted(0);
+
+            assertEquals(cache.getHitCount(), 1, "Cached image not used");
+            assertEquals(cache.getLoadCount(), 0, "Cache loaded the image itself");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Wait until the given number of loads are waiting to be published.
+     */
+    private void waitForCompleted(int count) throws Exception
+    {
+        long end = System.currentTimeMillis() + TIMEOUT;
+
+        while(class_under_test.getCompletedQueueDepth() < count &&
+              System.currentTimeMillis() < end)
+            Thread.sleep(5);
+
+        assertEquals(class_under_test.getCompletedQueueDepth(), count, "Loads did not complete");
+    }
+
+    /**
+     * Create a 1x1 RGB placeholder.
+     */
+    private TextureComponent2D createPlaceholder()
+    {
+        return new ByteTextureComponent2D(TextureComponent.FORMAT_RGB,
+                                          1,
+                                          1,
+                                          new byte[3]);
+    }
+
+    /**
+     * Write an image of the given width and a height of 16 out to a
+     * temporary PNG file.
+     */
+    private File writeImage(int width) throws Exception
+    {
+        BufferedImage img = new BufferedImage(width, 16, BufferedImage.TYPE_INT_RGB);
+
+        for(int x = 0; x < width; x++)
+        {
+            for(int y = 0; y < 16; y++)
+                img.setRGB(x, y, (x * 4) << 16 | (y * 16) << 8);
+        }
+
+        File file = File.createTempFile("asynctex", ".png");
+        ImageIO.write(img, "png", file);
+
+        return file;
+    }
+
+    /**
+     * Reporter that keeps the expected failure out of the test output.
+     */
+    private static class QuietReporter implements ErrorReporter
+    {
+        @Override
+        public void partialReport(String msg)
+        {
+        }
+
+        @Override
+        public void messageReport(String msg)
+        {
+        }
+
+        @Override
+        public void warningReport(String msg, Exception e)
+        {
+        }
+
+        @Override
+        public void errorReport(String msg, Exception e)
+        {
+        }
+
+        @Override
+        public void fatalErrorReport(String msg, Exception e)
+        {
+        }
+    }
+}
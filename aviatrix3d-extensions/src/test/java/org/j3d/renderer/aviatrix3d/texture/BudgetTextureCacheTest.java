@@ -0,0 +1,287 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.texture;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.*;
+
+/**
+ * Unit tests for the byte budgeted texture cache
+ */
+public class BudgetTextureCacheTest
+{
+    /** Size of the test components, 16x16 RGB */
+    private static final int COMPONENT_SIZE = 16 * 16 * 3;
+
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("BudgetTextureCacheTest", "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit")
+    public void testBasicConstruction() throws Exception
+    {
+        BudgetTextureCache class_under_test = new BudgetTextureCache();
+
+        assertEquals(class_under_test.getMemoryBudget(),
+                     BudgetTextureCache.DEFAULT_MEMORY_BUDGET,
+                     "Wrong default budget");
+        assertEquals(class_under_test.getMemoryUsed(), 0, "Should start empty");
+        assertEquals(class_under_test.getEntryCount(), 0, "Should have no entries");
+        assertEquals(class_under_test.getHitCount(), 0, "Should have no hits");
+        assertEquals(class_under_test.getMissCount(), 0, "Should have no misses");
+        assertEquals(class_under_test.getEvictionCount(), 0, "Should have no evictions");
+    }
+
+    @Test(groups = "unit")
+    public void testFactoryType() throws Exception
+    {
+        AVTextureCache cache =
+            AVTextureCacheFactory.getCache(AVTextureCacheFactory.BUDGET_CACHE);
+
+        assertTrue(cache instanceof BudgetTextureCache, "Wrong cache type");
+        assertSame(AVTextureCacheFactory.getCache(AVTextureCacheFactory.BUDGET_CACHE),
+                   cache,
+                   "Cache not shared");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testCannotRegisterOverBudgetType() throws Exception
+    {
+        AVTextureCacheFactory.registerCacheType(AVTextureCacheFactory.BUDGET_CACHE,
+                                                new BudgetTextureCache());
+    }
+
+    @Test(groups = "unit")
+    public void testCustomTypeAfterLastId() throws Exception
+    {
+        int custom_type = AVTextureCacheFactory.LAST_CACHE_ID + 1;
+        AVTextureCache custom_cache = new BudgetTextureCache();
+
+        assertNotEquals(custom_type,
+                        AVTextureCacheFactory.BUDGET_CACHE,
+                        "Budget cache uses a custom ID");
+
+        AVTextureCacheFactory.registerCacheType(custom_type, custom_cache);
+
+        try
+        {
+            assertSame(AVTextureCacheFactory.getCache(custom_type),
+                       custom_cache,
+                       "Custom cache not registered");
+        }
+        finally
+        {
+            AVTextureCacheFactory.registerCacheType(custom_type, null);
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testEvictByBytes() throws Exception
+    {
+        BudgetTextureCache class_under_test = new BudgetTextureCache();
+        class_under_test.setMemoryBudget(COMPONENT_SIZE * 3);
+
+        for(int i = 0; i < 3; i++)
+            class_under_test.registerTextureComponent(createComponent(), "tex" + i);
+
+        assertEquals(class_under_test.getMemoryUsed(), COMPONENT_SIZE * 3, "Wrong memory used");
+        assertEquals(class_under_test.getEvictionCount(), 0, "Evicted while under budget");
+
+        // Use the oldest so that the next one becomes the eviction target
+        assertNotNull(class_under_test.fetchTextureComponent("tex0"), "Lost component");
+        assertEquals(class_under_test.getHitCount(), 1, "Fetch not a hit");
+
+        class_under_test.registerTextureComponent(createComponent(), "tex3");
+
+        assertEquals(class_under_test.getEvictionCount(), 1, "Wrong eviction count");
+        assertEquals(class_under_test.getEntryCount(), 3, "Wrong entry count");
+        assertEquals(class_under_test.getMemoryUsed(), COMPONENT_SIZE * 3, "Wrong memory after eviction");
+
+        assertTrue(class_under_test.checkTextureComponent("tex0"), "Recently used entry evicted");
+        assertFalse(class_under_test.checkTextureComponent("tex1"), "Least recently used entry kept");
+        assertTrue(class_under_test.checkTextureComponent("tex2"), "Wrong entry evicted");
+        assertTrue(class_under_test.checkTextureComponent("tex3"), "New entry evicted");
+
+        class_under_test.setMemoryBudget(COMPONENT_SIZE);
+
+        assertEquals(class_under_test.getEntryCount(), 1, "Lower budget not applied");
+        assertEquals(class_under_test.getEvictionCount(), 3, "Wrong eviction count after budget change");
+
+        class_under_test.releaseTexture("tex3");
+
+        assertEquals(class_under_test.getMemoryUsed(), 0, "Release did not free memory");
+        assertEquals(class_under_test.getEvictionCount(), 3, "Release counted as an eviction");
+    }
+
+    @Test(groups = "unit")
+    public void testOversizeEntryKept() throws Exception
+    {
+        BudgetTextureCache class_under_test = new BudgetTextureCache();
+        class_under_test.setMemoryBudget(COMPONENT_SIZE / 2);
+
+        class_under_test.registerTextureComponent(createComponent(), "big");
+
+        assertTrue(class_under_test.checkTextureComponent("big"), "Oversize entry not kept");
+
+        class_under_test.registerTextureComponent(createComponent(), "big2");
+
+        assertFalse(class_under_test.checkTextureComponent("big"), "Old oversize entry not evicted");
+        assertTrue(class_under_test.checkTextureComponent("big2"), "New oversize entry not kept");
+    }
+
+    @Test(groups = "unit")
+    public void testFetchFromFile() throws Exception
+    {
+        File file = writeImage();
+
+        try
+        {
+            BudgetTextureCache class_under_test = new BudgetTextureCache();
+            URL url = file.toURI().toURL();
+
+            Texture tex = class_under_test.fetchTexture(url);
+
+            assertNotNull(tex, "No texture created");
+            assertTrue(tex instanceof Texture2D, "Wrong texture type");
+            assertEquals(tex.getWidth(), 32, "Wrong texture width");
+            assertEquals(class_under_test.getMissCount(), 1, "Wrong miss count");
+            assertEquals(class_under_test.getLoadCount(), 1, "Wrong load count");
+            assertTrue(class_under_test.getMemoryUsed() >= 32 * 16 * 3, "Size not estimated");
+
+            assertSame(class_under_test.fetchTexture(url), tex, "Texture not cached");
+            assertTrue(class_under_test.checkTextureComponent(url.toExternalForm()),
+                       "Component not cached with the texture");
+            assertEquals(class_under_test.getHitCount(), 1, "Wrong hit count");
+            assertEquals(class_under_test.getLoadCount(), 1, "Loaded again");
+
+            class_under_test.resetStatistics();
+            assertEquals(class_under_test.getHitCount(), 0, "Hits not reset");
+            assertEquals(class_under_test.getEntryCount(), 1, "Reset changed the entries");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(groups = "unit", expectedExceptions = FileNotFoundException.class)
+    public void testMissingFile() throws Exception
+    {
+        BudgetTextureCache class_under_test = new BudgetTextureCache();
+
+        class_under_test.fetchTexture("no/such/texture/file.png");
+    }
+
+    @Test(groups = "unit")
+    public void testConcurrentFetchLoadsOnce() throws Exception
+    {
+        File file = writeImage();
+        int num_threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(num_threads);
+
+        try
+        {
+            final BudgetTextureCache class_under_test = new BudgetTextureCache();
+            final URL url = file.toURI().toURL();
+            final CountDownLatch start = new CountDownLatch(1);
+
+            @SuppressWarnings("unchecked")
+            Future<Texture>[] results = new Future[num_threads];
+
+            for(int i = 0; i < num_threads; i++)
+            {
+                results[i] = executor.submit(new Callable<Texture>()
+                {
+                    @Override
+                    public Texture call() throws Exception
+                    {
+                        start.await();
+                        return class_under_test.fetchTexture(url);
+                    }
+                });
+            }
+
+            start.countDown();
+
+            Texture first = results[0].get();
+            assertNotNull(first, "No texture");
+
+            for(int i = 1; i < num_threads; i++)
+                assertSame(results[i].get(), first, "Threads got different textures");
+
+            assertEquals(class_under_test.getLoadCount(), 1, "Image loaded more than once");
+            assertEquals(class_under_test.getHitCount() + class_under_test.getMissCount(),
+                         num_threads,
+                         "Not every fetch counted");
+        }
+        finally
+        {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    /**
+     * Create a 16x16 RGB component.
+     */
+    private TextureComponent2D createComponent()
+    {
+        byte[] pixels = new byte[COMPONENT_SIZE];
+
+        return new ByteTextureComponent2D(TextureComponent.FORMAT_RGB,
+                                          16,
+                                          16,
+                                          pixels);
+    }
+
+    /**
+     * Write a 32x16 image out to a temporary PNG file.
+     */
+    private File writeImage() throws Exception
+    {
+        BufferedImage img = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+
+        for(int x = 0; x < 32; x++)
+        {
+            for(int y = 0; y < 16; y++)
+                img.setRGB(x, y, (x * 8) << 16 | (y * 16) << 8);
+        }
+
+        File file = File.createTempFile("texcache", ".png");
+        ImageIO.write(img, "png", file);
+
+        return file;
+    }
+}
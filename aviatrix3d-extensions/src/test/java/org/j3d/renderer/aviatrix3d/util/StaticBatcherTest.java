@@ -0,0 +1,196 @@
+/*
+ * **************************************************************************
+ *                        Copyright j3d.org (c) 2000 - ${year}
+ *                               Java Source
+ *
+ * This source is licensed under the GNU LGPL v2.1
+ * Please read docs/lgpl.txt for more information
+ *
+ * This software comes with the standard NO WARRANTY disclaimer for any
+ * purpose. Use it at your own risk. If there's a problem you get to fix it.
+ *
+ * **************************************************************************
+ */
+
+package org.j3d.renderer.aviatrix3d.util;
+
+import org.j3d.maths.vector.Matrix4d;
+import org.j3d.util.I18nManager;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+import org.j3d.aviatrix3d.*;
+
+/**
+ * Unit tests for the static geometry batcher
+ */
+public class StaticBatcherTest
+{
+    @BeforeMethod(groups = "unit")
+    public void setupTests() throws Exception
+    {
+        I18nManager intl_mgr = I18nManager.getManager();
+        intl_mgr.setApplication("StaticBatcherTest", "config.i18n.org-j3d-aviatrix3d-resources-extensions");
+    }
+
+    @Test(groups = "unit")
+    public void testMergeByAppearance() throws Exception
+    {
+        Appearance app_1 = new Appearance();
+        Appearance app_2 = new Appearance();
+
+        Material mat = new Material();
+        mat.setDiffuseColor(new float[] { 1, 0, 0 });
+        Appearance other_app = new Appearance();
+        other_app.setMaterial(mat);
+
+        TransformGroup tg = new TransformGroup(createTranslation(10, 0, 0));
+        tg.addChild(createShape(app_1, false));
+        tg.addChild(createShape(app_2, true));
+
+        Group root = new Group();
+        root.addChild(tg);
+        root.addChild(createShape(app_1, false));
+        root.addChild(createShape(other_app, false));
+
+        StaticBatcher class_under_test = new StaticBatcher();
+
+        assertEquals(class_under_test.batch(root), 1, "Wrong number of batches");
+        assertEquals(class_under_test.getMergedShapeCount(), 3, "Wrong merged count");
+        assertEquals(class_under_test.getDrawCallsBefore(), 4, "Wrong draw calls before");
+        assertEquals(class_under_test.getDrawCallsAfter(), 2, "Wrong draw calls after");
+        assertTrue(class_under_test.getMemoryBefore() > 0, "No memory before");
+        assertTrue(class_under_test.getMemoryAfter() > 0, "No memory after");
+
+        assertEquals(tg.numChildren(), 0, "Shapes not removed from transform");
+
+        // Transform, unmerged shape, then the new batch
+        assertEquals(root.numChildren(), 3, "Wrong number of root children");
+
+        Shape3D batch = (Shape3D)root.getChild(2);
+        IndexedTriangleArray geom = (IndexedTriangleArray)batch.getGeometry();
+
+        assertEquals(geom.getValidVertexCount(), 9, "Wrong merged vertex count");
+        assertEquals(geom.getValidIndexCount(), 9, "Wrong merged index count");
+        assertTrue(geom.hasNormals(), "Normals not merged");
+
+        float[] coords = new float[27];
+        geom.getVertices(coords);
+
+        assertEquals(coords[0], 10f, "Transform not baked into first shape");
+        assertEquals(coords[3], 11f, "Transform not baked into first shape");
+        assertEquals(coords[12], 11f, "Transform not baked into second shape");
+        assertEquals(coords[18], 0f, "Untransformed shape moved");
+
+        int[] indices = new int[9];
+        geom.getIndices(indices);
+
+        assertEquals(indices[3], 3, "Second shape not offset");
+        assertEquals(indices[6], 6, "Third shape not offset");
+    }
+
+    @Test(groups = "unit")
+    public void testMirrorFlipsWinding() throws Exception
+    {
+        Matrix4d mirror = new Matrix4d();
+        mirror.setIdentity();
+        mirror.m00 = -1;
+
+        TransformGroup tg = new TransformGroup(mirror);
+        tg.addChild(createShape(null, false));
+        tg.addChild(createShape(null, false));
+
+        Group root = new Group();
+        root.addChild(tg);
+
+        StaticBatcher class_under_test = new StaticBatcher();
+        class_under_test.batch(root);
+
+        IndexedTriangleArray geom =
+            (IndexedTriangleArray)((Shape3D)root.getChild(1)).getGeometry();
+
+        int[] indices = new int[6];
+        geom.getIndices(indices);
+
+        assertEquals(indices[0], 0, "Wrong first index");
+        assertEquals(indices[1], 2, "Winding not flipped");
+        assertEquals(indices[2], 1, "Winding not flipped");
+
+        float[] normals = new float[18];
+        geom.getNormals(normals);
+
+        assertEquals(normals[2], 1f, 0.0001f, "Normal should not be mirrored in Z");
+    }
+
+    @Test(groups = "unit")
+    public void testVertexLimit() throws Exception
+    {
+        Group root = new Group();
+
+        for(int i = 0; i < 5; i++)
+            root.addChild(createShape(null, false));
+
+        StaticBatcher class_under_test = new StaticBatcher();
+        class_under_test.setMaxVertices(6);
+
+        assertEquals(class_under_test.getMaxVertices(), 6, "Limit not set");
+
+        // Two full batches, leaving a single shape unmerged
+        assertEquals(class_under_test.batch(root), 2, "Wrong number of batches");
+        assertEquals(class_under_test.getDrawCallsAfter(), 3, "Wrong draw calls after");
+        assertEquals(root.numChildren(), 3, "Wrong root children");
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidVertexLimit() throws Exception
+    {
+        StaticBatcher class_under_test = new StaticBatcher();
+        class_under_test.setMaxVertices(2);
+    }
+
+    /**
+     * Create a shape with a single triangle facing +Z.
+     */
+    private Shape3D createShape(Appearance app, boolean indexed)
+    {
+        float[] coords = { 0, 0, 0, 1, 0, 0, 0, 1, 0 };
+        float[] normals = { 0, 0, 1, 0, 0, 1, 0, 0, 1 };
+
+        VertexGeometry geom;
+
+        if(indexed)
+        {
+            IndexedTriangleArray itri = new IndexedTriangleArray();
+            itri.setVertices(VertexGeometry.COORDINATE_3, coords);
+            itri.setIndices(new int[] { 0, 1, 2 }, 3);
+            geom = itri;
+        }
+        else
+        {
+            TriangleArray tri = new TriangleArray();
+            tri.setVertices(VertexGeometry.COORDINATE_3, coords);
+            geom = tri;
+        }
+
+        geom.setNormals(normals);
+
+        Shape3D ret_val = new Shape3D();
+        ret_val.setGeometry(geom);
+        ret_val.setAppearance(app);
+
+        return ret_val;
+    }
+
+    private Matrix4d createTranslation(double x, double y, double z)
+    {
+        Matrix4d ret_val = new Matrix4d();
+        ret_val.setIdentity();
+        ret_val.m03 = x;
+        ret_val.m13 = y;
+        ret_val.m23 = z;
+
+        return ret_val;
+    }
+}